@@ -16,6 +16,7 @@ import java.awt.event.WindowEvent;
 import java.awt.event.WindowListener;
 import java.util.BitSet;
 import java.util.Vector;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.swing.event.EventListenerList;
 
@@ -102,7 +103,9 @@ public abstract class AlgorithmBase extends Thread implements ActionListener, Wi
     protected boolean multiThreadingEnabled;
     
     /**
-     * The number of threads will be used to execute the algorithm if multi-threading is enabled 
+     * The number of threads will be used to execute the algorithm if multi-threading is enabled. Defaults to the
+     * numberOfThreads preference, and is limited to the share of that preference left by the algorithms already
+     * running while run() runs the algorithm.
      */
     protected int nthreads;
     
@@ -117,7 +120,7 @@ public abstract class AlgorithmBase extends Thread implements ActionListener, Wi
         this.srcImage = null;
         destFlag = false;
         threadStopped = false;
-        nthreads = ThreadUtil.getAvailableCores();
+        nthreads = Preferences.getNumberOfThreads();
         multiThreadingEnabled = Preferences.isMultiThreadingEnabled();
     }
 
@@ -139,7 +142,7 @@ public abstract class AlgorithmBase extends Thread implements ActionListener, Wi
         }
 
         threadStopped = false;
-        nthreads = ThreadUtil.getAvailableCores();
+        nthreads = Preferences.getNumberOfThreads();
         multiThreadingEnabled = Preferences.isMultiThreadingEnabled();
     }
 
@@ -595,8 +598,18 @@ public abstract class AlgorithmBase extends Thread implements ActionListener, Wi
      * invoked without a new thread by calling the the run() method directly (ie. object.run()).
      */
     public void run() {
-        setStartTime();
-        runAlgorithm();
+        final int requested = nthreads;
+
+        ThreadUtil.beginJob();
+        nthreads = Math.min(requested, ThreadUtil.getFairShare(Preferences.getNumberOfThreads()));
+
+        try {
+            setStartTime();
+            runAlgorithm();
+        } finally {
+            ThreadUtil.endJob();
+            nthreads = requested;
+        }
 
         if(threadStopped){
         	return;
@@ -608,6 +621,53 @@ public abstract class AlgorithmBase extends Thread implements ActionListener, Wi
         /// finalize();
     }
 
+    /**
+     * Runs task for every index from 0 to count - 1, for algorithms that split their work into slices or blocks. The
+     * tasks run on the shared compute pool, at most nthreads at once, when multi-threading is enabled, and in order on
+     * the calling thread otherwise. Tasks that have not started when the algorithm is stopped are skipped. The progress bar moves from
+     * progressStart to progressEnd as the tasks end.
+     *
+     * @param   count          number of tasks
+     * @param   task           the task, which must be safe to run concurrently for different indices
+     * @param   progressStart  progress value before the first task
+     * @param   progressEnd    progress value once all tasks are done
+     *
+     * @return  false if the algorithm was stopped before all the tasks ran
+     */
+    protected boolean runParallel(final int count, final ThreadUtil.IndexedTask task, final int progressStart,
+            final int progressEnd) {
+        final AtomicInteger done = new AtomicInteger();
+        final AtomicInteger shown = new AtomicInteger(progressStart);
+        final ThreadUtil.IndexedTask body = new ThreadUtil.IndexedTask() {
+            public void run(int index) {
+
+                if (threadStopped) {
+                    return;
+                }
+
+                task.run(index);
+
+                final int value = progressStart + (int) (((long) (progressEnd - progressStart) * done.incrementAndGet()) / count);
+                final int last = shown.get();
+
+                if ((value != last) && shown.compareAndSet(last, value)) {
+                    fireProgressStateChanged(value);
+                }
+            }
+        };
+
+        if (multiThreadingEnabled && (nthreads > 1)) {
+            ThreadUtil.parallelFor(count, nthreads, body);
+        } else {
+
+            for (int i = 0; i < count; i++) {
+                body.run(i);
+            }
+        }
+
+        return !threadStopped;
+    }
+
 
     /**
      * Sets completed to flag indicating if algorithm has sucessfully completed.
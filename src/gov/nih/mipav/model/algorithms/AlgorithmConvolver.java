@@ -3560,7 +3560,7 @@ public class AlgorithmConvolver extends AlgorithmBase {
 
     			}
     			try {
-    				doneSignal.await();
+    				ThreadUtil.await(doneSignal);
     			} catch (InterruptedException e) {
     				e.printStackTrace();
     			}
@@ -3664,7 +3664,7 @@ public class AlgorithmConvolver extends AlgorithmBase {
 
 				}
 				try {
-					doneSignal.await();
+					ThreadUtil.await(doneSignal);
 				} catch (InterruptedException e) {
 					e.printStackTrace();
 				}
@@ -3790,7 +3790,7 @@ public class AlgorithmConvolver extends AlgorithmBase {
 
 				}
 				try {
-					doneSignal.await();
+					ThreadUtil.await(doneSignal);
 				} catch (InterruptedException e) {
 					e.printStackTrace();
 				}
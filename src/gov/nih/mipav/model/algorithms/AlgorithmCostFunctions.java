@@ -7,6 +7,8 @@ import gov.nih.mipav.view.MipavUtil;
 import gov.nih.mipav.view.renderer.WildMagic.Render.ImageRegistrationGPU;
 
 import java.awt.Point;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import WildMagic.LibFoundation.Mathematics.Matrix4f;
 
@@ -84,7 +86,7 @@ public class AlgorithmCostFunctions implements AlgorithmOptimizeFunctionBase {
     // ------------------------------------------------------------------------------------------------
 
     /** DOCUMENT ME! */
-    private int costCalled = 0;
+    private final AtomicInteger costCalled = new AtomicInteger();
 
     /** DOCUMENT ME! */
     private int costFunctID = AlgorithmCostFunctions.CORRELATION_RATIO_SMOOTHED;
@@ -98,8 +100,11 @@ public class AlgorithmCostFunctions implements AlgorithmOptimizeFunctionBase {
     /** DOCUMENT ME! */
     private final int nBins;
 
-    /** DOCUMENT ME! */
-    private int nVoxels;
+    /**
+     * Histogram buffers reused by every cost evaluation made on the same thread: the joint histogram followed by three
+     * arrays of nBins entries.
+     */
+    private final ThreadLocal<double[][]> histograms = new ThreadLocal<double[][]>();
 
     /** DOCUMENT ME! */
     private double[] pLogP;
@@ -167,8 +172,6 @@ public class AlgorithmCostFunctions implements AlgorithmOptimizeFunctionBase {
     
     private int zStart;
 
-    private float[] m_afJointHisto;
-
     private final boolean m_bPrint = false;
 
     private ImageRegistrationGPU m_kGPUCost = null;;
@@ -248,7 +251,7 @@ public class AlgorithmCostFunctions implements AlgorithmOptimizeFunctionBase {
      */
     public double cost(final TransMatrix affMatrix) {
 
-        costCalled++; // global debuggin variable to keep track of how many times cost function was called.
+        costCalled.incrementAndGet(); // global debuggin variable to keep track of how many times cost function was called.
         // affMatrix = new TransMatrix(4,4);
         double value = 0;
 
@@ -362,7 +365,7 @@ public class AlgorithmCostFunctions implements AlgorithmOptimizeFunctionBase {
      */
     public double cost(final TransMatrixd affMatrix) {
 
-        costCalled++; // global debuggin variable to keep track of how many times cost function was called.
+        costCalled.incrementAndGet(); // global debuggin variable to keep track of how many times cost function was called.
         // affMatrix = new TransMatrix(4,4);
         double value = 0;
 
@@ -504,7 +507,7 @@ public class AlgorithmCostFunctions implements AlgorithmOptimizeFunctionBase {
      * @return The number of times the cost function has been called.
      */
     public int getCostCalled() {
-        return costCalled;
+        return costCalled.get();
     }
 
     public boolean isGPULineMin() {
@@ -684,9 +687,10 @@ public class AlgorithmCostFunctions implements AlgorithmOptimizeFunctionBase {
             iT20 = Double.MAX_VALUE;
         }
 
-        final double[] jointHist = new double[nBins * nBins];
-        final double[] margHistR = new double[nBins];
-        final double[] margHistI = new double[nBins];
+        final double[][] histogram = getHistograms();
+        final double[] jointHist = histogram[0];
+        final double[] margHistR = histogram[1];
+        final double[] margHistI = histogram[2];
 
         for (int i = 0; i < (nBins * nBins); i++) {
             jointHist[i] = 0;
@@ -779,9 +783,7 @@ public class AlgorithmCostFunctions implements AlgorithmOptimizeFunctionBase {
         int n = 0;
         final int pSize = pLogP.length;
 
-        nVoxels = refImage.data.length;
-
-        m_afJointHisto = new float[nBins * nBins * 4];
+        final int nVoxels = refImage.data.length;
 
         for (int i = 0; i < (nBins * nBins); i++) {
             n = MipavMath.round(jointHist[i]);
@@ -795,10 +797,6 @@ public class AlgorithmCostFunctions implements AlgorithmOptimizeFunctionBase {
                     jointEntropy[0] += -p * Math.log(p);
                 }
             }
-            m_afJointHisto[i * 4] = (float) jointHist[i];
-            m_afJointHisto[i * 4 + 1] = 0f;
-            m_afJointHisto[i * 4 + 2] = 0f;
-            m_afJointHisto[i * 4 + 3] = (float) jointHist[i];
         }
         // System.err.println("");
         // System.err.println("");
@@ -939,9 +937,10 @@ public class AlgorithmCostFunctions implements AlgorithmOptimizeFunctionBase {
             iT20 = Double.MAX_VALUE;
         }
 
-        final double[] jointHist = new double[nBins * nBins];
-        final double[] margHistR = new double[nBins];
-        final double[] margHistI = new double[nBins];
+        final double[][] histogram = getHistograms();
+        final double[] jointHist = histogram[0];
+        final double[] margHistR = histogram[1];
+        final double[] margHistI = histogram[2];
 
         for (int i = 0; i < (nBins * nBins); i++) {
             jointHist[i] = 0;
@@ -1034,9 +1033,7 @@ public class AlgorithmCostFunctions implements AlgorithmOptimizeFunctionBase {
         int n = 0;
         final int pSize = pLogP.length;
 
-        nVoxels = refImage.data.length;
-
-        m_afJointHisto = new float[nBins * nBins * 4];
+        final int nVoxels = refImage.data.length;
 
         for (int i = 0; i < (nBins * nBins); i++) {
             n = MipavMath.round(jointHist[i]);
@@ -1050,10 +1047,6 @@ public class AlgorithmCostFunctions implements AlgorithmOptimizeFunctionBase {
                     jointEntropy[0] += -p * Math.log(p);
                 }
             }
-            m_afJointHisto[i * 4] = (float) jointHist[i];
-            m_afJointHisto[i * 4 + 1] = 0f;
-            m_afJointHisto[i * 4 + 2] = 0f;
-            m_afJointHisto[i * 4 + 3] = (float) jointHist[i];
         }
         // System.err.println("");
         // System.err.println("");
@@ -1207,9 +1200,10 @@ public class AlgorithmCostFunctions implements AlgorithmOptimizeFunctionBase {
         } else {
             iT20 = Double.MAX_VALUE;
         }
-        final double[] jointHist = new double[nBins * nBins];
-        final double[] margHistR = new double[nBins];
-        final double[] margHistI = new double[nBins];
+        final double[][] histogram = getHistograms();
+        final double[] jointHist = histogram[0];
+        final double[] margHistR = histogram[1];
+        final double[] margHistI = histogram[2];
 
         for (int i = 0; i < (nBins * nBins); i++) {
             jointHist[i] = 0;
@@ -1333,7 +1327,7 @@ public class AlgorithmCostFunctions implements AlgorithmOptimizeFunctionBase {
         double nJ = 0.0, nR = 0.0, nI = 0.0;
         int k;
 
-        nVoxels = refImage.data.length;
+        final int nVoxels = refImage.data.length;
         double nOverlap = 0.0;
 
         for (int i = 0; i < nBins; i++) {
@@ -1461,9 +1455,10 @@ public class AlgorithmCostFunctions implements AlgorithmOptimizeFunctionBase {
         } else {
             iT20 = Double.MAX_VALUE;
         }
-        final double[] jointHist = new double[nBins * nBins];
-        final double[] margHistR = new double[nBins];
-        final double[] margHistI = new double[nBins];
+        final double[][] histogram = getHistograms();
+        final double[] jointHist = histogram[0];
+        final double[] margHistR = histogram[1];
+        final double[] margHistI = histogram[2];
 
         for (int i = 0; i < (nBins * nBins); i++) {
             jointHist[i] = 0;
@@ -1587,7 +1582,7 @@ public class AlgorithmCostFunctions implements AlgorithmOptimizeFunctionBase {
         double nJ = 0.0, nR = 0.0, nI = 0.0;
         int k;
 
-        nVoxels = refImage.data.length;
+        final int nVoxels = refImage.data.length;
         double nOverlap = 0.0;
 
         for (int i = 0; i < nBins; i++) {
@@ -1706,9 +1701,10 @@ public class AlgorithmCostFunctions implements AlgorithmOptimizeFunctionBase {
             aT20 = -aT20;
         }
 
-        final double[] jointHist = new double[nBins * nBins];
-        final double[] margHistR = new double[nBins];
-        final double[] margHistI = new double[nBins];
+        final double[][] histogram = getHistograms();
+        final double[] jointHist = histogram[0];
+        final double[] margHistR = histogram[1];
+        final double[] margHistI = histogram[2];
 
         for (int i = 0; i < (nBins * nBins); i++) {
             jointHist[i] = 0;
@@ -1861,7 +1857,7 @@ public class AlgorithmCostFunctions implements AlgorithmOptimizeFunctionBase {
         double p = 0.0;
         double n = 0.0;
 
-        nVoxels = (zEnd - zStart + 1) * (yEnd - yStart + 1) * (xEnd - xStart + 1);
+        final int nVoxels = (zEnd - zStart + 1) * (yEnd - yStart + 1) * (xEnd - xStart + 1);
 
         // Joint entropy H(A,B)
         for (int i = 0; i < (nBins * nBins); i++) {
@@ -1991,9 +1987,10 @@ public class AlgorithmCostFunctions implements AlgorithmOptimizeFunctionBase {
             aT20 = -aT20;
         }
 
-        final double[] jointHist = new double[nBins * nBins];
-        final double[] margHistR = new double[nBins];
-        final double[] margHistI = new double[nBins];
+        final double[][] histogram = getHistograms();
+        final double[] jointHist = histogram[0];
+        final double[] margHistR = histogram[1];
+        final double[] margHistI = histogram[2];
 
         for (int i = 0; i < (nBins * nBins); i++) {
             jointHist[i] = 0;
@@ -2145,7 +2142,7 @@ public class AlgorithmCostFunctions implements AlgorithmOptimizeFunctionBase {
         double p = 0.0;
         double n = 0.0;
 
-        nVoxels = (zEnd - zStart + 1) * (yEnd - yStart + 1) * (xEnd - xStart + 1);
+        final int nVoxels = (zEnd - zStart + 1) * (yEnd - yStart + 1) * (xEnd - xStart + 1);
 
         // Joint entropy H(A,B)
         for (int i = 0; i < (nBins * nBins); i++) {
@@ -2203,6 +2200,24 @@ public class AlgorithmCostFunctions implements AlgorithmOptimizeFunctionBase {
         return;
     }
 
+    /**
+     * Returns the calling thread's histogram buffers, allocating them on its first cost evaluation. The caller must
+     * clear the entries it uses.
+     * 
+     * @return the joint histogram of nBins * nBins entries followed by three arrays of nBins entries
+     */
+    private double[][] getHistograms() {
+        double[][] histogram = histograms.get();
+
+        if (histogram == null) {
+            histogram = new double[][] {new double[nBins * nBins], new double[nBins], new double[nBins],
+                    new double[nBins]};
+            histograms.set(histogram);
+        }
+
+        return histogram;
+    }
+
     /**
      * Correlation ratio cost function.
      * 
@@ -2223,9 +2238,14 @@ public class AlgorithmCostFunctions implements AlgorithmOptimizeFunctionBase {
         double dx, dy, dz, dx1, dy1;
         double b1, b2;
 
-        final double[] numY = new double[nBins];
-        final double[] sumY = new double[nBins];
-        final double[] sumY2 = new double[nBins];
+        final double[][] histogram = getHistograms();
+        final double[] numY = histogram[1];
+        final double[] sumY = histogram[2];
+        final double[] sumY2 = histogram[3];
+
+        Arrays.fill(numY, 0);
+        Arrays.fill(sumY, 0);
+        Arrays.fill(sumY2, 0);
 
         // get transformation matrix into quick access variables.
         final double T00 = tMatrix.M00;
@@ -2427,9 +2447,14 @@ public class AlgorithmCostFunctions implements AlgorithmOptimizeFunctionBase {
         double dx, dy, dz, dx1, dy1;
         double b1, b2;
 
-        final double[] numY = new double[nBins];
-        final double[] sumY = new double[nBins];
-        final double[] sumY2 = new double[nBins];
+        final double[][] histogram = getHistograms();
+        final double[] numY = histogram[1];
+        final double[] sumY = histogram[2];
+        final double[] sumY2 = histogram[3];
+
+        Arrays.fill(numY, 0);
+        Arrays.fill(sumY, 0);
+        Arrays.fill(sumY2, 0);
 
         // get transformation matrix into quick access variables.
         final double T00 = tMatrix.M00;
@@ -2645,9 +2670,14 @@ public class AlgorithmCostFunctions implements AlgorithmOptimizeFunctionBase {
         invSmoothY = 1.0 / smoothY;
         invSmoothZ = 1.0 / smoothZ;
 
-        final double[] numY = new double[nBins];
-        final double[] sumY = new double[nBins];
-        final double[] sumY2 = new double[nBins];
+        final double[][] histogram = getHistograms();
+        final double[] numY = histogram[1];
+        final double[] sumY = histogram[2];
+        final double[] sumY2 = histogram[3];
+
+        Arrays.fill(numY, 0);
+        Arrays.fill(sumY, 0);
+        Arrays.fill(sumY2, 0);
 
         // get transformation matrix into quick access variables.
         final double T00 = tMatrix.M00;
@@ -2891,9 +2921,14 @@ public class AlgorithmCostFunctions implements AlgorithmOptimizeFunctionBase {
         invSmoothY = 1.0 / smoothY;
         invSmoothZ = 1.0 / smoothZ;
 
-        final double[] numY = new double[nBins];
-        final double[] sumY = new double[nBins];
-        final double[] sumY2 = new double[nBins];
+        final double[][] histogram = getHistograms();
+        final double[] numY = histogram[1];
+        final double[] sumY = histogram[2];
+        final double[] sumY2 = histogram[3];
+
+        Arrays.fill(numY, 0);
+        Arrays.fill(sumY, 0);
+        Arrays.fill(sumY2, 0);
 
         // get transformation matrix into quick access variables.
         final double T00 = tMatrix.M00;
@@ -3138,9 +3173,14 @@ public class AlgorithmCostFunctions implements AlgorithmOptimizeFunctionBase {
         invSmoothY = 1.0 / smoothY;
         invSmoothZ = 1.0 / smoothZ;
 
-        final double[] numY = new double[nBins];
-        final double[] sumY = new double[nBins];
-        final double[] sumY2 = new double[nBins];
+        final double[][] histogram = getHistograms();
+        final double[] numY = histogram[1];
+        final double[] sumY = histogram[2];
+        final double[] sumY2 = histogram[3];
+
+        Arrays.fill(numY, 0);
+        Arrays.fill(sumY, 0);
+        Arrays.fill(sumY2, 0);
 
         final double T00 = tMatrix.M00;
         final double T01 = tMatrix.M01;
@@ -3356,9 +3396,14 @@ public class AlgorithmCostFunctions implements AlgorithmOptimizeFunctionBase {
         invSmoothY = 1.0 / smoothY;
         invSmoothZ = 1.0 / smoothZ;
 
-        final double[] numY = new double[nBins];
-        final double[] sumY = new double[nBins];
-        final double[] sumY2 = new double[nBins];
+        final double[][] histogram = getHistograms();
+        final double[] numY = histogram[1];
+        final double[] sumY = histogram[2];
+        final double[] sumY2 = histogram[3];
+
+        Arrays.fill(numY, 0);
+        Arrays.fill(sumY, 0);
+        Arrays.fill(sumY2, 0);
 
         final double T00 = tMatrix.M00;
         final double T01 = tMatrix.M01;
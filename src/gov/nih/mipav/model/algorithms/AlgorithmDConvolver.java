@@ -3496,7 +3496,7 @@ public class AlgorithmDConvolver extends AlgorithmBase {
 
     			}
     			try {
-    				doneSignal.await();
+    				ThreadUtil.await(doneSignal);
     			} catch (InterruptedException e) {
     				e.printStackTrace();
     			}
@@ -3600,7 +3600,7 @@ public class AlgorithmDConvolver extends AlgorithmBase {
 
 				}
 				try {
-					doneSignal.await();
+					ThreadUtil.await(doneSignal);
 				} catch (InterruptedException e) {
 					e.printStackTrace();
 				}
@@ -3726,7 +3726,7 @@ public class AlgorithmDConvolver extends AlgorithmBase {
 
 				}
 				try {
-					doneSignal.await();
+					ThreadUtil.await(doneSignal);
 				} catch (InterruptedException e) {
 					e.printStackTrace();
 				}
@@ -1020,7 +1020,7 @@ public class AlgorithmELSUNCOpt2D extends AlgorithmBase {
         }
 
         try {
-            doneSignal.await();
+            ThreadUtil.await(doneSignal);
         } catch (InterruptedException e) {
             e.printStackTrace();
         }
@@ -518,7 +518,7 @@ public abstract class AlgorithmPowellOptBase extends AlgorithmBase implements Re
                         ThreadUtil.mipavThreadPool.execute(task);
                     }
                     try {
-                        doneSignal.await();
+                        ThreadUtil.await(doneSignal);
                     } catch (InterruptedException e) {
                         e.printStackTrace();
                     }
@@ -723,7 +723,7 @@ public abstract class AlgorithmPowellOptBase extends AlgorithmBase implements Re
         }
 
         try {
-            doneSignal.await();
+            ThreadUtil.await(doneSignal);
         } catch (InterruptedException e) {
             e.printStackTrace();
         }
@@ -3,12 +3,16 @@ package gov.nih.mipav.model.algorithms;
 
 import gov.nih.mipav.model.structures.*;
 
+import gov.nih.mipav.util.ThreadUtil;
+
 import gov.nih.mipav.view.*;
 import gov.nih.mipav.view.dialogs.RegionGrowDialog;
 
 import java.awt.Point;
 import java.io.IOException;
+import java.util.Arrays;
 import java.util.BitSet;
+import java.util.concurrent.atomic.AtomicLongArray;
 
 
 /**
@@ -39,6 +43,12 @@ import java.util.BitSet;
  */
 public class AlgorithmRegionGrow extends AlgorithmBase {
 
+    // ~ Static fields/initializers
+    // ---------------------------------------------------------------------------------------
+
+    /** Smallest number of wave voxels worth handing to a thread of their own. */
+    private static final int MIN_WAVE_CHUNK = 2048;
+
     // ~ Instance fields
     // ------------------------------------------------------------------------------------------------
 
@@ -675,7 +685,9 @@ public class AlgorithmRegionGrow extends AlgorithmBase {
     }
 
     /**
-     * 3D flood fill that forms a bitset(boolean) mask.
+     * 3D flood fill that forms a bitset(boolean) mask. The region grows in breadth-first waves; the voxels of a wave
+     * are split among the available threads, which claim the neighbors they accept in a shared visited bit array. When
+     * a size limit cuts a wave short, the voxels of that wave with the lowest indices are kept.
      * 
      * @param paintMask mask used to indicated where region has grown
      * @param seedPt seed point for flood fill
@@ -687,7 +699,8 @@ public class AlgorithmRegionGrow extends AlgorithmBase {
      * @param upperBound upper bound of values which are included in the region
      * @param sizeLimit stop region grow when objects exceeds size limit in pixels
      * @param maxDistance max distance from the seed point (in pixels) that the region is allowed to grow.
-     * @param variableThresholds If true vary thresholds as region grows
+     * @param variableThresholds If true vary thresholds as region grows, from the region statistics at the end of
+     *            each wave
      * @param timeSlice timeSlice that will be used in a 4D image
      * @param regionBounds DOCUMENT ME!
      * 
@@ -702,11 +715,9 @@ public class AlgorithmRegionGrow extends AlgorithmBase {
         final int yDim = srcImage.getExtents()[1];
         final int zDim = srcImage.getExtents()[2];
 
-        IntVector stack = null;
         float val;
-        int i, idx, j;
+        int idx, j;
         final int imageSize = xDim * yDim;
-        int x, y, z;
         final int length = xDim * yDim * zDim;
         int count = 0;
         final int initIndex = (seedPt.z * (xDim * yDim)) + (seedPt.y * xDim) + seedPt.x;
@@ -714,7 +725,6 @@ public class AlgorithmRegionGrow extends AlgorithmBase {
         final int xInit = seedPt.x;
         final int yInit = seedPt.y;
         final int zInit = seedPt.z;
-        double distance = -2;
         int current;
         int fmax;
         float activeThreshold;
@@ -737,13 +747,21 @@ public class AlgorithmRegionGrow extends AlgorithmBase {
         int iSel = 0;
         int voiSize = 0;
         int round = 1;
-        float initialValue;
-        float upperDelta;
-        float lowerDelta;
+        float initialValue = 0;
+        float upperDelta = 0;
+        float lowerDelta = 0;
         double sum = 0.0;
         double mean;
         double sumOfSquares = 0.0;
         double stdDev = 0.0;
+        AtomicLongArray visited;
+        int[] wave;
+        int waveSize;
+        int[] nextWave;
+        int nextSize;
+        int total;
+        int chunks;
+        boolean limitReached = false;
 
         if (regionBounds == null) {
 
@@ -780,341 +798,158 @@ public class AlgorithmRegionGrow extends AlgorithmBase {
         this.paintMask = paintMask;
         this.growDialog = growDialog;
 
-        int pCtr = 0;
-
         try {
+            visited = new AtomicLongArray( (length + 63) >>> 6);
+            final long[] painted = paintMask.toLongArray();
+
+            for (j = Math.min(painted.length, visited.length()) - 1; j >= 0; j--) {
+                visited.set(j, painted[j]);
+            }
 
             if (variableThresholds) {
                 initialValue = srcImage.getFloat(initIndex);
                 upperDelta = upperBound - initialValue;
                 lowerDelta = initialValue - lowBound;
-                stack = new IntVector(length / 3, length / 8);
-                stack.push(initIndex);
+            }
 
-                if (paintMask.get(initIndex) == false) {
-                    paintMask.set(initIndex);
-                    count++;
+            if (paintMask.get(initIndex) == false) {
+                paintMask.set(initIndex);
+                claim(visited, initIndex);
+                count++;
+
+                if (variableThresholds) {
                     sum = initialValue;
                     sumOfSquares = initialValue * initialValue;
                 }
+            }
 
-                while ( !stack.isEmpty()) {
-
-                    i = stack.popFirstIn();
-                    x = i % xDim;
-                    y = (i % imageSize) / xDim;
-                    z = i / imageSize;
-
-                    if ( (x + 1) < regionBounds.highX()) {
-                        idx = i + 1;
-                        val = srcImage.getFloat(idx + offset4D);
+            wave = new int[1024];
+            wave[0] = initIndex;
+            waveSize = 1;
+            nextWave = new int[1024];
 
-                        if (maxDistance > 0) {
-                            distance = Math.sqrt( ( (x - xInit) * (x - xInit) * resX)
-                                    + ( (y - yInit) * (y - yInit) * resY) + ( (z - zInit) * (z - zInit) * resZ));
-                        }
+            final WaveChunk[] waveChunks = new WaveChunk[multiThreadingEnabled ? Math.max(1, nthreads) : 1];
 
-                        if ( (paintMask.get(idx) == false) && (val >= lowBound) && (val <= upperBound)
-                                && (distance <= maxDistance)) {
-                            stack.push(idx);
-                            paintMask.set(idx);
-                            count++;
-                            sum += val;
-                            sumOfSquares += val * val;
-                            mean = sum / count;
-                            stdDev = Math.sqrt( (sumOfSquares - (sum * sum / count)) / count);
-                            upperBound = (float) (initialValue + ( (1.0 - Math.min(0.8, stdDev / mean)) * upperDelta));
-                            lowBound = (float) (initialValue - ( (1.0 - Math.min(0.8, stdDev / mean)) * lowerDelta));
+            for (j = 0; j < waveChunks.length; j++) {
+                waveChunks[j] = new WaveChunk();
+            }
 
-                            if ( (sizeLimit != -1) && ( ( (count + 1) * volRes) > sizeLimit)) {
-                                break;
+            while ( (waveSize > 0) && !limitReached) {
+                chunks = Math.max(1, Math.min(waveChunks.length, waveSize / MIN_WAVE_CHUNK));
+
+                final int[] currentWave = wave;
+                final int currentSize = waveSize;
+                final int currentChunks = chunks;
+                final float low = lowBound;
+                final float high = upperBound;
+                final AtomicLongArray visitedBits = visited;
+                final CubeBounds bounds = regionBounds;
+
+                ThreadUtil.parallelFor(chunks, new ThreadUtil.IndexedTask() {
+                    public void run(final int index) {
+                        final WaveChunk chunk = waveChunks[index];
+                        final int from = (int) ( (long) currentSize * index / currentChunks);
+                        final int to = (int) ( (long) currentSize * (index + 1) / currentChunks);
+
+                        chunk.clear();
+
+                        for (int k = from; k < to; k++) {
+                            final int i = currentWave[k];
+                            final int x = i % xDim;
+                            final int y = (i % imageSize) / xDim;
+                            final int z = i / imageSize;
+                            double distance = -2;
+
+                            if (maxDistance > 0) {
+                                distance = Math.sqrt( ( (x - xInit) * (x - xInit) * resX)
+                                        + ( (y - yInit) * (y - yInit) * resY) + ( (z - zInit) * (z - zInit) * resZ));
                             }
-                        }
-                    }
-
-                    if ( (x - 1) >= regionBounds.lowX()) {
-                        idx = i - 1;
-                        val = srcImage.getFloat(idx + offset4D);
-
-                        if (maxDistance > 0) {
-                            distance = Math.sqrt( ( (x - xInit) * (x - xInit) * resX)
-                                    + ( (y - yInit) * (y - yInit) * resY) + ( (z - zInit) * (z - zInit) * resZ));
-                        }
-
-                        if ( (paintMask.get(idx) == false) && (val >= lowBound) && (val <= upperBound)
-                                && (distance <= maxDistance)) {
-                            stack.push(idx);
-                            paintMask.set(idx);
-                            count++;
-                            sum += val;
-                            sumOfSquares += val * val;
-                            mean = sum / count;
-                            stdDev = Math.sqrt( (sumOfSquares - (sum * sum / count)) / count);
-                            upperBound = (float) (initialValue + ( (1.0 - Math.min(0.8, stdDev / mean)) * upperDelta));
-                            lowBound = (float) (initialValue - ( (1.0 - Math.min(0.8, stdDev / mean)) * lowerDelta));
 
-                            if ( (sizeLimit != -1) && ( ( (count + 1) * volRes) > sizeLimit)) {
-                                break;
+                            if ( ! (distance <= maxDistance)) {
+                                continue;
                             }
-                        }
-                    }
-
-                    if ( (y + 1) < regionBounds.highY()) {
-                        idx = i + xDim;
-                        val = srcImage.getFloat(idx + offset4D);
-
-                        if (maxDistance > 0) {
-                            distance = Math.sqrt( ( (x - xInit) * (x - xInit) * resX)
-                                    + ( (y - yInit) * (y - yInit) * resY) + ( (z - zInit) * (z - zInit) * resZ));
-                        }
-
-                        if ( (paintMask.get(idx) == false) && (val >= lowBound) && (val <= upperBound)
-                                && (distance <= maxDistance)) {
-                            stack.push(idx);
-                            paintMask.set(idx);
-                            count++;
-                            sum += val;
-                            sumOfSquares += val * val;
-                            mean = sum / count;
-                            stdDev = Math.sqrt( (sumOfSquares - (sum * sum / count)) / count);
-                            upperBound = (float) (initialValue + ( (1.0 - Math.min(0.8, stdDev / mean)) * upperDelta));
-                            lowBound = (float) (initialValue - ( (1.0 - Math.min(0.8, stdDev / mean)) * lowerDelta));
 
-                            if ( (sizeLimit != -1) && ( ( (count + 1) * volRes) > sizeLimit)) {
-                                break;
+                            if ( (x + 1) < bounds.highX()) {
+                                addNeighbor(visitedBits, i + 1, offset4D, low, high, chunk);
                             }
-                        }
-                    }
-
-                    if ( (y - 1) >= regionBounds.lowY()) {
-                        idx = i - xDim;
-                        val = srcImage.getFloat(idx + offset4D);
 
-                        if (maxDistance > 0) {
-                            distance = Math.sqrt( ( (x - xInit) * (x - xInit) * resX)
-                                    + ( (y - yInit) * (y - yInit) * resY) + ( (z - zInit) * (z - zInit) * resZ));
-                        }
-
-                        if ( (paintMask.get(idx) == false) && (val >= lowBound) && (val <= upperBound)
-                                && (distance <= maxDistance)) {
-                            stack.push(idx);
-                            paintMask.set(idx);
-                            count++;
-                            sum += val;
-                            sumOfSquares += val * val;
-                            mean = sum / count;
-                            stdDev = Math.sqrt( (sumOfSquares - (sum * sum / count)) / count);
-                            upperBound = (float) (initialValue + ( (1.0 - Math.min(0.8, stdDev / mean)) * upperDelta));
-                            lowBound = (float) (initialValue - ( (1.0 - Math.min(0.8, stdDev / mean)) * lowerDelta));
-
-                            if ( (sizeLimit != -1) && ( ( (count + 1) * volRes) > sizeLimit)) {
-                                break;
+                            if ( (x - 1) >= bounds.lowX()) {
+                                addNeighbor(visitedBits, i - 1, offset4D, low, high, chunk);
                             }
-                        }
-                    }
 
-                    if ( (z + 1) < regionBounds.highZ()) {
-                        idx = i + imageSize;
-                        val = srcImage.getFloat(idx + offset4D);
-
-                        if (maxDistance > 0) {
-                            distance = Math.sqrt( ( (x - xInit) * (x - xInit) * resX)
-                                    + ( (y - yInit) * (y - yInit) * resY) + ( (z - zInit) * (z - zInit) * resZ));
-                        }
-
-                        if ( (paintMask.get(idx) == false) && (val >= lowBound) && (val <= upperBound)
-                                && (distance <= maxDistance)) {
-                            stack.push(idx);
-                            paintMask.set(idx);
-                            count++;
-                            sum += val;
-                            sumOfSquares += val * val;
-                            mean = sum / count;
-                            stdDev = Math.sqrt( (sumOfSquares - (sum * sum / count)) / count);
-                            upperBound = (float) (initialValue + ( (1.0 - Math.min(0.8, stdDev / mean)) * upperDelta));
-                            lowBound = (float) (initialValue - ( (1.0 - Math.min(0.8, stdDev / mean)) * lowerDelta));
-
-                            if ( (sizeLimit != -1) && ( ( (count + 1) * volRes) > sizeLimit)) {
-                                break;
+                            if ( (y + 1) < bounds.highY()) {
+                                addNeighbor(visitedBits, i + xDim, offset4D, low, high, chunk);
                             }
-                        }
-                    }
-
-                    if ( (z - 1) >= regionBounds.lowZ()) {
-                        idx = i - imageSize;
-                        val = srcImage.getFloat(idx + offset4D);
-
-                        if (maxDistance > 0) {
-                            distance = Math.sqrt( ( (x - xInit) * (x - xInit) * resX)
-                                    + ( (y - yInit) * (y - yInit) * resY) + ( (z - zInit) * (z - zInit) * resZ));
-                        }
-
-                        if ( (paintMask.get(idx) == false) && (val >= lowBound) && (val <= upperBound)
-                                && (distance <= maxDistance)) {
-                            stack.push(idx);
-                            paintMask.set(idx);
-                            count++;
-                            sum += val;
-                            sumOfSquares += val * val;
-                            mean = sum / count;
-                            stdDev = Math.sqrt( (sumOfSquares - (sum * sum / count)) / count);
-                            upperBound = (float) (initialValue + ( (1.0 - Math.min(0.8, stdDev / mean)) * upperDelta));
-                            lowBound = (float) (initialValue - ( (1.0 - Math.min(0.8, stdDev / mean)) * lowerDelta));
 
-                            if ( (sizeLimit != -1) && ( ( (count + 1) * volRes) > sizeLimit)) {
-                                break;
+                            if ( (y - 1) >= bounds.lowY()) {
+                                addNeighbor(visitedBits, i - xDim, offset4D, low, high, chunk);
                             }
-                        }
-                    }
-                } // while ( !stack.isEmpty() )
-            } // (variableThresholds)
-            else { 
-                stack = new IntVector(length / 3, length / 8);
-                stack.push(initIndex);
-
-                if (paintMask.get(initIndex) == false) {
-                    paintMask.set(initIndex);
-                    count++;
-                }
-
-                while ( !stack.isEmpty()) {
-
-                    i = stack.popFirstIn();
-                    x = i % xDim;
-                    y = (i % imageSize) / xDim;
-                    z = i / imageSize;
-
-                    if ( (x + 1) < regionBounds.highX()) {
-                        idx = i + 1;
-                        val = srcImage.getFloat(idx + offset4D);
 
-                        if (maxDistance > 0) {
-                            distance = Math.sqrt( ( (x - xInit) * (x - xInit) * resX)
-                                    + ( (y - yInit) * (y - yInit) * resY) + ( (z - zInit) * (z - zInit) * resZ));
-                        }
-
-                        if ( (paintMask.get(idx) == false) && (val >= lowBound) && (val <= upperBound)
-                                && (distance <= maxDistance)) {
-                            stack.push(idx);
-                            paintMask.set(idx);
-                            count++;
-
-                            if ( (sizeLimit != -1) && ( ( (count + 1) * volRes) > sizeLimit)) {
-                                break;
+                            if ( (z + 1) < bounds.highZ()) {
+                                addNeighbor(visitedBits, i + imageSize, offset4D, low, high, chunk);
                             }
-                        }
-                    }
-
-                    if ( (x - 1) >= regionBounds.lowX()) {
-                        idx = i - 1;
-                        val = srcImage.getFloat(idx + offset4D);
-
-                        if (maxDistance > 0) {
-                            distance = Math.sqrt( ( (x - xInit) * (x - xInit) * resX)
-                                    + ( (y - yInit) * (y - yInit) * resY) + ( (z - zInit) * (z - zInit) * resZ));
-                        }
-
-                        if ( (paintMask.get(idx) == false) && (val >= lowBound) && (val <= upperBound)
-                                && (distance <= maxDistance)) {
-                            stack.push(idx);
-                            paintMask.set(idx);
-                            count++;
 
-                            if ( (sizeLimit != -1) && ( ( (count + 1) * volRes) > sizeLimit)) {
-                                break;
+                            if ( (z - 1) >= bounds.lowZ()) {
+                                addNeighbor(visitedBits, i - imageSize, offset4D, low, high, chunk);
                             }
                         }
                     }
+                });
 
-                    if ( (y + 1) < regionBounds.highY()) {
-                        idx = i + xDim;
-                        val = srcImage.getFloat(idx + offset4D);
+                total = 0;
 
-                        if (maxDistance > 0) {
-                            distance = Math.sqrt( ( (x - xInit) * (x - xInit) * resX)
-                                    + ( (y - yInit) * (y - yInit) * resY) + ( (z - zInit) * (z - zInit) * resZ));
-                        }
+                for (j = 0; j < chunks; j++) {
+                    total += waveChunks[j].size;
+                }
 
-                        if ( (paintMask.get(idx) == false) && (val >= lowBound) && (val <= upperBound)
-                                && (distance <= maxDistance)) {
-                            stack.push(idx);
-                            paintMask.set(idx);
-                            count++;
+                if (nextWave.length < total) {
+                    nextWave = new int[Math.max(total, 2 * nextWave.length)];
+                }
 
-                            if ( (sizeLimit != -1) && ( ( (count + 1) * volRes) > sizeLimit)) {
-                                break;
-                            }
-                        }
-                    }
+                total = 0;
 
-                    if ( (y - 1) >= regionBounds.lowY()) {
-                        idx = i - xDim;
-                        val = srcImage.getFloat(idx + offset4D);
+                for (j = 0; j < chunks; j++) {
+                    System.arraycopy(waveChunks[j].voxels, 0, nextWave, total, waveChunks[j].size);
+                    total += waveChunks[j].size;
+                }
 
-                        if (maxDistance > 0) {
-                            distance = Math.sqrt( ( (x - xInit) * (x - xInit) * resX)
-                                    + ( (y - yInit) * (y - yInit) * resY) + ( (z - zInit) * (z - zInit) * resZ));
-                        }
+                // Which chunk claims a shared neighbor depends on the threads, so the wave is put in voxel order
+                // before a size limit cuts it short or its statistics are summed
+                if (variableThresholds || ( (sizeLimit != -1) && ( ( (count + total + 1) * volRes) > sizeLimit))) {
+                    Arrays.sort(nextWave, 0, total);
+                }
 
-                        if ( (paintMask.get(idx) == false) && (val >= lowBound) && (val <= upperBound)
-                                && (distance <= maxDistance)) {
-                            stack.push(idx);
-                            paintMask.set(idx);
-                            count++;
+                nextSize = 0;
 
-                            if ( (sizeLimit != -1) && ( ( (count + 1) * volRes) > sizeLimit)) {
-                                break;
-                            }
-                        }
-                    }
+                while ( (nextSize < total) && !limitReached) {
+                    idx = nextWave[nextSize++];
+                    paintMask.set(idx);
+                    count++;
 
-                    if ( (z + 1) < regionBounds.highZ()) {
-                        idx = i + imageSize;
+                    if (variableThresholds) {
                         val = srcImage.getFloat(idx + offset4D);
-
-                        if (maxDistance > 0) {
-                            distance = Math.sqrt( ( (x - xInit) * (x - xInit) * resX)
-                                    + ( (y - yInit) * (y - yInit) * resY) + ( (z - zInit) * (z - zInit) * resZ));
-                        }
-
-                        if ( (paintMask.get(idx) == false) && (val >= lowBound) && (val <= upperBound)
-                                && (distance <= maxDistance)) {
-                            stack.push(idx);
-                            paintMask.set(idx);
-                            count++;
-
-                            if ( (sizeLimit != -1) && ( ( (count + 1) * volRes) > sizeLimit)) {
-                                break;
-                            }
-                        }
+                        sum += val;
+                        sumOfSquares += val * val;
                     }
 
-                    if ( (z - 1) >= regionBounds.lowZ()) {
-                        idx = i - imageSize;
-                        val = srcImage.getFloat(idx + offset4D);
-
-                        if (maxDistance > 0) {
-                            distance = Math.sqrt( ( (x - xInit) * (x - xInit) * resX)
-                                    + ( (y - yInit) * (y - yInit) * resY) + ( (z - zInit) * (z - zInit) * resZ));
-                        }
+                    if ( (sizeLimit != -1) && ( ( (count + 1) * volRes) > sizeLimit)) {
+                        limitReached = true;
+                    }
+                }
 
-                        if ( (paintMask.get(idx) == false) && (val >= lowBound) && (val <= upperBound)
-                                && (distance <= maxDistance)) {
-                            stack.push(idx);
-                            paintMask.set(idx);
-                            count++;
+                if (variableThresholds && (nextSize > 0)) {
+                    mean = sum / count;
+                    stdDev = Math.sqrt( (sumOfSquares - (sum * sum / count)) / count);
+                    upperBound = (float) (initialValue + ( (1.0 - Math.min(0.8, stdDev / mean)) * upperDelta));
+                    lowBound = (float) (initialValue - ( (1.0 - Math.min(0.8, stdDev / mean)) * lowerDelta));
+                }
 
-                            if ( (sizeLimit != -1) && ( ( (count + 1) * volRes) > sizeLimit)) {
-                                break;
-                            }
-                        }
-                    }
-                } // while ( !stack.isEmpty() )
-            } // else
-            
+                final int[] swap = wave;
+                wave = nextWave;
+                waveSize = nextSize;
+                nextWave = swap;
+            }
         } catch (final OutOfMemoryError e) {
-            stack = null;
-
             System.gc();
             displayError("Algorithm RegionGrow:  Out of memory");
             setCompleted(false);
@@ -1123,8 +958,6 @@ public class AlgorithmRegionGrow extends AlgorithmBase {
         }
 
         setCompleted(true);
-        stack = null;
-        System.gc();
 
         return count;
     }
@@ -1455,7 +1288,88 @@ public class AlgorithmRegionGrow extends AlgorithmBase {
         srcImage.notifyImageDisplayListeners(null, false);
     }
 
-    
-    
+    /**
+     * Sets the bit of a voxel in the visited bit array, unless another thread has already set it.
+     * 
+     * @param visited one bit per voxel of the volume
+     * @param index index of the voxel
+     * 
+     * @return true if this call set the bit
+     */
+    private static boolean claim(final AtomicLongArray visited, final int index) {
+        final int word = index >>> 6;
+        final long bit = 1L << index;
+        long current;
+
+        do {
+            current = visited.get(word);
+
+            if ( (current & bit) != 0) {
+                return false;
+            }
+        } while ( !visited.compareAndSet(word, current, current | bit));
+
+        return true;
+    }
+
+    /**
+     * Adds a neighbor to the next wave if it has not been visited and its value lies within the bounds.
+     * 
+     * @param visited one bit per voxel of the volume
+     * @param index index of the neighbor
+     * @param offset4D offset of the time slice in the image data
+     * @param lowBound lower bound of values which are included in the region
+     * @param upperBound upper bound of values which are included in the region
+     * @param chunk collects the voxels this thread adds to the next wave
+     */
+    private void addNeighbor(final AtomicLongArray visited, final int index, final int offset4D,
+            final float lowBound, final float upperBound, final WaveChunk chunk) {
+
+        if ( (visited.get(index >>> 6) & (1L << index)) == 0) {
+            final float val = srcImage.getFloat(index + offset4D);
+
+            if ( (val >= lowBound) && (val <= upperBound) && claim(visited, index)) {
+                chunk.add(index);
+            }
+        }
+    }
+
+    // ~ Inner Classes
+    // --------------------------------------------------------------------------------------------------
+
+    /**
+     * The voxels one thread adds to the next wave of a 3D region grow.
+     */
+    private static class WaveChunk {
+
+        /** Number of voxels added. */
+        private int size;
+
+        /** Indices of the added voxels, in the order they were claimed. */
+        private int[] voxels = new int[256];
+
+        /**
+         * Adds a claimed voxel.
+         * 
+         * @param index index of the voxel
+         */
+        public void add(final int index) {
+
+            if (size == voxels.length) {
+                final int[] grown = new int[2 * size];
+                System.arraycopy(voxels, 0, grown, 0, size);
+                voxels = grown;
+            }
+
+            voxels[size++] = index;
+        }
+
+        /**
+         * Empties the chunk for the next wave.
+         */
+        public void clear() {
+            size = 0;
+        }
+    }
 
 }
@@ -2,6 +2,7 @@ package gov.nih.mipav.model.algorithms;
 
 
 import gov.nih.mipav.util.DoubleDouble;
+import gov.nih.mipav.util.ThreadUtil;
 
 import gov.nih.mipav.model.file.*;
 import gov.nih.mipav.model.structures.*;
@@ -870,7 +871,7 @@ public class AlgorithmSM2 extends AlgorithmBase {
         if ((processors > 1) && (Preferences.isMultiThreadingEnabled())) {
             int start;
             int end;
-            final ExecutorService application = Executors.newCachedThreadPool();
+            final ExecutorService application = ThreadUtil.newJobExecutor();
             for (i = 0; i < processors; i++) {
                 start = (i * volSize) / processors;
                 end = ( (i + 1) * volSize) / processors;
@@ -1,8 +1,10 @@
 package gov.nih.mipav.model.algorithms;
 
 
+import gov.nih.mipav.model.structures.ModelImage;
 import gov.nih.mipav.util.*;
 
+import java.io.IOException;
 import java.util.BitSet;
 import java.util.concurrent.CountDownLatch;
 
@@ -26,11 +28,24 @@ import java.util.concurrent.CountDownLatch;
  * Color and voi mask code not tested (although the voi code is pretty straight-forward).
  * </p>
  * 
+ * <p>
+ * When constructed with source and destination images the convolver streams the volume instead: it reads slabs of XY
+ * slices padded with the neighbouring slices the z kernel reaches, convolves each slab and writes its slices straight
+ * into the destination image. Peak memory is then bounded by the slab size rather than the image size, so volumes
+ * larger than the heap can be filtered when the images are backed by files.
+ * </p>
+ * 
  * @see AlgorithmConvolver
  * @author Evan McCreedy
  */
 public class AlgorithmSeparableConvolver extends AlgorithmBase {
 
+    // ~ Static fields/initializers
+    // -------------------------------------------------------------------------------------------
+
+    /** Default number of samples in a streamed slab, not counting the halo slices. */
+    private static final int SLAB_SAMPLES = 1 << 23;
+
     // ~ Instance fields
     // ------------------------------------------------------------------------------------------------
 
@@ -67,6 +82,9 @@ public class AlgorithmSeparableConvolver extends AlgorithmBase {
     /** Flags to indicate which color channels to process. */
     private boolean red = true, green = true, blue = true;
 
+    /** Number of slices in a streamed slab, not counting the halo slices. Zero selects it from SLAB_SAMPLES. */
+    private int slabSlices = 0;
+
     // ~ Constructors
     // ---------------------------------------------------------------------------------------------------
 
@@ -140,6 +158,32 @@ public class AlgorithmSeparableConvolver extends AlgorithmBase {
         }
     }
 
+    /**
+     * Sets destination, source, and kernel buffers for slab streaming. Call run() to convolve image. The source is
+     * read a slab of slices at a time and the convolved slices are imported into the destination, which may be the
+     * source image itself.
+     * 
+     * @param destImg image the convolved data is written to
+     * @param srcImg image to convolve
+     * @param kernBuffer kernel image data buffer (kernel must be symmetric)
+     * @param colorImage whether the image is color
+     */
+    public AlgorithmSeparableConvolver(final ModelImage destImg, final ModelImage srcImg, final float[][] kernBuffer,
+            final boolean colorImage) {
+        super(destImg, srcImg);
+        this.imgExtents = srcImg.getExtents();
+        this.kernelBuffer = kernBuffer;
+        kernelExtents = new int[kernBuffer.length];
+        for (int i = 0; i < kernelBuffer.length; i++) {
+            kernelExtents[i] = kernelBuffer[i].length;
+        }
+        this.colorImage = colorImage;
+
+        if (colorImage) {
+            cFactor = 4;
+        }
+    }
+
     // ~ Methods
     // --------------------------------------------------------------------------------------------------------
 
@@ -277,10 +321,15 @@ public class AlgorithmSeparableConvolver extends AlgorithmBase {
 
         // convolve the image with the X dimension kernel
         final CountDownLatch doneSignalx = new CountDownLatch(nthreads);
-        final float step2 = size / nthreads;
+
+        // integer bounds, so that the last task ends exactly at the end of the buffer
+        final int[] bounds = new int[nthreads + 1];
+        for (int i = 0; i <= nthreads; i++) {
+            bounds[i] = (int) ( ((long) size * i) / nthreads);
+        }
         for (int i = 0; i < nthreads; i++) {
-            final int start2 = (int) (step2 * i);
-            final int end2 = (int) (step2 * (i + 1));
+            final int start2 = bounds[i];
+            final int end2 = bounds[i + 1];
             final Runnable task = new Runnable() {
                 public void run() {
                     convolveX(start2, end2);
@@ -290,7 +339,7 @@ public class AlgorithmSeparableConvolver extends AlgorithmBase {
             ThreadUtil.mipavThreadPool.execute(task);
         }
         try {
-            doneSignalx.await();
+            ThreadUtil.await(doneSignalx);
         } catch (final InterruptedException e) {
             gov.nih.mipav.view.MipavUtil.displayError(e.getMessage());
             return;
@@ -299,8 +348,8 @@ public class AlgorithmSeparableConvolver extends AlgorithmBase {
         // y kernel dimensions
         final CountDownLatch doneSignaly = new CountDownLatch(nthreads);
         for (int i = 0; i < nthreads; i++) {
-            final int start2 = (int) (step2 * i);
-            final int end2 = (int) (step2 * (i + 1));
+            final int start2 = bounds[i];
+            final int end2 = bounds[i + 1];
             final Runnable task = new Runnable() {
                 public void run() {
                     convolveY(start2, end2);
@@ -310,7 +359,7 @@ public class AlgorithmSeparableConvolver extends AlgorithmBase {
             ThreadUtil.mipavThreadPool.execute(task);
         }
         try {
-            doneSignaly.await();
+            ThreadUtil.await(doneSignaly);
         } catch (final InterruptedException e) {
             gov.nih.mipav.view.MipavUtil.displayError(e.getMessage());
             return;
@@ -323,8 +372,8 @@ public class AlgorithmSeparableConvolver extends AlgorithmBase {
         // z kernel dimensions
         final CountDownLatch doneSignalz = new CountDownLatch(nthreads);
         for (int i = 0; i < nthreads; i++) {
-            final int start2 = (int) (step2 * i);
-            final int end2 = (int) (step2 * (i + 1));
+            final int start2 = bounds[i];
+            final int end2 = bounds[i + 1];
             final Runnable task = new Runnable() {
                 public void run() {
                     convolveZ(start2, end2);
@@ -334,7 +383,7 @@ public class AlgorithmSeparableConvolver extends AlgorithmBase {
             ThreadUtil.mipavThreadPool.execute(task);
         }
         try {
-            doneSignalz.await();
+            ThreadUtil.await(doneSignalz);
         } catch (final InterruptedException e) {
             gov.nih.mipav.view.MipavUtil.displayError(e.getMessage());
             return;
@@ -662,12 +711,124 @@ public class AlgorithmSeparableConvolver extends AlgorithmBase {
         }
     }
 
+    /**
+     * Convolves the source image one slab of slices at a time and imports the result into the destination image. Each
+     * slab is read together with the slices above and below it that the z kernel reaches, so the slices it produces
+     * are identical to those of a whole volume convolution. The next slab is always read before the previous one is
+     * written, which lets the destination be the source image.
+     * 
+     * @throws IOException if the source or destination image is locked
+     */
+    private void performSlabs() throws IOException {
+        final int[] volumeExtents = imgExtents;
+        final BitSet volumeMask = mask;
+        final int minProgress = minProgressValue;
+        final int maxProgress = maxProgressValue;
+        final int xDim = volumeExtents[0];
+        final int yDim = volumeExtents[1];
+        final int zDim = (volumeExtents.length > 2) ? volumeExtents[2] : 1;
+        final int tDim = (volumeExtents.length > 3) ? volumeExtents[3] : 1;
+        final int slicePixels = xDim * yDim;
+        final int sliceSize = slicePixels * cFactor;
+        final boolean zKernel = (zDim > 1) && (kernelBuffer.length > 2);
+        final int below = zKernel ? kernelBuffer[2].length / 2 : 0;
+        final int above = zKernel ? kernelBuffer[2].length - 1 - below : 0;
+
+        int depth = (slabSlices > 0) ? slabSlices : Math.max(1, SLAB_SAMPLES / sliceSize);
+
+        // the next slab reads back below slices, which must not have been overwritten yet when converting in place
+        depth = Math.min(zDim, Math.max(depth, below));
+
+        final int slabs = tDim * ( (zDim + depth - 1) / depth);
+        float[] slab = null;
+        float[] pending = null;
+        long pendingStart = 0;
+        int done = 0;
+
+        try {
+            for (int t = 0; (t < tDim) && !threadStopped; t++) {
+                for (int z0 = 0; (z0 < zDim) && !threadStopped; z0 += depth) {
+                    final int z1 = Math.min(zDim, z0 + depth);
+                    final int lo = Math.max(0, z0 - below);
+                    final int hi = Math.min(zDim, z1 + above);
+                    final long firstSlice = ((long) t * zDim) + lo;
+                    final int length = (hi - lo) * sliceSize;
+
+                    // the last slab is usually shorter, and the convolution passes cover the whole of these buffers
+                    if ( (slab == null) || (slab.length != length)) {
+                        slab = new float[length];
+                        inputBuffer = new double[length];
+                        outputBuffer = multiThreadingEnabled ? new double[length] : inputBuffer;
+                    }
+
+                    srcImage.exportData(firstSlice * sliceSize, length, slab);
+
+                    if (pending != null) {
+                        destImage.importData(pendingStart, pending, false);
+                    }
+
+                    ArrayUtil.arrayCopy(slab, 0, inputBuffer, 0, length);
+                    imgExtents = new int[] {xDim, yDim, hi - lo};
+
+                    if ( !entireImage) {
+                        final int firstPixel = (int) (firstSlice * slicePixels);
+
+                        mask = volumeMask.get(firstPixel, firstPixel + ( (hi - lo) * slicePixels));
+                        inputMask = new boolean[length];
+                        for (int i = 0; i < length; i++) {
+                            inputMask[i] = mask.get(i);
+                        }
+                    }
+
+                    minProgressValue = minProgress + ( (maxProgress - minProgress) * done / slabs);
+                    maxProgressValue = minProgressValue + 1;
+
+                    if (multiThreadingEnabled) {
+                        performMT();
+                    } else {
+                        perform();
+                    }
+
+                    final int coreLength = (z1 - z0) * sliceSize;
+
+                    if ( (pending == null) || (pending.length != coreLength)) {
+                        pending = new float[coreLength];
+                    }
+
+                    ArrayUtil.arrayCopy(outputBuffer, (z0 - lo) * sliceSize, pending, 0, coreLength);
+                    pendingStart = ( ((long) t * zDim) + z0) * sliceSize;
+                    done++;
+                    fireProgressStateChanged(minProgress + ( (maxProgress - minProgress) * done / slabs));
+                }
+            }
+
+            if ( (pending != null) && !threadStopped) {
+                destImage.importData(pendingStart, pending, false);
+                destImage.calcMinMax();
+            }
+        } finally {
+            imgExtents = volumeExtents;
+            mask = volumeMask;
+            minProgressValue = minProgress;
+            maxProgressValue = maxProgress;
+            inputBuffer = null;
+            outputBuffer = null;
+            inputMask = null;
+        }
+    }
+
     public void beforeExecute() {
         fireProgressStateChanged(minProgressValue);
     }
 
     public void execute() {
-        if (multiThreadingEnabled) {
+        if (srcImage != null) {
+            try {
+                performSlabs();
+            } catch (final IOException error) {
+                errorCleanUp("Separable convolver: Image(s) locked", true);
+            }
+        } else if (multiThreadingEnabled) {
             performMT();
         } else {
             perform();
@@ -685,6 +846,15 @@ public class AlgorithmSeparableConvolver extends AlgorithmBase {
     public void runAlgorithm() {
         beforeExecute();
         execute();
+
+        if ( (srcImage != null) && threadStopped) {
+
+            // the destination only holds the slabs written so far
+            setCompleted(false);
+
+            return;
+        }
+
         afterExecute();
     }
 
@@ -710,6 +880,13 @@ public class AlgorithmSeparableConvolver extends AlgorithmBase {
     public void setMask(final BitSet newMask) {
         mask = newMask;
         entireImage = false;
+
+        if (inputBuffer == null) {
+
+            // streamed slabs take their part of the mask as they are read
+            return;
+        }
+
         this.inputMask = new boolean[inputBuffer.length];
         for ( int i = 0; i < inputMask.length; i++ )
         {
@@ -717,6 +894,16 @@ public class AlgorithmSeparableConvolver extends AlgorithmBase {
         }
     }
 
+    /**
+     * Sets the number of slices in each streamed slab, not counting the halo slices read for the z kernel. Only used
+     * when convolving from a source to a destination image.
+     * 
+     * @param slices slices per slab, or zero to size the slabs automatically
+     */
+    public void setSlabSlices(final int slices) {
+        slabSlices = slices;
+    }
+
     public float[] getOutputBuffer() {
         final float[] buffer = new float[outputBuffer.length];
         ArrayUtil.arrayCopy(outputBuffer, 0, buffer, 0, outputBuffer.length);
@@ -4,6 +4,7 @@ package gov.nih.mipav.model.algorithms;
 
 import gov.nih.mipav.model.file.*;
 import gov.nih.mipav.model.structures.*;
+import gov.nih.mipav.util.ThreadUtil;
 
 import gov.nih.mipav.view.*;
 
@@ -524,7 +525,7 @@ public class AlgorithmTimeFitting extends AlgorithmBase {
         if ((processors > 1) && (Preferences.isMultiThreadingEnabled())) {
             int start;
             int end;
-            final ExecutorService application = Executors.newCachedThreadPool();
+            final ExecutorService application = ThreadUtil.newJobExecutor();
             for (i = 0; i < processors; i++) {
                 start = (i * volSize) / processors;
                 end = ( (i + 1) * volSize) / processors;
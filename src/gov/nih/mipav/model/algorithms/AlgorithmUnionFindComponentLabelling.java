@@ -1,9 +1,11 @@
 package gov.nih.mipav.model.algorithms;
 
 import gov.nih.mipav.model.structures.*;
+import gov.nih.mipav.util.ThreadUtil;
 import gov.nih.mipav.view.*;
 
 import java.io.*;
+import java.util.Arrays;
 
 /**
  * 
@@ -32,6 +34,12 @@ public class AlgorithmUnionFindComponentLabelling extends AlgorithmBase {
 	
 	int parentBuffer[];
 	
+	private int voxelCounts[];
+	
+	private int boundingBoxes[][];
+	
+	private double centroids[][];
+	
 	//~ Constructors ---------------------------------------------------------------------------------------------------
 
 	public AlgorithmUnionFindComponentLabelling(ModelImage destImage, ModelImage srcImage, int numNeighbor, boolean limitBins,
@@ -249,6 +257,13 @@ public class AlgorithmUnionFindComponentLabelling extends AlgorithmBase {
         return;
 	}
 	
+	/**
+	 * Labels the level components of each volume.  The volume is split into z-slabs which are labelled
+	 * independently with their own union-find, so only the planes where two slabs meet need a second,
+	 * much smaller union-find over the slab component numbers.  Components are numbered in the same order
+	 * as the original single pass, by their first voxel in x, then y, then z order, and the voxel count,
+	 * bounding box and centroid of every component are gathered while the slabs are labelled.
+	 */
 	public void run3D() {
     	int xDim;
     	int yDim;
@@ -256,31 +271,20 @@ public class AlgorithmUnionFindComponentLabelling extends AlgorithmBase {
     	int tDim;
     	int nDims;
     	int length;
-    	double imgBuffer[];
-    	int labelBuffer[] = null;
-    	int x;
-    	int y;
-    	int x2;
-    	int y2;
-    	int z2;
-    	int z;
+    	final double imgBuffer[];
+    	final int labelBuffer[];
     	int t;
     	int i;
-    	int zi;
-    	int yi;
-    	int xi;
     	int j;
-    	int r;
-    	int r2;
-    	int foundNeighbors;
-    	int neighbors[];
-    	int allNeighbors[][];
+    	int s;
+    	int k;
+    	int roots;
+    	long order[];
     	double minValue;
     	double maxValue;
     	double range;
     	double scale;
-    	int curlab;
-    	int sliceSize;
+    	final int sliceSize;
     	
     	if (srcImage == null) {
             displayError("Source Image is null");
@@ -297,8 +301,6 @@ public class AlgorithmUnionFindComponentLabelling extends AlgorithmBase {
         sliceSize = xDim * yDim;
         length = sliceSize * zDim;
         nDims = srcImage.getNDims();
-    	
-        neighbors = new int[numNeighbor];
         
         if (nDims > 3) {
         	tDim = srcImage.getExtents()[3];
@@ -311,7 +313,6 @@ public class AlgorithmUnionFindComponentLabelling extends AlgorithmBase {
             imgBuffer = new double[length];
             labelBuffer = new int[length];
             parentBuffer = new int[length];
-            allNeighbors = new int[length][];
         } catch (OutOfMemoryError e) {
             displayError("Algorithm Union Find Component Labelling: Out of memory creating buffers");
             setCompleted(false);
@@ -319,67 +320,14 @@ public class AlgorithmUnionFindComponentLabelling extends AlgorithmBase {
             return;
         }
         
-        for (i = 0; i < length; i++) {
-        	x = i % xDim;
-        	y = (i % sliceSize) / xDim;
-            z = i / sliceSize;
-        	foundNeighbors = 0;
-        	// The neighbor must have either
-        	// 1.) A x value less than the original pixel x value
-        	// 2.) A x value equal to the original pixel x value and
-        	//     a y value less than the original pixel y value
-        	// 3.) A x value equal to the original pixel x value,
-        	//     a y value equal to the original pixel y value
-        	//     a z value less than the original pixel z value.
-        	if (x > 0) {
-        		neighbors[foundNeighbors++] = i-1;
-        	}
-        	if (y > 0) {
-        		neighbors[foundNeighbors++] = i-xDim;
-        	}
-        	if (z > 0) {
-        		neighbors[foundNeighbors++] = i-sliceSize;
-        	}
-        	if (numNeighbor >= 18) {
-        		if ((x > 0) && (y > 0)) {
-        			neighbors[foundNeighbors++] = i-xDim-1;
-        		}
-        		if ((x > 0) && (y < yDim-1)) {
-        			neighbors[foundNeighbors++] = i+xDim-1;
-        		}
-        		if ((x > 0) && (z > 0)) {
-        			neighbors[foundNeighbors++] = i-sliceSize-1;
-        		}
-        		if ((x > 0) && (z < zDim-1)) {
-        			neighbors[foundNeighbors++] = i+sliceSize-1;
-        		}
-        		if ((y > 0) && (z > 0)) {
-        			neighbors[foundNeighbors++] = i - sliceSize - xDim;
-        		}
-        		if ((y > 0) && (z < zDim-1)) {
-        			neighbors[foundNeighbors++] = i + sliceSize - xDim;
-        		}
-        		if (numNeighbor == 26) {
-        			if ((x > 0) && (y > 0) && (z > 0)) {
-        				neighbors[foundNeighbors++] = i - sliceSize - xDim - 1;
-        			}
-        			if ((x > 0) && (y > 0) && (z < zDim-1)) {
-        				neighbors[foundNeighbors++] = i + sliceSize - xDim - 1;
-        			}
-        			if ((x > 0) && (y < yDim-1) && (z > 0)) {
-        				neighbors[foundNeighbors++] = i - sliceSize + xDim - 1;
-        			}
-        			if ((x > 0) && (y < yDim-1) && (z < zDim-1)) {
-        				neighbors[foundNeighbors++] = i + sliceSize + xDim - 1;
-        			}
-        		} // if (numNeighbor == 26)
-        	} // if (numNeighbor >= 18)
-        	allNeighbors[i] = new int[foundNeighbors];
-        	for (j = 0; j < foundNeighbors; j++) {
-        		allNeighbors[i][j] = neighbors[j];
-        	}
+        // The neighbors that come before a voxel in raster order
+        final int offsets[][] = backwardNeighborOffsets();
+        final int slabs = multiThreadingEnabled ? Math.max(1, Math.min(nthreads, zDim)) : 1;
+        final int slabStart[] = new int[slabs + 1];
+        for (s = 0; s <= slabs; s++) {
+        	slabStart[s] = (int)((long)zDim * s / slabs);
         }
-
+        final ComponentStatistics slabComponents[] = new ComponentStatistics[slabs];
 
         for (t = 0; t < tDim; t++) {
 
@@ -413,61 +361,86 @@ public class AlgorithmUnionFindComponentLabelling extends AlgorithmBase {
         	    }
             } // if (limitBins)
             
-            for (i = 0; i < length; i++) {
-            	parentBuffer[i] = i;
+            // First pass: every slab is labelled on its own.  A slab only reads and writes the
+            // parentBuffer entries of its own voxels, so the slabs need no locking.
+            final int extents[] = new int[] {xDim, yDim, zDim};
+            ThreadUtil.parallelFor(slabs, new ThreadUtil.IndexedTask() {
+            	public void run(final int index) {
+            		slabComponents[index] = labelSlab(imgBuffer, labelBuffer, extents, slabStart[index],
+            				slabStart[index + 1], offsets);
+            	}
+            });
+            
+            // Number the slab components consecutively and merge the components that
+            // continue across the first plane of each slab
+            final int componentOffset[] = new int[slabs + 1];
+            for (s = 0; s < slabs; s++) {
+            	componentOffset[s + 1] = componentOffset[s] + slabComponents[s].count;
+            }
+            final int componentParent[] = new int[componentOffset[slabs]];
+            for (i = 0; i < componentParent.length; i++) {
+            	componentParent[i] = i;
+            }
+            for (s = 1; s < slabs; s++) {
+            	mergeSlabBorder(imgBuffer, labelBuffer, componentParent, componentOffset[s - 1], componentOffset[s],
+            			xDim, yDim, slabStart[s], offsets);
             }
             
-            // Initialize queue with pixels that have a lower neighbor
-            for (xi = 0; xi < xDim; xi++) {
-                for (yi = 0; yi < yDim; yi++) {
-                	for (zi = 0; zi < zDim; zi++) {
-	            	    i = xi + yi * xDim + zi * sliceSize;
-		            	r = i;
-		            	foundNeighbors = allNeighbors[i].length;
-		        	    for (j = 0; j < foundNeighbors; j++) {
-		        	    	if (imgBuffer[allNeighbors[i][j]] == imgBuffer[i]) {
-		        	    	   r2 =  findRoot(allNeighbors[i][j]);
-		        	    	   // Obtain the minimum of r and r2 with respect to lexicographical order
-		        	    	   x = r % xDim;
-		        	    	   y = (r % sliceSize) / xDim;
-		        	    	   z = r / sliceSize;
-		        	    	   x2 = r2 % xDim;
-		        	    	   y2 = (r2 % sliceSize) / xDim;
-		        	    	   z2 = r2 / sliceSize;
-		        	    	   if ((x2 < x) || ((x2 == x) && (y2 < y)) || ((x2 == x) && (y2 == y) && (z2 < z))) {
-		        	    		   r = r2;
-		        	    	   }
-		        	    	} // if (imgBuffer[allNeighbors[i][j]] == imgBuffer[i]) 
-		        	    } // for (j = 0; j < foundNeighbors; j++)
-		        	    parentBuffer[i] = r;
-		        	    for (j = 0; j < foundNeighbors; j++) {
-		        	    	if (imgBuffer[allNeighbors[i][j]] == imgBuffer[i]) {
-		        	    	    pathCompress(allNeighbors[i][j], r);	
-		        	    	} // if (imgBuffer[allNeighbors[i][j]] == imgBuffer[i])
-		        	    } // for (j = 0; j < foundNeighbors; j++)'
-                	} // for (zi = 0; zi < zDim; zi++)
-                } // for (yi = 0; yi < yDim; yi++)
-            } // for (xi = 0; xi < xDim; xi++)
+            // Gather the statistics of the merged components.  A component's parent always has a
+            // smaller number, so a single forward pass leaves every entry pointing at its root.
+            ComponentStatistics statistics = new ComponentStatistics(componentParent.length);
+            for (i = 0; i < componentParent.length; i++) {
+            	statistics.addComponent();
+            }
+            for (s = 0; s < slabs; s++) {
+            	for (j = 0; j < slabComponents[s].count; j++) {
+            		i = componentOffset[s] + j;
+            		componentParent[i] = componentParent[componentParent[i]];
+            		statistics.add(componentParent[i], slabComponents[s], j);
+            	}
+            }
             
-            // curlab is the current label
-            curlab = 1;
-            for (xi = 0; xi < xDim; xi++) {
-                for (yi = 0; yi < yDim; yi++) {
-                	for (zi = 0; zi < zDim; zi++) {
-	            	    i = xi + yi * xDim + zi * sliceSize;
-		            	if (parentBuffer[i] == i) {
-		            	    // i is a root pixel
-		            		labelBuffer[i] = curlab;
-		            		curlab++;
-		            	}
-		            	else {
-		            		// Resolve unresolved equivalences
-		            		parentBuffer[i] = parentBuffer[parentBuffer[i]];
-		            		labelBuffer[i] = labelBuffer[parentBuffer[i]];
-		            	}
-                	} // for (zi = 0; zi < zDim; zi++)
-                } // for (yi = 0; yi < yDim; yi++)
-            } // for (xi = 0; xi < xDim; xi++)
+            // Number the components by their first voxel in x, y, z order
+            roots = 0;
+            for (i = 0; i < componentParent.length; i++) {
+            	if (componentParent[i] == i) {
+            		roots++;
+            	}
+            }
+            order = new long[roots];
+            roots = 0;
+            for (i = 0; i < componentParent.length; i++) {
+            	if (componentParent[i] == i) {
+            		order[roots++] = (statistics.sums[4 * i + 3] << 32) | i;
+            	}
+            }
+            Arrays.sort(order);
+            final int finalLabel[] = new int[componentParent.length];
+            voxelCounts = new int[roots];
+            boundingBoxes = new int[roots][6];
+            centroids = new double[roots][3];
+            for (j = 0; j < roots; j++) {
+            	i = (int)(order[j] & 0xffffffffL);
+            	finalLabel[i] = j + 1;
+            	voxelCounts[j] = statistics.voxels[i];
+            	for (k = 0; k < 6; k++) {
+            		boundingBoxes[j][k] = statistics.bounds[6 * i + k];
+            	}
+            	for (k = 0; k < 3; k++) {
+            		centroids[j][k] = (double)statistics.sums[4 * i + k] / statistics.voxels[i];
+            	}
+            }
+            statistics = null;
+            
+            ThreadUtil.parallelFor(slabs, new ThreadUtil.IndexedTask() {
+            	public void run(final int index) {
+            		final int offset = componentOffset[index];
+            		final int end = slabStart[index + 1] * sliceSize;
+            		for (int i = slabStart[index] * sliceSize; i < end; i++) {
+            			labelBuffer[i] = finalLabel[componentParent[offset + labelBuffer[i]]];
+            		}
+            	}
+            });
             
             try {
 			    destImage.importData(t*length, labelBuffer, false);
@@ -484,6 +457,179 @@ public class AlgorithmUnionFindComponentLabelling extends AlgorithmBase {
         return;
 	}
 	
+	/**
+	 * Returns the number of voxels in each component of the last volume labelled by run3D(),
+	 * indexed by label - 1.
+	 */
+	public int[] getVoxelCounts() {
+		return voxelCounts;
+	}
+	
+	/**
+	 * Returns {xMin, yMin, zMin, xMax, yMax, zMax} for each component of the last volume labelled
+	 * by run3D(), indexed by label - 1.
+	 */
+	public int[][] getBoundingBoxes() {
+		return boundingBoxes;
+	}
+	
+	/**
+	 * Returns the {x, y, z} centroid in voxels of each component of the last volume labelled by
+	 * run3D(), indexed by label - 1.
+	 */
+	public double[][] getCentroids() {
+		return centroids;
+	}
+	
+	/**
+	 * Offsets {dx, dy, dz} of the neighbors that precede a voxel in raster order for the
+	 * 6, 18 or 26 neighbor connectivity.
+	 */
+	private int[][] backwardNeighborOffsets() {
+		int offsets[][] = new int[numNeighbor / 2][];
+		int n = 0;
+		offsets[n++] = new int[] {-1, 0, 0};
+		offsets[n++] = new int[] {0, -1, 0};
+		offsets[n++] = new int[] {0, 0, -1};
+		if (numNeighbor >= 18) {
+			offsets[n++] = new int[] {-1, -1, 0};
+			offsets[n++] = new int[] {1, -1, 0};
+			offsets[n++] = new int[] {-1, 0, -1};
+			offsets[n++] = new int[] {1, 0, -1};
+			offsets[n++] = new int[] {0, -1, -1};
+			offsets[n++] = new int[] {0, 1, -1};
+			if (numNeighbor == 26) {
+				offsets[n++] = new int[] {-1, -1, -1};
+				offsets[n++] = new int[] {1, -1, -1};
+				offsets[n++] = new int[] {-1, 1, -1};
+				offsets[n++] = new int[] {1, 1, -1};
+			}
+		}
+		return offsets;
+	}
+	
+	/**
+	 * Labels the level components of slices zStart through zEnd - 1 with the scan-line union-find,
+	 * using only neighbors inside the slab.  On return labelBuffer holds the slab component number
+	 * of every voxel of the slab, numbered from 0 in raster order of the component roots, and the
+	 * returned statistics are indexed by that number.
+	 */
+	private ComponentStatistics labelSlab(double imgBuffer[], int labelBuffer[], int extents[], int zStart,
+			int zEnd, int offsets[][]) {
+		int xDim = extents[0];
+		int yDim = extents[1];
+		int zDim = extents[2];
+		int sliceSize = xDim * yDim;
+		int x;
+		int y;
+		int z;
+		int i;
+		int j;
+		int n;
+		int r;
+		int r2;
+		int neighbor[] = new int[offsets.length];
+		int foundNeighbors;
+		ComponentStatistics components = new ComponentStatistics(64);
+		
+		for (z = zStart; z < zEnd; z++) {
+			for (y = 0; y < yDim; y++) {
+				for (x = 0; x < xDim; x++) {
+					i = x + y * xDim + z * sliceSize;
+					r = i;
+					foundNeighbors = 0;
+					for (j = 0; j < offsets.length; j++) {
+						if ((x + offsets[j][0] < 0) || (x + offsets[j][0] >= xDim) || (y + offsets[j][1] < 0) ||
+								(y + offsets[j][1] >= yDim) || (z + offsets[j][2] < zStart)) {
+							continue;
+						}
+						n = i + offsets[j][0] + offsets[j][1] * xDim + offsets[j][2] * sliceSize;
+						if (imgBuffer[n] == imgBuffer[i]) {
+							neighbor[foundNeighbors++] = n;
+							r2 = findRoot(n);
+							// In raster order the root of every component is its smallest index
+							if (r2 < r) {
+								r = r2;
+							}
+						}
+					} // for (j = 0; j < offsets.length; j++)
+					parentBuffer[i] = r;
+					for (j = 0; j < foundNeighbors; j++) {
+						pathCompress(neighbor[j], r);
+					}
+				}
+			}
+		}
+		
+		// Resolve the equivalences and number the roots.  Every parent precedes its child,
+		// so it already points at its root when the child is reached.
+		for (z = zStart; z < zEnd; z++) {
+			for (y = 0; y < yDim; y++) {
+				for (x = 0; x < xDim; x++) {
+					i = x + y * xDim + z * sliceSize;
+					if (parentBuffer[i] == i) {
+						labelBuffer[i] = components.count;
+						components.addComponent();
+					}
+					else {
+						parentBuffer[i] = parentBuffer[parentBuffer[i]];
+						labelBuffer[i] = labelBuffer[parentBuffer[i]];
+					}
+					components.addVoxel(labelBuffer[i], x, y, z, ((long)x * yDim + y) * zDim + z);
+				}
+			}
+		}
+		return components;
+	}
+	
+	/**
+	 * Joins the components of the slab starting at plane zStart with the components of the previous
+	 * slab that they touch across the plane.
+	 */
+	private void mergeSlabBorder(double imgBuffer[], int labelBuffer[], int componentParent[], int previousOffset,
+			int offset, int xDim, int yDim, int zStart, int offsets[][]) {
+		int sliceSize = xDim * yDim;
+		int x;
+		int y;
+		int i;
+		int j;
+		int n;
+		int r;
+		int r2;
+		
+		for (y = 0; y < yDim; y++) {
+			for (x = 0; x < xDim; x++) {
+				i = x + y * xDim + zStart * sliceSize;
+				for (j = 0; j < offsets.length; j++) {
+					if ((offsets[j][2] == 0) || (x + offsets[j][0] < 0) || (x + offsets[j][0] >= xDim) ||
+							(y + offsets[j][1] < 0) || (y + offsets[j][1] >= yDim)) {
+						continue;
+					}
+					n = i + offsets[j][0] + offsets[j][1] * xDim - sliceSize;
+					if (imgBuffer[n] == imgBuffer[i]) {
+						r = findComponentRoot(componentParent, offset + labelBuffer[i]);
+						r2 = findComponentRoot(componentParent, previousOffset + labelBuffer[n]);
+						// Keep the smaller number as the root
+						if (r < r2) {
+							componentParent[r2] = r;
+						}
+						else if (r2 < r) {
+							componentParent[r] = r2;
+						}
+					}
+				}
+			}
+		}
+	}
+	
+	private int findComponentRoot(int componentParent[], int p) {
+		while (componentParent[p] != p) {
+			componentParent[p] = componentParent[componentParent[p]];
+			p = componentParent[p];
+		}
+		return p;
+	}
+	
 	private int findRoot(int p) {
 		int r = p;
 		while (parentBuffer[p] != p) {
@@ -501,4 +647,68 @@ public class AlgorithmUnionFindComponentLabelling extends AlgorithmBase {
 		    p = h;
 		}
 	}
-}
\ No newline at end of file
+	/**
+	 * Voxel counts, bounding boxes and coordinate sums of a growable list of components.
+	 */
+	private static class ComponentStatistics {
+		int count = 0;
+		
+		int voxels[];
+		
+		// {xMin, yMin, zMin, xMax, yMax, zMax} of each component
+		int bounds[];
+		
+		// {x sum, y sum, z sum, index of the first voxel in x, y, z order} of each component
+		long sums[];
+		
+		ComponentStatistics(int capacity) {
+			capacity = Math.max(capacity, 1);
+			voxels = new int[capacity];
+			bounds = new int[6 * capacity];
+			sums = new long[4 * capacity];
+		}
+		
+		void addComponent() {
+			if (count == voxels.length) {
+				voxels = Arrays.copyOf(voxels, 2 * count);
+				bounds = Arrays.copyOf(bounds, 12 * count);
+				sums = Arrays.copyOf(sums, 8 * count);
+			}
+			voxels[count] = 0;
+			for (int k = 0; k < 3; k++) {
+				bounds[6 * count + k] = Integer.MAX_VALUE;
+				bounds[6 * count + 3 + k] = Integer.MIN_VALUE;
+				sums[4 * count + k] = 0;
+			}
+			sums[4 * count + 3] = Long.MAX_VALUE;
+			count++;
+		}
+		
+		void addVoxel(int c, int x, int y, int z, long key) {
+			voxels[c]++;
+			bounds[6 * c] = Math.min(bounds[6 * c], x);
+			bounds[6 * c + 1] = Math.min(bounds[6 * c + 1], y);
+			bounds[6 * c + 2] = Math.min(bounds[6 * c + 2], z);
+			bounds[6 * c + 3] = Math.max(bounds[6 * c + 3], x);
+			bounds[6 * c + 4] = Math.max(bounds[6 * c + 4], y);
+			bounds[6 * c + 5] = Math.max(bounds[6 * c + 5], z);
+			sums[4 * c] += x;
+			sums[4 * c + 1] += y;
+			sums[4 * c + 2] += z;
+			sums[4 * c + 3] = Math.min(sums[4 * c + 3], key);
+		}
+		
+		/**
+		 * Adds component k of other into component c.
+		 */
+		void add(int c, ComponentStatistics other, int k) {
+			voxels[c] += other.voxels[k];
+			for (int m = 0; m < 3; m++) {
+				bounds[6 * c + m] = Math.min(bounds[6 * c + m], other.bounds[6 * k + m]);
+				bounds[6 * c + 3 + m] = Math.max(bounds[6 * c + 3 + m], other.bounds[6 * k + 3 + m]);
+				sums[4 * c + m] += other.sums[4 * k + m];
+			}
+			sums[4 * c + 3] = Math.min(sums[4 * c + 3], other.sums[4 * k + 3]);
+		}
+	}
+}
@@ -462,7 +462,7 @@ public class AlgorithmDWI2DTI extends AlgorithmBase implements AlgorithmInterfac
                 ThreadUtil.mipavThreadPool.execute(task);
             }
             try {
-                doneSignal.await();
+                ThreadUtil.await(doneSignal);
             } catch (final InterruptedException e) {
                 e.printStackTrace();
             }
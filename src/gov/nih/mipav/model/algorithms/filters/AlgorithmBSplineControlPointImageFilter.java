@@ -13,6 +13,7 @@ import java.io.IOException;
 import Jama.Matrix;
 import gov.nih.mipav.view.MipavUtil;
 import gov.nih.mipav.view.Preferences;
+import gov.nih.mipav.util.ThreadUtil;
 	
 	
 	/**
@@ -177,6 +178,15 @@ import gov.nih.mipav.view.Preferences;
 	    	return outputBuffer;
 	    }
 	    
+	    /**
+	     * Supplies the array generateData() writes into, so that a caller reconstructing the
+	     * same extents repeatedly can reuse one buffer.  A buffer of the wrong length is replaced.
+	     * @param outputBuffer  array of the output extents length
+	     */
+	    public void setOutputBuffer(double[] outputBuffer) {
+	    	this.outputBuffer = outputBuffer;
+	    }
+	    
 	    public void setOrigin(float[] origin) {
 	    	for (int i = 0; i < nDims; i++) {
 	    		this.origin[i] = origin[i];
@@ -242,12 +252,13 @@ import gov.nih.mipav.view.Preferences;
 	    }
 	    
 	    private void threadedGenerateData() {
-	    	double collapsedPhiLattices[][] = new double[nDims + 1][];
-	        int collapsedPhiLatticeIndex[][] = new int[nDims+1][];
-	        int size = 1;
-	        int it;
+	    	int size = 1;
+	    	for (int i = 0; i < nDims; i++) {
+	    		size *= inputImage.getExtents()[i];
+	    	}
+	    	final double collapsedPhiLattice[] = new double[size];
+	        final int collapsedPhiLatticeIndex[][] = new int[nDims+1][];
 	        for (int i = 0; i <= nDims; i++) {
-	            size = 1;
 	            if (i == 0) {
 	            	collapsedPhiLatticeIndex[i] = new int[1];
 	            	collapsedPhiLatticeIndex[i][0] = 1;
@@ -256,19 +267,17 @@ import gov.nih.mipav.view.Preferences;
 	            	collapsedPhiLatticeIndex[i] = new int[i];
 	            }
 	            for (int j = 0; j < i; j++) {
-	            	size *= inputImage.getExtents()[j];
 	            	collapsedPhiLatticeIndex[i][j] = inputImage.getExtents()[j];
 	            }
-	            collapsedPhiLattices[i] = new double[size];
 	        }
 	        try {
-	        	inputImage.exportData(0, size, collapsedPhiLattices[nDims]);
+	        	inputImage.exportData(0, collapsedPhiLattice.length, collapsedPhiLattice);
 	        }
 	        catch(IOException e) {
 	        	MipavUtil.displayError("IOException on inputImage.exportData");
 	        	return;
 	        }
-	        int totalNumberOfSpans[] = new int[nDims];
+	        final int totalNumberOfSpans[] = new int[nDims];
 	        for (int i = 0; i <  nDims; i++) {
 	        	if (closeDimension[i] != 0) {
 	        		totalNumberOfSpans[i] = inputImage.getExtents()[i];
@@ -277,49 +286,76 @@ import gov.nih.mipav.view.Preferences;
 	        	    totalNumberOfSpans[i] = inputImage.getExtents()[i] - splineOrder[i];
 	        	}
 	        } // for (int i = 0; i < nDims; i++)
-	        double U[] = new double[nDims];
-	        double currentU[] = new double[nDims];
-	        for (int i = 0; i < nDims; i++) {
-	        	currentU[i] = -1;
-	        }
 	        
-	        outputBuffer = new double[extentsLength];
+	        if ((outputBuffer == null) || (outputBuffer.length != extentsLength)) {
+	            outputBuffer = new double[extentsLength];
+	        }
 	        
-	        int idx[] = new int[nDims];
-	        for (it = 0; it < extentsLength; it++) {
-	            idx[0] = it % extents[0];
-	            idx[1] = (it % extentsSlice) / extents[0];
-	            if (nDims > 2) {
-	            	idx[2] = (it  % xyzExtents)/ extentsSlice;
-	            	if (nDims > 3) {
-	            		idx[3] = it / xyzExtents;
-	            	}
-	            }
-	            for (int i = 0; i < nDims; i++) {
-	                U[i] = ((double)(totalNumberOfSpans[i] * (idx[i] /* - startIndex[i] */)))/(double)(extents[i] - 1);
-	                //if (Math.abs(U[i] - totalNumberOfSpans[i]) <= BSplineEpsilon) {
-	                if ((Math.abs(U[i] - totalNumberOfSpans[i]))/totalNumberOfSpans[i] < 1.0E-6) {
-	                	U[i] = totalNumberOfSpans[i] - BSplineEpsilon;
-	                }
-	                if (U[i] >= totalNumberOfSpans[i]) {
-	                	MipavUtil.displayError("The collapse point component " + U[i] + 
-	                			" is outside the corresponding parametric domain of [0, " + totalNumberOfSpans[i] +
-	                			"].");
-	                	return;
-	                }
-	            } // for (int i = 0; i < nDims; i++)
-	            for (int i = nDims - 1; i >= 0; i--) {
-	                if (U[i] != currentU[i]) {
-	                	for (int j = i; j >= 0; j--) {
-	                		collapsePhiLattice(collapsedPhiLattices[j+1],collapsedPhiLatticeIndex[j+1], collapsedPhiLattices[j],
-	                				collapsedPhiLatticeIndex[j], U[j], j);
-	                		currentU[j] = U[j];
-	                	}
-	                	break;
-	                }
-	            } // for (int i = nDims - 1; i >= 0; i--)
-	            outputBuffer[it] = collapsedPhiLattices[0][0];
-	        } // for (it = 0; it < extentsLength; it++)
+	        // Every chunk of the output keeps its own collapsed lattices, so the chunks
+	        // are independent and give the same values as a single pass.
+	        final int chunks = multiThreadingEnabled ? Math.max(1, Math.min(nthreads, extentsLength)) : 1;
+	        final String errors[] = new String[chunks];
+	        ThreadUtil.parallelFor(chunks, new ThreadUtil.IndexedTask() {
+	        	public void run(final int index) {
+	        		final int from = (int)((long)extentsLength * index / chunks);
+	        		final int to = (int)((long)extentsLength * (index + 1) / chunks);
+	        		double collapsedPhiLattices[][] = new double[nDims + 1][];
+	        		for (int i = 0; i < nDims; i++) {
+	        			int size = 1;
+	        			for (int j = 0; j < i; j++) {
+	        				size *= collapsedPhiLatticeIndex[i][j];
+	        			}
+	        			collapsedPhiLattices[i] = new double[size];
+	        		}
+	        		collapsedPhiLattices[nDims] = collapsedPhiLattice;
+	        		double U[] = new double[nDims];
+	        		double currentU[] = new double[nDims];
+	        		for (int i = 0; i < nDims; i++) {
+	        			currentU[i] = -1;
+	        		}
+	        		int idx[] = new int[nDims];
+	        		for (int it = from; it < to; it++) {
+	        			idx[0] = it % extents[0];
+	        			idx[1] = (it % extentsSlice) / extents[0];
+	        			if (nDims > 2) {
+	        				idx[2] = (it  % xyzExtents)/ extentsSlice;
+	        				if (nDims > 3) {
+	        					idx[3] = it / xyzExtents;
+	        				}
+	        			}
+	        			for (int i = 0; i < nDims; i++) {
+	        				U[i] = ((double)(totalNumberOfSpans[i] * (idx[i] /* - startIndex[i] */)))/(double)(extents[i] - 1);
+	        				//if (Math.abs(U[i] - totalNumberOfSpans[i]) <= BSplineEpsilon) {
+	        				if ((Math.abs(U[i] - totalNumberOfSpans[i]))/totalNumberOfSpans[i] < 1.0E-6) {
+	        					U[i] = totalNumberOfSpans[i] - BSplineEpsilon;
+	        				}
+	        				if (U[i] >= totalNumberOfSpans[i]) {
+	        					errors[index] = "The collapse point component " + U[i] + 
+	        							" is outside the corresponding parametric domain of [0, " + totalNumberOfSpans[i] +
+	        							"].";
+	        					return;
+	        				}
+	        			} // for (int i = 0; i < nDims; i++)
+	        			for (int i = nDims - 1; i >= 0; i--) {
+	        				if (U[i] != currentU[i]) {
+	        					for (int j = i; j >= 0; j--) {
+	        						collapsePhiLattice(collapsedPhiLattices[j+1],collapsedPhiLatticeIndex[j+1], collapsedPhiLattices[j],
+	        								collapsedPhiLatticeIndex[j], U[j], j);
+	        						currentU[j] = U[j];
+	        					}
+	        					break;
+	        				}
+	        			} // for (int i = nDims - 1; i >= 0; i--)
+	        			outputBuffer[it] = collapsedPhiLattices[0][0];
+	        		} // for (int it = from; it < to; it++)
+	        	}
+	        });
+	        for (int c = 0; c < chunks; c++) {
+	        	if (errors[c] != null) {
+	        		MipavUtil.displayError(errors[c]);
+	        		return;
+	        	}
+	        }
 	    }
 	    
 	    private void collapsePhiLattice(double[] lattice, int latticeIndex[], double[] collapsedLattice, int collapsedLatticeIndex[],
@@ -6,12 +6,14 @@ import gov.nih.mipav.model.structures.ModelImage;
 import gov.nih.mipav.model.structures.ModelStorageBase;
 
 import java.io.IOException;
+import java.util.Arrays;
 import java.util.Vector;
 
 import WildMagic.LibFoundation.Mathematics.Vector4d;
 import Jama.Matrix;
 import gov.nih.mipav.view.MipavUtil;
 import gov.nih.mipav.view.Preferences;
+import gov.nih.mipav.util.ThreadUtil;
 	
 	
 	/**
@@ -59,9 +61,12 @@ import gov.nih.mipav.view.Preferences;
 		private int maximumNumberOfLevels;
 		ModelImage phiLattice;
 		ModelImage psiLattice;
-		private Vector<Double> inputPointData;
-		private Vector<Double> outputPointData;
-		private Vector<Double> pointWeights;
+		// Point data values and point locations (nDims coordinates per point) as flat arrays
+		private double pointValues[];
+		private double pointCoordinates[];
+		private double inputPointData[];
+		private double outputPointData[];
+		private double pointWeights[];
 		private boolean usePointWeights;
 		// Machine epsilon is the smallest positive epsilon such that
         // (1.0 + epsilon) != 1.0.
@@ -86,8 +91,9 @@ import gov.nih.mipav.view.Preferences;
 		private Matrix[] refinedLatticeCoefficients;
 		private int currentLevel;
 		private int[] currentNumberOfControlPoints;
-		private ModelImage omegaLattice;
-		private ModelImage deltaLattice;
+		private int latticeSize[];
+		private double omegaLattice[];
+		private double deltaLattice[];
 	    
 	    public AlgorithmBSplineScatteredDataPointSetToImageFilter(int nDims) {
 	        super(nDims);
@@ -122,11 +128,10 @@ import gov.nih.mipav.view.Preferences;
 	        // itk only needs data type and extents to construct an image, but MIPAV needs extents[] as well.
 	        phiLattice = null;
 	        psiLattice = null;
-	        inputPointData = new Vector<Double>();
-	        outputPointData = new Vector<Double>();
+	        pointValues = new double[0];
+	        pointCoordinates = new double[0];
 	        
 	        usePointWeights = false;
-	        pointWeights = new Vector<Double>();
 	        BSplineEpsilon = epsilon;
 	        isFittingComplete = false;
 	        refinedLatticeCoefficients = new Matrix[nDims];
@@ -158,28 +163,16 @@ import gov.nih.mipav.view.Preferences;
 	    		psiLattice.disposeLocal();
 	    		psiLattice = null;
 	    	}
-	    	if (inputPointData != null) {
-	    	    inputPointData.clear();
-	    	    inputPointData = null;
-	        }
-	    	if (outputPointData != null) {
-	    		outputPointData.clear();
-	    		outputPointData = null;
-	    	}
-	    	if (pointWeights != null) {
-	    		pointWeights.clear();
-	    		pointWeights = null;
-	    	}
+	    	pointValues = null;
+	    	pointCoordinates = null;
+	    	inputPointData = null;
+	    	outputPointData = null;
+	    	pointWeights = null;
 	    	refinedLatticeCoefficients = null;
 	    	currentNumberOfControlPoints = null;
-	    	if (omegaLattice != null) {
-	    		omegaLattice.disposeLocal();
-	    		omegaLattice = null;	
-	    	}
-	    	if (deltaLattice != null) { 
-	    		deltaLattice.disposeLocal();
-	    	    deltaLattice = null;
-	    	};
+	    	latticeSize = null;
+	    	omegaLattice = null;
+	    	deltaLattice = null;
 	        super.finalize();
 	    }
 	    
@@ -294,24 +287,73 @@ import gov.nih.mipav.view.Preferences;
 	    }
 	    
 	    public void setPointWeights(Vector<Double> weights) {
-	    	usePointWeights = true;
-	    	this.pointWeights.clear();
-	    	for (int i = 0; i < weights.size(); i++) {
-	    		this.pointWeights.add(weights.get(i));
-	    	}
+	        usePointWeights = true;
+	        pointWeights = new double[weights.size()];
+	        for (int i = 0; i < weights.size(); i++) {
+	            pointWeights[i] = weights.get(i);
+	        }
+	    }
+	    
+	    /**
+	     * Sets the point weights without boxing them into a Vector.  The array is used in place,
+	     * so a caller refitting the same point set can refill it between calls to generateData().
+	     * @param weights one weight per point
+	     */
+	    public void setPointWeights(double[] weights) {
+	        usePointWeights = true;
+	        pointWeights = weights;
+	    }
+	    
+	    public void setPointData(Vector<Double> pointData) {
+	        super.setPointData(pointData);
+	        pointValues = new double[pointData.size()];
+	        for (int i = 0; i < pointValues.length; i++) {
+	            pointValues[i] = pointData.get(i);
+	        }
+	    }
+	    
+	    /**
+	     * Sets the point data values without boxing them into a Vector.  The array is used in place.
+	     * @param pointData one value per point, in the same order as the point locations
+	     */
+	    public void setPointData(double[] pointData) {
+	        pointValues = pointData;
+	    }
+	    
+	    /**
+	     * Also copies the locations into a flat coordinate array, so that repeated fits of the same
+	     * point set do not read every point back through the synchronized Vector.
+	     */
+	    public void setPointLocation(Vector<Vector4d> pointLocation) {
+	        super.setPointLocation(pointLocation);
+	        pointCoordinates = new double[pointLocation.size() * nDims];
+	        for (int n = 0, j = 0; n < pointLocation.size(); n++, j += nDims) {
+	            Vector4d point = pointLocation.get(n);
+	            pointCoordinates[j] = point.X;
+	            if (nDims > 1) {
+	                pointCoordinates[j + 1] = point.Y;
+	                if (nDims > 2) {
+	                    pointCoordinates[j + 2] = point.Z;
+	                    if (nDims > 3) {
+	                        pointCoordinates[j + 3] = point.W;
+	                    }
+	                }
+	            }
+	        }
 	    }
 	    
 	    public void generateData() {
 	    	// Uncomment to use the BSplineScatteredDataPointSetToImageFilterTest self test in AlgorithmN4MRIBiasFieldCorrectionFilter
 	    	//super.generateData();
 	    	// Perform some error checking on the input
-	    	if (pointData.size() != pointLocation.size()) {
+	    	final int numberOfPoints = pointCoordinates.length / nDims;
+	    	if (pointValues.length != numberOfPoints) {
 	    		MipavUtil.displayError("pointData and pointLocation must have the same size");
 	    		return;
 	    	}
-	    	if (usePointWeights  && (pointWeights.size() != pointData.size())) {
-	    		System.err.println("pointWeights.size() = " + pointWeights.size());
-	    		System.err.println("pointData.size() = " + pointData.size());
+	    	if (usePointWeights  && (pointWeights.length != numberOfPoints)) {
+	    		System.err.println("pointWeights.size() = " + pointWeights.length);
+	    		System.err.println("pointData.size() = " + numberOfPoints);
 	    		MipavUtil.displayError("pointsWeights and pointData must have the same size");
 	    		return;
 	    	}
@@ -336,18 +378,19 @@ import gov.nih.mipav.view.Preferences;
 	    	    BSplineEpsilon *= 10.0;	
 	    	}
 	    	
-	    	inputPointData.clear();
-	    	outputPointData.clear();
-	    	if (!usePointWeights) {
-	    		pointWeights.clear();
+	    	// The working arrays are kept between calls, so refitting the same
+	    	// point set with new data values does not reallocate them.
+	    	if ((inputPointData == null) || (inputPointData.length != numberOfPoints)) {
+	    		inputPointData = new double[numberOfPoints];
+	    		outputPointData = new double[numberOfPoints];
 	    	}
-	    	for (int i = 0; i < pointData.size(); i++) {
-	    	    if (!usePointWeights) {	
-	    	    	pointWeights.add(1.0);
-	    	    }
-	    	    inputPointData.add(pointData.get(i));
-	    	    outputPointData.add(pointData.get(i));
+	    	if (!usePointWeights && ((pointWeights == null) || (pointWeights.length != numberOfPoints))) {
+	    		pointWeights = new double[numberOfPoints];
+	    		Arrays.fill(pointWeights, 1.0);
 	    	}
+	    	System.arraycopy(pointValues, 0, inputPointData, 0, numberOfPoints);
+	    	System.arraycopy(pointValues, 0, outputPointData, 0, numberOfPoints);
+	    	isFittingComplete = false;
 	    	currentLevel = 0;
 	    	for (int i = 0; i < nDims; i++) {
 	    	    currentNumberOfControlPoints[i] = numberOfControlPoints[i];
@@ -358,6 +401,9 @@ import gov.nih.mipav.view.Preferences;
 	    	updatePointSet();
 	    	
 	    	if (doMultiLevel) {
+	    		if (psiLattice != null) {
+	    			psiLattice.disposeLocal();
+	    		}
 	    		psiLattice = new ModelImage(ModelStorageBase.DOUBLE, phiLattice.getExtents(), "psiLattice");
 	    	} // if (doMultiLevel)
 	    	
@@ -386,15 +432,12 @@ import gov.nih.mipav.view.Preferences;
 	    	   double averageDifference = 0.0;
 	    	   double totalWeight = 0.0;
 	    	   
-	    	   int itin = 0;
-	    	   while (itin < inputPointData.size()) {
-	    		    inputPointData.set(itin,inputPointData.get(itin) - outputPointData.get(itin)); 
-    		    	double weight = pointWeights.get(itin);
-    		    	averageDifference += Math.abs(inputPointData.get(itin) - outputPointData.get(itin)) * weight;
+	    	   for (int itin = 0; itin < numberOfPoints; itin++) {
+	    		    inputPointData[itin] -= outputPointData[itin];
+    		    	double weight = pointWeights[itin];
+    		    	averageDifference += Math.abs(inputPointData[itin] - outputPointData[itin]) * weight;
     		    	totalWeight += weight;
-	    		    
-	    		    itin++;
-	    	   } // while (itin < inputPointData.size())
+	    	   } // for (int itin = 0; itin < numberOfPoints; itin++)
 	    	   
 	    	   if (totalWeight > 0) {
 	    		   Preferences.debug("The average weighted difference norm of the point set is " +
@@ -432,39 +475,79 @@ import gov.nih.mipav.view.Preferences;
 	    
 	    private void beforeThreadedGenerateData() {
 	        if (!isFittingComplete) {
-	        	int size[] = new int[nDims];
-	        	for (int i = 0; i < nDims; i++) {
-	        		if (closeDimension[i] != 0) {
-	        			size[i] = currentNumberOfControlPoints[i] - splineOrder[i];
-	        		}
-	        		else {
-	        			size[i] = currentNumberOfControlPoints[i];
-	        		}
-	        	}
-	        	if (omegaLattice != null) {
-	        		omegaLattice.disposeLocal();
-	        		omegaLattice = null;
-	        	}
-	        	omegaLattice = new ModelImage(ModelStorageBase.DOUBLE, size, "omegaLattice");
-	        	if (deltaLattice != null) {
-	        		deltaLattice.disposeLocal();
-	        		deltaLattice = null;
-	        	}
-	        	deltaLattice = new ModelImage(ModelStorageBase.DOUBLE, size, "deltaLattice");
+	            int latticeLength = 1;
+	            latticeSize = new int[nDims];
+	            for (int i = 0; i < nDims; i++) {
+	                if (closeDimension[i] != 0) {
+	                    latticeSize[i] = currentNumberOfControlPoints[i] - splineOrder[i];
+	                }
+	                else {
+	                    latticeSize[i] = currentNumberOfControlPoints[i];
+	                }
+	                latticeLength *= latticeSize[i];
+	            }
+	            if ((omegaLattice == null) || (omegaLattice.length != latticeLength)) {
+	                omegaLattice = new double[latticeLength];
+	                deltaLattice = new double[latticeLength];
+	            }
+	            else {
+	                Arrays.fill(omegaLattice, 0.0);
+	                Arrays.fill(deltaLattice, 0.0);
+	            }
 	        } // if (!isFittingComplete)
 	    }
 	    
 	    private void threadedGenerateData() {
-	    	if (!isFittingComplete) {
-	    		threadedGenerateDataForFitting();
-	    	}
-	    	else {
-	    		threadedGenerateDataForReconstruction();
-	    	}
-	    	
+	        if (!isFittingComplete) {
+	            threadedGenerateDataForFitting();
+	        }
+	        else {
+	            threadedGenerateDataForReconstruction();
+	        }
+	    
 	    }
 	    
 	    private void threadedGenerateDataForFitting() {
+	        final int numberOfPoints = inputPointData.length;
+	        final int latticeLength = omegaLattice.length;
+	        // As in the multithreaded itk filter each thread accumulates its share of the points
+	        // into its own omega and delta lattices, which are summed in afterwards.
+	        final int chunks = multiThreadingEnabled ? Math.max(1, Math.min(nthreads, numberOfPoints)) : 1;
+	        final double omegas[][] = new double[chunks][];
+	        final double deltas[][] = new double[chunks][];
+	        final String errors[] = new String[chunks];
+	        omegas[0] = omegaLattice;
+	        deltas[0] = deltaLattice;
+	        for (int c = 1; c < chunks; c++) {
+	            omegas[c] = new double[latticeLength];
+	            deltas[c] = new double[latticeLength];
+	        }
+	        ThreadUtil.parallelFor(chunks, new ThreadUtil.IndexedTask() {
+	            public void run(final int index) {
+	                final int from = (int)((long)numberOfPoints * index / chunks);
+	                final int to = (int)((long)numberOfPoints * (index + 1) / chunks);
+	                errors[index] = fitPoints(from, to, omegas[index], deltas[index]);
+	            }
+	        });
+	        for (int c = 0; c < chunks; c++) {
+	            if (errors[c] != null) {
+	                MipavUtil.displayError(errors[c]);
+	                return;
+	            }
+	        }
+	        for (int c = 1; c < chunks; c++) {
+	            for (int i = 0; i < latticeLength; i++) {
+	                omegaLattice[i] += omegas[c][i];
+	                deltaLattice[i] += deltas[c][i];
+	            }
+	        }
+	    }
+	    
+	    /**
+	     * Adds the contributions of points from through to - 1 to the omega and delta lattices.
+	     * @return null, or the error message if a point lies outside the parametric domain
+	     */
+	    private String fitPoints(int from, int to, double[] omega, double[] delta) {
 	        int size[] = new int[nDims];
 	        int neighborhoodWeightArrayLength = 1;
 	        for (int i = 0; i < nDims; i++) {
@@ -474,209 +557,241 @@ import gov.nih.mipav.view.Preferences;
 	        int neighborhoodWeightArraySliceSize = size[0]*size[1];
 	        int xyzNeighborhoodWeightArray = neighborhoodWeightArraySliceSize;
 	        if (nDims > 2) {
-	        	xyzNeighborhoodWeightArray *= size[2];
+	            xyzNeighborhoodWeightArray *= size[2];
 	        }
 	        double neighborhoodWeightArray[] = new double[neighborhoodWeightArrayLength];
 	        double p[] = new double[nDims];
 	        double r[] = new double[nDims];
 	        for (int i = 0; i < nDims; i++) {
-	        	r[i] = (double)(currentNumberOfControlPoints[i] - splineOrder[i])/((extents[i] - 1.0) * resolutions[i]);
+	            r[i] = (double)(currentNumberOfControlPoints[i] - splineOrder[i])/((extents[i] - 1.0) * resolutions[i]);
 	        }
-	        
-	        for (int n = 0; n < pointLocation.size(); n++) {
-	        	double point[] = new double[nDims];
-	        	point[0] = pointLocation.get(n).X;
-	        	point[1] = pointLocation.get(n).Y;
-	        	if (nDims > 2) {
-	        	    point[2] = pointLocation.get(n).Z;
-	        	    if (nDims > 3) {
-	        	    	point[3] = pointLocation.get(n).W;
-	        	    }
-	        	}
-	        	for (int i = 0; i < nDims; i++) {
-	        	    int totalNumberOfSpans = currentNumberOfControlPoints[i] - splineOrder[i];
-	        	    
-	        	    p[i] = (point[i] - origin[i]) * r[i];
-	        	    //if (Math.abs(p[i] - totalNumberOfSpans) <= BSplineEpsilon) {
-	        	    if ((Math.abs(p[i] - totalNumberOfSpans))/totalNumberOfSpans < 1.0E-6) {
-	        	    	p[i] = (double)(totalNumberOfSpans) - BSplineEpsilon;
-	        	    }
-	        	    if (p[i] >= totalNumberOfSpans) {
-	        	    	MipavUtil.displayError("The reparameterized point component p["+i+"] =" + p[i] + 
-	        	    			" is outside the corresponding parametric domain of [0, " + totalNumberOfSpans + "].");
-	        	    	return;
-	        	    }
-	        	} // for (int i = 0; i < nDims; i++)
-	        	
-	        	double w2Sum = 0.0;
-	        	int idx[] = new int[nDims];
-	        	for (int itw = 0; itw < neighborhoodWeightArrayLength; itw++) {
-	        	    double B = 1.0;
-	        	    idx[0] = itw % size[0];
-	        	    idx[1] = (itw % neighborhoodWeightArraySliceSize) / size[0];
-	        	    if (nDims > 2) {
-	        	    	idx[2] = (itw  % xyzNeighborhoodWeightArray) / neighborhoodWeightArraySliceSize;
-	        	    	if (nDims > 3) {
-	        	    		idx[3] = itw / xyzNeighborhoodWeightArray;
-	        	    	}
-	        	    }
-	        	    for (int i = 0; i < nDims; i++) {
-	        	        double u  = (p[i] - (int)p[i] - idx[i]) + 0.5*(splineOrder[i] - 1);
-	        	        switch (splineOrder[i]) {
-	        	        case 0:
-	        	        	B *= kernelOrder0.evaluate(u);
-	        	        	break;
-	        	        case 1:
-	        	        	B *= kernelOrder1.evaluate(u);
-	        	        	break;
-	        	        case 2:
-	        	        	B *= kernelOrder2.evaluate(u);
-	        	        	break;
-	        	        case 3:
-	        	        	B *= kernelOrder3.evaluate(u);
-	        	        	break;
-	        	        default:
-	        	        	B *= kernel[i].evaluate(u);
-	        	        } // switch (splineOrder[i)
-	        	    } // for (int i = 0; i < nDims; i++)
-	        	    neighborhoodWeightArray[itw] = B;
-	        	    w2Sum += B * B;
-	        	} // for (int itw = 0; itw < neighborhoodWeightArrayLength; itw++)
-	        	
-	        	for (int itw = 0; itw < neighborhoodWeightArrayLength; itw++) {
-	        		idx[0] = itw % size[0];
-	        	    idx[1] = (itw % neighborhoodWeightArraySliceSize) / size[0];
-	        	    if (nDims > 2) {
-	        	    	idx[2] = (itw % xyzNeighborhoodWeightArray) / neighborhoodWeightArraySliceSize;
-	        	    	if (nDims > 3) {
-	        	    		idx[3] = itw / xyzNeighborhoodWeightArray;
-	        	    	}
-	        	    }
-	        	    for (int i = 0; i < nDims; i++) {
-	        	        idx[i] += (int)(p[i]);
-	        	        if (closeDimension[i] != 0) {
-	        	        	idx[i] %= size[i];
-	        	        }
-	        	    } // for (int i = 0; i < nDims; i++)
-	        	    double wc = pointWeights.get(n);
-	        	    double t = neighborhoodWeightArray[itw];
-	        	    int index;
-	        	    boolean okay = true;
-	        	    for (int i = 0; i < nDims; i++) {
-	        	    	if ((idx[i] < 0) || (idx[i] >= omegaLattice.getExtents()[i])) {
-	        	    		okay = false; 
-	        	    	}
-	        	    }
-	        	    if (nDims == 2) {
-	        	    	index = idx[0] + idx[1] * omegaLattice.getExtents()[0];
-	        	    }
-	        	    else if (nDims == 3) {
-	        	    	index = idx[0] + idx[1] * omegaLattice.getExtents()[0] + 
-	        	    			idx[2] * omegaLattice.getExtents()[0] * omegaLattice.getExtents()[1];
-	        	    }
-	        	    else {
-	        	    	index = idx[0] + idx[1] * omegaLattice.getExtents()[0] + 
-	        	    			idx[2] * omegaLattice.getExtents()[0] * omegaLattice.getExtents()[1] +
-	        	    			idx[3] * omegaLattice.getExtents()[0] * omegaLattice.getExtents()[1] * omegaLattice.getExtents()[2];
-	        	    }
-	        	    if (okay) {
-	        	        omegaLattice.set(index, omegaLattice.getDouble(index) + wc * t * t);
-	        	    }
-	        	    double data = inputPointData.get(n);
-	        	    data *= (t * t * t * wc / w2Sum);
-	        	    if (okay) {
-	        	        deltaLattice.set(index, deltaLattice.getDouble(index) + data);
-	        	    }
-	        	} // for (int itw = 0; itw < neighborhoodWeightArrayLength; itw++)
-	        } // for (int n = 0; n < pointLocation.size(); n++)
+	        double point[] = new double[nDims];
+	        int idx[] = new int[nDims];
+	    
+	        for (int n = from; n < to; n++) {
+	            for (int i = 0; i < nDims; i++) {
+	                point[i] = pointCoordinates[n * nDims + i];
+	            }
+	            for (int i = 0; i < nDims; i++) {
+	                int totalNumberOfSpans = currentNumberOfControlPoints[i] - splineOrder[i];
+	    
+	                p[i] = (point[i] - origin[i]) * r[i];
+	                //if (Math.abs(p[i] - totalNumberOfSpans) <= BSplineEpsilon) {
+	                if ((Math.abs(p[i] - totalNumberOfSpans))/totalNumberOfSpans < 1.0E-6) {
+	                    p[i] = (double)(totalNumberOfSpans) - BSplineEpsilon;
+	                }
+	                if (p[i] >= totalNumberOfSpans) {
+	                    return "The reparameterized point component p["+i+"] =" + p[i] + 
+	                            " is outside the corresponding parametric domain of [0, " + totalNumberOfSpans + "].";
+	                }
+	            } // for (int i = 0; i < nDims; i++)
+	    
+	            double w2Sum = 0.0;
+	            for (int itw = 0; itw < neighborhoodWeightArrayLength; itw++) {
+	                double B = 1.0;
+	                idx[0] = itw % size[0];
+	                idx[1] = (itw % neighborhoodWeightArraySliceSize) / size[0];
+	                if (nDims > 2) {
+	                    idx[2] = (itw  % xyzNeighborhoodWeightArray) / neighborhoodWeightArraySliceSize;
+	                    if (nDims > 3) {
+	                        idx[3] = itw / xyzNeighborhoodWeightArray;
+	                    }
+	                }
+	                for (int i = 0; i < nDims; i++) {
+	                    double u  = (p[i] - (int)p[i] - idx[i]) + 0.5*(splineOrder[i] - 1);
+	                    switch (splineOrder[i]) {
+	                    case 0:
+	                        B *= kernelOrder0.evaluate(u);
+	                        break;
+	                    case 1:
+	                        B *= kernelOrder1.evaluate(u);
+	                        break;
+	                    case 2:
+	                        B *= kernelOrder2.evaluate(u);
+	                        break;
+	                    case 3:
+	                        B *= kernelOrder3.evaluate(u);
+	                        break;
+	                    default:
+	                        B *= kernel[i].evaluate(u);
+	                    } // switch (splineOrder[i)
+	                } // for (int i = 0; i < nDims; i++)
+	                neighborhoodWeightArray[itw] = B;
+	                w2Sum += B * B;
+	            } // for (int itw = 0; itw < neighborhoodWeightArrayLength; itw++)
+	    
+	            double wc = pointWeights[n];
+	            double data = inputPointData[n];
+	            for (int itw = 0; itw < neighborhoodWeightArrayLength; itw++) {
+	                idx[0] = itw % size[0];
+	                idx[1] = (itw % neighborhoodWeightArraySliceSize) / size[0];
+	                if (nDims > 2) {
+	                    idx[2] = (itw % xyzNeighborhoodWeightArray) / neighborhoodWeightArraySliceSize;
+	                    if (nDims > 3) {
+	                        idx[3] = itw / xyzNeighborhoodWeightArray;
+	                    }
+	                }
+	                boolean okay = true;
+	                for (int i = 0; i < nDims; i++) {
+	                    idx[i] += (int)(p[i]);
+	                    if (closeDimension[i] != 0) {
+	                        idx[i] %= size[i];
+	                    }
+	                    if ((idx[i] < 0) || (idx[i] >= latticeSize[i])) {
+	                        okay = false; 
+	                    }
+	                } // for (int i = 0; i < nDims; i++)
+	                if (okay) {
+	                    double t = neighborhoodWeightArray[itw];
+	                    int index = idx[nDims - 1];
+	                    for (int i = nDims - 2; i >= 0; i--) {
+	                        index = index * latticeSize[i] + idx[i];
+	                    }
+	                    omega[index] += wc * t * t;
+	                    delta[index] += data * (t * t * t * wc / w2Sum);
+	                }
+	            } // for (int itw = 0; itw < neighborhoodWeightArrayLength; itw++)
+	        } // for (int n = from; n < to; n++)
+	        return null;
 	    }
 	    
 	    private void threadedGenerateDataForReconstruction() {
-	        double collapsedPhiLattices[][] = new double[nDims + 1][];
+	        final int collapsedPhiLatticeIndex[][] = getCollapsedPhiLatticeIndex();
+	        final double phi[] = exportPhiLattice();
+	        if (phi == null) {
+	            return;
+	        }
+	        final int totalNumberOfSpans[] = getTotalNumberOfSpans();
+	        final double outputBuffer[] = new double[extentsLength];
+	        // Each chunk keeps its own collapsed lattices, so the output can be evaluated in parallel.
+	        final int chunks = multiThreadingEnabled ? Math.max(1, Math.min(nthreads, extentsLength)) : 1;
+	        final String errors[] = new String[chunks];
+	        ThreadUtil.parallelFor(chunks, new ThreadUtil.IndexedTask() {
+	            public void run(final int index) {
+	                final int from = (int)((long)extentsLength * index / chunks);
+	                final int to = (int)((long)extentsLength * (index + 1) / chunks);
+	                double collapsedPhiLattices[][] = allocateCollapsedPhiLattices(collapsedPhiLatticeIndex, phi);
+	                double U[] = new double[nDims];
+	                double currentU[] = new double[nDims];
+	                for (int i = 0; i < nDims; i++) {
+	                    currentU[i] = -1;
+	                }
+	                int idx[] = new int[nDims];
+	                for (int it = from; it < to; it++) {
+	                    idx[0] = it % extents[0];
+	                    idx[1] = (it % extentsSlice) / extents[0];
+	                    if (nDims > 2) {
+	                        idx[2] = (it % xyzExtents) / extentsSlice;
+	                        if (nDims > 3) {
+	                            idx[3] = it / xyzExtents;
+	                        }
+	                    }
+	                    for (int i = 0; i < nDims; i++) {
+	                        U[i] = ((double)(totalNumberOfSpans[i] * (idx[i] /* - startIndex[i] */)))/(double)(extents[i] - 1);
+	                        //if (Math.abs(U[i] - totalNumberOfSpans[i]) <= BSplineEpsilon) {
+	                        if ((Math.abs(U[i] - totalNumberOfSpans[i]))/totalNumberOfSpans[i] < 1.0E-6) {
+	                            U[i] = totalNumberOfSpans[i] - BSplineEpsilon;
+	                        }
+	                        if (U[i] >= totalNumberOfSpans[i]) {
+	                            errors[index] = "The collapse point component " + U[i] + 
+	                                    " is outside the corresponding parametric domain of [0, " + totalNumberOfSpans[i] +
+	                                    "].";
+	                            return;
+	                        }
+	                    } // for (int i = 0; i < nDims; i++)
+	                    for (int i = nDims - 1; i >= 0; i--) {
+	                        if (U[i] != currentU[i]) {
+	                            for (int j = i; j >= 0; j--) {
+	                                collapsePhiLattice(collapsedPhiLattices[j+1],collapsedPhiLatticeIndex[j+1], collapsedPhiLattices[j],
+	                                        collapsedPhiLatticeIndex[j], U[j], j);
+	                                currentU[j] = U[j];
+	                            }
+	                            break;
+	                        }
+	                    } // for (int i = nDims - 1; i >= 0; i--)
+	                    outputBuffer[it] = collapsedPhiLattices[0][0];
+	                } // for (int it = from; it < to; it++)
+	            }
+	        });
+	        for (int c = 0; c < chunks; c++) {
+	            if (errors[c] != null) {
+	                MipavUtil.displayError(errors[c]);
+	                return;
+	            }
+	        }
+	        // Uncomment to use the BSplineScatteredDataPointSetToImageFilterTest self test in AlgorithmN4MRIBiasFieldCorrectionFilter
+	        /*try {
+	            outputImage.importData(0, outputBuffer, true);
+	        }
+	        catch(IOException e) {
+	            MipavUtil.displayError("IOException on outputImage.importData");
+	            return;
+	        }*/
+	    }
+	    
+	    /**
+	     * Returns the extents of the phi lattice collapsed down to 0, 1, ..., nDims dimensions.
+	     */
+	    private int[][] getCollapsedPhiLatticeIndex() {
 	        int collapsedPhiLatticeIndex[][] = new int[nDims+1][];
-	        int size = 1;
-	        int it;
 	        for (int i = 0; i <= nDims; i++) {
-	            size = 1;
 	            if (i == 0) {
-	            	collapsedPhiLatticeIndex[i] = new int[1];
-	            	collapsedPhiLatticeIndex[i][0] = 1;
+	                collapsedPhiLatticeIndex[i] = new int[1];
+	                collapsedPhiLatticeIndex[i][0] = 1;
 	            }
 	            else {
-	            	collapsedPhiLatticeIndex[i] = new int[i];
+	                collapsedPhiLatticeIndex[i] = new int[i];
 	            }
 	            for (int j = 0; j < i; j++) {
-	            	size *= phiLattice.getExtents()[j];
-	            	collapsedPhiLatticeIndex[i][j] = phiLattice.getExtents()[j];
+	                collapsedPhiLatticeIndex[i][j] = phiLattice.getExtents()[j];
+	            }
+	        }
+	        return collapsedPhiLatticeIndex;
+	    }
+	    
+	    /**
+	     * Allocates one set of collapsed lattices.  The full phi lattice is shared as the last entry.
+	     */
+	    private double[][] allocateCollapsedPhiLattices(int collapsedPhiLatticeIndex[][], double phi[]) {
+	        double collapsedPhiLattices[][] = new double[nDims + 1][];
+	        for (int i = 0; i < nDims; i++) {
+	            int size = 1;
+	            for (int j = 0; j < i; j++) {
+	                size *= collapsedPhiLatticeIndex[i][j];
 	            }
 	            collapsedPhiLattices[i] = new double[size];
 	        }
+	        collapsedPhiLattices[nDims] = phi;
+	        return collapsedPhiLattices;
+	    }
+	    
+	    private double[] exportPhiLattice() {
+	        int size = 1;
+	        for (int i = 0; i < nDims; i++) {
+	            size *= phiLattice.getExtents()[i];
+	        }
+	        double phi[] = new double[size];
 	        try {
-	        	phiLattice.exportData(0, size, collapsedPhiLattices[nDims]);
+	            phiLattice.exportData(0, size, phi);
 	        }
 	        catch(IOException e) {
-	        	MipavUtil.displayError("IOException on phiLattice.exportData");
-	        	return;
+	            MipavUtil.displayError("IOException on phiLattice.exportData");
+	            return null;
 	        }
+	        return phi;
+	    }
+	    
+	    private int[] getTotalNumberOfSpans() {
 	        int totalNumberOfSpans[] = new int[nDims];
 	        for (int i = 0; i <  nDims; i++) {
-	        	if (closeDimension[i] != 0) {
-	        		totalNumberOfSpans[i] = phiLattice.getExtents()[i];
-	        	}
-	        	else {
-	        	    totalNumberOfSpans[i] = phiLattice.getExtents()[i] - splineOrder[i];
-	        	}
-	        } // for (int i = 0; i < nDims; i++)
-	        double U[] = new double[nDims];
-	        double currentU[] = new double[nDims];
-	        for (int i = 0; i < nDims; i++) {
-	        	currentU[i] = -1;
-	        }
-	        
-	        double outputBuffer[] = new double[extentsLength];
-	        int idx[] = new int[nDims];
-	        for (it = 0; it < extentsLength; it++) {
-	            idx[0] = it % extents[0];
-	            idx[1] = (it % extentsSlice) / extents[0];
-	            if (nDims > 2) {
-	            	idx[2] = (it % xyzExtents) / extentsSlice;
-	            	if (nDims > 3) {
-	            		idx[3] = it / xyzExtents;
-	            	}
+	            if (closeDimension[i] != 0) {
+	                totalNumberOfSpans[i] = phiLattice.getExtents()[i];
 	            }
-	            for (int i = 0; i < nDims; i++) {
-	                U[i] = ((double)(totalNumberOfSpans[i] * (idx[i] /* - startIndex[i] */)))/(double)(extents[i] - 1);
-	                //if (Math.abs(U[i] - totalNumberOfSpans[i]) <= BSplineEpsilon) {
-	                if ((Math.abs(U[i] - totalNumberOfSpans[i]))/totalNumberOfSpans[i] < 1.0E-6) {
-	                	U[i] = totalNumberOfSpans[i] - BSplineEpsilon;
-	                }
-	                if (U[i] >= totalNumberOfSpans[i]) {
-	                	MipavUtil.displayError("The collapse point component " + U[i] + 
-	                			" is outside the corresponding parametric domain of [0, " + totalNumberOfSpans[i] +
-	                			"].");
-	                	return;
-	                }
-	            } // for (int i = 0; i < nDims; i++)
-	            for (int i = nDims - 1; i >= 0; i--) {
-	                if (U[i] != currentU[i]) {
-	                	for (int j = i; j >= 0; j--) {
-	                		collapsePhiLattice(collapsedPhiLattices[j+1],collapsedPhiLatticeIndex[j+1], collapsedPhiLattices[j],
-	                				collapsedPhiLatticeIndex[j], U[j], j);
-	                		currentU[j] = U[j];
-	                	}
-	                	break;
-	                }
-	            } // for (int i = nDims - 1; i >= 0; i--)
-	            outputBuffer[it] = collapsedPhiLattices[0][0];
-	        } // for (it = 0; it < extentsLength; it++)
-	        // Uncomment to use the BSplineScatteredDataPointSetToImageFilterTest self test in AlgorithmN4MRIBiasFieldCorrectionFilter
-	        /*try {
-	        	outputImage.importData(0, outputBuffer, true);
-	        }
-	        catch(IOException e) {
-	        	MipavUtil.displayError("IOException on outputImage.importData");
-	        	return;
-	        }*/
+	            else {
+	                totalNumberOfSpans[i] = phiLattice.getExtents()[i] - splineOrder[i];
+	            }
+	        } // for (int i = 0; i < nDims; i++)
+	        return totalNumberOfSpans;
 	    }
 	    
 	    private void collapsePhiLattice(double[] lattice, int latticeIndex[], double[] collapsedLattice, int collapsedLatticeIndex[],
@@ -750,120 +865,86 @@ import gov.nih.mipav.view.Preferences;
 	    private void afterThreadedGenerateData() {
 	      if (!isFittingComplete) {
 	          // Accumulate all the delta lattice and omega lattice values to
-	    	  // calculate the final phi lattice.
-	    	  // Not necessary if only 1 thread was used
-	    	  
-	    	  // Generate the control point lattice
-	    	  int size[] = new int[nDims];
-	    	  int latticeLength = 1;
-	    	  for (int i = 0; i < nDims; i++) {
-	    		  if (closeDimension[i] != 0) {
-	    			  size[i] = currentNumberOfControlPoints[i] - splineOrder[i];
-	    		  }
-	    		  else {
-	    			  size[i] = currentNumberOfControlPoints[i];
-	    		  }
-	    		  latticeLength *= size[i];
-	    	  } // for (int i = 0; i < nDims; i++)
-	    	  double latticeBuffer[] = new double[latticeLength];
-	    	  for (int itp = 0; itp < latticeLength; itp++) {
-	    		  double P = 0;
-	    		  if (omegaLattice.getDouble(itp) != 0) {
-	    			  P = deltaLattice.getDouble(itp) / omegaLattice.getDouble(itp);
-	    			  if ((Double.isNaN(P)) || (Double.isInfinite(P))) {
-	    				  P = 0;
-	    			  }
-	    			  latticeBuffer[itp] = P;
-	    		  }
-	    	  }
-	    	  phiLattice = new ModelImage(ModelStorageBase.DOUBLE, size, "phiLattice");
-	    	  try {
-	    		  phiLattice.importData(0, latticeBuffer, true);
-	    	  }
-	    	  catch (IOException e) {
-	    		  MipavUtil.displayError("IOException on phiLattice.importData");
-	    		  return;
-	    	  }
+	          // calculate the final phi lattice.
+	          // The per thread lattices have already been summed in threadedGenerateDataForFitting
+	    
+	          // Generate the control point lattice
+	          double latticeBuffer[] = new double[omegaLattice.length];
+	          for (int itp = 0; itp < omegaLattice.length; itp++) {
+	              double P = 0;
+	              if (omegaLattice[itp] != 0) {
+	                  P = deltaLattice[itp] / omegaLattice[itp];
+	                  if ((Double.isNaN(P)) || (Double.isInfinite(P))) {
+	                      P = 0;
+	                  }
+	                  latticeBuffer[itp] = P;
+	              }
+	          }
+	          phiLattice = new ModelImage(ModelStorageBase.DOUBLE, latticeSize.clone(), "phiLattice");
+	          try {
+	              phiLattice.importData(0, latticeBuffer, true);
+	          }
+	          catch (IOException e) {
+	              MipavUtil.displayError("IOException on phiLattice.importData");
+	              return;
+	          }
 	      } // if (!isFittingComplete)
 	    }
 	    
 	    private void updatePointSet() {
-	    	double collapsedPhiLattices[][] = new double[nDims + 1][];
-	        int collapsedPhiLatticeIndex[][] = new int[nDims+1][];
-	        int size = 1;
-	        for (int i = 0; i <= nDims; i++) {
-	            size = 1;
-	            if (i == 0) {
-	            	collapsedPhiLatticeIndex[i] = new int[1];
-	            	collapsedPhiLatticeIndex[i][0] = 1;
-	            }
-	            else {
-	            	collapsedPhiLatticeIndex[i] = new int[i];
+	        final int collapsedPhiLatticeIndex[][] = getCollapsedPhiLatticeIndex();
+	        final double phi[] = exportPhiLattice();
+	        if (phi == null) {
+	            return;
+	        }
+	        final int totalNumberOfSpans[] = getTotalNumberOfSpans();
+	        final int numberOfPoints = inputPointData.length;
+	        final int chunks = multiThreadingEnabled ? Math.max(1, Math.min(nthreads, numberOfPoints)) : 1;
+	        final String errors[] = new String[chunks];
+	        ThreadUtil.parallelFor(chunks, new ThreadUtil.IndexedTask() {
+	            public void run(final int index) {
+	                final int from = (int)((long)numberOfPoints * index / chunks);
+	                final int to = (int)((long)numberOfPoints * (index + 1) / chunks);
+	                double collapsedPhiLattices[][] = allocateCollapsedPhiLattices(collapsedPhiLatticeIndex, phi);
+	                double U[] = new double[nDims];
+	                double currentU[] = new double[nDims];
+	                for (int i = 0; i < nDims; i++) {
+	                    currentU[i] = -1;
+	                }
+	                for (int itin = from; itin < to; itin++) {
+	                    for (int i = 0; i < nDims; i++) {
+	                        U[i] = totalNumberOfSpans[i] * (pointCoordinates[itin * nDims + i] - origin[i])/((extents[i] - 1) * resolutions[i]);
+	                        //if (Math.abs(U[i] - totalNumberOfSpans[i]) <= BSplineEpsilon) {
+	                        if ((Math.abs(U[i] - totalNumberOfSpans[i]))/totalNumberOfSpans[i] < 1.0E-6) {
+	                            U[i] = totalNumberOfSpans[i] - BSplineEpsilon;
+	                        }
+	                        if (U[i] >= totalNumberOfSpans[i]) {
+	                            errors[index] = "The collapse point component " + U[i] + 
+	                                    " is outside the corresponding parametric domain of [0, " + totalNumberOfSpans[i] +
+	                                    "].";
+	                            return;
+	                        }
+	                    } // for (int i = 0; i < nDims; i++)
+	                    for (int i = nDims - 1; i >= 0; i--) {
+	                        if (U[i] != currentU[i]) {
+	                            for (int j = i; j >= 0; j--) {
+	                                collapsePhiLattice(collapsedPhiLattices[j+1],collapsedPhiLatticeIndex[j+1], collapsedPhiLattices[j],
+	                                        collapsedPhiLatticeIndex[j], U[j], j);
+	                                currentU[j] = U[j];
+	                            }
+	                            break;
+	                        }
+	                    } // for (int i = nDims - 1; i >= 0; i--)
+	                    outputPointData[itin] = collapsedPhiLattices[0][0];
+	                } // for (int itin = from; itin < to; itin++)
 	            }
-	            for (int j = 0; j < i; j++) {
-	            	size *= phiLattice.getExtents()[j];
-	            	collapsedPhiLatticeIndex[i][j] = phiLattice.getExtents()[j];
+	        });
+	        for (int c = 0; c < chunks; c++) {
+	            if (errors[c] != null) {
+	                MipavUtil.displayError(errors[c]);
+	                return;
 	            }
-	            collapsedPhiLattices[i] = new double[size];
 	        }
-	        try {
-	        	phiLattice.exportData(0, size, collapsedPhiLattices[nDims]);
-	        }
-	        catch(IOException e) {
-	        	MipavUtil.displayError("IOException on phiLattice.exportData");
-	        	return;
-	        }
-	        int totalNumberOfSpans[] = new int[nDims];
-	        for (int i = 0; i <  nDims; i++) {
-	        	if (closeDimension[i] != 0) {
-	        		totalNumberOfSpans[i] = phiLattice.getExtents()[i];
-	        	}
-	        	else {
-	        	    totalNumberOfSpans[i] = phiLattice.getExtents()[i] - splineOrder[i];
-	        	}
-	        } // for (int i = 0; i < nDims; i++)
-	        double U[] = new double[nDims];
-	        double currentU[] = new double[nDims];
-	        for (int i = 0; i < nDims; i++) {
-	        	currentU[i] = -1;
-	        }
-	        
-	        for (int itin = 0; itin < inputPointData.size(); itin++) {
-	        	double point[] = new double[nDims];
-	        	point[0] = pointLocation.get(itin).X;
-	        	point[1] = pointLocation.get(itin).Y;
-	            if (nDims > 2) {
-	            	point[2] = pointLocation.get(itin).Z;
-	            	if (nDims > 3) {
-	            		point[3] = pointLocation.get(itin).W;
-	            	}
-	            }
-	            for (int i = 0; i < nDims; i++) {
-	            	U[i] = totalNumberOfSpans[i] * (point[i] - origin[i])/((extents[i] - 1) * resolutions[i]);
-	            	//if (Math.abs(U[i] - totalNumberOfSpans[i]) <= BSplineEpsilon) {
-	                if ((Math.abs(U[i] - totalNumberOfSpans[i]))/totalNumberOfSpans[i] < 1.0E-6) {
-	            		U[i] = totalNumberOfSpans[i] - BSplineEpsilon;
-	            	}
-	            	if (U[i] >= totalNumberOfSpans[i]) {
-	                	MipavUtil.displayError("The collapse point component " + U[i] + 
-	                			" is outside the corresponding parametric domain of [0, " + totalNumberOfSpans[i] +
-	                			"].");
-	                	return;
-	                }
-	            } // for (int i = 0; i < nDims; i++)
-	            for (int i = nDims - 1; i >= 0; i--) {
-	                if (U[i] != currentU[i]) {
-	                	for (int j = i; j >= 0; j--) {
-	                		collapsePhiLattice(collapsedPhiLattices[j+1],collapsedPhiLatticeIndex[j+1], collapsedPhiLattices[j],
-	                				collapsedPhiLatticeIndex[j], U[j], j);
-	                		currentU[j] = U[j];
-	                	}
-	                	break;
-	                }
-	            } // for (int i = nDims - 1; i >= 0; i--)
-	            outputPointData.set(itin,collapsedPhiLattices[0][0]);
-	        } // for (int itin = 0; itin < inputPointData.size(); itin++) 
-	        	
 	    }
 	    
 	    private void refineControlPointLattice() {
@@ -1,7 +1,6 @@
 package gov.nih.mipav.model.algorithms.filters;
 
 
-import static java.lang.System.nanoTime;
 import gov.nih.mipav.util.*;
 
 import gov.nih.mipav.model.algorithms.AlgorithmBase;
@@ -11,7 +10,6 @@ import gov.nih.mipav.model.structures.*;
 
 import java.io.IOException;
 import java.util.Arrays;
-import java.util.concurrent.CountDownLatch;
 
 
 /**
@@ -32,10 +30,11 @@ import java.util.concurrent.CountDownLatch;
  * </p>
  * 
  * <p>
- * The core algorithm of this module, the fast fourier transform algorithm found in exec(), requires that all the
- * dimensions of an N-dimensional dataset be powers of 2. To be able to use this algorithm on datasets with arbitrary
- * dimensions, the data is zero padded to powers of 2 before applying the forward fast fourier transform and stripped
- * down to the original dimensions after applying the inverse fast fourier transform. If unequalDim is equal to true,
+ * The core algorithm of this module is the mixed radix fast fourier transform in MixedRadixFFT, which handles any
+ * length but is fastest for lengths whose only prime factors are 2, 3, 5 and 7. The data is zero padded in every
+ * dimension to the smallest even such length before applying the forward fast fourier transform and stripped down to
+ * the original dimensions after applying the inverse fast fourier transform. The lines of a real image along x are
+ * transformed with a half length complex transform. If unequalDim is equal to true,
  * the fourier pictures are allowed to have unequal dimensions so as to save memory. If unequalDim is equal to false,
  * the pictures have equal dimensions so as to maximize symmetry.
  * </p>
@@ -44,10 +43,10 @@ import java.util.concurrent.CountDownLatch;
  * The typical full sequence is as follows: 1.) Data from a real spatial image is exported into a double array realData.
  * 2.) An equally sized double array called imagData is created and filled with zeros. 3.) realData and imagData are
  * enlarged to the same length in every dimension. If finite impulse repsonse filters are constructed with Hamming
- * windows and no cropping, the new dimension size is equal to the minimum power of two number that equals or exceeds
+ * windows and no cropping, the new dimension size is equal to the minimum fast FFT length that equals or exceeds
  * the maximum original dimension size + kDim - 1, where kDim is the diameter of a circular or spherical convolution
  * kernel. If finite impulse response filters with Hamming windows and cropping or infinite impulse response Gaussian or
- * Butterworth filters are used, the new dimension size is equal to the minimum power of two number that equals or
+ * Butterworth filters are used, the new dimension size is equal to the minimum fast FFT length that equals or
  * exceeds the maximum original dimension size. The data is padded with zeros at the end of each dimension. 4.) exec()
  * is invoked to run the fast fourier transform algorithm. 5.) The center() algorithm is invoked to reorder the data for
  * display. The Fourier transform of real data is conjugate symmetric; the real parts are even and the imaginary parts
@@ -73,7 +72,7 @@ import java.util.concurrent.CountDownLatch;
  * set equal to the appropriate filter magnitude and the imaginary part is set equal to zero. This filter has the same
  * dimensions as the padded image data. 14) The data FFT is set equal to the product of the data FFT and the filter FFT.
  * 15.) The inverse FFT process is invoked. The complex data is exported into the 2 double arrays realData and imagData.
- * There should be no need for zero padding at this point since the dimensions should already be all powers of 2 from
+ * There should be no need for zero padding at this point since the dimensions should already be fast FFT lengths from
  * before. 16.) The center() algorithm is invoked to restore the data to its original ordering. 17.) exec() is invoked
  * to run the inverse fast fourier transform algorithm. 18.) The realData now holds the correct response if Gaussian or
  * Butterworth filtering was used. If FIR filtering with windows was used then realData holds a version of the correct
@@ -104,15 +103,6 @@ public class AlgorithmFFT2 extends AlgorithmBase {
     /** Forward FFT */
     public static final int FORWARD = 1;
 
-    /**
-     * Constants for xy plane, yz plane and zx plane.
-     */
-    public static final int SLICE_XY = 0;
-
-    public static final int SLICE_YZ = 1;
-
-    public static final int SLICE_ZX = 2;
-
     // ~ Instance fields
     // ------------------------------------------------------------------------------------------------
 
@@ -252,256 +242,88 @@ public class AlgorithmFFT2 extends AlgorithmBase {
     }
 
     /**
-     * The multi-threading version of FFT algorithm.
+     * Transforms every line of the data along one dimension with the mixed radix FFT. The lines are shared out among
+     * the compute threads when multithreading is enabled.
      * 
-     * @param rData
-     * @param iData
-     * @param z
+     * @param d the dimension
+     * @param sign sign of the exponent of the transform
+     * @param real whether the imaginary parts of the data are all zero
+     * @param halfX if true only the lines at x frequencies up to xdim / 2 are transformed
      */
-    private void performMT() {
-        int direction;
-        int dimNumber;
-        int newLength;
-        int i, j, k, m;
-        int originalSliceSize;
-        int newSliceSize = 1;
-        int originalVolumeSize;
-        int newVolumeSize;
-        if (transformDir == AlgorithmFFT2.FORWARD) {
-            direction = 1;
-        } else {
-            direction = -1;
-        }
-
-        if (image25D) {
-            dimNumber = 2;
-        } else {
-            dimNumber = ndim;
-        }
-        newLength = newArrayLength;
+    private void transformDimension(final int d, final int sign, final boolean real, final boolean halfX) {
+        final int length = newDimLengths[d];
         final int xdim = newDimLengths[0];
-        final int ydim = newDimLengths[1];
-        final int zdim = (newDimLengths.length == 3) ? newDimLengths[2] : 1;
-        if (transformDir == AlgorithmFFT2.FORWARD) {
-            fireProgressStateChanged( -1, null, "Centering data before FFT algorithm ...");
-            center(realData, imagData);
-        }
-
-        fireProgressStateChanged( -1, null, "Running FFT algorithm ...");
 
-        //System.out.println("Number of Threads: " + nthreads);
-        if (threadStopped) {
+        if (length == 1) {
             return;
         }
-        /**
-         * Initialize the progress step.
-         */
-        if (image25D) {
-            setProgressStep((float) (100.0 / (nthreads * Math.log(xdim * ydim) / Math.log(2.0))));
-        } else {
-            setProgressStep((float) (100.0 / (nthreads * Math.log(xdim * ydim * zdim) / Math.log(2.0))));
-        }
 
-        final CountDownLatch doneSignalX = new CountDownLatch(nthreads);
-        AlgorithmFFT2.swapSlices(realData, imagData, xdim, ydim, zdim, AlgorithmFFT2.SLICE_YZ);
-        for (i = 0; i < nthreads; i++) {
-        	final int nslices;
-        	if (zdim < nthreads) {
-        	   if (i < zdim) {
-        		   nslices = 1;
-        	   }
-        	   else {
-        		   nslices = 0;
-        	   }
-        	}
-        	else {
-                nslices = zdim / nthreads;
-        	}   
-            final int sliceLen = xdim * ydim;
-            final int start = i * nslices * sliceLen;
-            final int end = start + 1;
-            final int length = (i + 1) * nslices * sliceLen;
-            final int dir = direction;
-            final Runnable task = new Runnable() {
-                public void run() {
-                    doFFT(realData, imagData, start, end, 1, xdim, length, dir);
-                    doneSignalX.countDown();
-                }
-            };
-            ThreadUtil.mipavThreadPool.execute(task);
-        }
-        try {
-            doneSignalX.await();
-        } catch (final InterruptedException e) {
-            e.printStackTrace();
-        }
-        if (threadStopped) {
-            return;
-        }
+        int span = 1;
 
-        final CountDownLatch doneSignalY = new CountDownLatch(nthreads);
-        AlgorithmFFT2.swapSlices(realData, imagData, xdim, ydim, zdim, AlgorithmFFT2.SLICE_ZX);
-        for (i = 0; i < nthreads; i++) {
-            final int nslices = ydim / nthreads;
-            final int start = i * nslices;
-            final int end = (i + 1) * nslices;
-            final int dir = direction;
-            final Runnable task = new Runnable() {
-                public void run() {
-                    doFFT(realData, imagData, start, end, xdim, xdim * ydim, xdim * ydim * zdim, dir);
-                    doneSignalY.countDown();
-                }
-            };
-            ThreadUtil.mipavThreadPool.execute(task);
-        }
-        try {
-            doneSignalY.await();
-        } catch (final InterruptedException e) {
-            e.printStackTrace();
-        }
-        if (threadStopped) {
-            return;
+        for (int i = 0; i < d; i++) {
+            span *= newDimLengths[i];
         }
 
-        if (dimNumber == 3) {
-            final CountDownLatch doneSignalZ = new CountDownLatch(nthreads);
-            AlgorithmFFT2.swapSlices(realData, imagData, xdim, ydim, zdim, AlgorithmFFT2.SLICE_XY);
-            for (i = 0; i < nthreads; i++) {
-                final int nslices = ydim / nthreads;
-                final int start = i * nslices * xdim;
-                final int end = (i + 1) * nslices * xdim;
-                final int dir = direction;
-                final Runnable task = new Runnable() {
-                    public void run() {
-                        doFFT(realData, imagData, start, end, xdim * ydim, xdim * ydim * zdim, xdim * ydim * zdim, dir);
-                        doneSignalZ.countDown();
+        final int stride = span;
+        final int lines = newArrayLength / length;
+        final MixedRadixFFT plan = MixedRadixFFT.getInstance(length);
+        final int chunks = multiThreadingEnabled ? Math.min(lines, 4 * ThreadUtil.getAvailableCores()) : 1;
+
+        ThreadUtil.parallelFor(chunks, new ThreadUtil.IndexedTask() {
+            public void run(final int index) {
+                final int from = (int) ((long) lines * index / chunks);
+                final int to = (int) ((long) lines * (index + 1) / chunks);
+
+                for (int line = from; (line < to) && !threadStopped; line++) {
+                    final int offset = ( (line / stride) * stride * length) + (line % stride);
+
+                    if (halfX && ( (offset % xdim) > (xdim / 2))) {
+                        continue;
                     }
-                };
-                ThreadUtil.mipavThreadPool.execute(task);
-            }
-            try {
-                doneSignalZ.await();
-            } catch (final InterruptedException e) {
-                e.printStackTrace();
+
+                    if (real) {
+                        plan.realTransform(realData, imagData, offset, stride, sign);
+                    } else {
+                        plan.transform(realData, imagData, offset, stride, sign);
+                    }
+                }
             }
-        }
-        if (threadStopped) {
-            return;
-        }
+        });
+    }
 
-        if (transformDir == AlgorithmFFT2.INVERSE) {
-            fireProgressStateChanged( -1, null, "Centering data after inverse FFT ...");
+    /**
+     * Fills the x frequencies above xdim / 2 of the spectrum of real data with the conjugates of the frequencies they
+     * mirror, as only the lower half was transformed along the other dimensions. The realData and imagData buffers
+     * keep the whole spectrum, since the complex image, the inverse transform and the callers of getRealData() and
+     * getImaginaryData() all use it.
+     * 
+     * @param dimNumber number of dimensions transformed; the slices of a 2.5D image are not mirrored
+     */
+    private void fillConjugateHalf(final int dimNumber) {
+        final int xdim = newDimLengths[0];
+        final int rows = newArrayLength / xdim;
 
-            center(realData, imagData);
-        }
+        for (int row = 0; row < rows; row++) {
+            int mirror = 0;
+            int rest = row;
+            int span = xdim;
 
-        
-        if (transformDir == AlgorithmFFT2.INVERSE) {
-        	if (ndim >= 2) {
-        		newSliceSize = newDimLengths[0]*newDimLengths[1];
-        	}
-        	if (complexInverse) {
-        		for (i = 0; i < newLength; i++) {
-        			if (image25D) {
-        				realData[i] = realData[i] / newSliceSize;
-        				imagData[i] = imagData[i] / newSliceSize;
-        			}
-        			else {
-	                    realData[i] = realData[i] / newLength;
-	                    imagData[i] = imagData[i] / newLength;
-        			}
-	            }
-	
-	            originalDimLengths = srcImage.getOriginalExtents();
-	            finalData = new double[2 * AlgorithmBase.calculateImageSize(originalDimLengths)];
-	            if ( !hasSameDimension(newDimLengths, originalDimLengths)) {
-	                if (ndim == 1) {
-	                    for (i = 0; i < originalDimLengths[0]; i++) {
-	                    	finalData[2*i] = realData[i];
-	                    	finalData[2*i+1] = imagData[i];
-	                    }
-	                } else if (ndim == 2) {
-	                    for (i = 0; i < originalDimLengths[1]; i++) {
-	                    	for (j = 0; j < originalDimLengths[0]; j++) {
-	                    		finalData[2*(i*originalDimLengths[0] + j)] = realData[i*newDimLengths[0] + j];
-	                    		finalData[2*(i*originalDimLengths[0] + j)+1] = imagData[i*newDimLengths[0] + j];
-	                    	}
-	                    }
-	                } else if (ndim == 3) {
-	                    originalSliceSize = originalDimLengths[0]*originalDimLengths[1];
-	                    for (i = 0; i < originalDimLengths[2]; i++) {
-	                        for (j = 0; j < originalDimLengths[1]; j++) {
-	                            for (k = 0; k < originalDimLengths[0]; k++) {
-	                            	finalData[2*(i*originalSliceSize + j*originalDimLengths[0] + k)] =
-	                                realData[i*newSliceSize + j*newDimLengths[0] + k];
-	                            	finalData[2*(i*originalSliceSize + j*originalDimLengths[0] + k)+1] =
-		                            imagData[i*newSliceSize + j*newDimLengths[0] + k];
-	                            }
-	                        }
-	                    }
-	                } else if (ndim == 4) {
-	                    originalSliceSize = originalDimLengths[0]*originalDimLengths[1];
-	                    originalVolumeSize = originalSliceSize * originalDimLengths[2];
-	                    newVolumeSize = newSliceSize * newDimLengths[2];
-	                    for (i = 0; i < originalDimLengths[3]; i++) {
-	                    	for (j = 0; j < originalDimLengths[2]; j++) {
-	                    		for (k = 0; k < originalDimLengths[1]; k++) {
-	                    			for (m = 0; m < originalDimLengths[0]; m++) {
-	                    				finalData[2*(i*originalVolumeSize + j*originalSliceSize + 
-	                    						  k*originalDimLengths[0] + m)] =
-	                                    realData[i*newVolumeSize + j*newSliceSize + k*newDimLengths[0] + m];
-	                    				finalData[2*(i*originalVolumeSize + j*originalSliceSize + 
-	                    						  k*originalDimLengths[0] + m)+1] =
-	                                    imagData[i*newVolumeSize + j*newSliceSize + k*newDimLengths[0] + m];
-	                    			}
-	                    		}
-	                    	}
-	                    }
-	                }
-	            } else {
-	                System.arraycopy(realData, 0, finalData, 0, newLength);
-	                for (i = 0; i < newLength; i++) {
-	                	finalData[2*i] = realData[i];
-	                	finalData[2*i+1] = imagData[i];
-	                }
-		        }	
-        	} // if (complexInverse)
-        	else { // !complexInverse
-	            imagData = null;
-	            for (i = 0; i < newLength; i++) {
-	            	if (image25D) {
-	            		realData[i] = realData[i] / newSliceSize;
-	            	}
-	            	else {
-	                    realData[i] = realData[i] / newLength;
-	                 // imagData[i] = imagData[i] / newLength;
-	            	}
-	            }
-	
-	            originalDimLengths = srcImage.getOriginalExtents();
-	            finalData = new double[AlgorithmBase.calculateImageSize(originalDimLengths)];
-	            if ( !hasSameDimension(newDimLengths, originalDimLengths)) {
-	                if (ndim == 1) {
-	                    System.arraycopy(realData, 0, finalData, 0, originalDimLengths[0]);
-	                } else if (ndim == 2) {
-	                    ArrayUtil.copy2D(realData, 0, newDimLengths[0], newDimLengths[1], finalData, 0,
-	                            originalDimLengths[0], originalDimLengths[1], false);
-	                } else if (ndim == 3) {
-	                    ArrayUtil.copy3D(realData, 0, newDimLengths[0], newDimLengths[1], newDimLengths[2], finalData, 0,
-	                            originalDimLengths[0], originalDimLengths[1], originalDimLengths[2], false);
-	                } else if (ndim == 4) {
-	                    ArrayUtil.copy4D(realData, newDimLengths[0], newDimLengths[1], newDimLengths[2], dimLengths[3],
-	                            finalData, originalDimLengths[0], originalDimLengths[1], originalDimLengths[2],
-	                            originalDimLengths[3], false);
-	                }
-	            } else {
-	                System.arraycopy(realData, 0, finalData, 0, newLength);
-		        }
-        	} // else !complexInverse
-        } // if (transformDir == AlgorithmFFT2.INVERSE)
+            for (int d = 1; d < ndim; d++) {
+                final int c = rest % newDimLengths[d];
 
+                rest /= newDimLengths[d];
+                mirror += span * ( (d < dimNumber) ? ( (newDimLengths[d] - c) % newDimLengths[d]) : c);
+                span *= newDimLengths[d];
+            }
 
-    } // end of exec()
+            final int offset = row * xdim;
+
+            for (int x = (xdim / 2) + 1; x < xdim; x++) {
+                realData[offset + x] = realData[mirror + xdim - x];
+                imagData[offset + x] = -imagData[mirror + xdim - x];
+            }
+        }
+    }
 
     private void center(final double[] rdata, final double[] idata) {
         final int xdim = newDimLengths[0];
@@ -538,65 +360,7 @@ public class AlgorithmFFT2 extends AlgorithmBase {
     }
 
     /**
-     * Perform one dimension fast fourier transformation from start slice to end slice on given data, which includes x,
-     * y or orientation.
-     * 
-     * For x direction: start = index of the start slice * xdim * ydim end = index of the end slice * xdim * ydim
-     * startDist = 1 endDist = xdim length = end
-     * 
-     * For y direction: start = index of the start slice end = index of the end slice startDist = xdim endDist = xdim *
-     * ydim length = xdim * ydim * zdim
-     * 
-     * For z direction: start = index of the start slice * xdim end = index of the end slice * xdim startDist = xdim *
-     * ydim endDist = xdim * ydim * zdim length = xdim * ydim * zdim
-     * 
-     * 
-     * @param rdata the real part of the data
-     * @param idata the imaginary part of the data
-     * @param start the location of the first pixel of the start slice
-     * @param end the location of the first pixel of the end slice
-     * @param startDist the start distance between two adjacent pixels from the FFT algorithm
-     * @param endDist the end distance between two adjacent pixels from the FFT algorithm
-     * @param length the length for each slice.
-     */
-    private void doFFT(final double[] rdata, final double[] idata, final int start, final int end, final int startDist,
-            final int endDist, final int length, final int direction) {
-        if (threadStopped) {
-            return;
-        }
-        final float progressStep = getProgressStep();
-        for (int l = startDist; l < endDist; l <<= 1) {
-            final double delta = 2.0 * Math.PI / (l << 1) * direction * startDist;
-            double angle = 0;
-            for (int i = 0; i < l; i += startDist) {
-                final double wtImag = Math.sin(angle);
-                final double wtReal = Math.cos(angle);
-                angle += delta;
-                for (int j = start; j < end; j++) {
-                    final int step = l << 1;
-                    for (int p = j + i; p < length; p += step) {
-                        if (threadStopped) {
-                            return;
-                        }
-                        final int k = p + l;
-                        final double tempReal = rdata[k];
-                        final double tempImag = idata[k];
-                        final double imag = ( (tempImag * wtReal) - (tempReal * wtImag));
-                        final double real = ( (tempReal * wtReal) + (tempImag * wtImag));
-                        rdata[k] = rdata[p] - real;
-                        idata[k] = idata[p] - imag;
-                        rdata[p] = rdata[p] + real;
-                        idata[p] = idata[p] + imag;
-                    }
-                }
-            }
-            makeProgress(progressStep);
-            fireProgressStateChanged((int) getProgress(), null, null);
-        }
-    }
-
-    /**
-     * Make the dimension be the power of two, and zero pad them.
+     * Zero pad every dimension to the next length the mixed radix FFT transforms fastest.
      */
     public void beforeExecute() {
         double[] tempData;
@@ -618,7 +382,7 @@ public class AlgorithmFFT2 extends AlgorithmBase {
             if (i >= 2 && image25D) {
                 break;
             }
-            newDimLengths[i] = MipavMath.findMinimumPowerOfTwo(newDimLengths[i]);
+            newDimLengths[i] = MixedRadixFFT.nextFastLength(newDimLengths[i]);
         }
 
         /**
@@ -694,7 +458,7 @@ public class AlgorithmFFT2 extends AlgorithmBase {
 
         if (zeroPad) {
 
-            // zero pad the data so that all dimensions are powers of 2
+            // zero pad the data so that all dimensions are fast FFT lengths
             fireProgressStateChanged( -1, null, "Zero padding source data ...");
 
             try {
@@ -750,11 +514,7 @@ public class AlgorithmFFT2 extends AlgorithmBase {
     }
 
     public void execute() {
-        if (multiThreadingEnabled && ndim > 2) {
-            performMT();
-        } else {
-            perform();
-        }
+        perform();
     }
 
     /**
@@ -765,15 +525,7 @@ public class AlgorithmFFT2 extends AlgorithmBase {
      * @param iData imaginary data buffer
      */
     private void perform() {
-
-        final double TWO_PI = 2 * java.lang.Math.PI;
-        double wt1Imag, wt1Real;
-        double angle, delta;
-        double imag, real, fTemp, fReal, fImag;
-        int i, j, k, m, index1, index2, index3;
-        int j1, j2, j3;
-        int k1, k1Double;
-        int iSwap, i1Swap, i2Swap, index, dim;
+        int i, j, k, m;
         int direction;
         int dimNumber;
         int newLength;
@@ -807,62 +559,15 @@ public class AlgorithmFFT2 extends AlgorithmBase {
             fireProgressStateChanged( -1, null, "Running FFT algorithm ...");
         }
 
-        j1 = 1;
-        dim = 1;
-        for (i = 0; (i < dimNumber) && !threadStopped; i++) {
-            j1 *= dim;
-            dim = newDimLengths[i];
-            j2 = j1 * dim;
-            j3 = j2 * (newLength / (dim * j1));
-
-            i1Swap = 0;
-
-            for (index1 = 0; (index1 < j2) && !threadStopped; index1 += j1) {
-
-                for (index2 = index1; (index2 < (index1 + j1)) && (index1 < i1Swap); index2++) {
-
-                    for (index3 = index2; index3 < j3; index3 += j2) {
-                        i2Swap = -index1 + index3 + i1Swap;
+        // data exported from a real image is still real after centering, so its x lines need only a real FFT
+        final boolean realInput = (transformDir == AlgorithmFFT2.FORWARD) && !srcImage.isComplexImage();
 
-                        fTemp = imagData[index3];
-                        imagData[index3] = imagData[i2Swap];
-                        imagData[i2Swap] = fTemp;
+        // the spectrum of real data is conjugate symmetric, so after the x lines only the x frequencies up to
+        // xdim / 2 are transformed along the other dimensions and the rest are filled in from their mirrors
+        final boolean halfX = realInput && (dimNumber > 1);
 
-                        fTemp = realData[index3];
-                        realData[index3] = realData[i2Swap];
-                        realData[i2Swap] = fTemp;
-                    }
-                }
-
-                for (iSwap = j2 / 2; (iSwap >= j1) && (iSwap < (i1Swap + 1)); iSwap >>= 1) {
-                    i1Swap = i1Swap - iSwap;
-                }
-
-                i1Swap = i1Swap + iSwap;
-            }
-            for (k1 = j1; (k1 < j2) && !threadStopped; k1 <<= 1) {
-                delta = TWO_PI / (k1 << 1) * direction * j1;
-                angle = 0;
-                for (index1 = 0, angle = 0; index1 < k1; index1 += j1) {
-                    wt1Imag = java.lang.Math.sin(angle);
-                    wt1Real = java.lang.Math.cos(angle);
-                    angle += delta;
-                    for (index2 = index1; index2 < (index1 + j1); index2++) {
-                        k1Double = k1 << 1;
-                        for (index3 = index2; index3 < j3; index3 += k1Double) {
-                            index = index3 + k1;
-                            fReal = realData[index];
-                            fImag = imagData[index];
-                            imag = ( (fImag * wt1Real) - (fReal * wt1Imag));
-                            real =  ( (fReal * wt1Real) + (fImag * wt1Imag));
-                            imagData[index] = imagData[index3] - imag;
-                            realData[index] = realData[index3] - real;
-                            imagData[index3] = imagData[index3] + imag;
-                            realData[index3] = realData[index3] + real;
-                        }
-                    }
-                }
-            }
+        for (i = 0; (i < dimNumber) && !threadStopped; i++) {
+            transformDimension(i, -direction, (i == 0) && realInput, (i > 0) && halfX);
 
             if ( !image25D) {
                 fireProgressStateChanged( (Math.round(10 + ((i + 1) / ndim * 80))), null, null);
@@ -873,6 +578,10 @@ public class AlgorithmFFT2 extends AlgorithmBase {
             return;
         }
 
+        if (halfX) {
+            fillConjugateHalf(dimNumber);
+        }
+
         if (transformDir == AlgorithmFFT2.INVERSE) {
 
             if ( !image25D) {
@@ -1114,36 +823,6 @@ public class AlgorithmFFT2 extends AlgorithmBase {
         return false;
     }
 
-    /**
-     * In order to use FFT, first thing is to rearrange the order of signals.
-     * 
-     * @param l the length of one dimension FFT
-     * @return the indices used by FFT
-     * @author Hailong Wang, Ph.D
-     */
-    public static final int[] generateFFTIndices(final int l) {
-        final int n = (int) (Math.log(l) / Math.log(2));
-        final int l2 = (int) Math.pow(2, n);
-        if (l != l2) {
-            System.out.println("The value of l must be the power of 2: " + l);
-            return null;
-        }
-
-        final int[] indices = new int[l];
-        for (int i = 0; i < n; i++) {
-            final int max = (int) Math.pow(2, i);
-
-            for (int j = 0; j < max; j++) {
-                indices[max + j] += indices[j] + (int) Math.pow(2, n - i - 1);
-            }
-        }
-
-        for (int i = 0; i < l; i++) {
-            System.out.println(i + "\t" + indices[i]);
-        }
-        return indices;
-    }
-    
     /**
      * Turns on/off using OpenCL to compute the FFT.
      * @param on
@@ -1152,88 +831,4 @@ public class AlgorithmFFT2 extends AlgorithmBase {
     {
     	useOCL = on;
     }
-
-    /**
-     * Swap slices in order to apply FFT algorithm.
-     * 
-     * @param rdata
-     * @param idata
-     * @param xdim
-     * @param ydim
-     * @param zdim
-     * @param plane
-     */
-    public static void swapSlices(final double[] rdata, final double[] idata, final int xdim, final int ydim,
-            final int zdim, final int plane) {
-        int[] indices = null;
-        final int sliceLength = xdim * ydim;
-
-        if (plane == AlgorithmFFT2.SLICE_XY) {
-            indices = AlgorithmFFT2.generateFFTIndices(zdim);
-            double rtemp, itemp;
-            for (int i = 0; i < indices.length; i++) {
-                if (indices[i] < 0 || indices[indices[i]] == indices[i]) {
-                    continue;
-                }
-                for (int j = 0; j < sliceLength; j++) {
-                    rtemp = rdata[indices[i] * sliceLength + j];
-                    itemp = idata[indices[i] * sliceLength + j];
-                    rdata[indices[i] * sliceLength + j] = rdata[indices[indices[i]] * sliceLength + j];
-                    idata[indices[i] * sliceLength + j] = idata[indices[indices[i]] * sliceLength + j];
-                    rdata[indices[indices[i]] * sliceLength + j] = rtemp;
-                    idata[indices[indices[i]] * sliceLength + j] = itemp;
-                }
-                indices[indices[i]] = -1;
-                indices[i] = -1;
-            }
-        } else if (plane == AlgorithmFFT2.SLICE_YZ) {
-            indices = AlgorithmFFT2.generateFFTIndices(xdim);
-            double rtemp, itemp;
-            final int step = xdim;
-            for (int i = 0; i < indices.length; i++) {
-                if (indices[i] < 0 || indices[indices[i]] == indices[i]) {
-                    continue;
-                }
-                int index1 = indices[i];
-                int index2 = indices[indices[i]];
-                indices[indices[i]] = -1;
-                indices[i] = -1;
-
-                while (index1 < xdim * ydim * zdim) {
-                    rtemp = rdata[index1];
-                    itemp = idata[index1];
-                    rdata[index1] = rdata[index2];
-                    idata[index1] = idata[index2];
-                    rdata[index2] = rtemp;
-                    idata[index2] = itemp;
-                    index1 += step;
-                    index2 += step;
-                }
-            }
-        } else if (plane == AlgorithmFFT2.SLICE_ZX) {
-            indices = AlgorithmFFT2.generateFFTIndices(ydim);
-            double rtemp, itemp;
-            for (int i = 0; i < indices.length; i++) {
-                if (indices[i] < 0 || indices[indices[i]] == indices[i]) {
-                    continue;
-                }
-                for (int j = 0; j < zdim; j++) {
-                    for (int k = 0; k < xdim; k++) {
-                        rtemp = rdata[k + indices[i] * ydim + sliceLength * j];
-                        itemp = idata[k + indices[i] * ydim + sliceLength * j];
-                        rdata[k + indices[i] * ydim + sliceLength * j] = rdata[k + indices[indices[i]] * ydim
-                                + sliceLength * j];
-                        idata[k + indices[i] * ydim + sliceLength * j] = idata[k + indices[indices[i]] * ydim
-                                + sliceLength * j];
-                        rdata[k + indices[indices[i]] * ydim + sliceLength * j] = rtemp;
-                        idata[k + indices[indices[i]] * ydim + sliceLength * j] = itemp;
-                    }
-                }
-                indices[indices[i]] = -1;
-                indices[i] = -1;
-            }
-        } else {
-            throw new IllegalArgumentException("The value of variable plane is illeagal: " + plane);
-        }
-    }
 }
@@ -44,20 +44,21 @@ import java.util.Arrays;
  *          filtering of images" by Holger. G. Adelmann, Computers in Medicine and Biology, Vol. 28, 1998, pp. 169-181.
  *          </p>
  *
- *          <p>The core algorithm of this module, the fast fourier transform algorithm found in exec(), requires that
- *          all the dimensions of an N-dimensional dataset be powers of 2. To be able to use this algorithm on datasets
- *          with arbitrary dimensions, the data is zero padded to powers of 2 before applying the forward fast fourier
- *          transform and stripped down to the original dimensions after applying the inverse fast fourier transform.
- *          The powers of 2 are not kept identical because symmetrical Fourier pictures are not required.</p>
+ *          <p>The core algorithm of this module, the fast fourier transform found in exec(), runs the mixed radix
+ *          transform of MixedRadixFFT, which is fastest for lengths whose only prime factors are 2, 3, 5 and 7. The
+ *          data is zero padded in every dimension to the smallest even such length before applying the forward fast
+ *          fourier transform and stripped down to the original dimensions after applying the inverse fast fourier
+ *          transform. The padded lengths are not kept identical because symmetrical Fourier pictures are not
+ *          required.</p>
  *
  *          <p>The typical full sequence is as follows: 1.) Data from a real spatial image is exported into a float
  *          array realData. 2.) An equally sized float array called imagData is created and filled with zeros. 3.)
- *          realData and imagData are enlarged to the powers of two. If finite impulse repsonse filters are constructed
- *          with Hamming windows and no cropping, the new dimension size is equal to the minimum power of two number
+ *          realData and imagData are enlarged to fast FFT lengths. If finite impulse repsonse filters are constructed
+ *          with Hamming windows and no cropping, the new dimension size is equal to the minimum fast FFT length
  *          that equals or exceeds the original dimension size + kDim - 1, where kDim is the diameter of a circular or
  *          spherical convolution kernel. If finite impulse response filters with Hamming windows and cropping or
  *          infinite impulse response Gaussian or Butterworth or Chebyshev filters are used, the new dimension size is equal to the
- *          minimum power of two number that equals or exceeds the original dimension size. The data is padded with
+ *          minimum fast FFT length that equals or exceeds the original dimension size. The data is padded with
  *          zeros at the end of each dimension. 4.) exec() is invoked to run the fast fourier transform algorithm. 5.)
  *          If Butterworth or Gaussian or Gabor or Chebyshev filters are used, the center algorithm is invoked to reorder the data so
  *          that frequencies with the lowest magnitudes are at the center. If finite impulse response filters with
@@ -73,7 +74,7 @@ import java.util.Arrays;
  *          equal to zero. This filter has the same dimensions as the padded image data. 11.) The data FFT is set equal
  *          to the product of the data FFT and the filter FFT. 12.) The inverse FFT process is invoked. The complex data
  *          is exported into the 2 float arrays realData and imagData. There should be no need for zero padding at this
- *          point since the dimensions should already be all powers of 2 from before. 13.) If Butterworth or Gaussian or Chebyshev
+ *          point since the dimensions should already be fast FFT lengths from before. 13.) If Butterworth or Gaussian or Chebyshev
  *          filters are used, the center() routine is invoked to restore the data to its original ordering. 14.) exec()
  *          is invoked to run the inverse fast fourier transform algorithm. 15.) The realData now holds the correct
  *          response if Gaussian or Butterworth or Chebyshev filtering was used. If FIR filtering with windows was used then realData
@@ -199,7 +200,7 @@ public class AlgorithmFrequencyFilter extends AlgorithmBase {
 
     /** DOCUMENT ME! */
     private boolean imageCrop; // if true crop image if largest image dimension + kDim - 1
-                               // exceeds the smallest power of 2 number >= the largest
+                               // exceeds the smallest fast FFT length >= the largest
                                // dimension
 
     /** DOCUMENT ME! */
@@ -282,8 +283,8 @@ public class AlgorithmFrequencyFilter extends AlgorithmBase {
      *
      * @param  srcImg     source image model
      * @param  image25D   if true processes each slice of a 3D image independently
-     * @param  imageCrop  if true crop image if largest image dimension + kDim - 1 exceeds the smallest power of 2
-     *                    number >= the largest dimension
+     * @param  imageCrop  if true crop image if largest image dimension + kDim - 1 exceeds the smallest fast FFT
+     *                    length >= the largest dimension
      */
     public AlgorithmFrequencyFilter(ModelImage srcImg, boolean image25D, boolean imageCrop) {
         super(null, srcImg);
@@ -420,8 +421,8 @@ public class AlgorithmFrequencyFilter extends AlgorithmBase {
      *
      * @param  srcImg              source image model
      * @param  image25D            if true processes each slice of a 3D image independently
-     * @param  imageCrop           if true crop image if largest image dimension + kDim - 1 exceeds the smallest power
-     *                             of 2 number >= the largest dimension
+     * @param  imageCrop           if true crop image if largest image dimension + kDim - 1 exceeds the smallest fast
+     *                             FFT length >= the largest dimension
      * @param  kernelDiameter      convolution kernel diameter - must be an odd integer >= 3
      * @param  filterType          LOWPASS, HIGHPASS, BANDPASS, or BANDSTOP
      * @param  freq1               cutoff frequency in LOWPASS and HIGHPASS lower frequency in BANDPASS and BANDSTOP
@@ -457,8 +458,8 @@ public class AlgorithmFrequencyFilter extends AlgorithmBase {
      * @param  destImg             image model where result image is to be stored
      * @param  srcImg              source image model
      * @param  image25D            if true processes each slice of a 3D image independently
-     * @param  imageCrop           if true crop image if largest image dimension + kDim - 1 exceeds the smallest power
-     *                             of 2 number >= the largest dimension
+     * @param  imageCrop           if true crop image if largest image dimension + kDim - 1 exceeds the smallest fast
+     *                             FFT length >= the largest dimension
      * @param  kernelDiameter      convolution kernel diameter - must be an odd integer >= 3
      * @param  filterType          LOWPASS, HIGHPASS, BANDPASS, or BANDSTOP
      * @param  freq1               cutoff frequency in LOWPASS and HIGHPASS lower frequency in BANDPASS and BANDSTOP
@@ -1864,14 +1865,7 @@ public class AlgorithmFrequencyFilter extends AlgorithmBase {
      */
     private void exec(float[] rData, float[] iData, int z) {
 
-        double TWO_PI = 2 * java.lang.Math.PI;
-        double wt1Imag, wt1Real;
-        double angle, delta;
-        float imag, real, fTemp, fReal, fImag;
-        int i, index1, index2, index3;
-        int j1, j2, j3;
-        int k1, k1Double;
-        int iSwap, i1Swap, i2Swap, index, dim;
+        int i;
         int direction;
         int dimNumber;
         int newLength;
@@ -1911,77 +1905,8 @@ public class AlgorithmFrequencyFilter extends AlgorithmBase {
             fireProgressStateChanged(-1, null, "Running FFT algorithm ...");
         }
 
-        j1 = 1;
-        dim = 1;
-
         for (i = 0; (i < dimNumber) && !threadStopped; i++) {
-            j1 *= dim;
-            dim = newDimLengths[i];
-            j2 = j1 * dim;
-            j3 = j2 * (newLength / (dim * j1));
-
-            i1Swap = 0;
-
-            for (index1 = 0; (index1 < j2) && !threadStopped; index1 += j1) {
-
-                for (index2 = index1; (index2 < (index1 + j1)) && (index1 < i1Swap); index2++) {
-
-                    for (index3 = index2; index3 < j3; index3 += j2) {
-                        i2Swap = -index1 + index3 + i1Swap;
-
-                        fTemp = iData[index3];
-                        iData[index3] = iData[i2Swap];
-                        iData[i2Swap] = fTemp;
-
-                        fTemp = rData[index3];
-                        rData[index3] = rData[i2Swap];
-                        rData[i2Swap] = fTemp;
-                    }
-                }
-
-                for (iSwap = j2 / 2; (iSwap >= j1) && (iSwap < (i1Swap + 1)); iSwap >>= 1) {
-                    i1Swap = i1Swap - iSwap;
-                }
-
-                i1Swap = i1Swap + iSwap;
-            }
-
-            if (threadStopped) {
-                finalize();
-
-                return;
-            }
-
-            for (k1 = j1; (k1 < j2) && !threadStopped; k1 <<= 1) {
-                delta = TWO_PI / (k1 << 1) * direction * j1;
-                angle = 0;
-
-                for (index1 = 0, angle = 0; index1 < k1; index1 += j1) {
-                    wt1Imag = java.lang.Math.sin(angle);
-                    wt1Real = java.lang.Math.cos(angle);
-                    angle += delta;
-
-                    for (index2 = index1; index2 < (index1 + j1); index2++) {
-                        k1Double = k1 << 1;
-
-                        for (index3 = index2; index3 < j3; index3 += k1Double) {
-                            index = index3 + k1;
-                            fReal = rData[index];
-                            fImag = iData[index];
-                            imag = (float) ((fImag * wt1Real) + (fReal * wt1Imag));
-                            real = (float) ((fReal * wt1Real) - (fImag * wt1Imag));
-                            iData[index] = iData[index3] - imag;
-                            rData[index] = rData[index3] - real;
-                            iData[index3] = iData[index3] + imag;
-                            rData[index3] = rData[index3] + real;
-                        }
-                    }
-                }
-            }
-
-            if (threadStopped) {
-                return;
-            }
+            transformDimension(rData, iData, newLength, i, direction);
 
             if (!image25D) {
 
@@ -2063,6 +1988,37 @@ public class AlgorithmFrequencyFilter extends AlgorithmBase {
 
     } // end of exec()
 
+    /**
+     * Transforms every line of the data along one dimension with the mixed radix FFT.
+     *
+     * @param  rData   real data buffer
+     * @param  iData   imaginary data buffer
+     * @param  length  number of samples in the buffers
+     * @param  d       the dimension
+     * @param  sign    sign of the exponent of the transform
+     */
+    private void transformDimension(float[] rData, float[] iData, int length, int d, int sign) {
+        int dim = newDimLengths[d];
+        int stride = 1;
+        int line, lines;
+        MixedRadixFFT plan;
+
+        if (dim == 1) {
+            return;
+        }
+
+        for (int i = 0; i < d; i++) {
+            stride *= newDimLengths[i];
+        }
+
+        lines = length / dim;
+        plan = MixedRadixFFT.getInstance(dim);
+
+        for (line = 0; (line < lines) && !threadStopped; line++) {
+            plan.transform(rData, iData, ((line / stride) * stride * dim) + (line % stride), stride, sign);
+        }
+    }
+
     /**
      * Builds a hamming kernel in 2 dimensions.
      */
@@ -3625,11 +3581,11 @@ public class AlgorithmFrequencyFilter extends AlgorithmBase {
         zeroPad = false;
 
         // If imageCrop is false:
-        // Find the lowest power of 2 number not less than kdim + dimLengths[i] - 1.
+        // Find the lowest fast FFT length not less than kdim + dimLengths[i] - 1.
         // If imageCrop is true:
-        // Find the lowest power of 2 number not less than dimLengths[i]
+        // Find the lowest fast FFT length not less than dimLengths[i]
         // This must be done to prevent aliasing in using a frequency filter
-        // and to have a power of 2 for the FFT.
+        // and to have an even length with small prime factors for the FFT.
         // Make dimensions equal to these sizes in a zero padded array
 
         for (i = 0; i < ndim; i++) {
@@ -3652,40 +3608,14 @@ public class AlgorithmFrequencyFilter extends AlgorithmBase {
             } // else not image25D
         }
 
-        if (image25D) {
-
-            for (i = 0; i < 2; i++) {
-
-                for (dimTest = newDimLengths[i]; dimTest > 1; dimTest = dimTest / 2) {
+        for (i = 0; i < (image25D ? 2 : ndim); i++) {
+            dimTest = MixedRadixFFT.nextFastLength(newDimLengths[i]);
 
-                    if ((dimTest % 2) != 0) {
-                        dimTest = 1;
-
-                        // log2x = logex/loge2
-                        newDimLengths[i] = 1 + (int) (Math.log((double) newDimLengths[i]) / Math.log(2.0));
-                        newDimLengths[i] = Math.round((float) (Math.pow(2.0, (double) newDimLengths[i])));
-                        zeroPad = true;
-                    }
-                }
-            } // for (i = 0; i < 2; i++)
-        } // if (image25D)
-        else { // not image25D
-
-            for (i = 0; i < ndim; i++) {
-
-                for (dimTest = newDimLengths[i]; dimTest > 1; dimTest = dimTest / 2) {
-
-                    if ((dimTest % 2) != 0) {
-                        dimTest = 1;
-
-                        // log2x = logex/loge2
-                        newDimLengths[i] = 1 + (int) (Math.log((double) newDimLengths[i]) / Math.log(2.0));
-                        newDimLengths[i] = Math.round((float) (Math.pow(2.0, (double) newDimLengths[i])));
-                        zeroPad = true;
-                    }
-                }
-            } // for (i = 0; i < ndim; i++)
-        } // else not image25D
+            if (dimTest != newDimLengths[i]) {
+                newDimLengths[i] = dimTest;
+                zeroPad = true;
+            }
+        }
 
         if ((imageCrop == true) && (constructionMethod == WINDOW)) {
 
@@ -4034,7 +3964,7 @@ public class AlgorithmFrequencyFilter extends AlgorithmBase {
 
         if (zeroPad) {
 
-            // zero pad the data so that all dimensions are powers of 2
+            // zero pad the data so that all dimensions are fast FFT lengths
             // fireProgressStateChanged("Zero padding source data...");
             fireProgressStateChanged(-1, null, "Zero padding source data ...");
 
@@ -634,7 +634,7 @@ public class AlgorithmGaussianBlur extends AlgorithmBase implements AlgorithmInt
 
 			}
 			try {
-				doneSignal.await();
+				ThreadUtil.await(doneSignal);
 			} catch (InterruptedException e) {
 				e.printStackTrace();
 			}
@@ -719,7 +719,7 @@ public class AlgorithmGaussianBlur extends AlgorithmBase implements AlgorithmInt
 
 				}
 				try {
-					doneSignal.await();
+					ThreadUtil.await(doneSignal);
 				} catch (InterruptedException e) {
 					e.printStackTrace();
 				}
@@ -745,7 +745,7 @@ public class AlgorithmGaussianBlur extends AlgorithmBase implements AlgorithmInt
 
 				}
 				try {
-					doneSignal.await();
+					ThreadUtil.await(doneSignal);
 				} catch (InterruptedException e) {
 					e.printStackTrace();
 				}
@@ -992,7 +992,7 @@ public class AlgorithmGaussianBlur extends AlgorithmBase implements AlgorithmInt
 
     				}
     				try {
-    					doneSignal.await();
+    					ThreadUtil.await(doneSignal);
     				} catch (InterruptedException e) {
     					e.printStackTrace();
     				}
@@ -1020,7 +1020,7 @@ public class AlgorithmGaussianBlur extends AlgorithmBase implements AlgorithmInt
 
     				}
     				try {
-    					doneSignal.await();
+    					ThreadUtil.await(doneSignal);
     				} catch (InterruptedException e) {
     					e.printStackTrace();
     				}
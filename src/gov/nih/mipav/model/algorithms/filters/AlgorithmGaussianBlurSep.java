@@ -26,6 +26,10 @@ import java.io.IOException;
  * blurring:a large SD (i.e. > 2) significantly blurs while a small SD (i.e. 0.5) blurs less. If the objective is to
  * achieve noise reduction, a rank filter (median) might be more useful.</p>
  *
+ * <p>When a destination image is given the volume is streamed through the convolver in slabs of slices and written
+ * straight into the destination, so the image never has to fit in memory as a float buffer. Otherwise the result is
+ * returned by getResultBuffer().</p>
+ *
  * <p>1D Gaussian = (1/sqrt(2*PI*sigma*sigma))*exp(-x*x/(2*sigma*sigma));</p>
  *
  * <p>Advantages to convolving the Gaussian function to blur an image include:</p>
@@ -57,6 +61,9 @@ public class AlgorithmGaussianBlurSep extends AlgorithmBase implements Algorithm
     private Kernel gaussianKernel;
     private float[] inputBuffer;
     private float[] outputBuffer;
+
+    /** Number of slices in a streamed slab, not counting the halo slices. Zero sizes the slabs automatically. */
+    private int slabSlices = 0;
     //~ Constructors ---------------------------------------------------------------------------------------------------
 
     /**
@@ -82,6 +89,24 @@ public class AlgorithmGaussianBlurSep extends AlgorithmBase implements Algorithm
         image25D = img25D;
     }
 
+    /**
+     * Creates a new AlgorithmGaussianBlurSep object that streams the blurred image into a destination image.
+     *
+     * @param  destImg   image the blurred data is written to, may be the source image to blur in place
+     * @param  srcImg    source image model
+     * @param  sigmas    Gaussian's standard deviations in the each dimension
+     * @param  maskFlag  Flag that indicates that the gaussian convolution will be performed over the whole image if
+     *                   equal to true
+     * @param  img25D    Flag, if true, indicates that each slice of the 3D volume should be processed independently. 2D
+     *                   images disregard this flag.
+     */
+    public AlgorithmGaussianBlurSep(ModelImage destImg, ModelImage srcImg, float[] sigmas, boolean maskFlag,
+                                    boolean img25D) {
+        this(srcImg, sigmas, maskFlag, img25D);
+        destImage = destImg;
+        destFlag = (destImg != null);
+    }
+
     //~ Methods --------------------------------------------------------------------------------------------------------
 
     /**
@@ -116,6 +141,12 @@ public class AlgorithmGaussianBlurSep extends AlgorithmBase implements Algorithm
 			cFactor = 4;
 		}
 
+		if (destImage != null) {
+			blurSlabs(color);
+
+			return;
+		}
+
 		int imgLength = cFactor
 				* AlgorithmBase.calculateImageSize(srcImage.getExtents());
 
@@ -173,7 +204,42 @@ public class AlgorithmGaussianBlurSep extends AlgorithmBase implements Algorithm
 	}
     
     public void afterExecute(){
-		setCompleted(true);
+		setCompleted(!threadStopped || (destImage == null));
+    }
+
+    /**
+     * Blurs the source image slab by slab into the destination image.
+     *
+     * @param  color  whether the source image is color
+     */
+    private void blurSlabs(boolean color) {
+		fireProgressStateChanged(0, srcImage.getImageName(), "Blurring image ...");
+
+		AlgorithmSeparableConvolver convolver = new AlgorithmSeparableConvolver(destImage, srcImage,
+				gaussianKernel.getData(), color);
+
+		convolver.setProgressValues(generateProgressValues(getMinProgressValue(), getMaxProgressValue()));
+		linkProgressToAlgorithm(convolver);
+		convolver.setRunningInSeparateThread(runningInSeparateThread);
+		convolver.setMultiThreadingEnabled(multiThreadingEnabled);
+		convolver.setNumberOfThreads(nthreads);
+		convolver.setSlabSlices(slabSlices);
+
+		if (!entireImage) {
+			convolver.setMask(mask);
+		}
+
+		if (color) {
+			convolver.setColorChannels(red, green, blue);
+		}
+
+		convolver.run();
+
+		if (!convolver.isCompleted()) {
+			setThreadStopped(true);
+		}
+
+		convolver.finalize();
     }
     /**
 	 * Sets the flag for the blue channel.
@@ -204,6 +270,15 @@ public class AlgorithmGaussianBlurSep extends AlgorithmBase implements Algorithm
         red = flag;
     }
 
+    /**
+     * Sets the number of slices in each streamed slab, not counting the halo slices read for the z kernel.
+     *
+     * @param  slices  slices per slab, or zero to size the slabs automatically
+     */
+    public void setSlabSlices(int slices) {
+        slabSlices = slices;
+    }
+
 	public synchronized float[] getResultBuffer() {
 		return outputBuffer;
 	}
@@ -12,6 +12,7 @@ import gov.nih.mipav.view.ViewJProgressBar;
 
 import java.io.IOException;
 import java.util.Arrays;
+import java.util.BitSet;
 
 /**
  * Calculates the gradient magnitude of an image at a scale defined by the user (using separable convolutions). Adapted
@@ -20,12 +21,21 @@ import java.util.Arrays;
  * <p>Produces equivalent result images to AlgorithmGradientMagnitude (aside from some rounding error that seems to be
  * at most 10^-4)</p>
  *
+ * <p>When a destination image is given and the derivative directions are not needed, the volume is streamed in slabs
+ * of slices: each slab is read with the slices its z kernel reaches, its derivatives and magnitude are computed, and
+ * the magnitude slices are written straight into the destination. Peak memory is then bounded by the slab size.</p>
+ *
  * @version  0.1 July 31, 2003
  * @author   Evan McCreedy
  * @see      AlgorithmGradientMagnitude
  */
 public class AlgorithmGradientMagnitudeSep extends AlgorithmBase {
 
+	//~ Static fields/initializers -------------------------------------------------------------------------------------
+
+	/** Default number of samples in a streamed slab, not counting the halo slices. */
+	private static final int SLAB_SAMPLES = 1 << 22;
+
 	//~ Instance fields ------------------------------------------------------------------------------------------------
 
 	/** DOCUMENT ME! */
@@ -60,6 +70,9 @@ public class AlgorithmGradientMagnitudeSep extends AlgorithmBase {
     // Extents of the Gaussian kernel
     private int[] kExtents = null;
 
+	/** Number of slices in a streamed slab, not counting the halo slices. Zero selects it from SLAB_SAMPLES. */
+	private int slabSlices = 0;
+
 	//~ Constructors ---------------------------------------------------------------------------------------------------
 
 	/**
@@ -88,6 +101,23 @@ public class AlgorithmGradientMagnitudeSep extends AlgorithmBase {
 		}
 	}
 
+	/**
+	 * Creates a new AlgorithmGradientMagnitudeSep object that streams the gradient magnitude into a destination image.
+	 *
+	 * @param  destImg   image the gradient magnitude is written to, may be the source image to replace it
+	 * @param  srcImg    source image model
+	 * @param  sigmas    Gaussian standard deviations in each dimension
+	 * @param  maskFlag  Flag, if true, indicates that the gradient magnitude will be calculated for the whole image
+	 * @param  img25D    Flag, if true, indicates that each slice of the 3D volume should be processed independently. 2D
+	 *                   images disregard this flag.
+	 */
+	public AlgorithmGradientMagnitudeSep(ModelImage destImg, ModelImage srcImg, float[] sigmas,
+			boolean maskFlag, boolean img25D) {
+		this(srcImg, sigmas, maskFlag, img25D);
+		destImage = destImg;
+		destFlag = (destImg != null);
+	}
+
 	//~ Methods --------------------------------------------------------------------------------------------------------
 
 	public void beforeExecute() {
@@ -105,6 +135,16 @@ public class AlgorithmGradientMagnitudeSep extends AlgorithmBase {
 			color = true;
 			cFactor = 4;
 		}
+
+		if ((destImage != null) && !directionNeeded) {
+			try {
+				magnitudeSlabs(color, cFactor);
+			} catch (IOException e) {
+				errorCleanUp("Algorithm Gradient Magnitude: Image(s) locked.", false);
+				fireProgressStateChanged(ViewJProgressBar.PROGRESS_WINDOW_CLOSING);
+			}
+			return;
+		}
         int bufferExtents[] = new int[srcImage.getNDims()];
         for (i = 0; i < srcImage.getNDims(); i++) {
             bufferExtents[i] = srcImage.getExtents()[i];
@@ -278,7 +318,217 @@ public class AlgorithmGradientMagnitudeSep extends AlgorithmBase {
 
 	public void afterExecute() {
 		fireProgressStateChanged(maxProgressValue);
-		setCompleted(true);
+		setCompleted(!threadStopped || (destImage == null));
+	}
+
+	/**
+	 * Calculates the gradient magnitude one slab of slices at a time and imports it into the destination image. Slices
+	 * the 3D kernels do not fit use the 2D gradient magnitude, as in the whole image calculation. The next slab is
+	 * always read before the previous one is written, so the destination may be the source image.
+	 *
+	 * @param   color    whether the source image is color
+	 * @param   cFactor  number of samples per pixel
+	 *
+	 * @throws  IOException  if the source or destination image is locked
+	 */
+	private void magnitudeSlabs(boolean color, int cFactor) throws IOException {
+		int[] extents = srcImage.getExtents();
+		int xDim = extents[0];
+		int yDim = extents[1];
+		int zDim = (extents.length > 2) ? extents[2] : 1;
+		int tDim = (extents.length > 3) ? extents[3] : 1;
+		int slicePixels = xDim * yDim;
+		int sliceSize = cFactor * slicePixels;
+		boolean kernel3D = (zDim > 1) && is3DKernel();
+
+		GaussianKernelFactory gkf = GaussianKernelFactory.getInstance(sigmas);
+		gkf.setKernelType(GaussianKernelFactory.X_DERIVATIVE_KERNEL);
+		gaussianKernel = gkf.createKernel();
+		kExtents = gaussianKernel.getExtents();
+		float[][] xKernel = gaussianKernel.getData();
+		gkf.setKernelType(GaussianKernelFactory.Y_DERIVATIVE_KERNEL);
+		float[][] yKernel = gkf.createKernel().getData();
+		float[][] zKernel = null;
+		float[][] xKernel2D = null;
+		float[][] yKernel2D = null;
+		int below = 0;
+		int above = 0;
+
+		if (kernel3D) {
+			gkf.setKernelType(GaussianKernelFactory.Z_DERIVATIVE_KERNEL);
+			zKernel = gkf.createKernel().getData();
+			below = kExtents[2] / 2;
+			above = kExtents[2] - 1 - below;
+
+			GaussianKernelFactory gkf2D = GaussianKernelFactory.getInstance(new float[] {sigmas[0], sigmas[1]});
+			gkf2D.setKernelType(GaussianKernelFactory.X_DERIVATIVE_KERNEL);
+			xKernel2D = gkf2D.createKernel().getData();
+			gkf2D.setKernelType(GaussianKernelFactory.Y_DERIVATIVE_KERNEL);
+			yKernel2D = gkf2D.createKernel().getData();
+		}
+
+		// the slices the 3D kernels fit, the others get the 2D gradient magnitude
+		int start3D = below;
+		int end3D = zDim - above;
+
+		// the next slab reads back below slices, which must not have been overwritten yet when replacing the source
+		int depth = (slabSlices > 0) ? slabSlices : Math.max(1, SLAB_SAMPLES / sliceSize);
+		depth = Math.min(zDim, Math.max(depth, below));
+		int slabs = tDim * ((zDim + depth - 1) / depth);
+		float[] slab = null;
+		float[] pending = null;
+		long pendingStart = 0;
+		int done = 0;
+
+		for (int t = 0; (t < tDim) && !threadStopped; t++) {
+			for (int z0 = 0; (z0 < zDim) && !threadStopped; z0 += depth) {
+				int z1 = Math.min(zDim, z0 + depth);
+				int lo = Math.max(0, z0 - below);
+				int hi = Math.min(zDim, z1 + above);
+				long firstSlice = ((long) t * zDim) + lo;
+				int length = (hi - lo) * sliceSize;
+
+				if ((slab == null) || (slab.length != length)) {
+					slab = new float[length];
+				}
+
+				srcImage.exportData(firstSlice * sliceSize, length, slab);
+
+				if (pending != null) {
+					destImage.importData(pendingStart, pending, false);
+				}
+
+				int[] slabExtents = new int[] {xDim, yDim, hi - lo};
+				BitSet slabMask = null;
+
+				if (!entireImage) {
+					int firstPixel = (int) (firstSlice * slicePixels);
+					slabMask = mask.get(firstPixel, firstPixel + ((hi - lo) * slicePixels));
+				}
+
+				float[] xDerivatives = convolveSlab(slab, slabExtents, color, xKernel, slabMask);
+				float[] yDerivatives = convolveSlab(slab, slabExtents, color, yKernel, slabMask);
+				float[] zDerivatives = null;
+				float[] xDerivatives2D = null;
+				float[] yDerivatives2D = null;
+
+				if (kernel3D) {
+					zDerivatives = convolveSlab(slab, slabExtents, color, zKernel, slabMask);
+
+					if ((z0 < start3D) || (z1 > end3D)) {
+						xDerivatives2D = convolveSlab(slab, slabExtents, color, xKernel2D, slabMask);
+						yDerivatives2D = convolveSlab(slab, slabExtents, color, yKernel2D, slabMask);
+					}
+				}
+
+				if (threadStopped) {
+					return;
+				}
+
+				int coreLength = (z1 - z0) * sliceSize;
+
+				if ((pending == null) || (pending.length != coreLength)) {
+					pending = new float[coreLength];
+				}
+
+				for (int z = z0; z < z1; z++) {
+					int from = (z - lo) * sliceSize;
+					int to = (z - z0) * sliceSize;
+
+					if (!kernel3D) {
+						sliceMagnitude(slab, xDerivatives, yDerivatives, null, slabMask, cFactor, from, pending, to,
+								sliceSize);
+					} else if ((z >= start3D) && (z < end3D)) {
+						sliceMagnitude(slab, xDerivatives, yDerivatives, zDerivatives, slabMask, cFactor, from,
+								pending, to, sliceSize);
+					} else {
+						sliceMagnitude(slab, xDerivatives2D, yDerivatives2D, null, slabMask, cFactor, from, pending,
+								to, sliceSize);
+					}
+				}
+
+				pendingStart = (((long) t * zDim) + z0) * sliceSize;
+				done++;
+				fireProgressStateChanged(minProgressValue + ((maxProgressValue - minProgressValue) * done / slabs));
+			}
+		}
+
+		if ((pending != null) && !threadStopped) {
+			destImage.importData(pendingStart, pending, false);
+			destImage.calcMinMax();
+		}
+	}
+
+	/**
+	 * Convolves a slab of slices with one of the derivative kernels.
+	 *
+	 * @param   slab        slab of source slices
+	 * @param   extents     dimensions of the slab
+	 * @param   color       whether the source image is color
+	 * @param   kernelData  separable derivative kernel
+	 * @param   slabMask    mask of the slab pixels, null to convolve the whole slab
+	 *
+	 * @return  the convolved slab
+	 */
+	private float[] convolveSlab(float[] slab, int[] extents, boolean color, float[][] kernelData, BitSet slabMask) {
+		AlgorithmSeparableConvolver convolver = new AlgorithmSeparableConvolver(slab, extents, kernelData, color);
+
+		convolver.setNumberOfThreads(nthreads);
+		convolver.setProgressValues(0, 1);
+		if (slabMask != null) {
+			convolver.setMask(slabMask);
+		}
+
+		if (color) {
+			convolver.setColorChannels(red, green, blue);
+		}
+
+		convolver.runAlgorithm();
+		float[] result = convolver.getOutputBuffer();
+		convolver.finalize();
+		return result;
+	}
+
+	/**
+	 * Calculates the gradient magnitude of one slice of a slab. Pixels outside the mask are set to zero, and the alpha
+	 * and unprocessed channels of color images are copied from the source.
+	 *
+	 * @param  buffer        source slab
+	 * @param  xDerivatives  x derivatives of the slab
+	 * @param  yDerivatives  y derivatives of the slab
+	 * @param  zDerivatives  z derivatives of the slab, null for the 2D gradient magnitude
+	 * @param  slabMask      mask of the slab pixels, null to process the whole slice
+	 * @param  cFactor       number of samples per pixel
+	 * @param  from          index of the slice in the slab
+	 * @param  result        buffer the magnitude is stored in
+	 * @param  to            index of the slice in result
+	 * @param  length        number of samples in the slice
+	 */
+	private void sliceMagnitude(float[] buffer, float[] xDerivatives, float[] yDerivatives, float[] zDerivatives,
+			BitSet slabMask, int cFactor, int from, float[] result, int to, int length) {
+		boolean[] channels = new boolean[] {true, red, green, blue};
+
+		for (int i = 0; i < length; i += cFactor) {
+			int j = from + i;
+
+			if ((slabMask != null) && !slabMask.get(j / cFactor)) {
+				Arrays.fill(result, to + i, to + i + cFactor, 0);
+				continue;
+			}
+
+			for (int c = 0; c < cFactor; c++) {
+				if ((cFactor == 4) && ((c == 0) || !channels[c])) {
+					result[to + i + c] = buffer[j + c];
+				} else if (zDerivatives == null) {
+					result[to + i + c] = (float) Math.sqrt((xDerivatives[j + c] * xDerivatives[j + c])
+							+ (yDerivatives[j + c] * yDerivatives[j + c]));
+				} else {
+					result[to + i + c] = (float) Math.sqrt((xDerivatives[j + c] * xDerivatives[j + c])
+							+ (yDerivatives[j + c] * yDerivatives[j + c])
+							+ (zDerivatives[j + c] * zDerivatives[j + c]));
+				}
+			}
+		}
 	}
 
 	private float[] calculateDerivativeImage(float[] imgData, int[] imgExtents, boolean color,
@@ -466,6 +716,15 @@ public class AlgorithmGradientMagnitudeSep extends AlgorithmBase {
 		red = flag;
 	}
 
+	/**
+	 * Sets the number of slices in each streamed slab, not counting the halo slices read for the z kernel.
+	 *
+	 * @param  slices  slices per slab, or zero to size the slabs automatically
+	 */
+	public void setSlabSlices(int slices) {
+		slabSlices = slices;
+	}
+
 	public float[] getResultBuffer() {
 		return outputBuffer;
 	}
@@ -3,6 +3,7 @@ package gov.nih.mipav.model.algorithms.filters;
 
 import gov.nih.mipav.model.algorithms.*;
 import gov.nih.mipav.model.structures.*;
+import gov.nih.mipav.util.ThreadUtil;
 
 import java.io.*;
 
@@ -1790,6 +1791,56 @@ public class AlgorithmMedian extends AlgorithmBase {
         return (float) (sum / (list.length));
     }
 
+    /**
+     * Does one pass of the standard median filter over the rows of a slice or of the volume, with a MedianWindow for
+     * each band of rows. The bands are filtered concurrently. Gives the same result as sorting the neighbor list of
+     * every pixel.
+     *
+     * @param  srcBdrBuffer             float[] Source border buffer.
+     * @param  destBuffer               float[] Destination buffer.
+     * @param  srcBdrBufferOffset       Index in the border buffer of the first pixel of the slice or volume.
+     * @param  destBufferStartingPoint  Index in the destination buffer of the first pixel of the slice or volume.
+     * @param  srcBufferStartingPoint   Index in the border buffer of the first border slice, for slice filtering.
+     * @param  is2D                     True to filter a slice with a 2D kernel, false to filter the volume.
+     * @param  progressStart            Progress value at the start of the pass.
+     * @param  progressEnd              Progress value at the end of the pass.
+     */
+    private void slidingMedianFilter(final float[] srcBdrBuffer, final float[] destBuffer,
+                                     final int srcBdrBufferOffset, final int destBufferStartingPoint,
+                                     final int srcBufferStartingPoint, final boolean is2D, int progressStart,
+                                     int progressEnd) {
+        final int bdrSliceLength = bdrBufferWidth * bdrBufferHeight;
+        final int nRows = is2D ? srcBufferHeight : (srcBufferHeight * srcBufferDepth);
+        final int nBands = Math.max(1, Math.min(nRows, nthreads));
+        final BitSet rowMask = entireImage ? null : mask;
+        final int[] range;
+
+        // integer valued data is filtered with a sliding histogram
+        if (is2D) {
+            range = MedianWindow.histogramRange(srcBdrBuffer, srcBufferStartingPoint,
+                                                srcBufferStartingPoint + bdrSliceLength);
+        } else {
+            range = MedianWindow.histogramRange(srcBdrBuffer, 0, srcBdrBuffer.length);
+        }
+
+        runParallel(nBands, new ThreadUtil.IndexedTask() {
+                public void run(int band) {
+                    MedianWindow window = new MedianWindow(kernel[0], kernelCenter[0], halfK[0], is2D,
+                                                           bdrBufferWidth, bdrBufferHeight, range);
+                    int lastRow = (int) (((long) nRows * (band + 1)) / nBands);
+
+                    for (int row = (int) (((long) nRows * band) / nBands); (row < lastRow) && !threadStopped;
+                             row++) {
+                        int srcBdrBufferIdx = srcBdrBufferOffset + ((row % srcBufferHeight) * bdrBufferWidth) +
+                                              ((row / srcBufferHeight) * bdrSliceLength);
+
+                        window.filterRow(srcBdrBuffer, srcBdrBufferIdx, destBuffer,
+                                         destBufferStartingPoint + (row * srcBufferWidth), srcBufferWidth, rowMask);
+                    }
+                }
+            }, progressStart, progressEnd);
+    }
+
     /**
      * Finds the median value of the list.
      *
@@ -2925,6 +2976,13 @@ public class AlgorithmMedian extends AlgorithmBase {
         int kCenter = maskCenter[0]; // to find the middle pixel of the kernel-mask
         
         for (pass = 0; (pass < iterations) && !threadStopped; pass++) {
+            if ((filterType == STANDARD) && (stdDevLimit == 0.0)) {
+                int progress = 10 + ((80 * pass) / iterations);
+
+                slidingMedianFilter(srcBdrBuffer, destBuffer, srcBdrBufferOffset, destBufferStartingPoint,
+                                    srcBufferStartingPoint, true, progress,
+                                    showProgress ? (10 + ((80 * (pass + 1)) / iterations)) : progress);
+            } else {
             destBufferIdx = destBufferStartingPoint;
 	        for (destRow = 0; destRow < srcBufferHeight; destRow++) {
 	            if (showProgress) {
@@ -3066,6 +3124,7 @@ public class AlgorithmMedian extends AlgorithmBase {
 	                }
 	            }
 	        }
+            } // else not STANDARD
 	        // now set up for the repeat for multiple iterations.
             // But only bother with copying over if there are more iterations.
             if (pass < (iterations - 1)) {
@@ -3979,6 +4038,13 @@ public class AlgorithmMedian extends AlgorithmBase {
         int srcBdrBufferIdx, srcBdrBufferSliceOffset;
         int destSlice, destRow, destCol, destBufferIdx;
         for (pass = 0; (pass < iterations) && !threadStopped; pass++) {
+            if (filterType == STANDARD) {
+                slidingMedianFilter(srcBdrBuffer, destBuffer, srcBrdBufferKernelOffset, 0, 0, false,
+                                    10 + ((80 * pass) / iterations), 10 + ((80 * (pass + 1)) / iterations));
+
+                continue;
+            }
+
             destBufferIdx = 0;
 	        for (destSlice = 0; (destSlice < srcBufferDepth) && !threadStopped; destSlice++) {
 	
@@ -8,6 +8,7 @@ import gov.nih.mipav.model.structures.BSplineKernelFunction;
 import gov.nih.mipav.model.structures.CoxDeBoorBSplineKernelFunction;
 import gov.nih.mipav.model.structures.ModelImage;
 import gov.nih.mipav.model.structures.ModelStorageBase;
+import gov.nih.mipav.util.ThreadUtil;
 
 import java.io.File;
 import java.io.IOException;
@@ -117,6 +118,17 @@ public class AlgorithmN4MRIBiasFieldCorrectionFilter extends AlgorithmBase {
 	
     private int latticeExtentsLength = 1;
 	
+	// Indices of the voxels inside the processed region, in increasing order
+	private int insideIndices[] = null;
+	
+	// Data values and weights of the fitted point set, one per entry of insideIndices
+	private double pointValues[] = null;
+	
+	private double pointWeights[] = null;
+	
+	// The point locations do not change between iterations, so one fitter is kept for the run
+	private AlgorithmBSplineScatteredDataPointSetToImageFilter bspliner = null;
+	
 	private boolean selfTest = false;
 	
 	private boolean CoxDeBoorBSplineKernelFunctionTest = false;
@@ -188,6 +200,13 @@ public class AlgorithmN4MRIBiasFieldCorrectionFilter extends AlgorithmBase {
 		maskIndex = null;
 		maskLargest = null;
 		maskExtents = null;
+		insideIndices = null;
+		pointValues = null;
+		pointWeights = null;
+		if (bspliner != null) {
+			bspliner.finalize();
+			bspliner = null;
+		}
 		super.finalize();
 	}
 
@@ -209,6 +228,7 @@ public class AlgorithmN4MRIBiasFieldCorrectionFilter extends AlgorithmBase {
 		double logSharpened[];
 		double subtracter1[];
 		double newLogBiasField[];
+		double swap[];
 		int currentLevel;
 		int elapsedIterations = 0;
 		int smallestX;
@@ -688,25 +708,44 @@ public class AlgorithmN4MRIBiasFieldCorrectionFilter extends AlgorithmBase {
             }
         } // for (i = 0; i < Math.min(nDims,3); i++)
 
-		// Calculate the log of the input image
-		// Set NaNs, infinities, and negatives to zero
+		// Collect the processed voxels once instead of testing the mask and
+		// confidence for every voxel on every pass
+		int insideCount = 0;
 		for (i = 0; i < length; i++) {
 			if (entireImage || (mask.get(i) && (confidence == null))
 					|| ((confidence != null) && (confidence[i] > 0.0))) {
-				logFilter[i] = Math.log(buffer[i]);
-				if ((Double.isNaN(logFilter[i]))
-						|| (Double.isInfinite(logFilter[i]))
-						|| (logFilter[i] < 0.0)) {
-					logFilter[i] = 0.0;
-				}
-				logUncorrected[i] = logFilter[i];
+				insideCount++;
+			}
+		}
+		insideIndices = new int[insideCount];
+		insideCount = 0;
+		for (i = 0; i < length; i++) {
+			if (entireImage || (mask.get(i) && (confidence == null))
+					|| ((confidence != null) && (confidence[i] > 0.0))) {
+				insideIndices[insideCount++] = i;
 			}
-		} // for (i = 0; i < length; i++)
+		}
+
+		// Calculate the log of the input image
+		// Set NaNs, infinities, and negatives to zero
+		for (j = 0; j < insideIndices.length; j++) {
+			i = insideIndices[j];
+			logFilter[i] = Math.log(buffer[i]);
+			if ((Double.isNaN(logFilter[i]))
+					|| (Double.isInfinite(logFilter[i]))
+					|| (logFilter[i] < 0.0)) {
+				logFilter[i] = 0.0;
+			}
+			logUncorrected[i] = logFilter[i];
+		} // for (j = 0; j < insideIndices.length; j++)
 
 		// Provide an initial log bias field of zeros.
 		logBiasField = new double[length];
 
+		// The working arrays are allocated once and reused by every iteration
 		subtracter1 = new double[length];
+		logSharpened = new double[length];
+		newLogBiasField = new double[length];
 		// Iterate until convergence or iterative exhaustion
 		int maximumNumberOfLevels = 1;
 		for (d = 0; d < originalNumberOfFittingLevels.length; d++) {
@@ -728,31 +767,25 @@ public class AlgorithmN4MRIBiasFieldCorrectionFilter extends AlgorithmBase {
 					&& (currentConvergenceMeasurement > convergenceThreshold)) {
 				fireProgressStateChanged("N4 Level = " + currentLevel + " Iteration = " + elapsedIterations);
 				// Sharpen the current estimate of the uncorrected image
-				logSharpened = sharpen(logUncorrected);
-				for (i = 0; i < length; i++) {
-					if (entireImage || (mask.get(i) && (confidence == null))
-							|| ((confidence != null) && (confidence[i] > 0.0))) {
-						subtracter1[i] = logUncorrected[i] - logSharpened[i];
-					}
-				}
+				sharpen(logUncorrected, logSharpened);
+				subtract(logUncorrected, logSharpened, subtracter1);
 
 				// Smooth the residual bias field estimate and add the resulting
 				// control point grid to get the new total bias field estimate.
-				newLogBiasField = updateBiasFieldEstimate(subtracter1);
+				updateBiasFieldEstimate(subtracter1, newLogBiasField);
 				currentConvergenceMeasurement = calculateConvergenceMeasurement(
 						logBiasField, newLogBiasField);
 				Preferences.debug("currentConvergenceMeasurement = " + currentConvergenceMeasurement + "\n",
 						Preferences.DEBUG_ALGORITHM);
+				swap = logBiasField;
 				logBiasField = newLogBiasField;
-				for (i = 0; i < length; i++) {
-					if (entireImage || (mask.get(i) && (confidence == null))
-							|| ((confidence != null) && (confidence[i] > 0.0))) {
-						logUncorrected[i] = logFilter[i] - logBiasField[i];
-					}
-				}
+				newLogBiasField = swap;
+				subtract(logFilter, logBiasField, logUncorrected);
 			} // while ((elapsedIterations++ <
 				// maximumNumberOfIterationsArray[currentLevel]) &&
 		    AlgorithmBSplineControlPointImageFilter reconstructer = new AlgorithmBSplineControlPointImageFilter(nDims);
+		    reconstructer.setNumberOfThreads(nthreads);
+		    reconstructer.setMultiThreadingEnabled(multiThreadingEnabled);
 		    reconstructer.setInput(logBiasFieldControlPointLattice);
 		    reconstructer.setOrigin(origin);
 		    reconstructer.setResolutions(resolutions);
@@ -773,6 +806,10 @@ public class AlgorithmN4MRIBiasFieldCorrectionFilter extends AlgorithmBase {
 		    reconstructer = null;
 		} // for (currentLevel = 0; currentLevel < maximumNumberOfLevels;
 			// currentLevel++)
+		if (bspliner != null) {
+			bspliner.finalize();
+			bspliner = null;
+		}
 		
 		double expFilter[] = new double[logBiasField.length];
 		for (i = 0; i < expFilter.length; i++) {
@@ -827,21 +864,17 @@ public class AlgorithmN4MRIBiasFieldCorrectionFilter extends AlgorithmBase {
 		return;
 	}
 
-	private double[] sharpen(double[] unsharpened) {
-		double sharpened[] = new double[unsharpened.length];
+	private void sharpen(final double[] unsharpened, final double[] sharpened) {
 		// Build the histogram for the uncorrected image.
 		// Note that variables in real space are denoted by a single
 		// upper case letter whereas their frequency counterparts are
 		// indicated by a trailing lower case 'f'.
 		double binMaximum = -Double.MAX_VALUE;
 		double binMinimum = Double.MAX_VALUE;
-		double pixel;
+		int c;
 		int i;
 		double histogramSlope;
-		double H[] = new double[numberOfHistogramBins];
-		double cidx;
-		int idx;
-		double offset;
+		double H[];
 		double exponent;
 		int paddedHistogramSize;
 		int histogramOffset;
@@ -869,45 +902,69 @@ public class AlgorithmN4MRIBiasFieldCorrectionFilter extends AlgorithmBase {
 		double temp;
 		double denominatorR[];
 		double denominatorI[];
-		double E[];
-		double correctedPixel;
-
-		for (i = 0; i < length; i++) {
-			if (entireImage || (mask.get(i) && (confidence == null))
-					|| ((confidence != null) && (confidence[i] > 0.0))) {
-				pixel = unsharpened[i];
-				if (pixel > binMaximum) {
-					binMaximum = pixel;
-				}
-				if (pixel < binMinimum) {
-					binMinimum = pixel;
+		final double E[];
+		final int chunks = getNumberOfChunks();
+		final double binMaxima[] = new double[chunks];
+		final double binMinima[] = new double[chunks];
+
+		ThreadUtil.parallelFor(chunks, new ThreadUtil.IndexedTask() {
+			public void run(final int index) {
+				final int from = (int)((long)insideIndices.length * index / chunks);
+				final int to = (int)((long)insideIndices.length * (index + 1) / chunks);
+				double maximum = -Double.MAX_VALUE;
+				double minimum = Double.MAX_VALUE;
+				for (int j = from; j < to; j++) {
+					double pixel = unsharpened[insideIndices[j]];
+					if (pixel > maximum) {
+						maximum = pixel;
+					}
+					if (pixel < minimum) {
+						minimum = pixel;
+					}
 				}
-			} // if (entireImage || mask.get(i) || ((confidence != null) &&
-				// (confidence[i] > 0.0))) {
-		} // for (i = 0; i < length; i++)
+				binMaxima[index] = maximum;
+				binMinima[index] = minimum;
+			}
+		});
+		for (c = 0; c < chunks; c++) {
+			binMaximum = Math.max(binMaximum, binMaxima[c]);
+			binMinimum = Math.min(binMinimum, binMinima[c]);
+		}
 
 		histogramSlope = (binMaximum - binMinimum)
 				/ (double) (numberOfHistogramBins - 1);
 		// Create the intensity profile (within the masked region, if
 		// applicable)
-		// using a triangular parzen windowing scheme
-		for (i = 0; i < length; i++) {
-			if (entireImage || (mask.get(i) && (confidence == null))
-					|| ((confidence != null) && (confidence[i] > 0.0))) {
-				pixel = unsharpened[i];
-				cidx = (pixel - binMinimum) / histogramSlope;
-				idx = (int) Math.floor(cidx);
-				offset = cidx - idx;
-
-				if (offset == 0.0) {
-					H[idx] += 1.0;
-				} else if (idx < numberOfHistogramBins - 1) {
-					H[idx] += 1.0 - offset;
-					H[idx + 1] += offset;
+		// using a triangular parzen windowing scheme.
+		// Each chunk fills its own histogram and the histograms are summed in chunk order.
+		final double minimum = binMinimum;
+		final double slope = histogramSlope;
+		final double histograms[][] = new double[chunks][numberOfHistogramBins];
+		ThreadUtil.parallelFor(chunks, new ThreadUtil.IndexedTask() {
+			public void run(final int index) {
+				final int from = (int)((long)insideIndices.length * index / chunks);
+				final int to = (int)((long)insideIndices.length * (index + 1) / chunks);
+				final double histogram[] = histograms[index];
+				for (int j = from; j < to; j++) {
+					double cidx = (unsharpened[insideIndices[j]] - minimum) / slope;
+					int idx = (int) Math.floor(cidx);
+					double offset = cidx - idx;
+
+					if (offset == 0.0) {
+						histogram[idx] += 1.0;
+					} else if (idx < numberOfHistogramBins - 1) {
+						histogram[idx] += 1.0 - offset;
+						histogram[idx + 1] += offset;
+					}
 				}
-			} // if (entireImage || mask.get(i) || ((confidence != null) &&
-				// (confidence[i] > 0.0)))
-		} // for (i = 0; i < length; i++)
+			}
+		});
+		H = histograms[0];
+		for (c = 1; c < chunks; c++) {
+			for (n = 0; n < numberOfHistogramBins; n++) {
+				H[n] += histograms[c][n];
+			}
+		}
 
 		// Determine information about the intensity histogram and zero-pad
 		// histogram to a power of 2.
@@ -1050,67 +1107,100 @@ public class AlgorithmN4MRIBiasFieldCorrectionFilter extends AlgorithmBase {
 		}
 
 		// Sharpen the image with the new mapping, E(u|v)
-		for (i = 0; i < length; i++) {
-			if (entireImage || (mask.get(i) && (confidence == null))
-					|| ((confidence != null) && (confidence[i] > 0.0))) {
-				cidx = (unsharpened[i] - binMinimum) / histogramSlope;
-				idx = (int) Math.floor(cidx);
-
-				if (idx < E.length - 1) {
-					correctedPixel = E[idx] + (E[idx + 1] - E[idx])
-							* (cidx - idx);
-				} else {
-					correctedPixel = E[E.length - 1];
+		ThreadUtil.parallelFor(chunks, new ThreadUtil.IndexedTask() {
+			public void run(final int index) {
+				final int from = (int)((long)insideIndices.length * index / chunks);
+				final int to = (int)((long)insideIndices.length * (index + 1) / chunks);
+				for (int j = from; j < to; j++) {
+					int i = insideIndices[j];
+					double cidx = (unsharpened[i] - minimum) / slope;
+					int idx = (int) Math.floor(cidx);
+					double correctedPixel;
+
+					if (idx < E.length - 1) {
+						correctedPixel = E[idx] + (E[idx + 1] - E[idx])
+								* (cidx - idx);
+					} else {
+						correctedPixel = E[E.length - 1];
+					}
+					sharpened[i] = correctedPixel;
 				}
-				sharpened[i] = correctedPixel;
 			}
-		}
-		return sharpened;
+		});
+	}
+
+	/**
+	 * Sets result = minuend - subtrahend over the processed voxels.
+	 */
+	private void subtract(final double[] minuend, final double[] subtrahend, final double[] result) {
+		final int chunks = getNumberOfChunks();
+		ThreadUtil.parallelFor(chunks, new ThreadUtil.IndexedTask() {
+			public void run(final int index) {
+				final int from = (int)((long)insideIndices.length * index / chunks);
+				final int to = (int)((long)insideIndices.length * (index + 1) / chunks);
+				for (int j = from; j < to; j++) {
+					int i = insideIndices[j];
+					result[i] = minuend[i] - subtrahend[i];
+				}
+			}
+		});
+	}
+
+	/**
+	 * Number of chunks the processed voxels are split into for the parallel passes.
+	 */
+	private int getNumberOfChunks() {
+		return multiThreadingEnabled ? Math.max(1, Math.min(nthreads, insideIndices.length)) : 1;
 	}
 
-	private double[] updateBiasFieldEstimate(double[] fieldEstimate) {
-    	double smoothField[] = new double[fieldEstimate.length];
+	private void updateBiasFieldEstimate(final double[] fieldEstimate, double[] smoothField) {
     	double maxAbsValue;
     	double minAbsValue;
     	int i;
     	int j;
+    	int k;
     	int d;
-    	double pixel;
     	double direction[][] = new double[nDims][nDims];
     	double dirLength;
-    	Vector<Vector4d> pointLocation = new Vector<Vector4d>();
-    	Vector<Double> pointData = new Vector<Double>();
-    	int index;
     	int x;
     	int y;
     	int z;
     	int t;
-    	Vector4d point;
-    	double confidenceWeight;
-    	double sigmoidWeight;
-    	double alpha;
-    	double beta;
-    	Vector<Double> weights = new Vector<Double>();
-    	AlgorithmBSplineScatteredDataPointSetToImageFilter bspliner;
+    	final int chunks = getNumberOfChunks();
     	// Use maskOrigin for parametricOrigin
     	// Calculate min/max for sigmoid weighting.  Calculate mean for offsetting
     	// bias field calculations since B-spline algorithm biases the result to zero.
     	maxAbsValue = -Double.MAX_VALUE;
     	minAbsValue = Double.MAX_VALUE;
     	if (sigmoidNormalizedAlpha > 0.0) {
-	    	for (i = 0; i < length; i++) {
-	    		if (entireImage || (mask.get(i) && (confidence == null))
-	    				||  ((confidence != null) && (confidence[i] > 0.0))) {
-	    			pixel = Math.abs(fieldEstimate[i]);
-	    			if (pixel > maxAbsValue) {
-	    				maxAbsValue = pixel;
-	    			}
-	    			if (pixel < minAbsValue) {
-	    				minAbsValue = pixel;
-	    			}
-	    		} // if (entireImage || mask.get(i) || ((confidence != null) && (confidence[i] > 0.0)))	
-	        } // for (i = 0; i < length; i++)
+    		final double maxAbsValues[] = new double[chunks];
+    		final double minAbsValues[] = new double[chunks];
+    		ThreadUtil.parallelFor(chunks, new ThreadUtil.IndexedTask() {
+    			public void run(final int index) {
+    				final int from = (int)((long)insideIndices.length * index / chunks);
+    				final int to = (int)((long)insideIndices.length * (index + 1) / chunks);
+    				double maximum = -Double.MAX_VALUE;
+    				double minimum = Double.MAX_VALUE;
+    				for (int j = from; j < to; j++) {
+    					double pixel = Math.abs(fieldEstimate[insideIndices[j]]);
+    					if (pixel > maximum) {
+    						maximum = pixel;
+    					}
+    					if (pixel < minimum) {
+    						minimum = pixel;
+    					}
+    				}
+    				maxAbsValues[index] = maximum;
+    				minAbsValues[index] = minimum;
+    			}
+    		});
+    		for (i = 0; i < chunks; i++) {
+    			maxAbsValue = Math.max(maxAbsValue, maxAbsValues[i]);
+    			minAbsValue = Math.min(minAbsValue, minAbsValues[i]);
+    		}
     	} // if (sigmoidNormalizedAlpha > 0.0)
+    	final double alpha = (maxAbsValue - minAbsValue) / (12.0 * sigmoidNormalizedAlpha);
+    	final double beta = minAbsValue + (maxAbsValue - minAbsValue) * sigmoidNormalizedBeta;
     	
     	// Get original direction and change to identity temporarily for the
     	// b-spline fitting
@@ -1121,10 +1211,24 @@ public class AlgorithmN4MRIBiasFieldCorrectionFilter extends AlgorithmBase {
     	for (i = 0; i < Math.min(nDims,3); i++) {
     		direction[i][i] = 1;
     	}
-    	index = 0;
-    	for (i = 0; i < length; i++) {
-    		if (entireImage || (mask.get(i) && (confidence == null)) || 
-    				((confidence != null) && (confidence[i] > 0.0))) {
+    	//if ( (srcImage.getMatrixHolder().containsType(TransMatrix.TRANSFORM_SCANNER_ANATOMICAL))
+               // || (srcImage.getFileInfo()[0].getFileFormat() == FileUtility.DICOM)) {
+            for (i = 0; i < Math.min(nDims,3); i++) {
+            	dirLength = 0;
+                for (j = 0; j < Math.min(nDims,3); j++) {
+                    direction[i][j] = srcImage.getMatrix().get(i, j);
+                    dirLength += (direction[i][j] * direction[i][j]);
+                }
+                dirLength = Math.sqrt(dirLength);
+                for (j = 0; j < Math.min(nDims,3); j++) {
+                	direction[i][j] = direction[i][j]/dirLength;
+                }
+            } // for (i = 0; i < Math.min(nDims,3); i++)
+    	//}
+    	if (bspliner == null) {
+    		Vector<Vector4d> pointLocation = new Vector<Vector4d>(insideIndices.length);
+    		for (k = 0; k < insideIndices.length; k++) {
+    			i = insideIndices[k];
     			x = i  % xDim;
     			y = (i % sliceSize) / xDim;
     			z = (i % xyzSize)/sliceSize;
@@ -1138,44 +1242,52 @@ public class AlgorithmN4MRIBiasFieldCorrectionFilter extends AlgorithmBase {
     					tComp = t*resolutions[3] + origin[3];
     				}
     			}
-    			point = new Vector4d(x*resolutions[0] + origin[0], y*resolutions[1] + origin[1], 
-    					zComp, tComp);
-    			pointData.add(index, fieldEstimate[i]);
-    			pointLocation.add(index, point);
-    			confidenceWeight = 1.0;
-    			if (confidence != null) {
-    				confidenceWeight = confidence[i];
+    			pointLocation.add(new Vector4d(x*resolutions[0] + origin[0], y*resolutions[1] + origin[1], 
+    					zComp, tComp));
+    		}
+    		pointValues = new double[insideIndices.length];
+    		pointWeights = new double[insideIndices.length];
+    		
+	    	bspliner = new AlgorithmBSplineScatteredDataPointSetToImageFilter(nDims);
+	    	bspliner.setNumberOfThreads(nthreads);
+	    	bspliner.setMultiThreadingEnabled(multiThreadingEnabled);
+	    	int numberOfFittingLevels[] = new int[nDims];
+	        for (i = 0; i < nDims; i++) {
+	        	numberOfFittingLevels[i] = 1;
+	        }
+	        bspliner.setOrigin(maskOrigin);
+	        bspliner.setResolutions(resolutions);
+	        bspliner.setExtents(maskExtents);
+	        bspliner.setDirection(direction);
+	        bspliner.setGenerateOutputImage(false);
+	        bspliner.setNumberOfLevels(numberOfFittingLevels);
+	        bspliner.setSplineOrder(splineOrder);
+	        bspliner.setPointLocation(pointLocation);
+	        bspliner.setPointData(pointValues);
+	        bspliner.setPointWeights(pointWeights);
+    	} // if (bspliner == null)
+    	
+    	ThreadUtil.parallelFor(chunks, new ThreadUtil.IndexedTask() {
+    		public void run(final int index) {
+    			final int from = (int)((long)insideIndices.length * index / chunks);
+    			final int to = (int)((long)insideIndices.length * (index + 1) / chunks);
+    			for (int j = from; j < to; j++) {
+    				int i = insideIndices[j];
+    				pointValues[j] = fieldEstimate[i];
+    				double confidenceWeight = 1.0;
+	    			if (confidence != null) {
+	    				confidenceWeight = confidence[i];
+	    			}
+	    			double sigmoidWeight = 1.0;
+	    			if (sigmoidNormalizedAlpha > 0.0) {
+	    			    sigmoidWeight = 1.0 / (1.0 + Math.exp(-(fieldEstimate[i] - beta)/alpha));
+	    			} // if (sigmoidNormalizedAlpha > 0.0)
+	    			pointWeights[j] = sigmoidWeight * confidenceWeight;
     			}
-    			sigmoidWeight = 1.0;
-    			if (sigmoidNormalizedAlpha > 0.0) {
-    			    alpha = (maxAbsValue - minAbsValue) / (12.0 * sigmoidNormalizedAlpha);
-    			    beta = minAbsValue + (maxAbsValue - minAbsValue) * sigmoidNormalizedBeta;
-    			    sigmoidWeight = 1.0 / (1.0 + Math.exp(-(fieldEstimate[i] - beta)/alpha));
-    			} // if (sigmoidNormalizedAlpha > 0.0)
-    			weights.insertElementAt(sigmoidWeight * confidenceWeight, index);
-    			index++;
     		}
-    	}
-    	//if ( (srcImage.getMatrixHolder().containsType(TransMatrix.TRANSFORM_SCANNER_ANATOMICAL))
-               // || (srcImage.getFileInfo()[0].getFileFormat() == FileUtility.DICOM)) {
-            for (i = 0; i < Math.min(nDims,3); i++) {
-            	dirLength = 0;
-                for (j = 0; j < Math.min(nDims,3); j++) {
-                    direction[i][j] = srcImage.getMatrix().get(i, j);
-                    dirLength += (direction[i][j] * direction[i][j]);
-                }
-                dirLength = Math.sqrt(dirLength);
-                for (j = 0; j < Math.min(nDims,3); j++) {
-                	direction[i][j] = direction[i][j]/dirLength;
-                }
-            } // for (i = 0; i < Math.min(nDims,3); i++)
-    	//}
-    	bspliner = new AlgorithmBSplineScatteredDataPointSetToImageFilter(nDims);
-    	int numberOfFittingLevels[] = new int[nDims];
+    	});
+    	
     	int numberOfControlPoints[] = new int[nDims];
-        for (i = 0; i < nDims; i++) {
-        	numberOfFittingLevels[i] = 1;
-        }
         for (d = 0; d < nDims; d++) {
             if (logBiasFieldControlPointLattice == null) {
             	numberOfControlPoints[d] = originalNumberOfControlPoints[d];
@@ -1184,17 +1296,7 @@ public class AlgorithmN4MRIBiasFieldCorrectionFilter extends AlgorithmBase {
             	numberOfControlPoints[d] = logBiasFieldControlPointLattice.getExtents()[d];
             }
         }
-        bspliner.setOrigin(maskOrigin);
-        bspliner.setResolutions(resolutions);
-        bspliner.setExtents(maskExtents);
-        bspliner.setDirection(direction);
-        bspliner.setGenerateOutputImage(false);
-        bspliner.setNumberOfLevels(numberOfFittingLevels);
-        bspliner.setSplineOrder(splineOrder);
         bspliner.setNumberOfControlPoints(numberOfControlPoints);
-        bspliner.setPointData(pointData);
-        bspliner.setPointLocation(pointLocation);
-        bspliner.setPointWeights(weights);
         bspliner.generateData();
         
         latticeExtentsLength = 1;
@@ -1216,52 +1318,62 @@ public class AlgorithmN4MRIBiasFieldCorrectionFilter extends AlgorithmBase {
             temp.disposeLocal();
             temp = null;
         }
-        bspliner.finalize();
-        bspliner = null;
         
         AlgorithmBSplineControlPointImageFilter reconstructer = new AlgorithmBSplineControlPointImageFilter(nDims);
+        reconstructer.setNumberOfThreads(nthreads);
+        reconstructer.setMultiThreadingEnabled(multiThreadingEnabled);
+        reconstructer.setOutputBuffer(smoothField);
         reconstructer.setInput(logBiasFieldControlPointLattice);
         reconstructer.setOrigin(origin);
         reconstructer.setResolutions(resolutions);
         reconstructer.setDirection(direction);
         reconstructer.setExtents(srcImage.getExtents());
         reconstructer.generateData();
-        
-        smoothField = reconstructer.getOutputBuffer();
         reconstructer.finalize();
         reconstructer = null;
-        
-    	return smoothField;
     }
 
-	private double calculateConvergenceMeasurement(double[] fieldEstimate1,
-			double[] fieldEstimate2) {
-		int i;
-		double subtracter[] = new double[fieldEstimate1.length];
-		for (i = 0; i < length; i++) {
-			if (entireImage || (mask.get(i) && (confidence == null))
-					|| ((confidence != null) && (confidence[i] > 0.0))) {
-				subtracter[i] = fieldEstimate1[i] - fieldEstimate2[i];
-			}
-		}
-
-		// Calculate statistics over the mask region
-		double mu = 0.0;
-		double sigma = 0.0;
-		double N = 0.0;
-
-		for (i = 0; i < length; i++) {
-			if (entireImage || (mask.get(i) && (confidence == null))
-					|| ((confidence != null) && (confidence[i] > 0.0))) {
-				double pixel = Math.exp(subtracter[i]);
-				N += 1.0;
-
-				if (N > 1.0) {
-					double diff = pixel - mu;
-					sigma = sigma + diff * diff * (N - 1.0) / N;
+	private double calculateConvergenceMeasurement(final double[] fieldEstimate1,
+			final double[] fieldEstimate2) {
+		// Calculate statistics over the mask region.
+		// Each chunk keeps a running mean and sum of squared deviations, and the
+		// chunk statistics are then merged in chunk order.
+		final int chunks = getNumberOfChunks();
+		final double chunkN[] = new double[chunks];
+		final double chunkMu[] = new double[chunks];
+		final double chunkSigma[] = new double[chunks];
+		ThreadUtil.parallelFor(chunks, new ThreadUtil.IndexedTask() {
+			public void run(final int index) {
+				final int from = (int)((long)insideIndices.length * index / chunks);
+				final int to = (int)((long)insideIndices.length * (index + 1) / chunks);
+				double mu = 0.0;
+				double sigma = 0.0;
+				double N = 0.0;
+				for (int j = from; j < to; j++) {
+					int i = insideIndices[j];
+					double pixel = Math.exp(fieldEstimate1[i] - fieldEstimate2[i]);
+					N += 1.0;
+
+					if (N > 1.0) {
+						double diff = pixel - mu;
+						sigma = sigma + diff * diff * (N - 1.0) / N;
+					}
+					mu = mu * (1.0 - 1.0 / N) + pixel / N;
 				}
-				mu = mu * (1.0 - 1.0 / N) + pixel / N;
+				chunkN[index] = N;
+				chunkMu[index] = mu;
+				chunkSigma[index] = sigma;
 			}
+		});
+		double mu = chunkMu[0];
+		double sigma = chunkSigma[0];
+		double N = chunkN[0];
+		for (int c = 1; c < chunks; c++) {
+			double total = N + chunkN[c];
+			double diff = chunkMu[c] - mu;
+			sigma = sigma + chunkSigma[c] + diff * diff * N * chunkN[c] / total;
+			mu = mu + diff * chunkN[c] / total;
+			N = total;
 		}
 		sigma = Math.sqrt(sigma / (N - 1.0));
 		return (sigma / mu);
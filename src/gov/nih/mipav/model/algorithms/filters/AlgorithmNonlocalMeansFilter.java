@@ -4,9 +4,12 @@ package gov.nih.mipav.model.algorithms.filters;
 import gov.nih.mipav.model.algorithms.*;
 import gov.nih.mipav.model.structures.*;
 
+import gov.nih.mipav.util.ThreadUtil;
 import gov.nih.mipav.view.*;
 
 import java.io.*;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
 
 
 /**
@@ -752,43 +755,14 @@ public class AlgorithmNonlocalMeansFilter extends AlgorithmBase {
         int length;
         double input[];
         double inputOriginal[] = null;
-        double kernel[];
         int halfSimilarity;
-        int similaritySquared;
-        int similarityCubed;
         double input2[];
         int padXDim;
         int padYDim;
         int padZDim;
         int padSliceSize;
-        int d;
-        double value;
-        int h;
         int i;
-        int j;
-        int q;
-        int r;
-        int s;
-        int h1;
-        int i1;
-        int j1;
-        double W1[];
-        double W2[];
-        double kernelSum;
-        double wmax;
-        double average;
-        double sweight;
-        int qmin;
-        int qmax;
-        int rmin;
-        int rmax;
-        int smin;
-        int smax;
         int halfSearch;
-        int k;
-        double dsum;
-        double w12;
-        double w;
         long time;
         double filterParameter;
         
@@ -802,40 +776,15 @@ public class AlgorithmNonlocalMeansFilter extends AlgorithmBase {
         length = sliceSize * zDim;
         input = new double[length];
         halfSimilarity = (similarityWindowSide - 1)/2;
-        similaritySquared = similarityWindowSide * similarityWindowSide;
-        similarityCubed = similaritySquared * similarityWindowSide;
         halfSearch = (searchWindowSide - 1)/2;
         padXDim = xDim + 2 * halfSimilarity;
         padYDim = yDim + 2 * halfSimilarity;
         padZDim = zDim + 2 * halfSimilarity;
         padSliceSize = padXDim * padYDim;
         input2 = new double[padSliceSize * padZDim];
-        kernel = new double[similarityCubed];
-        W1 = new double[similarityCubed];
-        W2 = new double[similarityCubed];
         if (doBayesShrinkThresholdComputation) {
         	inputOriginal = new double[length];
         }
-        for (d = 1; d <= halfSimilarity; d++) {
-            value = 2*d + 1;
-            value = value * value;
-            value = 1.0/value;
-            for (z = -d; z <= d; z++) {
-                for (y = -d; y <= d; y++) {
-                    for (x = -d; x <= d; x++) {
-                        kernel[halfSimilarity - x + similarityWindowSide * (halfSimilarity - y) +
-                               similaritySquared * (halfSimilarity - z)] += value;
-                    }
-                }
-            }
-        } // for (d = 1; d <= halfSimilarity; d++)
-        kernelSum = 0.0;
-        for (i = 0; i < kernel.length; i++) {
-            kernelSum += kernel[i];
-        }
-        for (i = 0; i < kernel.length; i++) {
-            kernel[i] /= kernelSum;
-        }
         
         filterParameter = noiseStandardDeviation * noiseStandardDeviation;
         try {
@@ -890,7 +839,7 @@ public class AlgorithmNonlocalMeansFilter extends AlgorithmBase {
         }
         
         for (z = 0; z < halfSimilarity; z++) {
-            for (y = 0; y < xDim; y++) {
+            for (y = 0; y < yDim; y++) {
                 for (x = 0; x < xDim; x++) {
                     // front side mirror reflection
                     input2[x + halfSimilarity + padXDim*(y + halfSimilarity) + padSliceSize * z] =
@@ -995,72 +944,11 @@ public class AlgorithmNonlocalMeansFilter extends AlgorithmBase {
             }
         }
         
-        for (h = 1; h <= zDim; h++) {
-            fireProgressStateChanged(100 * (h - 1) /zDim);
-            h1 = h + halfSimilarity;
-            qmin = Math.max(h1 - halfSearch, halfSimilarity + 1);
-            qmax = Math.min(h1 + halfSearch, zDim + halfSimilarity);
-            for (i = 1; i <= yDim; i++) {
-                i1 = i + halfSimilarity;
-                rmin = Math.max(i1 - halfSearch, halfSimilarity + 1);
-                rmax = Math.min(i1 + halfSearch, yDim + halfSimilarity);
-                for (j = 1; j <= xDim; j++) {  
-                    j1 = j + halfSimilarity;
-                    for (z = 0; z < similarityWindowSide; z++) {
-                        for (y = 0; y < similarityWindowSide; y++) {
-                            for (x = 0; x < similarityWindowSide; x++) {
-                                W1[x + y * similarityWindowSide + z * similaritySquared] = 
-                                input2[j1 - halfSimilarity - 1 + x + padXDim*(i1 - halfSimilarity - 1 + y) +
-                                       padSliceSize * (h1 - halfSimilarity - 1 + z)];
-                            }
-                        }
-                    }
-                    
-                    wmax = 0.0;
-                    average = 0.0;
-                    sweight = 0.0;
-                    
-                    smin = Math.max(j1 - halfSearch, halfSimilarity + 1);
-                    smax = Math.min(j1 + halfSearch, xDim + halfSimilarity);
-                    for (q = qmin; q <= qmax; q++) {
-                        for (r = rmin; r <= rmax; r++) {
-                            for (s = smin; s <= smax; s++) {
-                                if ((q == h1) && (r == i1) && (s == j1)) {
-                                    continue;
-                                }
-                                for (z = 0; z < similarityWindowSide; z++) {
-                                    for (y = 0; y < similarityWindowSide; y++) {
-                                        for (x = 0; x < similarityWindowSide; x++) {
-                                            W2[x + y * similarityWindowSide + z * similaritySquared] = 
-                                            input2[s - halfSimilarity - 1 + x + padXDim*(r - halfSimilarity - 1 + y) +
-                                                   padSliceSize * (q - halfSimilarity - 1 + z)];
-                                        }
-                                    }
-                                }
-                                
-                                dsum = 0.0;
-                                for (k = 0; k < kernel.length; k++) {
-                                    w12 = W1[k] - W2[k];
-                                    dsum += (kernel[k] * w12 * w12);
-                                }
-                                w = Math.exp(-dsum/filterParameter);
-                                if (w > wmax) {
-                                    wmax = w;
-                                }
-                                sweight = sweight + w;
-                                average = average + w * input2[s - 1 + padXDim * (r - 1) + padSliceSize * (q - 1)];
-                            } // for (s = smin; s <= smax; s++)
-                        } // for (r = rmin; r <= rmax; r++)
-                    } // for (q = qmin; q <= qmax; q++)
-                    average = average + wmax * input2[j1 - 1 + padXDim * (i1 - 1) + padSliceSize * (h1 - 1)];
-                    sweight = sweight + wmax;
-                    
-                    if (sweight > 0) {
-                        input[j - 1 + xDim * (i - 1) + sliceSize * (h - 1)] = (float)(average / sweight);
-                    }
-                } // for (j = 1; j <= xDim; j++)
-            } // for (i = 1; i <= yDim; i++) 
-        } // for (h = 1; j <= zDim; h++)
+        filter3D(input2, null, xDim, yDim, zDim, halfSimilarity, halfSearch, filterParameter, 0.0, input);
+        if (threadStopped) {
+            setCompleted(false);
+            return;
+        }
         if (doBayesShrinkThresholdComputation) {
         	double inputDiff[] = new double[length];
         	for (i = 0; i < length; i++) {
@@ -1166,41 +1054,15 @@ public class AlgorithmNonlocalMeansFilter extends AlgorithmBase {
         int sliceSize;
         int length;
         float input[];
-        float output[];
-        double kernel[];
+        double output[];
         int halfSimilarity;
-        int similaritySquared;
-        int similarityCubed;
         double input2[];
         double aux[];
         int padXDim;
         int padYDim;
         int padZDim;
         int padSliceSize;
-        int d;
-        double value;
-        int h;
-        int i;
-        int j;
-        int q;
-        int r;
-        int s;
-        int h1;
-        int i1;
-        int j1;
-        double W1[];
-        double W2[];
-        double kernelSum;
-        double sweight[];
-        int qmax;
-        int rmax;
-        int smin;
-        int smax;
         int halfSearch;
-        int k;
-        double dsum;
-        double w12;
-        double w;
         long time;
         double filterParameter;
         double s2;
@@ -1211,7 +1073,6 @@ public class AlgorithmNonlocalMeansFilter extends AlgorithmBase {
         int xm1;
         int xp1;
         double avConstant = 1.0/27.0;
-        int pos;
         
         time = System.currentTimeMillis();
         fireProgressStateChanged(0, srcImage.getImageName(), "Nonlocal means filter");
@@ -1221,11 +1082,8 @@ public class AlgorithmNonlocalMeansFilter extends AlgorithmBase {
         sliceSize = xDim * yDim;
         length = sliceSize * zDim;
         input = new float[length];
-        output = new float[length];
-        sweight = new double[length];
+        output = new double[length];
         halfSimilarity = (similarityWindowSide - 1)/2;
-        similaritySquared = similarityWindowSide * similarityWindowSide;
-        similarityCubed = similaritySquared * similarityWindowSide;
         halfSearch = (searchWindowSide - 1)/2;
         padXDim = xDim + 2 * halfSimilarity;
         padYDim = yDim + 2 * halfSimilarity;
@@ -1233,29 +1091,6 @@ public class AlgorithmNonlocalMeansFilter extends AlgorithmBase {
         padSliceSize = padXDim * padYDim;
         input2 = new double[padSliceSize * padZDim];
         aux = new double[padSliceSize * padZDim];
-        kernel = new double[similarityCubed];
-        W1 = new double[similarityCubed];
-        W2 = new double[similarityCubed];
-        for (d = 1; d <= halfSimilarity; d++) {
-            value = 2*d + 1;
-            value = value * value;
-            value = 1.0/value;
-            for (z = -d; z <= d; z++) {
-                for (y = -d; y <= d; y++) {
-                    for (x = -d; x <= d; x++) {
-                        kernel[halfSimilarity - x + similarityWindowSide * (halfSimilarity - y) +
-                               similaritySquared * (halfSimilarity - z)] += value;
-                    }
-                }
-            }
-        } // for (d = 1; d <= halfSimilarity; d++)
-        kernelSum = 0.0;
-        for (i = 0; i < kernel.length; i++) {
-            kernelSum += kernel[i];
-        }
-        for (i = 0; i < kernel.length; i++) {
-            kernel[i] /= kernelSum;
-        }
         
         filterParameter = noiseStandardDeviation * degreeOfFiltering;
         filterParameter = filterParameter * filterParameter;
@@ -1305,7 +1140,7 @@ public class AlgorithmNonlocalMeansFilter extends AlgorithmBase {
         }
         
         for (z = 0; z < halfSimilarity; z++) {
-            for (y = 0; y < xDim; y++) {
+            for (y = 0; y < yDim; y++) {
                 for (x = 0; x < xDim; x++) {
                     // front side mirror reflection
                     input2[x + halfSimilarity + padXDim*(y + halfSimilarity) + padSliceSize * z] =
@@ -1482,83 +1317,11 @@ public class AlgorithmNonlocalMeansFilter extends AlgorithmBase {
             }
         }
         
-        for (h = 1; h <= zDim; h++) {
-            fireProgressStateChanged(100 * (h - 1) /zDim);
-            h1 = h + halfSimilarity;
-            qmax = Math.min(h1 + halfSearch, zDim + halfSimilarity);
-            for (i = 1; i <= yDim; i++) {
-                i1 = i + halfSimilarity;
-                rmax = Math.min(i1 + halfSearch, yDim + halfSimilarity);
-                for (j = 1; j <= xDim; j++) {  
-                    j1 = j + halfSimilarity;
-                    for (z = 0; z < similarityWindowSide; z++) {
-                        for (y = 0; y < similarityWindowSide; y++) {
-                            for (x = 0; x < similarityWindowSide; x++) {
-                                W1[x + y * similarityWindowSide + z * similaritySquared] = 
-                                input2[j1 - halfSimilarity - 1 + x + padXDim*(i1 - halfSimilarity - 1 + y) +
-                                       padSliceSize * (h1 - halfSimilarity - 1 + z)];
-                            }
-                        }
-                    }
-                    
-                    smin = Math.max(j1 - halfSearch, halfSimilarity + 1);
-                    smax = Math.min(j1 + halfSearch, xDim + halfSimilarity);
-                    for (q = h1; q <= qmax; q++) {
-                        for (r = i1; r <= rmax; r++) {
-                            for (s = smin; s <= smax; s++) {
-                                // Processing symmetrically the window so only have the distances have to be explored
-                                if ((q == h1) && (r == i1) && (s <= j1)) {
-                                    continue;
-                                }
-                                
-                                if (Math.abs(aux[j1 - 1 + padXDim * (i1 - 1) + padSliceSize * (h1 - 1)] -
-                                    aux[s - 1 + padXDim * (r - 1) + padSliceSize * (q - 1)]) > 
-                                    noiseStandardDeviation) {
-                                        continue;
-                                }
-                                
-                                for (z = 0; z < similarityWindowSide; z++) {
-                                    for (y = 0; y < similarityWindowSide; y++) {
-                                        for (x = 0; x < similarityWindowSide; x++) {
-                                            W2[x + y * similarityWindowSide + z * similaritySquared] = 
-                                            input2[s - halfSimilarity - 1 + x + padXDim*(r - halfSimilarity - 1 + y) +
-                                                   padSliceSize * (q - halfSimilarity - 1 + z)];
-                                        }
-                                    }
-                                }
-                                
-                                dsum = 0.0;
-                                for (k = 0; k < kernel.length; k++) {
-                                    w12 = W1[k] - W2[k];
-                                    dsum += (kernel[k] * w12 * w12);
-                                }
-                                dsum = dsum / filterParameter;
-                                w = 1.0 / (1.0 + dsum * dsum);
-                                
-                                sweight[j - 1 + xDim * (i - 1) + sliceSize * (h - 1)]  += w;
-                                output[j - 1 + xDim * (i - 1) + sliceSize * (h - 1)] += 
-                                w * input2[s - 1 + padXDim * (r - 1) + padSliceSize * (q - 1)] *
-                                input2[s - 1 + padXDim * (r - 1) + padSliceSize * (q - 1)];
-                                
-                                sweight[s - halfSimilarity - 1 + xDim * (r - halfSimilarity - 1) +
-                                        sliceSize * (q - halfSimilarity - 1)] += w;
-                                output[s - halfSimilarity - 1 + xDim * (r - halfSimilarity - 1) +
-                                       sliceSize * (q - halfSimilarity - 1)] +=
-                                w * input2[j1 - 1 + padXDim * (i1 - 1) + padSliceSize * (h1 - 1)] *
-                                    input2[j1 - 1 + padXDim * (i1 - 1) + padSliceSize * (h1 - 1)];
-                                w = Math.exp(-dsum/filterParameter);
-                            } // for (s = smin; s <= smax; s++)
-                        } // for (r = rmin; r <= rmax; r++)
-                    } // for (q = qmin; q <= qmax; q++)
-                    pos = j - 1 + xDim * (i - 1) + sliceSize * (h - 1);
-                    sweight[pos] += 0.5;
-                    output[pos] += 0.5 * input[pos] * input[pos];
-                    
-                    // Rician correction
-                    output[pos] = (float)Math.sqrt(Math.max(0, output[pos]/sweight[pos] - s2));
-                } // for (j = 1; j <= xDim; j++)
-            } // for (i = 1; i <= yDim; i++) 
-        } // for (h = 1; j <= zDim; h++)
+        filter3D(input2, aux, xDim, yDim, zDim, halfSimilarity, halfSearch, filterParameter, s2, output);
+        if (threadStopped) {
+            setCompleted(false);
+            return;
+        }
         try {
             if (destImage != null) {
                 destImage.importData(0, output, true);
@@ -1583,4 +1346,217 @@ public class AlgorithmNonlocalMeansFilter extends AlgorithmBase {
     }
 
 
+    /**
+     * Computes the 3D nonlocal means of every voxel from the volume padded by halfSimilarity on each side. Instead of
+     * comparing the similarity windows of each voxel and each neighbor of its search window element by element, the
+     * search window is visited one offset at a time. For an offset the squared differences between the volume and the
+     * volume shifted by the offset are summed into an integral image, so that any box sum of them takes 8 lookups. The
+     * similarity kernel is the sum over d = 1 to halfSimilarity of the cubes of side 2d + 1 weighted by 1/(2d + 1)^2, so
+     * the kernel weighted distance of two windows is a weighted sum of halfSimilarity box sums, whatever the window
+     * size. The offsets are visited in the order of the direct search, so the weights of each voxel are summed in the
+     * same order as before. The result then differs from the direct computation only by the rounding of the box sums,
+     * with relative differences of the filtered values below about 1.0E-6, or by the float accumulation that the Rician
+     * filter used before.
+     *
+     * <p>The volume is split into groups of z slices that run in parallel. Each group works through slabs of at most 16
+     * slices with its own integral image and sums, so the extra memory is bounded by the slab size.</p>
+     *
+     * @param  input2           the volume padded by mirror reflection
+     * @param  aux              for the Rician filter, the 3 x 3 x 3 means of input2; neighbors whose means differ from
+     *                          those of the voxel by more than the noise standard deviation are skipped. Null for the
+     *                          Gaussian filter.
+     * @param  xDim             x dimension of the volume
+     * @param  yDim             y dimension of the volume
+     * @param  zDim             z dimension of the volume
+     * @param  halfSimilarity   half side of the similarity window
+     * @param  halfSearch       half side of the search window
+     * @param  filterParameter  the weights of the Gaussian filter are exp(-distance/filterParameter) and those of the
+     *                          Rician filter 1/(1 + (distance/filterParameter)^2)
+     * @param  s2               twice the noise variance, subtracted by the Rician correction
+     * @param  result           receives the filtered values, rounded to float. For the Gaussian filter voxels without
+     *                          any weight are left unchanged.
+     */
+    private void filter3D(final double[] input2, final double[] aux, final int xDim, final int yDim, final int zDim,
+            final int halfSimilarity, final int halfSearch, final double filterParameter, final double s2,
+            final double[] result) {
+        final int padXDim = xDim + 2 * halfSimilarity;
+        final int padYDim = yDim + 2 * halfSimilarity;
+        final int padZDim = zDim + 2 * halfSimilarity;
+        final int padSliceSize = padXDim * padYDim;
+        final int sliceSize = xDim * yDim;
+        final int tableXDim = padXDim + 1;
+        final int tableSliceSize = tableXDim * (padYDim + 1);
+        final int slabDepth = Math.min(16, zDim);
+        final boolean rician = (aux != null);
+        final double[] cubeWeight = new double[halfSimilarity + 1];
+        final AtomicInteger slicesDone = new AtomicInteger();
+        final int chunks = multiThreadingEnabled ? Math.max(1, Math.min(nthreads, zDim)) : 1;
+        double kernelSum = 0.0;
+        int d;
+
+        // A cube of side 2d + 1 adds (2d + 1)^3/(2d + 1)^2 to the kernel sum
+        for (d = 1; d <= halfSimilarity; d++) {
+            kernelSum += 2 * d + 1;
+        }
+
+        for (d = 1; d <= halfSimilarity; d++) {
+            cubeWeight[d] = 1.0 / ((2 * d + 1) * (2 * d + 1) * kernelSum);
+        }
+
+        ThreadUtil.parallelFor(chunks, new ThreadUtil.IndexedTask() {
+            public void run(final int index) {
+                final int zStart = (int) ((long) zDim * index / chunks);
+                final int zEnd = (int) ((long) zDim * (index + 1) / chunks);
+                final int depth = Math.min(slabDepth, zEnd - zStart);
+                final double[] table = new double[tableSliceSize * (depth + 2 * halfSimilarity + 1)];
+                final double[] sweight = new double[sliceSize * depth];
+                final double[] average = new double[sliceSize * depth];
+                final double[] wmax = new double[sliceSize * depth];
+
+                for (int z0 = zStart; (z0 < zEnd) && !threadStopped; z0 += depth) {
+                    final int z1 = Math.min(z0 + depth, zEnd);
+                    final int planes = z1 - z0 + 2 * halfSimilarity;
+
+                    Arrays.fill(sweight, 0.0);
+                    Arrays.fill(average, 0.0);
+                    Arrays.fill(wmax, 0.0);
+
+                    for (int dz = -halfSearch; (dz <= halfSearch) && !threadStopped; dz++) {
+                        for (int dy = -halfSearch; dy <= halfSearch; dy++) {
+                            for (int dx = -halfSearch; dx <= halfSearch; dx++) {
+                                if ((dz == 0) && (dy == 0) && (dx == 0)) {
+                                    continue;
+                                }
+
+                                // The Rician filter searches forward and adds each weight to both voxels,
+                                // which covers the offsets whose y and z components do not have opposite signs
+                                if (rician && (((dz > 0) && (dy < 0)) || ((dz < 0) && (dy > 0)))) {
+                                    continue;
+                                }
+
+                                // Voxels of the slab whose neighbor lies in the volume
+                                final int zLow = Math.max(z0, -dz);
+                                final int zHigh = Math.min(z1, zDim - dz);
+                                final int yLow = Math.max(0, -dy);
+                                final int yHigh = Math.min(yDim, yDim - dy);
+                                final int xLow = Math.max(0, -dx);
+                                final int xHigh = Math.min(xDim, xDim - dx);
+
+                                if ((zLow >= zHigh) || (yLow >= yHigh) || (xLow >= xHigh)) {
+                                    continue;
+                                }
+
+                                final int shift = dx + (padXDim * dy) + (padSliceSize * dz);
+
+                                // Integral image of the squared differences over the padded planes of the slab.
+                                // Differences whose shifted voxel leaves the padded volume are never used.
+                                for (int t = 0; t < planes; t++) {
+                                    final int pz = z0 + t;
+                                    final boolean zInside = (pz + dz >= 0) && (pz + dz < padZDim);
+
+                                    for (int y = 0; y < padYDim; y++) {
+                                        final boolean inside = zInside && (y + dy >= 0) && (y + dy < padYDim);
+                                        final int p = (padXDim * y) + (padSliceSize * pz);
+                                        final int k = 1 + (tableXDim * (y + 1)) + (tableSliceSize * (t + 1));
+                                        double rowSum = 0.0;
+
+                                        for (int x = 0; x < padXDim; x++) {
+                                            if (inside && (x + dx >= 0) && (x + dx < padXDim)) {
+                                                final double diff = input2[p + x] - input2[p + x + shift];
+
+                                                rowSum += diff * diff;
+                                            }
+
+                                            table[k + x] = rowSum + table[k + x - tableXDim]
+                                                    + table[k + x - tableSliceSize]
+                                                    - table[k + x - tableXDim - tableSliceSize];
+                                        }
+                                    }
+                                }
+
+                                for (int z = zLow; z < zHigh; z++) {
+                                    for (int y = yLow; y < yHigh; y++) {
+                                        final int center = halfSimilarity + (padXDim * (y + halfSimilarity))
+                                                + (padSliceSize * (z + halfSimilarity));
+                                        final int tableCenter = halfSimilarity + (tableXDim * (y + halfSimilarity))
+                                                + (tableSliceSize * (z - z0 + halfSimilarity));
+                                        final int a = (xDim * y) + (sliceSize * (z - z0));
+
+                                        for (int x = xLow; x < xHigh; x++) {
+                                            final int c = center + x;
+
+                                            if (rician && (Math.abs(aux[c] - aux[c + shift]) > noiseStandardDeviation)) {
+                                                continue;
+                                            }
+
+                                            final int tc = tableCenter + x;
+                                            double dsum = 0.0;
+
+                                            for (int e = 1; e <= halfSimilarity; e++) {
+                                                final int xl = tc - e;
+                                                final int xh = tc + e + 1;
+                                                final int yl = -e * tableXDim;
+                                                final int yh = (e + 1) * tableXDim;
+                                                final int zl = -e * tableSliceSize;
+                                                final int zh = (e + 1) * tableSliceSize;
+
+                                                dsum += cubeWeight[e]
+                                                        * (table[xh + yh + zh] - table[xl + yh + zh]
+                                                                - table[xh + yl + zh] - table[xh + yh + zl]
+                                                                + table[xl + yl + zh] + table[xl + yh + zl]
+                                                                + table[xh + yl + zl] - table[xl + yl + zl]);
+                                            }
+
+                                            final double neighbor = input2[c + shift];
+
+                                            if (rician) {
+                                                dsum = dsum / filterParameter;
+
+                                                final double w = 1.0 / (1.0 + (dsum * dsum));
+
+                                                sweight[a + x] += w;
+                                                average[a + x] += w * neighbor * neighbor;
+                                            } else {
+                                                final double w = Math.exp(-dsum / filterParameter);
+
+                                                if (w > wmax[a + x]) {
+                                                    wmax[a + x] = w;
+                                                }
+
+                                                sweight[a + x] += w;
+                                                average[a + x] += w * neighbor;
+                                            }
+                                        }
+                                    }
+                                }
+                            }
+                        }
+                    }
+
+                    for (int z = z0; z < z1; z++) {
+                        for (int y = 0; y < yDim; y++) {
+                            for (int x = 0; x < xDim; x++) {
+                                final int a = x + (xDim * y) + (sliceSize * (z - z0));
+                                final double value = input2[x + halfSimilarity + (padXDim * (y + halfSimilarity))
+                                        + (padSliceSize * (z + halfSimilarity))];
+                                final int pos = x + (xDim * y) + (sliceSize * z);
+
+                                if (rician) {
+                                    // Rician correction
+                                    result[pos] = (float) Math.sqrt(Math.max(0, ((average[a] + (0.5 * value * value))
+                                            / (sweight[a] + 0.5)) - s2));
+                                } else if ((sweight[a] + wmax[a]) > 0) {
+                                    result[pos] = (float) ((average[a] + (wmax[a] * value)) / (sweight[a] + wmax[a]));
+                                }
+                            }
+                        }
+                    }
+
+                    fireProgressStateChanged(100 * slicesDone.addAndGet(z1 - z0) / zDim);
+                }
+            }
+        });
+    }
+
+
 }
@@ -4,12 +4,10 @@ package gov.nih.mipav.model.algorithms.filters;
 import gov.nih.mipav.model.algorithms.*;
 import gov.nih.mipav.model.structures.*;
 
+import gov.nih.mipav.util.ThreadUtil;
 import gov.nih.mipav.view.*;
 
 import java.io.*;
-import java.util.ArrayList;
-import java.util.Collections;
-import java.util.Comparator;
 /*
  * This is a port of the GITHUB code BM3D_py-master.
  * The README.md file has:
@@ -75,8 +73,6 @@ import java.util.Comparator;
  */
 import java.util.Vector;
 
-import Jama.Matrix;
-
 public class BM3D extends AlgorithmBase {
 	
 	// destImage[0] is output of stage 1 with hard thresholding
@@ -167,7 +163,7 @@ public class BM3D extends AlgorithmBase {
 	}
 	
 	public void runAlgorithm() {
-		int x, y;
+		int x, y, z;
 		if (srcImage == null) {
             displayError("Source Image is null");
 
@@ -214,428 +210,262 @@ public class BM3D extends AlgorithmBase {
 			k_W = 12;
 		}
 		
-		ModelImage noisy_im_p = symetrize(srcImage, n_H);
-		
-		double img_basic_pad[][] = bm3d_1st_step(sigma, noisy_im_p, n_H, k_H, N_H, p_H, lambda3D_H, tauMatch_H, useSD_H, tau_2D_H);
-		double img_basic_arr[] = new double[srcImage.getExtents()[1]*srcImage.getExtents()[0]];
-		for (y = n_H; y < noisy_im_p.getExtents()[1] - n_H; y++) {
-			for (x = n_H; x < noisy_im_p.getExtents()[0] - n_H; x++) {
-				img_basic_arr[(y-n_H)*srcImage.getExtents()[0] + (x-n_H)] = img_basic_pad[y][x];
-				if (Double.isNaN(img_basic_arr[(y-n_H)*srcImage.getExtents()[0] + (x-n_H)])) {
-					System.err.println("NaN found in img_basic_arr at y = " + (y-n_H) + " x = " + (x-n_H));
-					setCompleted(false);
-					return;
+		// Volumes and time series are denoised as stacks of independent slices
+		int xDim = srcImage.getExtents()[0];
+		int yDim = srcImage.getExtents()[1];
+		int sliceSize = xDim * yDim;
+		int nSlices = 1;
+		for (z = 2; z < srcImage.getNDims(); z++) {
+			nSlices *= srcImage.getExtents()[z];
+		}
+		double buf[] = new double[sliceSize];
+		double img_basic_arr[] = new double[sliceSize];
+		double img_denoised_arr[] = new double[sliceSize];
+		fireProgressStateChanged(0, srcImage.getImageName(), "BM3D ...");
+		for (z = 0; z < nSlices; z++) {
+			try {
+				srcImage.exportData(z*sliceSize, sliceSize, buf);
+			}
+			catch (IOException e) {
+				MipavUtil.displayError("IOException on srcImage.exportData(z*sliceSize, sliceSize, buf)");
+				setCompleted(false);
+				return;
+			}
+			
+			double noisy_im_p[][] = symetrize(buf, xDim, yDim, n_H);
+			
+			double img_basic_pad[][] = bm3d_1st_step(sigma, noisy_im_p, n_H, k_H, N_H, p_H, lambda3D_H, tauMatch_H, useSD_H, tau_2D_H);
+			for (y = n_H; y < yDim + n_H; y++) {
+				for (x = n_H; x < xDim + n_H; x++) {
+					img_basic_arr[(y-n_H)*xDim + (x-n_H)] = img_basic_pad[y][x];
+					if (Double.isNaN(img_basic_arr[(y-n_H)*xDim + (x-n_H)])) {
+						System.err.println("NaN found in img_basic_arr at y = " + (y-n_H) + " x = " + (x-n_H));
+						setCompleted(false);
+						return;
+					}
 				}
 			}
-		}
-		
-		try {
-			destImage[0].importData(0, img_basic_arr, true);
-		}
-		catch (IOException e) {
-			MipavUtil.displayError("IOException on destImage[0].importData(0, img_basic_arr, true)");
-			setCompleted(false);
-			return;
-		}
-		
-		ModelImage img_basic_p = symetrize(destImage[0], n_W);
-		
-		noisy_im_p.disposeLocal();
-		noisy_im_p = null;
-		noisy_im_p = symetrize(srcImage, n_W);
-		double img_denoised_pad[][] = bm3d_2nd_step(sigma, noisy_im_p, img_basic_p, n_W, k_W, N_W, p_W, tauMatch_W, useSD_W, tau_2D_W);
-		double img_denoised_arr[] = new double[srcImage.getExtents()[1]*srcImage.getExtents()[0]];
-		for (y = n_W; y < noisy_im_p.getExtents()[1] - n_W; y++) {
-			for (x = n_W; x < noisy_im_p.getExtents()[0] - n_W; x++) {
-				img_denoised_arr[(y-n_W)*srcImage.getExtents()[0] + (x-n_W)] = img_denoised_pad[y][x];
+			
+			try {
+				destImage[0].importData(z*sliceSize, img_basic_arr, z == nSlices - 1);
 			}
-		}
-		
-		noisy_im_p.disposeLocal();
-		noisy_im_p = null;
-		img_basic_p.disposeLocal();
-		img_basic_p = null;
-		
-		try {
-			destImage[1].importData(0, img_denoised_arr, true);
-		}
-		catch (IOException e) {
-			MipavUtil.displayError("IOException on destImage[1].importData(0, img_denoised_arr, true)");
-			setCompleted(false);
-			return;
-		}
+			catch (IOException e) {
+				MipavUtil.displayError("IOException on destImage[0].importData(z*sliceSize, img_basic_arr)");
+				setCompleted(false);
+				return;
+			}
+			fireProgressStateChanged(((2*z + 1)*100)/(2*nSlices));
+			
+			double img_basic_p[][] = symetrize(img_basic_arr, xDim, yDim, n_W);
+			
+			noisy_im_p = symetrize(buf, xDim, yDim, n_W);
+			double img_denoised_pad[][] = bm3d_2nd_step(sigma, noisy_im_p, img_basic_p, n_W, k_W, N_W, p_W, tauMatch_W, useSD_W, tau_2D_W);
+			for (y = n_W; y < yDim + n_W; y++) {
+				for (x = n_W; x < xDim + n_W; x++) {
+					img_denoised_arr[(y-n_W)*xDim + (x-n_W)] = img_denoised_pad[y][x];
+				}
+			}
+			
+			try {
+				destImage[1].importData(z*sliceSize, img_denoised_arr, z == nSlices - 1);
+			}
+			catch (IOException e) {
+				MipavUtil.displayError("IOException on destImage[1].importData(z*sliceSize, img_denoised_arr)");
+				setCompleted(false);
+				return;
+			}
+			fireProgressStateChanged(((z + 1)*100)/nSlices);
+		} // for (z = 0; z < nSlices; z++)
 		
 		setCompleted(true);
 		return;
 	}
 	
-	private double[][] bm3d_2nd_step(double sigma, ModelImage img_noisy, ModelImage img_basic, int nWien, int kWien, 
+	private double[][] bm3d_2nd_step(double sigma, double img_noisy[][], double img_basic[][], int nWien, int kWien, 
 			int NWien, int pWien, double tauMatch, boolean useSD, String tau_2D) {
-		int ii,jj,h,i,j,k,m,n,w,x,y;
-		int acc_pointer, i_r, j_r, nSx_r;
-		int ni,nj;
-		double group_3D_img[][][];
-		double group_3D_est[][][];
-		double group_3D[][][];
-		double group_3D_transpose[][][];
-		double weight[] = new double[1];
-	    int height = img_noisy.getExtents()[1];
-	    int width = img_noisy.getExtents()[0];
-	    int row_ind[] = ind_initialize(height - kWien + 1, nWien, pWien);
-	    int column_ind[] = ind_initialize(width - kWien + 1, nWien, pWien);
-	    
-	    double kaiserWindow[][] = get_kaiserWindow(kWien);
-	    int threshold_count[][] = new int[height][width];
-	    int ri_rj_N__ni_nj[][][][] = precompute_BM(img_basic, kWien, NWien, nWien, tauMatch, threshold_count);
-	    int group_len = 0;
-	    for (h = 0; h < height; h++) {
-	    	for (w = 0; w < width; w++) {
-	    		group_len += threshold_count[h][w];
-	    	}
-	    }
-	    double group_3D_table[][][] = new double[group_len][kWien][kWien];
-	    double weight_table[][] = new double[height][width];
-	    
-	    // i_j_ipatch_jpatch__v
-	    Vector<Vector<double[][]>>noisy_patches = image2patches(img_noisy, kWien, kWien);  
-	    // i_j_ipatch_jpatch__v
-	    Vector<Vector<double[][]>>basic_patches = image2patches(img_basic, kWien, kWien); 
-	    Vector<Vector<double[][]>>fre_noisy_patches = new Vector<Vector<double[][]>>();
-	    Vector<Vector<double[][]>>fre_basic_patches = new Vector<Vector<double[][]>>();
-	    for (ii = 0; ii < noisy_patches.size(); ii++) {
-	    	Vector<double[][]> subVector = noisy_patches.get(ii);
-	    	Vector<double[][]> subfreVector = new Vector<double[][]>();
-	    	for (jj = 0; jj < subVector.size(); jj++) {
-	            double current_patch[][] = subVector.get(jj);
-		    	if (tau_2D.equalsIgnoreCase("DCT")) {
-		    		// Forward 2D Discrete Cosine Transform
-		    		double new_patch_1[][] = new double[current_patch.length][current_patch[0].length];
-		    		double new_patch_2[][] = new double[current_patch.length][current_patch[0].length];
-		    		double yk;
-		    		for (i = 0; i < current_patch[0].length; i++) {
-		    			for (k = 0; k < current_patch.length; k++) {
-		    				yk = 0.0;
-		    			    for (n = 0; n < current_patch.length; n++) {
-		    			        yk += 2.0*current_patch[n][i]*Math.cos(Math.PI*k*(2*n+1)/(2.0*current_patch.length));
-		    			    }
-		    			    if (k == 0) {
-	    			        	yk = yk * Math.sqrt(1.0/(4.0*current_patch.length));
-	    			        }
-	    			        else {
-	    			        	yk = yk * Math.sqrt(1.0/(2.0*current_patch.length));
-	    			        }
-	    			        new_patch_1[k][i] = yk;
-		    			}
-		    		}
-		    		for (i = 0; i < current_patch.length; i++) {
-		    			for (k = 0; k < current_patch[0].length; k++) {
-		    				yk = 0;
-		    				for (n = 0; n < current_patch[0].length; n++) {
-		    					yk += 2.0*new_patch_1[i][n]*Math.cos(Math.PI*k*(2*n+1)/(2.0*current_patch[0].length));
-		    				}
-		    				if (k == 0) {
-	    			        	yk = yk * Math.sqrt(1.0/(4.0*current_patch[0].length));
-	    			        }
-	    			        else {
-	    			        	yk = yk * Math.sqrt(1.0/(2.0*current_patch[0].length));
-	    			        }
-	    			        new_patch_2[i][k] = yk;
-		    			}
-		    		}
-		    		subfreVector.add(new_patch_2);
-		    	} // if (tau_2D.equalsIgnoreCase("DCT"))
-		    	
-		    	else { // "BIOR"
-		    		if (current_patch.length != current_patch[0].length) {
-		    			System.err.println("current_patch.length != current_patch[0],length as required for BIOR");
-		    			return null;
-		    		}
-		    		int iter_max = (int)log2(current_patch.length);
-		    		PyWavelets py = new PyWavelets();
-		    		double coeffs[][][] = py.BM3Dwavedec2(current_patch, iter_max);
-		    		double waveim[][] = new double[current_patch.length][current_patch.length];
-		    		
-		    		int N = 1;
-		    		waveim[0][0] = coeffs[0][0][0];
-		    		for (i = 0; i < iter_max; i++) {
-		    			for (y = N; y < 2*N; y++) {
-		    				for (x = N; x < 2*N; x++) {
-		    					waveim[y][x] = coeffs[3*i+3][y-N][x-N];
-		    				}
-		    			}
-		    			for (y = 0; y < N; y++) {
-		    				for (x = N; x < 2*N; x++) {
-		    					waveim[y][x] = -coeffs[3*i+2][y][x-N];
-		    				}
-		    			}
-		    			for (y = N; y < 2*N; y++) {
-		    				for (x = 0; x < N; x++) {
-		    					waveim[y][x] = -coeffs[3*i+1][y-N][x];
-		    				}
-		    			}
-		    			N *= 2;
-		    		} // for (i = 0; i < iter_max; i++)
-		    	    subfreVector.add(waveim);
-		    	} // else "BIOR"
-	    	} // for (jj = 0; jj < subVector.size(); jj++)
-	    	fre_noisy_patches.add(subfreVector);
-	    } // for (ii = 0; ii < noisy_patches.size(); ii++)
-	    
-	    for (ii = 0; ii < basic_patches.size(); ii++) {
-	    	Vector<double[][]> subVector = basic_patches.get(ii);
-	    	Vector<double[][]> subfreVector = new Vector<double[][]>();
-	    	for (jj = 0; jj < subVector.size(); jj++) {
-	            double current_patch[][] = subVector.get(jj);
-		    	if (tau_2D.equalsIgnoreCase("DCT")) {
-		    		// Forward 2D Discrete Cosine Transform
-		    		double new_patch_1[][] = new double[current_patch.length][current_patch[0].length];
-		    		double new_patch_2[][] = new double[current_patch.length][current_patch[0].length];
-		    		double yk;
-		    		for (i = 0; i < current_patch[0].length; i++) {
-		    			for (k = 0; k < current_patch.length; k++) {
-		    				yk = 0.0;
-		    			    for (n = 0; n < current_patch.length; n++) {
-		    			        yk += 2.0*current_patch[n][i]*Math.cos(Math.PI*k*(2*n+1)/(2.0*current_patch.length));
-		    			    }
-		    			    if (k == 0) {
-	    			        	yk = yk * Math.sqrt(1.0/(4.0*current_patch.length));
-	    			        }
-	    			        else {
-	    			        	yk = yk * Math.sqrt(1.0/(2.0*current_patch.length));
-	    			        }
-	    			        new_patch_1[k][i] = yk;
-		    			}
-		    		}
-		    		for (i = 0; i < current_patch.length; i++) {
-		    			for (k = 0; k < current_patch[0].length; k++) {
-		    				yk = 0;
-		    				for (n = 0; n < current_patch[0].length; n++) {
-		    					yk += 2.0*new_patch_1[i][n]*Math.cos(Math.PI*k*(2*n+1)/(2.0*current_patch[0].length));
-		    				}
-		    				if (k == 0) {
-	    			        	yk = yk * Math.sqrt(1.0/(4.0*current_patch[0].length));
-	    			        }
-	    			        else {
-	    			        	yk = yk * Math.sqrt(1.0/(2.0*current_patch[0].length));
-	    			        }
-	    			        new_patch_2[i][k] = yk;
-		    			}
-		    		}
-		    		subfreVector.add(new_patch_2);
-		    	} // if (tau_2D.equalsIgnoreCase("DCT"))
-		    	
-		    	else { // "BIOR"
-		    		if (current_patch.length != current_patch[0].length) {
-		    			System.err.println("current_patch.length != current_patch[0],length as required for BIOR");
-		    			return null;
-		    		}
-		    		int iter_max = (int)log2(current_patch.length);
-		    		PyWavelets py = new PyWavelets();
-		    		double coeffs[][][] = py.BM3Dwavedec2(current_patch, iter_max);
-		    		double waveim[][] = new double[current_patch.length][current_patch.length];
-		    		
-		    		int N = 1;
-		    		waveim[0][0] = coeffs[0][0][0];
-		    		for (i = 0; i < iter_max; i++) {
-		    			for (y = N; y < 2*N; y++) {
-		    				for (x = N; x < 2*N; x++) {
-		    					waveim[y][x] = coeffs[3*i+3][y-N][x-N];
-		    				}
-		    			}
-		    			for (y = 0; y < N; y++) {
-		    				for (x = N; x < 2*N; x++) {
-		    					waveim[y][x] = -coeffs[3*i+2][y][x-N];
-		    				}
-		    			}
-		    			for (y = N; y < 2*N; y++) {
-		    				for (x = 0; x < N; x++) {
-		    					waveim[y][x] = -coeffs[3*i+1][y-N][x];
-		    				}
-		    			}
-		    			N *= 2;
-		    		} // for (i = 0; i < iter_max; i++)
-		    		
-		    	    subfreVector.add(waveim);
-		    	} // else "BIOR"
-	    	} // for (jj = 0; jj < subVector.size(); jj++)
-	    	fre_basic_patches.add(subfreVector);
-	    } // for (ii = 0; ii < basic_patches.size(); ii++)
-	    
-	    acc_pointer = 0;
-	    for (i = 0; i < row_ind.length; i++) {
-	    	i_r = row_ind[i];
-	    	for (j = 0; j < column_ind.length; j++) {
-	    		j_r = column_ind[j];
-	    		nSx_r = threshold_count[i_r][j_r];
-	    		group_3D_img = build_3D_group(fre_noisy_patches, ri_rj_N__ni_nj[i_r][j_r], nSx_r);
-	    		group_3D_est = build_3D_group(fre_basic_patches, ri_rj_N__ni_nj[i_r][j_r], nSx_r);
-	    		group_3D = wiener_filtering_hadamard(group_3D_img, group_3D_est, sigma, !useSD,weight);
-	    		group_3D_transpose = new double[nSx_r][group_3D.length][group_3D.length];
-	    		for (k = acc_pointer; k < acc_pointer + nSx_r; k++) {
-	    			for (m = 0; m < group_3D.length; m++) {
-	    				for (n = 0; n < group_3D.length; n++) {
-	    					group_3D_table[k][m][n] = group_3D[m][n][k-acc_pointer];
-	    					group_3D_transpose[k-acc_pointer][m][n] = group_3D[m][n][k-acc_pointer];
-	    				}
-	    			}
-	    		}
-	    		acc_pointer += nSx_r;
-	    		
-	    		if (useSD) {
-	                weight[0] = sd_weighting(group_3D_transpose);
-	    		}
-	    		
-	    		weight_table[i_r][j_r] = weight[0];
-	    	} // for (j = 0; j < column_ind.length; j++)
-	    } // for (i = 0; i < row_ind.length; i++)
-	    
-	   for (ii = 0; ii < group_len; ii++) {
-		    if (tau_2D.equalsIgnoreCase("DCT")) {
-	    		// Reverse 2D Discrete Cosine Transform
-	    		double new_patch_1[][] = new double[kWien][kWien];
-	    		double yk;
-	    		for (i = 0; i < kWien; i++) {
-	    			for (k = 0; k < kWien; k++) {
-	    				yk = group_3D_table[ii][0][i]/Math.sqrt(kWien);
-	    			    for (n = 1; n < kWien; n++) {
-	    			        yk += Math.sqrt(2.0/kWien) * group_3D_table[ii][n][i]*Math.cos(Math.PI*n*(2*k+1)/(2.0*kWien));  
-	    			    }
-				        new_patch_1[k][i] = yk;
-	    			}
-	    		}
-	    		for (i = 0; i < kWien; i++) {
-	    			for (k = 0; k < kWien; k++) {
-	    				yk = new_patch_1[i][0]/Math.sqrt(kWien);
-	    				for (n = 1; n < kWien; n++) {
-	    					yk += Math.sqrt(2.0/kWien) * new_patch_1[i][n]*Math.cos(Math.PI*n*(2*k+1)/(2.0*kWien));
-	    				}
-				        group_3D_table[ii][i][k] = yk;
-	    			}
-	    		}
-	    	} // if (tau_2D.equalsIgnoreCase("DCT"))
-	    	else { // "BIOR"
-	    		PyWavelets py = new PyWavelets();
-	    		int level = (int)log2(kWien);
-	    		double group_2D[][] = py.BM3Dwaverec2(group_3D_table[ii],level);
-	    		for (j = 0; j < kWien; j++) {
-	    			for (k = 0; k < kWien; k++) {
-	    				group_3D_table[ii][j][k] = group_2D[j][k];
-	    			}
-	    		}
-	    	} // else "BIOR"
-	   } // for (ii = 0; ii < group_len; ii++)
-	    
-	    // for i in range(1000):
-        //     patch = group_3D_table[i]
-        //     print(i, '----------------------------')
-        //     print(patch)
-        //     cv2.imshow('', patch.astype(np.uint8))
-        //     cv2.waitKey()
-
-        // aggregation part
-	    double numerator[][] = new double[height][width];
-	    double denominator[][] = new double[height][width];
-	    for (i = 0; i < nWien; i++) {
-	    	for (j = 0; j < width; j++) {
-	    		denominator[i][j] = 1.0;
-	    	}
-	    }
-	    for (i = height - nWien; i < height; i++) {
-	    	for (j = 0; j < width; j++) {
-	    		denominator[i][j] = 1.0;
-	    	}
-	    }
-	    for (i = nWien; i < height - nWien; i++) {
-	    	for (j = 0; j < nWien; j++) {
-	    		denominator[i][j] = 1.0;
-	    	}
-	    }
-	    
-	    for (i = nWien; i < height - nWien; i++) {
-	    	for (j = width - nWien; j < width; j++) {
-	    		denominator[i][j] = 1.0;
-	    	}
-	    }
-	    acc_pointer = 0;
-	    double patch[][];
-	    for (i = 0; i < row_ind.length; i++) {
-	    	i_r = row_ind[i];
-	    	for (j = 0; j < column_ind.length; j++) {
-	    		j_r = column_ind[j];
-	    		nSx_r = threshold_count[i_r][j_r];
-	    		int N_ni_nj[][] = ri_rj_N__ni_nj[i_r][j_r];
-	    		group_3D = new double[nSx_r][kWien][kWien];
-	    		for (k = acc_pointer; k < acc_pointer + nSx_r; k++) {
-	    			for (m = 0; m < kWien; m++) {
-	    				for (n = 0; n < kWien; n++) {
-	    					group_3D[k-acc_pointer][m][n] = group_3D_table[k][m][n];
-	    				}
-	    			}
-	    		}
-	    		acc_pointer += nSx_r;
-	    		weight[0] = weight_table[i_r][j_r];
-	    		for (n = 0; n < nSx_r; n++) {
-	    			ni = N_ni_nj[n][0];
-	    			nj = N_ni_nj[n][1];
-	    			patch = group_3D[n];
-	    			
-	    			for (k = 0; k < kWien; k++) {
-	    				for (m = 0; m < kWien; m++) {
-	    					numerator[ni + k][nj + m] += patch[k][m] * kaiserWindow[k][m] * weight[0];
-	    					denominator[ni + k][nj + m] += kaiserWindow[k][m] * weight[0];
-	    				}
-	    			}
-	    			
-	    		} // for (n = 0; n < nSx_r; n++)
-	    	} // for (j = 0; j < column_ind.length; j++)
-	    } // for (i = 0; i < row_ind.length; i++)
-	    double img_denoised_pad[][] = new double[height][width];
-	    for (h = 0; h < height; h++) {
-	    	for (w = 0; w < width; w++) {
-	    		img_denoised_pad[h][w] = numerator[h][w]/denominator[h][w];
-	    	}
-	    }
-	    return img_denoised_pad;
+		// Patches are matched in the basic estimate.  The Wiener coefficients are taken from the
+		// groups of basic estimate patches and applied to the groups of noisy patches.
+		double fre_noisy_patches[][] = image2fre_patches(img_noisy, kWien, tau_2D);
+		double fre_basic_patches[][] = image2fre_patches(img_basic, kWien, tau_2D);
+		return filter_groups(img_basic, fre_noisy_patches, fre_basic_patches, sigma, 0.0, nWien, kWien, NWien, pWien,
+				tauMatch, useSD, tau_2D);
+	}
+	
+	private double[][] bm3d_1st_step(double sigma, double img_noisy[][], int nHard, int kHard, int NHard, int pHard, double lambdaHard3D,
+			double tauMatch, boolean useSD, String tau_2D) {
+		double fre_all_patches[][] = image2fre_patches(img_noisy, kHard, tau_2D);
+		return filter_groups(img_noisy, fre_all_patches, null, sigma, lambdaHard3D, nHard, kHard, NHard, pHard,
+				tauMatch, useSD, tau_2D);
+	}
+	
+	private double[][] filter_groups(final double img_match[][], final double fre_patches[][], final double fre_est_patches[][],
+			final double sigma, final double lambdaHard3D, final int nHW, final int kHW, final int NHW, final int pHW,
+			final double tauMatch, final boolean useSD, final String tau_2D) {
+		// Each reference patch is an independent task: block matching in img_match, building the 3D group
+		// of transformed patches, hard thresholding (fre_est_patches == null) or Wiener filtering of the group, the
+		// inverse 2D transform of its patches and their aggregation.  The reference rows are split into chunks that
+		// run on the compute pool.  Each chunk reuses its buffers for all of its groups and aggregates into its own
+		// band of numerator and denominator rows, which are summed in chunk order afterwards.
+		int i, j;
+		final int height = img_match.length;
+		final int width = img_match[0].length;
+		final int row_ind[] = ind_initialize(height - kHW + 1, nHW, pHW);
+		final int column_ind[] = ind_initialize(width - kHW + 1, nHW, pHW);
+		final double kaiserWindow[][] = get_kaiserWindow(kHW);
+		final double cosTable[][] = dct_cos_table(kHW);
+		final int chunks = multiThreadingEnabled ? Math.max(1, Math.min(nthreads, row_ind.length)) : 1;
+		final double numerators[][][] = new double[chunks][][];
+		final double denominators[][][] = new double[chunks][][];
+		final int bandStarts[] = new int[chunks];
+		
+		ThreadUtil.parallelFor(chunks, new ThreadUtil.IndexedTask() {
+			public void run(final int index) {
+				int i, j, k, m, n;
+				final int from = (int)((long)row_ind.length * index / chunks);
+				final int to = (int)((long)row_ind.length * (index + 1) / chunks);
+				final int bandStart = row_ind[from] - nHW;
+				final int Ns = 2 * nHW + 1;
+				final int patchColumns = width - kHW + 1;
+				final double threshold = tauMatch * kHW * kHW;
+				final double numerator[][] = new double[row_ind[to - 1] + nHW + kHW - bandStart][width];
+				final double denominator[][] = new double[numerator.length][width];
+				final double distances[] = new double[Ns * Ns];
+				final int best[] = new int[NHW];
+				final double bestDistances[] = new double[NHW];
+				final double group_3D[][] = new double[kHW * kHW][NHW];
+				final double group_3D_est[][] = (fre_est_patches != null) ? new double[kHW * kHW][NHW] : null;
+				final int ni[] = new int[NHW];
+				final int nj[] = new int[NHW];
+				final double patch[][] = new double[kHW][kHW];
+				final double new_patch_1[][] = new double[kHW][kHW];
+				final PyWavelets py = tau_2D.equalsIgnoreCase("DCT") ? null : new PyWavelets();
+				final double weight[] = new double[1];
+				
+				for (i = from; i < to; i++) {
+					final int i_r = row_ind[i];
+					for (j = 0; j < column_ind.length; j++) {
+						final int j_r = column_ind[j];
+						final int nSx_r = block_matching(img_match, i_r, j_r, kHW, NHW, nHW, threshold, distances, best,
+								bestDistances);
+						for (n = 0; n < nSx_r; n++) {
+							ni[n] = i_r + best[n] / Ns - nHW;
+							nj[n] = j_r + best[n] % Ns - nHW;
+							final double fre_patch[] = fre_patches[ni[n] * patchColumns + nj[n]];
+							for (k = 0; k < kHW * kHW; k++) {
+								group_3D[k][n] = fre_patch[k];
+							}
+							if (group_3D_est != null) {
+								final double fre_est_patch[] = fre_est_patches[ni[n] * patchColumns + nj[n]];
+								for (k = 0; k < kHW * kHW; k++) {
+									group_3D_est[k][n] = fre_est_patch[k];
+								}
+							}
+						}
+						
+						if (group_3D_est == null) {
+							ht_filtering_hadamard(group_3D, nSx_r, sigma, lambdaHard3D, !useSD, weight);
+						}
+						else {
+							wiener_filtering_hadamard(group_3D, group_3D_est, nSx_r, sigma, !useSD, weight);
+						}
+						final double filtered[][] = (group_3D_est == null) ? group_3D : group_3D_est;
+						if (useSD) {
+							weight[0] = sd_weighting(filtered, nSx_r);
+						}
+						
+						for (n = 0; n < nSx_r; n++) {
+							for (k = 0; k < kHW; k++) {
+								for (m = 0; m < kHW; m++) {
+									patch[k][m] = filtered[k * kHW + m][n];
+								}
+							}
+							final double group_2D[][] = inverse_2d_transform(patch, new_patch_1, cosTable, py);
+							final int row = ni[n] - bandStart;
+							for (k = 0; k < kHW; k++) {
+								for (m = 0; m < kHW; m++) {
+									numerator[row + k][nj[n] + m] += group_2D[k][m] * kaiserWindow[k][m] * weight[0];
+									denominator[row + k][nj[n] + m] += kaiserWindow[k][m] * weight[0];
+								}
+							}
+						} // for (n = 0; n < nSx_r; n++)
+					} // for (j = 0; j < column_ind.length; j++)
+				} // for (i = from; i < to; i++)
+				
+				numerators[index] = numerator;
+				denominators[index] = denominator;
+				bandStarts[index] = bandStart;
+			}
+		});
+		
+		// aggregation part
+		double numerator[][] = new double[height][width];
+		double denominator[][] = new double[height][width];
+		for (i = 0; i < nHW; i++) {
+			for (j = 0; j < width; j++) {
+				denominator[i][j] = 1.0;
+			}
+		}
+		for (i = height - nHW; i < height; i++) {
+			for (j = 0; j < width; j++) {
+				denominator[i][j] = 1.0;
+			}
+		}
+		for (i = nHW; i < height - nHW; i++) {
+			for (j = 0; j < nHW; j++) {
+				denominator[i][j] = 1.0;
+			}
+		}
+		for (i = nHW; i < height - nHW; i++) {
+			for (j = width - nHW; j < width; j++) {
+				denominator[i][j] = 1.0;
+			}
+		}
+		for (int c = 0; c < chunks; c++) {
+			for (i = 0; i < numerators[c].length; i++) {
+				for (j = 0; j < width; j++) {
+					numerator[bandStarts[c] + i][j] += numerators[c][i][j];
+					denominator[bandStarts[c] + i][j] += denominators[c][i][j];
+				}
+			}
+		}
+		double img_filtered[][] = new double[height][width];
+		for (i = 0; i < height; i++) {
+			for (j = 0; j < width; j++) {
+				img_filtered[i][j] = numerator[i][j]/denominator[i][j];
+			}
+		}
+		return img_filtered;
 	}
 	
-	private double[][][] wiener_filtering_hadamard(double group_3D_img[][][], double group_3D_est[][][], double sigma,
+	private void wiener_filtering_hadamard(double group_3D_img[][], double group_3D_est[][], int nSx_r, double sigma,
 			boolean doWeight, double weight[]) {
 		// wiener_filtering after hadamard transform
-		int i,j,k;
+		// group_3D_img and group_3D_est have shape (k*k, nSx_r), the result replaces group_3D_est
+		int i,j;
 		double value;
 		int n = group_3D_img.length;
-		int nSx_r = group_3D_img[0][0].length;
-		double group_3D_img_h[][][] = new double[n][n][];
-		double group_3D_est_h[][][] = new double[n][n][];
 	    double coef = 1.0 / nSx_r;
-	    WalshHadamardTransform3 wht3 = new WalshHadamardTransform3();
 	    
         for (j = 0; j < n; j++) {
-        	for (k = 0; k < n; k++) {
-        		// false means don't multiply by 1.0/ nSx_r
-        		group_3D_img_h[j][k] = wht3.fhtnat(group_3D_img[j][k], false);
-        		group_3D_est_h[j][k] = wht3.fhtnat(group_3D_est[j][k], false);
-        	}
+        	// false means don't multiply by 1.0/ nSx_r
+        	hadamard(group_3D_img[j], nSx_r, false);
+        	hadamard(group_3D_est[j], nSx_r, false);
         }
 	         
 	    // wiener filtering in this block
 	    weight[0] = 0.0;
 	    for (i = 0; i < nSx_r; i++) {
 	        for (j = 0; j < n; j++) {
-	        	for (k = 0; k < n; k++) {
-	        		value = group_3D_est_h[j][k][i] * group_3D_est_h[j][k][i] * coef;
-	        		value /= (value + sigma * sigma);
-	        		group_3D_est_h[j][k][i] = group_3D_img_h[j][k][i] * value * coef;
-	        		weight[0] += value;
-	        	}
+	        	value = group_3D_est[j][i] * group_3D_est[j][i] * coef;
+	        	value /= (value + sigma * sigma);
+	        	group_3D_est[j][i] = group_3D_img[j][i] * value * coef;
+	        	weight[0] += value;
 	        }
 	    }
 	    
 	    for (j = 0; j < n; j++) {
-        	for (k = 0; k < n; k++) {
-        		// false means don't multiply by 1.0/ nSx_r
-        		group_3D_est[j][k] = wht3.fhtnat(group_3D_est_h[j][k], false);
-        	}
+        	// false means don't multiply by 1.0/ nSx_r
+        	hadamard(group_3D_est[j], nSx_r, false);
         }
 	    
 	    if (doWeight) {
@@ -646,342 +476,69 @@ public class BM3D extends AlgorithmBase {
 	        	weight[0] = 1.0;
 	        }
 	    } // if (doWeight)
-	    return group_3D_est;	
 	}
 	
-	private ModelImage symetrize(ModelImage img, int pad) {
+	private double[][] symetrize(double buf[], int xDim, int yDim, int pad) {
 		int x,y;
-		int xDim = img.getExtents()[0];
-		int yDim = img.getExtents()[1];
-		int length = xDim * yDim;
-		double buf[] = new double[length];
-		try {
-			img.exportData(0, length, buf);
-		}
-		catch (IOException e) {
-			MipavUtil.displayError("IOException on img.exportData(0, length, buf)");
-			System.exit(-1);
-		}
 		
 		// Symmetric reflection padding
 		int paddedXDim = xDim + 2*pad;
 		int paddedYDim = yDim + 2*pad;
-		int paddedLength = paddedXDim * paddedYDim;
-		double padBuf[] = new double[paddedLength];
+		double padBuf[][] = new double[paddedYDim][paddedXDim];
 		for (y = 0; y < pad; y++) {
 			for (x = 0; x < pad; x++) {
-				padBuf[y*paddedXDim + x] = buf[(pad - 1 - y)*xDim + (pad - 1 - x)];
+				padBuf[y][x] = buf[(pad - 1 - y)*xDim + (pad - 1 - x)];
 			}
 			
 			for (x = pad; x < xDim + pad; x++) {
-				padBuf[y*paddedXDim + x] = buf[(pad - 1 - y)*xDim + (x - pad)]; 
+				padBuf[y][x] = buf[(pad - 1 - y)*xDim + (x - pad)]; 
 			}
 			
 			for (x = xDim + pad; x < xDim + 2*pad; x++) {
-				padBuf[y*paddedXDim + x] = buf[(pad - 1 - y)*xDim + 2*xDim + pad - 1 - x];
+				padBuf[y][x] = buf[(pad - 1 - y)*xDim + 2*xDim + pad - 1 - x];
 			}
 		}
 		
 		for (y = yDim + pad; y < yDim + 2*pad; y++) {
 			for (x = 0; x < pad; x++) {
-				padBuf[y*paddedXDim + x] = buf[(2*yDim + pad - 1 - y)*xDim + (pad - 1 - x)];
+				padBuf[y][x] = buf[(2*yDim + pad - 1 - y)*xDim + (pad - 1 - x)];
 			}
 			
 			for (x = pad; x < xDim + pad; x++) {
-				padBuf[y*paddedXDim + x] = buf[(2*yDim + pad - 1 - y)*xDim + (x - pad)]; 
+				padBuf[y][x] = buf[(2*yDim + pad - 1 - y)*xDim + (x - pad)]; 
 			}
 			
 			for (x = xDim + pad; x < xDim + 2*pad; x++) {
-				padBuf[y*paddedXDim + x] = buf[(2*yDim + pad - 1 - y)*xDim + 2*xDim + pad - 1 - x];
+				padBuf[y][x] = buf[(2*yDim + pad - 1 - y)*xDim + 2*xDim + pad - 1 - x];
 			}
 		}
 		
 		for (y = pad; y < yDim + pad; y++) {
 			for (x = 0; x < pad; x++) {
-				padBuf[y*paddedXDim + x] = buf[(y - pad)*xDim + (pad - 1 - x)];
+				padBuf[y][x] = buf[(y - pad)*xDim + (pad - 1 - x)];
 			}
 			for (x = pad; x < xDim + pad; x++) {
-				padBuf[y*paddedXDim + x] = buf[(y - pad)*xDim + x - pad];
+				padBuf[y][x] = buf[(y - pad)*xDim + x - pad];
 			}
 			for (x = xDim + pad; x < xDim + 2*pad; x++) {
-				padBuf[y*paddedXDim + x] = buf[(y - pad)*xDim + 2*xDim + pad - 1 - x];
+				padBuf[y][x] = buf[(y - pad)*xDim + 2*xDim + pad - 1 - x];
 			}
 		}
 		
-		int paddedExtents[] = new int[] {paddedXDim, paddedYDim};
-		ModelImage padImage = new ModelImage(ModelStorageBase.DOUBLE, paddedExtents, "padImage");
-		try {
-			padImage.importData(0, padBuf, true);
-		}
-		catch(IOException e) {
-			MipavUtil.displayError("IOException on padImage.importData(0, padBuf, true)");
-			System.exit(-1);
-		}
-		return padImage;
+		return padBuf;
 	}
 	
-	private double[][] bm3d_1st_step(double sigma, ModelImage img_noisy, int nHard, int kHard, int NHard, int pHard, double lambdaHard3D,
-			double tauMatch, boolean useSD, String tau_2D) {
-		int i,ii,h,j,jj,k,m,n,w,acc_pointer, i_r, j_r,x,y;
-		int nSx_r;
-		int ni, nj;
-		double group_3D[][][];
-		double group_3D_transpose[][][];
-		double weight[] = new double[1];
-	    int width = img_noisy.getExtents()[0];
-	    int height = img_noisy.getExtents()[1];
-	    
-	    int row_ind[] = ind_initialize(height - kHard + 1, nHard, pHard);
-	    int column_ind[] = ind_initialize(width - kHard + 1, nHard, pHard);
-	    
-	    double kaiserWindow[][] = get_kaiserWindow(kHard);
-	    int threshold_count[][] = new int[height][width];
-	    int ri_rj_N__ni_nj[][][][] = precompute_BM(img_noisy, kHard, NHard, nHard, tauMatch, threshold_count);
-	    int group_len = 0;
-	    for (h = 0; h < height; h++) {
-	    	for (w = 0; w < width; w++) {
-	    		group_len += threshold_count[h][w];
-	    	}
-	    }
-	    double group_3D_table[][][] = new double[group_len][kHard][kHard];
-	    double weight_table[][] = new double[height][width];
-	    
-	    // i_j_ipatch_jpatch__v
-	    Vector<Vector<double[][]>>all_patches = image2patches(img_noisy, kHard, kHard);
-	    Vector<Vector<double[][]>>fre_all_patches = new Vector<Vector<double[][]>>();
-	    for (ii = 0; ii < all_patches.size(); ii++) {
-	    	Vector<double[][]> subVector = all_patches.get(ii);
-	    	Vector<double[][]> subfreVector = new Vector<double[][]>();
-	    	for (jj = 0; jj < subVector.size(); jj++) {
-	            double current_patch[][] = subVector.get(jj);
-		    	if (tau_2D.equalsIgnoreCase("DCT")) {
-		    		// Forward 2D Discrete Cosine Transform
-		    		double new_patch_1[][] = new double[current_patch.length][current_patch[0].length];
-		    		double new_patch_2[][] = new double[current_patch.length][current_patch[0].length];
-		    		double yk;
-		    		for (i = 0; i < current_patch[0].length; i++) {
-		    			for (k = 0; k < current_patch.length; k++) {
-		    				yk = 0.0;
-		    			    for (n = 0; n < current_patch.length; n++) {
-		    			        yk += 2.0*current_patch[n][i]*Math.cos(Math.PI*k*(2*n+1)/(2.0*current_patch.length));
-		    			    }
-		    			    if (k == 0) {
-	    			        	yk = yk * Math.sqrt(1.0/(4.0*current_patch.length));
-	    			        }
-	    			        else {
-	    			        	yk = yk * Math.sqrt(1.0/(2.0*current_patch.length));
-	    			        }
-	    			        new_patch_1[k][i] = yk;
-		    			}
-		    		}
-		    		for (i = 0; i < current_patch.length; i++) {
-		    			for (k = 0; k < current_patch[0].length; k++) {
-		    				yk = 0;
-		    				for (n = 0; n < current_patch[0].length; n++) {
-		    					yk += 2.0*new_patch_1[i][n]*Math.cos(Math.PI*k*(2*n+1)/(2.0*current_patch[0].length));
-		    				}
-		    				if (k == 0) {
-	    			        	yk = yk * Math.sqrt(1.0/(4.0*current_patch[0].length));
-	    			        }
-	    			        else {
-	    			        	yk = yk * Math.sqrt(1.0/(2.0*current_patch[0].length));
-	    			        }
-	    			        new_patch_2[i][k] = yk;
-		    			}
-		    		}
-		    		subfreVector.add(new_patch_2);
-		    	} // if (tau_2D.equalsIgnoreCase("DCT"))
-		    	
-		    	else { // "BIOR"
-		    		if (current_patch.length != current_patch[0].length) {
-		    			System.err.println("current_patch.length != current_patch[0],length as required for BIOR");
-		    			return null;
-		    		}
-		    		int iter_max = (int)log2(current_patch.length);
-		    		PyWavelets py = new PyWavelets();
-		    		double coeffs[][][] = py.BM3Dwavedec2(current_patch, iter_max);
-		    		double waveim[][] = new double[current_patch.length][current_patch.length];
-		    		
-		    		int N = 1;
-		    		waveim[0][0] = coeffs[0][0][0];
-		    		for (i = 0; i < iter_max; i++) {
-		    			for (y = N; y < 2*N; y++) {
-		    				for (x = N; x < 2*N; x++) {
-		    					waveim[y][x] = coeffs[3*i+3][y-N][x-N];
-		    				}
-		    			}
-		    			for (y = 0; y < N; y++) {
-		    				for (x = N; x < 2*N; x++) {
-		    					waveim[y][x] = -coeffs[3*i+2][y][x-N];
-		    				}
-		    			}
-		    			for (y = N; y < 2*N; y++) {
-		    				for (x = 0; x < N; x++) {
-		    					waveim[y][x] = -coeffs[3*i+1][y-N][x];
-		    				}
-		    			}
-		    			N *= 2;
-		    		} // for (i = 0; i < iter_max; i++)
-		    		
-		    	    subfreVector.add(waveim);
-		    	} // else "BIOR"
-	    	} // for (jj = 0; jj < subVector.size(); jj++)
-	    	fre_all_patches.add(subfreVector);
-	    } // for (ii = 0; ii < all_patches.size(); ii++)
-	    
-	    acc_pointer = 0;
-	    for (i = 0; i < row_ind.length; i++) {
-	    	i_r = row_ind[i];
-	    	for (j = 0; j < column_ind.length; j++) {
-	    		j_r = column_ind[j];
-	    		nSx_r = threshold_count[i_r][j_r];
-	    		group_3D = build_3D_group(fre_all_patches, ri_rj_N__ni_nj[i_r][j_r], nSx_r);
-	    		group_3D = ht_filtering_hadamard(group_3D, sigma, lambdaHard3D, !useSD, weight);
-	    		group_3D_transpose = new double[nSx_r][group_3D.length][group_3D.length];
-	    		for (k = acc_pointer; k < acc_pointer + nSx_r; k++) {
-	    			for (m = 0; m < group_3D.length; m++) {
-	    				for (n = 0; n < group_3D.length; n++) {
-	    					group_3D_table[k][m][n] = group_3D[m][n][k-acc_pointer];
-	    					group_3D_transpose[k-acc_pointer][m][n] = group_3D[m][n][k-acc_pointer];
-	    				}
-	    			}
-	    		}
-	    		acc_pointer += nSx_r;
-	    		
-	    		if (useSD) {
-	                weight[0] = sd_weighting(group_3D_transpose);
-	    		}
-	    		
-	    		weight_table[i_r][j_r] = weight[0];
-	    	} // for (j = 0; j < column_ind.length; j++)
-	    } // for (i = 0; i < row_ind.length; i++)
-	    
-	    
-	    for (ii = 0; ii < group_len; ii++) {	
-	        if (tau_2D.equalsIgnoreCase("DCT")) {
-	    		// Reverse 2D Discrete Cosine Transform
-	    		double new_patch_1[][] = new double[kHard][kHard];
-	    		double yk;
-	    		for (i = 0; i < kHard; i++) {
-	    			for (k = 0; k < kHard; k++) {
-	    				yk = group_3D_table[ii][0][i]/Math.sqrt(kHard);
-	    			    for (n = 1; n < kHard; n++) {
-	    			        yk += Math.sqrt(2.0/kHard) * group_3D_table[ii][n][i]*Math.cos(Math.PI*n*(2*k+1)/(2.0*kHard));  
-	    			    }
-    			        new_patch_1[k][i] = yk;
-	    			}
-	    		}
-	    		for (i = 0; i < kHard; i++) {
-	    			for (k = 0; k < kHard; k++) {
-	    				yk = new_patch_1[i][0]/Math.sqrt(kHard);
-	    				for (n = 1; n < kHard; n++) {
-	    					yk += Math.sqrt(2.0/kHard) * new_patch_1[i][n]*Math.cos(Math.PI*n*(2*k+1)/(2.0*kHard));
-	    				}
-    			        group_3D_table[ii][i][k] = yk;
-	    			}
-	    		}
-	    	} // if (tau_2D.equalsIgnoreCase("DCT"))
-	    	else { // "BIOR"
-	    		PyWavelets py = new PyWavelets();
-	    		int level = (int)log2(kHard);
-	    		double group_2D[][] = py.BM3Dwaverec2(group_3D_table[ii],level);
-	    		for (j = 0; j < kHard; j++) {
-	    			for (k = 0; k < kHard; k++) {
-	    				group_3D_table[ii][j][k] = group_2D[j][k];
-	    			}
-	    		}
-	    	} // else "BIOR"
-	    } // for (ii = 0; ii < group_len; ii++)
-	    	
-    	// group_3D_table = np.maximum(group_3D_table, 0)
-	    // for i in range(1000):
-	    //     patch = group_3D_table[i]
-	    //     print(i, '----------------------------')
-	    //     print(patch)
-	    //     print(np.min(patch))
-	    //     print(np.max(patch))
-	    //     print(np.sum(patch))
-	    //     cv2.imshow('', patch.astype(np.uint8))
-	    //     cv2.waitKey()
-
-	    // aggregation part
-	    double numerator[][] = new double[height][width];
-	    double denominator[][] = new double[height][width];
-	    for (i = 0; i < nHard; i++) {
-	    	for (j = 0; j < width; j++) {
-	    		denominator[i][j] = 1.0;
-	    	}
-	    }
-	    for (i = height - nHard; i < height; i++) {
-	    	for (j = 0; j < width; j++) {
-	    		denominator[i][j] = 1.0;
-	    	}
-	    }
-	    for (i = nHard; i < height - nHard; i++) {
-	    	for (j = 0; j < nHard; j++) {
-	    		denominator[i][j] = 1.0;
-	    	}
-	    }
-	    
-	    for (i = nHard; i < height - nHard; i++) {
-	    	for (j = width - nHard; j < width; j++) {
-	    		denominator[i][j] = 1.0;
-	    	}
-	    }
-	    acc_pointer = 0;
-	    double patch[][];
-	    for (i = 0; i < row_ind.length; i++) {
-	    	i_r = row_ind[i];
-	    	for (j = 0; j < column_ind.length; j++) {
-	    		j_r = column_ind[j];
-	    		nSx_r = threshold_count[i_r][j_r];
-	    		int N_ni_nj[][] = ri_rj_N__ni_nj[i_r][j_r];
-	    		group_3D = new double[nSx_r][kHard][kHard];
-	    		for (k = acc_pointer; k < acc_pointer + nSx_r; k++) {
-	    			for (m = 0; m < kHard; m++) {
-	    				for (n = 0; n < kHard; n++) {
-	    					group_3D[k-acc_pointer][m][n] = group_3D_table[k][m][n];
-	    				}
-	    			}
-	    		}
-	    		acc_pointer += nSx_r;
-	    		weight[0] = weight_table[i_r][j_r];
-	    		for (n = 0; n < nSx_r; n++) {
-	    			ni = N_ni_nj[n][0];
-	    			nj = N_ni_nj[n][1];
-	    			patch = group_3D[n];
-	    			
-	    			for (k = 0; k < kHard; k++) {
-	    				for (m = 0; m < kHard; m++) {
-	    					numerator[ni + k][nj + m] += patch[k][m] * kaiserWindow[k][m] * weight[0];
-	    					denominator[ni + k][nj + m] += kaiserWindow[k][m] * weight[0];
-	    				}
-	    			}
-	    			
-	    		} // for (n = 0; n < nSx_r; n++)
-	    	} // for (j = 0; j < column_ind.length; j++)
-	    } // for (i = 0; i < row_ind.length; i++)
-	    double img_basic[][] = new double[height][width];
-	    for (h = 0; h < height; h++) {
-	    	for (w = 0; w < width; w++) {
-	    		img_basic[h][w] = numerator[h][w]/denominator[h][w];
-	    	}
-	    }
-	    return img_basic;
-	}
-	
-	private double sd_weighting(double group_3D[][][]) {
-		int i,j,k;
-	    int N = group_3D.length * group_3D[0].length * group_3D[0][0].length;
+	private double sd_weighting(double group_3D[][], int nSx_r) {
+		// group_3D has shape (k*k, nSx_r)
+		int i,j;
+	    int N = group_3D.length * nSx_r;
 	    
 	    double mean = 0.0;
 	    double std = 0.0;
-	    for (i = 0; i < group_3D.length; i++) {
-	    	for (j = 0; j < group_3D[0].length; j++) {
-	    		for (k = 0; k < group_3D[0][0].length; k++) {
-	    			mean += group_3D[i][j][k];
-	    			std += (group_3D[i][j][k] * group_3D[i][j][k]);
-	    		}
+	    for (i = 0; i < nSx_r; i++) {
+	    	for (j = 0; j < group_3D.length; j++) {
+	    		mean += group_3D[j][i];
+	    		std += (group_3D[j][i] * group_3D[j][i]);
 	    	}
 	    }
 
@@ -993,44 +550,29 @@ public class BM3D extends AlgorithmBase {
 	    return weight;
 	}
 	
-	private double[][][] ht_filtering_hadamard(double group_3D[][][], double sigma, 
+	private void ht_filtering_hadamard(double group_3D[][], int nSx_r, double sigma, 
 			double lambdaHard3D, boolean doWeight, double weight[]) {
 		// hard threshold filtering after 1D hadamard transform
-		// group_3D shape=(n*n, nSx_r)
-		int i,j,k;
+		// group_3D shape=(k*k, nSx_r), filtered in place
+		int i,j;
 		int n = group_3D.length;
-		int nSx_r = group_3D[0][0].length;
-		double group_3D_h[][][] = new double[n][n][];
 		double coef_norm = Math.sqrt(nSx_r);
-	    WalshHadamardTransform3 wht3 = new WalshHadamardTransform3();
-	    
-        for (j = 0; j < n; j++) {
-        	for (k = 0; k < n; k++) {
-        		// false means don't multiply by 1.0/ nSX_r during transform 
-        		group_3D_h[j][k] = wht3.fhtnat(group_3D[j][k], false);
-        	}
-        }
 	    
 	    double T = lambdaHard3D * sigma * coef_norm;
 	    weight[0] = 0.0;
-	    for (i = 0; i < nSx_r; i++) {
-	        for (j = 0; j < n; j++) {
-	        	for (k = 0; k < n; k++) {
-	        		if (Math.abs(group_3D_h[j][k][i]) > T) {
-	        			weight[0] += 1.0;
-	        		}
-	        		else {
-	        			group_3D_h[j][k][i] = 0.0;
-	        		}
-	        	}
-	        }
-	    } // for (i = 0; i < nSx_r; i++)
-	    
-	    for (j = 0; j < n; j++) {
-        	for (k = 0; k < n; k++) {
-        		// true means multiply by 1.0/ nSX_r during transform
-        		group_3D[j][k] = wht3.fhtnat(group_3D_h[j][k], true);
+        for (j = 0; j < n; j++) {
+        	// false means don't multiply by 1.0/ nSX_r during transform 
+        	hadamard(group_3D[j], nSx_r, false);
+        	for (i = 0; i < nSx_r; i++) {
+        		if (Math.abs(group_3D[j][i]) > T) {
+        			weight[0] += 1.0;
+        		}
+        		else {
+        			group_3D[j][i] = 0.0;
+        		}
         	}
+        	// true means multiply by 1.0/ nSX_r during transform
+        	hadamard(group_3D[j], nSx_r, true);
         }
 	    
 	    if (doWeight) {
@@ -1041,393 +583,264 @@ public class BM3D extends AlgorithmBase {
 	        	weight[0] = 1.0;
 	        }
 	    } // if (doWeight)
-	    return group_3D;
 	}
 	
-	private double[][][] build_3D_group(Vector<Vector<double[][]>> fre_all_patches, int N__ni_nj[][], int nSx_r) {
-		// stack frequency patches into a 3D block
-	    // fre_all_patches: all frequency patches
-	    // N__ni_nj: the position of the N most similar patches
-	    // nSx_r: how many similar patches according to threshold
-	    // return: the 3D block
-		int i, j, n, ni, nj;
-		int k = fre_all_patches.get(0).get(0).length;
-		for (i = 0; i < fre_all_patches.size(); i++) {
-			Vector<double[][]>subVector = fre_all_patches.get(i);
-			for (j = 0; j < subVector.size(); j++) {
-				double patch[][] = subVector.get(j);
-				if ((patch.length != k) || (patch[0].length != k)) {
-					System.err.println("In build_3D_group not all patch.length and patch[0].length are the same");
-					return null;
-				}
+	private void hadamard(double x[], int N, boolean forwardTransform) {
+		// In place natural (Hadamard) ordered Fast Hadamard Transform of x[0] to x[N-1], as
+		// WalshHadamardTransform3.fhtnat() without allocating
+		int k1, k2, k3, i1, i2, i3, L1, i, j;
+		double temp1, temp2;
+		int NTest = N;
+		int log2 = 0;
+		while ((NTest % 2) == 0) {
+			NTest = NTest/2;
+			log2++;
+		}
+		k1=N; k2=1; k3=N/2;
+		for (i1=1; i1 <= log2; i1++) {
+			L1=1;
+			for (i2=1; i2 <= k2; i2++) {
+				for (i3=1; i3 <= k3; i3++) {
+					i=i3+L1-1; j=i+k3;
+					temp1= x[i-1]; temp2 = x[j-1]; 
+					x[i-1] = temp1 + temp2;
+					x[j-1] = temp1 - temp2;
+				} // for (i3=1; i3 <= k3; i3++)
+				L1=L1+k1;
+			} // for (i2=1; i2 <= k2; i2++)
+			k1 = k1/2;  k2 = k2*2;  k3 = k3/2;
+		} // for (i1=1; i1 <= log2; i1++)
+		if (forwardTransform) {
+			for (i1 = 0; i1 < N; i1++) {
+				x[i1]= (x[i1]/(double)N);
 			}
-		}
-		double group_3D[][][] = new double[nSx_r][][];
-		for (n = 0; n < nSx_r; n++) {
-			ni = N__ni_nj[n][0];
-			nj = N__ni_nj[n][1];
-			group_3D[n] = fre_all_patches.get(ni).get(nj);
-		}
-		double group_3D_transpose[][][] = new double[k][k][nSx_r];
-		for (i = 0; i < k; i++) {
-			for (j = 0; j < k; j++) {
-				for (n = 0; n < nSx_r; n++) {
-					group_3D_transpose[i][j][n] = group_3D[n][i][j];
-				}
-			}
-		}
-		return group_3D_transpose;
+		} // if (forwardTransform)
 	}
 	
 	private double log2(double x) {
     	return (Math.log(x)/Math.log(2));
     }
 	
-	private Vector<Vector<double[][]>> image2patches(ModelImage im, int patch_h, int patch_w) {
-	    
-	    // cut the image into patches
-		// BIOR requires square patches, that is patch_h = patch_w
-		
-		int i,j,k,m,r,s;
-	    int im_w = im.getExtents()[0];
-	    int im_h = im.getExtents()[1];
-	    int length = im_w * im_h;
-		double buf[] = new double[length];
-		try {
-			im.exportData(0, length, buf);
-		}
-		catch (IOException e) {
-			MipavUtil.displayError("IOException on im.exportData(0, length, buf) in image2patches");
-			System.exit(-1);
-		}
-		double img_buf[][] = new double[im_h][im_w];
-		for (i = 0; i < im_h; i++) {
-			for (j = 0; j < im_w; j++) {
-				img_buf[i][j] = buf[i*im_w + j];
+	private double[][] dct_cos_table(int kHW) {
+		// cos(pi*a*(2b+1)/(2*kHW)) of the forward and reverse 2D Discrete Cosine Transforms
+		int a, b;
+		double table[][] = new double[kHW][kHW];
+		for (a = 0; a < kHW; a++) {
+			for (b = 0; b < kHW; b++) {
+				table[a][b] = Math.cos(Math.PI*a*(2*b+1)/(2.0*kHW));
 			}
 		}
-	    
-	    Vector<Vector<double[][]>> imVector= new Vector<Vector<double[][]>>();
-	    for (i = 0; i < (im_h - patch_h + 1); i++) {
-	    	Vector<double[][]> subVector = new Vector<double[][]>();
-	    	for (j = 0; j < (im_w - patch_w + 1); j++) {
-    				double patch[][] = new double[patch_h][patch_w];
-    				for (r = i; r < i+patch_h; r++) {
-    					for (s = j; s < j+patch_w; s++) {
-    						patch[r-i][s-j] = img_buf[r][s];
-    					}
-    				}
-    				subVector.add(patch);
-	    	}
-	    	imVector.add(subVector);
-	    }
-	    return imVector;
+		return table;
 	}
 	
-	private int[][][][] precompute_BM(ModelImage img, int kHW, int NHW, int nHW, double tauMatch, int[][] threshold_count) {
-		// search for similar patches
-	    // img: input image type ModelStorageBase.DOUBLE
-	    // kHW: length of side of patch
-	    // NHW: how many patches are stacked
-	    // nHW: length of side of search area
-	    // tauMatch: threshold determine whether two patches are similar
-	    // return ri_rj_N__ni_nj: The top N most similar patches to the referred patch
-	    // return threshold_count: according to tauMatch how many patches are similar to the referred one
-		int i,j,h,w,di,dj;
-		int width = img.getExtents()[0];
-		int height = img.getExtents()[1];
-		int length = width * height;
-		double buf[] = new double[length];
-		try {
-			img.exportData(0, length, buf);
-		}
-		catch (IOException e) {
-			MipavUtil.displayError("IOException on img.exportData(0, length, buf) in precompute_BM");
-			System.exit(-1);
-		}
-		double img_buf[][] = new double[height][width];
-		for (i = 0; i < height; i++) {
-			for (j = 0; j < width; j++) {
-				img_buf[i][j] = buf[i*width + j];
+	private double[][] image2fre_patches(final double img[][], final int kHW, final String tau_2D) {
+		// cut the image into patches and transform them
+		// returns the kHW*kHW coefficients of the patch at row i and column j at index i*(width - kHW + 1) + j
+		// BIOR requires square patches
+		final int rows = img.length - kHW + 1;
+		final int columns = img[0].length - kHW + 1;
+		final double fre_patches[][] = new double[rows * columns][];
+		final double cosTable[][] = dct_cos_table(kHW);
+		final int chunks = multiThreadingEnabled ? Math.max(1, Math.min(nthreads, rows)) : 1;
+		
+		ThreadUtil.parallelFor(chunks, new ThreadUtil.IndexedTask() {
+			public void run(final int index) {
+				int i, j, r, s;
+				final int from = (int)((long)rows * index / chunks);
+				final int to = (int)((long)rows * (index + 1) / chunks);
+				final double current_patch[][] = new double[kHW][kHW];
+				final double new_patch_1[][] = new double[kHW][kHW];
+				final double new_patch_2[][] = new double[kHW][kHW];
+				final PyWavelets py = tau_2D.equalsIgnoreCase("DCT") ? null : new PyWavelets();
+				for (i = from; i < to; i++) {
+					for (j = 0; j < columns; j++) {
+						for (r = 0; r < kHW; r++) {
+							for (s = 0; s < kHW; s++) {
+								current_patch[r][s] = img[i + r][j + s];
+							}
+						}
+						final double fre_patch[][] = forward_2d_transform(current_patch, new_patch_1, new_patch_2,
+								cosTable, py);
+						final double coefficients[] = new double[kHW * kHW];
+						for (r = 0; r < kHW; r++) {
+							for (s = 0; s < kHW; s++) {
+								coefficients[r * kHW + s] = fre_patch[r][s];
+							}
+						}
+						fre_patches[i * columns + j] = coefficients;
+					}
+				}
 			}
-		}
-		int Ns = 2 * nHW + 1;
-	    double threshold = tauMatch * kHW * kHW;
-	    // di, dj, ph, pw
-	    double sum_table[][][][] = new double[Ns][Ns][height][width];
-	    for (i = 0; i < Ns; i++) {
-	    	for (j = 0; j < Ns; j++) {
-	    		for (h = 0; h < height; h++) {
-	    			for (w = 0; w < width; w++) {
-	    				sum_table[i][j][h][w] = 2 * threshold;
-	    			}
-	    		}
-	    	}
-	    }
-	    double row_add_mat[][] = new double[height][height];
-	    double column_add_mat[][] = new double[width][width];
-	    get_add_patch_matrix(height, width, nHW, kHW, row_add_mat, column_add_mat);
-	    double diff_margin[][] = new double[height][width];
-	    for (i = nHW; i < height - nHW; i++) {
-	    	for (j = nHW; j < width - nHW; j++) {
-	    		diff_margin[i][j] = 1.0;
-	    	}
-	    }
-	    double sum_margin[][] = new double[height][width];
-	    for (i = 0; i < height; i++) {
-	    	for (j = 0; j < width; j++) {
-	    		sum_margin[i][j] = (1 - diff_margin[i][j]) * 2 * threshold;
-	    	}
-	    }
-	    
-	    double diff_table_2[][] = new double[height][width];
-	    double sum_diff_2[][];
-	    for (di = -nHW; di < nHW + 1; di++) {
-	        for (dj = -nHW; dj < nHW + 1; dj++) {
-	        	double t_img[][] = translation_2d_mat(img_buf, -dj, -di);
-	        	for (i = 0; i < height; i++) {
-	        		for (j = 0; j < width; j++) {
-	        			diff_table_2[i][j] = (img_buf[i][j]- t_img[i][j]) * (img_buf[i][j] - t_img[i][j]) * diff_margin[i][j];
-	        		}
-	        	}
-	        	
-	        	sum_diff_2 = (((new Matrix(row_add_mat)).times(new Matrix(diff_table_2))).times(new Matrix(column_add_mat))).getArray();
-	        	// # sum_table (2n+1, 2n+1, height, width)
-	        	for (i = 0; i < height; i++) {
-	        		for (j = 0; j < width; j++) {
-	        			sum_table[di + nHW][dj + nHW][i][j] = Math.max(sum_diff_2[i][j], sum_margin[i][j]);
-	        		}
-	        	}
-	        } // for (dj = -nHW; dj < nHW + 1; dj++)
-	    } // for (di = -nHW; di < nHW + 1; di++)
-	    // di_dj, ph_pw
-	    double sum_table_reshape[][] = new double[Ns * Ns][length];
-	    for (i = 0; i < Ns; i++) {
-	    	for (j = 0; j < Ns; j++) {
-	    		for (h = 0; h < height; h++) {
-	    			for (w = 0; w < width; w++) {
-	    				sum_table_reshape[i*Ns + j][h*width + w] = sum_table[i][j][h][w];
-	    			}
-	    		}
-	    	}
-	    }
-	    // ph_pw__di_dj
-	    double sum_table_T[][] = new double[length][Ns * Ns];
-	    for (i = 0; i < Ns * Ns; i++) {
-	    	for (j = 0; j < length; j++) {
-	    		sum_table_T[j][i] = sum_table_reshape[i][j];
-	    	}
-	    }
-	    int argsort[][] = new int[length][NHW];
-	    ArrayList <indexValueItem> indexValueList = new ArrayList<indexValueItem>();
-	    for (i = 0; i < length; i++) {
-	    	indexValueList.clear();
-	    	for (j = 0; j < Ns * Ns; j++) {
-	    		indexValueList.add(new indexValueItem(j, sum_table_T[i][j]));
-	    	}
-	    	Collections.sort(indexValueList, new indexValueComparator());
-	    	for (j = 0; j < NHW; j++) {
-	    		argsort[i][j] = indexValueList.get(j).getIndex();
-	    	}
-	    }
-	    for (i = 0; i < length; i++) {
-	    	argsort[i][0] = (Ns * Ns - 1)/2;
-	    }
-	    int argsort_di[][] = new int[length][NHW];
-	    for (i = 0; i < length; i++) {
-	    	for (j = 0; j < NHW; j++) {
-	    		argsort_di[i][j] = argsort[i][j] / Ns - nHW;
-	    	}
-	    }
-	    int argsort_dj[][] = new int[length][NHW];
-	    for (i = 0; i < length; i++) {
-	    	for (j = 0; j < NHW; j++) {
-	    		argsort_dj[i][j] = argsort[i][j] % Ns - nHW;
-	    	}
-	    }
-	    int near_pi[][][] = new int[height][width][NHW];
-	    for (h = 0; h < height; h++) {
-	    	for (w = 0; w < width; w++) {
-	    		for (i = 0; i < NHW; i++) {
-	    			near_pi[h][w][i] = argsort_di[h*width + w][i] + h;
-	    		}
-	    	}
-	    }
-	    int near_pj[][][] = new int[height][width][NHW];
-	    for (h = 0; h < height; h++) {
-	    	for (w = 0; w < width; w++) {
-	    		for (i = 0; i < NHW; i++) {
-	    			near_pj[h][w][i] = argsort_dj[h*width + w][i] + w;
-	    		}
-	    	}
-	    }
-	    int ri_rj_N__ni_nj[][][][] = new int[height][width][NHW][2];
-	    for (h = 0; h < height; h++) {
-	    	for (w = 0; w < width; w++) {
-	    		for (i = 0; i < NHW; i++) {
-	    		    ri_rj_N__ni_nj[h][w][i][0] = near_pi[h][w][i];
-	    		    ri_rj_N__ni_nj[h][w][i][1] = near_pj[h][w][i];
-	    		}
-	    	}
-	    }
-	    byte sum_filter[][] = new byte[length][Ns * Ns];
-	    for (i = 0; i < length; i++) {
-	    	for (j = 0; j < Ns * Ns; j++) {
-	    		if (sum_table_T[i][j] < threshold) {
-	    			sum_filter[i][j] = 1;
-	    		}
-	    		else {
-	    			sum_filter[i][j] = 0;
-	    		}
-	    	}
-	    }
-	    int threshold_count_init[] = new int[length];
-	    for (i = 0; i < length; i++) {
-	    	for (j = 0; j < Ns * Ns; j++) {
-	    	    threshold_count_init[i] += sum_filter[i][j];	
-	    	}
-	    }
-	    int threshold_count_2[] = closest_power_of_2(threshold_count_init, NHW);
-	    for (h = 0; h < height; h++) {
-	    	for (w = 0; w < width; w++) {
-	    		threshold_count[h][w] = threshold_count_2[h*width + w];
-	    	}
-	    }
-	    return ri_rj_N__ni_nj;
-	}
-	
-	private int[] closest_power_of_2(int[] M, int max_) {
-	    int i;
-	    int length = M.length;
-	    int M_out[] = new int[length];
-	    for (i = 0; i < length; i++) {
-	        if (M[i] > max_) {
-	        	M_out[i] = max_;
-	        }
-	        else {
-	        	M_out[i] = M[i];
-	        }
-	    }
-        while (max_ > 1) {
-        	for (i = 0; i < length; i++) {
-	        	if ((max_/2 < M_out[i]) && (max_ > M_out[i])) {
-	        		M_out[i] = max_/2;
-	        	}
-        	}
-        	max_ = max_/2;
-        }
-        return M_out;
+		});
+		return fre_patches;
 	}
 	
-	private class indexValueComparator implements Comparator<indexValueItem> {
-
-        /**
-         * DOCUMENT ME!
-         * 
-         * @param o1 DOCUMENT ME!
-         * @param o2 DOCUMENT ME!
-         * 
-         * @return DOCUMENT ME!
-         */
-        public int compare(indexValueItem o1, indexValueItem o2) {
-            double a = o1.getValue();
-            double b = o2.getValue();
-            int i = o1.getIndex();
-            int j = o2.getIndex();
-
-            if (a < b) {
-                return -1;
-            } else if (a > b) {
-                return 1;
-            } else if (i < j) {
-            	return -1;
-            } else if (i > j) {
-            	return 1;
-            } else {
-                return 0;
-            }
-        }
-
-    }
-	
-	private class indexValueItem {
-		private int index;
-		private double value;
-		
-		public indexValueItem(int index, double value) {
-			this.index = index;
-			this.value = value;
-		}
-		
-		public int getIndex() {
-			return index;
-		}
-		
-		public double getValue() {
-			return value;
-		}
+	private double[][] forward_2d_transform(double current_patch[][], double new_patch_1[][], double new_patch_2[][],
+			double cosTable[][], PyWavelets py) {
+		// py is null for the 2D Discrete Cosine Transform and used for the BIOR wavelet transform
+		int i, k, n, x, y;
+		int len = current_patch.length;
+		if (py == null) {
+			// Forward 2D Discrete Cosine Transform
+			double yk;
+			for (i = 0; i < len; i++) {
+				for (k = 0; k < len; k++) {
+					yk = 0.0;
+					for (n = 0; n < len; n++) {
+						yk += 2.0*current_patch[n][i]*cosTable[k][n];
+					}
+					if (k == 0) {
+						yk = yk * Math.sqrt(1.0/(4.0*len));
+					}
+					else {
+						yk = yk * Math.sqrt(1.0/(2.0*len));
+					}
+					new_patch_1[k][i] = yk;
+				}
+			}
+			for (i = 0; i < len; i++) {
+				for (k = 0; k < len; k++) {
+					yk = 0;
+					for (n = 0; n < len; n++) {
+						yk += 2.0*new_patch_1[i][n]*cosTable[k][n];
+					}
+					if (k == 0) {
+						yk = yk * Math.sqrt(1.0/(4.0*len));
+					}
+					else {
+						yk = yk * Math.sqrt(1.0/(2.0*len));
+					}
+					new_patch_2[i][k] = yk;
+				}
+			}
+			return new_patch_2;
+		} // if (py == null)
 		
+		// "BIOR"
+		int iter_max = (int)log2(len);
+		double coeffs[][][] = py.BM3Dwavedec2(current_patch, iter_max);
+		double waveim[][] = new_patch_2;
 		
+		int N = 1;
+		waveim[0][0] = coeffs[0][0][0];
+		for (i = 0; i < iter_max; i++) {
+			for (y = N; y < 2*N; y++) {
+				for (x = N; x < 2*N; x++) {
+					waveim[y][x] = coeffs[3*i+3][y-N][x-N];
+				}
+			}
+			for (y = 0; y < N; y++) {
+				for (x = N; x < 2*N; x++) {
+					waveim[y][x] = -coeffs[3*i+2][y][x-N];
+				}
+			}
+			for (y = N; y < 2*N; y++) {
+				for (x = 0; x < N; x++) {
+					waveim[y][x] = -coeffs[3*i+1][y-N][x];
+				}
+			}
+			N *= 2;
+		} // for (i = 0; i < iter_max; i++)
+		return waveim;
 	}
 	
-	private void get_add_patch_matrix(int h, int w, int nHW, int kHW, double[][] row_add_mat, double[][] column_add_mat) {
-		int i, j, k;
-	    double row_add_pad[][] = new double[h][h];
-	    for (i = h; i < h - nHW; i++) {
-	    	row_add_pad[i][i] = 1.0;
-	    	row_add_mat[i][i] = 1.0;
-	    }
-	    for (k = 1; k < kHW; k++) {
-	    	double trans_mat[][] = translation_2d_mat(row_add_pad, k, 0);
-	    	for (i = 0; i < h; i++) {
-	    		for (j = 0; j < h; j++) {
-	    			row_add_mat[i][j] += trans_mat[i][j];
-	    		}
-	    	}
-	    } // for (k = 1; k < kHW; k++)
-	    
-	    double column_add_pad[][] = new double[w][w];
-	    for (i = w; i < w - nHW; i++) {
-	    	column_add_pad[i][i] = 1.0;
-	    	column_add_mat[i][i] = 1.0;
-	    }
-	    for (k = 1; k < kHW; k++) {
-	    	double trans_mat[][] = translation_2d_mat(column_add_pad, 0, k);
-	    	for (i = 0; i < w; i++) {
-	    		for (j = 0; j < w; j++) {
-	    			column_add_mat[i][j] += trans_mat[i][j];
-	    		}
-	    	}
-	    } // for (k = 1; k < kHW; k++)
-	}
-	
-	private double[][] translation_2d_mat(double mat[][], int right, int down) {
-		int i, j, iroll, jroll;
-		double roll_mat[][] = new double[mat.length][mat[0].length];
-		for (i = 0; i < mat.length; i++) {
-			if (down >= 0) {
-			    iroll = (i + down)%mat.length;
-			}
-			else {
-				iroll = i + down;
-				while (iroll < 0) {
-					iroll += mat.length;
+	private double[][] inverse_2d_transform(double patch[][], double new_patch_1[][], double cosTable[][],
+			PyWavelets py) {
+		// py is null for the 2D Discrete Cosine Transform, which is reversed in place in patch
+		int i, k, n;
+		int kHW = patch.length;
+		if (py == null) {
+			// Reverse 2D Discrete Cosine Transform
+			double yk;
+			for (i = 0; i < kHW; i++) {
+				for (k = 0; k < kHW; k++) {
+					yk = patch[0][i]/Math.sqrt(kHW);
+					for (n = 1; n < kHW; n++) {
+						yk += Math.sqrt(2.0/kHW) * patch[n][i]*cosTable[n][k];  
+					}
+					new_patch_1[k][i] = yk;
 				}
 			}
-			for (j = 0; j < mat[0].length; j++) {
-				if (right >= 0) {
-				    jroll = (j + right)%mat[0].length;	
+			for (i = 0; i < kHW; i++) {
+				for (k = 0; k < kHW; k++) {
+					yk = new_patch_1[i][0]/Math.sqrt(kHW);
+					for (n = 1; n < kHW; n++) {
+						yk += Math.sqrt(2.0/kHW) * new_patch_1[i][n]*cosTable[n][k];
+					}
+					patch[i][k] = yk;
 				}
-				else {
-					jroll = j + right;
-					while (jroll < 0) {
-						jroll += mat[0].length;
+			}
+			return patch;
+		} // if (py == null)
+		
+		// "BIOR"
+		int level = (int)log2(kHW);
+		return py.BM3Dwaverec2(patch, level);
+	}
+	
+	private int block_matching(double img[][], int i_r, int j_r, int kHW, int NHW, int nHW, double threshold,
+			double distances[], int best[], double bestDistances[]) {
+	    // search for the patches similar to the reference patch at (i_r, j_r)
+	    // kHW: length of side of patch
+	    // NHW: how many patches are stacked
+	    // nHW: the search area reaches nHW pixels to each side
+	    // threshold: the distance below which two patches are similar
+	    // return in best[]: the offset indices (di + nHW) * (2*nHW + 1) + (dj + nHW) of the top NHW most
+	    // similar patches, ordered by distance and then index, with the reference patch first
+	    // return: according to threshold how many patches are similar to the reference one, rounded down to a
+	    // power of 2 no greater than NHW
+		int di, dj, r, s, n, p;
+		double diff, sum;
+		int Ns = 2 * nHW + 1;
+		int count = 0;
+		for (di = -nHW; di <= nHW; di++) {
+			for (dj = -nHW; dj <= nHW; dj++) {
+				sum = 0.0;
+				for (r = 0; r < kHW; r++) {
+					double row[] = img[i_r + r];
+					double shiftedRow[] = img[i_r + di + r];
+					for (s = 0; s < kHW; s++) {
+						diff = row[j_r + s] - shiftedRow[j_r + dj + s];
+						sum += diff * diff;
 					}
 				}
-				roll_mat[iroll][jroll] = mat[i][j];
+				distances[(di + nHW) * Ns + dj + nHW] = sum;
+				if (sum < threshold) {
+					count++;
+				}
 			}
 		}
-		return roll_mat;
+		
+		// Partial insertion sort, which keeps equal distances in index order
+		n = 0;
+		for (p = 0; p < Ns * Ns; p++) {
+			sum = distances[p];
+			if ((n == NHW) && (sum >= bestDistances[n - 1])) {
+				continue;
+			}
+			r = (n < NHW) ? n++ : NHW - 1;
+			while ((r > 0) && (bestDistances[r - 1] > sum)) {
+				best[r] = best[r - 1];
+				bestDistances[r] = bestDistances[r - 1];
+				r--;
+			}
+			best[r] = p;
+			bestDistances[r] = sum;
+		}
+		best[0] = (Ns * Ns - 1)/2;
+		
+		return closest_power_of_2(count, NHW);
+	}
+	
+	private int closest_power_of_2(int M, int max_) {
+	    int M_out = Math.min(M, max_);
+        while (max_ > 1) {
+        	if ((max_/2 < M_out) && (max_ > M_out)) {
+        		M_out = max_/2;
+        	}
+        	max_ = max_/2;
+        }
+        return M_out;
 	}
 	
 	private double[][] get_kaiserWindow(int kHW) {
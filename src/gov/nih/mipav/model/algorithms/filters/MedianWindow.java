@@ -0,0 +1,409 @@
+package gov.nih.mipav.model.algorithms.filters;
+
+
+import java.util.Arrays;
+import java.util.BitSet;
+
+
+/**
+ * Median of a kernel that slides along the rows of a border buffer, used by AlgorithmMedian for the standard median
+ * filter. Images holding only integer values, such as byte and short images, keep a histogram of the window that is
+ * updated with the pixels entering and leaving it as the window moves one column (the method of Huang, with the running
+ * median bin of Perreault and Hebert), so a pixel costs the pixels of the kernel edge instead of a sort of the whole
+ * kernel. Other images select the median of each window with a quickselect.
+ *
+ * <p>Both give exactly the value AlgorithmMedian.median returns for the sorted neighbor list, including the mean of the
+ * two middle values for kernels with an even number of pixels. A window holds state, so every thread needs its own.</p>
+ */
+final class MedianWindow {
+
+    //~ Static fields/initializers -------------------------------------------------------------------------------------
+
+    /** Largest number of histogram bins, the range of an unsigned short image. */
+    static final int MAX_HISTOGRAM_BINS = 65536;
+
+    //~ Instance fields ------------------------------------------------------------------------------------------------
+
+    /** Offsets in the border buffer of the kernel pixels, relative to the center pixel. */
+    private final int[] offsets;
+
+    /** Offsets of the pixels that enter the window when it moves one column, relative to the new center. */
+    private final int[] addOffsets;
+
+    /** Offsets of the pixels that leave the window when it moves one column, relative to the old center. */
+    private final int[] removeOffsets;
+
+    /** Position in the sorted kernel of the median, or of the lower of the two middle values. */
+    private final int rank;
+
+    /** True when the kernel has an even number of pixels and the median is the mean of two values. */
+    private final boolean even;
+
+    /** Histogram of the window, or null when the median is selected. */
+    private final int[] histogram;
+
+    /** Value counted in the first bin of the histogram. */
+    private final int histogramMin;
+
+    /** Bin holding the value at rank, updated as the window moves. */
+    private int medianBin;
+
+    /** Number of pixels of the window in the bins below medianBin. */
+    private int below;
+
+    /** Pixels of the window, reordered by the quickselect. */
+    private final float[] list;
+
+    //~ Constructors ---------------------------------------------------------------------------------------------------
+
+    /**
+     * Creates a window for a kernel.
+     *
+     * @param  kernel        the kernel, non-zero for the pixels it uses
+     * @param  kernelCenter  index in kernel of its center
+     * @param  halfK         half the kernel size
+     * @param  is2D          true for a kernel within a slice, false for a kernel of a volume
+     * @param  width         width of the border buffer
+     * @param  height        height of the border buffer
+     * @param  range         lowest value and number of bins as returned by histogramRange(), or null to select the
+     *                       median of the kernel pixels
+     */
+    MedianWindow(final byte[] kernel, final int kernelCenter, final int halfK, final boolean is2D, final int width,
+            final int height, final int[] range) {
+        final int kernelSize = (2 * halfK) + 1;
+        final int sliceHalf = is2D ? 0 : halfK;
+        final int[] all = new int[kernel.length];
+        final int[] entering = new int[kernel.length];
+        final int[] leaving = new int[kernel.length];
+        int count = 0;
+        int nAdd = 0;
+        int nRemove = 0;
+
+        for (int slice = -sliceHalf; slice <= sliceHalf; slice++) {
+
+            for (int row = -halfK; row <= halfK; row++) {
+
+                for (int col = -halfK; col <= halfK; col++) {
+                    final int k = kernelCenter + col + (row * kernelSize) + (slice * kernelSize * kernelSize);
+
+                    if (kernel[k] == 0) {
+                        continue;
+                    }
+
+                    final int offset = col + (row * width) + (slice * width * height);
+
+                    all[count++] = offset;
+
+                    // the pixel enters at the right edge of the window unless its right neighbor is in the kernel
+                    if ( (col == halfK) || (kernel[k + 1] == 0)) {
+                        entering[nAdd++] = offset;
+                    }
+
+                    if ( (col == -halfK) || (kernel[k - 1] == 0)) {
+                        leaving[nRemove++] = offset;
+                    }
+                }
+            }
+        }
+
+        offsets = Arrays.copyOf(all, count);
+        addOffsets = Arrays.copyOf(entering, nAdd);
+        removeOffsets = Arrays.copyOf(leaving, nRemove);
+        rank = (count - 1) / 2;
+        even = ((count - 1) % 2) != 0;
+
+        if (range != null) {
+            histogramMin = range[0];
+            histogram = new int[range[1]];
+            list = null;
+        } else {
+            histogramMin = 0;
+            histogram = null;
+            list = new float[count];
+        }
+    }
+
+    //~ Methods --------------------------------------------------------------------------------------------------------
+
+    /**
+     * Finds whether the values of a buffer can be counted in a histogram: they must all be integers, without negative
+     * zero, spanning at most MAX_HISTOGRAM_BINS values.
+     *
+     * @param   data  the buffer
+     * @param   from  index of the first value to check
+     * @param   to    index after the last value to check
+     *
+     * @return  the lowest value and the number of bins, or null if the median has to be selected
+     */
+    static int[] histogramRange(final float[] data, final int from, final int to) {
+        int min = Integer.MAX_VALUE;
+        int max = Integer.MIN_VALUE;
+
+        for (int i = from; i < to; i++) {
+            final float value = data[i];
+            final int intValue = (int) value;
+
+            if ( (intValue != value) || (Float.floatToRawIntBits(value) == 0x80000000)) {
+                return null;
+            }
+
+            if (intValue < min) {
+                min = intValue;
+            }
+
+            if (intValue > max) {
+                max = intValue;
+            }
+
+            if ( ((long) max - min) >= MedianWindow.MAX_HISTOGRAM_BINS) {
+                return null;
+            }
+        }
+
+        if (min > max) {
+            return null;
+        }
+
+        return new int[] {min, max - min + 1};
+    }
+
+    /**
+     * Filters a row.
+     *
+     * @param  src       the border buffer
+     * @param  srcIdx    index in src of the center of the first pixel of the row
+     * @param  dest      the destination buffer
+     * @param  destIdx   index in dest of the first pixel of the row
+     * @param  length    number of pixels in the row
+     * @param  mask      pixels to filter, indexed like dest, or null to filter the whole row. The other pixels are
+     *                   copied from src.
+     */
+    void filterRow(final float[] src, final int srcIdx, final float[] dest, final int destIdx, final int length,
+            final BitSet mask) {
+
+        if (histogram != null) {
+            histogramRow(src, srcIdx, dest, destIdx, length, mask);
+        } else {
+            selectRow(src, srcIdx, dest, destIdx, length, mask);
+        }
+    }
+
+    /**
+     * Adds a value to the histogram.
+     *
+     * @param  value  the value
+     */
+    private void add(final float value) {
+        final int bin = (int) value - histogramMin;
+
+        histogram[bin]++;
+
+        if (bin < medianBin) {
+            below++;
+        }
+    }
+
+    /**
+     * Filters a row with the sliding histogram.
+     *
+     * @param  src      the border buffer
+     * @param  srcIdx   index in src of the center of the first pixel of the row
+     * @param  dest     the destination buffer
+     * @param  destIdx  index in dest of the first pixel of the row
+     * @param  length   number of pixels in the row
+     * @param  mask     pixels to filter, or null to filter the whole row
+     */
+    private void histogramRow(final float[] src, final int srcIdx, final float[] dest, final int destIdx,
+            final int length, final BitSet mask) {
+
+        for (int i = 0; i < offsets.length; i++) {
+            add(src[srcIdx + offsets[i]]);
+        }
+
+        for (int col = 0; col < length; col++) {
+            final int center = srcIdx + col;
+
+            if (col > 0) {
+
+                for (int i = 0; i < removeOffsets.length; i++) {
+                    remove(src[center - 1 + removeOffsets[i]]);
+                }
+
+                for (int i = 0; i < addOffsets.length; i++) {
+                    add(src[center + addOffsets[i]]);
+                }
+            }
+
+            if ( (mask != null) && !mask.get(destIdx + col)) {
+                dest[destIdx + col] = src[center];
+
+                continue;
+            }
+
+            // move the median bin until it holds the value at rank
+            while (below > rank) {
+                medianBin--;
+                below -= histogram[medianBin];
+            }
+
+            while ( (below + histogram[medianBin]) <= rank) {
+                below += histogram[medianBin];
+                medianBin++;
+            }
+
+            final float med = medianBin + histogramMin;
+
+            if ( !even) {
+                dest[destIdx + col] = med;
+            } else {
+                int next = medianBin;
+
+                if ( (below + histogram[medianBin]) <= (rank + 1)) {
+                    next++;
+
+                    while (histogram[next] == 0) {
+                        next++;
+                    }
+                }
+
+                dest[destIdx + col] = (med + (float) (next + histogramMin)) / 2;
+            }
+        }
+
+        // empty the histogram for the next row, keeping the median bin where it is likely to be
+        final int last = srcIdx + length - 1;
+
+        for (int i = 0; i < offsets.length; i++) {
+            remove(src[last + offsets[i]]);
+        }
+    }
+
+    /**
+     * Removes a value from the histogram.
+     *
+     * @param  value  the value
+     */
+    private void remove(final float value) {
+        final int bin = (int) value - histogramMin;
+
+        histogram[bin]--;
+
+        if (bin < medianBin) {
+            below--;
+        }
+    }
+
+    /**
+     * Finds the value at position k of the first n values of a list once sorted as Arrays.sort would, leaving the
+     * values after k no less than it.
+     *
+     * @param   a  the list, which is reordered
+     * @param   n  number of values
+     * @param   k  position of the value to find
+     *
+     * @return  the value at position k
+     */
+    private static float select(final float[] a, final int n, final int k) {
+        int lo = 0;
+        int hi = n - 1;
+
+        while (hi > lo) {
+            final int mid = (lo + hi) >>> 1;
+            float pivot = a[mid];
+
+            // median of three, compared with the order Arrays.sort uses for floats
+            if (Float.compare(a[lo], pivot) > 0) {
+
+                if (Float.compare(a[lo], a[hi]) < 0) {
+                    pivot = a[lo];
+                } else if (Float.compare(pivot, a[hi]) < 0) {
+                    pivot = a[hi];
+                }
+            } else if (Float.compare(a[lo], pivot) < 0) {
+
+                if (Float.compare(a[hi], a[lo]) < 0) {
+                    pivot = a[lo];
+                } else if (Float.compare(a[hi], pivot) < 0) {
+                    pivot = a[hi];
+                }
+            }
+
+            int i = lo;
+            int j = hi;
+
+            while (i <= j) {
+
+                while (Float.compare(a[i], pivot) < 0) {
+                    i++;
+                }
+
+                while (Float.compare(a[j], pivot) > 0) {
+                    j--;
+                }
+
+                if (i <= j) {
+                    final float temp = a[i];
+
+                    a[i++] = a[j];
+                    a[j--] = temp;
+                }
+            }
+
+            if (k <= j) {
+                hi = j;
+            } else if (k >= i) {
+                lo = i;
+            } else {
+                break;
+            }
+        }
+
+        return a[k];
+    }
+
+    /**
+     * Filters a row by selecting the median of every window.
+     *
+     * @param  src      the border buffer
+     * @param  srcIdx   index in src of the center of the first pixel of the row
+     * @param  dest     the destination buffer
+     * @param  destIdx  index in dest of the first pixel of the row
+     * @param  length   number of pixels in the row
+     * @param  mask     pixels to filter, or null to filter the whole row
+     */
+    private void selectRow(final float[] src, final int srcIdx, final float[] dest, final int destIdx,
+            final int length, final BitSet mask) {
+        final int n = offsets.length;
+
+        for (int col = 0; col < length; col++) {
+            final int center = srcIdx + col;
+
+            if ( (mask != null) && !mask.get(destIdx + col)) {
+                dest[destIdx + col] = src[center];
+
+                continue;
+            }
+
+            for (int i = 0; i < n; i++) {
+                list[i] = src[center + offsets[i]];
+            }
+
+            final float med = MedianWindow.select(list, n, rank);
+
+            if ( !even) {
+                dest[destIdx + col] = med;
+            } else {
+                float next = list[rank + 1];
+
+                for (int i = rank + 2; i < n; i++) {
+
+                    if (Float.compare(list[i], next) < 0) {
+                        next = list[i];
+                    }
+                }
+
+                dest[destIdx + col] = (med + next) / 2;
+            }
+        }
+    }
+}
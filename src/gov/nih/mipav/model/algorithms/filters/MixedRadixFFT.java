@@ -0,0 +1,736 @@
+package gov.nih.mipav.model.algorithms.filters;
+
+
+import java.util.concurrent.ConcurrentHashMap;
+
+
+/**
+ * One dimensional complex fast fourier transform of any length. Lengths whose prime factors are small are transformed
+ * with a self-contained mixed radix (4, 2, 3 and generic odd radix) decimation in time algorithm. Lengths with a large
+ * prime factor are transformed with Bluestein's chirp z algorithm, which turns the transform into a convolution of
+ * power of two length.
+ *
+ * <p>A plan holds the digit reversal permutation and the twiddle tables of one length. Plans are created once per
+ * length by getInstance() and shared, and a plan may be used by several threads at the same time. The transforms are
+ * not normalized: a forward transform followed by an inverse transform multiplies the data by the length.</p>
+ *
+ * <p>The sign gives the sign of the exponent, so sign -1 computes X[k] = sum over j of x[j] * exp(-2 pi i j k / n).
+ * Lines of the image buffers used by AlgorithmFFT and AlgorithmFrequencyFilter can be transformed in place with a
+ * stride, without copying them out first.</p>
+ *
+ * <p>References: C. Temperton, Self-sorting mixed-radix fast fourier transforms, Journal of Computational Physics 52,
+ * 1983, pp. 1-23. L. I. Bluestein, A linear filtering approach to the computation of discrete fourier transform, IEEE
+ * Transactions on Audio and Electroacoustics 18, 1970, pp. 451-455.</p>
+ *
+ * @see  AlgorithmFFT
+ */
+public class MixedRadixFFT {
+
+    //~ Static fields/initializers -------------------------------------------------------------------------------------
+
+    /** Largest prime factor transformed with a generic radix butterfly, larger ones use Bluestein's algorithm. */
+    private static final int MAX_RADIX = 37;
+
+    /** Plans that have been created, by length. */
+    private static final ConcurrentHashMap<Integer, MixedRadixFFT> plans =
+        new ConcurrentHashMap<Integer, MixedRadixFFT>();
+
+    //~ Instance fields ------------------------------------------------------------------------------------------------
+
+    /** Transform length. */
+    private final int n;
+
+    /** Radices of the butterfly stages, in the order they are applied. Null for Bluestein plans. */
+    private int[] factors;
+
+    /** Index in the input of each position of the digit reversed work buffer. */
+    private int[] permutation;
+
+    /** cos(2 pi k / n) for k from 0 to n - 1. */
+    private double[] cosTable;
+
+    /** sin(2 pi k / n) for k from 0 to n - 1. */
+    private double[] sinTable;
+
+    /** Real part of the Bluestein chirp exp(-pi i k^2 / n). */
+    private double[] chirpReal;
+
+    /** Imaginary part of the Bluestein chirp. */
+    private double[] chirpImag;
+
+    /** Real part of the transform of the Bluestein convolution kernel. */
+    private double[] kernelReal;
+
+    /** Imaginary part of the transform of the Bluestein convolution kernel. */
+    private double[] kernelImag;
+
+    /** Power of two plan of the Bluestein convolution. */
+    private MixedRadixFFT convolution;
+
+    /** Work buffers of each thread using this plan. */
+    private final ThreadLocal<double[][]> work = new ThreadLocal<double[][]>();
+
+    //~ Constructors ---------------------------------------------------------------------------------------------------
+
+    /**
+     * Creates the plan of one length.
+     *
+     * @param  n  transform length
+     */
+    private MixedRadixFFT(final int n) {
+        this.n = n;
+
+        cosTable = new double[n];
+        sinTable = new double[n];
+
+        for (int k = 0; k < n; k++) {
+            double angle = 2.0 * Math.PI * k / n;
+
+            cosTable[k] = Math.cos(angle);
+            sinTable[k] = Math.sin(angle);
+        }
+
+        int[] primes = factor(n);
+        int largest = (primes.length == 0) ? 1 : primes[primes.length - 1];
+
+        if (largest > MAX_RADIX) {
+            makeBluestein();
+        } else {
+            makeMixedRadix(primes);
+        }
+    }
+
+    //~ Methods --------------------------------------------------------------------------------------------------------
+
+    /**
+     * Returns the shared plan of a length.
+     *
+     * @param   n  transform length, at least 1
+     *
+     * @return  the plan
+     */
+    public static MixedRadixFFT getInstance(final int n) {
+
+        if (n < 1) {
+            throw new IllegalArgumentException("FFT length must be positive: " + n);
+        }
+
+        MixedRadixFFT plan = plans.get(n);
+
+        if (plan == null) {
+            plan = new MixedRadixFFT(n);
+
+            MixedRadixFFT existing = plans.putIfAbsent(n, plan);
+
+            if (existing != null) {
+                plan = existing;
+            }
+        }
+
+        return plan;
+    }
+
+    /**
+     * Returns the smallest even length, not less than n, whose prime factors are all 2, 3, 5 or 7. Such lengths are
+     * transformed fastest, and even lengths keep the centre of the spectrum on a sample, so data padded to them can be
+     * centered the same way as data padded to a power of two. A length of 1 is returned unchanged.
+     *
+     * @param   n  minimum length
+     *
+     * @return  the padded length
+     */
+    public static int nextFastLength(final int n) {
+
+        if (n <= 1) {
+            return 1;
+        }
+
+        for (int length = n + (n & 1);; length += 2) {
+            int rest = length;
+
+            for (int p = 2; p <= 7; p++) {
+
+                while ((rest % p) == 0) {
+                    rest /= p;
+                }
+            }
+
+            if (rest == 1) {
+                return length;
+            }
+        }
+    }
+
+    /**
+     * Returns the prime factors of a number in increasing order.
+     *
+     * @param   number  number to factor
+     *
+     * @return  the prime factors, repeated as often as they divide the number
+     */
+    private static int[] factor(final int number) {
+        int[] primes = new int[32];
+        int count = 0;
+        int rest = number;
+
+        for (int p = 2; ((long) p * p) <= rest; p++) {
+
+            while ((rest % p) == 0) {
+                primes[count++] = p;
+                rest /= p;
+            }
+        }
+
+        if (rest > 1) {
+            primes[count++] = rest;
+        }
+
+        int[] result = new int[count];
+        System.arraycopy(primes, 0, result, 0, count);
+
+        return result;
+    }
+
+    /**
+     * Returns the transform length.
+     *
+     * @return  the length
+     */
+    public int getLength() {
+        return n;
+    }
+
+    /**
+     * Transforms the first n values of re and im in place.
+     *
+     * @param  re    real parts
+     * @param  im    imaginary parts
+     * @param  sign  sign of the exponent, -1 or 1
+     */
+    public void transform(final double[] re, final double[] im, final int sign) {
+        transform(re, im, 0, 1, sign);
+    }
+
+    /**
+     * Transforms a line of n values in place.
+     *
+     * @param  re      real parts
+     * @param  im      imaginary parts
+     * @param  offset  index of the first value of the line
+     * @param  stride  distance between consecutive values of the line
+     * @param  sign    sign of the exponent, -1 or 1
+     */
+    public void transform(final double[] re, final double[] im, final int offset, final int stride, final int sign) {
+        double[][] buffers = getWork();
+        double[] wr = buffers[0];
+        double[] wi = buffers[1];
+
+        if (factors == null) {
+
+            for (int i = 0, j = offset; i < n; i++, j += stride) {
+                wr[i] = re[j];
+                wi[i] = im[j];
+            }
+
+            bluestein(wr, wi, sign, buffers);
+        } else {
+
+            for (int i = 0; i < n; i++) {
+                int j = offset + (permutation[i] * stride);
+
+                wr[i] = re[j];
+                wi[i] = im[j];
+            }
+
+            butterflies(wr, wi, sign, buffers[2], buffers[3]);
+        }
+
+        for (int i = 0, j = offset; i < n; i++, j += stride) {
+            re[j] = wr[i];
+            im[j] = wi[i];
+        }
+    }
+
+    /**
+     * Transforms a line of n values in place. The arithmetic is done in double precision.
+     *
+     * @param  re      real parts
+     * @param  im      imaginary parts
+     * @param  offset  index of the first value of the line
+     * @param  stride  distance between consecutive values of the line
+     * @param  sign    sign of the exponent, -1 or 1
+     */
+    public void transform(final float[] re, final float[] im, final int offset, final int stride, final int sign) {
+        double[][] buffers = getWork();
+        double[] wr = buffers[0];
+        double[] wi = buffers[1];
+
+        if (factors == null) {
+
+            for (int i = 0, j = offset; i < n; i++, j += stride) {
+                wr[i] = re[j];
+                wi[i] = im[j];
+            }
+
+            bluestein(wr, wi, sign, buffers);
+        } else {
+
+            for (int i = 0; i < n; i++) {
+                int j = offset + (permutation[i] * stride);
+
+                wr[i] = re[j];
+                wi[i] = im[j];
+            }
+
+            butterflies(wr, wi, sign, buffers[2], buffers[3]);
+        }
+
+        for (int i = 0, j = offset; i < n; i++, j += stride) {
+            re[j] = (float) wr[i];
+            im[j] = (float) wi[i];
+        }
+    }
+
+    /**
+     * Transforms a line of n real values in place. The imaginary parts of the line are ignored on input and receive
+     * the imaginary parts of the spectrum. For even lengths the n real values are transformed as a complex sequence of
+     * half the length, which halves the work of a complex transform.
+     *
+     * @param  re      real parts
+     * @param  im      imaginary parts
+     * @param  offset  index of the first value of the line
+     * @param  stride  distance between consecutive values of the line
+     * @param  sign    sign of the exponent, -1 or 1
+     */
+    public void realTransform(final float[] re, final float[] im, final int offset, final int stride,
+            final int sign) {
+
+        if (((n & 1) != 0) || (n == 2)) {
+
+            for (int i = 0, j = offset; i < n; i++, j += stride) {
+                im[j] = 0f;
+            }
+
+            transform(re, im, offset, stride, sign);
+
+            return;
+        }
+
+        int half = n / 2;
+        MixedRadixFFT halfPlan = getInstance(half);
+        double[][] buffers = getWork();
+        double[] zr = buffers[0];
+        double[] zi = buffers[1];
+
+        for (int i = 0, j = offset; i < half; i++, j += 2 * stride) {
+            zr[i] = re[j];
+            zi[i] = re[j + stride];
+        }
+
+        halfPlan.transform(zr, zi, 0, 1, -1);
+        unpackReal(zr, zi, half);
+
+        // the spectrum of real data is conjugate symmetric, and the sign only conjugates it
+        for (int k = 0, j = offset; k <= half; k++, j += stride) {
+            re[j] = (float) zr[k];
+            im[j] = (float) (-sign * zi[k]);
+        }
+
+        for (int k = half + 1, j = offset + ((half + 1) * stride); k < n; k++, j += stride) {
+            re[j] = (float) zr[n - k];
+            im[j] = (float) (sign * zi[n - k]);
+        }
+    }
+
+    /**
+     * Transforms a line of n real values in place. The imaginary parts of the line are ignored on input and receive
+     * the imaginary parts of the spectrum.
+     *
+     * @param  re      real parts
+     * @param  im      imaginary parts
+     * @param  offset  index of the first value of the line
+     * @param  stride  distance between consecutive values of the line
+     * @param  sign    sign of the exponent, -1 or 1
+     */
+    public void realTransform(final double[] re, final double[] im, final int offset, final int stride,
+            final int sign) {
+
+        if (((n & 1) != 0) || (n == 2)) {
+
+            for (int i = 0, j = offset; i < n; i++, j += stride) {
+                im[j] = 0;
+            }
+
+            transform(re, im, offset, stride, sign);
+
+            return;
+        }
+
+        int half = n / 2;
+        MixedRadixFFT halfPlan = getInstance(half);
+        double[][] buffers = getWork();
+        double[] zr = buffers[0];
+        double[] zi = buffers[1];
+
+        for (int i = 0, j = offset; i < half; i++, j += 2 * stride) {
+            zr[i] = re[j];
+            zi[i] = re[j + stride];
+        }
+
+        halfPlan.transform(zr, zi, 0, 1, -1);
+        unpackReal(zr, zi, half);
+
+        for (int k = 0, j = offset; k <= half; k++, j += stride) {
+            re[j] = zr[k];
+            im[j] = -sign * zi[k];
+        }
+
+        for (int k = half + 1, j = offset + ((half + 1) * stride); k < n; k++, j += stride) {
+            re[j] = zr[n - k];
+            im[j] = sign * zi[n - k];
+        }
+    }
+
+    /**
+     * Computes the first half + 1 bins of the forward (sign -1) transform of 2 * half real values from the transform
+     * of the complex sequence of their even and odd values. The transform with sign 1 is the conjugate of these bins.
+     *
+     * @param  zr    real parts of the half length transform, at least half + 1 long
+     * @param  zi    imaginary parts of the half length transform, at least half + 1 long
+     * @param  half  half of the transform length
+     */
+    private void unpackReal(final double[] zr, final double[] zi, final int half) {
+        zr[half] = zr[0];
+        zi[half] = zi[0];
+
+        for (int k = 0; k <= (half / 2); k++) {
+            int m = half - k;
+            double er = 0.5 * (zr[k] + zr[m]);
+            double ei = 0.5 * (zi[k] - zi[m]);
+            double or = 0.5 * (zi[k] + zi[m]);
+            double oi = -0.5 * (zr[k] - zr[m]);
+            double c = cosTable[k];
+            double s = -sinTable[k];
+
+            // X[k] = E[k] + exp(-2 pi i k / n) O[k] and X[half - k] = conj(E[k]) - exp(-2 pi i (half - k) / n) conj(O[k])
+            double tr = (c * or) - (s * oi);
+            double ti = (c * oi) + (s * or);
+            double xkr = er + tr;
+            double xki = ei + ti;
+            double xmr = er - tr;
+            double xmi = -ei + ti;
+
+            zr[k] = xkr;
+            zi[k] = xki;
+            zr[m] = xmr;
+            zi[m] = xmi;
+        }
+    }
+
+    /**
+     * Returns the work buffers of the calling thread.
+     *
+     * @return  the real and imaginary work lines and the radix scratch buffers
+     */
+    private double[][] getWork() {
+        double[][] buffers = work.get();
+
+        if (buffers == null) {
+            int length = (convolution == null) ? (n + 1) : convolution.getLength();
+
+            buffers = new double[][] {
+                          new double[length], new double[length], new double[MAX_RADIX], new double[MAX_RADIX]
+                      };
+            work.set(buffers);
+        }
+
+        return buffers;
+    }
+
+    /**
+     * Sets up the factors and the digit reversal permutation of a mixed radix plan.
+     *
+     * @param  primes  prime factors of the length in increasing order
+     */
+    private void makeMixedRadix(final int[] primes) {
+        int twos = 0;
+        int count = 0;
+        int[] radices = new int[primes.length];
+
+        for (int i = 0; i < primes.length; i++) {
+
+            if (primes[i] == 2) {
+                twos++;
+            }
+        }
+
+        // pairs of 2s are done as radix 4 butterflies
+        for (int i = 0; i < (twos / 2); i++) {
+            radices[count++] = 4;
+        }
+
+        if ((twos & 1) != 0) {
+            radices[count++] = 2;
+        }
+
+        for (int i = twos; i < primes.length; i++) {
+            radices[count++] = primes[i];
+        }
+
+        factors = new int[count];
+        System.arraycopy(radices, 0, factors, 0, count);
+
+        // position sum r_s * L_(s-1) of the work buffer holds input index r_m + p_m * (r_(m-1) + p_(m-1) * (...))
+        permutation = new int[n];
+
+        int[] digits = new int[count];
+
+        for (int pos = 0; pos < n; pos++) {
+            int rest = pos;
+
+            for (int s = 0; s < count; s++) {
+                digits[s] = rest % factors[s];
+                rest /= factors[s];
+            }
+
+            int index = 0;
+
+            for (int s = 0; s < count; s++) {
+                index = digits[s] + (factors[s] * index);
+            }
+
+            permutation[pos] = index;
+        }
+    }
+
+    /**
+     * Sets up the chirp and the transformed convolution kernel of a Bluestein plan.
+     */
+    private void makeBluestein() {
+        int length = 1;
+
+        while (length < ((2 * n) - 1)) {
+            length <<= 1;
+        }
+
+        convolution = getInstance(length);
+        chirpReal = new double[n];
+        chirpImag = new double[n];
+        kernelReal = new double[length];
+        kernelImag = new double[length];
+
+        long twiceN = 2L * n;
+
+        for (int k = 0; k < n; k++) {
+
+            // k^2 is reduced modulo 2n before the angle is formed to keep it accurate for long transforms
+            double angle = Math.PI * (((long) k * k) % twiceN) / n;
+
+            chirpReal[k] = Math.cos(angle);
+            chirpImag[k] = -Math.sin(angle);
+            kernelReal[k] = chirpReal[k];
+            kernelImag[k] = -chirpImag[k];
+
+            if (k > 0) {
+                kernelReal[length - k] = chirpReal[k];
+                kernelImag[length - k] = -chirpImag[k];
+            }
+        }
+
+        convolution.transform(kernelReal, kernelImag, 0, 1, -1);
+    }
+
+    /**
+     * Runs the butterfly stages of a mixed radix plan on a digit reversed work line.
+     *
+     * @param  re    real parts in digit reversed order, replaced by the transform
+     * @param  im    imaginary parts in digit reversed order, replaced by the transform
+     * @param  sign  sign of the exponent, -1 or 1
+     * @param  tr    real scratch of MAX_RADIX values
+     * @param  ti    imaginary scratch of MAX_RADIX values
+     */
+    private void butterflies(final double[] re, final double[] im, final int sign, final double[] tr,
+            final double[] ti) {
+        int span = 1;
+
+        for (int s = 0; s < factors.length; s++) {
+            int p = factors[s];
+            int block = span * p;
+            int step = n / block;
+
+            for (int j = 0; j < span; j++) {
+                int t = j * step;
+
+                if (p == 4) {
+                    double c1 = cosTable[t];
+                    double s1 = sign * sinTable[t];
+                    double c2 = cosTable[2 * t];
+                    double s2 = sign * sinTable[2 * t];
+                    double c3 = cosTable[3 * t];
+                    double s3 = sign * sinTable[3 * t];
+
+                    for (int b = j; b < n; b += block) {
+                        int i1 = b + span;
+                        int i2 = i1 + span;
+                        int i3 = i2 + span;
+                        double r1 = (c1 * re[i1]) - (s1 * im[i1]);
+                        double m1 = (c1 * im[i1]) + (s1 * re[i1]);
+                        double r2 = (c2 * re[i2]) - (s2 * im[i2]);
+                        double m2 = (c2 * im[i2]) + (s2 * re[i2]);
+                        double r3 = (c3 * re[i3]) - (s3 * im[i3]);
+                        double m3 = (c3 * im[i3]) + (s3 * re[i3]);
+                        double ar = re[b] + r2;
+                        double ai = im[b] + m2;
+                        double br = re[b] - r2;
+                        double bi = im[b] - m2;
+                        double cr = r1 + r3;
+                        double ci = m1 + m3;
+
+                        // (r1 - r3) multiplied by the fourth root of unity sign * i
+                        double dr = -sign * (m1 - m3);
+                        double di = sign * (r1 - r3);
+
+                        re[b] = ar + cr;
+                        im[b] = ai + ci;
+                        re[i2] = ar - cr;
+                        im[i2] = ai - ci;
+                        re[i1] = br + dr;
+                        im[i1] = bi + di;
+                        re[i3] = br - dr;
+                        im[i3] = bi - di;
+                    }
+                } else if (p == 2) {
+                    double c1 = cosTable[t];
+                    double s1 = sign * sinTable[t];
+
+                    for (int b = j; b < n; b += block) {
+                        int i1 = b + span;
+                        double r1 = (c1 * re[i1]) - (s1 * im[i1]);
+                        double m1 = (c1 * im[i1]) + (s1 * re[i1]);
+
+                        re[i1] = re[b] - r1;
+                        im[i1] = im[b] - m1;
+                        re[b] += r1;
+                        im[b] += m1;
+                    }
+                } else if (p == 3) {
+                    double c1 = cosTable[t];
+                    double s1 = sign * sinTable[t];
+                    double c2 = cosTable[2 * t];
+                    double s2 = sign * sinTable[2 * t];
+                    double sin60 = sign * 0.5 * Math.sqrt(3.0);
+
+                    for (int b = j; b < n; b += block) {
+                        int i1 = b + span;
+                        int i2 = i1 + span;
+                        double r1 = (c1 * re[i1]) - (s1 * im[i1]);
+                        double m1 = (c1 * im[i1]) + (s1 * re[i1]);
+                        double r2 = (c2 * re[i2]) - (s2 * im[i2]);
+                        double m2 = (c2 * im[i2]) + (s2 * re[i2]);
+                        double sr = r1 + r2;
+                        double si = m1 + m2;
+                        double hr = re[b] - (0.5 * sr);
+                        double hi = im[b] - (0.5 * si);
+                        double dr = -sin60 * (m1 - m2);
+                        double di = sin60 * (r1 - r2);
+
+                        re[b] += sr;
+                        im[b] += si;
+                        re[i1] = hr + dr;
+                        im[i1] = hi + di;
+                        re[i2] = hr - dr;
+                        im[i2] = hi - di;
+                    }
+                } else {
+                    int unit = n / p;
+
+                    for (int b = j; b < n; b += block) {
+
+                        for (int r = 0; r < p; r++) {
+                            int i = b + (r * span);
+                            int k = (int) (((long) r * t) % n);
+                            double c = cosTable[k];
+                            double sn = sign * sinTable[k];
+
+                            tr[r] = (c * re[i]) - (sn * im[i]);
+                            ti[r] = (c * im[i]) + (sn * re[i]);
+                        }
+
+                        for (int q = 0; q < p; q++) {
+                            double sumr = tr[0];
+                            double sumi = ti[0];
+                            int k = 0;
+
+                            for (int r = 1; r < p; r++) {
+                                k += q;
+
+                                if (k >= p) {
+                                    k -= p;
+                                }
+
+                                double c = cosTable[k * unit];
+                                double sn = sign * sinTable[k * unit];
+
+                                sumr += (c * tr[r]) - (sn * ti[r]);
+                                sumi += (c * ti[r]) + (sn * tr[r]);
+                            }
+
+                            re[b + (q * span)] = sumr;
+                            im[b + (q * span)] = sumi;
+                        }
+                    }
+                }
+            }
+
+            span = block;
+        }
+    }
+
+    /**
+     * Transforms a work line with Bluestein's algorithm. The inverse transform is the conjugate of the forward
+     * transform of the conjugated data.
+     *
+     * @param  re       real parts in natural order, replaced by the transform
+     * @param  im       imaginary parts in natural order, replaced by the transform
+     * @param  sign     sign of the exponent, -1 or 1
+     * @param  buffers  work buffers of the calling thread, the first two are re and im
+     */
+    private void bluestein(final double[] re, final double[] im, final int sign, final double[][] buffers) {
+        int length = convolution.getLength();
+        double scale = 1.0 / length;
+
+        for (int k = 0; k < n; k++) {
+            double xr = re[k];
+            double xi = -sign * im[k];
+
+            // for sign 1 the data was conjugated above
+            re[k] = (xr * chirpReal[k]) - (xi * chirpImag[k]);
+            im[k] = (xr * chirpImag[k]) + (xi * chirpReal[k]);
+        }
+
+        for (int k = n; k < length; k++) {
+            re[k] = 0;
+            im[k] = 0;
+        }
+
+        convolution.transform(re, im, 0, 1, -1);
+
+        for (int k = 0; k < length; k++) {
+            double xr = re[k];
+            double xi = im[k];
+
+            re[k] = (xr * kernelReal[k]) - (xi * kernelImag[k]);
+            im[k] = (xr * kernelImag[k]) + (xi * kernelReal[k]);
+        }
+
+        convolution.transform(re, im, 0, 1, 1);
+
+        for (int k = 0; k < n; k++) {
+            double xr = re[k] * scale;
+            double xi = im[k] * scale;
+
+            re[k] = (xr * chirpReal[k]) - (xi * chirpImag[k]);
+            im[k] = -sign * ((xr * chirpImag[k]) + (xi * chirpReal[k]));
+        }
+    }
+}
@@ -2225,7 +2225,7 @@ public class AlgorithmRegELSUNCOAR3D extends AlgorithmBase implements AlgorithmI
             }
         }
         try {
-            doneSignal.await();
+            ThreadUtil.await(doneSignal);
         } catch (InterruptedException e) {
             e.printStackTrace();
         }
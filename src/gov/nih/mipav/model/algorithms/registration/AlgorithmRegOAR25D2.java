@@ -2737,7 +2737,7 @@ public class AlgorithmRegOAR25D2 extends AlgorithmBase {
             ThreadUtil.mipavThreadPool.execute(task);
         }
         try {
-            doneSignalx.await();
+            ThreadUtil.await(doneSignalx);
         } catch (final InterruptedException e) {
             gov.nih.mipav.view.MipavUtil.displayError(e.getMessage());
             return;
@@ -225,6 +225,9 @@ public class AlgorithmRegOAR3D extends AlgorithmBase implements AlgorithmInterfa
     /** Number of minima from level 8 to test at level 4. */
     private final int numMinima;
 
+    /** Reference image and levels shared with other registrations to the same reference, null if none. */
+    private ReferencePyramid referencePyramid = null;
+
     /** The inputImage will be registered to this reference image. */
     private ModelImage refImage;
 
@@ -740,7 +743,7 @@ public class AlgorithmRegOAR3D extends AlgorithmBase implements AlgorithmInterfa
      */
     public void disposeLocal() {
 
-        if (simpleRef != null) {
+        if ( (simpleRef != null) && (referencePyramid == null)) {
             simpleRef.disposeLocal(false);
         }
 
@@ -748,7 +751,7 @@ public class AlgorithmRegOAR3D extends AlgorithmBase implements AlgorithmInterfa
             simpleInput.disposeLocal(false);
         }
 
-        if (simpleRefSub2 != null) {
+        if ( (simpleRefSub2 != null) && (referencePyramid == null)) {
             simpleRefSub2.disposeLocal(false);
         }
 
@@ -756,7 +759,7 @@ public class AlgorithmRegOAR3D extends AlgorithmBase implements AlgorithmInterfa
             simpleInputSub2.disposeLocal(false);
         }
 
-        if (simpleRefSub4 != null) {
+        if ( (simpleRefSub4 != null) && (referencePyramid == null)) {
             simpleRefSub4.disposeLocal(false);
         }
 
@@ -764,7 +767,7 @@ public class AlgorithmRegOAR3D extends AlgorithmBase implements AlgorithmInterfa
             simpleInputSub4.disposeLocal(false);
         }
 
-        if (simpleRefSub8 != null) {
+        if ( (simpleRefSub8 != null) && (referencePyramid == null)) {
             simpleRefSub8.disposeLocal(false);
         }
 
@@ -1083,7 +1086,14 @@ public class AlgorithmRegOAR3D extends AlgorithmBase implements AlgorithmInterfa
 
         Preferences.debug(getConstructionInfo(),Preferences.DEBUG_ALGORITHM);
 
-        if (blurRef) {
+        final String referenceKey = Arrays.toString(sigmasRef) + Arrays.toString(resRefIso)
+                + Arrays.toString(extentsRefIso) + interp + doColor;
+
+        if (referencePyramid != null) {
+            simpleRef = referencePyramid.getReference(refImage, referenceKey);
+        }
+
+        if (blurRef && (simpleRef == null)) {
 
             if (doColor) {
                 blurredRef = new ModelImage(ModelStorageBase.ARGB_FLOAT, refImage.getExtents(), "BlurRef");
@@ -1160,7 +1170,10 @@ public class AlgorithmRegOAR3D extends AlgorithmBase implements AlgorithmInterfa
 
         // Resample blurred image of reference image into isotropic voxels
         
-        if (resampleRef) {
+        if (simpleRef != null) {
+            Preferences.debug("Reusing the shared reference image and its subsampled levels\n",
+                    Preferences.DEBUG_ALGORITHM);
+        } else if (resampleRef) {
             transform = new AlgorithmTransform(blurredRef, new TransMatrix(4), interp, resRefIso[0], resRefIso[1],
                     resRefIso[2], extentsRefIso[0], extentsRefIso[1], extentsRefIso[2], false, true, false);
             transform.setRunningInSeparateThread(runningInSeparateThread);
@@ -1197,6 +1210,10 @@ public class AlgorithmRegOAR3D extends AlgorithmBase implements AlgorithmInterfa
                     blurredRef);
         }
 
+        if (referencePyramid != null) {
+            simpleRef = referencePyramid.putReference(refImage, referenceKey, simpleRef);
+        }
+
         maxDim = simpleRef.xDim;
 
         if (simpleRef.yDim > maxDim) {
@@ -1562,13 +1579,13 @@ public class AlgorithmRegOAR3D extends AlgorithmBase implements AlgorithmInterfa
             if ( (simpleRef.dataSize > subMinFactor) && (simpleInput.dataSize > subMinFactor) && allowLevel2XY
                     && allowLevel2Z && (simpleRef.zDim >= AlgorithmRegOAR3D.minimumZForSub)
                     && (simpleInput.zDim >= AlgorithmRegOAR3D.minimumZForSub) && doSubsample) {
-                simpleRefSub2 = AlgorithmRegOAR3D.subsampleBy2(simpleRef, doColor);
+                simpleRefSub2 = subsampleReference(simpleRef, false);
                 simpleInputSub2 = AlgorithmRegOAR3D.subsampleBy2(simpleInput, doColor);
                 level1FactorXY = 2.0f;
                 level1FactorZ = 2.0f;
             } else if ( (simpleRef.dataSize > subMinFactor) && (simpleInput.dataSize > subMinFactor) && allowLevel2XY
                     && doSubsample) {
-                simpleRefSub2 = AlgorithmRegOAR3D.subsampleBy2XY(simpleRef, doColor);
+                simpleRefSub2 = subsampleReference(simpleRef, true);
                 simpleInputSub2 = AlgorithmRegOAR3D.subsampleBy2XY(simpleInput, doColor);
                 level1FactorXY = 2.0f;
             } else {
@@ -1589,13 +1606,13 @@ public class AlgorithmRegOAR3D extends AlgorithmBase implements AlgorithmInterfa
             if ( (simpleRefSub2.dataSize > subMinFactor) && (simpleInputSub2.dataSize > subMinFactor) && allowLevel4XY
                     && allowLevel4Z && (simpleRefSub2.zDim >= AlgorithmRegOAR3D.minimumZForSub)
                     && (simpleInputSub2.zDim >= AlgorithmRegOAR3D.minimumZForSub) && doSubsample) {
-                simpleRefSub4 = AlgorithmRegOAR3D.subsampleBy2(simpleRefSub2, doColor);
+                simpleRefSub4 = subsampleReference(simpleRefSub2, false);
                 simpleInputSub4 = AlgorithmRegOAR3D.subsampleBy2(simpleInputSub2, doColor);
                 level2FactorXY = 2.0f;
                 level2FactorZ = 2.0f;
             } else if ( (simpleRefSub2.dataSize > subMinFactor) && (simpleInputSub2.dataSize > subMinFactor)
                     && allowLevel4XY && doSubsample) {
-                simpleRefSub4 = AlgorithmRegOAR3D.subsampleBy2XY(simpleRefSub2, doColor);
+                simpleRefSub4 = subsampleReference(simpleRefSub2, true);
                 simpleInputSub4 = AlgorithmRegOAR3D.subsampleBy2XY(simpleInputSub2, doColor);
                 level2FactorXY = 2.0f;
             } else {
@@ -1616,7 +1633,7 @@ public class AlgorithmRegOAR3D extends AlgorithmBase implements AlgorithmInterfa
             if ( (simpleRefSub4.dataSize > subMinFactor) && (simpleInputSub4.dataSize > subMinFactor) && allowLevel8XY
                     && allowLevel8Z && (simpleRefSub4.zDim >= AlgorithmRegOAR3D.minimumZForSub)
                     && (simpleInputSub4.zDim >= AlgorithmRegOAR3D.minimumZForSub) && doSubsample) {
-                simpleRefSub8 = AlgorithmRegOAR3D.subsampleBy2(simpleRefSub4, doColor);
+                simpleRefSub8 = subsampleReference(simpleRefSub4, false);
                 simpleInputSub8 = AlgorithmRegOAR3D.subsampleBy2(simpleInputSub4, doColor);
                 level4FactorXY = 2.0f;
                 level4FactorZ = 2.0f;
@@ -1629,7 +1646,7 @@ public class AlgorithmRegOAR3D extends AlgorithmBase implements AlgorithmInterfa
                     ModelSimpleImage simpleInputSub16;
                     Preferences.debug("Sub sampled level 8 to 16  ***********\n",Preferences.DEBUG_ALGORITHM);
 
-                    simpleRefSub16 = AlgorithmRegOAR3D.subsampleBy2(simpleRefSub8, doColor);
+                    simpleRefSub16 = subsampleReference(simpleRefSub8, false);
                     simpleInputSub16 = AlgorithmRegOAR3D.subsampleBy2(simpleInputSub8, doColor);
 
                     simpleRefSub8 = simpleRefSub16;
@@ -1642,7 +1659,7 @@ public class AlgorithmRegOAR3D extends AlgorithmBase implements AlgorithmInterfa
                     ModelSimpleImage simpleInputSub16;
                     Preferences.debug("Sub sampled level 8 to 16 in XY ***********\n",Preferences.DEBUG_ALGORITHM);
 
-                    simpleRefSub16 = AlgorithmRegOAR3D.subsampleBy2XY(simpleRefSub8, doColor);
+                    simpleRefSub16 = subsampleReference(simpleRefSub8, true);
                     simpleInputSub16 = AlgorithmRegOAR3D.subsampleBy2XY(simpleInputSub8, doColor);
 
                     simpleRefSub8 = simpleRefSub16;
@@ -1651,7 +1668,7 @@ public class AlgorithmRegOAR3D extends AlgorithmBase implements AlgorithmInterfa
                 }
             } else if ( (simpleRefSub4.dataSize > subMinFactor) && (simpleInputSub4.dataSize > subMinFactor)
                     && allowLevel8XY && doSubsample) {
-                simpleRefSub8 = AlgorithmRegOAR3D.subsampleBy2XY(simpleRefSub4, doColor);
+                simpleRefSub8 = subsampleReference(simpleRefSub4, true);
                 simpleInputSub8 = AlgorithmRegOAR3D.subsampleBy2XY(simpleInputSub4, doColor);
                 level4FactorXY = 2.0f;
 
@@ -1662,7 +1679,7 @@ public class AlgorithmRegOAR3D extends AlgorithmBase implements AlgorithmInterfa
                     ModelSimpleImage simpleInputSub16;
                     Preferences.debug("Sub sampled level 8 to 16 in XY ***********\n",Preferences.DEBUG_ALGORITHM);
 
-                    simpleRefSub16 = AlgorithmRegOAR3D.subsampleBy2XY(simpleRefSub8, doColor);
+                    simpleRefSub16 = subsampleReference(simpleRefSub8, true);
                     simpleInputSub16 = AlgorithmRegOAR3D.subsampleBy2XY(simpleInputSub8, doColor);
 
                     simpleRefSub8 = simpleRefSub16;
@@ -1793,6 +1810,16 @@ public class AlgorithmRegOAR3D extends AlgorithmBase implements AlgorithmInterfa
         // Profile.shutdown();
     }
 
+    /**
+     * Shares the blurred, resampled reference image and its subsampled levels with the other registrations given the
+     * same pyramid, so that a batch registering many images to one reference builds them only once.
+     * 
+     * @param pyramid the shared reference pyramid, or null to build the reference levels for this run only
+     */
+    public void setReferencePyramid(final ReferencePyramid pyramid) {
+        referencePyramid = pyramid;
+    }
+
     /**
      * Turns the full version of Powell's algorithm on/off.
      * @param bOn
@@ -1826,6 +1853,53 @@ public class AlgorithmRegOAR3D extends AlgorithmBase implements AlgorithmInterfa
         return srcImage.subsample3dBy2XY(isColor);
     }
 
+    /**
+     * Measures the cost of each candidate transformation vector. The candidates are shared out among at most nthreads
+     * compute threads when multithreading is enabled; the GPU cost and the JTEM optimizer are measured on this thread.
+     * 
+     * @param powell optimizer whose cost function and origin the candidates are measured with
+     * @param points candidate transformation vectors
+     * 
+     * @return the cost of each candidate
+     */
+    private double[] measureCosts(final AlgorithmPowellOptBase powell, final double[][] points) {
+        final double[] costs = new double[points.length];
+        final int chunks = (doMultiThread && multiThreadingEnabled && !doJTEM && (m_kGPUCost == null)) ? Math.max(1,
+                Math.min(points.length, nthreads)) : 1;
+
+        ThreadUtil.parallelFor(chunks, chunks, new ThreadUtil.IndexedTask() {
+            public void run(final int index) {
+                final int from = (int) ((long) points.length * index / chunks);
+                final int to = (int) ((long) points.length * (index + 1) / chunks);
+
+                for (int i = from; (i < to) && !threadStopped; i++) {
+                    costs[i] = powell.measureCost(points[i]);
+                }
+            }
+        });
+
+        return costs;
+    }
+
+    /**
+     * Subsamples a level of the reference image by 2, reusing the level kept by the shared reference pyramid if there
+     * is one.
+     * 
+     * @param image reference image level to subsample
+     * @param xyOnly if true subsample in x and y only
+     * 
+     * @return the subsampled reference level
+     */
+    private ModelSimpleImage subsampleReference(final ModelSimpleImage image, final boolean xyOnly) {
+
+        if (referencePyramid != null) {
+            return referencePyramid.subsample(image, xyOnly, doColor);
+        }
+
+        return xyOnly ? AlgorithmRegOAR3D.subsampleBy2XY(image, doColor) : AlgorithmRegOAR3D.subsampleBy2(image,
+                doColor);
+    }
+
     /**
      * Creates a string with the parameters that the image was constructed with.
      * 
@@ -2223,7 +2297,7 @@ public class AlgorithmRegOAR3D extends AlgorithmBase implements AlgorithmInterfa
             }
         }
         try {
-            doneSignal.await();
+            ThreadUtil.await(doneSignal);
         } catch (InterruptedException e) {
             e.printStackTrace();
         }
@@ -2271,6 +2345,8 @@ public class AlgorithmRegOAR3D extends AlgorithmBase implements AlgorithmInterfa
         //System.out.println("coarseNumY and fineNumY " + coarseNumY + " " + fineNumY);
         //System.out.println("coarseNumZ and fineNumZ " + coarseNumZ + " " + fineNumZ);
 
+        final double[][] samples = new double[costs.length][];
+
         index = 0;
         for (int i = 0; (i < fineNumX) && !threadStopped; i++) {
 
@@ -2294,8 +2370,27 @@ public class AlgorithmRegOAR3D extends AlgorithmBase implements AlgorithmInterfa
                     }
                     interpolate(factorX, factorY, factorZ, initial, transforms, (DOF > 6));
                     initial[7] = initial[8] = initial[6];
-                    costs[index] = powell.measureCost(initial);
-                    matrixList[i][j][k] = new MatrixListItem(costs[index++], powell.convertToMatrix(initial), initial);
+                    samples[index++] = initial.clone();
+                }
+            }
+        }
+
+        if (threadStopped) {
+            return null;
+        }
+
+        // The fine samples are independent, so they are costed together.
+        System.arraycopy(measureCosts(powell, samples), 0, costs, 0, costs.length);
+
+        index = 0;
+        for (int i = 0; i < fineNumX; i++) {
+
+            for (int j = 0; j < fineNumY; j++) {
+
+                for (int k = 0; k < fineNumZ; k++) {
+                    matrixList[i][j][k] = new MatrixListItem(costs[index], powell.convertToMatrix(samples[index]),
+                            samples[index]);
+                    index++;
                 }
             }
         }
@@ -2564,24 +2659,25 @@ public class AlgorithmRegOAR3D extends AlgorithmBase implements AlgorithmInterfa
         }
         powell.setMinProgressValue((int) progressFrom);
         powell.setMaxProgressValue((int) (progressFrom + (progressTo - progressFrom) / 5));
-        for (final Enumeration<MatrixListItem> en = minima.elements(); en.hasMoreElements() && !threadStopped;) {
-            item = en.nextElement();
-            item.cost = powell.measureCost(item.initial);
-        }
+        // Both sets of minima are costed together.
+        final Vector<MatrixListItem> candidates = new Vector<MatrixListItem>(minima);
+        candidates.addAll(optMinima);
 
-        if (threadStopped) {
-            return null;
+        final double[][] points = new double[candidates.size()][];
+        for (int i = 0; i < points.length; i++) {
+            points[i] = candidates.elementAt(i).initial;
         }
 
-        for (final Enumeration<MatrixListItem> en = optMinima.elements(); en.hasMoreElements() && !threadStopped;) {
-            item = en.nextElement();
-            item.cost = powell.measureCost(item.initial);
-        }
+        final double[] candidateCosts = measureCosts(powell, points);
 
         if (threadStopped) {
             return null;
         }
 
+        for (int i = 0; i < points.length; i++) {
+            candidates.elementAt(i).cost = candidateCosts[i];
+        }
+
         Collections.sort(minima);
         Collections.sort(optMinima);
 
@@ -3088,4 +3184,127 @@ public class AlgorithmRegOAR3D extends AlgorithmBase implements AlgorithmInterfa
         }
     }
 
+
+    // ~ Inner Classes
+    // --------------------------------------------------------------------------------------------------
+
+    /**
+     * The blurred, isotropically resampled reference image and its subsampled levels, kept for a batch of
+     * registrations to the same reference image. The reference is rebuilt when a registration needs it blurred or
+     * resampled differently, for instance because its input image has other resolutions. The reference image must not
+     * change while the pyramid is in use. The levels belong to the pyramid rather than to the registrations; call
+     * disposeLocal once the batch is done.
+     */
+    public static class ReferencePyramid {
+
+        /** Identifies the reference image and the blurring and resampling it was built with. */
+        private String key;
+
+        /** The reference image the levels were built from. */
+        private ModelImage image;
+
+        /** The blurred, resampled reference image. */
+        private ModelSimpleImage reference;
+
+        /** The subsampled levels of each level; the first entry is subsampled in x, y and z, the second in x and y. */
+        private final Map<ModelSimpleImage, ModelSimpleImage[]> levels =
+                new IdentityHashMap<ModelSimpleImage, ModelSimpleImage[]>();
+
+        /**
+         * Releases the images held by the pyramid.
+         */
+        public synchronized void disposeLocal() {
+
+            if (reference != null) {
+                reference.disposeLocal(false);
+            }
+
+            for (final ModelSimpleImage[] subsampled : levels.values()) {
+
+                for (final ModelSimpleImage level : subsampled) {
+
+                    if (level != null) {
+                        level.disposeLocal(false);
+                    }
+                }
+            }
+
+            levels.clear();
+            reference = null;
+            image = null;
+            key = null;
+        }
+
+        /**
+         * Returns the reference built from an image with the given blurring and resampling.
+         * 
+         * @param refImage the reference image
+         * @param refKey description of the blurring and resampling
+         * 
+         * @return the shared reference, or null if it has not been built yet
+         */
+        private synchronized ModelSimpleImage getReference(final ModelImage refImage, final String refKey) {
+            return ( (refImage == image) && refKey.equals(key)) ? reference : null;
+        }
+
+        /**
+         * Shares a newly built reference, replacing one built differently. A reference built concurrently by another
+         * registration of the batch is kept instead.
+         * 
+         * @param refImage the reference image
+         * @param refKey description of the blurring and resampling
+         * @param built the reference built by the caller
+         * 
+         * @return the shared reference
+         */
+        private synchronized ModelSimpleImage putReference(final ModelImage refImage, final String refKey,
+                final ModelSimpleImage built) {
+
+            if ( (refImage == image) && refKey.equals(key)) {
+
+                if (built != reference) {
+                    built.disposeLocal(false);
+                }
+
+                return reference;
+            }
+
+            // registrations still running may hold the levels being replaced, so they are left to the collector
+            levels.clear();
+            image = refImage;
+            key = refKey;
+            reference = built;
+
+            return reference;
+        }
+
+        /**
+         * Subsamples a level by 2, building the result only the first time it is asked for.
+         * 
+         * @param level a level of the reference
+         * @param xyOnly if true subsample in x and y only
+         * @param isColor whether the level holds color data
+         * 
+         * @return the subsampled level
+         */
+        private synchronized ModelSimpleImage subsample(final ModelSimpleImage level, final boolean xyOnly,
+                final boolean isColor) {
+            ModelSimpleImage[] subsampled = levels.get(level);
+
+            if (subsampled == null) {
+                subsampled = new ModelSimpleImage[2];
+                levels.put(level, subsampled);
+            }
+
+            final int which = xyOnly ? 1 : 0;
+
+            if (subsampled[which] == null) {
+                subsampled[which] = xyOnly ? AlgorithmRegOAR3D.subsampleBy2XY(level, isColor) : AlgorithmRegOAR3D
+                        .subsampleBy2(level, isColor);
+            }
+
+            return subsampled[which];
+        }
+    }
+
 }
@@ -1109,7 +1109,7 @@ public class BSplineRegistration3Df extends BSplineRegistrationBasef {
         	}
     	}
         try {
-            doneSignal.await();
+            ThreadUtil.await(doneSignal);
         } catch (InterruptedException e) {
             e.printStackTrace();
         }
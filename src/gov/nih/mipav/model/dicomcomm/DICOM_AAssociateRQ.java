@@ -221,8 +221,13 @@ public class DICOM_AAssociateRQ extends DICOM_PDUType {
     public byte getPresentationContextID(final String absUID) throws DICOM_Exception {
         DICOM_PresentationContext pc = null;
 
+        // the UID may have been read from a data object, without the null that pads it to an even length
+        final String unpadded = DICOM_Util.unpadStringVal(absUID.getBytes());
+
         for (int i = presContexts.size() - 1; i >= 0; i--) {
-            if (absUID.equals( ((DICOM_PresentationContext) presContexts.elementAt(i)).absSyntax.UID)) {
+            final String contextUID = ((DICOM_PresentationContext) presContexts.elementAt(i)).absSyntax.UID;
+
+            if (absUID.equals(contextUID) || unpadded.equals(DICOM_Util.unpadStringVal(contextUID.getBytes()))) {
                 pc = (DICOM_PresentationContext) (presContexts.elementAt(i));
             }
         }
@@ -2,8 +2,9 @@ package gov.nih.mipav.model.dicomcomm;
 
 
 /**
- * DICOM AsyncOpWindowSubItem PDU Item Type - Not supported but we read it in. This is an optional support item in
- * DICOM.
+ * DICOM AsyncOpWindowSubItem PDU Item Type. This is an optional support item in DICOM that negotiates how many
+ * operations may be outstanding at once on an association. MIPAV proposes it when several C-MOVE requests are sent on
+ * one association, and accepts it when it is set up to.
  * 
  * <hr>
  * 
@@ -77,9 +78,39 @@ public class DICOM_AsyncOpWindowSubItem extends DICOM_PDUItemType {
         super(DICOM_PDUTypeBase.PDUTYPE_AsyncOpWindowSubItem);
     }
 
+    /**
+     * Creates the sub item with the given window.
+     * 
+     * @param invoked the maximum number of operations invoked, 0 for no limit
+     * @param performed the maximum number of operations performed, 0 for no limit
+     */
+    public DICOM_AsyncOpWindowSubItem(final int invoked, final int performed) {
+        this();
+        maxNumOpsInvoked = (short) invoked;
+        maxNumOpsPerformed = (short) performed;
+    }
+
     // ~ Methods
     // --------------------------------------------------------------------------------------------------------
 
+    /**
+     * Returns the maximum number of operations invoked.
+     * 
+     * @return the number, 0 for no limit
+     */
+    public int getMaxNumOpsInvoked() {
+        return maxNumOpsInvoked & 0xffff;
+    }
+
+    /**
+     * Returns the maximum number of operations performed.
+     * 
+     * @return the number, 0 for no limit
+     */
+    public int getMaxNumOpsPerformed() {
+        return maxNumOpsPerformed & 0xffff;
+    }
+
     /**
      * Calculates length of message.
      * 
@@ -3,6 +3,7 @@ package gov.nih.mipav.model.dicomcomm;
 
 import gov.nih.mipav.view.Preferences;
 
+import java.util.ArrayDeque;
 import java.util.Vector;
 
 
@@ -74,6 +75,16 @@ public class DICOM_Comms {
     /** The maximum read buffer size. */
     public static final int MAX_READ_LENGTH = 32768;
 
+    /** Number of free blocks kept for reuse. */
+    private static final int BLOCK_POOL_SIZE = 256;
+
+    /**
+     * Free blocks of MAX_READ_LENGTH bytes. Reads from the socket and the PDUs reassembled from them are kept in these
+     * blocks, so a busy association reuses the same few blocks instead of allocating an array for every read. Guarded
+     * by itself.
+     */
+    private static final ArrayDeque<byte[]> blockPool = new ArrayDeque<byte[]>();
+
     // ~ Instance fields
     // ------------------------------------------------------------------------------------------------
 
@@ -116,9 +127,6 @@ public class DICOM_Comms {
     /** Storage for the first byte (i.e. the PDU type ) */
     private byte peekedByte = 0;
 
-    /** Source byte array allocated ONCE used in reading from the stream. */
-    private byte[] srcByteArray = new byte[DICOM_Comms.MAX_READ_LENGTH];
-
     // ~ Constructors
     // ---------------------------------------------------------------------------------------------------
 
@@ -219,6 +227,90 @@ public class DICOM_Comms {
         }
     }
 
+    /**
+     * Takes a block of MAX_READ_LENGTH bytes from the pool, or allocates one if the pool is empty.
+     * 
+     * @return the block, whose content is undefined
+     */
+    static byte[] allocateBlock() {
+        byte[] block;
+
+        synchronized (DICOM_Comms.blockPool) {
+            block = DICOM_Comms.blockPool.pollLast();
+        }
+
+        return (block != null) ? block : new byte[DICOM_Comms.MAX_READ_LENGTH];
+    }
+
+    /**
+     * Returns a block to the pool. The block must no longer be referenced by its user.
+     * 
+     * @param block a block from allocateBlock()
+     */
+    static void releaseBlock(final byte[] block) {
+
+        synchronized (DICOM_Comms.blockPool) {
+
+            if (DICOM_Comms.blockPool.size() < DICOM_Comms.BLOCK_POOL_SIZE) {
+                DICOM_Comms.blockPool.addLast(block);
+            }
+        }
+    }
+
+    /**
+     * Copies bytes to the end of the incoming data, filling the last buffer before taking new blocks from the pool.
+     * 
+     * @param data the bytes
+     * @param dataOffset index in data of the first byte
+     * @param nBytes number of bytes
+     */
+    void appendIncoming(final byte[] data, int dataOffset, int nBytes) {
+        ByteBuffer byteBuffer = incomingBuffers.isEmpty() ? null : incomingBuffers.lastElement();
+
+        while (nBytes > 0) {
+
+            if ( (byteBuffer == null) || ( (byteBuffer.endIndex + 1) == byteBuffer.bufferSize)) {
+                byteBuffer = new ByteBuffer(DICOM_Comms.allocateBlock(), 0);
+                incomingBuffers.addElement(byteBuffer);
+            }
+
+            final int length = Math.min(nBytes, byteBuffer.bufferSize - byteBuffer.endIndex - 1);
+
+            System.arraycopy(data, dataOffset, byteBuffer.data, byteBuffer.endIndex + 1, length);
+            byteBuffer.endIndex += length;
+            inBuffersLength += length;
+            dataOffset += length;
+            nBytes -= length;
+        }
+    }
+
+    /**
+     * Removes the first bytes of the outgoing data, copying them into an array. Buffers that have been emptied are
+     * returned to the pool.
+     * 
+     * @param data the array
+     * @param dataOffset index in data of the first byte
+     * @param nBytes number of bytes, no more than the outgoing size
+     */
+    void drainOutgoing(final byte[] data, int dataOffset, int nBytes) {
+        outBuffersLength -= nBytes;
+
+        while (nBytes > 0) {
+            final ByteBuffer byteBuffer = outgoingBuffers.elementAt(0);
+            final int length = Math.min(nBytes, byteBuffer.endIndex - byteBuffer.startIndex + 1);
+
+            System.arraycopy(byteBuffer.data, byteBuffer.startIndex, data, dataOffset, length);
+            byteBuffer.startIndex += length;
+            dataOffset += length;
+            nBytes -= length;
+
+            if (byteBuffer.startIndex > byteBuffer.endIndex) {
+                byteBuffer.release();
+                outgoingBuffers.removeElementAt(0);
+            }
+        }
+    }
+
     /**
      * Sends all byte buffers of the outgoing buffer vector out the port. see DICOM PDUService.sendBinary and
      * DICOMSocket
@@ -230,7 +322,7 @@ public class DICOM_Comms {
         int byteCount;
 
         for (int i = 0; i < outgoingBuffers.size(); i++) {
-            byteBuffer = (ByteBuffer) outgoingBuffers.elementAt(i);
+            byteBuffer = outgoingBuffers.elementAt(i);
             byteCount = byteBuffer.endIndex - byteBuffer.startIndex + 1;
 
             if (byteCount > 0) {
@@ -265,15 +357,12 @@ public class DICOM_Comms {
                     throw new DICOM_Exception("DICOM_Comms.flush: attempting to flush more bytes than are present.");
                 }
 
-                byteBuffer = (ByteBuffer) outgoingBuffers.elementAt(0);
+                byteBuffer = outgoingBuffers.elementAt(0);
                 availableBytes = byteBuffer.endIndex - byteBuffer.startIndex + 1;
 
                 if (availableBytes > nBytes) {
                     sendBinary(byteBuffer.data, byteBuffer.startIndex, nBytes);
-                    System.arraycopy(byteBuffer.data, byteBuffer.startIndex + nBytes, byteBuffer.data, 0,
-                            availableBytes - nBytes);
-                    byteBuffer.startIndex = 0;
-                    byteBuffer.endIndex = availableBytes - nBytes - 1;
+                    byteBuffer.startIndex += nBytes;
                     nBytes = 0;
                 } else {
 
@@ -281,7 +370,7 @@ public class DICOM_Comms {
                         sendBinary(byteBuffer.data, byteBuffer.startIndex, availableBytes);
                         nBytes -= availableBytes;
                     }
-                    ((ByteBuffer) (outgoingBuffers.elementAt(0))).finalize();
+                    outgoingBuffers.elementAt(0).release();
                     outgoingBuffers.removeElementAt(0);
                 }
             }
@@ -366,7 +455,7 @@ public class DICOM_Comms {
         final byte[] elementWord = new byte[2];
         final byte[] zeroWord = new byte[] {0, 0, 0, 0};
         int bufferIndex = 0; // start by looking at the first buffer
-        ByteBuffer dataBuffer = (ByteBuffer) incomingBuffers.elementAt(bufferIndex);
+        ByteBuffer dataBuffer = incomingBuffers.elementAt(bufferIndex);
         int dataIndex = dataBuffer.startIndex;
         int seqLength = 0; /*
                              * if at asome point we decide we don't want to both reading more buffers we can return -1
@@ -420,7 +509,7 @@ public class DICOM_Comms {
                 dataIndex++; // no, for right now, recheck on 1 byte
 
                 // verify there are enough bytes in the buffer available to search
-                if ( (dataIndex + 8) <= dataBuffer.data.length) {
+                if ( (dataIndex + 8) <= (dataBuffer.endIndex + 1)) {
 
                     // there are, so collect next 4 bytes
                     System.arraycopy(dataBuffer.data, dataIndex, groupWord, 0, 2);
@@ -439,42 +528,42 @@ public class DICOM_Comms {
                         return -1; // nothing more to read so FAIL!
                     }
 
-                    followingBuffer = (ByteBuffer) incomingBuffers.elementAt( ++bufferIndex);
+                    followingBuffer = incomingBuffers.elementAt( ++bufferIndex);
 
                     // copy out the remainder of the old data buffer.
                     // use as-needed from the new one.
-                    if ( (dataBuffer.data.length - dataIndex) == 7) {
+                    if ( ((dataBuffer.endIndex + 1) - dataIndex) == 7) {
                         System.arraycopy(dataBuffer.data, dataIndex, groupWord, 0, 2);
                         System.arraycopy(dataBuffer.data, dataIndex + 2, elementWord, 0, 2);
                         System.arraycopy(dataBuffer.data, dataIndex + 4, zeroWord, 0, 3);
                         zeroWord[3] = followingBuffer.data[0];
-                    } else if ( (dataBuffer.data.length - dataIndex) == 6) {
+                    } else if ( ((dataBuffer.endIndex + 1) - dataIndex) == 6) {
                         System.arraycopy(dataBuffer.data, dataIndex, groupWord, 0, 2);
                         System.arraycopy(dataBuffer.data, dataIndex + 2, elementWord, 0, 2);
                         System.arraycopy(dataBuffer.data, dataIndex + 4, zeroWord, 0, 2);
                         zeroWord[2] = followingBuffer.data[0];
                         zeroWord[3] = followingBuffer.data[1];
-                    } else if ( (dataBuffer.data.length - dataIndex) == 5) {
+                    } else if ( ((dataBuffer.endIndex + 1) - dataIndex) == 5) {
                         System.arraycopy(dataBuffer.data, dataIndex, groupWord, 0, 2);
                         System.arraycopy(dataBuffer.data, dataIndex + 2, elementWord, 0, 2);
                         System.arraycopy(dataBuffer.data, dataIndex + 4, zeroWord, 0, 1);
                         zeroWord[1] = followingBuffer.data[0];
                         zeroWord[2] = followingBuffer.data[1];
                         zeroWord[3] = followingBuffer.data[2];
-                    } else if ( (dataBuffer.data.length - dataIndex) == 4) {
+                    } else if ( ((dataBuffer.endIndex + 1) - dataIndex) == 4) {
                         System.arraycopy(dataBuffer.data, dataIndex, groupWord, 0, 2);
                         System.arraycopy(dataBuffer.data, dataIndex + 2, elementWord, 0, 2);
                         System.arraycopy(followingBuffer.data, 0, zeroWord, 0, 4);
-                    } else if ( (dataBuffer.data.length - dataIndex) == 3) {
+                    } else if ( ((dataBuffer.endIndex + 1) - dataIndex) == 3) {
                         System.arraycopy(dataBuffer.data, dataIndex, groupWord, 0, 2);
                         elementWord[0] = dataBuffer.data[dataIndex + 2];
                         elementWord[1] = followingBuffer.data[0];
                         System.arraycopy(followingBuffer.data, 1, zeroWord, 0, 4);
-                    } else if ( (dataBuffer.data.length - dataIndex) == 2) {
+                    } else if ( ((dataBuffer.endIndex + 1) - dataIndex) == 2) {
                         System.arraycopy(dataBuffer.data, dataIndex, groupWord, 0, 2);
                         System.arraycopy(followingBuffer.data, 0, elementWord, 0, 2);
                         System.arraycopy(followingBuffer.data, 2, zeroWord, 0, 4);
-                    } else if ( (dataBuffer.data.length - dataIndex) == 1) {
+                    } else if ( ((dataBuffer.endIndex + 1) - dataIndex) == 1) {
                         groupWord[0] = dataBuffer.data[dataIndex];
                         groupWord[1] = followingBuffer.data[0];
                         System.arraycopy(followingBuffer.data, 1, elementWord, 0, 2);
@@ -544,7 +633,7 @@ public class DICOM_Comms {
         } // need more data
 
         while (nBytes > 0) {
-            byteBuffer = (ByteBuffer) incomingBuffers.elementAt(0);
+            byteBuffer = incomingBuffers.elementAt(0);
 
             final int availableBytes = byteBuffer.endIndex - byteBuffer.startIndex + 1;
 
@@ -558,7 +647,7 @@ public class DICOM_Comms {
                 dataOffset += availableBytes;
                 inBuffersLength -= availableBytes;
                 nBytes -= availableBytes;
-                ((ByteBuffer) (incomingBuffers.elementAt(0))).finalize();
+                incomingBuffers.elementAt(0).release();
                 incomingBuffers.removeElementAt(0);
             }
         }
@@ -634,6 +723,45 @@ public class DICOM_Comms {
         }
     }
 
+    /**
+     * Moves the first bytes of the incoming data to the end of the incoming data of another buffer, reading more from
+     * the port as needed. This is how the PDVs of P-DATA-TF PDUs are reassembled into the data set they carry.
+     * 
+     * @param target the buffer to move the bytes to
+     * @param nBytes number of bytes to move
+     * 
+     * @throws DICOM_Exception Throws error if there is an error reading data from the port.
+     */
+    public void transferIncoming(final DICOM_Comms target, int nBytes) throws DICOM_Exception {
+
+        if (havePeeked && (nBytes > 0)) {
+            byteArray1[0] = peekedByte;
+            target.appendIncoming(byteArray1, 0, 1);
+            havePeeked = false;
+            nBytes--;
+        }
+
+        while (nBytes > 0) {
+
+            if (incomingBuffers.isEmpty()) {
+                readBlock(nBytes);
+            }
+
+            final ByteBuffer byteBuffer = incomingBuffers.elementAt(0);
+            final int length = Math.min(nBytes, byteBuffer.endIndex - byteBuffer.startIndex + 1);
+
+            target.appendIncoming(byteBuffer.data, byteBuffer.startIndex, length);
+            byteBuffer.startIndex += length;
+            inBuffersLength -= length;
+            nBytes -= length;
+
+            if (byteBuffer.startIndex > byteBuffer.endIndex) {
+                byteBuffer.release();
+                incomingBuffers.removeElementAt(0);
+            }
+        }
+    }
+
     /**
      * Reads a 4 byte integer (otherwise known as an int).
      * 
@@ -673,9 +801,8 @@ public class DICOM_Comms {
         final byte[] groupWord = new byte[2];
         final byte[] lengthWord = new byte[] {0, 0, 0, 0};
         final byte[] lengthHalfWord = new byte[] {0, 0};
-        ByteBuffer trimmedBuffer = null;
 
-        final ByteBuffer dataBuffer = (ByteBuffer) incomingBuffers.elementAt(0);
+        final ByteBuffer dataBuffer = incomingBuffers.elementAt(0);
 
         if ( (dataBuffer.data[128] == 0x44) && (dataBuffer.data[129] == 0x49) && (dataBuffer.data[130] == 0x43)
                 && (dataBuffer.data[131] == 0x4D)) {
@@ -728,13 +855,8 @@ public class DICOM_Comms {
                 dataIndex = dataIndex + 12 + length;
             }
             // System.out.println("dataIndex = " + dataIndex);
-            trimmedBuffer = new ByteBuffer(dataBuffer.bufferSize - dataIndex);
-            System.arraycopy(dataBuffer.data, dataIndex, trimmedBuffer.data, 0, trimmedBuffer.bufferSize);
-            trimmedBuffer.startIndex = 0;
-            trimmedBuffer.endIndex = trimmedBuffer.bufferSize - 1;
-            ((ByteBuffer) (incomingBuffers.elementAt(0))).finalize();
-            incomingBuffers.removeElementAt(0);
-            incomingBuffers.insertElementAt(trimmedBuffer, 0);
+            // the data set starts within the first buffer, so it is skipped to rather than copied
+            dataBuffer.startIndex = dataIndex;
             inBuffersLength = inBuffersLength - dataIndex;
         }
 
@@ -799,14 +921,14 @@ public class DICOM_Comms {
         ByteBuffer byteBuffer;
 
         if (outgoingBuffers.size() == 0) {
-            final ByteBuffer byteBuffer2 = new ByteBuffer(breakSize);
+            final ByteBuffer byteBuffer2 = new ByteBuffer(DICOM_Comms.allocateBlock(), 0);
             outgoingBuffers.addElement(byteBuffer2);
         }
 
         while (nBytes > 0) {
 
-            byteBuffer = (ByteBuffer) outgoingBuffers.lastElement();
-            length = byteBuffer.bufferSize - byteBuffer.endIndex;
+            byteBuffer = outgoingBuffers.lastElement();
+            length = byteBuffer.bufferSize - byteBuffer.endIndex - 1;
 
             if (length > 0) {
 
@@ -817,7 +939,7 @@ public class DICOM_Comms {
                     dataOffset += length;
                     byteBuffer.endIndex += length;
 
-                    final ByteBuffer byteBuffer2 = new ByteBuffer(breakSize);
+                    final ByteBuffer byteBuffer2 = new ByteBuffer(DICOM_Comms.allocateBlock(), 0);
                     outgoingBuffers.addElement(byteBuffer2);
                 } else {
                     System.arraycopy(data, dataOffset, byteBuffer.data, byteBuffer.endIndex + 1, nBytes);
@@ -826,7 +948,7 @@ public class DICOM_Comms {
                     nBytes = 0;
                 }
             } else {
-                final ByteBuffer byteBuffer2 = new ByteBuffer(ByteBuffer.DEFAULT_SIZE);
+                final ByteBuffer byteBuffer2 = new ByteBuffer(DICOM_Comms.allocateBlock(), 0);
                 outgoingBuffers.addElement(byteBuffer2);
             }
         }
@@ -846,14 +968,14 @@ public class DICOM_Comms {
         ByteBuffer byteBuffer;
 
         if (ioBuffer.incomingBuffers.size() == 0) {
-            final ByteBuffer byteBuffer2 = new ByteBuffer(breakSize);
+            final ByteBuffer byteBuffer2 = new ByteBuffer(DICOM_Comms.allocateBlock(), 0);
             ioBuffer.incomingBuffers.addElement(byteBuffer2);
         }
 
         while (nBytes > 0) {
 
-            byteBuffer = (ByteBuffer) ioBuffer.incomingBuffers.lastElement();
-            length = byteBuffer.bufferSize - byteBuffer.endIndex;
+            byteBuffer = ioBuffer.incomingBuffers.lastElement();
+            length = byteBuffer.bufferSize - byteBuffer.endIndex - 1;
 
             if (length > 0) {
 
@@ -864,7 +986,7 @@ public class DICOM_Comms {
                     dataOffset += length;
                     byteBuffer.endIndex += length;
 
-                    final ByteBuffer byteBuffer2 = new ByteBuffer(breakSize);
+                    final ByteBuffer byteBuffer2 = new ByteBuffer(DICOM_Comms.allocateBlock(), 0);
                     ioBuffer.incomingBuffers.addElement(byteBuffer2);
                 } else {
                     System.arraycopy(data, dataOffset, byteBuffer.data, byteBuffer.endIndex + 1, nBytes);
@@ -873,7 +995,7 @@ public class DICOM_Comms {
                     nBytes = 0;
                 }
             } else {
-                final ByteBuffer byteBuffer2 = new ByteBuffer(ByteBuffer.DEFAULT_SIZE);
+                final ByteBuffer byteBuffer2 = new ByteBuffer(DICOM_Comms.allocateBlock(), 0);
                 ioBuffer.incomingBuffers.addElement(byteBuffer2);
             }
         }
@@ -951,7 +1073,6 @@ public class DICOM_Comms {
      * 
      */
     protected void finalize() {
-        srcByteArray = null;
         byteArray1 = null;
         byteArray2 = null;
         byteArray4 = null;
@@ -959,14 +1080,14 @@ public class DICOM_Comms {
         if (incomingBuffers != null) {
 
             for (int i = 0; i < incomingBuffers.size(); i++) {
-                ((ByteBuffer) (incomingBuffers.elementAt(i))).finalize();
+                incomingBuffers.elementAt(i).release();
             }
             incomingBuffers.removeAllElements();
         }
 
         if (outgoingBuffers != null) {
             for (int i = 0; i < outgoingBuffers.size(); i++) {
-                ((ByteBuffer) (outgoingBuffers.elementAt(i))).finalize();
+                outgoingBuffers.elementAt(i).release();
             }
             outgoingBuffers.removeAllElements();
         }
@@ -996,18 +1117,25 @@ public class DICOM_Comms {
             iLength = DICOM_Comms.MAX_READ_LENGTH;
         }
 
+        final byte[] block = DICOM_Comms.allocateBlock();
+
         // actual read from the socket see PDU service.readBinary
-        while ( (length = readBinary(srcByteArray, iLength)) == 0) {
-            ;
+        try {
+
+            while ( (length = readBinary(block, iLength)) == 0) {
+                ;
+            }
+        } catch (final DICOM_Exception e) {
+            DICOM_Comms.releaseBlock(block);
+
+            throw e;
         }
 
         if (length > 0) {
-            final ByteBuffer byteBuffer = new ByteBuffer(length);
-            incomingBuffers.addElement(byteBuffer);
-            System.arraycopy(srcByteArray, 0, byteBuffer.data, 0, length);
+            incomingBuffers.addElement(new ByteBuffer(block, length));
             inBuffersLength += length;
-            byteBuffer.startIndex = 0;
-            byteBuffer.endIndex = length - 1;
+        } else {
+            DICOM_Comms.releaseBlock(block);
         }
     }
 
@@ -1034,6 +1162,9 @@ public class DICOM_Comms {
         /** Points the start of data in the buffer. Default = 0; */
         public int startIndex = 0;
 
+        /** True when data is a block of the pool, which is returned to it by release(). */
+        private boolean pooled = false;
+
         /**
          * Allocates the byte buffer of the given size.
          * 
@@ -1043,6 +1174,20 @@ public class DICOM_Comms {
             allocateMemory(size);
         }
 
+        /**
+         * Wraps a block of the pool holding the given number of bytes.
+         * 
+         * @param block a block from allocateBlock()
+         * @param count number of bytes of data at the start of the block
+         */
+        ByteBuffer(final byte[] block, final int count) {
+            data = block;
+            bufferSize = block.length;
+            startIndex = 0;
+            endIndex = count - 1;
+            pooled = true;
+        }
+
         /**
          * Prepares this class for destruction.
          * 
@@ -1051,6 +1196,18 @@ public class DICOM_Comms {
             data = null;
         }
 
+        /**
+         * Drops the data of the buffer, returning a block of the pool to it. The buffer must not be used afterwards.
+         */
+        void release() {
+
+            if (pooled && (data != null)) {
+                DICOM_Comms.releaseBlock(data);
+            }
+
+            data = null;
+        }
+
         /**
          * This method returns the length of valid data in the array. Not the total capacity of the array.
          * 
@@ -99,7 +99,7 @@ public class DICOM_CommsLink extends DICOM_Comms {
     }
 
     /**
-     * Sets linkToComms to connection and fills(read) the connection buffer via readBinary.
+     * Sets linkToComms to connection and moves the next bytes read by the connection to the end of the incoming data.
      * 
      * @param connection The connection to the socket.
      * @param length The number of bytes to read.
@@ -108,7 +108,7 @@ public class DICOM_CommsLink extends DICOM_Comms {
      */
     public void readFill(final DICOM_Comms connection, final int length) throws DICOM_Exception {
         linkToComms = connection;
-        readFill(length);
+        connection.transferIncoming(this, length);
     }
 
     /**
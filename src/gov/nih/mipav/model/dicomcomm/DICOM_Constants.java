@@ -60,8 +60,11 @@ public class DICOM_Constants {
     // ~ Static fields/initializers
     // -------------------------------------------------------------------------------------
 
-    /** DOCUMENT ME! */
-    public static final int MAXSUBLENGTH = 1024;
+    /**
+     * Maximum length of the P-DATA-TF PDUs MIPAV receives, proposed in every association. Every PDU costs a header
+     * and a read of its own, so small PDUs limit the throughput of a transfer.
+     */
+    public static final int MAXSUBLENGTH = 16384;
 
     /** DICOM Protocol Version - Default = 1. */
     public static final int PROTOCOLVERSION = 1;
@@ -112,6 +112,9 @@ public class DICOM_PDUService extends DICOM_Comms {
     /** Buffer used in sending DICOM image. */
     DICOM_FileIO ioBuffer = new DICOM_FileIO();
 
+    /** Number of operations that may be outstanding at once on the association, as proposed or accepted by MIPAV. */
+    private int asyncOperationsWindow = 1;
+
     // ~ Constructors
     // ---------------------------------------------------------------------------------------------------
 
@@ -349,7 +352,15 @@ public class DICOM_PDUService extends DICOM_Comms {
             presContext.setAbstractSyntax(abstractSyntax);
             associateRQ.addPresentationContext(presContext);
         }
-        associateRQ.setUserInformation(constructUserInformation());
+        final DICOM_UserInformation userInfo = constructUserInformation();
+
+        if (asyncOperationsWindow > 1) {
+
+            // MIPAV invokes the operations; the sub-operations it asks for are performed on other associations
+            userInfo.aSyncSubItem = new DICOM_AsyncOpWindowSubItem(asyncOperationsWindow, 1);
+        }
+
+        associateRQ.setUserInformation(userInfo);
         associateRQ.setCalledAppTitle(remoteAppTitle.getBytes());
 
         // Matt - 7/17 Double check if problems Q/R
@@ -423,6 +434,24 @@ public class DICOM_PDUService extends DICOM_Comms {
         return associateRQ;
     }
 
+    /**
+     * Returns the number of operations MIPAV may have outstanding at once on the association, as accepted by the
+     * server. Without an asynchronous operations window in the accept, it is 1.
+     * 
+     * @return the number of operations, at least 1
+     */
+    public int getAsyncOperationsInvoked() {
+        final DICOM_AsyncOpWindowSubItem window = associateAC.getUserInformation().aSyncSubItem;
+
+        if ( (window == null) || (asyncOperationsWindow <= 1)) {
+            return 1;
+        } else if (window.getMaxNumOpsInvoked() == 0) {
+            return asyncOperationsWindow;
+        } else {
+            return Math.min(window.getMaxNumOpsInvoked(), asyncOperationsWindow);
+        }
+    }
+
     /**
      * Implementation class uid.
      * 
@@ -755,6 +784,17 @@ public class DICOM_PDUService extends DICOM_Comms {
         socket.writeBinary(data, offset, count);
     }
 
+    /**
+     * Sets the number of operations that may be outstanding at once on the association. A client proposes it to the
+     * server when connecting; a server accepts up to it when the client proposes a window. Must be called before the
+     * association is established.
+     * 
+     * @param operations the number of operations, 1 for one operation at a time
+     */
+    public void setAsyncOperationsWindow(final int operations) {
+        asyncOperationsWindow = Math.max(1, operations);
+    }
+
     /**
      * Sets the display viewer.
      * 
@@ -1180,7 +1220,20 @@ public class DICOM_PDUService extends DICOM_Comms {
             }
         }
 
-        associateAC.setUserInformation(constructUserInformation());
+        final DICOM_UserInformation userInfo = constructUserInformation();
+        final DICOM_AsyncOpWindowSubItem proposedWindow = associateRQ.getUserInformation().aSyncSubItem;
+
+        if ( (proposedWindow != null) && (asyncOperationsWindow > 1)) {
+            int invoked = proposedWindow.getMaxNumOpsInvoked();
+
+            if ( (invoked == 0) || (invoked > asyncOperationsWindow)) {
+                invoked = asyncOperationsWindow;
+            }
+
+            userInfo.aSyncSubItem = new DICOM_AsyncOpWindowSubItem(invoked, 1);
+        }
+
+        associateAC.setUserInformation(userInfo);
 
         if ( !atLeastOne) {
 
@@ -1238,7 +1291,9 @@ public class DICOM_PDUService extends DICOM_Comms {
     private boolean shouldWeAcceptAbstractSyntax(final DICOM_PDUItemType abstractSyntax) {
         final String str = DICOM_Util.unpadStringVal(abstractSyntax.getUID().getBytes());
 
-        if (proposedAbstractSyntaxs.get(str) != null) {
+        // the UIDs of DICOM_Constants keep the null that pads them to an even length
+        if ( (proposedAbstractSyntaxs.get(str) != null)
+                || (proposedAbstractSyntaxs.get(str + DICOM_Constants.nullChar) != null)) {
             return (true);
         }
 
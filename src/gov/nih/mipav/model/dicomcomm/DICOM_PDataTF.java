@@ -79,6 +79,9 @@ public class DICOM_PDataTF extends DICOM_PDUType {
     /** Flag used to identify read message status. Default is false. */
     private boolean readMessageStatus = false;
 
+    /** A whole PDU as it is sent, reused for every PDU. */
+    private byte[] pduBuffer = null;
+
     /** Reference to the link buffer communication link. */
     DICOM_CommsLink vrLinkedBuffer = new DICOM_CommsLink();
 
@@ -179,7 +182,8 @@ public class DICOM_PDataTF extends DICOM_PDUType {
     }
 
     /**
-     * Writes P-DATA-TF Messages.
+     * Writes P-DATA-TF Messages. Each PDU is assembled in one buffer, its header followed by the next block of the
+     * outgoing data, and sent with a single write.
      * 
      * @param PDU The PDU
      * @param presentationContextID The presentation context ID.
@@ -195,6 +199,16 @@ public class DICOM_PDataTF extends DICOM_PDUType {
         int size = 0;
         int blockSize = outBlockSize;
         final int totalSize = vrLinkedBuffer.getOutgoingSize();
+        final int endianess = PDU.getOutgoingEndian();
+
+        if ( (pduBuffer == null) || (pduBuffer.length < (outBlockSize + 12))) {
+            pduBuffer = new byte[outBlockSize + 12];
+        }
+
+        // anything written to the PDU itself goes first
+        if (PDU.getOutgoingSize() > 0) {
+            PDU.flush();
+        }
 
         while (size < totalSize) {
 
@@ -209,17 +223,16 @@ public class DICOM_PDataTF extends DICOM_PDUType {
             }
 
             PDVLength = blockSize + 2;
-            PDU.writeByte(itemType);
-            PDU.writeByte(reserved1);
-            PDU.writeInt32(PDVLength + 4);
+            pduBuffer[0] = itemType;
+            pduBuffer[1] = reserved1;
+            DICOM_Comms.int32ToBuffer(pduBuffer, 2, PDVLength + 4, endianess);
 
-            PDU.writeInt32(PDVLength);
-            PDU.writeByte(PDVPresContID);
-            PDU.writeByte(PDVMsgHeader);
+            DICOM_Comms.int32ToBuffer(pduBuffer, 6, PDVLength, endianess);
+            pduBuffer[10] = PDVPresContID;
+            pduBuffer[11] = PDVMsgHeader;
 
-            if (blockSize > 0) {
-                vrLinkedBuffer.flush(PDU, blockSize);
-            }
+            vrLinkedBuffer.drainOutgoing(pduBuffer, 12, blockSize);
+            PDU.sendBinary(pduBuffer, 0, blockSize + 12);
 
             size += blockSize;
             // System.out.println("Dicom_PData.TF.write - size = " + size + " total size = " + totalSize);
@@ -0,0 +1,394 @@
+package gov.nih.mipav.model.dicomcomm;
+
+
+import gov.nih.mipav.view.Preferences;
+
+import java.util.Hashtable;
+import java.util.LinkedList;
+
+
+/**
+ * Retrieves a study by moving its series separately over several associations at once, instead of with one study
+ * level C-MOVE on a single association. The series of the study are found with a series level C-FIND unless they are
+ * given. Each association takes the next series still to be moved, and when the server accepts an asynchronous
+ * operations window it keeps several series level C-MOVE requests outstanding at once, matching the responses to them
+ * by message ID. The images themselves arrive at the move destination, normally MIPAV's own DICOM_Receiver, over the
+ * associations the server opens to it.
+ *
+ * <p>
+ * Progress is reported per series to a listener. The listener is never called by two threads at once, so it needs no
+ * locking of its own. Like DICOM_Move, the retrieve runs in its own thread.
+ * </p>
+ *
+ * @see DICOM_Move
+ */
+public class DICOM_ParallelMove implements Runnable {
+
+    // ~ Static fields/initializers
+    // -------------------------------------------------------------------------------------
+
+    /** Number of C-MOVE requests proposed to be outstanding at once on an association. */
+    public static final int ASYNC_OPERATIONS = 4;
+
+    /** Status reported for a series whose move could not be requested, or whose association was lost. */
+    public static final int STATUS_NOT_MOVED = -1;
+
+    // ~ Instance fields
+    // ------------------------------------------------------------------------------------------------
+
+    /** Number of associations to open. */
+    private final int associations;
+
+    /** Set by cancel(). */
+    private volatile boolean cancelled = false;
+
+    /** Application entity title of the move destination. */
+    private final byte[] localAppTitle;
+
+    /** Receives the progress of the series. */
+    private final ProgressListener listener;
+
+    /** Number of series that were not moved. Guarded by this. */
+    private int failedSeries = 0;
+
+    /** Patient ID of the study. */
+    private final String patientID;
+
+    /** Series still to be requested. Guarded by itself. */
+    private final LinkedList<String> queue = new LinkedList<String>();
+
+    /** Series instance UIDs of the study, or null to find them. */
+    private String[] seriesUIDs;
+
+    /** Application entity title of the server. */
+    private final String serverAETitle;
+
+    /** Study instance UID. */
+    private final String studyInstUID;
+
+    // ~ Constructors
+    // ---------------------------------------------------------------------------------------------------
+
+    /**
+     * Creates the retrieve of a study.
+     *
+     * @param serverAETitle application entity title of the server holding the study
+     * @param localAppTitle application entity title of the move destination
+     * @param patientID patient ID of the study
+     * @param studyInstUID study instance UID
+     * @param seriesUIDs series instance UIDs of the study, or null to find them with a C-FIND
+     * @param associations number of associations to open, at least 1
+     * @param listener receives the progress of the series, or null
+     */
+    public DICOM_ParallelMove(final String serverAETitle, final byte[] localAppTitle, final String patientID,
+            final String studyInstUID, final String[] seriesUIDs, final int associations,
+            final ProgressListener listener) {
+        this.serverAETitle = serverAETitle;
+        this.localAppTitle = localAppTitle;
+        this.patientID = patientID;
+        this.studyInstUID = studyInstUID;
+        this.seriesUIDs = seriesUIDs;
+        this.associations = Math.max(1, associations);
+        this.listener = listener;
+    }
+
+    // ~ Methods
+    // --------------------------------------------------------------------------------------------------------
+
+    /**
+     * Stops the retrieve. Series not yet requested are not moved, and the moves outstanding are cancelled with a
+     * C-CANCEL-MOVE request.
+     */
+    public void cancel() {
+        cancelled = true;
+    }
+
+    /**
+     * Returns the number of series of the study that were not moved.
+     *
+     * @return the number of series, once run() has returned
+     */
+    public synchronized int getFailedSeries() {
+        return failedSeries;
+    }
+
+    /**
+     * Returns the series instance UIDs of the study.
+     *
+     * @return the series, or null if they have not been found yet
+     */
+    public String[] getSeriesUIDs() {
+        return seriesUIDs;
+    }
+
+    /**
+     * Moves the series of the study and returns once every association is closed.
+     */
+    public void run() {
+
+        if (seriesUIDs == null) {
+
+            try {
+                seriesUIDs = new DICOM_Query().findSeriesInstanceUIDs(serverAETitle, patientID, studyInstUID);
+            } catch (final DICOM_Exception e) {
+
+                if (Preferences.debugLevel(Preferences.DEBUG_COMMS)) {
+                    Preferences.debug(DICOM_Util.timeStamper() + " DICOM_ParallelMove.run: series query failed " + e
+                            + "\n");
+                }
+
+                seriesUIDs = new String[0];
+
+                synchronized (this) {
+                    failedSeries = 1;
+                }
+
+                return;
+            }
+        }
+
+        synchronized (queue) {
+
+            for (final String series : seriesUIDs) {
+                queue.add(series);
+            }
+        }
+
+        final int count = Math.min(associations, seriesUIDs.length);
+        final Thread[] threads = new Thread[count];
+
+        // the associations block on the network, so they get threads of their own rather than pool workers
+        for (int i = 0; i < count; i++) {
+            threads[i] = new Thread("mipav-dicom-move-" + i) {
+                public void run() {
+                    moveSeries();
+                }
+            };
+            threads[i].setDaemon(true);
+            threads[i].start();
+        }
+
+        for (final Thread thread : threads) {
+
+            try {
+                thread.join();
+            } catch (final InterruptedException e) {
+                cancel();
+                Thread.currentThread().interrupt();
+
+                break;
+            }
+        }
+
+        // series left when every association failed
+        String series;
+
+        while ( (series = nextSeries()) != null) {
+            finished(series, DICOM_ParallelMove.STATUS_NOT_MOVED);
+        }
+    }
+
+    /**
+     * Reports that a series has been moved, or could not be.
+     *
+     * @param series the series instance UID
+     * @param status the final status of its C-MOVE, or STATUS_NOT_MOVED
+     */
+    private synchronized void finished(final String series, final int status) {
+
+        if ( (status != DICOM_Constants.STATUS_MOVE_SUCCESS) && (status != DICOM_Constants.STATUS_MOVE_WARNING)) {
+            failedSeries++;
+        }
+
+        if (listener != null) {
+            listener.seriesFinished(series, status);
+        }
+    }
+
+    /**
+     * Moves series over one association until none is left.
+     */
+    private void moveSeries() {
+        final DICOM_PDUService pdu = new DICOM_PDUService();
+        final Hashtable<Integer, String> outstanding = new Hashtable<Integer, String>();
+
+        pdu.setAsyncOperationsWindow(DICOM_ParallelMove.ASYNC_OPERATIONS);
+
+        try {
+            pdu.connectClientToServer(serverAETitle, false, null, null);
+        } catch (final DICOM_Exception e) {
+
+            if (Preferences.debugLevel(Preferences.DEBUG_COMMS)) {
+                Preferences.debug(DICOM_Util.timeStamper() + " DICOM_ParallelMove.moveSeries: " + e + "\n");
+            }
+
+            // the other associations take the series
+            return;
+        }
+
+        final int window = pdu.getAsyncOperationsInvoked();
+        final DICOM_StdRetrieve retrieve = new DICOM_StdRetrieve(DICOM_Constants.UID_PatientRootRetrieve);
+        final DICOM_Move move = new DICOM_Move();
+        final DICOM_Object dco = new DICOM_Object();
+        final DICOM_Object ddoRsp = new DICOM_Object();
+        boolean cancelSent = false;
+
+        try {
+
+            while (true) {
+
+                while ( !cancelled && (outstanding.size() < window)) {
+                    final String series = nextSeries();
+
+                    if (series == null) {
+                        break;
+                    }
+
+                    final int msgID = DICOM_Util.getUniqueOddID16();
+
+                    retrieve.setMsgID(msgID);
+                    outstanding.put(Integer.valueOf(msgID), series);
+                    requested(series, msgID);
+                    retrieve.writeRequest(pdu, move.setMoveSeriesData(patientID, studyInstUID, series),
+                            localAppTitle);
+                }
+
+                if (outstanding.isEmpty()) {
+                    break;
+                }
+
+                if (cancelled && !cancelSent) {
+
+                    for (final Integer msgID : outstanding.keySet()) {
+                        retrieve.writeCancel(pdu, msgID.intValue());
+                    }
+
+                    cancelSent = true;
+                }
+
+                dco.clear();
+                ddoRsp.clear();
+                pdu.readInObject(dco);
+
+                try {
+                    retrieve.cMoveRsp.read(dco, pdu, ddoRsp);
+                } catch (final DICOM_Exception e) {
+
+                    // an error status, which ends the move of the series
+                    if (Preferences.debugLevel(Preferences.DEBUG_COMMS)) {
+                        Preferences.debug(DICOM_Util.timeStamper() + " DICOM_ParallelMove.moveSeries: " + e + "\n");
+                    }
+                }
+
+                final Integer msgID = Integer.valueOf(dco.getInt16(DICOM_RTC.DD_MessageIDBeingRespondedTo));
+                final String series = outstanding.get(msgID);
+
+                if (series == null) {
+                    continue;
+                }
+
+                final int status = dco.getInt16(DICOM_RTC.DD_Status);
+
+                if (status == DICOM_Constants.STATUS_MOVE_PENDING) {
+                    progress(series, dco.getInt16(DICOM_RTC.DD_NumberOfCompletedSuboperations), dco
+                            .getInt16(DICOM_RTC.DD_NumberOfRemainingSuboperations), dco
+                            .getInt16(DICOM_RTC.DD_NumberOfFailedSuboperations), dco
+                            .getInt16(DICOM_RTC.DD_NumberOfWarningSuboperations));
+                } else {
+                    outstanding.remove(msgID);
+                    finished(series, status);
+                }
+            }
+        } catch (final DICOM_Exception e) {
+
+            if (Preferences.debugLevel(Preferences.DEBUG_COMMS)) {
+                Preferences.debug(DICOM_Util.timeStamper() + " DICOM_ParallelMove.moveSeries: association lost " + e
+                        + "\n");
+            }
+
+            for (final String series : outstanding.values()) {
+                finished(series, DICOM_ParallelMove.STATUS_NOT_MOVED);
+            }
+        } finally {
+            pdu.close();
+        }
+    }
+
+    /**
+     * Takes the next series to request.
+     *
+     * @return the series instance UID, or null when none is left or the retrieve is cancelled
+     */
+    private String nextSeries() {
+
+        synchronized (queue) {
+            return (queue.isEmpty() || cancelled) ? null : queue.removeFirst();
+        }
+    }
+
+    /**
+     * Reports the progress of the move of a series.
+     *
+     * @param series the series instance UID
+     * @param completed number of images moved
+     * @param remaining number of images still to move
+     * @param failed number of images that failed
+     * @param warning number of images moved with a warning
+     */
+    private synchronized void progress(final String series, final int completed, final int remaining,
+            final int failed, final int warning) {
+
+        if (listener != null) {
+            listener.seriesProgress(series, completed, remaining, failed, warning);
+        }
+    }
+
+    /**
+     * Reports that the move of a series has been requested.
+     *
+     * @param series the series instance UID
+     * @param msgID message ID of the C-MOVE request, which the destination receives as the move originator message ID
+     */
+    private synchronized void requested(final String series, final int msgID) {
+
+        if (listener != null) {
+            listener.seriesRequested(series, msgID);
+        }
+    }
+
+    // ~ Inner Interfaces
+    // -----------------------------------------------------------------------------------------------
+
+    /**
+     * Receives the progress of the series of a retrieve.
+     */
+    public interface ProgressListener {
+
+        /**
+         * Called when the move of a series ends.
+         *
+         * @param seriesUID the series instance UID
+         * @param status final status of the C-MOVE, or STATUS_NOT_MOVED
+         */
+        void seriesFinished(String seriesUID, int status);
+
+        /**
+         * Called for every pending response of the C-MOVE of a series.
+         *
+         * @param seriesUID the series instance UID
+         * @param completed number of images moved
+         * @param remaining number of images still to move
+         * @param failed number of images that failed
+         * @param warning number of images moved with a warning
+         */
+        void seriesProgress(String seriesUID, int completed, int remaining, int failed, int warning);
+
+        /**
+         * Called when the C-MOVE of a series is sent.
+         *
+         * @param seriesUID the series instance UID
+         * @param msgID message ID of the C-MOVE request
+         */
+        void seriesRequested(String seriesUID, int msgID);
+    }
+}
@@ -3,6 +3,8 @@ package gov.nih.mipav.model.dicomcomm;
 
 import gov.nih.mipav.view.*;
 
+import java.util.Vector;
+
 
 /**
  * This is the DICOM query class that defines functions to compose and send a patient root, patient level DICOM query
@@ -143,6 +145,44 @@ public class DICOM_Query extends DICOM_SOP implements Runnable {
         return (pdu);
     }
 
+    /**
+     * Finds the series of a study with a series level C-FIND on an association of its own.
+     * 
+     * @param AETitle application entity title of the server
+     * @param patientID patient ID of the study
+     * @param studyInstUID study instance UID
+     * 
+     * @return the series instance UIDs, in the order the server returned them
+     * 
+     * @throws DICOM_Exception if the server cannot be queried
+     */
+    public String[] findSeriesInstanceUIDs(final String AETitle, final String patientID, final String studyInstUID)
+            throws DICOM_Exception {
+        final DICOM_PDUService queryPDU = new DICOM_PDUService();
+
+        queryPDU.connectClientToServer(AETitle, false, null, null);
+
+        try {
+            setMsgID();
+            write(queryPDU, setQuerySeriesData(patientID, studyInstUID));
+
+            final Vector<String> uids = new Vector<String>();
+
+            for (int i = 0; i < queryPDU.findResults.size(); i++) {
+                final String uid = ((DICOM_Object) queryPDU.findResults.elementAt(i))
+                        .getStr(DICOM_RTC.DD_SeriesInstanceUID);
+
+                if ( (uid != null) && (uid.trim().length() > 0) && !uids.contains(uid.trim())) {
+                    uids.add(uid.trim());
+                }
+            }
+
+            return uids.toArray(new String[uids.size()]);
+        } finally {
+            queryPDU.close();
+        }
+    }
+
     /**
      * getMsgID - This returns the msgID for the outgoing C-Move Request.
      * 
@@ -7,9 +7,15 @@ import gov.nih.mipav.model.util.*;
 import gov.nih.mipav.view.*;
 import gov.nih.mipav.view.dialogs.JDialogText;
 
+import gov.nih.mipav.util.ThreadUtil;
+
+import java.awt.GraphicsEnvironment;
 import java.io.*;
 import java.net.*;
+import java.util.LinkedList;
 import java.util.Vector;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.swing.JFrame;
 
@@ -18,6 +24,14 @@ import javax.swing.JFrame;
  * This is the DICOM server class that hangs a listener on a given port for incoming image store requests from a remote
  * DICOM client.
  * 
+ * <p>
+ * Several remote clients can store images at the same time: each accepted association is served on its own thread by a
+ * receiver created for it, up to the number of associations set by the DICOMReceiverAssociations preference. Further
+ * associations wait for a thread to be free. A preference of 1 serves the associations one after another on the
+ * listening thread. Received objects are written to disk on the I/O pool while the next object is read from the
+ * network, and the association only ends once its files are written.
+ * </p>
+ * 
  * <hr>
  * 
  * This DICOM communication package was originally based on the Java Dicom Package, whose license is below:
@@ -75,7 +89,13 @@ public class DICOM_Receiver extends DICOM_PDUService implements Runnable, Observ
     // -------------------------------------------------------------------------------------
 
     /** Used to number XRay image file names so that they are numbered differently. */
-    private static int crNum = 1;
+    private static final AtomicInteger crNum = new AtomicInteger(1);
+
+    /** Largest number of received objects of an association that wait to be written to disk. */
+    private static final int MAX_PENDING_WRITES = 4;
+
+    /** Numbers the threads serving associations. */
+    private static final AtomicInteger associationThreads = new AtomicInteger();
 
     // ~ Instance fields
     // ------------------------------------------------------------------------------------------------
@@ -83,24 +103,33 @@ public class DICOM_Receiver extends DICOM_PDUService implements Runnable, Observ
     /** Socket used to receive the data. */
     private Socket acceptedSocket = null;
 
+    /** Threads serving the associations, when several are served at once. */
+    private ExecutorService associationPool = null;
+
     /** Flag to indicate if the receive process should be cancelled. Cancel if true. */
-    private boolean cancelled = false;
+    private volatile boolean cancelled = false;
 
     /** DOCUMENT ME! */
     private boolean changed = false;
 
     /** DOCUMENT ME! */
-    private String defaultStorageDir;
+    private volatile String defaultStorageDir;
 
     /** A semicolon delimited list of the storage properties to use for this receiver */
     private final String storageProperty;
 
     /** DOCUMENT ME! */
-    private final Vector fileNameList = new Vector();
+    private final Vector<String> fileNameList = new Vector<String>();
 
     /** DOCUMENT ME! */
     private final Vector observerList = new Vector();
 
+    /** The receiver listening on the port, for a receiver serving one association. Null for the listening receiver. */
+    private final DICOM_Receiver listener;
+
+    /** Writes of received objects to disk that have not finished, oldest first. */
+    private final LinkedList<Future<?>> pendingWrites = new LinkedList<Future<?>>();
+
     /** Port number used to accept data. */
     private int port = 3100;
 
@@ -132,10 +161,26 @@ public class DICOM_Receiver extends DICOM_PDUService implements Runnable, Observ
     public DICOM_Receiver(final String storageKey) {
         super();
         storageProperty = storageKey;
+        listener = null;
         verification = new DICOM_Verification(null, null);
         start(Thread.MIN_PRIORITY);
     }
 
+    /**
+     * Creates the receiver serving one association accepted by a listening receiver.
+     * 
+     * @param listener the receiver that accepted the association
+     */
+    private DICOM_Receiver(final DICOM_Receiver listener) {
+        super();
+        this.listener = listener;
+        storageProperty = listener.storageProperty;
+        port = listener.port;
+        verification = new DICOM_Verification(null, null);
+        dicomMessageDisplayer = listener.dicomMessageDisplayer;
+        addAllSupportedAbstractSyntaxes();
+    }
+
     // ~ Methods
     // --------------------------------------------------------------------------------------------------------
 
@@ -233,6 +278,12 @@ public class DICOM_Receiver extends DICOM_PDUService implements Runnable, Observ
         // accept storage SOP UIDs listed in pdu.addAllSupportedAbstractSyntaxes().
         addAllSupportedAbstractSyntaxes();
 
+        final int maxAssociations = DICOM_Receiver.getMaxAssociations();
+
+        if (maxAssociations > 1) {
+            associationPool = DICOM_Receiver.createAssociationPool(maxAssociations);
+        }
+
         // synchronous routine for handling connection requests
         while (runner.keepGoing()) {
 
@@ -246,45 +297,25 @@ public class DICOM_Receiver extends DICOM_PDUService implements Runnable, Observ
                     // during socket acceptance " + error + "\n");
                 }
 
-                if (acceptedSocket != null) {
-
-                    // Return the port number on the remote host to which this socket is connected.
-                    final InetAddress inetAddress = acceptedSocket.getInetAddress();
-
-                    if (Preferences.debugLevel(Preferences.DEBUG_COMMS)) {
-                        Preferences.debug("DICOMReceiver.mipavReciever: (" + this.hashCode()
-                                + ") Accepted connection from " + inetAddress + "\n");
-                    }
-
-                    try {
-
-                        // Call the client routine to process the DICOM C-Store Request or C-Echo
-                        receiverClient(acceptedSocket);
-                    } catch (final Exception e) {
-                        showMessage("receiverClient() exception: " + e);
-
-                        // report it even if showMessage() doesn't ...
-                        if (Preferences.debugLevel(Preferences.DEBUG_COMMS)) {
-                            Preferences.debug("DICOMReceiver.mipavReciever: " + e);
-                        }
-                    }
-
-                    if (Preferences.debugLevel(Preferences.DEBUG_COMMS)) {
-                        Preferences.debug("DICOMReceiver.mipavReciever: (" + this.hashCode()
-                                + ") Closing connection from " + inetAddress + "\n");
-                    }
-
-                    try {
-                        acceptedSocket.close();
-                    } catch (final Exception e) {
+                if ( (acceptedSocket != null) && (associationPool != null)) {
+                    final Socket socket = acceptedSocket;
 
-                        if (Preferences.debugLevel(Preferences.DEBUG_COMMS)) {
-                            Preferences.debug("DICOMReceiver.mipavReciever: Problems closing socket." + "\n");
+                    acceptedSocket = null;
+                    associationPool.execute(new Runnable() {
+                        public void run() {
+                            new DICOM_Receiver(DICOM_Receiver.this).serveAssociation(socket);
                         }
-                    }
-
+                    });
+                } else if (acceptedSocket != null) {
+                    serveAssociation(acceptedSocket);
                     acceptedSocket = null;
 
+                    /**
+                     * Notifies the observers that this object has changed.
+                     */
+                    if (hasChanged()) {
+                        notifyObservers(fileNameList);
+                    }
                 }
             } catch (final Exception e) {
 
@@ -294,14 +325,12 @@ public class DICOM_Receiver extends DICOM_PDUService implements Runnable, Observ
 
                 e.printStackTrace();
             }
+        }
 
-            /**
-             * Notifies the observers that this object has changed.
-             */
-            if (hasChanged()) {
-                notifyObservers(fileNameList);
-            }
-
+        // associations being served are finished, new ones are no longer accepted
+        if (associationPool != null) {
+            associationPool.shutdown();
+            associationPool = null;
         }
 
         // cleanup
@@ -434,6 +463,7 @@ public class DICOM_Receiver extends DICOM_PDUService implements Runnable, Observ
                         fileDicom = new FileDicom("temp.dcm");
                         addPreambleAndGroupTwoTags(dco); // Build DICOM part 10 preample.
 
+                        // the buffer of the previous object may still be written to disk
                         if ( (pre_and_fullData == null)
                                 || (pre_and_fullData.length() < (preambleBuffer.length + compData.length()))) {
                             pre_and_fullData = new ByteBuffer(preambleBuffer.length + compData.length());
@@ -512,6 +542,10 @@ public class DICOM_Receiver extends DICOM_PDUService implements Runnable, Observ
                             .getDefaultStorageKey()))[2]
                             + File.separatorChar;
 
+                    if (listener != null) {
+                        listener.defaultStorageDir = defaultStorageDir;
+                    }
+
                     String filePath = defaultStorageDir;
                     String fileName = new String("");
 
@@ -527,8 +561,8 @@ public class DICOM_Receiver extends DICOM_PDUService implements Runnable, Observ
                         final int imageIndex = ddo.getInt16(DICOM_RTC.DD_ImageIndex);
                         fileName = fileName.concat(File.separatorChar + "i_" + imageIndex + ".dcm");
                     } else if (modality.equals("CR")) {
-                        fileName = fileName.concat(File.separatorChar + "i_" + DICOM_Receiver.crNum + ".dcm");
-                        DICOM_Receiver.crNum++;
+                        fileName = fileName.concat(File.separatorChar + "i_" + DICOM_Receiver.crNum.getAndIncrement()
+                                + ".dcm");
                     } else if ( (imageNo != null) || !imageNo.equals("")) {
 
                         try {
@@ -549,35 +583,33 @@ public class DICOM_Receiver extends DICOM_PDUService implements Runnable, Observ
                             fileName = fileName.concat(File.separatorChar + "i_" + imageNumStr + imageNo + ".dcm");
                         } catch (final NumberFormatException nfe) {
                             String imageNumStr = new String();
+                            final int number = DICOM_Receiver.crNum.getAndIncrement();
 
-                            if (DICOM_Receiver.crNum < 10) {
+                            if (number < 10) {
                                 imageNumStr += "000";
-                            } else if (DICOM_Receiver.crNum < 100) {
+                            } else if (number < 100) {
                                 imageNumStr += "00";
-                            } else if (DICOM_Receiver.crNum < 1000) {
+                            } else if (number < 1000) {
                                 imageNumStr += "0";
                             }
 
-                            fileName = fileName.concat(File.separatorChar + "i_" + imageNumStr + DICOM_Receiver.crNum
-                                    + ".dcm");
-                            DICOM_Receiver.crNum++;
+                            fileName = fileName.concat(File.separatorChar + "i_" + imageNumStr + number + ".dcm");
                         } catch (final Exception e) {
                             e.printStackTrace();
                         }
                     } else {
                         String imageNumStr = new String();
+                        final int number = DICOM_Receiver.crNum.getAndIncrement();
 
-                        if (DICOM_Receiver.crNum < 10) {
+                        if (number < 10) {
                             imageNumStr += "000";
-                        } else if (DICOM_Receiver.crNum < 100) {
+                        } else if (number < 100) {
                             imageNumStr += "00";
-                        } else if (DICOM_Receiver.crNum < 1000) {
+                        } else if (number < 1000) {
                             imageNumStr += "0";
                         }
 
-                        fileName = fileName.concat(File.separatorChar + "i_" + imageNumStr + DICOM_Receiver.crNum
-                                + ".dcm");
-                        DICOM_Receiver.crNum++;
+                        fileName = fileName.concat(File.separatorChar + "i_" + imageNumStr + number + ".dcm");
                     }
 
                     DICOMDisplayer.setMessageType(process, DICOMDisplayer.PROGRESS);
@@ -595,8 +627,9 @@ public class DICOM_Receiver extends DICOM_PDUService implements Runnable, Observ
                                 + filePath + fileName + "\n");
                     }
 
-                    // Save image (with preample appended) data to file
-                    saveImageToFile(pre_and_fullData, filePath + fileName);
+                    // Save image (with preample appended) data to file, while the next object is received
+                    saveImageToFileLater(pre_and_fullData, filePath + fileName);
+                    pre_and_fullData = null;
                     fileNameList.add(filePath + fileName);
                     // preambleBuffer = null;
 
@@ -621,6 +654,8 @@ public class DICOM_Receiver extends DICOM_PDUService implements Runnable, Observ
                     // When images are pushed dicomMessageDisplayer appears null
                     if (dicomMessageDisplayer != null) {
                         (dicomMessageDisplayer).setSucceeded(true);
+                    } else if (GraphicsEnvironment.isHeadless()) {
+                        // no window to list the received images in
                     } else if ( (dicomMessageDisplayer == null) && (receivedImageDialog == null)) {
 
                         // make non-modal message frame
@@ -652,10 +687,12 @@ public class DICOM_Receiver extends DICOM_PDUService implements Runnable, Observ
                                 + ": " + filePath + fileName + "\n");
                     }
 
-                    if (cancelled) {
+                    final DICOM_Receiver owner = (listener != null) ? listener : this;
+
+                    if (owner.cancelled) {
                         DICOMDisplayer.setMessageType(process, DICOMDisplayer.STATUS);
                         showMessage("Cancelled");
-                        cancelled = false;
+                        owner.cancelled = false;
 
                         break;
                     }
@@ -666,7 +703,12 @@ public class DICOM_Receiver extends DICOM_PDUService implements Runnable, Observ
             showMessage("" + e);
         }
 
-        System.gc();
+        finishWrites();
+
+        // associations served side by side leave the collection to the VM
+        if (listener == null) {
+            System.gc();
+        }
 
         /**
          * Marks this object as having been changed.
@@ -819,6 +861,163 @@ public class DICOM_Receiver extends DICOM_PDUService implements Runnable, Observ
 
     }
 
+    /**
+     * Creates the threads serving the associations. They end when they have been idle for a while.
+     * 
+     * @param size the number of associations served at once
+     * 
+     * @return the pool
+     */
+    private static ExecutorService createAssociationPool(final int size) {
+        final ThreadPoolExecutor pool = new ThreadPoolExecutor(size, size, 30L, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+                    public Thread newThread(final Runnable r) {
+                        final Thread thread = new Thread(r, "mipav-dicom-receiver-"
+                                + DICOM_Receiver.associationThreads.incrementAndGet());
+
+                        thread.setDaemon(true);
+
+                        return thread;
+                    }
+                });
+
+        pool.allowCoreThreadTimeOut(true);
+
+        return pool;
+    }
+
+    /**
+     * Returns the number of associations to serve at once.
+     * 
+     * @return the DICOMReceiverAssociations preference, at least 1
+     */
+    private static int getMaxAssociations() {
+
+        try {
+            return Math.max(1, Integer.parseInt(Preferences.getProperty(Preferences.PREF_DICOM_RECEIVER_ASSOCIATIONS)
+                    .trim()));
+        } catch (final RuntimeException e) {
+            return 1;
+        }
+    }
+
+    /**
+     * Waits until the received objects of the association are written to disk.
+     */
+    private void finishWrites() {
+
+        while ( !pendingWrites.isEmpty()) {
+            waitForWrite(pendingWrites.removeFirst());
+        }
+    }
+
+    /**
+     * Takes the names of the files received by an association served on its own thread, and notifies the observers.
+     * 
+     * @param files the names of the received files
+     */
+    private synchronized void receivedFiles(final Vector<String> files) {
+        fileNameList.clear();
+        fileNameList.addAll(files);
+        setChanged();
+        notifyObservers(fileNameList);
+    }
+
+    /**
+     * Writes a received object to disk on the I/O pool. Waits for the oldest write of the association first when
+     * too many are waiting, so the objects held in memory stay few.
+     * 
+     * @param dataObj the object with its preamble, which must not be changed afterwards
+     * @param fileName name of the file to write
+     */
+    private void saveImageToFileLater(final ByteBuffer dataObj, final String fileName) {
+
+        while (pendingWrites.size() >= DICOM_Receiver.MAX_PENDING_WRITES) {
+            waitForWrite(pendingWrites.removeFirst());
+        }
+
+        pendingWrites.add(ThreadUtil.ioThreadPool.submit(new Callable<Object>() {
+            public Object call() throws DICOM_Exception {
+                saveImageToFile(dataObj, fileName);
+
+                return null;
+            }
+        }));
+    }
+
+    /**
+     * Serves an accepted association and closes its socket. A receiver serving one association on its own thread
+     * then hands the names of the received files to the listening receiver.
+     * 
+     * @param socket the accepted socket
+     */
+    private void serveAssociation(final Socket socket) {
+
+        // Return the port number on the remote host to which this socket is connected.
+        final InetAddress inetAddress = socket.getInetAddress();
+
+        if (Preferences.debugLevel(Preferences.DEBUG_COMMS)) {
+            Preferences.debug("DICOMReceiver.mipavReciever: (" + this.hashCode() + ") Accepted connection from "
+                    + inetAddress + "\n");
+        }
+
+        try {
+
+            // Call the client routine to process the DICOM C-Store Request or C-Echo
+            receiverClient(socket);
+        } catch (final Exception e) {
+            showMessage("receiverClient() exception: " + e);
+
+            // report it even if showMessage() doesn't ...
+            if (Preferences.debugLevel(Preferences.DEBUG_COMMS)) {
+                Preferences.debug("DICOMReceiver.mipavReciever: " + e);
+            }
+        }
+
+        if (Preferences.debugLevel(Preferences.DEBUG_COMMS)) {
+            Preferences.debug("DICOMReceiver.mipavReciever: (" + this.hashCode() + ") Closing connection from "
+                    + inetAddress + "\n");
+        }
+
+        try {
+            socket.close();
+        } catch (final Exception e) {
+
+            if (Preferences.debugLevel(Preferences.DEBUG_COMMS)) {
+                Preferences.debug("DICOMReceiver.mipavReciever: Problems closing socket." + "\n");
+            }
+        }
+
+        if (listener != null) {
+
+            if (hasChanged()) {
+                listener.receivedFiles(fileNameList);
+            }
+
+            finalize();
+        }
+    }
+
+    /**
+     * Waits for a write of a received object to end, reporting its failure.
+     * 
+     * @param write the write
+     */
+    private void waitForWrite(final Future<?> write) {
+
+        try {
+            write.get();
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (final ExecutionException e) {
+            showMessage("Unable to save received image: " + e.getCause());
+
+            if (Preferences.debugLevel(Preferences.DEBUG_COMMS)) {
+                Preferences.debug("DICOMReceiver.waitForWrite: " + e.getCause() + "\n");
+            }
+        }
+    }
+
     /**
      * Builds buffer of DICOM part 10 preamble and require Part 10 group 2 tags.
      * 
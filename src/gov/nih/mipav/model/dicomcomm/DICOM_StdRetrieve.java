@@ -122,6 +122,46 @@ public class DICOM_StdRetrieve extends DICOM_SOP {
         cMoveRq.setMsgID(MSG_ID);
     }
 
+    /**
+     * Sends a C-CANCEL-MOVE request for a C-MOVE request still being performed, without waiting for its response.
+     * 
+     * @param pdu PDU object of the association the C-MOVE was sent on
+     * @param msgID message ID of the C-MOVE request
+     * 
+     * @throws DICOM_Exception if the request cannot be sent
+     */
+    public void writeCancel(final DICOM_PDUService pdu, final int msgID) throws DICOM_Exception {
+        final DICOM_Object dco = new DICOM_Object();
+
+        dco.setInt16(DICOM_RTC.DD_CommandField, DICOM_Constants.COMMAND_CMoveCancelRQ);
+        dco.setInt16(DICOM_RTC.DD_MessageIDBeingRespondedTo, msgID);
+        dco.setInt16(DICOM_RTC.DD_DataSetType, DICOM_Constants.DSTYPE_NODATAPRESENT);
+
+        pdu.write(dco, UID, (byte) 1);
+    }
+
+    /**
+     * Sends a C-MOVE request with the current message ID, without waiting for its responses. The responses are read
+     * with cMoveRsp and matched to the request by their message ID being responded to.
+     * 
+     * @param pdu PDU object
+     * @param ddo the move identifier
+     * @param localAppTitle application entity title of the move destination
+     * 
+     * @throws DICOM_Exception if the request cannot be sent
+     */
+    public void writeRequest(final DICOM_PDUService pdu, final DICOM_Object ddo, final byte[] localAppTitle)
+            throws DICOM_Exception {
+
+        // sending the identifier of the previous request released the buffer
+        if (pdu.ioBuffer == null) {
+            pdu.ioBuffer = new DICOM_FileIO();
+        }
+
+        pdu.parseDICOMintoBuffer(ddo.copy(), pdu.pDataTF.getVRLinkedBuffer(), pdu.ioBuffer);
+        cMoveRq.write(pdu, null, UID, null, ddo, localAppTitle);
+    }
+
     /**
      * Transfers a C-MOVE request to a SCP.
      * 
@@ -153,8 +193,7 @@ public class DICOM_StdRetrieve extends DICOM_SOP {
             Preferences.debug(DICOM_Util.timeStamper() + " DICOM_StdRetrieve.write: MOVE request.\n");
         }
 
-        pdu.parseDICOMintoBuffer(ddo.copy(), pdu.pDataTF.getVRLinkedBuffer(), pdu.ioBuffer);
-        cMoveRq.write(pdu, null, UID, null, ddo, outAETitle);
+        writeRequest(pdu, ddo, outAETitle);
 
         if (Preferences.debugLevel(Preferences.DEBUG_COMMS)) {
             Preferences.debug(DICOM_Util.timeStamper() + " DICOM_StdRetrieve.write: MOVE request completed.\n");
@@ -174,7 +174,7 @@ public class DICOM_UserInformation extends DICOM_PDUItemType {
 
                 case PDUTYPE_AsyncOpWindowSubItem:
 
-                    // Not supported and is optional - however it is read in.
+                    // Optional, negotiates the operations outstanding at once
                     aSyncSubItem = new DICOM_AsyncOpWindowSubItem();
                     aSyncSubItem.read(connection);
                     count = count - aSyncSubItem.calcSize();
@@ -199,6 +199,10 @@ public class DICOM_UserInformation extends DICOM_PDUItemType {
         maxSubLength.write(connection);
         implementationClass.write(connection);
         implementationVersion.write(connection);
+
+        if (aSyncSubItem != null) {
+            aSyncSubItem.write(connection);
+        }
     }
 
 }
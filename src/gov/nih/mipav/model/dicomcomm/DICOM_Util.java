@@ -2,6 +2,7 @@ package gov.nih.mipav.model.dicomcomm;
 
 
 import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
 
 
 /**
@@ -69,7 +70,8 @@ public class DICOM_Util {
     //
     // *******************************************************************************
 
-    public static int uniqueID = 1;
+    /** Next unique number. Atomic since associations running in parallel take message IDs at once. */
+    private static final AtomicInteger uniqueID = new AtomicInteger(1);
 
     // ~ Methods
     // --------------------------------------------------------------------------------------------------------
@@ -223,7 +225,7 @@ public class DICOM_Util {
      * @return a positive unique number
      */
     public static final int getUniqueID() {
-        return (DICOM_Util.uniqueID++);
+        return (DICOM_Util.uniqueID.getAndIncrement() & Integer.MAX_VALUE);
     }
 
     /**
@@ -250,13 +252,15 @@ public class DICOM_Util {
      * @return an ODD, positive, 8 bit unique number
      */
     public static final int getUniqueOddID() {
+        int current;
         int oddValue;
 
         do {
-            oddValue = DICOM_Util.getUniqueID();
-        } while ( (oddValue % 2) == 0);
+            current = DICOM_Util.uniqueID.get();
+            oddValue = current | 1;
+        } while ( !DICOM_Util.uniqueID.compareAndSet(current, oddValue + 1));
 
-        return (oddValue);
+        return (oddValue & Integer.MAX_VALUE);
     }
 
     /**
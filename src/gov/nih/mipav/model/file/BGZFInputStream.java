@@ -0,0 +1,516 @@
+package gov.nih.mipav.model.file;
+
+
+import gov.nih.mipav.util.ThreadUtil;
+
+import java.io.*;
+import java.util.LinkedList;
+import java.util.concurrent.*;
+import java.util.zip.*;
+
+
+/**
+ * Reads a blocked gzip (BGZF) file, inflating its members concurrently. A BGZF file is an ordinary multi-member gzip
+ * file, readable by any gzip tool, in which every member holds at most 64 KiB of data and records its own compressed
+ * size in a "BC" extra field. The size lets the members be split off the compressed stream without inflating them, so
+ * they can be handed to the shared pool while the caller consumes the ones that are already done. This is the layout
+ * written by bgzip and by BGZFOutputStream.
+ *
+ * <p>Only a bounded window of members is in flight, so memory use does not depend on the size of the file. The thread
+ * reading the stream inflates the next member itself when no pool thread has started on it yet, so a saturated pool
+ * slows the read down but cannot deadlock it.</p>
+ *
+ * @see  BGZFOutputStream
+ */
+public class BGZFInputStream extends InputStream {
+
+    //~ Static fields/initializers -------------------------------------------------------------------------------------
+
+    /** Largest size of a member, compressed or not. */
+    public static final int MAX_BLOCK_SIZE = 65536;
+
+    /** Gzip flag indicating a header crc. */
+    private static final int FHCRC = 2;
+
+    /** Gzip flag indicating an extra field. */
+    private static final int FEXTRA = 4;
+
+    /** Gzip flag indicating a file name. */
+    private static final int FNAME = 8;
+
+    /** Gzip flag indicating a comment. */
+    private static final int FCOMMENT = 16;
+
+    //~ Instance fields ------------------------------------------------------------------------------------------------
+
+    /** The compressed stream. */
+    private final InputStream in;
+
+    /** Number of members read ahead of the one being consumed. */
+    private final int window;
+
+    /** Members that have been split off the compressed stream, in order. */
+    private final LinkedList<FutureTask<byte[]>> pending = new LinkedList<FutureTask<byte[]>>();
+
+    /** Data of the member being consumed. */
+    private byte[] current = new byte[0];
+
+    /** Position of the next byte in current. */
+    private int position;
+
+    /** Set when the last member has been split off. */
+    private boolean eof;
+
+    /** Set once the stream is closed. */
+    private boolean closed;
+
+    //~ Constructors ---------------------------------------------------------------------------------------------------
+
+    /**
+     * Creates a stream reading the members of a BGZF file.
+     *
+     * @param  in  the compressed stream, positioned at the start of a member
+     */
+    public BGZFInputStream(final InputStream in) {
+        this.in = in;
+        window = 4 * ThreadUtil.nthreads;
+    }
+
+    //~ Methods --------------------------------------------------------------------------------------------------------
+
+    /**
+     * Returns whether a file starts with a BGZF member, in which case it can be read with this stream. Gzip files that
+     * do not record the size of their members are read with GZIPInputStream.
+     *
+     * @param   file  the file to test
+     *
+     * @return  true if the first gzip member of the file carries a block size
+     */
+    public static boolean isBGZF(final File file) {
+        DataInputStream in = null;
+
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+
+            final byte[] header = new byte[12];
+
+            in.readFully(header);
+
+            if ( !BGZFInputStream.isMemberHeader(header) || ( (header[3] & BGZFInputStream.FEXTRA) == 0)) {
+                return false;
+            }
+
+            final byte[] extra = new byte[BGZFInputStream.getShort(header, 10)];
+
+            in.readFully(extra);
+
+            return BGZFInputStream.getBlockSize(extra) > 0;
+        } catch (final IOException e) {
+            return false;
+        } finally {
+
+            if (in != null) {
+
+                try {
+                    in.close();
+                } catch (final IOException e) { }
+            }
+        }
+    }
+
+    /**
+     * Returns the number of bytes that can be read without inflating another member.
+     *
+     * @return  the number of bytes left in the current member
+     */
+    public int available() {
+        return current.length - position;
+    }
+
+    /**
+     * Closes the compressed stream. Members still in flight are cancelled.
+     *
+     * @throws  IOException  if the compressed stream cannot be closed
+     */
+    public void close() throws IOException {
+
+        if (closed) {
+            return;
+        }
+
+        closed = true;
+
+        for (final FutureTask<byte[]> task : pending) {
+            task.cancel(false);
+        }
+
+        pending.clear();
+        in.close();
+    }
+
+    /**
+     * Reads a single byte.
+     *
+     * @return  the byte, or -1 at the end of the file
+     *
+     * @throws  IOException  if a member cannot be read or is corrupt
+     */
+    public int read() throws IOException {
+
+        if ( !fill()) {
+            return -1;
+        }
+
+        return current[position++] & 0xff;
+    }
+
+    /**
+     * Reads up to len bytes, crossing member boundaries as needed.
+     *
+     * @param   b    the buffer to read into
+     * @param   off  offset in b of the first byte
+     * @param   len  maximum number of bytes to read
+     *
+     * @return  the number of bytes read, or -1 at the end of the file
+     *
+     * @throws  IOException  if a member cannot be read or is corrupt
+     */
+    public int read(final byte[] b, final int off, final int len) throws IOException {
+
+        if (len == 0) {
+            return 0;
+        }
+
+        int count = 0;
+
+        while ( (count < len) && fill()) {
+            final int n = Math.min(len - count, current.length - position);
+
+            System.arraycopy(current, position, b, off + count, n);
+            position += n;
+            count += n;
+        }
+
+        return (count == 0) ? -1 : count;
+    }
+
+    /**
+     * Returns the block size recorded in the extra field of a member.
+     *
+     * @param   extra  the extra field
+     *
+     * @return  the total size of the member, or 0 if the field has no BC subfield
+     */
+    private static int getBlockSize(final byte[] extra) {
+        int i = 0;
+
+        while ( (i + 4) <= extra.length) {
+            final int length = BGZFInputStream.getShort(extra, i + 2);
+
+            if ( (extra[i] == 'B') && (extra[i + 1] == 'C') && (length == 2) && ( (i + 6) <= extra.length)) {
+                return BGZFInputStream.getShort(extra, i + 4) + 1;
+            }
+
+            i += 4 + length;
+        }
+
+        return 0;
+    }
+
+    /**
+     * Reads a little endian unsigned short.
+     *
+     * @param   b    the bytes
+     * @param   off  offset of the first byte
+     *
+     * @return  the value
+     */
+    private static int getShort(final byte[] b, final int off) {
+        return (b[off] & 0xff) | ( (b[off + 1] & 0xff) << 8);
+    }
+
+    /**
+     * Reads a little endian int.
+     *
+     * @param   b    the bytes
+     * @param   off  offset of the first byte
+     *
+     * @return  the value
+     */
+    private static int getInt(final byte[] b, final int off) {
+        return BGZFInputStream.getShort(b, off) | (BGZFInputStream.getShort(b, off + 2) << 16);
+    }
+
+    /**
+     * Tests the magic number and compression method of a member header.
+     *
+     * @param   header  the fixed part of the header
+     *
+     * @return  true for a deflated gzip member
+     */
+    private static boolean isMemberHeader(final byte[] header) {
+        return ( (header[0] & 0xff) == 0x1f) && ( (header[1] & 0xff) == 0x8b) && (header[2] == 8);
+    }
+
+    /**
+     * Makes sure there is data left in the current member, moving on to the next member when it is used up.
+     *
+     * @return  false at the end of the file
+     *
+     * @throws  IOException  if a member cannot be read or is corrupt
+     */
+    private boolean fill() throws IOException {
+
+        if (closed) {
+            throw new IOException("Stream closed");
+        }
+
+        while (position == current.length) {
+            queue();
+
+            if (pending.isEmpty()) {
+                return false;
+            }
+
+            final FutureTask<byte[]> task = pending.removeFirst();
+
+            // inflates the member here unless a pool thread already has
+            task.run();
+
+            try {
+                current = task.get();
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while inflating a BGZF block");
+            } catch (final ExecutionException e) {
+
+                if (e.getCause() instanceof IOException) {
+                    throw (IOException) e.getCause();
+                }
+
+                throw new IOException("Unable to inflate a BGZF block: " + e.getCause());
+            }
+
+            position = 0;
+        }
+
+        return true;
+    }
+
+    /**
+     * Splits members off the compressed stream until the window is full and hands them to the pool.
+     *
+     * @throws  IOException  if the compressed stream cannot be read
+     */
+    private void queue() throws IOException {
+
+        while ( !eof && (pending.size() < window)) {
+            final byte[] member = readMember();
+
+            if (member == null) {
+                eof = true;
+
+                break;
+            }
+
+            final FutureTask<byte[]> task = new FutureTask<byte[]>(new Inflate(member));
+
+            pending.add(task);
+
+            if (ThreadUtil.nthreads > 1) {
+                ThreadUtil.mipavThreadPool.execute(task);
+            }
+        }
+    }
+
+    /**
+     * Reads the next member from the compressed stream.
+     *
+     * @return  the deflated data of the member followed by its crc and size, or null at the end of the file
+     *
+     * @throws  IOException  if the member is truncated or does not record its size
+     */
+    private byte[] readMember() throws IOException {
+        final byte[] header = new byte[12];
+        int count = 0;
+
+        while (count < header.length) {
+            final int n = in.read(header, count, header.length - count);
+
+            if (n < 0) {
+
+                if (count == 0) {
+                    return null;
+                }
+
+                throw new EOFException("Truncated BGZF block header");
+            }
+
+            count += n;
+        }
+
+        if ( !BGZFInputStream.isMemberHeader(header)) {
+            throw new IOException("Not in gzip format");
+        }
+
+        final int flags = header[3];
+
+        if ( (flags & BGZFInputStream.FEXTRA) == 0) {
+            throw new IOException("Gzip member without a BGZF block size");
+        }
+
+        final byte[] extra = new byte[BGZFInputStream.getShort(header, 10)];
+
+        readFully(extra, extra.length);
+
+        final int blockSize = BGZFInputStream.getBlockSize(extra);
+
+        if (blockSize == 0) {
+            throw new IOException("Gzip member without a BGZF block size");
+        }
+
+        int headerSize = header.length + extra.length;
+
+        if ( (flags & BGZFInputStream.FNAME) != 0) {
+            headerSize += skipString();
+        }
+
+        if ( (flags & BGZFInputStream.FCOMMENT) != 0) {
+            headerSize += skipString();
+        }
+
+        if ( (flags & BGZFInputStream.FHCRC) != 0) {
+            readFully(new byte[2], 2);
+            headerSize += 2;
+        }
+
+        if ( (blockSize - headerSize) < 8) {
+            throw new IOException("Invalid BGZF block size " + blockSize);
+        }
+
+        final byte[] member = new byte[blockSize - headerSize];
+
+        readFully(member, member.length);
+
+        return member;
+    }
+
+    /**
+     * Reads bytes from the compressed stream.
+     *
+     * @param   b    the buffer to fill
+     * @param   len  the number of bytes to read
+     *
+     * @throws  IOException  if the stream ends first
+     */
+    private void readFully(final byte[] b, final int len) throws IOException {
+        int count = 0;
+
+        while (count < len) {
+            final int n = in.read(b, count, len - count);
+
+            if (n < 0) {
+                throw new EOFException("Truncated BGZF block");
+            }
+
+            count += n;
+        }
+    }
+
+    /**
+     * Skips a zero terminated string of the member header.
+     *
+     * @return  the number of bytes skipped
+     *
+     * @throws  IOException  if the stream ends first
+     */
+    private int skipString() throws IOException {
+        int count = 0;
+        int b;
+
+        do {
+            b = in.read();
+
+            if (b < 0) {
+                throw new EOFException("Truncated gzip header");
+            }
+
+            count++;
+        } while (b != 0);
+
+        return count;
+    }
+
+    //~ Inner Classes --------------------------------------------------------------------------------------------------
+
+    /**
+     * Inflates one member and checks it against its crc and size.
+     */
+    private static class Inflate implements Callable<byte[]> {
+
+        /** Deflated data of the member followed by its crc and size. */
+        private final byte[] member;
+
+        /**
+         * Creates the task.
+         *
+         * @param  member  deflated data of the member followed by its crc and size
+         */
+        private Inflate(final byte[] member) {
+            this.member = member;
+        }
+
+        /**
+         * Inflates the member.
+         *
+         * @return  the data of the member
+         *
+         * @throws  IOException  if the member is corrupt
+         */
+        public byte[] call() throws IOException {
+            final int length = member.length - 8;
+            final int size = BGZFInputStream.getInt(member, length + 4);
+
+            if ( (size < 0) || (size > BGZFInputStream.MAX_BLOCK_SIZE)) {
+                throw new IOException("Invalid BGZF data size " + size);
+            }
+
+            final byte[] data = new byte[size];
+            final Inflater inflater = new Inflater(true);
+
+            try {
+                inflater.setInput(member, 0, length);
+
+                int count = 0;
+
+                while ( (count < size) && !inflater.finished()) {
+                    final int n = inflater.inflate(data, count, size - count);
+
+                    if ( (n == 0) && (inflater.needsInput() || inflater.needsDictionary())) {
+                        break;
+                    }
+
+                    count += n;
+                }
+
+                if (count != size) {
+                    throw new EOFException("Truncated BGZF block data");
+                }
+            } catch (final DataFormatException e) {
+                throw new ZipException("Corrupt BGZF block: " + e.getMessage());
+            } finally {
+                inflater.end();
+            }
+
+            final CRC32 crc = new CRC32();
+
+            crc.update(data, 0, size);
+
+            if ((int) crc.getValue() != BGZFInputStream.getInt(member, length)) {
+                throw new ZipException("Corrupt BGZF block: crc mismatch");
+            }
+
+            return data;
+        }
+    }
+}
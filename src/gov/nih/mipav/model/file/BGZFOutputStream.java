@@ -0,0 +1,351 @@
+package gov.nih.mipav.model.file;
+
+
+import gov.nih.mipav.util.ThreadUtil;
+
+import java.io.*;
+import java.util.LinkedList;
+import java.util.concurrent.*;
+import java.util.zip.*;
+
+
+/**
+ * Writes a blocked gzip (BGZF) file, deflating its members concurrently. The data is cut into members of at most
+ * BLOCK_DATA_SIZE bytes, each carrying its compressed size in a "BC" extra field and followed by the empty end of file
+ * member of the format. The result is a valid multi-member gzip file that every gzip tool reads, and that
+ * BGZFInputStream reads back in parallel.
+ *
+ * <p>The stream extends DeflaterOutputStream so it can stand in for a GZIPOutputStream, but it does its own
+ * deflating: members are deflated on the shared pool and written in order, with a bounded number in flight.</p>
+ *
+ * @see  BGZFInputStream
+ */
+public class BGZFOutputStream extends DeflaterOutputStream {
+
+    //~ Static fields/initializers -------------------------------------------------------------------------------------
+
+    /** Number of bytes of data in a full member. Leaves room for the header and trailer of a stored member. */
+    public static final int BLOCK_DATA_SIZE = 0xff00;
+
+    /** Size of the member header: the fixed gzip header and the BC extra field. */
+    private static final int HEADER_SIZE = 18;
+
+    /** Size of the member trailer: crc and data size. */
+    private static final int TRAILER_SIZE = 8;
+
+    /** The empty member that ends a BGZF file. */
+    private static final byte[] EOF_BLOCK = {
+        0x1f, (byte) 0x8b, 8, 4, 0, 0, 0, 0, 0, (byte) 0xff, 6, 0, 'B', 'C', 2, 0, 0x1b, 0, 3, 0, 0, 0, 0, 0, 0, 0, 0, 0
+    };
+
+    //~ Instance fields ------------------------------------------------------------------------------------------------
+
+    /** Deflate compression level of the members. */
+    private final int level;
+
+    /** Number of members deflated ahead of the one being written. */
+    private final int window;
+
+    /** Members handed to the pool and not yet written, in order. */
+    private final LinkedList<FutureTask<byte[]>> pending = new LinkedList<FutureTask<byte[]>>();
+
+    /** Data of the member being filled. */
+    private byte[] block = new byte[BGZFOutputStream.BLOCK_DATA_SIZE];
+
+    /** Number of bytes in block. */
+    private int count;
+
+    /** Set once the end of file member has been written. */
+    private boolean finished;
+
+    /** Set once the stream is closed. */
+    private boolean closed;
+
+    //~ Constructors ---------------------------------------------------------------------------------------------------
+
+    /**
+     * Creates a stream writing BGZF members with the default compression level.
+     *
+     * @param  out  the stream to write the compressed data to
+     */
+    public BGZFOutputStream(final OutputStream out) {
+        this(out, Deflater.DEFAULT_COMPRESSION);
+    }
+
+    /**
+     * Creates a stream writing BGZF members.
+     *
+     * @param  out    the stream to write the compressed data to
+     * @param  level  deflate compression level, 0-9 or Deflater.DEFAULT_COMPRESSION
+     */
+    public BGZFOutputStream(final OutputStream out, final int level) {
+        super(out, new Deflater(level, true));
+        this.level = level;
+        window = 2 * ThreadUtil.nthreads;
+    }
+
+    //~ Methods --------------------------------------------------------------------------------------------------------
+
+    /**
+     * Finishes the file and closes the underlying stream.
+     *
+     * @throws  IOException  if the data cannot be written
+     */
+    public void close() throws IOException {
+
+        if (closed) {
+            return;
+        }
+
+        try {
+            finish();
+        } finally {
+            closed = true;
+            def.end();
+            out.close();
+        }
+    }
+
+    /**
+     * Writes the members still buffered or in flight and the end of file member, without closing the underlying
+     * stream.
+     *
+     * @throws  IOException  if the data cannot be written
+     */
+    public void finish() throws IOException {
+
+        if (finished) {
+            return;
+        }
+
+        if (count > 0) {
+            submit();
+        }
+
+        while ( !pending.isEmpty()) {
+            writeNext();
+        }
+
+        out.write(BGZFOutputStream.EOF_BLOCK);
+        finished = true;
+    }
+
+    /**
+     * Writes the complete members and flushes the underlying stream. A partly filled member is kept, so flushing does
+     * not shorten the members.
+     *
+     * @throws  IOException  if the data cannot be written
+     */
+    public void flush() throws IOException {
+
+        while ( !pending.isEmpty()) {
+            writeNext();
+        }
+
+        out.flush();
+    }
+
+    /**
+     * Writes a single byte.
+     *
+     * @param   b  the byte
+     *
+     * @throws  IOException  if the data cannot be written
+     */
+    public void write(final int b) throws IOException {
+        write(new byte[] {(byte) b}, 0, 1);
+    }
+
+    /**
+     * Writes len bytes, starting a new member whenever the current one is full.
+     *
+     * @param   b    the data
+     * @param   off  offset in b of the first byte
+     * @param   len  number of bytes to write
+     *
+     * @throws  IOException  if the data cannot be written
+     */
+    public void write(final byte[] b, int off, int len) throws IOException {
+
+        if (finished) {
+            throw new IOException("write beyond end of stream");
+        }
+
+        while (len > 0) {
+            final int n = Math.min(len, block.length - count);
+
+            System.arraycopy(b, off, block, count, n);
+            count += n;
+            off += n;
+            len -= n;
+
+            if (count == block.length) {
+                submit();
+            }
+        }
+    }
+
+    /**
+     * Writes a little endian short.
+     *
+     * @param  b      the buffer
+     * @param  off    offset of the first byte
+     * @param  value  the value
+     */
+    private static void putShort(final byte[] b, final int off, final int value) {
+        b[off] = (byte) value;
+        b[off + 1] = (byte) (value >>> 8);
+    }
+
+    /**
+     * Writes a little endian int.
+     *
+     * @param  b      the buffer
+     * @param  off    offset of the first byte
+     * @param  value  the value
+     */
+    private static void putInt(final byte[] b, final int off, final int value) {
+        BGZFOutputStream.putShort(b, off, value);
+        BGZFOutputStream.putShort(b, off + 2, value >>> 16);
+    }
+
+    /**
+     * Hands the current member to the pool and starts a new one, writing out finished members when too many are in
+     * flight.
+     *
+     * @throws  IOException  if the data cannot be written
+     */
+    private void submit() throws IOException {
+        final FutureTask<byte[]> task = new FutureTask<byte[]>(new Compress(block, count, level));
+
+        pending.add(task);
+
+        if (ThreadUtil.nthreads > 1) {
+            ThreadUtil.mipavThreadPool.execute(task);
+        }
+
+        block = new byte[BGZFOutputStream.BLOCK_DATA_SIZE];
+        count = 0;
+
+        while (pending.size() > window) {
+            writeNext();
+        }
+    }
+
+    /**
+     * Writes the oldest member in flight, deflating it here unless a pool thread already has.
+     *
+     * @throws  IOException  if the data cannot be written
+     */
+    private void writeNext() throws IOException {
+        final FutureTask<byte[]> task = pending.removeFirst();
+
+        task.run();
+
+        try {
+            out.write(task.get());
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while deflating a BGZF block");
+        } catch (final ExecutionException e) {
+            throw new IOException("Unable to deflate a BGZF block: " + e.getCause());
+        }
+    }
+
+    //~ Inner Classes --------------------------------------------------------------------------------------------------
+
+    /**
+     * Deflates the data of one member and wraps it in its header and trailer.
+     */
+    private static class Compress implements Callable<byte[]> {
+
+        /** Data of the member. */
+        private final byte[] data;
+
+        /** Number of bytes in data. */
+        private final int length;
+
+        /** Deflate compression level. */
+        private final int level;
+
+        /**
+         * Creates the task.
+         *
+         * @param  data    data of the member
+         * @param  length  number of bytes in data
+         * @param  level   deflate compression level
+         */
+        private Compress(final byte[] data, final int length, final int level) {
+            this.data = data;
+            this.length = length;
+            this.level = level;
+        }
+
+        /**
+         * Deflates the member. Data that does not fit in a member once deflated is stored instead.
+         *
+         * @return  the complete member
+         */
+        public byte[] call() {
+            final byte[] buffer = new byte[BGZFInputStream.MAX_BLOCK_SIZE];
+            final int space = buffer.length - BGZFOutputStream.HEADER_SIZE - BGZFOutputStream.TRAILER_SIZE;
+            int size = deflate(level, buffer, space);
+
+            if (size < 0) {
+                size = deflate(Deflater.NO_COMPRESSION, buffer, space);
+            }
+
+            final int blockSize = BGZFOutputStream.HEADER_SIZE + size + BGZFOutputStream.TRAILER_SIZE;
+            final CRC32 crc = new CRC32();
+
+            crc.update(data, 0, length);
+
+            buffer[0] = 0x1f;
+            buffer[1] = (byte) 0x8b;
+            buffer[2] = 8;
+            buffer[3] = 4;
+            buffer[9] = (byte) 0xff;
+            BGZFOutputStream.putShort(buffer, 10, 6);
+            buffer[12] = 'B';
+            buffer[13] = 'C';
+            BGZFOutputStream.putShort(buffer, 14, 2);
+            BGZFOutputStream.putShort(buffer, 16, blockSize - 1);
+            BGZFOutputStream.putInt(buffer, BGZFOutputStream.HEADER_SIZE + size, (int) crc.getValue());
+            BGZFOutputStream.putInt(buffer, BGZFOutputStream.HEADER_SIZE + size + 4, length);
+
+            final byte[] member = new byte[blockSize];
+
+            System.arraycopy(buffer, 0, member, 0, blockSize);
+
+            return member;
+        }
+
+        /**
+         * Deflates the data into the buffer after the space reserved for the header.
+         *
+         * @param   deflateLevel  compression level
+         * @param   buffer        the buffer
+         * @param   space         number of bytes available for the deflated data
+         *
+         * @return  the number of deflated bytes, or -1 if they do not fit
+         */
+        private int deflate(final int deflateLevel, final byte[] buffer, final int space) {
+            final Deflater deflater = new Deflater(deflateLevel, true);
+
+            try {
+                deflater.setInput(data, 0, length);
+                deflater.finish();
+
+                int size = 0;
+
+                while ( !deflater.finished() && (size < space)) {
+                    size += deflater.deflate(buffer, BGZFOutputStream.HEADER_SIZE + size, space - size);
+                }
+
+                return deflater.finished() ? size : -1;
+            } finally {
+                deflater.end();
+            }
+        }
+    }
+}
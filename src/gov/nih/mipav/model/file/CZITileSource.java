@@ -0,0 +1,543 @@
+package gov.nih.mipav.model.file;
+
+
+import gov.nih.mipav.view.Preferences;
+
+import java.awt.image.BufferedImage;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.TreeMap;
+
+import javax.imageio.ImageIO;
+
+
+/**
+ * Resolution pyramid of a Zeiss CZI file. CZI files store the tiles of a mosaic, and the pyramid levels ZEN adds to
+ * large mosaics, as subblocks of any size and position, listed in the subblock directory. The source reads the
+ * directory only, and presents every level as a regular grid of tiles; a tile is made from the subblocks of its level
+ * that it overlaps. The first channel, focal plane, time point and scene are read. Decoded subblocks are kept in a
+ * small cache since neighbouring tiles share them.
+ *
+ * <p>Uncompressed and JPEG compressed subblocks of Gray8, Gray16, Bgr24 and Bgra32 pixels can be read. Gray16 pixels
+ * are shown by their most significant bits as given by the ComponentBitCount of the metadata.</p>
+ */
+public class CZITileSource implements TiledImageSource {
+
+    //~ Static fields/initializers -------------------------------------------------------------------------------------
+
+    /** Width and height of the tiles the levels are cut into. */
+    private static final int TILE_SIZE = 512;
+
+    /** Pixel types read. */
+    private static final int GRAY8 = 0, GRAY16 = 1, BGR24 = 3, BGRA32 = 9;
+
+    /** Compressions read. */
+    private static final int UNCOMPRESSED = 0, JPG_FILE = 1;
+
+    /** Memory the decoded subblocks may take, in bytes. */
+    private static final long SUBBLOCK_CACHE_SIZE = 64L * 1024 * 1024;
+
+    //~ Instance fields ------------------------------------------------------------------------------------------------
+
+    /** Number of bits that Gray16 pixels are shifted right for display. */
+    private int grayShift = 8;
+
+    /** Height of the full resolution image. */
+    private int height;
+
+    /** The levels, from the full resolution image down. */
+    private final ArrayList<Level> levels = new ArrayList<Level>();
+
+    /** The file, shared by the threads reading tiles. */
+    private final RandomAccessFile raFile;
+
+    /** Decoded subblocks, keyed by their index in the subblocks list. */
+    private final TileCache subblockCache = new TileCache(SUBBLOCK_CACHE_SIZE);
+
+    /** Subblocks of the plane read. */
+    private final ArrayList<Subblock> subblocks = new ArrayList<Subblock>();
+
+    /** Width of the full resolution image. */
+    private int width;
+
+    //~ Constructors ---------------------------------------------------------------------------------------------------
+
+    /**
+     * Opens a CZI file and reads its subblock directory.
+     *
+     * @param   file  the file
+     *
+     * @throws  IOException  if the file is not a CZI file or has no subblocks that can be read
+     */
+    public CZITileSource(final File file) throws IOException {
+        raFile = new RandomAccessFile(file, "r");
+
+        try {
+
+            if ( !readString(16).trim().equals("ZISRAWFILE")) {
+                throw new IOException(file.getName() + " is not a CZI file");
+            }
+
+            raFile.seek(84);
+
+            final long directoryPosition = readLong();
+            final long metadataPosition = readLong();
+
+            readDirectory(directoryPosition);
+            readBitCount(metadataPosition);
+        } catch (final IOException e) {
+            raFile.close();
+
+            throw e;
+        }
+
+        Preferences.debug("CZITileSource: " + file.getName() + " has " + levels.size() + " pyramid levels and "
+                + subblocks.size() + " subblocks\n", Preferences.DEBUG_FILEIO);
+    }
+
+    //~ Methods --------------------------------------------------------------------------------------------------------
+
+    /**
+     * Closes the file.
+     *
+     * @throws  IOException  if the file cannot be closed
+     */
+    public void close() throws IOException {
+        subblockCache.clear();
+        raFile.close();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public int getLevelCount() {
+        return levels.size();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public int getLevelHeight(final int level) {
+        return (int) Math.ceil(height / levels.get(level).scale);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public int getLevelWidth(final int level) {
+        return (int) Math.ceil(width / levels.get(level).scale);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public int getTileHeight(final int level) {
+        return TILE_SIZE;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public int getTileWidth(final int level) {
+        return TILE_SIZE;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public int[] readTile(final int level, final int tileX, final int tileY) throws IOException {
+        final Level current = levels.get(level);
+        final int[] tile = new int[TILE_SIZE * TILE_SIZE];
+        final double left = tileX * TILE_SIZE * current.scale;
+        final double top = tileY * TILE_SIZE * current.scale;
+        final double right = left + (TILE_SIZE * current.scale);
+        final double bottom = top + (TILE_SIZE * current.scale);
+
+        for (final int index : current.subblocks) {
+            final Subblock subblock = subblocks.get(index);
+
+            if ( (subblock.x >= right) || ( (subblock.x + subblock.width) <= left) || (subblock.y >= bottom)
+                    || ( (subblock.y + subblock.height) <= top)) {
+                continue;
+            }
+
+            final int[] pixels = decode(index);
+            final double xStep = (double) subblock.storedWidth / subblock.width;
+            final double yStep = (double) subblock.storedHeight / subblock.height;
+
+            for (int y = 0; y < TILE_SIZE; y++) {
+                final int sy = (int) Math.floor( ( (top + (y * current.scale)) - subblock.y) * yStep);
+
+                if ( (sy < 0) || (sy >= subblock.storedHeight)) {
+                    continue;
+                }
+
+                for (int x = 0; x < TILE_SIZE; x++) {
+                    final int sx = (int) Math.floor( ( (left + (x * current.scale)) - subblock.x) * xStep);
+
+                    if ( (sx >= 0) && (sx < subblock.storedWidth)) {
+                        tile[(y * TILE_SIZE) + x] = pixels[(sy * subblock.storedWidth) + sx];
+                    }
+                }
+            }
+        }
+
+        return tile;
+    }
+
+    /**
+     * Returns the decoded pixels of a subblock, from the cache if they are there.
+     *
+     * @param   index  index of the subblock
+     *
+     * @return  the pixels as packed ARGB
+     *
+     * @throws  IOException  if the subblock cannot be read
+     */
+    private int[] decode(final int index) throws IOException {
+        int[] pixels = subblockCache.get(index);
+
+        if (pixels != null) {
+            return pixels;
+        }
+
+        final Subblock subblock = subblocks.get(index);
+        final byte[] data;
+
+        synchronized (raFile) {
+
+            // segment header, then the sizes of the metadata, attachment and data sections, then the directory entry
+            raFile.seek(subblock.position + 32);
+
+            final int metadataSize = readInt();
+
+            readInt();
+
+            final long dataSize = readLong();
+
+            if (dataSize > Integer.MAX_VALUE) {
+                throw new IOException("CZI subblock of " + dataSize + " bytes");
+            }
+
+            raFile.seek(subblock.position + 32 + Math.max(256, 16 + subblock.entrySize) + metadataSize);
+            data = new byte[(int) dataSize];
+            raFile.readFully(data);
+        }
+
+        final int count = subblock.storedWidth * subblock.storedHeight;
+
+        pixels = new int[count];
+
+        if (subblock.compression == JPG_FILE) {
+            final BufferedImage image = ImageIO.read(new ByteArrayInputStream(data));
+
+            if (image == null) {
+                throw new IOException("CZI subblock is not a JPEG image");
+            }
+
+            image.getRGB(0, 0, Math.min(subblock.storedWidth, image.getWidth()),
+                    Math.min(subblock.storedHeight, image.getHeight()), pixels, 0, subblock.storedWidth);
+        } else {
+
+            for (int i = 0; i < count; i++) {
+                final int r;
+                final int g;
+                final int b;
+
+                if (subblock.pixelType == GRAY8) {
+                    r = g = b = data[i] & 0xff;
+                } else if (subblock.pixelType == GRAY16) {
+                    r = g = b = Math.min(255, ( ( (data[(2 * i) + 1] & 0xff) << 8) | (data[2 * i] & 0xff))
+                            >>> grayShift);
+                } else {
+                    final int j = (subblock.pixelType == BGR24) ? (3 * i) : (4 * i);
+
+                    b = data[j] & 0xff;
+                    g = data[j + 1] & 0xff;
+                    r = data[j + 2] & 0xff;
+                }
+
+                pixels[i] = 0xff000000 | (r << 16) | (g << 8) | b;
+            }
+        }
+
+        subblockCache.put(index, pixels);
+
+        return pixels;
+    }
+
+    /**
+     * Reads the ComponentBitCount of the metadata, which sets how Gray16 pixels are shown.
+     *
+     * @param   metadataPosition  position of the metadata segment, or 0
+     *
+     * @throws  IOException  if the file cannot be read
+     */
+    private void readBitCount(final long metadataPosition) throws IOException {
+
+        if ( (metadataPosition <= 0) || (metadataPosition >= raFile.length())) {
+            return;
+        }
+
+        raFile.seek(metadataPosition);
+
+        if ( !readString(16).trim().equals("ZISRAWMETADATA")) {
+            return;
+        }
+
+        raFile.seek(metadataPosition + 32);
+
+        final int xmlSize = readInt();
+
+        raFile.seek(metadataPosition + 32 + 256);
+
+        final String xml = readString((int) Math.min(xmlSize, raFile.length() - raFile.getFilePointer()));
+        final int start = xml.indexOf("<ComponentBitCount>");
+
+        if (start >= 0) {
+            final int end = xml.indexOf("</ComponentBitCount>", start);
+
+            try {
+                final int bits = Integer.parseInt(xml.substring(start + "<ComponentBitCount>".length(), end).trim());
+
+                grayShift = Math.max(0, Math.min(8, bits - 8));
+            } catch (final RuntimeException e) {
+                Preferences.debug("CZITileSource: no valid ComponentBitCount\n", Preferences.DEBUG_FILEIO);
+            }
+        }
+    }
+
+    /**
+     * Reads the subblock directory, keeps the subblocks of the first plane and groups them into levels.
+     *
+     * @param   directoryPosition  position of the directory segment
+     *
+     * @throws  IOException  if the directory cannot be read or lists no readable subblock
+     */
+    private void readDirectory(final long directoryPosition) throws IOException {
+        raFile.seek(directoryPosition);
+
+        if ( !readString(16).trim().equals("ZISRAWDIRECTORY")) {
+            throw new IOException("CZI subblock directory not found");
+        }
+
+        raFile.seek(directoryPosition + 32);
+
+        final int entryCount = readInt();
+        final ArrayList<Subblock> all = new ArrayList<Subblock>(entryCount);
+        final TreeMap<String, Integer> firstPlane = new TreeMap<String, Integer>();
+
+        raFile.seek(directoryPosition + 32 + 128);
+
+        for (int n = 0; n < entryCount; n++) {
+
+            if ( !readString(2).equals("DV")) {
+                throw new IOException("CZI directory entry " + n + " is not a DV entry");
+            }
+
+            final Subblock subblock = new Subblock();
+
+            subblock.pixelType = readInt();
+            subblock.position = readLong();
+            readInt();
+            subblock.compression = readInt();
+            raFile.skipBytes(6);
+
+            final int dimensionCount = readInt();
+
+            subblock.entrySize = 32 + (20 * dimensionCount);
+            subblock.planeStarts = new TreeMap<String, Integer>();
+
+            for (int i = 0; i < dimensionCount; i++) {
+                final String dimension = readString(4).trim();
+                final int start = readInt();
+                final int size = readInt();
+
+                readInt();
+
+                final int storedSize = readInt();
+
+                if (dimension.equals("X")) {
+                    subblock.x = start;
+                    subblock.width = size;
+                    subblock.storedWidth = (storedSize == 0) ? size : storedSize;
+                } else if (dimension.equals("Y")) {
+                    subblock.y = start;
+                    subblock.height = size;
+                    subblock.storedHeight = (storedSize == 0) ? size : storedSize;
+                } else if ( !dimension.equals("M")) {
+                    subblock.planeStarts.put(dimension, start);
+
+                    final Integer first = firstPlane.get(dimension);
+
+                    if ( (first == null) || (start < first)) {
+                        firstPlane.put(dimension, start);
+                    }
+                }
+            }
+
+            all.add(subblock);
+        }
+
+        int minX = Integer.MAX_VALUE;
+        int minY = Integer.MAX_VALUE;
+        int maxX = Integer.MIN_VALUE;
+        int maxY = Integer.MIN_VALUE;
+
+        for (final Subblock subblock : all) {
+
+            if ( !subblock.planeStarts.equals(firstPlane)
+                    || ( (subblock.pixelType != GRAY8) && (subblock.pixelType != GRAY16)
+                            && (subblock.pixelType != BGR24) && (subblock.pixelType != BGRA32))
+                    || ( (subblock.compression != UNCOMPRESSED) && (subblock.compression != JPG_FILE))
+                    || (subblock.storedWidth <= 0) || (subblock.storedHeight <= 0)) {
+                continue;
+            }
+
+            subblocks.add(subblock);
+            minX = Math.min(minX, subblock.x);
+            minY = Math.min(minY, subblock.y);
+            maxX = Math.max(maxX, subblock.x + subblock.width);
+            maxY = Math.max(maxY, subblock.y + subblock.height);
+        }
+
+        if (subblocks.isEmpty()) {
+            throw new IOException("CZI file has no subblocks that can be read in tiles");
+        }
+
+        width = maxX - minX;
+        height = maxY - minY;
+
+        final TreeMap<Integer, Level> byScale = new TreeMap<Integer, Level>();
+
+        for (int i = 0; i < subblocks.size(); i++) {
+            final Subblock subblock = subblocks.get(i);
+
+            subblock.x -= minX;
+            subblock.y -= minY;
+
+            final int scale = Math.max(1, (int) Math.round((double) subblock.width / subblock.storedWidth));
+            Level level = byScale.get(scale);
+
+            if (level == null) {
+                level = new Level(scale);
+                byScale.put(scale, level);
+            }
+
+            level.subblocks.add(i);
+        }
+
+        levels.addAll(byScale.values());
+    }
+
+    /**
+     * Reads a 4 byte little endian integer.
+     *
+     * @return  the value
+     *
+     * @throws  IOException  if the file cannot be read
+     */
+    private int readInt() throws IOException {
+        return Integer.reverseBytes(raFile.readInt());
+    }
+
+    /**
+     * Reads an 8 byte little endian integer.
+     *
+     * @return  the value
+     *
+     * @throws  IOException  if the file cannot be read
+     */
+    private long readLong() throws IOException {
+        return Long.reverseBytes(raFile.readLong());
+    }
+
+    /**
+     * Reads a string of single byte characters.
+     *
+     * @param   length  number of bytes
+     *
+     * @return  the string, up to its first null character
+     *
+     * @throws  IOException  if the file cannot be read
+     */
+    private String readString(final int length) throws IOException {
+        final byte[] bytes = new byte[length];
+
+        raFile.readFully(bytes);
+
+        int end = 0;
+
+        while ( (end < length) && (bytes[end] != 0)) {
+            end++;
+        }
+
+        return new String(bytes, 0, end, "UTF-8");
+    }
+
+    //~ Inner Classes --------------------------------------------------------------------------------------------------
+
+    /**
+     * A pyramid level: the subblocks stored reduced by one factor.
+     */
+    private static class Level {
+
+        /** Reduction factor of the level. */
+        final double scale;
+
+        /** Indices of the subblocks of the level. */
+        final ArrayList<Integer> subblocks = new ArrayList<Integer>();
+
+        /**
+         * Creates an empty level.
+         *
+         * @param  scale  reduction factor of the level
+         */
+        Level(final int scale) {
+            this.scale = scale;
+        }
+    }
+
+    /**
+     * A subblock of the directory.
+     */
+    private static class Subblock {
+
+        /** Compression of the subblock data. */
+        int compression;
+
+        /** Size of the directory entry of the subblock. */
+        int entrySize;
+
+        /** Height in full resolution pixels. */
+        int height;
+
+        /** Pixel type. */
+        int pixelType;
+
+        /** Start of every dimension other than X, Y and M. */
+        TreeMap<String, Integer> planeStarts;
+
+        /** Position of the subblock segment in the file. */
+        long position;
+
+        /** Stored height in pixels. */
+        int storedHeight;
+
+        /** Stored width in pixels. */
+        int storedWidth;
+
+        /** Width in full resolution pixels. */
+        int width;
+
+        /** Left edge in full resolution pixels. */
+        int x;
+
+        /** Top edge in full resolution pixels. */
+        int y;
+    }
+}
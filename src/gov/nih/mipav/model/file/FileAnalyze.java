@@ -1068,6 +1068,7 @@ public class FileAnalyze extends FileBase {
         }
 
         int[] extents = null;
+        boolean mapData = false;
 
         try {
 
@@ -1081,7 +1082,11 @@ public class FileAnalyze extends FileBase {
                 image = new ModelImage(fileInfo.getDataType(), new int[] { extents[0], extents[1] },
                                        fileInfo.getFileName());
             } else {
-                image = new ModelImage(fileInfo.getDataType(), fileInfo.getExtents(), fileInfo.getFileName());
+                // Uncompressed voxels can be mapped straight from the file rather than copied into memory
+                mapData = Preferences.is(Preferences.PREF_MEMORY_MAP_READ)
+                              && ModelStorageBase.isMappable(ModelStorageBase.DataType.getDataType(fileInfo.getDataType()));
+                image = new ModelImage(fileInfo.getDataType(), fileInfo.getExtents(), fileInfo.getFileName(),
+                                       !mapData);
             }
         } catch (OutOfMemoryError error) {
             throw (error);
@@ -1112,7 +1117,14 @@ public class FileAnalyze extends FileBase {
                 }
             }
 
-            rawFile.readImage(image, offset);
+            if (mapData && rawFile.canMapImage(image.getType())) {
+                rawFile.mapImage(image, offset);
+            } else {
+                if (mapData) {
+                    image.reallocate(image.getType());
+                }
+                rawFile.readImage(image, offset);
+            }
 
             if (vox_offset < 0.0f) {
                 absoluteValue(image);
@@ -1523,6 +1535,7 @@ public class FileAnalyze extends FileBase {
 
         fileHeaderName = fileName + ".hdr";
         fileHeader = new File(fileDir + fileHeaderName);
+        unmapBeforeWrite(image, fileHeader);
         raFile = new RandomAccessFile(fileHeader, "rw");
         raFile.setLength(0);
         bufferImageHeader = new byte[headerSize];
@@ -1,6 +1,8 @@
 package gov.nih.mipav.model.file;
 
 
+import gov.nih.mipav.model.structures.ModelStorageBase;
+
 import gov.nih.mipav.view.*;
 
 import java.io.*;
@@ -390,6 +392,21 @@ public abstract class FileBase {
         }
     }
 
+    /**
+     * Makes an image that is memory mapped over a file about to be written copy its data into memory of its own.
+     * Writers truncate or overwrite their target, and a private mapping keeps reading the untouched pages of the file,
+     * so the image would otherwise be saved from the bytes being written over.
+     * 
+     * @param image the image being written
+     * @param target a file the writer is about to truncate or overwrite
+     */
+    protected static void unmapBeforeWrite(final ModelStorageBase image, final File target) {
+
+        if ( (target != null) && image.isMappedFrom(target)) {
+            image.unmapData();
+        }
+    }
+
     protected void linkProgress(final FileBase fBase) {
         final ProgressChangeListener[] listeners = this.getProgressChangeListeners();
         if (listeners != null) {
@@ -153,6 +153,21 @@ public class FileCZI extends FileBase {
         return imgBuffer;
     }
 
+    /**
+     * Opens the CZI file for reading regions of its mosaic and of the pyramid levels ZEN stored with it. Only the
+     * subblock directory is read here. The subblocks are cut into a grid of tiles, and a subblock is decoded when a
+     * region overlaps it. The first channel, focal plane, time point and scene are read. Use this for mosaics too
+     * large for readImage to hold in one buffer.
+     * 
+     * @return a reader of regions of the mosaic
+     * 
+     * @throws IOException if the file has no subblock directory, or no uncompressed or JPEG subblocks of a pixel type
+     *             that can be read in tiles
+     */
+    public TiledRegionReader openRegionReader() throws IOException {
+        return new TiledRegionReader(new CZITileSource(new File(fileDir + fileName)));
+    }
+
     /**
      * Rreturns LUT if defined.
      * 
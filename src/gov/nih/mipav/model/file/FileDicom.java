@@ -1005,7 +1005,7 @@ public class FileDicom extends FileDicomBase {
                                                                                                                                                     // for
                                                                                                                                                     // display
                     }
-                    data = getByte(tagVM, elementLength, endianess);
+                    data = (elementLength > 0) ? getRawData() : getByte(tagVM, elementLength, endianess);
                     tagTable.setValue(key, data, elementLength);
                     break;
                 case OF:
@@ -1024,7 +1024,7 @@ public class FileDicom extends FileDicomBase {
                                                                                                                                                     // for
                                                                                                                                                     // display
                     }
-                    data = getByte(tagVM, elementLength, endianess);
+                    data = (elementLength > 0) ? getRawData() : getByte(tagVM, elementLength, endianess);
                     tagTable.setValue(key, data, elementLength);
                     break;
                 case OD:
@@ -1043,7 +1043,7 @@ public class FileDicom extends FileDicomBase {
                                                                                                                                                     // for
                                                                                                                                                     // display
                     }
-                    data = getByte(tagVM, elementLength, endianess);
+                    data = (elementLength > 0) ? getRawData() : getByte(tagVM, elementLength, endianess);
                     tagTable.setValue(key, data, elementLength);
                     break;
                 case UN:
@@ -1326,11 +1326,11 @@ public class FileDicom extends FileDicomBase {
             // set the value if the tag is in the dictionary (which means it isn't private..) or has already
             // been put into the tag table without a value (private tag with explicit vr)
             if (DicomDictionary.containsTag(key) || tagTable.containsTag(key)) {
-                tagTable.setValue(key, readUnknownData(), elementLength);
+                tagTable.setValue(key, (elementLength > 0) ? getRawData() : readUnknownData(), elementLength);
             } else {
                 tagTable.putPrivateTagValue(new FileDicomTagInfo(key, VR.UN, tagVM, "PrivateTag", "Private Tag"));
 
-                tagTable.setValue(key, readUnknownData(), elementLength);
+                tagTable.setValue(key, (elementLength > 0) ? getRawData() : readUnknownData(), elementLength);
 
                 Preferences.debug("Group = " + groupWord + " element = " + elementWord + " Type unknown" + "; value = " + strValue + "; element length = "
                         + elementLength + "\n", Preferences.DEBUG_FILEIO);
@@ -3770,6 +3770,23 @@ public class FileDicom extends FileDicomBase {
         return readObject;
     }
 
+    /**
+     * Reads the value of a byte valued tag (OB, OW, OF, OD or UN). The bytes are copied out of the header as they are
+     * and only boxed into a Byte[] when the tag value is asked for, which saves the decoding and most of the memory of
+     * large private and binary tags. Only used for values of a defined, non-zero length.
+     * 
+     * @return the value to store in the tag table
+     * 
+     * @throws IOException if the value cannot be read
+     */
+    private Object getRawData() throws IOException {
+        final byte[] bytesValue = new byte[elementLength];
+
+        read(bytesValue);
+
+        return new FileDicomRawValue(bytesValue);
+    }
+
     /**
      * Gets private tags or other tags where the type is unknown; does not change the data, so it may be written out
      * correctly.
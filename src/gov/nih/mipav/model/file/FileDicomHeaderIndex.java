@@ -0,0 +1,424 @@
+package gov.nih.mipav.model.file;
+
+
+import gov.nih.mipav.view.Preferences;
+
+import java.io.*;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+
+
+/**
+ * On-disk index of the DICOM headers of a directory, used by FileIO.readDicom so that a series which is opened again
+ * does not have to parse the header of every slice. Each entry holds the file info of one slice, keyed by its file name
+ * and only used while the size and modification time of the file are unchanged. The file info keeps the pixel data
+ * offset, so the slice is read again by seeking directly to its pixels.
+ *
+ * <p>The tag table of a slice only holds the tags that differ from the reference slice of the series, so the index is
+ * only valid for the reference slice it was written with. Entries are stored without the reference file info and tag
+ * table, which are put back from the series being read. When a series is opened with a different reference slice the
+ * index is discarded and written again.</p>
+ *
+ * <p>The indices are kept under the preferences directory, one file per image directory, and are only used when the
+ * DICOMHeaderIndex preference is set. DICOM headers usually hold patient information, which is why it is off by
+ * default.</p>
+ */
+public class FileDicomHeaderIndex {
+
+    //~ Static fields/initializers -------------------------------------------------------------------------------------
+
+    /** Identifies an index file. The last byte is the version of its layout. */
+    private static final int MAGIC = 0x44434901;
+
+    /** Sub-directory of the preferences directory holding the index files. */
+    private static final String INDEX_DIR = "dicomIndex";
+
+    //~ Instance fields ------------------------------------------------------------------------------------------------
+
+    /** Directory holding the image files. */
+    private final String fileDir;
+
+    /** The index file of the directory. */
+    private final File indexFile;
+
+    /** Name of the reference slice. */
+    private final String refFileName;
+
+    /** File info of the reference slice, which the stored entries refer to. */
+    private final FileInfoDicom refFileInfo;
+
+    /** Entries read from the index file, removed as they are used. */
+    private final Hashtable<String, Entry> stored = new Hashtable<String, Entry>();
+
+    /** Entries that are written back by save(). */
+    private final LinkedHashMap<String, Entry> current = new LinkedHashMap<String, Entry>();
+
+    /** Set when an entry has been added, so the index has to be written again. */
+    private boolean changed;
+
+    //~ Constructors ---------------------------------------------------------------------------------------------------
+
+    /**
+     * Creates the index of a directory and reads its entries when they were written for the same reference slice.
+     *
+     * @param  fileDir      directory holding the image files
+     * @param  indexFile    the index file of the directory
+     * @param  refFileName  name of the reference slice
+     * @param  refFileInfo  file info of the reference slice
+     */
+    private FileDicomHeaderIndex(final String fileDir, final File indexFile, final String refFileName,
+            final FileInfoDicom refFileInfo) {
+        this.fileDir = fileDir;
+        this.indexFile = indexFile;
+        this.refFileName = refFileName;
+        this.refFileInfo = refFileInfo;
+
+        if (indexFile.isFile()) {
+
+            try {
+                read();
+            } catch (final Exception error) {
+
+                // a stale or damaged index is rebuilt from the headers
+                Preferences.debug("FileDicomHeaderIndex: ignoring " + indexFile + ": " + error + "\n",
+                                  Preferences.DEBUG_FILEIO);
+                stored.clear();
+                changed = true;
+            }
+        }
+    }
+
+    //~ Methods --------------------------------------------------------------------------------------------------------
+
+    /**
+     * Opens the index of a directory for a series read with the given reference slice.
+     *
+     * @param   fileDir      directory holding the image files
+     * @param   refFileName  name of the reference slice
+     * @param   refFileInfo  file info of the reference slice
+     *
+     * @return  the index, or null if the index is turned off or the directory cannot be indexed
+     */
+    public static FileDicomHeaderIndex open(final String fileDir, final String refFileName,
+            final FileInfoDicom refFileInfo) {
+
+        if ( !Preferences.is(Preferences.PREF_DICOM_HEADER_INDEX) || (fileDir == null)) {
+            return null;
+        }
+
+        try {
+            final String path = new File(fileDir).getCanonicalPath();
+            final File indexFile = new File(Preferences.getPreferencesDir() + File.separator
+                                            + FileDicomHeaderIndex.INDEX_DIR, FileDicomHeaderIndex.hash(path) + ".idx");
+
+            return new FileDicomHeaderIndex(fileDir, indexFile, refFileName, refFileInfo);
+        } catch (final IOException error) {
+            Preferences.debug("FileDicomHeaderIndex: " + error + "\n", Preferences.DEBUG_FILEIO);
+
+            return null;
+        }
+    }
+
+    /**
+     * Returns the stored file info of a slice, if the file has not changed since it was indexed.
+     *
+     * @param   fileName  name of the slice
+     *
+     * @return  the file info, or null if the slice has to be read
+     */
+    public FileInfoDicom get(final String fileName) {
+        final Entry entry = stored.remove(fileName);
+
+        if ( (entry == null) || !entry.matches(new File(fileDir + fileName))) {
+            return null;
+        }
+
+        current.put(fileName, entry);
+
+        return entry.fileInfo;
+    }
+
+    /**
+     * Adds the file info of a slice that was read from its file.
+     *
+     * @param  fileName  name of the slice
+     * @param  fileInfo  file info read from the header of the slice
+     */
+    public void put(final String fileName, final FileInfoDicom fileInfo) {
+
+        if ( (fileInfo == refFileInfo) || (fileInfo.getTagTable().getReferenceTagTable() != refFileInfo.getTagTable())) {
+            return;
+        }
+
+        final Entry known = current.get(fileName);
+
+        if ( (known != null) && (known.fileInfo == fileInfo)) {
+            return;
+        }
+
+        final File file = new File(fileDir + fileName);
+        final Entry entry = stored.remove(fileName);
+
+        // slices that are always read from their files, such as the last one, keep the entry they already have
+        if ( (entry != null) && entry.matches(file)) {
+            current.put(fileName, entry);
+
+            return;
+        }
+
+        current.put(fileName, new Entry(file.length(), file.lastModified(), fileInfo));
+        changed = true;
+    }
+
+    /**
+     * Writes the index if entries were added, or if entries for files that are no longer part of the series were
+     * dropped. Should be called as soon as the headers of the series have been read, before the file infos are
+     * changed for the image. Errors are only logged, since the index is just a cache.
+     */
+    public void save() {
+
+        if ( !changed && stored.isEmpty()) {
+            return;
+        }
+
+        final File dir = indexFile.getParentFile();
+        final File temp = new File(dir, indexFile.getName() + ".tmp");
+        ObjectOutputStream out = null;
+
+        try {
+
+            if ( !dir.isDirectory() && !dir.mkdirs()) {
+                throw new IOException("Unable to create " + dir);
+            }
+
+            out = new ReferenceOutputStream(new BufferedOutputStream(new FileOutputStream(temp)));
+
+            final File refFile = new File(fileDir + refFileName);
+
+            out.writeInt(FileDicomHeaderIndex.MAGIC);
+            out.writeUTF(refFileName);
+            out.writeLong(refFile.length());
+            out.writeLong(refFile.lastModified());
+            out.writeInt(current.size());
+
+            for (final Map.Entry<String, Entry> item : current.entrySet()) {
+                out.writeUTF(item.getKey());
+                out.writeLong(item.getValue().length);
+                out.writeLong(item.getValue().modified);
+                out.writeObject(item.getValue().fileInfo);
+            }
+
+            out.close();
+            out = null;
+
+            if (indexFile.exists() && !indexFile.delete()) {
+                throw new IOException("Unable to replace " + indexFile);
+            }
+
+            if ( !temp.renameTo(indexFile)) {
+                throw new IOException("Unable to rename " + temp);
+            }
+
+            changed = false;
+            stored.clear();
+        } catch (final IOException error) {
+            Preferences.debug("FileDicomHeaderIndex: unable to write " + indexFile + ": " + error + "\n",
+                              Preferences.DEBUG_FILEIO);
+        } finally {
+
+            if (out != null) {
+
+                try {
+                    out.close();
+                } catch (final IOException e) { }
+
+                temp.delete();
+            }
+        }
+    }
+
+    /**
+     * Returns a file name for the index of a directory.
+     *
+     * @param   path  canonical path of the directory
+     *
+     * @return  hexadecimal digest of the path
+     */
+    private static String hash(final String path) {
+
+        try {
+            final byte[] digest = MessageDigest.getInstance("MD5").digest(path.getBytes("UTF-8"));
+            final StringBuilder name = new StringBuilder(2 * digest.length);
+
+            for (final byte b : digest) {
+                name.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+            }
+
+            return name.toString();
+        } catch (final NoSuchAlgorithmException error) {
+            return Integer.toHexString(path.hashCode());
+        } catch (final UnsupportedEncodingException error) {
+            return Integer.toHexString(path.hashCode());
+        }
+    }
+
+    /**
+     * Reads the entries of the index file, unless it was written for a different or changed reference slice.
+     *
+     * @throws  IOException             if the index cannot be read
+     * @throws  ClassNotFoundException  if the index was written by an incompatible version
+     */
+    private void read() throws IOException, ClassNotFoundException {
+        final ObjectInputStream in = new ReferenceInputStream(new BufferedInputStream(new FileInputStream(indexFile)));
+
+        try {
+
+            if (in.readInt() != FileDicomHeaderIndex.MAGIC) {
+                throw new IOException("Unknown index version");
+            }
+
+            final String name = in.readUTF();
+            final Entry ref = new Entry(in.readLong(), in.readLong(), null);
+
+            if ( !name.equals(refFileName) || !ref.matches(new File(fileDir + refFileName))) {
+                changed = true;
+
+                return;
+            }
+
+            final int nEntries = in.readInt();
+
+            for (int i = 0; i < nEntries; i++) {
+                final String fileName = in.readUTF();
+                final long length = in.readLong();
+                final long modified = in.readLong();
+
+                stored.put(fileName, new Entry(length, modified, (FileInfoDicom) in.readObject()));
+            }
+        } finally {
+            in.close();
+        }
+    }
+
+    //~ Inner Classes --------------------------------------------------------------------------------------------------
+
+    /**
+     * Stand-ins for the reference file info and tag table in the index file.
+     */
+    private static enum Reference {
+        FILE_INFO, TAG_TABLE;
+    }
+
+    /**
+     * A slice in the index.
+     */
+    private static class Entry {
+
+        /** Size of the file when it was indexed. */
+        private final long length;
+
+        /** Modification time of the file when it was indexed. */
+        private final long modified;
+
+        /** File info read from the header. */
+        private final FileInfoDicom fileInfo;
+
+        /**
+         * Creates an entry.
+         *
+         * @param  length    size of the file
+         * @param  modified  modification time of the file
+         * @param  fileInfo  file info read from the header
+         */
+        private Entry(final long length, final long modified, final FileInfoDicom fileInfo) {
+            this.length = length;
+            this.modified = modified;
+            this.fileInfo = fileInfo;
+        }
+
+        /**
+         * Returns whether a file is unchanged since it was indexed.
+         *
+         * @param   file  the file
+         *
+         * @return  true if its size and modification time are those of the entry
+         */
+        private boolean matches(final File file) {
+            return (file.length() == length) && (file.lastModified() == modified) && (modified != 0);
+        }
+    }
+
+    /**
+     * Writes the reference file info and tag table as stand-ins, so the entries do not hold copies of the reference
+     * slice.
+     */
+    private class ReferenceOutputStream extends ObjectOutputStream {
+
+        /**
+         * Creates the stream.
+         *
+         * @param   out  the stream to write to
+         *
+         * @throws  IOException  if the stream header cannot be written
+         */
+        private ReferenceOutputStream(final OutputStream out) throws IOException {
+            super(out);
+            enableReplaceObject(true);
+        }
+
+        /**
+         * Replaces the reference slice by its stand-in.
+         *
+         * @param   obj  object being written
+         *
+         * @return  the object to write instead
+         */
+        protected Object replaceObject(final Object obj) {
+
+            if (obj == refFileInfo) {
+                return Reference.FILE_INFO;
+            } else if (obj == refFileInfo.getTagTable()) {
+                return Reference.TAG_TABLE;
+            }
+
+            return obj;
+        }
+    }
+
+    /**
+     * Puts the reference file info and tag table of the series being read in place of their stand-ins.
+     */
+    private class ReferenceInputStream extends ObjectInputStream {
+
+        /**
+         * Creates the stream.
+         *
+         * @param   in  the stream to read from
+         *
+         * @throws  IOException  if the stream header cannot be read
+         */
+        private ReferenceInputStream(final InputStream in) throws IOException {
+            super(in);
+            enableResolveObject(true);
+        }
+
+        /**
+         * Replaces the stand-ins by the reference slice.
+         *
+         * @param   obj  object that was read
+         *
+         * @return  the object to use instead
+         */
+        protected Object resolveObject(final Object obj) {
+
+            if (obj == Reference.FILE_INFO) {
+                return refFileInfo;
+            } else if (obj == Reference.TAG_TABLE) {
+                return refFileInfo.getTagTable();
+            }
+
+            return obj;
+        }
+    }
+}
@@ -0,0 +1,260 @@
+package gov.nih.mipav.model.file;
+
+
+import gov.nih.mipav.util.ThreadUtil;
+
+import gov.nih.mipav.view.Preferences;
+
+import java.io.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+
+/**
+ * Reads the headers of the files of a DICOM series concurrently, for FileIO.readDicom. Every worker reads with its
+ * own FileDicom pointed at the reference file info, so the tag tables of the slices refer to the reference tag table
+ * exactly as they do when the headers are read one at a time. Results are stored by their index in the file list, so
+ * the merge back into the series does not depend on the order in which the workers finish.
+ *
+ * <p>The thread calling scan() works through the list alongside the pool threads and only waits for workers that have
+ * already started. A saturated pool therefore slows the scan down but cannot deadlock it, even when the image is
+ * opened from a pool thread.</p>
+ *
+ * <p>The class also provides a read-ahead for the pixel pass, which pulls the next files of the series into the
+ * operating system cache while the current slice is decoded.</p>
+ */
+public class FileDicomHeaderScan {
+
+    //~ Static fields/initializers -------------------------------------------------------------------------------------
+
+    /** Series with fewer files than this are read serially. */
+    public static final int MIN_PARALLEL_FILES = 8;
+
+    /** Number of files read ahead of the slice being decoded. */
+    public static final int READ_AHEAD = 2;
+
+    /** Size of the buffer used to pull files into the cache. */
+    private static final int READ_AHEAD_BUFFER = 64 * 1024;
+
+    //~ Instance fields ------------------------------------------------------------------------------------------------
+
+    /** Directory holding the files. */
+    private final String fileDir;
+
+    /** Names of the files in the series. */
+    private final String[] fileList;
+
+    /** File info of the reference slice, whose tag table the other slices refer to. */
+    private final FileInfoDicom refFileInfo;
+
+    /** Indices in fileList that are not scanned: the reference slice and any slice the caller reads itself. */
+    private final boolean[] skip;
+
+    /** Whether the readers should suppress error dialogs. */
+    private final boolean quiet;
+
+    /** File infos read so far, indexed as fileList. */
+    private final FileInfoDicom[] fileInfos;
+
+    /** Next index of fileList to be claimed by a worker. */
+    private final AtomicInteger next = new AtomicInteger();
+
+    /** Set when any header fails to read, so the workers stop and the caller falls back to the serial loop. */
+    private volatile boolean failed;
+
+    /** Number of pool workers that are currently scanning. Guarded by this. */
+    private int running;
+
+    /** Set once the calling thread has finished, after which no pool worker may start. Guarded by this. */
+    private boolean done;
+
+    /** Highest index that the read-ahead has been asked to fetch. Only used by the thread reading the pixels. */
+    private int readAheadLimit = -1;
+
+    //~ Constructors ---------------------------------------------------------------------------------------------------
+
+    /**
+     * Creates a scan of the files of a series.
+     *
+     * @param  fileDir      directory holding the files
+     * @param  fileList     names of the files in the series
+     * @param  refFileInfo  file info of the reference slice
+     * @param  quiet        whether the readers should suppress error dialogs
+     */
+    public FileDicomHeaderScan(final String fileDir, final String[] fileList, final FileInfoDicom refFileInfo,
+            final boolean quiet) {
+        this.fileDir = fileDir;
+        this.fileList = fileList;
+        this.refFileInfo = refFileInfo;
+        this.quiet = quiet;
+        skip = new boolean[fileList.length];
+        fileInfos = new FileInfoDicom[fileList.length];
+    }
+
+    //~ Methods --------------------------------------------------------------------------------------------------------
+
+    /**
+     * Returns whether series of the given length are scanned concurrently.
+     *
+     * @param   nFiles  number of files in the series
+     *
+     * @return  true when the preference allows it and the series is long enough to gain from it
+     */
+    public static boolean isParallel(final int nFiles) {
+        return (nFiles >= FileDicomHeaderScan.MIN_PARALLEL_FILES) && (ThreadUtil.nthreads > 1)
+                   && Preferences.is(Preferences.PREF_DICOM_PARALLEL_READ);
+    }
+
+    /**
+     * Excludes a file from the scan, because the caller reads it itself.
+     *
+     * @param  index  index of the file in the file list
+     */
+    public void skip(final int index) {
+
+        if ((index >= 0) && (index < skip.length)) {
+            skip[index] = true;
+        }
+    }
+
+    /**
+     * Reads the headers of every file that is not skipped, using the calling thread and the shared pool.
+     *
+     * @return  the file infos indexed as the file list, with null at the skipped indices, or null if any header could
+     *          not be read. The caller should then read the headers serially so that errors are reported as before.
+     */
+    public FileInfoDicom[] scan() {
+
+        // The private tag dictionary is loaded lazily and is not safe to load from several threads at once.
+        if ( !PrivateDicomDictionary.privateDictionaryProcessed) {
+            PrivateDicomDictionary.getPrivateDicomTagTable(true);
+        }
+
+        final int nWorkers = Math.min(ThreadUtil.nthreads, fileList.length) - 1;
+
+        for (int i = 0; i < nWorkers; i++) {
+            ThreadUtil.mipavThreadPool.execute(new Runnable() {
+                    public void run() {
+
+                        synchronized (FileDicomHeaderScan.this) {
+
+                            if (done) {
+                                return;
+                            }
+
+                            running++;
+                        }
+
+                        try {
+                            scanFiles();
+                        } finally {
+
+                            synchronized (FileDicomHeaderScan.this) {
+                                running--;
+                                FileDicomHeaderScan.this.notifyAll();
+                            }
+                        }
+                    }
+                });
+        }
+
+        scanFiles();
+
+        synchronized (this) {
+            done = true;
+
+            while (running > 0) {
+
+                try {
+                    wait();
+                } catch (final InterruptedException e) {
+                    failed = true;
+                    Thread.currentThread().interrupt();
+
+                    break;
+                }
+            }
+        }
+
+        return failed ? null : fileInfos;
+    }
+
+    /**
+     * Pulls the files following a slice into the operating system cache on the I/O pool, so that reading them
+     * overlaps with decoding the current slice. Files that were already requested are not fetched again.
+     *
+     * @param  names  file names in the order they will be read
+     * @param  index  index in names of the slice about to be decoded
+     */
+    public void readAhead(final String[] names, final int index) {
+        final int last = Math.min(names.length - 1, index + FileDicomHeaderScan.READ_AHEAD);
+
+        for (int i = Math.max(index + 1, readAheadLimit + 1); i <= last; i++) {
+            readAheadLimit = i;
+
+            final File file = new File(fileDir + names[i]);
+
+            ThreadUtil.ioThreadPool.execute(new Runnable() {
+                    public void run() {
+                        final byte[] buffer = new byte[FileDicomHeaderScan.READ_AHEAD_BUFFER];
+                        InputStream in = null;
+
+                        try {
+                            in = new FileInputStream(file);
+
+                            while (in.read(buffer) > 0) { }
+                        } catch (final IOException e) {
+                            // The slice is read again by the caller, which reports any error.
+                        } finally {
+
+                            if (in != null) {
+
+                                try {
+                                    in.close();
+                                } catch (final IOException e) { }
+                            }
+                        }
+                    }
+                });
+        }
+    }
+
+    /**
+     * Claims and reads headers until the list is exhausted or a read fails.
+     */
+    private void scanFiles() {
+        FileDicom reader = null;
+
+        try {
+            int i;
+
+            while ( !failed && ((i = next.getAndIncrement()) < fileList.length)) {
+
+                if (skip[i]) {
+                    continue;
+                }
+
+                if (reader == null) {
+                    reader = new FileDicom(fileList[i], fileDir);
+                    reader.setQuiet(quiet);
+                }
+
+                reader.setFileName(fileList[i], fileDir, refFileInfo);
+                reader.readHeader(true);
+                fileInfos[i] = (FileInfoDicom) reader.getFileInfo();
+            }
+        } catch (final IOException error) {
+            Preferences.debug("FileDicomHeaderScan: " + error + "\n", Preferences.DEBUG_FILEIO);
+            failed = true;
+        } catch (final OutOfMemoryError error) {
+            failed = true;
+        } catch (final RuntimeException error) {
+            Preferences.debug("FileDicomHeaderScan: " + error + "\n", Preferences.DEBUG_FILEIO);
+            failed = true;
+        } finally {
+
+            if (reader != null) {
+                reader.finalize();
+            }
+        }
+    }
+}
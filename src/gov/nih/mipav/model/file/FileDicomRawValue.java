@@ -0,0 +1,92 @@
+package gov.nih.mipav.model.file;
+
+
+import java.io.Serializable;
+import java.util.Arrays;
+
+
+/**
+ * Undecoded value of a byte valued DICOM tag (OB, OW, OF, OD or UN), as copied out of the header by FileDicom. The
+ * bytes are only boxed into the Byte[] that FileDicomTag.getValue returns when the value is asked for, so the large
+ * private and binary tags of a series cost one byte per byte of data and no decoding while the headers are read.
+ * Values compare by content, which lets the tag table of a slice drop a tag that is identical to the one of the
+ * reference slice without decoding either.
+ */
+final class FileDicomRawValue implements Serializable {
+
+    //~ Static fields/initializers -------------------------------------------------------------------------------------
+
+    /** Use serialVersionUID for interoperability. */
+    private static final long serialVersionUID = 2914466309587719307L;
+
+    //~ Instance fields ------------------------------------------------------------------------------------------------
+
+    /** The bytes of the value, as stored in the file. */
+    private final byte[] data;
+
+    //~ Constructors ---------------------------------------------------------------------------------------------------
+
+    /**
+     * Creates a raw value.
+     *
+     * @param  data  the bytes of the value, which are not copied
+     */
+    FileDicomRawValue(final byte[] data) {
+        this.data = data;
+    }
+
+    //~ Methods --------------------------------------------------------------------------------------------------------
+
+    /**
+     * Tests whether another raw value holds the same bytes.
+     *
+     * @param   obj  the object to compare to
+     *
+     * @return  true for a raw value with identical bytes
+     */
+    public boolean equals(final Object obj) {
+        return (obj instanceof FileDicomRawValue) && Arrays.equals(data, ((FileDicomRawValue) obj).data);
+    }
+
+    /**
+     * Returns a hash of the bytes.
+     *
+     * @return  the hash code
+     */
+    public int hashCode() {
+        return Arrays.hashCode(data);
+    }
+
+    /**
+     * Returns the number of bytes in the value.
+     *
+     * @return  the length of the value
+     */
+    int length() {
+        return data.length;
+    }
+
+    /**
+     * Decodes the value into the form FileDicom used to store byte valued tags.
+     *
+     * @return  a new array holding the bytes of the value
+     */
+    Byte[] getValue() {
+        final Byte[] value = new Byte[data.length];
+
+        for (int i = 0; i < data.length; i++) {
+            value[i] = Byte.valueOf(data[i]);
+        }
+
+        return value;
+    }
+
+    /**
+     * Describes the value for debugging, without decoding it.
+     *
+     * @return  the length of the value
+     */
+    public String toString() {
+        return "Byte[" + data.length + "]";
+    }
+}
@@ -49,7 +49,10 @@ public class FileDicomTag extends ModelSerialCloneable implements Comparable<Fil
     /** Pointer to more information about this tag, read in and contained within the dicom dictionary. */
     private final FileDicomTagInfo tagInfo;
 
-    /** Actual value of the tag (may be an array of elements). */
+    /**
+     * Actual value of the tag (may be an array of elements). Byte valued tags read from a file hold a
+     * FileDicomRawValue until the value is asked for.
+     */
     private Object value = null;
 
     /**
@@ -103,6 +106,12 @@ public class FileDicomTag extends ModelSerialCloneable implements Comparable<Fil
             final FileDicomTag tag = (FileDicomTag) obj;
 
             if ( (this.group == tag.group) && (this.element == tag.element) && this.tagInfo.equals(tag.getInfo())) {
+
+                // undecoded values are compared by their bytes
+                if ( (this.value instanceof FileDicomRawValue) && (tag.value instanceof FileDicomRawValue)) {
+                    return (this.length == tag.length) && this.value.equals(tag.value);
+                }
+
                 final Object thisVal = this.getValue(false);
                 final Object otherVal = tag.getValue(false);
 
@@ -316,7 +325,7 @@ public class FileDicomTag extends ModelSerialCloneable implements Comparable<Fil
      * @return the value
      */
     public Object getValue(final boolean parse) {
-
+        final Object value = getStoredValue();
         final VR vr = getValueRepresentation();
         final String keyword = tagInfo.getKeyword();
 
@@ -377,6 +386,7 @@ public class FileDicomTag extends ModelSerialCloneable implements Comparable<Fil
      */
     public Object[] getValueList() {
         final Object[] stuff = new Object[1];
+        final Object value = getStoredValue();
 
         try {
             final VR type = tagInfo.getType();
@@ -414,6 +424,26 @@ public class FileDicomTag extends ModelSerialCloneable implements Comparable<Fil
         return tagInfo.getValueMultiplicity();
     }
 
+    /**
+     * Returns the stored value, decoding a value that was kept in its raw form. The decoded value replaces the raw one,
+     * so it is decoded once and every read returns the same array.
+     * 
+     * @return the value
+     */
+    private Object getStoredValue() {
+        final Object stored = value;
+
+        if (stored instanceof FileDicomRawValue) {
+            final Byte[] decoded = ((FileDicomRawValue) stored).getValue();
+
+            value = decoded;
+
+            return decoded;
+        }
+
+        return stored;
+    }
+
     /**
      * Return the value representation (vr) of this tag. If the tag VR for this dicom are implicit, then the VR is
      * retrieved from the DicomDictionary.
@@ -501,6 +531,18 @@ public class FileDicomTag extends ModelSerialCloneable implements Comparable<Fil
 
         final VR type = tagInfo.getType();
 
+        if (value instanceof FileDicomRawValue) {
+
+            // kept undecoded wherever a Byte[] would be stored as is
+            if ( (type == VR.OB) || (type == VR.OW) || (type == VR.UN)) {
+                setValue(value, ((FileDicomRawValue) value).length());
+            } else {
+                setValue( ((FileDicomRawValue) value).getValue());
+            }
+
+            return;
+        }
+
         String val;
         if (type.getType() instanceof StringType) {
             switch (type) {
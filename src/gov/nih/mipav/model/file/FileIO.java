@@ -429,6 +429,10 @@ public class FileIO {
         FileDicom imageFile;
         FileInfoDicom refFileInfo;
         FileInfoDicom[] savedFileInfos;
+        FileDicomHeaderScan headerScan = null;
+        FileDicomHeaderIndex headerIndex = null;
+        FileInfoDicom[] headerInfos = null;
+        String[] scannedList = null;
 
         float[] bufferFloat = null;
         double[] bufferDouble = null;
@@ -740,6 +744,58 @@ public class FileIO {
 
             nImages = 0;
 
+            // Take the headers of the other slices from the header index when the series was opened before, and
+            // read the rest concurrently for long series. The selected file already has its header, and the last of
+            // the other files is read below by imageFile, whose file info is used again after this loop.
+            int lastListed = nListImages - 1;
+
+            if (fileList[lastListed].equals(selectedFileName)) {
+                lastListed--;
+            }
+
+            if (nListImages > 1) {
+                headerIndex = FileDicomHeaderIndex.open(fileDir, selectedFileName, refFileInfo);
+            }
+
+            headerInfos = new FileInfoDicom[nListImages];
+            scannedList = fileList;
+
+            int nUnread = 0;
+
+            for (int i = 0; i < nListImages; i++) {
+
+                if ( (i != lastListed) && !fileList[i].equals(selectedFileName)) {
+
+                    if (headerIndex != null) {
+                        headerInfos[i] = headerIndex.get(fileList[i]);
+                    }
+
+                    if (headerInfos[i] == null) {
+                        nUnread++;
+                    }
+                }
+            }
+
+            if (FileDicomHeaderScan.isParallel(nUnread)) {
+                headerScan = new FileDicomHeaderScan(fileDir, fileList, refFileInfo, quiet);
+
+                for (int i = 0; i < nListImages; i++) {
+
+                    if ( (i == lastListed) || fileList[i].equals(selectedFileName) || (headerInfos[i] != null)) {
+                        headerScan.skip(i);
+                    }
+                }
+
+                final FileInfoDicom[] scannedInfos = headerScan.scan();
+
+                for (int i = 0; (scannedInfos != null) && (i < nListImages); i++) {
+
+                    if (scannedInfos[i] != null) {
+                        headerInfos[i] = scannedInfos[i];
+                    }
+                }
+            }
+
             nList: for (int i = 0; i < nListImages; i++) {
 
                 try {
@@ -752,16 +808,29 @@ public class FileIO {
                     }
 
                     FileInfoDicom fileInfoTemp;
+                    final String modality;
 
-                    if ( !fileList[i].equals(selectedFileName)) {
-                        imageFile.setFileName(fileList[i], refFileInfo);
-                        imageFile.readHeader(true);
-                        fileInfoTemp = (FileInfoDicom) imageFile.getFileInfo();
+                    // the prefetched headers only line up with the list as long as no file has been removed from it
+                    if ( (fileList == scannedList) && (headerInfos[i] != null)) {
+                        fileInfoTemp = headerInfos[i];
+                        modality = getModality(fileInfoTemp);
                     } else {
-                        fileInfoTemp = refFileInfo;
+
+                        if ( !fileList[i].equals(selectedFileName)) {
+                            imageFile.setFileName(fileList[i], refFileInfo);
+                            imageFile.readHeader(true);
+                            fileInfoTemp = (FileInfoDicom) imageFile.getFileInfo();
+                        } else {
+                            fileInfoTemp = refFileInfo;
+                        }
+
+                        modality = getModality(imageFile);
+                    }
+
+                    if (headerIndex != null) {
+                        headerIndex.put(fileList[i], fileInfoTemp);
                     }
 
-                    final String modality = getModality(imageFile);
                     if (modality != null && modality.equals("SR")) {
                         // TODO:Structured report handling would be implemented here (since the rest of this method
                         // reads the image file
@@ -924,6 +993,11 @@ public class FileIO {
 
             }
 
+            // store the headers before the file infos are adjusted for the volume below
+            if (headerIndex != null) {
+                headerIndex.save();
+            }
+
             if (fileList.length != savedFileInfos.length) {
             	if (progressBar != null) {
                     progressBar.setVisible(false);
@@ -1391,6 +1465,21 @@ public class FileIO {
         int enhancedCounter1 = 0;
         int enhancedCounter2 = 0;
 
+        // names of the slice files in the order they are read, so the next files can be fetched ahead of the decoder
+        String[] readOrder = null;
+
+        if ( !multiframe && FileDicomHeaderScan.isParallel(nImages)) {
+            readOrder = new String[nImages];
+
+            if (headerScan == null) {
+                headerScan = new FileDicomHeaderScan(fileDir, fileList, refFileInfo, quiet);
+            }
+
+            for (int i = 0; i < nImages; i++) {
+                readOrder[i] = performSort ? fileList[indices[i]] : fileList[i];
+            }
+        }
+
         for (int i = 0; i < nImages; i++) {
             if (multiframe) {
                 filename = fileList[0];
@@ -1411,6 +1500,10 @@ public class FileIO {
             }
             Preferences.debug("location: " + location + "\timg: " + filename + "\n", Preferences.DEBUG_FILEIO);
 
+            if (readOrder != null) {
+                headerScan.readAhead(readOrder, i);
+            }
+
             try {
 
                 if (progressBar != null) {
@@ -2543,7 +2636,17 @@ public class FileIO {
      * @return
      */
     private String getModality(final FileDicom imageFile) {
-        final FileDicomTag modalityTag = ((FileInfoDicom) imageFile.getFileInfo()).getTagTable().get(new FileDicomKey("0008,0060"));
+        return getModality((FileInfoDicom) imageFile.getFileInfo());
+    }
+
+    /**
+     * Gets the value of the Dicom modality tag, 0008,0060, from a file info that has already been read.
+     * 
+     * @param fileInfo the file info of a slice
+     * @return the modality, or null if the tag is not present
+     */
+    private String getModality(final FileInfoDicom fileInfo) {
+        final FileDicomTag modalityTag = fileInfo.getTagTable().get(new FileDicomKey("0008,0060"));
         if (modalityTag != null && modalityTag.getValue(true) != null) {
             return modalityTag.getValue(true).toString();
         }
@@ -2904,6 +3007,7 @@ public class FileIO {
                 case FileUtility.MAP:
                 case FileUtility.JIMI:
                 case FileUtility.JSON:
+                case FileUtility.N5:
                 case FileUtility.MINC_HDF: // technically possible, but difficult implementation
                 case FileUtility.INTERFILE:
                 case FileUtility.INTERFILE_MULTIFILE:
@@ -3740,6 +3844,10 @@ public class FileIO {
                     image = readMetaImage(fileName, fileDir, one);
                     break;
 
+                case FileUtility.N5:
+                    image = readN5(fileName, fileDir, one);
+                    break;
+
                 case FileUtility.NRRD:
                     image = readNRRD(fileName, fileDir, one);
                     break;
@@ -4823,7 +4931,7 @@ public class FileIO {
         boolean zip = false;
         ZipOutputStream zout;
         boolean gzip = false;
-        GZIPOutputStream gzout;
+        DeflaterOutputStream gzout;
         boolean bz2zip = false;
         CBZip2OutputStream bz2out;
         FileInputStream in;
@@ -5007,6 +5115,9 @@ public class FileIO {
             case FileUtility.METAIMAGE:
                 success = writeMetaImage(image, options);
                 break;
+            case FileUtility.N5:
+                success = writeN5(image, options);
+                break;
             case FileUtility.MATLAB:
                 success = writeMATLAB(image, options);
                 break;
@@ -5063,7 +5174,7 @@ public class FileIO {
                 // big the image is and a factor since image cloning can occur
                 final long memoryInUse = MipavUtil.getUsedHeapMemory();
                 final long totalMemory = MipavUtil.getMaxHeapMemory();
-                final int imageSize = image.getSize();
+                final long imageSize = image.getLongDataSize();
                 int numBytes = 1;
                 final int type = image.getType();
                 ;
@@ -5545,7 +5656,11 @@ public class FileIO {
                         }
                         try {
                             // Create the GZIP output stream
-                            gzout = new GZIPOutputStream(new FileOutputStream(outputFileName[i]));
+                            if (singleFileNIFTI && Preferences.is(Preferences.PREF_NIFTI_BLOCK_GZIP)) {
+                                gzout = new BGZFOutputStream(new BufferedOutputStream(new FileOutputStream(outputFileName[i])));
+                            } else {
+                                gzout = new GZIPOutputStream(new FileOutputStream(outputFileName[i]));
+                            }
                         } catch (final IOException e) {
                             MipavUtil.displayError("IOException on new GZIPOutputStream");
                             return;
@@ -5625,23 +5740,12 @@ public class FileIO {
 
                                 for (int start = s; start < end; start = start + sliceLength) {
                                     sliceByteData = getByteImageData(image, start, sliceLength);
-                                    for (int k = 0; k < sliceByteData.length; k = k + 1024) {
-                                        int gzipLen = 1024;
-                                        for (int b = 0, c = k; b < buf.length; b++, c++) {
-                                            if (c < sliceByteData.length) {
-                                                buf[b] = sliceByteData[c];
-                                            } else {
-                                                gzipLen = b;
-                                                break;
-                                            }
-                                        }
-                                        try {
-                                            gzout.write(buf, 0, gzipLen);
-                                        } catch (final Exception e) {
-                                            e.printStackTrace();
-                                            MipavUtil.displayError("IOException on byte transfer to gzip file");
-                                            return;
-                                        }
+                                    try {
+                                        gzout.write(sliceByteData, 0, sliceByteData.length);
+                                    } catch (final Exception e) {
+                                        e.printStackTrace();
+                                        MipavUtil.displayError("IOException on byte transfer to gzip file");
+                                        return;
                                     }
                                 }
 
@@ -10918,6 +11022,68 @@ public class FileIO {
         return image;
     }
 
+    /**
+     * Reads an N5 dataset by calling the read method of the file.
+     * 
+     * @param fileName Name of the dataset directory, or of the attributes.json file within it.
+     * @param fileDir Directory of the dataset directory, or the dataset directory itself.
+     * @param one Indicates that only the named file should be read, as opposed to reading the matching files in the
+     *            directory, as defined by the filetype. <code>true</code> if only want to read one image from 3D
+     *            dataset.
+     * 
+     * @return The image that was read in, or null if failure.
+     */
+    private ModelImage readN5(final String fileName, final String fileDir, final boolean one) {
+        ModelImage image = null;
+        FileN5 imageFile;
+
+        try {
+            imageFile = new FileN5(fileName, fileDir);
+            if ( !quiet) {
+                createProgressBar(imageFile, fileName, FileIO.FILE_READ);
+            }
+
+            image = imageFile.readImage(one);
+
+        } catch (final IOException error) {
+
+            if (image != null) {
+                image.disposeLocal();
+                image = null;
+            }
+
+            System.gc();
+
+            if ( !quiet) {
+                MipavUtil.displayError("FileIO: " + error);
+            }
+
+            error.printStackTrace();
+
+            return null;
+        } catch (final OutOfMemoryError error) {
+
+            if (image != null) {
+                image.disposeLocal();
+                image = null;
+            }
+
+            System.gc();
+
+            if ( !quiet) {
+                MipavUtil.displayError("FileIO: " + error);
+            }
+
+            error.printStackTrace();
+
+            return null;
+        }
+        imageFile.finalize();
+        imageFile = null;
+
+        return image;
+    }
+
     /**
      * Reads a MetaImage file by calling the read method of the file. if so, calls that method instead.
      * 
@@ -17950,6 +18116,46 @@ public class FileIO {
         return true;
     }
 
+    /**
+     * Writes an N5 dataset to store the image.
+     * 
+     * @param image The image to write.
+     * @param options The options to use to write the image.
+     * 
+     * @return Flag indicating that this was a successful write.
+     */
+    private boolean writeN5(final ModelImage image, final FileWriteOptions options) {
+        FileN5 n5File;
+
+        try { // Construct a new file object
+            n5File = new FileN5(options.getFileName(), options.getFileDirectory());
+            createProgressBar(n5File, options.getFileName(), FileIO.FILE_WRITE);
+            n5File.writeImage(image, options);
+        } catch (final IOException error) {
+
+            if ( !quiet) {
+                MipavUtil.displayError("FileIO: " + error);
+            }
+
+            error.printStackTrace();
+
+            return false;
+        } catch (final OutOfMemoryError error) {
+
+            if ( !quiet) {
+                MipavUtil.displayError("FileIO: " + error);
+            }
+
+            error.printStackTrace();
+
+            return false;
+        }
+
+        n5File.finalize();
+        n5File = null;
+        return true;
+    }
+
     /**
      * Writes a raw file to store the image.
      * 
@@ -0,0 +1,98 @@
+package gov.nih.mipav.model.file;
+
+
+import gov.nih.mipav.model.structures.*;
+
+import gov.nih.mipav.view.dialogs.*;
+
+
+/**
+ * This structure contains the information that describes how an N5 dataset is stored on disk.
+ *
+ * @see  FileN5
+ */
+public class FileInfoN5 extends FileInfoBase {
+
+    //~ Instance fields ------------------------------------------------------------------------------------------------
+
+    /** Size of the blocks along each dimension of the image. */
+    private int[] blockSize;
+
+    /** Compression of the blocks, FileN5.RAW or FileN5.GZIP. */
+    private String compression;
+
+    //~ Constructors ---------------------------------------------------------------------------------------------------
+
+    /**
+     * File info storage constructor.
+     *
+     * @param  name       file name
+     * @param  directory  directory
+     * @param  format     file format
+     */
+    public FileInfoN5(String name, String directory, int format) {
+        super(name, directory, format);
+    }
+
+    //~ Methods --------------------------------------------------------------------------------------------------------
+
+    /**
+     * Displays the file information.
+     *
+     * @param  dlog    dialog box that is written to
+     * @param  matrix  transformation matrix
+     */
+    public void displayAboutInfo(JDialogBase dlog, TransMatrix matrix) {
+        JDialogText dialog = (JDialogText) dlog;
+        displayPrimaryInfo(dialog, matrix);
+
+        dialog.append("\n\n                Other information\n\n");
+
+        if (blockSize != null) {
+
+            for (int i = 0; i < blockSize.length; i++) {
+                dialog.append("Block size[" + i + "] = " + blockSize[i] + "\n");
+            }
+        }
+
+        if (compression != null) {
+            dialog.append("Compression = " + compression + "\n");
+        }
+    }
+
+    /**
+     * Returns the size of the blocks.
+     *
+     * @return  the block size along each dimension of the image
+     */
+    public int[] getBlockSize() {
+        return blockSize;
+    }
+
+    /**
+     * Returns the compression of the blocks.
+     *
+     * @return  FileN5.RAW or FileN5.GZIP
+     */
+    public String getCompression() {
+        return compression;
+    }
+
+    /**
+     * Sets the size of the blocks.
+     *
+     * @param  blockSize  the block size along each dimension of the image
+     */
+    public void setBlockSize(int[] blockSize) {
+        this.blockSize = blockSize;
+    }
+
+    /**
+     * Sets the compression of the blocks.
+     *
+     * @param  compression  FileN5.RAW or FileN5.GZIP
+     */
+    public void setCompression(String compression) {
+        this.compression = compression;
+    }
+}
@@ -0,0 +1,1425 @@
+package gov.nih.mipav.model.file;
+
+
+import gov.nih.mipav.model.file.FileInfoBase.Unit;
+import gov.nih.mipav.model.structures.ModelImage;
+import gov.nih.mipav.model.structures.ModelStorageBase;
+import gov.nih.mipav.util.ThreadUtil;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.InflaterInputStream;
+
+import org.codehaus.jettison.json.JSONArray;
+import org.codehaus.jettison.json.JSONException;
+import org.codehaus.jettison.json.JSONObject;
+
+
+/**
+ * Reads and writes images as N5 datasets. A dataset is a directory holding an attributes.json file and the image cut
+ * into blocks, each block a file of its own, compressed on its own. The blocks are compressed and decompressed in
+ * parallel on the compute pool, and a region of the image is read or written by touching only the blocks it meets, so
+ * that a crop of a volume far larger than memory can be opened.
+ *
+ * <p>The layout follows the N5 specification, so that the datasets are read by other N5 readers. The block at grid
+ * position (i, j, k) is the file i/j/k of the dataset directory. It starts with a header of its mode, number of
+ * dimensions and size, followed by its samples in big endian order with x varying fastest. Blocks are stored raw or
+ * gzip compressed. The samples of color images are stored with the ARGB values of a pixel as a first dimension of
+ * size 4. Blocks never written read as 0. The data type, units, resolutions and origin of the image are kept as
+ * further attributes.</p>
+ *
+ * @see  FileInfoN5
+ */
+public class FileN5 extends FileBase {
+
+    //~ Static fields/initializers -------------------------------------------------------------------------------------
+
+    /** Name of the attributes file of a dataset. */
+    public static final String ATTRIBUTES = "attributes.json";
+
+    /** Blocks compressed with gzip. */
+    public static final String GZIP = "gzip";
+
+    /** Blocks stored uncompressed. */
+    public static final String RAW = "raw";
+
+    /** Default block size along x, y and z of a 3D or 4D image. */
+    private static final int DEFAULT_BLOCK = 64;
+
+    /** Default block size along x and y of a 2D image. */
+    private static final int DEFAULT_BLOCK_2D = 256;
+
+    /** Header of the gzip streams written, with no name, time or flags. */
+    private static final byte[] GZIP_HEADER = {0x1f, (byte) 0x8b, 8, 0, 0, 0, 0, 0, 0, (byte) 0xff};
+
+    /** Version of the N5 specification followed. */
+    private static final String VERSION = "2.5.1";
+
+    /** Deflaters of the compute workers, one per compression level, kept from one block to the next. */
+    private static final ThreadLocal<Deflater[]> deflaters = new ThreadLocal<Deflater[]>() {
+        protected Deflater[] initialValue() {
+            return new Deflater[11];
+        }
+    };
+
+    //~ Instance fields ------------------------------------------------------------------------------------------------
+
+    /** Block size of the datasets written, or null for the default. */
+    private int[] blockSize;
+
+    /** Compression of the blocks written. */
+    private String compression = GZIP;
+
+    /** Deflate compression level of the blocks written. */
+    private int compressionLevel = Deflater.DEFAULT_COMPRESSION;
+
+    /** The dataset directory. */
+    private final File directory;
+
+    /** File info of the dataset. */
+    private FileInfoN5 fileInfo;
+
+    /** Layout of the dataset, known once its attributes are read or written. */
+    private Layout layout;
+
+    /** Name of the images read. */
+    private final String name;
+
+    //~ Constructors ---------------------------------------------------------------------------------------------------
+
+    /**
+     * Creates a reader or writer of an N5 dataset.
+     *
+     * @param  fileName  name of the dataset directory, or attributes.json within it
+     * @param  fileDir   directory holding the dataset directory, or the dataset directory when fileName is
+     *                   attributes.json
+     */
+    public FileN5(final String fileName, final String fileDir) {
+
+        if (fileName.equalsIgnoreCase(ATTRIBUTES)) {
+            directory = new File(fileDir);
+        } else {
+            directory = new File(fileDir, fileName);
+        }
+
+        final String dirName = directory.getName();
+
+        if (dirName.toLowerCase().endsWith(".n5")) {
+            name = dirName.substring(0, dirName.length() - 3);
+        } else {
+            name = dirName;
+        }
+    }
+
+    //~ Methods --------------------------------------------------------------------------------------------------------
+
+    /**
+     * Returns whether a directory holds an N5 dataset, that is attributes with the dimensions and data type of an
+     * image.
+     *
+     * @param   dir  the directory
+     *
+     * @return  true if dir is an N5 dataset
+     */
+    public static boolean isN5Dataset(final File dir) {
+
+        if ( !new File(dir, ATTRIBUTES).isFile()) {
+            return false;
+        }
+
+        try {
+            final JSONObject attributes = FileN5.readAttributes(dir);
+
+            return attributes.has("dimensions") && attributes.has("dataType");
+        } catch (final IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Returns the file info of the dataset, once its attributes are read or written.
+     *
+     * @return  the file info
+     */
+    public FileInfoN5 getFileInfo() {
+        return fileInfo;
+    }
+
+    /**
+     * Reads the attributes of the dataset.
+     *
+     * @return  the file info of the dataset
+     *
+     * @throws  IOException  if the attributes cannot be read or describe a dataset that is not read
+     */
+    public FileInfoN5 readHeader() throws IOException {
+        final JSONObject attributes = FileN5.readAttributes(directory);
+        final int[] dimensions = FileN5.ints(attributes.optJSONArray("dimensions"), "dimensions");
+        final int[] blocks = FileN5.ints(attributes.optJSONArray("blockSize"), "blockSize");
+        final Object dataType = attributes.opt("dataType");
+        final JSONObject codec = attributes.optJSONObject("compression");
+        final JSONObject mipav = attributes.optJSONObject("mipav");
+        String type = RAW;
+        boolean useZlib = false;
+        int mipavType = -1;
+
+        if (codec != null) {
+            type = String.valueOf(codec.opt("type"));
+            useZlib = Boolean.TRUE.equals(codec.opt("useZlib"));
+        } else if (attributes.opt("compressionType") instanceof String) {
+
+            // N5 versions before 1.0
+            type = (String) attributes.opt("compressionType");
+        }
+
+        if ( !RAW.equals(type) && !GZIP.equals(type)) {
+            throw new IOException("FileN5 does not read " + type + " compressed blocks");
+        }
+
+        if ( (mipav != null) && (mipav.opt("dataType") instanceof String)) {
+
+            try {
+                mipavType = ModelStorageBase.DataType.valueOf((String) mipav.opt("dataType")).getLegacyNum();
+            } catch (final IllegalArgumentException e) {
+                throw new IOException("Unknown data type " + mipav.opt("dataType"));
+            }
+        } else if (dataType instanceof String) {
+            mipavType = FileN5.mipavType((String) dataType);
+        }
+
+        if ( (mipavType < 0) || (FileN5.n5Type(mipavType) == null) || !FileN5.n5Type(mipavType).equals(dataType)) {
+            throw new IOException("FileN5 does not read data type " + dataType);
+        }
+
+        final int samples = FileN5.samplesPerPixel(mipavType);
+        final int skip = (samples > 1) ? 1 : 0;
+        final int nDims = dimensions.length - skip;
+
+        if ( (nDims < 2) || (nDims > 4) || (blocks.length != dimensions.length)) {
+            throw new IOException("FileN5 reads datasets of 2 to 4 dimensions, not " + dimensions.length);
+        }
+
+        if ( (skip == 1) && (dimensions[0] != samples)) {
+            throw new IOException("Color dataset with " + dimensions[0] + " samples per pixel");
+        }
+
+        final int[] extents = Arrays.copyOfRange(dimensions, skip, dimensions.length);
+
+        layout = new Layout(mipavType, extents, Arrays.copyOfRange(blocks, skip, blocks.length), type, useZlib);
+
+        fileInfo = new FileInfoN5(ATTRIBUTES, directory.getPath() + File.separator, FileUtility.N5);
+        fileInfo.setDataType(mipavType);
+        fileInfo.setExtents(extents);
+        fileInfo.setEndianess(FileBase.BIG_ENDIAN);
+        fileInfo.setBlockSize(Arrays.copyOf(layout.block, nDims));
+        fileInfo.setCompression(type);
+
+        final float[] resolutions = new float[nDims];
+        final int[] units = new int[nDims];
+
+        Arrays.fill(resolutions, 1.0f);
+        Arrays.fill(units, Unit.UNKNOWN_MEASURE.getLegacyNum());
+
+        final JSONObject pixelResolution = attributes.optJSONObject("pixelResolution");
+
+        if (pixelResolution != null) {
+            final double[] values = FileN5.doubles(pixelResolution.optJSONArray("dimensions"));
+            final Unit unit = Unit.getUnitFromAbbrev(String.valueOf(pixelResolution.opt("unit")));
+
+            for (int i = 0; i < Math.min(nDims, values.length); i++) {
+                resolutions[i] = (float) values[i];
+                units[i] = (i < 3) ? unit.getLegacyNum() : Unit.UNKNOWN_MEASURE.getLegacyNum();
+            }
+        }
+
+        if (mipav != null) {
+            final double[] mipavResolutions = FileN5.doubles(mipav.optJSONArray("resolutions"));
+            final double[] mipavUnits = FileN5.doubles(mipav.optJSONArray("units"));
+            final double[] origin = FileN5.doubles(mipav.optJSONArray("origin"));
+            final float[] imageOrigin = new float[Math.max(3, nDims)];
+
+            for (int i = 0; i < Math.min(nDims, mipavResolutions.length); i++) {
+                resolutions[i] = (float) mipavResolutions[i];
+            }
+
+            for (int i = 0; i < Math.min(nDims, mipavUnits.length); i++) {
+                units[i] = (int) mipavUnits[i];
+            }
+
+            for (int i = 0; i < Math.min(imageOrigin.length, origin.length); i++) {
+                imageOrigin[i] = (float) origin[i];
+            }
+
+            fileInfo.setOrigin(imageOrigin);
+        }
+
+        fileInfo.setResolutions(resolutions);
+        fileInfo.setUnitsOfMeasure(units);
+
+        return fileInfo;
+    }
+
+    /**
+     * Reads the whole image of the dataset.
+     *
+     * @param   one  true to read only the first slice
+     *
+     * @return  the image
+     *
+     * @throws  IOException  if the dataset cannot be read
+     */
+    public ModelImage readImage(final boolean one) throws IOException {
+
+        if (layout == null) {
+            readHeader();
+        }
+
+        final int[] origin = new int[layout.nDims];
+        final int[] size = Arrays.copyOf(layout.extents, layout.nDims);
+
+        if (one) {
+
+            for (int i = 2; i < size.length; i++) {
+                size[i] = 1;
+            }
+        }
+
+        return readRegion(origin, size);
+    }
+
+    /**
+     * Reads a region of the dataset, reading only the blocks the region meets. Trailing dimensions of size 1 are
+     * dropped from the image, so that one slice of a volume is read as a 2D image.
+     *
+     * @param   origin  first pixel of the region along each dimension of the dataset
+     * @param   size    size of the region along each dimension of the dataset
+     *
+     * @return  the region
+     *
+     * @throws  IOException  if the region is not within the dataset or cannot be read
+     */
+    public ModelImage readRegion(final int[] origin, final int[] size) throws IOException {
+
+        if (layout == null) {
+            readHeader();
+        }
+
+        checkRegion(origin, size);
+
+        int nDims = layout.nDims;
+
+        while ( (nDims > 2) && (size[nDims - 1] == 1)) {
+            nDims--;
+        }
+
+        final int[] extents = Arrays.copyOf(size, nDims);
+        final ModelImage image = new ModelImage(layout.type, extents, name);
+
+        try {
+            transfer(image, FileN5.pad(origin, 0), FileN5.pad(size, 1), true);
+        } catch (final IOException e) {
+            image.disposeLocal();
+            throw e;
+        }
+
+        image.calcMinMax();
+
+        final FileInfoN5 info = (FileInfoN5) fileInfo.clone();
+        final float[] resolutions = fileInfo.getResolutions();
+        final float[] imageOrigin = Arrays.copyOf(fileInfo.getOrigin(), Math.max(3, nDims));
+        final int zDim = (nDims > 2) ? extents[2] : 1;
+
+        for (int i = 0; i < Math.min(3, nDims); i++) {
+            imageOrigin[i] += origin[i] * resolutions[i];
+        }
+
+        info.setExtents(extents);
+        info.setOrigin(imageOrigin);
+        info.setMin(image.getMin());
+        info.setMax(image.getMax());
+
+        for (int i = 0; i < image.getFileInfo().length; i++) {
+            final FileInfoN5 sliceInfo = (FileInfoN5) info.clone();
+
+            sliceInfo.setOrigin(info.getOriginAtSlice(i % zDim));
+            image.setFileInfo(sliceInfo, i);
+        }
+
+        return image;
+    }
+
+    /**
+     * Sets the block size of the datasets written.
+     *
+     * @param  blockSize  size of the blocks along each dimension of the image, or null for blocks of 64 pixels along
+     *                    x, y and z (256 along x and y of 2D images) and 1 along time
+     */
+    public void setBlockSize(final int[] blockSize) {
+        this.blockSize = blockSize;
+    }
+
+    /**
+     * Sets the compression of the blocks written.
+     *
+     * @param  compression  GZIP or RAW
+     */
+    public void setCompression(final String compression) {
+        this.compression = compression;
+    }
+
+    /**
+     * Sets the gzip compression level of the blocks written.
+     *
+     * @param  compressionLevel  from 1 for the fastest to 9 for the smallest, or -1 for the default
+     */
+    public void setCompressionLevel(final int compressionLevel) {
+        this.compressionLevel = compressionLevel;
+    }
+
+    /**
+     * Writes an image as a new dataset. Block size and compression are taken from the write options when set there.
+     *
+     * @param   image    the image
+     * @param   options  write options, may be null
+     *
+     * @throws  IOException  if the dataset cannot be written
+     */
+    public void writeImage(final ModelImage image, final FileWriteOptions options) throws IOException {
+        final int type = image.getType();
+        final int nDims = image.getNDims();
+        final int[] extents = image.getExtents();
+        int[] blocks = blockSize;
+        String codec = compression;
+
+        if (FileN5.n5Type(type) == null) {
+            throw new IOException("FileN5 does not write images of type " + image.getTypeString());
+        }
+
+        if ( (nDims < 2) || (nDims > 4)) {
+            throw new IOException("FileN5 writes images of 2 to 4 dimensions, not " + nDims);
+        }
+
+        if ( (options != null) && (options.getN5BlockSize() != null)) {
+            blocks = options.getN5BlockSize();
+        }
+
+        if ( (options != null) && (options.getN5Compression() != null)) {
+            codec = options.getN5Compression();
+        }
+
+        if ( !RAW.equals(codec) && !GZIP.equals(codec)) {
+            throw new IOException("FileN5 does not write " + codec + " compressed blocks");
+        }
+
+        final int[] block = new int[nDims];
+
+        for (int i = 0; i < nDims; i++) {
+
+            if ( (blocks != null) && (i < blocks.length)) {
+                block[i] = blocks[i];
+            } else if (i == 3) {
+                block[i] = 1;
+            } else {
+                block[i] = (nDims == 2) ? DEFAULT_BLOCK_2D : DEFAULT_BLOCK;
+            }
+
+            block[i] = Math.max(1, Math.min(block[i], extents[i]));
+        }
+
+        layout = new Layout(type, Arrays.copyOf(extents, nDims), block, codec, false);
+
+        if ( ((long) layout.block[0] * layout.block[1] * layout.block[2] * layout.block[3] * layout.pixelBytes)
+                > (Integer.MAX_VALUE - 64)) {
+            throw new IOException("Blocks of " + Arrays.toString(block) + " pixels are too large");
+        }
+
+        fileInfo = new FileInfoN5(ATTRIBUTES, directory.getPath() + File.separator, FileUtility.N5);
+        fileInfo.setDataType(type);
+        fileInfo.setExtents(layout.extents);
+        fileInfo.setEndianess(FileBase.BIG_ENDIAN);
+        fileInfo.setBlockSize(block);
+        fileInfo.setCompression(codec);
+        fileInfo.setResolutions(image.getFileInfo(0).getResolutions().clone());
+        fileInfo.setUnitsOfMeasure(image.getFileInfo(0).getUnitsOfMeasure().clone());
+        fileInfo.setOrigin(image.getFileInfo(0).getOrigin().clone());
+
+        Files.createDirectories(directory.toPath());
+        writeAttributes(image.getFileInfo(0));
+        transfer(image, new int[4], FileN5.pad(extents, 1), false);
+    }
+
+    /**
+     * Writes an image into a region of the dataset. Only the blocks the region meets are written, and those only
+     * partly covered by the region are read first, so that their pixels outside the region are kept.
+     *
+     * @param   region  image of the same data type as the dataset
+     * @param   origin  position of the first pixel of the region along each dimension of the dataset
+     *
+     * @throws  IOException  if the region is not within the dataset or cannot be written
+     */
+    public void writeRegion(final ModelImage region, final int[] origin) throws IOException {
+
+        if (layout == null) {
+            readHeader();
+        }
+
+        if (region.getType() != layout.type) {
+            throw new IOException("Cannot write " + region.getTypeString() + " pixels into a "
+                    + ModelStorageBase.getBufferTypeStr(layout.type) + " dataset");
+        }
+
+        if (region.getNDims() > layout.nDims) {
+            throw new IOException("Cannot write " + region.getNDims() + "D pixels into a " + layout.nDims
+                    + "D dataset");
+        }
+
+        final int[] size = Arrays.copyOf(FileN5.pad(region.getExtents(), 1), layout.nDims);
+
+        checkRegion(origin, size);
+        transfer(region, FileN5.pad(origin, 0), FileN5.pad(size, 1), false);
+    }
+
+    /**
+     * Copies the pixels shared by two boxes from one to the other.
+     *
+     * @param  from        box copied from
+     * @param  to          box copied to
+     * @param  pixelBytes  number of bytes of a pixel
+     */
+    private static void copy(final Box from, final Box to, final int pixelBytes) {
+        final int[] lo = new int[4];
+        final int[] hi = new int[4];
+
+        for (int i = 0; i < 4; i++) {
+            lo[i] = Math.max(from.lo[i], to.lo[i]);
+            hi[i] = Math.min(from.lo[i] + from.size[i], to.lo[i] + to.size[i]);
+
+            if (hi[i] <= lo[i]) {
+                return;
+            }
+        }
+
+        final int length = (hi[0] - lo[0]) * pixelBytes;
+
+        for (int t = lo[3]; t < hi[3]; t++) {
+
+            for (int z = lo[2]; z < hi[2]; z++) {
+
+                for (int y = lo[1]; y < hi[1]; y++) {
+                    System.arraycopy(from.data, from.offset(lo[0], y, z, t) * pixelBytes, to.data,
+                            to.offset(lo[0], y, z, t) * pixelBytes, length);
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the deflater of the calling thread for a compression level.
+     *
+     * @param   level  compression level, -1 to 9
+     *
+     * @return  a deflater writing raw deflate data
+     */
+    private static Deflater deflater(final int level) {
+        final Deflater[] levels = deflaters.get();
+
+        if (levels[level + 1] == null) {
+            levels[level + 1] = new Deflater(level, true);
+        }
+
+        return levels[level + 1];
+    }
+
+    /**
+     * Returns the numbers of a JSON array.
+     *
+     * @param   array  the array, may be null
+     *
+     * @return  its numbers, empty if there is no array
+     */
+    private static double[] doubles(final JSONArray array) {
+
+        if (array == null) {
+            return new double[0];
+        }
+
+        final double[] values = new double[array.length()];
+
+        for (int i = 0; i < values.length; i++) {
+
+            if (array.opt(i) instanceof Number) {
+                values[i] = ((Number) array.opt(i)).doubleValue();
+            }
+        }
+
+        return values;
+    }
+
+    /**
+     * Appends a JSON array of numbers.
+     *
+     * @param  json    the JSON text
+     * @param  values  the numbers
+     * @param  length  number of values appended
+     */
+    private static void array(final StringBuilder json, final float[] values, final int length) {
+        json.append('[');
+
+        for (int i = 0; i < length; i++) {
+            json.append( (i > 0) ? ", " : "").append( (i < values.length) ? values[i] : 0.0f);
+        }
+
+        json.append(']');
+    }
+
+    /**
+     * Appends a JSON array of integers.
+     *
+     * @param  json    the JSON text
+     * @param  values  the integers
+     */
+    private static void array(final StringBuilder json, final int[] values) {
+        json.append('[');
+
+        for (int i = 0; i < values.length; i++) {
+            json.append( (i > 0) ? ", " : "").append(values[i]);
+        }
+
+        json.append(']');
+    }
+
+    /**
+     * Returns the integers of a JSON array.
+     *
+     * @param   array  the array, may be null
+     * @param   key    name of the attribute, for the error message
+     *
+     * @return  its integers
+     *
+     * @throws  IOException  if there is no array or it holds other than positive integers
+     */
+    private static int[] ints(final JSONArray array, final String key) throws IOException {
+
+        if (array == null) {
+            throw new IOException("Missing N5 attribute " + key);
+        }
+
+        final int[] values = new int[array.length()];
+
+        for (int i = 0; i < values.length; i++) {
+
+            if ( !(array.opt(i) instanceof Number) || (((Number) array.opt(i)).doubleValue() > Integer.MAX_VALUE)
+                    || (((Number) array.opt(i)).doubleValue() < 1)) {
+                throw new IOException("Invalid N5 attribute " + key + " " + array);
+            }
+
+            values[i] = ((Number) array.opt(i)).intValue();
+        }
+
+        return values;
+    }
+
+    /**
+     * Returns the MIPAV data type of an N5 data type.
+     *
+     * @param   dataType  N5 data type
+     *
+     * @return  the ModelStorageBase data type, or -1 if there is none
+     */
+    private static int mipavType(final String dataType) {
+
+        if ("uint8".equals(dataType)) {
+            return ModelStorageBase.UBYTE;
+        } else if ("int8".equals(dataType)) {
+            return ModelStorageBase.BYTE;
+        } else if ("uint16".equals(dataType)) {
+            return ModelStorageBase.USHORT;
+        } else if ("int16".equals(dataType)) {
+            return ModelStorageBase.SHORT;
+        } else if ("uint32".equals(dataType)) {
+            return ModelStorageBase.UINTEGER;
+        } else if ("int32".equals(dataType)) {
+            return ModelStorageBase.INTEGER;
+        } else if ("int64".equals(dataType)) {
+            return ModelStorageBase.LONG;
+        } else if ("float32".equals(dataType)) {
+            return ModelStorageBase.FLOAT;
+        } else if ("float64".equals(dataType)) {
+            return ModelStorageBase.DOUBLE;
+        }
+
+        return -1;
+    }
+
+    /**
+     * Returns the N5 data type of the samples of a MIPAV data type.
+     *
+     * @param   type  ModelStorageBase data type
+     *
+     * @return  the N5 data type, or null if the type is not written
+     */
+    private static String n5Type(final int type) {
+
+        switch (type) {
+
+            case ModelStorageBase.BOOLEAN:
+            case ModelStorageBase.UBYTE:
+            case ModelStorageBase.ARGB:
+                return "uint8";
+
+            case ModelStorageBase.BYTE:
+                return "int8";
+
+            case ModelStorageBase.SHORT:
+                return "int16";
+
+            case ModelStorageBase.USHORT:
+            case ModelStorageBase.ARGB_USHORT:
+                return "uint16";
+
+            case ModelStorageBase.INTEGER:
+                return "int32";
+
+            case ModelStorageBase.UINTEGER:
+                return "uint32";
+
+            case ModelStorageBase.LONG:
+                return "int64";
+
+            case ModelStorageBase.FLOAT:
+            case ModelStorageBase.ARGB_FLOAT:
+                return "float32";
+
+            case ModelStorageBase.DOUBLE:
+                return "float64";
+
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * Pads an array to 4 values.
+     *
+     * @param   values  the values
+     * @param   fill    value of the added entries
+     *
+     * @return  the 4 values
+     */
+    private static int[] pad(final int[] values, final int fill) {
+        final int[] padded = new int[4];
+
+        Arrays.fill(padded, fill);
+        System.arraycopy(values, 0, padded, 0, Math.min(4, values.length));
+
+        return padded;
+    }
+
+    /**
+     * Reads and parses the attributes of a dataset.
+     *
+     * @param   dir  the dataset directory
+     *
+     * @return  the attributes
+     *
+     * @throws  IOException  if the attributes cannot be read or parsed
+     */
+    private static JSONObject readAttributes(final File dir) throws IOException {
+        final byte[] text = Files.readAllBytes(new File(dir, ATTRIBUTES).toPath());
+
+        try {
+            return new JSONObject(new String(text, StandardCharsets.UTF_8));
+        } catch (final JSONException e) {
+            throw new IOException(ATTRIBUTES + " of " + dir.getName() + " is not a JSON object: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Returns the number of samples of each pixel of a data type.
+     *
+     * @param   type  ModelStorageBase data type
+     *
+     * @return  4 for color images, else 1
+     */
+    private static int samplesPerPixel(final int type) {
+        return ( (type == ModelStorageBase.ARGB) || (type == ModelStorageBase.ARGB_USHORT)
+                || (type == ModelStorageBase.ARGB_FLOAT)) ? 4 : 1;
+    }
+
+    /**
+     * Writes a 32 bit integer in little endian order, as the gzip trailer wants.
+     *
+     * @param  out    the stream
+     * @param  value  the integer
+     */
+    private static void writeIntLE(final ByteArrayOutputStream out, final int value) {
+        out.write(value);
+        out.write(value >>> 8);
+        out.write(value >>> 16);
+        out.write(value >>> 24);
+    }
+
+    /**
+     * Returns the file of a block.
+     *
+     * @param   grid  grid position of the block
+     *
+     * @return  the block file, which need not exist
+     */
+    private File blockFile(final int[] grid) {
+        final StringBuilder path = new StringBuilder();
+
+        if (layout.samples > 1) {
+            path.append('0').append(File.separatorChar);
+        }
+
+        for (int i = 0; i < layout.nDims; i++) {
+            path.append( (i > 0) ? File.separator : "").append(grid[i]);
+        }
+
+        return new File(directory, path.toString());
+    }
+
+    /**
+     * Checks that a region lies within the dataset.
+     *
+     * @param   origin  first pixel of the region
+     * @param   size    size of the region
+     *
+     * @throws  IOException  if the region is not within the dataset
+     */
+    private void checkRegion(final int[] origin, final int[] size) throws IOException {
+
+        if ( (origin.length != layout.nDims) || (size.length != layout.nDims)) {
+            throw new IOException("Region of " + origin.length + " dimensions in a " + layout.nDims + "D dataset");
+        }
+
+        for (int i = 0; i < layout.nDims; i++) {
+
+            if ( (origin[i] < 0) || (size[i] < 1) || (((long) origin[i] + size[i]) > layout.extents[i])) {
+                throw new IOException("Region " + Arrays.toString(origin) + " + " + Arrays.toString(size)
+                        + " is outside of the dataset " + Arrays.toString(layout.extents));
+            }
+        }
+    }
+
+    /**
+     * Copies one run of samples of a row of blocks between the image and the row.
+     *
+     * @param   image    the image
+     * @param   start    index of the first sample in the image
+     * @param   count    number of samples
+     * @param   data     samples of the row, big endian
+     * @param   offset   index of the first byte of the run in data
+     * @param   toImage  true to import the samples into the image, false to export them from it
+     *
+     * @throws  IOException  if the image data cannot be imported or exported
+     */
+    private void copyRun(final ModelImage image, final int start, final int count, final byte[] data,
+            final int offset, final boolean toImage) throws IOException {
+        final ByteBuffer buffer = ByteBuffer.wrap(data, offset, count * layout.bytes).slice();
+
+        switch (layout.type) {
+
+            case ModelStorageBase.BOOLEAN:
+            case ModelStorageBase.BYTE:
+            case ModelStorageBase.UBYTE:
+            case ModelStorageBase.ARGB:
+                if (toImage) {
+                    image.importData(start, Arrays.copyOfRange(data, offset, offset + count), false);
+                } else {
+                    final byte[] values = new byte[count];
+
+                    image.exportData(start, count, values);
+                    System.arraycopy(values, 0, data, offset, count);
+                }
+
+                break;
+
+            case ModelStorageBase.SHORT:
+            case ModelStorageBase.USHORT:
+            case ModelStorageBase.ARGB_USHORT: {
+                final short[] values = new short[count];
+
+                if (toImage) {
+                    buffer.asShortBuffer().get(values);
+                    image.importData(start, values, false);
+                } else {
+                    image.exportData(start, count, values);
+                    buffer.asShortBuffer().put(values);
+                }
+
+                break;
+            }
+
+            case ModelStorageBase.INTEGER:
+            case ModelStorageBase.UINTEGER: {
+                final int[] values = new int[count];
+
+                if (toImage) {
+                    buffer.asIntBuffer().get(values);
+                    image.importData(start, values, false);
+                } else {
+                    image.exportData(start, count, values);
+                    buffer.asIntBuffer().put(values);
+                }
+
+                break;
+            }
+
+            case ModelStorageBase.LONG: {
+                final long[] values = new long[count];
+
+                if (toImage) {
+                    buffer.asLongBuffer().get(values);
+                    image.importData(start, values, false);
+                } else {
+                    image.exportData(start, count, values);
+                    buffer.asLongBuffer().put(values);
+                }
+
+                break;
+            }
+
+            case ModelStorageBase.FLOAT:
+            case ModelStorageBase.ARGB_FLOAT: {
+                final float[] values = new float[count];
+
+                if (toImage) {
+                    buffer.asFloatBuffer().get(values);
+                    image.importData(start, values, false);
+                } else {
+                    image.exportData(start, count, values);
+                    buffer.asFloatBuffer().put(values);
+                }
+
+                break;
+            }
+
+            case ModelStorageBase.DOUBLE: {
+                final double[] values = new double[count];
+
+                if (toImage) {
+                    buffer.asDoubleBuffer().get(values);
+                    image.importData(start, values, false);
+                } else {
+                    image.exportData(start, count, values);
+                    buffer.asDoubleBuffer().put(values);
+                }
+
+                break;
+            }
+
+            default:
+                throw new IOException("FileN5 does not handle images of type " + image.getTypeString());
+        }
+    }
+
+    /**
+     * Copies the samples of a row of blocks between the image and the row. The row spans the whole width of the
+     * region, so each of its slices and time points is one run of the image.
+     *
+     * @param   image    the image, which holds the region
+     * @param   origin   position of the region in the dataset
+     * @param   size     size of the region
+     * @param   row      the row
+     * @param   toImage  true to import the row into the image, false to export it from the image
+     *
+     * @throws  IOException  if the image data cannot be imported or exported
+     */
+    private void copyRow(final ModelImage image, final int[] origin, final int[] size, final Box row,
+            final boolean toImage) throws IOException {
+        final int count = row.size[0] * row.size[1] * layout.samples;
+        int offset = 0;
+
+        for (int t = row.lo[3]; t < (row.lo[3] + row.size[3]); t++) {
+
+            for (int z = row.lo[2]; z < (row.lo[2] + row.size[2]); z++) {
+                final long start = ( ( ( ( ((long) (t - origin[3]) * size[2]) + (z - origin[2])) * size[1])
+                        + (row.lo[1] - origin[1])) * size[0]) * layout.samples;
+
+                if ( (start + count) > Integer.MAX_VALUE) {
+                    throw new IOException("Region of " + Arrays.toString(size) + " pixels is too large for an image");
+                }
+
+                copyRun(image, (int) start, count, row.data, offset, toImage);
+                offset += count * layout.bytes;
+            }
+        }
+    }
+
+    /**
+     * Waits for the blocks of a row to be read or written, and imports the row into the image when read.
+     *
+     * @param   image   the image
+     * @param   origin  position of the region in the dataset
+     * @param   size    size of the region
+     * @param   row     the row
+     * @param   read    true when reading
+     *
+     * @throws  IOException  if a block cannot be read or written
+     */
+    private void finishRow(final ModelImage image, final int[] origin, final int[] size, final Box row,
+            final boolean read) throws IOException {
+
+        for (final Future<Object> block : row.blocks) {
+
+            try {
+                block.get();
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while transferring blocks of " + directory.getName());
+            } catch (final ExecutionException e) {
+
+                if (e.getCause() instanceof IOException) {
+                    throw (IOException) e.getCause();
+                }
+
+                throw new IOException("Cannot transfer a block of " + directory.getName(), e.getCause());
+            }
+        }
+
+        if (read) {
+            copyRow(image, origin, size, row, true);
+        }
+    }
+
+    /**
+     * Reads a block.
+     *
+     * @param   grid  grid position of the block
+     *
+     * @return  the block, or null if it was never written
+     *
+     * @throws  IOException  if the block cannot be read
+     */
+    private Box readBlock(final int[] grid) throws IOException {
+        final File file = blockFile(grid);
+
+        if ( !file.isFile()) {
+            return null;
+        }
+
+        final byte[] bytes = Files.readAllBytes(file.toPath());
+        final ByteBuffer header = ByteBuffer.wrap(bytes);
+        final int mode = header.getShort();
+        final int nDims = header.getShort();
+        final int skip = (layout.samples > 1) ? 1 : 0;
+        final Box block = new Box(new int[4], new int[] {1, 1, 1, 1});
+        long elements = layout.samples;
+
+        if ( (mode != 0) && (mode != 1)) {
+            throw new IOException("FileN5 does not read blocks of mode " + mode + " in " + file);
+        }
+
+        if (nDims != (layout.nDims + skip)) {
+            throw new IOException("Block of " + nDims + " dimensions in " + file);
+        }
+
+        if ( (skip == 1) && (header.getInt() != layout.samples)) {
+            throw new IOException("Block of another number of samples per pixel in " + file);
+        }
+
+        for (int i = 0; i < layout.nDims; i++) {
+            block.lo[i] = grid[i] * layout.block[i];
+            block.size[i] = header.getInt();
+            elements *= block.size[i];
+        }
+
+        if ( (elements * layout.bytes) > (Integer.MAX_VALUE - 64)) {
+            throw new IOException("Block too large in " + file);
+        }
+
+        block.data = new byte[(int) (elements * layout.bytes)];
+
+        // blocks of varying length hold their own number of samples, which may be fewer than the block size
+        final int length = (mode == 1) ? (int) Math.min(block.data.length, (header.getInt() & 0xffffffffL)
+                * layout.bytes) : block.data.length;
+        InputStream in = new ByteArrayInputStream(bytes, header.position(), bytes.length - header.position());
+
+        if (GZIP.equals(layout.compression)) {
+            in = layout.useZlib ? new InflaterInputStream(in) : new GZIPInputStream(in);
+        }
+
+        try {
+            new DataInputStream(in).readFully(block.data, 0, length);
+        } finally {
+            in.close();
+        }
+
+        return block;
+    }
+
+    /**
+     * Reads the blocks of the region in rows along x, or writes them, a bounded number of blocks at a time. The
+     * blocks of a row are read or written in parallel on the compute pool, while the rows before and after are moved
+     * between the row and the image.
+     *
+     * @param   image   the image, which holds the region
+     * @param   origin  position of the region in the dataset, along 4 dimensions
+     * @param   size    size of the region, along 4 dimensions
+     * @param   read    true to read the region into the image, false to write the image into the region
+     *
+     * @throws  IOException  if a block cannot be read or written
+     */
+    private void transfer(final ModelImage image, final int[] origin, final int[] size, final boolean read)
+            throws IOException {
+        final int[] first = new int[4];
+        final int[] count = new int[4];
+        final int rows;
+        final int window = 4 * ThreadUtil.getAvailableCores();
+        final ArrayDeque<Box> pending = new ArrayDeque<Box>();
+        int tasks = 0;
+
+        for (int i = 0; i < 4; i++) {
+            first[i] = origin[i] / layout.block[i];
+            count[i] = ( (origin[i] + size[i] - 1) / layout.block[i]) - first[i] + 1;
+        }
+
+        rows = count[1] * count[2] * count[3];
+
+        try {
+
+            for (int r = 0; r < rows; r++) {
+                final int[] lo = {origin[0], 0, 0, 0};
+                final int[] rowSize = {size[0], 0, 0, 0};
+                final int[] grid = {0, first[1] + (r % count[1]), first[2] + ( (r / count[1]) % count[2]),
+                        first[3] + (r / (count[1] * count[2]))};
+
+                for (int i = 1; i < 4; i++) {
+                    lo[i] = Math.max(origin[i], grid[i] * layout.block[i]);
+                    rowSize[i] = Math.min(origin[i] + size[i], (grid[i] + 1) * layout.block[i]) - lo[i];
+                }
+
+                final long rowBytes = (long) rowSize[0] * rowSize[1] * rowSize[2] * rowSize[3] * layout.pixelBytes;
+
+                if (rowBytes > Integer.MAX_VALUE) {
+                    throw new IOException("A row of blocks of " + directory.getName() + " is too large");
+                }
+
+                final Box row = new Box(lo, rowSize);
+
+                row.data = new byte[(int) rowBytes];
+                row.blocks = new ArrayList<Future<Object>>(count[0]);
+
+                if ( !read) {
+                    copyRow(image, origin, size, row, false);
+                }
+
+                for (int x = first[0]; x < (first[0] + count[0]); x++) {
+                    final int[] blockGrid = {x, grid[1], grid[2], grid[3]};
+
+                    row.blocks.add(ThreadUtil.computePool.submit(new Callable<Object>() {
+                            public Object call() throws IOException {
+
+                                if (read) {
+                                    final Box block = readBlock(blockGrid);
+
+                                    if (block != null) {
+                                        FileN5.copy(block, row, layout.pixelBytes);
+                                    }
+                                } else {
+                                    writeBlock(blockGrid, row);
+                                }
+
+                                return null;
+                            }
+                        }));
+                }
+
+                pending.add(row);
+                tasks += count[0];
+
+                while ( (pending.size() > 1) && (tasks > window)) {
+                    final Box done = pending.poll();
+
+                    tasks -= done.blocks.size();
+                    finishRow(image, origin, size, done, read);
+                }
+
+                fireProgressStateChanged(Math.round( (100.0f * r) / rows));
+            }
+
+            while ( !pending.isEmpty()) {
+                finishRow(image, origin, size, pending.peek(), read);
+                pending.poll();
+            }
+        } finally {
+
+            for (final Box row : pending) {
+
+                for (final Future<Object> block : row.blocks) {
+                    block.cancel(false);
+                }
+            }
+        }
+    }
+
+    /**
+     * Writes the attributes of the dataset.
+     *
+     * @param   info  file info of the image written
+     *
+     * @throws  IOException  if the attributes cannot be written
+     */
+    private void writeAttributes(final FileInfoBase info) throws IOException {
+        final StringBuilder json = new StringBuilder("{\n");
+        final int[] dimensions = new int[layout.nDims + ( (layout.samples > 1) ? 1 : 0)];
+        final int[] blocks = new int[dimensions.length];
+        final int skip = dimensions.length - layout.nDims;
+        final float[] resolutions = info.getResolutions();
+        final int[] units = Arrays.copyOf(info.getUnitsOfMeasure(), layout.nDims);
+
+        if (skip == 1) {
+            dimensions[0] = layout.samples;
+            blocks[0] = layout.samples;
+        }
+
+        for (int i = 0; i < layout.nDims; i++) {
+            dimensions[i + skip] = layout.extents[i];
+            blocks[i + skip] = layout.block[i];
+        }
+
+        json.append("  \"n5\": \"").append(VERSION).append("\",\n  \"dimensions\": ");
+        FileN5.array(json, dimensions);
+        json.append(",\n  \"blockSize\": ");
+        FileN5.array(json, blocks);
+        json.append(",\n  \"dataType\": \"").append(FileN5.n5Type(layout.type)).append("\",\n  \"compression\": ");
+
+        if (GZIP.equals(layout.compression)) {
+            json.append("{\"type\": \"gzip\", \"level\": ").append(compressionLevel).append(", \"useZlib\": false}");
+        } else {
+            json.append("{\"type\": \"raw\"}");
+        }
+
+        json.append(",\n  \"pixelResolution\": {\"unit\": \"").append(Unit.getUnitFromLegacyNum(units[0]).getAbbrev())
+                .append("\", \"dimensions\": ");
+        FileN5.array(json, resolutions, Math.min(3, layout.nDims));
+        json.append("},\n  \"mipav\": {\"dataType\": \"").append(ModelStorageBase.DataType.getDataType(layout.type)
+                .name()).append("\", \"resolutions\": ");
+        FileN5.array(json, resolutions, layout.nDims);
+        json.append(", \"units\": ");
+        FileN5.array(json, units);
+        json.append(", \"origin\": ");
+        FileN5.array(json, info.getOrigin(), Math.min(4, layout.nDims));
+        json.append("}\n}\n");
+
+        final FileOutputStream out = new FileOutputStream(new File(directory, ATTRIBUTES));
+
+        try {
+            out.write(json.toString().getBytes(StandardCharsets.UTF_8));
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Writes a block from a row of blocks. When the row does not cover the whole block, the block is read first so
+     * that its other pixels are kept.
+     *
+     * @param   grid  grid position of the block
+     * @param   row   the row holding the new pixels
+     *
+     * @throws  IOException  if the block cannot be read or written
+     */
+    private void writeBlock(final int[] grid, final Box row) throws IOException {
+        final int[] lo = new int[4];
+        final int[] size = new int[4];
+        boolean covered = true;
+        int pixels = 1;
+
+        for (int i = 0; i < 4; i++) {
+            lo[i] = grid[i] * layout.block[i];
+            size[i] = Math.min(layout.block[i], layout.extents4[i] - lo[i]);
+            pixels *= size[i];
+            covered &= (row.lo[i] <= lo[i]) && ( (row.lo[i] + row.size[i]) >= (lo[i] + size[i]));
+        }
+
+        final Box block = new Box(lo, size);
+
+        block.data = new byte[pixels * layout.pixelBytes];
+
+        if ( !covered) {
+            final Box old = readBlock(grid);
+
+            if (old != null) {
+                FileN5.copy(old, block, layout.pixelBytes);
+            }
+        }
+
+        FileN5.copy(row, block, layout.pixelBytes);
+
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream(64 + (block.data.length / 2));
+        final DataOutputStream header = new DataOutputStream(bytes);
+
+        header.writeShort(0);
+        header.writeShort(layout.nDims + ( (layout.samples > 1) ? 1 : 0));
+
+        if (layout.samples > 1) {
+            header.writeInt(layout.samples);
+        }
+
+        for (int i = 0; i < layout.nDims; i++) {
+            header.writeInt(size[i]);
+        }
+
+        if (GZIP.equals(layout.compression)) {
+            final Deflater deflater = FileN5.deflater(compressionLevel);
+            final CRC32 crc = new CRC32();
+            final byte[] buffer = new byte[16384];
+
+            bytes.write(GZIP_HEADER, 0, GZIP_HEADER.length);
+            deflater.reset();
+            deflater.setInput(block.data);
+            deflater.finish();
+
+            while ( !deflater.finished()) {
+                bytes.write(buffer, 0, deflater.deflate(buffer));
+            }
+
+            crc.update(block.data);
+            FileN5.writeIntLE(bytes, (int) crc.getValue());
+            FileN5.writeIntLE(bytes, block.data.length);
+        } else {
+            bytes.write(block.data);
+        }
+
+        final File file = blockFile(grid);
+
+        Files.createDirectories(file.getParentFile().toPath());
+
+        final FileOutputStream out = new FileOutputStream(file);
+
+        try {
+            bytes.writeTo(out);
+        } finally {
+            out.close();
+        }
+    }
+
+    //~ Inner Classes --------------------------------------------------------------------------------------------------
+
+    /**
+     * A box of pixels of the dataset, along 4 dimensions, with its samples in big endian order and x varying fastest.
+     * A box is either one block, or a row of blocks along x clipped to the region read or written.
+     */
+    private static final class Box {
+
+        /** Blocks of a row being read or written. */
+        ArrayList<Future<Object>> blocks;
+
+        /** The samples. */
+        byte[] data;
+
+        /** First pixel along each dimension. */
+        final int[] lo;
+
+        /** Number of pixels along each dimension. */
+        final int[] size;
+
+        /**
+         * Creates a box with no samples yet.
+         *
+         * @param  lo    first pixel along each dimension
+         * @param  size  number of pixels along each dimension
+         */
+        Box(final int[] lo, final int[] size) {
+            this.lo = lo;
+            this.size = size;
+        }
+
+        /**
+         * Returns the index of a pixel in the box.
+         *
+         * @param   x  x of the pixel in the dataset
+         * @param   y  y of the pixel in the dataset
+         * @param   z  z of the pixel in the dataset
+         * @param   t  t of the pixel in the dataset
+         *
+         * @return  the index of the pixel, counted in pixels
+         */
+        int offset(final int x, final int y, final int z, final int t) {
+            return ( ( ( ( ( (t - lo[3]) * size[2]) + (z - lo[2])) * size[1]) + (y - lo[1])) * size[0]) + (x - lo[0]);
+        }
+    }
+
+    /**
+     * Layout of a dataset: its data type, extents, blocks and compression.
+     */
+    private static final class Layout {
+
+        /** Block size along each dimension, padded to 4 dimensions with 1. */
+        final int[] block;
+
+        /** Number of bytes of a sample. */
+        final int bytes;
+
+        /** Compression of the blocks. */
+        final String compression;
+
+        /** Extents of the image. */
+        final int[] extents;
+
+        /** Extents of the image, padded to 4 dimensions with 1. */
+        final int[] extents4;
+
+        /** Number of dimensions of the image. */
+        final int nDims;
+
+        /** Number of bytes of a pixel. */
+        final int pixelBytes;
+
+        /** Number of samples of a pixel. */
+        final int samples;
+
+        /** ModelStorageBase data type of the image. */
+        final int type;
+
+        /** Whether gzip compressed blocks are zlib streams rather than gzip streams. */
+        final boolean useZlib;
+
+        /**
+         * Creates a layout.
+         *
+         * @param  type         ModelStorageBase data type
+         * @param  extents      extents of the image
+         * @param  block        block size along each dimension of the image
+         * @param  compression  compression of the blocks
+         * @param  useZlib      whether gzip compressed blocks are zlib streams
+         */
+        Layout(final int type, final int[] extents, final int[] block, final String compression,
+                final boolean useZlib) {
+            this.type = type;
+            this.extents = extents;
+            this.block = FileN5.pad(block, 1);
+            this.extents4 = FileN5.pad(extents, 1);
+            this.compression = compression;
+            this.useZlib = useZlib;
+            nDims = extents.length;
+            samples = FileN5.samplesPerPixel(type);
+
+            final String n5Type = FileN5.n5Type(type);
+
+            bytes = n5Type.endsWith("64") ? 8 : (n5Type.endsWith("32") ? 4 : (n5Type.endsWith("16") ? 2 : 1));
+            pixelBytes = samples * bytes;
+        }
+    }
+}
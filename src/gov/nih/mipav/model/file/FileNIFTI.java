@@ -10,6 +10,9 @@ import gov.nih.mipav.view.*;
 import gov.nih.mipav.view.dialogs.*;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
 import java.util.zip.GZIPInputStream;
 import java.util.zip.ZipInputStream;
 
@@ -467,7 +470,7 @@ public class FileNIFTI extends FileBase {
     private File file;
     private FileInputStream fis;
     private ZipInputStream zin;
-    private GZIPInputStream gzin;
+    private InputStream gzin;
     private CBZip2InputStream bz2in;
     private boolean noReadPrivateTags;
 
@@ -9035,6 +9038,7 @@ public class FileNIFTI extends FileBase {
         AlgorithmChangeType changeTypeAlgo;
         fileInfo = new FileInfoNIFTI(fileName, fileDir, FileUtility.NIFTI);
         boolean flip = false;
+        boolean mapData = false;
         int i;
         
         
@@ -9070,7 +9074,12 @@ public class FileNIFTI extends FileBase {
                     return null;
                 }
                 try {
-                    gzin = new GZIPInputStream(new BufferedInputStream(fis));
+                    // blocked gzip files, such as those written with the NIFTIBlockGzip preference, inflate in parallel
+                    if (BGZFInputStream.isBGZF(file)) {
+                        gzin = new BGZFInputStream(new BufferedInputStream(fis, BGZFInputStream.MAX_BLOCK_SIZE));
+                    } else {
+                        gzin = new GZIPInputStream(new BufferedInputStream(fis), BGZFInputStream.MAX_BLOCK_SIZE);
+                    }
                 } catch (IOException e) {
                     MipavUtil.displayError("IOException on GZIPInputStream for " + fileName);
                     return null;
@@ -9138,7 +9147,11 @@ public class FileNIFTI extends FileBase {
                 image = new ModelImage(fileInfo.getDataType(), new int[] { extents[0], extents[1] },
                                        fileInfo.getFileName());
             } else {
-                image = new ModelImage(fileInfo.getDataType(), fileInfo.getExtents(), fileInfo.getFileName());
+                // Uncompressed voxels can be mapped straight from the file rather than copied into memory
+                mapData = !niftiCompressed && !noImportData && Preferences.is(Preferences.PREF_MEMORY_MAP_READ)
+                              && ModelStorageBase.isMappable(ModelStorageBase.DataType.getDataType(fileInfo.getDataType()));
+                image = new ModelImage(fileInfo.getDataType(), fileInfo.getExtents(), fileInfo.getFileName(),
+                                       !mapData);
             }
         } catch (OutOfMemoryError error) {
             throw (error);
@@ -9290,7 +9303,7 @@ public class FileNIFTI extends FileBase {
             	String ext = fileName.substring(fileName.lastIndexOf(".")+1, fileName.length());
             	if (ext.equalsIgnoreCase("zip")) {
             		
-                    int start = 0;
+                    long start = 0;
                     boolean endianness = fileInfo.getEndianess();
                     int type = image.getType();
                     
@@ -9331,7 +9344,7 @@ public class FileNIFTI extends FileBase {
 
                         	if(type == ModelStorageBase.BYTE || type == ModelStorageBase.UBYTE || type == ModelStorageBase.BOOLEAN) {
                         		image.importData(start, buffer, false);
-                        		if(start < image.getDataSize()) {
+                        		if(start < image.getLongDataSize()) {
                         			start = start + buffer.length;
                         		}
                         	}else if(type == ModelStorageBase.SHORT || type == ModelStorageBase.USHORT ) {
@@ -9340,7 +9353,7 @@ public class FileNIFTI extends FileBase {
                         			byte[] b = {buffer[m],buffer[m+1]};
                         			shortBuff[k] = FileBase.bytesToShort(endianness, 0, b);
                         		}
-                        		if(start < image.getDataSize()) {
+                        		if(start < image.getLongDataSize()) {
                         			image.importData(start, shortBuff, false);
                         		}
                         		start = start + shortBuff.length;
@@ -9350,7 +9363,7 @@ public class FileNIFTI extends FileBase {
                         			byte[] b = {buffer[m],buffer[m+1],buffer[m+2],buffer[m+3]};
                         			intBuff[k] = FileBase.bytesToInt(endianness, 0, b);
                         		}
-                        		if(start < image.getDataSize()) {
+                        		if(start < image.getLongDataSize()) {
                         			image.importData(start, intBuff, false);
                         		}
                         		start = start + intBuff.length;
@@ -9360,7 +9373,7 @@ public class FileNIFTI extends FileBase {
                         			byte[] b = {buffer[m],buffer[m+1],buffer[m+2],buffer[m+3]};
                         			floatBuff[k] = FileBase.bytesToFloat(endianness, 0, b);
                         		}
-                        		if(start < image.getDataSize()) {
+                        		if(start < image.getLongDataSize()) {
                         			image.importData(start, floatBuff, false);
                         		}
                         		start = start + floatBuff.length;                             
@@ -9371,14 +9384,14 @@ public class FileNIFTI extends FileBase {
                         			byte[] b = {buffer[m],buffer[m+1],buffer[m+2],buffer[m+3],buffer[m+4],buffer[m+5],buffer[m+6],buffer[m+7]};
                         			doubleBuff[k] = FileBase.bytesToDouble(endianness, 0, b);
                         		}
-                        		if(start < image.getDataSize()) {
+                        		if(start < image.getLongDataSize()) {
                         			image.importData(start, doubleBuff, false);
                         		}
                         		start = start + doubleBuff.length;                             
                         		                              
                         	}else if(type == ModelStorageBase.ARGB) {
                         		byte[] buff2 = new byte[buffer.length + buffer.length/3];
-                        		if(start < image.getDataSize()) {
+                        		if(start < image.getLongDataSize()) {
                         			int counter = 0;
                         			for(int m=0;m<buffer.length;m=m+3) {
                             			buff2[counter] = 1;
@@ -9395,7 +9408,7 @@ public class FileNIFTI extends FileBase {
                         		short[] shortBuff2 = new short[3];
                         		shortBuff2[0] = 1;
                         		
-                        		if(start < image.getDataSize()) {
+                        		if(start < image.getLongDataSize()) {
                         			for(int m=0,k=1;m<buffer.length;m=m+2,k++) {
                             			byte[] b = {buffer[m],buffer[m+1]};
                             			shortBuff2[k] = FileBase.bytesToShort(endianness, 0, b);
@@ -9408,7 +9421,7 @@ public class FileNIFTI extends FileBase {
                         		float[] floatBuff2 = new float[3];
                         		floatBuff2[0] = 1;
                         		
-                        		if(start < image.getDataSize()) {
+                        		if(start < image.getLongDataSize()) {
                         			for(int m=0,k=1;m<buffer.length;m=m+4,k++) {
                             			byte[] b = {buffer[m],buffer[m+1],buffer[m+2],buffer[m+3]};
                             			floatBuff2[k] = FileBase.bytesToFloat(endianness, 0, b);
@@ -9425,139 +9438,11 @@ public class FileNIFTI extends FileBase {
                     }
             	}else if(ext.equalsIgnoreCase("gz")) {
             	    fireProgressStateChanged("Reading gzip archive");
-
-                    int start = 0;
-                    boolean endianness = fileInfo.getEndianess();
-                    int type = image.getType();
-                    while (true) {
-                        try {
-                            bytesRead = gzin.read(buffer);
-                            if(bytesRead == -1) {
-                           	 break;
-                            }
-                            if(image.getType() == ModelStorageBase.ARGB) {
-                            	if(bytesRead != 255) {
-                                 	 buffer = getFullBuffer(gzin,buffer,bytesRead,255); 
-                                  }
-                        	}else if(image.getType() == ModelStorageBase.ARGB_USHORT) {
-                        		if(bytesRead != 4) {
-                                 	 buffer = getFullBuffer(gzin,buffer,bytesRead,4); 
-                                  }
-                        	}else if(image.getType() == ModelStorageBase.ARGB_FLOAT) {
-                        		if(bytesRead != 8) {
-                                 	 buffer = getFullBuffer(gzin,buffer,bytesRead,8); 
-                                 }
-                        	}else {
-                        		if(bytesRead != 256) {
-                                 	 buffer = getFullBuffer(gzin,buffer,bytesRead,256); 
-                                 }
-                        	}
-                            
-                            bytesDecomp += bytesRead;
-                            if (bytesDecomp > bytesPerPercent) {
-                                fireProgressStateChanged(curProg);
-                                curProg++;
-                                bytesDecomp = 0;
-                            }
-
-                        	if(type == ModelStorageBase.BYTE || type == ModelStorageBase.UBYTE  || type == ModelStorageBase.BOOLEAN) {
-                        		if(start < image.getDataSize()) {
-                        			image.importData(start, buffer, false);
-                        		}
-                        		start = start + buffer.length;
-                        	}else if(type == ModelStorageBase.SHORT || type == ModelStorageBase.USHORT ) {
-                        		short[] shortBuff = new short[buffer.length/2];
-                        		for(int m=0,k=0;m<buffer.length;m=m+2,k++) {
-                        			byte[] b = {buffer[m],buffer[m+1]};
-                        			shortBuff[k] = FileBase.bytesToShort(endianness, 0, b);
-                        		}
-                        		if(start < image.getDataSize()) {
-                        			image.importData(start, shortBuff, false);
-                        		}
-                        		
-                        		start = start + shortBuff.length;
-                        	}else if(type == ModelStorageBase.INTEGER || type == ModelStorageBase.UINTEGER) {
-                        		int[] intBuff = new int[buffer.length/4];
-                        		for(int m=0,k=0;m<buffer.length;m=m+4,k++) {
-                        			byte[] b = {buffer[m],buffer[m+1],buffer[m+2],buffer[m+3]};
-                        			intBuff[k] = FileBase.bytesToInt(endianness, 0, b);
-                        		}
-                        		if(start < image.getDataSize()) {
-                        			image.importData(start, intBuff, false);
-                        		}
-                        		start = start + intBuff.length;
-                        	}else if(type == ModelStorageBase.FLOAT) {
-                        		float[] floatBuff = new float[buffer.length/4];
-                        		for(int m=0,k=0;m<buffer.length;m=m+4,k++) {
-                        			byte[] b = {buffer[m],buffer[m+1],buffer[m+2],buffer[m+3]};
-                        			floatBuff[k] = FileBase.bytesToFloat(endianness, 0, b);
-                        		}
-                        		if(start < image.getDataSize()) {
-                        			image.importData(start, floatBuff, false);
-                        		}
-                        		start = start + floatBuff.length;                             
-                        		                              
-                        	}else if(type == ModelStorageBase.DOUBLE) {
-                        		double[] doubleBuff = new double[buffer.length/8];
-                        		for(int m=0,k=0;m<buffer.length;m=m+8,k++) {
-                        			byte[] b = {buffer[m],buffer[m+1],buffer[m+2],buffer[m+3],buffer[m+4],buffer[m+5],buffer[m+6],buffer[m+7]};
-                        			doubleBuff[k] = FileBase.bytesToDouble(endianness, 0, b);
-                        		}
-                        		if(start < image.getDataSize()) {
-                        			image.importData(start, doubleBuff, false);
-                        		}
-                        		start = start + doubleBuff.length;                             
-                        		                              
-                        	}else if(type == ModelStorageBase.ARGB) {
-                        		byte[] buff2 = new byte[buffer.length + buffer.length/3];
-                        		if(start < image.getDataSize()) {
-                        			int counter = 0;
-                        			for(int m=0;m<buffer.length;m=m+3) {
-                            			buff2[counter] = 1;
-                            			buff2[counter+1] = buffer[m];
-                            			buff2[counter+2] = buffer[m+1];
-                            			buff2[counter+3] = buffer[m+2];
-                            			counter = counter+4;
-                        			}
-                        			image.importData(start, buff2, false);
-                        		}
-                        		start = start + buff2.length;
-                        	}else if(type == ModelStorageBase.ARGB_USHORT) {
-                        		//short[] shortBuff = new short[buffer.length/2];
-                        		short[] shortBuff2 = new short[3];
-                        		shortBuff2[0] = 1;
-                        		
-                        		if(start < image.getDataSize()) {
-                        			for(int m=0,k=1;m<buffer.length;m=m+2,k++) {
-                            			byte[] b = {buffer[m],buffer[m+1]};
-                            			shortBuff2[k] = FileBase.bytesToShort(endianness, 0, b);
-                            		}
-                        			image.importData(start, shortBuff2, false);
-                        		}
-                        		start = start + shortBuff2.length;
-                        	}else if(type == ModelStorageBase.ARGB_FLOAT) {
-                        		//float[] floatBuff = new float[buffer.length/4];
-                        		float[] floatBuff2 = new float[3];
-                        		floatBuff2[0] = 1;
-                        		
-                        		if(start < image.getDataSize()) {
-                        			for(int m=0,k=1;m<buffer.length;m=m+4,k++) {
-                            			byte[] b = {buffer[m],buffer[m+1],buffer[m+2],buffer[m+3]};
-                            			floatBuff2[k] = FileBase.bytesToFloat(endianness, 0, b);
-                            		}
-                        			image.importData(start, floatBuff2, false);
-                        		}
-                        		start = start + floatBuff2.length;
-                        	}
-                        } catch (IOException e) {
-                            Preferences.debug("IOException on gzin.read(buffer) for " + fileName, Preferences.DEBUG_FILEIO);
-                            throw e;
-                        } 
-                    }
+            	    readCompressedData(gzin, image, fileInfo.getEndianess(), curProg, totalProg);
             	}else if(ext.equalsIgnoreCase("bz2")) {
             		
             		
-                    int start = 0;
+                    long start = 0;
                     boolean endianness = fileInfo.getEndianess();
                     int type = image.getType();
                     while (true) {
@@ -9594,7 +9479,7 @@ public class FileNIFTI extends FileBase {
 
 
                         	if(type == ModelStorageBase.BYTE || type == ModelStorageBase.UBYTE  || type == ModelStorageBase.BOOLEAN) {
-                        		if(start < image.getDataSize()) {
+                        		if(start < image.getLongDataSize()) {
                         			image.importData(start, buffer, false);
                         		}
                         		start = start + buffer.length;
@@ -9604,7 +9489,7 @@ public class FileNIFTI extends FileBase {
                         			byte[] b = {buffer[m],buffer[m+1]};
                         			shortBuff[k] = FileBase.bytesToShort(endianness, 0, b);
                         		}
-                        		if(start < image.getDataSize()) {
+                        		if(start < image.getLongDataSize()) {
                         			image.importData(start, shortBuff, false);
                         		}
                         		start = start + shortBuff.length;
@@ -9614,7 +9499,7 @@ public class FileNIFTI extends FileBase {
                         			byte[] b = {buffer[m],buffer[m+1],buffer[m+2],buffer[m+3]};
                         			intBuff[k] = FileBase.bytesToInt(endianness, 0, b);
                         		}
-                        		if(start < image.getDataSize()) {
+                        		if(start < image.getLongDataSize()) {
                         			image.importData(start, intBuff, false);
                         		}
                         		start = start + intBuff.length;
@@ -9624,7 +9509,7 @@ public class FileNIFTI extends FileBase {
                         			byte[] b = {buffer[m],buffer[m+1],buffer[m+2],buffer[m+3]};
                         			floatBuff[k] = FileBase.bytesToFloat(endianness, 0, b);
                         		}
-                        		if(start < image.getDataSize()) {
+                        		if(start < image.getLongDataSize()) {
                         			image.importData(start, floatBuff, false);
                         		}
                         		start = start + floatBuff.length;                             
@@ -9635,14 +9520,14 @@ public class FileNIFTI extends FileBase {
                         			byte[] b = {buffer[m],buffer[m+1],buffer[m+2],buffer[m+3],buffer[m+4],buffer[m+5],buffer[m+6],buffer[m+7]};
                         			doubleBuff[k] = FileBase.bytesToDouble(endianness, 0, b);
                         		}
-                        		if(start < image.getDataSize()) {
+                        		if(start < image.getLongDataSize()) {
                         			image.importData(start, doubleBuff, false);
                         		}
                         		start = start + doubleBuff.length;                             
                         		                              
                         	}else if(type == ModelStorageBase.ARGB) {
                         		byte[] buff2 = new byte[buffer.length + buffer.length/3];
-                        		if(start < image.getDataSize()) {
+                        		if(start < image.getLongDataSize()) {
                         			int counter = 0;
                         			for(int m=0;m<buffer.length;m=m+3) {
                             			buff2[counter] = 1;
@@ -9659,7 +9544,7 @@ public class FileNIFTI extends FileBase {
                         		short[] shortBuff2 = new short[3];
                         		shortBuff2[0] = 1;
                         		
-                        		if(start < image.getDataSize()) {
+                        		if(start < image.getLongDataSize()) {
                         			for(int m=0,k=1;m<buffer.length;m=m+2,k++) {
                             			byte[] b = {buffer[m],buffer[m+1]};
                             			shortBuff2[k] = FileBase.bytesToShort(endianness, 0, b);
@@ -9672,7 +9557,7 @@ public class FileNIFTI extends FileBase {
                         		float[] floatBuff2 = new float[3];
                         		floatBuff2[0] = 1;
                         		
-                        		if(start < image.getDataSize()) {
+                        		if(start < image.getLongDataSize()) {
                         			for(int m=0,k=1;m<buffer.length;m=m+4,k++) {
                             			byte[] b = {buffer[m],buffer[m+1],buffer[m+2],buffer[m+3]};
                             			floatBuff2[k] = FileBase.bytesToFloat(endianness, 0, b);
@@ -9694,7 +9579,14 @@ public class FileNIFTI extends FileBase {
                     rawFile.setNumChannels(3);
                 }
                 linkProgress(rawFile);
-                rawFile.readImage(image, offset);
+                if (mapData && rawFile.canMapImage(image.getType())) {
+                    rawFile.mapImage(image, offset);
+                } else {
+                    if (mapData) {
+                        image.reallocate(image.getType());
+                    }
+                    rawFile.readImage(image, offset);
+                }
             }
             
             //close the compressed streams if open
@@ -9809,6 +9701,211 @@ public class FileNIFTI extends FileBase {
     }
     
     
+    /**
+     * Reads the voxels of a compressed file slice by slice, converting each slice straight into the image buffer. Only
+     * one slice of the file is held at a time, and the stream is read in slice sized requests so that a BGZF stream can
+     * keep the pool busy inflating the following blocks.
+     *
+     * @param   in          stream positioned at the first voxel
+     * @param   image       image to fill
+     * @param   endianness  byte order of the file
+     * @param   startProg   progress value at the start of the data
+     * @param   totalProg   progress range covered by the data
+     *
+     * @throws  IOException  if the stream cannot be read
+     */
+    private void readCompressedData(InputStream in, ModelImage image, boolean endianness, int startProg, int totalProg)
+            throws IOException {
+        final int type = image.getType();
+        final int sliceSize = image.getSliceSize();
+        final int bytesPerVoxel;
+
+        switch (type) {
+
+            case ModelStorageBase.BOOLEAN:
+            case ModelStorageBase.BYTE:
+            case ModelStorageBase.UBYTE:
+                bytesPerVoxel = 1;
+                break;
+
+            case ModelStorageBase.SHORT:
+            case ModelStorageBase.USHORT:
+                bytesPerVoxel = 2;
+                break;
+
+            case ModelStorageBase.INTEGER:
+            case ModelStorageBase.UINTEGER:
+            case ModelStorageBase.FLOAT:
+                bytesPerVoxel = 4;
+                break;
+
+            case ModelStorageBase.LONG:
+            case ModelStorageBase.DOUBLE:
+                bytesPerVoxel = 8;
+                break;
+
+            case ModelStorageBase.ARGB:
+                bytesPerVoxel = 3;
+                break;
+
+            case ModelStorageBase.ARGB_USHORT:
+                bytesPerVoxel = 6;
+                break;
+
+            case ModelStorageBase.ARGB_FLOAT:
+                bytesPerVoxel = 12;
+                break;
+
+            default:
+                Preferences.debug("Compressed NIFTI data of type " + ModelStorageBase.getBufferTypeStr(type) +
+                        " is not read\n", Preferences.DEBUG_FILEIO);
+                return;
+        }
+
+        final int sliceLength = image.isColorImage() ? (4 * sliceSize) : sliceSize;
+        final int nSlices = (int) (image.getLongDataSize() / sliceLength);
+        final byte[] sliceBytes = new byte[sliceSize * bytesPerVoxel];
+        final ByteBuffer byteBuffer = ByteBuffer.wrap(sliceBytes);
+        byte[] byteBuff = null;
+        short[] shortBuff = null;
+        int[] intBuff = null;
+        long[] longBuff = null;
+        float[] floatBuff = null;
+        double[] doubleBuff = null;
+
+        byteBuffer.order(endianness ? ByteOrder.BIG_ENDIAN : ByteOrder.LITTLE_ENDIAN);
+
+        for (int slice = 0; slice < nSlices; slice++) {
+            int bytesRead = 0;
+
+            while (bytesRead < sliceBytes.length) {
+                final int n = in.read(sliceBytes, bytesRead, sliceBytes.length - bytesRead);
+
+                if (n < 0) {
+                    break;
+                }
+
+                bytesRead += n;
+            }
+
+            if (bytesRead < sliceBytes.length) {
+                Arrays.fill(sliceBytes, bytesRead, sliceBytes.length, (byte) 0);
+            }
+
+            final long start = (long) slice * sliceLength;
+
+            switch (type) {
+
+                case ModelStorageBase.BOOLEAN:
+                case ModelStorageBase.BYTE:
+                case ModelStorageBase.UBYTE:
+                    image.importData(start, sliceBytes, false);
+                    break;
+
+                case ModelStorageBase.SHORT:
+                case ModelStorageBase.USHORT:
+                    if (shortBuff == null) {
+                        shortBuff = new short[sliceSize];
+                    }
+
+                    byteBuffer.asShortBuffer().get(shortBuff);
+                    image.importData(start, shortBuff, false);
+                    break;
+
+                case ModelStorageBase.INTEGER:
+                case ModelStorageBase.UINTEGER:
+                    if (intBuff == null) {
+                        intBuff = new int[sliceSize];
+                    }
+
+                    byteBuffer.asIntBuffer().get(intBuff);
+                    image.importData(start, intBuff, false);
+                    break;
+
+                case ModelStorageBase.LONG:
+                    if (longBuff == null) {
+                        longBuff = new long[sliceSize];
+                    }
+
+                    byteBuffer.asLongBuffer().get(longBuff);
+                    image.importData(start, longBuff, false);
+                    break;
+
+                case ModelStorageBase.FLOAT:
+                    if (floatBuff == null) {
+                        floatBuff = new float[sliceSize];
+                    }
+
+                    byteBuffer.asFloatBuffer().get(floatBuff);
+                    image.importData(start, floatBuff, false);
+                    break;
+
+                case ModelStorageBase.DOUBLE:
+                    if (doubleBuff == null) {
+                        doubleBuff = new double[sliceSize];
+                    }
+
+                    byteBuffer.asDoubleBuffer().get(doubleBuff);
+                    image.importData(start, doubleBuff, false);
+                    break;
+
+                case ModelStorageBase.ARGB:
+                    if (byteBuff == null) {
+                        byteBuff = new byte[sliceLength];
+                    }
+
+                    // RGB24 is stored interleaved; the alpha channel is set to 1 as before
+                    for (int m = 0, k = 0; m < sliceBytes.length; m = m + 3, k = k + 4) {
+                        byteBuff[k] = 1;
+                        byteBuff[k + 1] = sliceBytes[m];
+                        byteBuff[k + 2] = sliceBytes[m + 1];
+                        byteBuff[k + 3] = sliceBytes[m + 2];
+                    }
+
+                    image.importData(start, byteBuff, false);
+                    break;
+
+                case ModelStorageBase.ARGB_USHORT:
+                    if (shortBuff == null) {
+                        shortBuff = new short[sliceLength];
+                    }
+
+                    for (int m = 0, k = 0; m < sliceBytes.length; m = m + 6, k = k + 4) {
+                        shortBuff[k] = 1;
+                        shortBuff[k + 1] = byteBuffer.getShort(m);
+                        shortBuff[k + 2] = byteBuffer.getShort(m + 2);
+                        shortBuff[k + 3] = byteBuffer.getShort(m + 4);
+                    }
+
+                    image.importData(start, shortBuff, false);
+                    break;
+
+                case ModelStorageBase.ARGB_FLOAT:
+                    if (floatBuff == null) {
+                        floatBuff = new float[sliceLength];
+                    }
+
+                    for (int m = 0, k = 0; m < sliceBytes.length; m = m + 12, k = k + 4) {
+                        floatBuff[k] = 1;
+                        floatBuff[k + 1] = byteBuffer.getFloat(m);
+                        floatBuff[k + 2] = byteBuffer.getFloat(m + 4);
+                        floatBuff[k + 3] = byteBuffer.getFloat(m + 8);
+                    }
+
+                    image.importData(start, floatBuff, false);
+                    break;
+            }
+
+            fireProgressStateChanged(startProg + (int) (((long) (slice + 1) * totalProg) / nSlices));
+
+            if (bytesRead < sliceBytes.length) {
+                Preferences.debug("Compressed NIFTI data ends at slice " + slice + " of " + nSlices + "\n",
+                        Preferences.DEBUG_FILEIO);
+                break;
+            }
+        }
+    }
+
     /**
      * 
      * @param in
@@ -10885,6 +10982,7 @@ public class FileNIFTI extends FileBase {
         }
 
         fileHeader = new File(fileDir + fileHeaderName);
+        unmapBeforeWrite(image, fileHeader);
         if(!doGzip) {
         	raFile = new RandomAccessFile(fileHeader, "rw");
         }
@@ -244,6 +244,50 @@ public class FileRaw extends FileBase {
             return dataFileName;
     }
 
+    /**
+     * Returns whether an image read by this class can be memory mapped with mapImage() instead of being read.
+     *
+     * @param   dataType  the image data type
+     *
+     * @return  true when the file is uncompressed and writable, so that it can be privately mapped, and the voxel
+     *          layout of the type matches the image buffer
+     */
+    public boolean canMapImage(int dataType) {
+        return (compressionType == FileInfoBase.COMPRESSION_NONE) && (file != null) && file.canWrite()
+                   && ModelStorageBase.isMappable(ModelStorageBase.DataType.getDataType(dataType));
+    }
+
+    /**
+     * This method memory maps a raw image file (1D - 5D) into an image that was created without allocating its data.
+     * No voxels are copied: the image serves them straight from the file, paging them in as they are touched. The
+     * mapping stays valid after the file is closed and is private, so changes to the image are never written back.
+     *
+     * @param      image   Image model, created without allocating its data, that will hold the mapping.
+     * @param      offset  Points to where the data of the image is located. It is equal to the header length.
+     *
+     * @exception  IOException  if there is an error mapping the file
+     *
+     * @see        ModelStorageBase#mapData(File, java.nio.channels.FileChannel, long, boolean)
+     */
+    public void mapImage(ModelImage image, long offset) throws IOException {
+        fireProgressStateChanged(0);
+
+        fileInfo.setExtents(image.getExtents().clone());
+        fileInfo.setDataType(image.getType());
+
+        // a private mapping needs a channel opened for writing, even though nothing is written to the file
+        RandomAccessFile mapFile = new RandomAccessFile(file, "rw");
+
+        try {
+            image.mapData(file, mapFile.getChannel(), offset, fileInfo.getEndianess());
+        } finally {
+            mapFile.close();
+            raFile.close();
+        }
+
+        fireProgressStateChanged(100);
+    }
+
     /**
      * This method reads a raw image file (1D - 5D).
      *
@@ -335,7 +379,7 @@ public class FileRaw extends FileBase {
                     try {
                         fileRW.readImage(ModelStorageBase.BYTE, (((long)k) * bufferSize) + offset, bufferSize);
 
-                        image.importData(k * bufferSize, fileRW.getByteBuffer(), false);
+                        image.importData(((long) k) * bufferSize, fileRW.getByteBuffer(), false);
                     } catch (IOException error) {
                         throw error;
                     }
@@ -346,7 +390,7 @@ public class FileRaw extends FileBase {
                     try {
                         fileRW.readImage(ModelStorageBase.UBYTE, (((long)k) * bufferSize) + offset, bufferSize);
 
-                        image.importUData(k * bufferSize, fileRW.getShortBuffer(), false);
+                        image.importUData(((long) k) * bufferSize, fileRW.getShortBuffer(), false);
                     } catch (IOException error) {
                         throw error;
                     }
@@ -357,7 +401,7 @@ public class FileRaw extends FileBase {
                     try {
                         fileRW.readImage(ModelStorageBase.SHORT, (((long)k) * bufferSize * 2) + offset, bufferSize);
 
-                        image.importData(k * bufferSize, fileRW.getShortBuffer(), false);
+                        image.importData(((long) k) * bufferSize, fileRW.getShortBuffer(), false);
                     } catch (IOException error) {
                         throw error;
                     }
@@ -368,7 +412,7 @@ public class FileRaw extends FileBase {
                     try {
                         fileRW.readImage(ModelStorageBase.USHORT, (((long)k) * bufferSize * 2) + offset, bufferSize);
 
-                        image.importUData(k * bufferSize, fileRW.getShortBuffer(), false);
+                        image.importUData(((long) k) * bufferSize, fileRW.getShortBuffer(), false);
                     } catch (IOException error) {
                         throw error;
                     }
@@ -379,7 +423,7 @@ public class FileRaw extends FileBase {
                     try {
                         fileRW.readImage(ModelStorageBase.INTEGER, (((long)k) * bufferSize * 4) + offset, bufferSize);
 
-                        image.importData(k * bufferSize, fileRW.getIntBuffer(), false);
+                        image.importData(((long) k) * bufferSize, fileRW.getIntBuffer(), false);
                     } catch (IOException error) {
                         throw error;
                     }
@@ -390,7 +434,7 @@ public class FileRaw extends FileBase {
                     try {
                         fileRW.readImage(ModelStorageBase.UINTEGER, (((long)k) * bufferSize * 4) + offset, bufferSize);
 
-                        image.importData(k * bufferSize, fileRW.getIntBuffer(), false);
+                        image.importData(((long) k) * bufferSize, fileRW.getIntBuffer(), false);
                     } catch (IOException error) {
                         throw error;
                     }
@@ -401,7 +445,7 @@ public class FileRaw extends FileBase {
                     try {
                         fileRW.readImage(ModelStorageBase.LONG, (((long)k) * bufferSize * 8) + offset, bufferSize);
 
-                        image.importData(k * bufferSize, fileRW.getLongBuffer(), false);
+                        image.importData(((long) k) * bufferSize, fileRW.getLongBuffer(), false);
                     } catch (IOException error) {
                        throw error;
                     }
@@ -412,7 +456,7 @@ public class FileRaw extends FileBase {
                     try {
                         fileRW.readImage(ModelStorageBase.FLOAT, (((long)k) * bufferSize * 4) + offset, bufferSize);
 
-                        image.importData(k * bufferSize, fileRW.getFloatBuffer(), false);
+                        image.importData(((long) k) * bufferSize, fileRW.getFloatBuffer(), false);
                     } catch (IOException error) {
                        throw error;
                     }
@@ -423,7 +467,7 @@ public class FileRaw extends FileBase {
                     try {
                         fileRW.readImage(ModelStorageBase.DOUBLE, (((long)k) * bufferSize * 8) + offset, bufferSize);
 
-                        image.importData(k * bufferSize, fileRW.getDoubleBuffer(), false);
+                        image.importData(((long) k) * bufferSize, fileRW.getDoubleBuffer(), false);
                     } catch (IOException error) {
                         throw error;
                     }
@@ -531,7 +575,7 @@ public class FileRaw extends FileBase {
                             } // else RGBAOrder
                         } // numChannels == 4
 
-                        image.importData(k * buffer.length, buffer, false);
+                        image.importData(((long) k) * buffer.length, buffer, false);
                     } catch (IOException error) {
                         throw error;
                     }
@@ -641,7 +685,7 @@ public class FileRaw extends FileBase {
                           } // else RGBAOrder
                         } // else numChannels == 4
 
-                        image.importUData(k * shortBuffer.length, shortBuffer, false);
+                        image.importUData(((long) k) * shortBuffer.length, shortBuffer, false);
                     } catch (IOException error) {
                         throw error;
                     }
@@ -751,7 +795,7 @@ public class FileRaw extends FileBase {
                           } // else RGBAOrder
                         } // else numChannels == 4
 
-                        image.importData(k * floatBuffer.length, floatBuffer, false);
+                        image.importData(((long) k) * floatBuffer.length, floatBuffer, false);
                     } catch (IOException error) {
                         throw error;
                     }
@@ -771,7 +815,7 @@ public class FileRaw extends FileBase {
                             imagBuffer[i] = tmpBuffer[ii + 1];
                         }
 
-                        image.importComplexData(2 * k * bufferSize, realBuffer, imagBuffer, false, Preferences.is(Preferences.PREF_LOGMAG_DISPLAY));
+                        image.importComplexData(2L * k * bufferSize, realBuffer, imagBuffer, false, Preferences.is(Preferences.PREF_LOGMAG_DISPLAY));
                     } catch (IOException error) {
                         throw error;
                     }
@@ -791,7 +835,7 @@ public class FileRaw extends FileBase {
                             imagBuffer[i] = tmpBuffer[ii + 1];
                         }
 
-                        image.importDComplexData(2 * k * bufferSize, realBuffer, imagBuffer, false, Preferences.is(Preferences.PREF_LOGMAG_DISPLAY));
+                        image.importDComplexData(2L * k * bufferSize, realBuffer, imagBuffer, false, Preferences.is(Preferences.PREF_LOGMAG_DISPLAY));
                     } catch (IOException error) {
                         throw error;
                     }
@@ -904,7 +948,7 @@ public class FileRaw extends FileBase {
                                 }
                             }
 
-                            image.importData(k * bufferSize, floatBuffer, false);
+                            image.importData(((long) k) * bufferSize, floatBuffer, false);
                         } catch (IOException error) {
                             throw error;
                         }
@@ -919,7 +963,7 @@ public class FileRaw extends FileBase {
                                 floatBuffer[i] = scaleFactor[k] * buf[i] + offsetAdjustment[k];
                             }
 
-                            image.importData(k * bufferSize, floatBuffer, false);
+                            image.importData(((long) k) * bufferSize, floatBuffer, false);
                         } catch (IOException error) {
                             throw error;
                         }
@@ -934,7 +978,7 @@ public class FileRaw extends FileBase {
                                 floatBuffer[i] = scaleFactor[k] * buf[i] + offsetAdjustment[k];
                             }
 
-                            image.importData(k * bufferSize, floatBuffer, false);
+                            image.importData(((long) k) * bufferSize, floatBuffer, false);
                         } catch (IOException error) {
                             throw error;
                         }
@@ -949,7 +993,7 @@ public class FileRaw extends FileBase {
                                 floatBuffer[i] = scaleFactor[k] * buf[i] + offsetAdjustment[k];
                             }
 
-                            image.importData(k * bufferSize, floatBuffer, false);
+                            image.importData(((long) k) * bufferSize, floatBuffer, false);
                         } catch (IOException error) {
                             throw error;
                         }
@@ -964,7 +1008,7 @@ public class FileRaw extends FileBase {
                                 floatBuffer[i] = scaleFactor[k] * (buf[i] & 0xffff) + offsetAdjustment[k];
                             }
 
-                            image.importData(k * bufferSize, floatBuffer, false);
+                            image.importData(((long) k) * bufferSize, floatBuffer, false);
                         } catch (IOException error) {
                             throw error;
                         }
@@ -979,7 +1023,7 @@ public class FileRaw extends FileBase {
                                 floatBuffer[i] = scaleFactor[k] * buf[i] + offsetAdjustment[k];
                             }
 
-                            image.importData(k * bufferSize, floatBuffer, false);
+                            image.importData(((long) k) * bufferSize, floatBuffer, false);
                         } catch (IOException error) {
                             throw error;
                         }
@@ -994,7 +1038,7 @@ public class FileRaw extends FileBase {
                                 floatBuffer[i] = scaleFactor[k] * (buf[i] & 0xFFFFFFFFL) + offsetAdjustment[k];
                             }
 
-                            image.importData(k * bufferSize, floatBuffer, false);
+                            image.importData(((long) k) * bufferSize, floatBuffer, false);
                         } catch (IOException error) {
                             throw error;
                         }
@@ -1009,7 +1053,7 @@ public class FileRaw extends FileBase {
                                 floatBuffer[i] = scaleFactor[k] * buf[i] + offsetAdjustment[k];
                             }
 
-                            image.importData(k * bufferSize, floatBuffer, false);
+                            image.importData(((long) k) * bufferSize, floatBuffer, false);
                         } catch (IOException error) {
                            throw error;
                         }
@@ -1024,7 +1068,7 @@ public class FileRaw extends FileBase {
                                 buf[i] = scaleFactor[k] * buf[i] + offsetAdjustment[k];
                             }
 
-                            image.importData(k * bufferSize, buf, false);
+                            image.importData(((long) k) * bufferSize, buf, false);
                         } catch (IOException error) {
                            throw error;
                         }
@@ -1039,7 +1083,7 @@ public class FileRaw extends FileBase {
                                 floatBuffer[i] = (float)(scaleFactor[k] * buf[i] + offsetAdjustment[k]);
                             }
 
-                            image.importData(k * bufferSize, floatBuffer, false);
+                            image.importData(((long) k) * bufferSize, floatBuffer, false);
                         } catch (IOException error) {
                             throw error;
                         }
@@ -1154,7 +1198,7 @@ public class FileRaw extends FileBase {
                                 } // else RGBAOrder
                             } // numChannels == 4
 
-                            image.importData(k * floatBuffer.length, floatBuffer, false);
+                            image.importData(((long) k) * floatBuffer.length, floatBuffer, false);
                         } catch (IOException error) {
                             throw error;
                         }
@@ -1271,7 +1315,7 @@ public class FileRaw extends FileBase {
                               } // else RGBAOrder
                             } // else numChannels == 4
 
-                            image.importData(k * floatBuffer.length, floatBuffer, false);
+                            image.importData(((long) k) * floatBuffer.length, floatBuffer, false);
                         } catch (IOException error) {
                             throw error;
                         }
@@ -1388,7 +1432,7 @@ public class FileRaw extends FileBase {
                               } // else RGBAOrder
                             } // else numChannels == 4
 
-                            image.importData(k * floatBuffer.length, floatBuffer, false);
+                            image.importData(((long) k) * floatBuffer.length, floatBuffer, false);
                         } catch (IOException error) {
                             throw error;
                         }
@@ -2787,6 +2831,8 @@ public class FileRaw extends FileBase {
             nImages = endSlice - beginSlice + 1; // nImages to be written
             nTimePeriods = endTimePeriod - beginTimePeriod + 1;
 
+            unmapBeforeWrite(image, file);
+
             if (compressionType == FileInfoBase.COMPRESSION_NONE) {
             	if(zeroLengthFlag) {
             		raFile.setLength(0);
@@ -2887,6 +2933,8 @@ public class FileRaw extends FileBase {
             nImages = endSlice - beginSlice + 1; // nImages to be written
             nTimePeriods = endTimePeriod - beginTimePeriod + 1;
 
+            unmapBeforeWrite(image, file);
+
             if (compressionType == FileInfoBase.COMPRESSION_NONE) {
                 if(zeroLengthFlag) {
                     raFile.setLength(0);
@@ -3017,6 +3065,7 @@ public class FileRaw extends FileBase {
             if (compressionType == FileInfoBase.COMPRESSION_NONE) {
                 file = new File(fileDir + fileString);
                 dataFileName[k - beginSlice] = fileString;
+                unmapBeforeWrite(image, file);
                 raFile = new RandomAccessFile(file, "rw");
                 if(zeroLengthFlag) {
             		raFile.setLength(0);
@@ -3125,6 +3174,7 @@ public class FileRaw extends FileBase {
             if (compressionType == FileInfoBase.COMPRESSION_NONE) {
                 file = new File(fileDir + fileString);
                 dataFileName[k - beginSlice] = fileString;
+                unmapBeforeWrite(image, file);
                 raFile = new RandomAccessFile(file, "rw");
                 if(zeroLengthFlag) {
             		raFile.setLength(0);
@@ -3240,6 +3290,7 @@ public class FileRaw extends FileBase {
             if (compressionType == FileInfoBase.COMPRESSION_NONE) {
                 file = new File(fileDir + fileString);
                 dataFileName[t - beginTimePeriod] = fileString;
+                unmapBeforeWrite(image, file);
                 raFile = new RandomAccessFile(file, "rw");
                 if(zeroLengthFlag) {
             		raFile.setLength(0);
@@ -3362,6 +3413,7 @@ public class FileRaw extends FileBase {
             if (compressionType == FileInfoBase.COMPRESSION_NONE) {
                 file = new File(fileDir + fileString);
                 dataFileName[t - beginTimePeriod] = fileString;
+                unmapBeforeWrite(image, file);
                 raFile = new RandomAccessFile(file, "rw");
                 if(zeroLengthFlag) {
             		raFile.setLength(0);
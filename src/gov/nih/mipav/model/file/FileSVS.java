@@ -89,6 +89,9 @@ public class FileSVS extends FileBase {
     // ~ Static fields/initializers
     // -------------------------------------------------------------------------------------
 
+    /** Largest number of pixels of a color image that fit in one image buffer. */
+    private static final long MAX_BUFFER_PIXELS = (Integer.MAX_VALUE - 8) / 4;
+
     /** Tiff Types. */
     public enum Type {
         /** 8 bit unsigned */
@@ -1140,6 +1143,92 @@ public class FileSVS extends FileBase {
         return LUT;
     }
 
+    /**
+     * Opens the Aperio slide for reading regions of any level of its pyramid. The levels are the tiled directories
+     * that follow the full resolution image, and the thumbnail, label and macro images are left out. readImage also
+     * uses this to read the largest level that fits in one image buffer when the full slide does not.
+     * 
+     * @return a reader of regions of the slide
+     * 
+     * @throws IOException if the full resolution image cannot be decoded in tiles, as for JPEG 2000 compressed slides
+     */
+    public TiledRegionReader openRegionReader() throws IOException {
+        return new TiledRegionReader(new TiffTileSource(new File(fileDir + fileName)));
+    }
+
+    /**
+     * Reads the largest level of the resolution pyramid that fits in one image buffer, tile by tile, as an ARGB image.
+     * The resolutions are those of the full resolution image times the reduction of the level.
+     * 
+     * @return the image
+     * 
+     * @throws IOException if no level fits or the tiles cannot be read
+     */
+    private ModelImage readReducedImage() throws IOException {
+        final TiledRegionReader reader = openRegionReader();
+
+        try {
+            int level = 0;
+
+            while ( (level < (reader.getLevelCount() - 1))
+                    && ( ((long) reader.getLevelWidth(level) * reader.getLevelHeight(level)) > FileSVS.MAX_BUFFER_PIXELS)) {
+                level++;
+            }
+
+            final int width = reader.getLevelWidth(level);
+            final int height = reader.getLevelHeight(level);
+
+            if ( ((long) width * height) > FileSVS.MAX_BUFFER_PIXELS) {
+                throw new IOException("No pyramid level of " + fileName + " fits in one image buffer");
+            }
+
+            Preferences.debug("FileSVS: reading pyramid level " + level + " of " + width + " by " + height
+                    + " pixels\n", Preferences.DEBUG_FILEIO);
+
+            final float downsample = (float) reader.getDownsample(level);
+            final float[] resolutions = imgResols.clone();
+            final int[] extents = new int[] {width, height};
+
+            resolutions[0] *= downsample;
+            resolutions[1] *= downsample;
+            fileInfo.setDataType(ModelStorageBase.ARGB);
+            fileInfo.setExtents(extents);
+            fileInfo.setResolutions(resolutions);
+            image = new ModelImage(ModelStorageBase.ARGB, extents, fileInfo.getFileName());
+            image.setFileInfo(fileInfo, 0);
+
+            final int bandRows = Math.max(1, Math.min(height, (1 << 22) / width));
+            final int[] band = new int[width * bandRows];
+            byte[] bytes = new byte[4 * band.length];
+
+            for (int y = 0; y < height; y += bandRows) {
+                final int rows = Math.min(bandRows, height - y);
+
+                reader.readRegion(level, 0, y, width, rows, band);
+
+                if (rows < bandRows) {
+                    bytes = new byte[4 * width * rows];
+                }
+
+                for (int i = 0, j = 0; j < bytes.length; i++, j += 4) {
+                    bytes[j] = (byte) (band[i] >>> 24);
+                    bytes[j + 1] = (byte) (band[i] >>> 16);
+                    bytes[j + 2] = (byte) (band[i] >>> 8);
+                    bytes[j + 3] = (byte) band[i];
+                }
+
+                image.importData(4 * width * y, bytes, false);
+                fireProgressStateChanged(Math.round(100.0f * (y + rows) / height));
+            }
+
+            image.calcMinMax();
+
+            return image;
+        } finally {
+            reader.close();
+        }
+    }
+
     /**
      * Reads the Tiff header which indicates endianess, the TIFF magic number, and the offset in bytes of the first IFD.
      * It then reads all the IFDs. This method then opens a Model of an image and imports the the images one slice at a
@@ -1212,6 +1301,14 @@ public class FileSVS extends FileBase {
 
             Preferences.debug("Just past init IFD read", Preferences.DEBUG_FILEIO);
 
+            if ( !foundTag43314 && ( ((long) xDim * yDim) > FileSVS.MAX_BUFFER_PIXELS)) {
+
+                // too large for one image buffer, so the largest pyramid level that fits is read instead
+                raFile.close();
+
+                return readReducedImage();
+            }
+
             if (haveTileWidth && ( !lzwCompression) && ( !zlibCompression) && ( !fax3Compression)
                     && ( !fax4Compression) && ( !modHuffmanCompression) && ( !jpegCompression) && (!jpeg2000Compression)
                     && ( !ThunderScanCompression) && ( !SGILogCompression) && ( !SGILog24Compression) && ( !packBit)
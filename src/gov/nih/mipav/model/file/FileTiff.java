@@ -17,6 +17,7 @@ import gov.nih.mipav.model.structures.VOILine;
 import gov.nih.mipav.model.structures.VOIProtractor;
 import gov.nih.mipav.model.structures.VOIText;
 import gov.nih.mipav.model.structures.VOIVector;
+import gov.nih.mipav.util.ThreadUtil;
 
 import gov.nih.mipav.view.MipavUtil;
 import gov.nih.mipav.view.Preferences;
@@ -38,6 +39,7 @@ import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
 import java.util.BitSet;
 import java.util.Vector;
 import java.util.zip.DataFormatException;
@@ -116,7 +118,13 @@ public class FileTiff extends FileBase {
         /** double precision 8 byte IEEE format */
         DOUBLE(12),
         /** The IFD type is identical to LONG, except that it is only used to point to other valid IFDs */
-        IFD(13);
+        IFD(13),
+        /** BigTIFF 64 bit unsigned */
+        LONG8(16),
+        /** BigTIFF 64 bit signed */
+        SLONG8(17),
+        /** BigTIFF 64 bit offset of another IFD */
+        IFD8(18);
 
         /** Number of type as specified by TIFF 6 format */
         private int v6Num;
@@ -553,7 +561,10 @@ public class FileTiff extends FileBase {
     private byte[] pageName;
 
     /** DOCUMENT ME! */
-    private int[] IFDoffsets = new int[8192];
+    private long[] IFDoffsets = new long[8192];
+
+    /** Byte order and offset size of the file read, which set the size of the IFD fields. */
+    private TiffHeader tiffHeader;
 
     /** DOCUMENT ME! */
     private ModelImage image;
@@ -988,6 +999,28 @@ public class FileTiff extends FileBase {
     
     private boolean have3DColor = false;
 
+    /** Most float samples held by the slices decompressed ahead of the slice asked for. */
+    private static final int MAX_PARALLEL_SAMPLES = 1 << 24;
+
+    /** Decoders of the threads decompressing strips and tiles in parallel. */
+    private static final ThreadLocal<TiffTileDecoder> tileDecoders = new ThreadLocal<TiffTileDecoder>() {
+        protected TiffTileDecoder initialValue() {
+            return new TiffTileDecoder();
+        }
+    };
+
+    /** If true, compressed strips and tiles are decompressed on several threads at once where possible. */
+    private boolean parallelDecode = true;
+
+    /** Slices decompressed ahead by readParallelBuffer, or null. */
+    private float[][] parallelSlices = null;
+
+    /** First slice held by parallelSlices. */
+    private int parallelFirstSlice = 0;
+
+    /** Number of slices held by parallelSlices. */
+    private int parallelSliceCount = 0;
+
     // ~ Constructors
     // ---------------------------------------------------------------------------------------------------
 
@@ -1060,6 +1093,7 @@ public class FileTiff extends FileBase {
         tileByteCounts = null;
         tileOffsets = null;
         tileTemp = null;
+        parallelSlices = null;
         sliceBufferFloat = null;
         sliceBufferDouble = null;
         artist = null;
@@ -1130,6 +1164,17 @@ public class FileTiff extends FileBase {
         this.suppressProgressBar = suppressProgressBar;
     }
 
+    /**
+     * Sets whether LZW, zlib, PackBits and JPEG compressed strips and tiles are decompressed on several threads at
+     * once. This is the default; images stored in a way the parallel reader does not handle are always read one strip
+     * after the other.
+     * 
+     * @param parallelDecode false to decompress the strips one after the other
+     */
+    public void setParallelDecode(final boolean parallelDecode) {
+        this.parallelDecode = parallelDecode;
+    }
+
     /**
      * Accessor that returns the file info.
      * 
@@ -1157,6 +1202,20 @@ public class FileTiff extends FileBase {
         return LUT;
     }
 
+    /**
+     * Opens the TIFF or BigTIFF file for reading regions of its first image, decoding only the tiles or strips a
+     * region covers. The reduced levels of a pyramidal file, stored as further tiled directories or in the SubIFDs of
+     * an OME-TIFF, are read as the lower levels of the pyramid. A file in strips is read as a single level.
+     * 
+     * @return a reader of regions of the image
+     * 
+     * @throws IOException if the first image has a compression, sample size or planar layout that cannot be decoded in
+     *             tiles
+     */
+    public TiledRegionReader openRegionReader() throws IOException {
+        return new TiledRegionReader(new TiffTileSource(new File(fileDir + fileName)));
+    }
+
     /**
      * Reads the Tiff header which indicates endianess, the TIFF magic number, and the offset in bytes of the first IFD.
      * It then reads all the IFDs. This method then opens a Model of an image and imports the the images one slice at a
@@ -1180,31 +1239,24 @@ public class FileTiff extends FileBase {
         try {
             file = new File(fileDir + fileName);
             raFile = new RandomAccessFile(file, "r");
+            parallelSlices = null;
+            parallelSliceCount = 0;
 
             fileLength = raFile.length();
 
-            final short byteOrder = raFile.readShort();
-
-            if (byteOrder == 0x4949) {
-                endianess = FileBase.LITTLE_ENDIAN;
-            } else if (byteOrder == 0x4d4d) {
-                endianess = FileBase.BIG_ENDIAN;
-            } else {
+            try {
+                tiffHeader = TiffHeader.read(raFile);
+            } catch (final IOException error) {
                 raFile.close();
-                throw new IOException("TIFF Read Header: Error - first 2 bytes are an illegal " + byteOrder);
+                throw error;
             }
 
-            final int magicTIFFNumber = getUnsignedShort(endianess);
-
-            if (magicTIFFNumber != 42) {
-                raFile.close();
-                throw new IOException("Tiff Read Header: Error - Invalid Magic number = " + magicTIFFNumber);
-            }
+            endianess = tiffHeader.isBigEndian();
 
             fileInfo = new FileInfoTiff(fileName, fileDir, FileUtility.TIFF); // dummy fileInfo
             fileInfo.setEndianess(endianess);
             imageSlice = 0;
-            IFDoffsets[imageSlice] = getInt(endianess);
+            IFDoffsets[imageSlice] = tiffHeader.readOffset();
 
             boolean moreIFDs = true;
             imgResols = new float[5];
@@ -1536,7 +1588,9 @@ public class FileTiff extends FileBase {
                         if (haveTileWidth || lzwCompression || zlibCompression || fax3Compression || fax4Compression
                                 || modHuffmanCompression || jpegCompression || ThunderScanCompression
                                 || SGILogCompression || SGILog24Compression) {
-                            readTileBuffer(i, sliceBufferFloat);
+                            if ( !readParallelBuffer(i, sliceBufferFloat, true, one ? (i + 1) : imageSlice)) {
+                                readTileBuffer(i, sliceBufferFloat);
+                            }
                         } else {
 
                             if (one) {
@@ -1546,7 +1600,9 @@ public class FileTiff extends FileBase {
                                 }
                             }
 
-                            readBuffer(i, sliceBufferFloat); // Slice a time;
+                            if ( !readParallelBuffer(i, sliceBufferFloat, false, one ? (i + 1) : imageSlice)) {
+                                readBuffer(i, sliceBufferFloat); // Slice a time;
+                            }
 
                             if (one) {
                                 i = 0;
@@ -2680,7 +2736,9 @@ public class FileTiff extends FileBase {
         } // else oldLZW
 
         // Horizontal Differencing Predictor
-        if (predictor == 2) {
+        if ( (predictor == 2) && (bitsPerSample != null) && (bitsPerSample[0] == 16)) {
+            TiffTileDecoder.undoPredictor(outData, rowsToDo, tileWidth, samplesPerPixel, 16, endianess);
+        } else if (predictor == 2) {
 
             int count;
 
@@ -6105,6 +6163,13 @@ public class FileTiff extends FileBase {
                 fileSuffix = "tif";
                 fileName = prefix + "." + fileSuffix;
             }
+
+            if (useStripWriter(image, options)) {
+                writeStrips(image, LUT, options, oneFile, prefix, fileSuffix);
+
+                return;
+            }
+
             zRes = -1.0;
 
             if ( (image.getNDims() > 2) && (image.getFileInfo(0).getResolutions().length > 2)) {
@@ -6150,42 +6215,7 @@ public class FileTiff extends FileBase {
                         filePB = new FilePackBit(raFile);
                     }
                 } else {
-
-                    if (options.isSaveAs()) {
-
-                        if (options.getDigitNumber() == 1) {
-                            file = new File(fileDir + prefix + Integer.toString(seq) + fileSuffix);
-                        } else if (options.getDigitNumber() == 2) {
-
-                            if (seq < 10) {
-                                file = new File(fileDir + prefix + "0" + Integer.toString(seq) + fileSuffix);
-                            } else {
-                                file = new File(fileDir + prefix + Integer.toString(seq) + fileSuffix);
-                            }
-                        } else if (options.getDigitNumber() == 3) {
-
-                            if (seq < 10) {
-                                file = new File(fileDir + prefix + "00" + Integer.toString(seq) + fileSuffix);
-                            } else if (seq < 100) {
-                                file = new File(fileDir + prefix + "0" + Integer.toString(seq) + fileSuffix);
-                            } else {
-                                file = new File(fileDir + prefix + Integer.toString(seq) + fileSuffix);
-                            }
-                        } else if (options.getDigitNumber() == 4) {
-
-                            if (seq < 10) {
-                                file = new File(fileDir + prefix + "000" + Integer.toString(seq) + fileSuffix);
-                            } else if (seq < 100) {
-                                file = new File(fileDir + prefix + "00" + Integer.toString(seq) + fileSuffix);
-                            } else if (seq < 1000) {
-                                file = new File(fileDir + prefix + "0" + Integer.toString(seq) + fileSuffix);
-                            } else {
-                                file = new File(fileDir + prefix + Integer.toString(seq) + fileSuffix);
-                            }
-                        }
-                    } else {
-                        file = new File(fileDir + image.getFileInfo(s).getFileName());
-                    }
+                    file = multiFile(image, options, prefix, fileSuffix, s, seq);
 
                     raFile = new RandomAccessFile(file, "rw");
                     raFile.setLength(0); // necessary so that if this is an overwritten file there isn't junk at the
@@ -6440,7 +6470,10 @@ public class FileTiff extends FileBase {
             }
         } catch (final OutOfMemoryError error) {
             System.gc();
-            raFile.close();
+
+            if (raFile != null) {
+                raFile.close();
+            }
 
             throw error;
         }
@@ -6449,6 +6482,133 @@ public class FileTiff extends FileBase {
 
     }
 
+    /**
+     * Returns whether an image is written by TiffStripWriter: when it is compressed other than with the PackBits of
+     * FilePackBit, when it is written as OME-TIFF, or when a file written passes the 2 GB that the int offsets of
+     * writeIFDs reach. Only the old writer writes boolean images.
+     * 
+     * @param image the image written
+     * @param options options to be used to write out the image
+     * 
+     * @return true if TiffStripWriter writes the image
+     */
+    private boolean useStripWriter(final ModelImage image, final FileWriteOptions options) {
+        final String name = fileName.toLowerCase();
+        int slices = 1;
+
+        if (options.isWritePackBit() || !TiffStripWriter.isSupported(image.getType())) {
+            return false;
+        }
+
+        if (options.isWriteOMETiff() || name.endsWith(".ome.tif") || name.endsWith(".ome.tiff")) {
+            return true;
+        }
+
+        // 4D images are written one file per time point, and 3D images one file per slice when multi file
+        if ( (image.getNDims() == 4) || ( (image.getNDims() == 3) && !options.isMultiFile())) {
+            slices = options.getEndSlice() - options.getBeginSlice() + 1;
+        }
+
+        return (options.getTiffCompression() != TiffTileDecoder.NONE)
+                || ( ((long) slices * image.getSliceSize() * (image.isColorImage() ? 3 : 1) * TiffStripWriter
+                        .bytesPerSample(image.getType())) >= (Integer.MAX_VALUE - (1 << 24)));
+    }
+
+    /**
+     * Returns the file of one slice or time point of an image written one file per slice or time point.
+     * 
+     * @param image the image written
+     * @param options options to be used to write out the image
+     * @param prefix name of the files before the number
+     * @param fileSuffix suffix of the files
+     * @param s index of the slice or time point
+     * @param seq number of the file
+     * 
+     * @return the file
+     */
+    private File multiFile(final ModelImage image, final FileWriteOptions options, final String prefix,
+            final String fileSuffix, final int s, final int seq) {
+
+        if ( !options.isSaveAs()) {
+            return new File(fileDir + image.getFileInfo(s).getFileName());
+        }
+
+        String number = Integer.toString(seq);
+
+        while (number.length() < options.getDigitNumber()) {
+            number = "0" + number;
+        }
+
+        return new File(fileDir + prefix + number + fileSuffix);
+    }
+
+    /**
+     * Writes the slices and time points chosen in the options with TiffStripWriter, compressed on the compute pool and
+     * as BigTIFF when larger than 4 GB. Unless written as OME-TIFF, 4D images are written one file per time point and
+     * 3D images one file per slice when the options ask for multiple files, named as the old writer names them.
+     * 
+     * @param image the image written
+     * @param LUT LUT written as color map of palette images
+     * @param options options to be used to write out the image
+     * @param oneFile whether the image is written to one file
+     * @param prefix name of the files before the number
+     * @param fileSuffix suffix of the files
+     * 
+     * @throws IOException if there is an error writing the file
+     */
+    private void writeStrips(final ModelImage image, final ModelLUT LUT, final FileWriteOptions options,
+            final boolean oneFile, final String prefix, final String fileSuffix) throws IOException {
+        final String name = fileName.toLowerCase();
+        final boolean omeXML = options.isWriteOMETiff() || name.endsWith(".ome.tif") || name.endsWith(".ome.tiff");
+
+        if ( !oneFile && !omeXML) {
+            final boolean time = image.getNDims() == 4;
+            final int begin = time ? options.getBeginTime() : options.getBeginSlice();
+            final int end = time ? options.getEndTime() : options.getEndSlice();
+
+            for (int s = begin, seq = options.getStartNumber(); s <= end; s++, seq++) {
+                final TiffStripWriter writer = new TiffStripWriter(multiFile(image, options, prefix, fileSuffix, s,
+                        seq), options.getTiffCompression());
+
+                if ( !suppressProgressBar) {
+                    fireProgressStateChanged(Math.round((float) (s - begin) / (end - begin + 1) * 100));
+                }
+
+                if (time) {
+                    writer.writeImage(image, LUT, options.getBeginSlice(), options.getEndSlice(), s, s);
+                } else {
+                    writer.writeImage(image, LUT, s, s, 0, 0);
+                }
+            }
+
+            return;
+        }
+
+        final TiffStripWriter writer = new TiffStripWriter(new File(fileDir + fileName),
+                options.getTiffCompression());
+        int beginSlice = 0;
+        int endSlice = 0;
+        int beginTime = 0;
+        int endTime = 0;
+
+        if (image.getNDims() > 2) {
+            beginSlice = options.getBeginSlice();
+            endSlice = options.getEndSlice();
+        }
+
+        if (image.getNDims() > 3) {
+            beginTime = options.getBeginTime();
+            endTime = options.getEndTime();
+        }
+
+        if ( !suppressProgressBar) {
+            linkProgress(writer);
+        }
+
+        writer.setOMEXML(omeXML);
+        writer.writeImage(image, LUT, beginSlice, endSlice, beginTime, endTime);
+    }
+
     /**
      * Reads and decodes IFDs (Image File Directory).
      * 
@@ -6469,7 +6629,8 @@ public class FileTiff extends FileBase {
         int count;
         int ecount;
         final long[] valueArray = new long[MAX_IFD_LENGTH];
-        int value_offset;
+        long value_offset;
+        long entryLocus;
         int nDirEntries;
         long numerator, denominator;
         float valueFloat = 0.0f;
@@ -6482,7 +6643,7 @@ public class FileTiff extends FileBase {
         int exifDirEntries = 0;
         boolean zero;
         fileInfo.setEndianess(endianess);
-        nDirEntries = getUnsignedShort(endianess);
+        nDirEntries = (int) tiffHeader.readEntryCount();
         int bytesExamined;
         byte blockSignature[];
         int imageResourceID;
@@ -6527,6 +6688,7 @@ public class FileTiff extends FileBase {
         }
 
         for (i = 0; i < nDirEntries + exifDirEntries; i++) {
+            entryLocus = raFile.getFilePointer();
             tag = getUnsignedShort(endianess);
 
             if (tag == 0) {
@@ -6536,7 +6698,7 @@ public class FileTiff extends FileBase {
             }
 
             type = Type.getTypeFromNum(getUnsignedShort(endianess));
-            count = getInt(endianess);
+            count = (int) tiffHeader.readValueCount();
 
             if ( (type == Type.SHORT) && (count == 1)) {
                 valueArray[0] = getUnsignedShort(endianess);
@@ -6545,7 +6707,7 @@ public class FileTiff extends FileBase {
                 valueArray[0] = getUnsignedShort(endianess);
                 valueArray[1] = getUnsignedShort(endianess);
             } else if ( (type == Type.SHORT) && (count >= 3)) {
-                value_offset = getInt(endianess);
+                value_offset = tiffHeader.readValueOffset(2L * count);
 
                 saveLocus = raFile.getFilePointer();
                 raFile.seek(value_offset);
@@ -6558,7 +6720,7 @@ public class FileTiff extends FileBase {
             } else if ( ( (type == Type.LONG) || (type == Type.IFD)) && (count == 1)) {
                 valueArray[0] = getUInt(endianess);
             } else if ( ( (type == Type.LONG) || (type == Type.IFD)) && (count >= 2)) {
-                value_offset = getInt(endianess);
+                value_offset = tiffHeader.readValueOffset(4L * count);
 
                 saveLocus = raFile.getFilePointer();
                 raFile.seek(value_offset);
@@ -6567,11 +6729,22 @@ public class FileTiff extends FileBase {
                     valueArray[i1] = getUInt(endianess);
                 }
 
+                raFile.seek(saveLocus);
+            } else if ( (type == Type.LONG8) || (type == Type.SLONG8) || (type == Type.IFD8)) {
+                value_offset = tiffHeader.readValueOffset(8L * count);
+
+                saveLocus = raFile.getFilePointer();
+                raFile.seek(value_offset);
+
+                for (i1 = 0; ( (i1 < count) && (i1 < MAX_IFD_LENGTH)); i1++) {
+                    valueArray[i1] = getLong(endianess);
+                }
+
                 raFile.seek(saveLocus);
             } else if ( (type == Type.SLONG) && (count == 1)) {
                 valueArray[0] = getInt(endianess);
             } else if ( (type == Type.SLONG) && (count >= 2)) {
-                value_offset = getInt(endianess);
+                value_offset = tiffHeader.readValueOffset(4L * count);
 
                 saveLocus = raFile.getFilePointer();
                 raFile.seek(value_offset);
@@ -6582,7 +6755,7 @@ public class FileTiff extends FileBase {
 
                 raFile.seek(saveLocus);
             } else if ( (type == Type.RATIONAL) || (type == Type.SRATIONAL)) {
-                value_offset = getInt(endianess);
+                value_offset = tiffHeader.readValueOffset(8L * count);
 
                 saveLocus = raFile.getFilePointer();
                 raFile.seek(value_offset);
@@ -6594,7 +6767,7 @@ public class FileTiff extends FileBase {
 
                 raFile.seek(saveLocus);
             } else if (type == Type.DOUBLE) {
-                value_offset = getInt(endianess);
+                value_offset = tiffHeader.readValueOffset(8L * count);
                 saveLocus = raFile.getFilePointer();
                 raFile.seek(value_offset);
                 for (i1 = 0; ( (i1 < count) && (i1 < valueDouble.length)); i1++) {
@@ -6631,7 +6804,7 @@ public class FileTiff extends FileBase {
                 valueArray[2] = raFile.readUnsignedByte();
                 valueArray[3] = raFile.readUnsignedByte();
             } else if ( ( (type == Type.BYTE) || (type == Type.UNDEFINED) || (type == Type.ASCII)) && (count > 4)) {
-                value_offset = getInt(endianess);
+                value_offset = tiffHeader.readValueOffset(count);
 
                 saveLocus = raFile.getFilePointer();
                 raFile.seek(value_offset);
@@ -6665,7 +6838,7 @@ public class FileTiff extends FileBase {
                 valueArray[2] = raFile.readByte();
                 valueArray[3] = raFile.readByte();
             } else if ( (type == Type.SBYTE) && (count > 4)) {
-                value_offset = getInt(endianess);
+                value_offset = tiffHeader.readValueOffset(count);
 
                 saveLocus = raFile.getFilePointer();
                 raFile.seek(value_offset);
@@ -6682,7 +6855,7 @@ public class FileTiff extends FileBase {
                 valueArray[0] = getSignedShort(endianess);
                 valueArray[1] = getSignedShort(endianess);
             } else if ( (type == Type.SSHORT) && (count >= 3)) {
-                value_offset = getInt(endianess);
+                value_offset = tiffHeader.readValueOffset(2L * count);
 
                 saveLocus = raFile.getFilePointer();
                 raFile.seek(value_offset);
@@ -6697,7 +6870,7 @@ public class FileTiff extends FileBase {
             } else if ( (type == Type.FLOAT) && (count > 1)) {
 
                 // Ignore these fields for now
-                value_offset = getInt(endianess);
+                value_offset = tiffHeader.readValueOffset(4L * count);
             } else {
 
                 if (debuggingFileIO) {
@@ -6709,6 +6882,11 @@ public class FileTiff extends FileBase {
                         + count);
             }
 
+            if (tiffHeader.isBigTIFF()) {
+                // BigTIFF entries are 20 bytes with an 8 byte value field, of which only 4 were read for small values
+                raFile.seek(entryLocus + tiffHeader.getEntrySize());
+            }
+
             if (debuggingFileIO) {
                 Preferences.debug("\nFileTiff.openIFD: Tag = " + tag + "\n", Preferences.DEBUG_FILEIO);
 
@@ -6779,6 +6957,21 @@ public class FileTiff extends FileBase {
                                 Preferences.DEBUG_FILEIO);
                         break;
 
+                    case LONG8:
+                        Preferences.debug("FileTiff.openIFD: Type = LONG8  Count = " + count + "\n",
+                                Preferences.DEBUG_FILEIO);
+                        break;
+
+                    case SLONG8:
+                        Preferences.debug("FileTiff.openIFD: Type = SLONG8  Count = " + count + "\n",
+                                Preferences.DEBUG_FILEIO);
+                        break;
+
+                    case IFD8:
+                        Preferences.debug("FileTiff.openIFD: Type = IFD8  Count = " + count + "\n",
+                                Preferences.DEBUG_FILEIO);
+                        break;
+
                 }
             }
 
@@ -6993,7 +7186,7 @@ public class FileTiff extends FileBase {
                     break;
 
                 case STRIP_OFFSETS:
-                    if ( (type != Type.SHORT) && (type != Type.LONG)) {
+                    if ( (type != Type.SHORT) && (type != Type.LONG) && (type != Type.LONG8)) {
                         throw new IOException("STRIP_OFFSETS has illegal type = " + type + "\n");
                     }
 
@@ -7005,7 +7198,7 @@ public class FileTiff extends FileBase {
                                     Preferences.DEBUG_FILEIO);
                         }
 
-                        dataOffsets[imageSlice].addElement(new Index((int) valueArray[0]));
+                        dataOffsets[imageSlice].addElement(new Index(valueArray[0]));
                     } else if (count > 1) {
 
                         if (debuggingFileIO) {
@@ -7014,14 +7207,14 @@ public class FileTiff extends FileBase {
 
                         for (i1 = 0; i1 < count; i1++) {
 
-                            dataOffsets[imageSlice].addElement(new Index((int) valueArray[i1]));
+                            dataOffsets[imageSlice].addElement(new Index(valueArray[i1]));
                         }
                     }
 
                     break;
 
                 case STRIP_BYTE_COUNTS:
-                    if ( (type != Type.SHORT) && (type != Type.LONG)) {
+                    if ( (type != Type.SHORT) && (type != Type.LONG) && (type != Type.LONG8)) {
                         throw new IOException("STRIP_BYTE_COUNTS has illegal type = " + type + "\n");
                     }
 
@@ -7944,7 +8137,7 @@ public class FileTiff extends FileBase {
                 case TILE_OFFSETS:
 
                     // System.err.println("Tiles per image: " + count);
-                    if (type != Type.LONG) {
+                    if ( (type != Type.LONG) && (type != Type.LONG8)) {
                         throw new IOException("TILE_OFFSETS has illegal type = " + type + "\n");
                     }
 
@@ -7980,7 +8173,7 @@ public class FileTiff extends FileBase {
                         }
 
                         for (i1 = 0; i1 < count; i1++) {
-                            tileOffsets[i1 + count] = valueArray[i1];
+                            tileOffsets[i1 + tileOffsetNumber] = valueArray[i1];
                         }
 
                         tileOffsetNumber += count;
@@ -7989,7 +8182,7 @@ public class FileTiff extends FileBase {
                     break;
 
                 case TILE_BYTE_COUNTS:
-                    if ( (type != Type.SHORT) && (type != Type.LONG)) {
+                    if ( (type != Type.SHORT) && (type != Type.LONG) && (type != Type.LONG8)) {
                         throw new IOException("TILE_BYTE_COUNTS has illegal type = " + type + "\n");
                     }
 
@@ -8023,7 +8216,7 @@ public class FileTiff extends FileBase {
                         }
 
                         for (i1 = 0; i1 < count; i1++) {
-                            tileByteCounts[i1 + count] = (int) valueArray[i1];
+                            tileByteCounts[i1 + tileByteNumber] = (int) valueArray[i1];
                         }
 
                         tileByteNumber += count;
@@ -8494,7 +8687,7 @@ public class FileTiff extends FileBase {
                     break;
 
                 case EXIFIFD:
-                    if (type != Type.LONG) {
+                    if ( (type != Type.LONG) && (type != Type.IFD) && (type != Type.IFD8)) {
                         throw new IOException("EXIFIFD has illegal type = " + type + "\n");
                     }
 
@@ -8509,7 +8702,7 @@ public class FileTiff extends FileBase {
 
                     preExifLocus = raFile.getFilePointer();
                     raFile.seek(valueArray[0]);
-                    exifDirEntries = getUnsignedShort(endianess);
+                    exifDirEntries = (int) tiffHeader.readEntryCount();
                     if (debuggingFileIO) {
                         Preferences.debug("\nOpenIFD: Exif directory entries = " + exifDirEntries + "\n",
                                 Preferences.DEBUG_FILEIO);
@@ -10940,7 +11133,7 @@ public class FileTiff extends FileBase {
         }
 
         imageSlice++;
-        IFDoffsets[imageSlice] = getInt(endianess);
+        IFDoffsets[imageSlice] = tiffHeader.readOffset();
 
         if (debuggingFileIO) {
             Preferences.debug("\nFileTiff.openIFD: Ref. to next imageSlice = " + IFDoffsets[imageSlice] + "\n",
@@ -10956,7 +11149,7 @@ public class FileTiff extends FileBase {
         saveLocus = raFile.getFilePointer();
         raFile.seek(IFDoffsets[imageSlice]);
 
-        nDirEntries = getUnsignedShort(endianess);
+        nDirEntries = (int) tiffHeader.readEntryCount();
 
         if ( (nDirEntries <= 0) || (nDirEntries >= 100)) {
             raFile.seek(saveLocus);
@@ -12448,6 +12641,10 @@ public class FileTiff extends FileBase {
         raFile.read(byteBuffer, 0, totalLength);
         i = 0;
 
+        // only the conversions of 1 and 8 bit samples unpack PackBits strips themselves
+        final int[] unpackedStarts = (packBit && chunky && (bitsPerSample != null) && (bitsPerSample[0] > 8)
+                && ( (bitsPerSample[0] % 8) == 0)) ? unpackWideStrips(slice, firstIndex) : null;
+
         for (a = 0; a < nIndex; a++, idx++) {
 
             try {
@@ -12459,6 +12656,11 @@ public class FileTiff extends FileBase {
                 // raFile.seek( ( (Index) (dataOffsets[slice].elementAt(idx))).index);
                 nBytes = (dataOffsets[slice].elementAt(idx)).byteCount;
 
+                if (unpackedStarts != null) {
+                    currentIndex = unpackedStarts[idx];
+                    nBytes = unpackedStarts[idx + 1] - unpackedStarts[idx];
+                }
+
                 // System.err.println("doing nBytes: " + nBytes);
                 if (nBytes == 0) {
                     nBytes = buffer.length;
@@ -15962,13 +16164,7 @@ public class FileTiff extends FileBase {
                     nBytes = buffer.length;
                 }
 
-                ;
-
-                if (byteBuffer == null) {
-                    byteBuffer = new byte[8 * buffer.length];
-                }
-
-                raFile.read(byteBuffer, 0, nBytes);
+                // the strips of the slice were all read into byteBuffer above
                 progress = slice * buffer.length;
                 progressLength = buffer.length * imageSlice;
                 mod = progressLength / 10;
@@ -16005,6 +16201,411 @@ public class FileTiff extends FileBase {
         }
     }
 
+    /**
+     * Reads a slice whose strips or tiles are LZW, zlib or PackBits compressed by decompressing them on several threads
+     * at once. The compressed strips of the slice are read one after the other and then decompressed into
+     * disjoint regions of the slice, each thread reusing its own decoder. When a slice holds too few strips to keep
+     * the cores busy, the following slices are decompressed along with it and kept until they are asked for.
+     *
+     * @param slice image slice
+     * @param buffer buffer where the info is stored
+     * @param tiled true if the slice is stored in the strips or tiles of tileOffsets, false if it is stored in the
+     *            strips of dataOffsets
+     * @param endSlice slice after the last one that may be decompressed ahead
+     *
+     * @return false if the slice is stored in a way only readTileBuffer or readBuffer handle, in which case nothing
+     *         has been read
+     *
+     * @exception IOException if there is an error reading the file
+     */
+    private boolean readParallelBuffer(final int slice, final float[] buffer, final boolean tiled, final int endSlice)
+            throws IOException {
+
+        if ( !canReadParallel(tiled)) {
+            return false;
+        }
+
+        if ( (parallelSliceCount > 0) && (slice >= parallelFirstSlice)
+                && (slice < (parallelFirstSlice + parallelSliceCount))) {
+            System.arraycopy(parallelSlices[slice - parallelFirstSlice], 0, buffer, 0, buffer.length);
+
+            return true;
+        }
+
+        final int strips = tiled ? tilesPerSlice : dataOffsets[slice].size();
+        int count = Math.max(1, ( (2 * ThreadUtil.getAvailableCores()) + strips - 1) / strips);
+
+        count = Math.min(count, Math.max(1, MAX_PARALLEL_SAMPLES / buffer.length));
+        count = Math.max(1, Math.min(count, endSlice - slice));
+
+        final float[][] targets;
+
+        if (count == 1) {
+            targets = new float[][] {buffer};
+        } else {
+
+            if ( (parallelSlices == null) || (parallelSlices.length < count)
+                    || (parallelSlices[0].length != buffer.length)) {
+                parallelSlices = new float[count][buffer.length];
+            }
+
+            targets = parallelSlices;
+        }
+
+        parallelSliceCount = 0;
+
+        if ( !decodeParallel(slice, count, targets, tiled)) {
+            return false;
+        }
+
+        if (count > 1) {
+            parallelFirstSlice = slice;
+            parallelSliceCount = count;
+            System.arraycopy(parallelSlices[0], 0, buffer, 0, buffer.length);
+        }
+
+        if ( !suppressProgressBar) {
+            fireProgressStateChanged(Math.round((float) (slice + count) / imageSlice * 100));
+        }
+
+        return true;
+    }
+
+    /**
+     * Tells whether the slices are stored in a way readParallelBuffer handles: LZW or zlib compressed 8, 16 or 32 bit
+     * gray, 8 bit RGB(A) or 16 bit RGB samples stored together, or such samples in PackBits compressed strips, without
+     * a predictor when they are 8 bit. These are the layouts readTileBuffer and readBuffer decode to the same pixels;
+     * JPEG is left to them because the parallel decoder would upsample the chroma differently.
+     *
+     * @param tiled true if the slices are stored in the strips or tiles of tileOffsets
+     *
+     * @return true if readParallelBuffer can read the slices
+     */
+    private boolean canReadParallel(final boolean tiled) {
+
+        if ( !parallelDecode || foundTag43314 || (fillOrder != 1) || isCIELAB || isCMYK || isBW2 || isBW4
+                || haveMultiSpectraImage || (bitsPerSample == null) || ( ( !chunky) && (samplesPerPixel > 1))
+                || isYCbCr || jpegCompression) {
+            return false;
+        }
+
+        if (tiled) {
+
+            if ( (tileOffsets == null) || ( !lzwCompression && !zlibCompression) || fax3Compression
+                    || fax4Compression || modHuffmanCompression || ThunderScanCompression || SGILogCompression
+                    || SGILog24Compression) {
+                return false;
+            }
+        } else if ( !packBit || (dataOffsets == null) || ( (predictor == 2) && (bitsPerSample[0] == 8))) {
+            return false;
+        }
+
+        for (final int bits : bitsPerSample) {
+
+            if (bits != bitsPerSample[0]) {
+                return false;
+            }
+        }
+
+        switch (fileInfo.getDataType()) {
+
+            case ModelStorageBase.BYTE:
+            case ModelStorageBase.UBYTE:
+                return (samplesPerPixel == 1) && (bitsPerSample[0] == 8);
+
+            case ModelStorageBase.SHORT:
+            case ModelStorageBase.USHORT:
+                return (samplesPerPixel == 1) && (bitsPerSample[0] == 16);
+
+            case ModelStorageBase.INTEGER:
+            case ModelStorageBase.UINTEGER:
+            case ModelStorageBase.FLOAT:
+
+                // undoPredictor only handles 8 and 16 bit samples
+                return (samplesPerPixel == 1) && (bitsPerSample[0] == 32) && (predictor != 2);
+
+            case ModelStorageBase.ARGB:
+                return (bitsPerSample[0] == 8) && ( (samplesPerPixel == 3) || (samplesPerPixel == 4));
+
+            case ModelStorageBase.ARGB_USHORT:
+                return (samplesPerPixel == 3) && (bitsPerSample[0] == 16);
+
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * Reads the compressed strips of several slices and decompresses them in parallel.
+     *
+     * @param firstSlice first slice to read
+     * @param count number of slices to read
+     * @param targets buffers where the slices are stored
+     * @param tiled true if the slices are stored in the strips or tiles of tileOffsets
+     *
+     * @return false if the strips turn out to be stored in a way only readTileBuffer or readBuffer handle
+     *
+     * @exception IOException if there is an error reading the file
+     */
+    private boolean decodeParallel(final int firstSlice, final int count, final float[][] targets,
+            final boolean tiled) throws IOException {
+        final int chunkWidth = tiled ? tileWidth : xDim;
+        final int chunkHeight;
+        final int across = tiled ? tilesAcross : 1;
+        final int compression;
+
+        if (tiled) {
+            chunkHeight = tileLength;
+        } else if (haveRowsPerStrip && (rowsPerStrip > 0)) {
+            chunkHeight = rowsPerStrip;
+        } else {
+            chunkHeight = yDim;
+        }
+
+        if (lzwCompression) {
+            compression = TiffTileDecoder.LZW;
+        } else if (zlibCompression) {
+            compression = TiffTileDecoder.DEFLATE;
+        } else {
+            compression = TiffTileDecoder.PACKBITS;
+        }
+
+        int total = 0;
+
+        for (int s = 0; s < count; s++) {
+            total += tiled ? tilesPerSlice : dataOffsets[firstSlice + s].size();
+        }
+
+        if ( (chunkWidth <= 0) || (chunkHeight <= 0)
+                || (tiled && ( ( (firstSlice + count) * tilesPerSlice) > tileOffsets.length))) {
+            return false;
+        }
+
+        final byte[][] data = new byte[total][];
+        final int[] lengths = new int[total];
+        final int[] slices = new int[total];
+        final int[] strips = new int[total];
+
+        for (int s = 0, k = 0; s < count; s++) {
+            final int slice = firstSlice + s;
+            final int n = tiled ? tilesPerSlice : dataOffsets[slice].size();
+
+            for (int a = 0; a < n; a++, k++) {
+                final long offset;
+                final int byteCount;
+
+                if (tiled) {
+                    offset = tileOffsets[ (slice * tilesPerSlice) + a];
+                    byteCount = tileByteCounts[ (slice * tilesPerSlice) + a];
+                } else {
+                    offset = (dataOffsets[slice].elementAt(a)).index;
+                    byteCount = (dataOffsets[slice].elementAt(a)).byteCount;
+                }
+
+                if (byteCount <= 0) {
+                    return false;
+                }
+
+                data[k] = new byte[byteCount];
+                raFile.seek(offset);
+                lengths[k] = Math.max(0, raFile.read(data[k], 0, byteCount));
+                slices[k] = s;
+                strips[k] = a;
+
+                if ( (k == 0) && (compression == TiffTileDecoder.LZW) && (lengths[0] > 1) && (data[0][0] == 0)
+                        && ( (data[0][1] & 0x1) == 1)) {
+
+                    // Old-style bit-reversed LZW codes are only decoded by LZWDecompresser
+                    parallelDecode = false;
+
+                    return false;
+                }
+            }
+        }
+
+        final int bytesPerPixel = samplesPerPixel * (bitsPerSample[0] / 8);
+        final int chunkBytes = chunkWidth * chunkHeight * bytesPerPixel;
+        final int groups = Math.min(total, ThreadUtil.nthreads);
+        final int stripCount = total;
+
+        try {
+            ThreadUtil.parallelFor(groups, new ThreadUtil.IndexedTask() {
+                public void run(final int group) {
+                    final TiffTileDecoder decoder = tileDecoders.get();
+                    final byte[] decomp = new byte[chunkBytes];
+                    final int end = (int) ( ((long) (group + 1) * stripCount) / groups);
+
+                    try {
+
+                        for (int k = (int) ( ((long) group * stripCount) / groups); k < end; k++) {
+                            final int length = decoder.decompress(compression, data[k], lengths[k], decomp);
+
+                            if (predictor == 2) {
+                                TiffTileDecoder.undoPredictor(decomp, chunkHeight, chunkWidth, samplesPerPixel,
+                                        bitsPerSample[0], endianess);
+                            }
+
+                            final int pixels = length / bytesPerPixel;
+
+                            data[k] = null;
+                            storeStrip(decomp, pixels, chunkWidth, chunkHeight, (strips[k] % across) * chunkWidth,
+                                    (strips[k] / across) * chunkHeight, targets[slices[k]]);
+                        }
+                    } catch (final IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                }
+            });
+        } catch (final RuntimeException e) {
+            Throwable cause = e;
+
+            while ( (cause != null) && ! (cause instanceof IOException)) {
+                cause = cause.getCause();
+            }
+
+            if (cause == null) {
+                throw e;
+            }
+
+            throw (IOException) cause;
+        }
+
+        return true;
+    }
+
+    /**
+     * Stores the decompressed samples of a strip or tile in its region of a slice, converting them as readTileBuffer
+     * does.
+     *
+     * @param decomp the decompressed samples
+     * @param pixels number of pixels in decomp
+     * @param chunkWidth width of the strip or tile
+     * @param chunkHeight height of the strip or tile
+     * @param x0 column of the strip or tile in the slice
+     * @param y0 row of the strip or tile in the slice
+     * @param buffer the slice
+     */
+    private void storeStrip(final byte[] decomp, final int pixels, final int chunkWidth, final int chunkHeight,
+            final int x0, final int y0, final float[] buffer) {
+        final int width = Math.min(chunkWidth, xDim - x0);
+        final int height = Math.min(chunkHeight, yDim - y0);
+        final int dataType = fileInfo.getDataType();
+        final boolean whiteIsZero = fileInfo.getPhotometric() == 0;
+
+        for (int y = 0; y < height; y++) {
+            final int columns = Math.min(width, pixels - (y * chunkWidth));
+            final int p = x0 + ( (y0 + y) * xDim);
+
+            for (int x = 0; x < columns; x++) {
+                final int j = (y * chunkWidth) + x;
+
+                if (dataType == ModelStorageBase.UBYTE) {
+                    buffer[p + x] = whiteIsZero ? (255 - (decomp[j] & 0xff)) : (decomp[j] & 0xff);
+                } else if (dataType == ModelStorageBase.BYTE) {
+                    buffer[p + x] = decomp[j];
+                } else if (dataType == ModelStorageBase.INTEGER) {
+                    buffer[p + x] = getBufferInt(decomp, 4 * j, endianess);
+                } else if (dataType == ModelStorageBase.UINTEGER) {
+                    buffer[p + x] = getBufferInt(decomp, 4 * j, endianess) & 0xffffffffL;
+                } else if (dataType == ModelStorageBase.FLOAT) {
+                    buffer[p + x] = getBufferFloat(decomp, 4 * j, endianess);
+                } else if (dataType == ModelStorageBase.ARGB_USHORT) {
+                    final int q = 4 * (p + x);
+
+                    buffer[q] = 65535;
+                    buffer[q + 1] = getBufferUShort(decomp, 6 * j, endianess);
+                    buffer[q + 2] = getBufferUShort(decomp, (6 * j) + 2, endianess);
+                    buffer[q + 3] = getBufferUShort(decomp, (6 * j) + 4, endianess);
+                } else if (dataType == ModelStorageBase.ARGB) {
+                    final int q = 4 * (p + x);
+                    final int k = samplesPerPixel * j;
+
+                    buffer[q] = (samplesPerPixel == 4) ? (decomp[k + 3] & 0xff) : 255;
+                    buffer[q + 1] = decomp[k] & 0xff;
+                    buffer[q + 2] = decomp[k + 1] & 0xff;
+                    buffer[q + 3] = decomp[k + 2] & 0xff;
+                } else {
+                    final int b1 = decomp[2 * j] & 0xff;
+                    final int b2 = decomp[ (2 * j) + 1] & 0xff;
+                    final int value = endianess ? ( (b1 << 8) + b2) : ( (b2 << 8) + b1);
+
+                    buffer[p + x] = (dataType == ModelStorageBase.SHORT) ? (short) value : value;
+                }
+            }
+        }
+    }
+
+    /**
+     * Inflates the zlib compressed strip or tile set as the input of zlibDecompresser and undoes the horizontal
+     * differencing predictor of its 8 or 16 bit samples, as the parallel decompression does.
+     * 
+     * @param decomp buffer receiving the samples
+     * @param y first row of the strip or tile
+     * 
+     * @return number of bytes inflated
+     * 
+     * @exception DataFormatException if the data is not zlib compressed
+     */
+    private int inflateStrip(final byte[] decomp, final int y) throws DataFormatException {
+        final int resultLength = zlibDecompresser.inflate(decomp);
+
+        if (predictor == 2) {
+            TiffTileDecoder.undoPredictor(decomp, Math.min(tileLength, yDim - y), tileWidth, samplesPerPixel,
+                    bitsPerSample[0], endianess);
+        }
+
+        return resultLength;
+    }
+
+    /**
+     * Unpacks the PackBits compressed strips of a slice of samples wider than a byte, which the conversions of
+     * readBuffer only read uncompressed, and undoes the horizontal differencing predictor of 16 bit samples, as the
+     * parallel decompression does. byteBuffer, holding the compressed strips, is replaced by the unpacked ones.
+     * 
+     * @param slice the slice whose strips are in byteBuffer
+     * @param firstIndex file position of the start of byteBuffer
+     * 
+     * @return the start of each unpacked strip in byteBuffer, followed by the end of the last
+     * 
+     * @exception IOException if a strip is corrupt
+     */
+    private int[] unpackWideStrips(final int slice, final long firstIndex) throws IOException {
+        final int nIndex = dataOffsets[slice].size();
+        final int rowBytes = xDim * samplesPerPixel * (bitsPerSample[0] / 8);
+        final byte[] unpacked = new byte[rowBytes * yDim];
+        final byte[] strip = new byte[unpacked.length];
+        final int[] starts = new int[nIndex + 1];
+        final TiffTileDecoder decoder = new TiffTileDecoder();
+
+        try {
+
+            for (int a = 0; a < nIndex; a++) {
+                final Index index = dataOffsets[slice].elementAt(a);
+                final int start = (int) (index.index - firstIndex);
+                final byte[] packed = new byte[index.byteCount];
+
+                System.arraycopy(byteBuffer, start, packed, 0, packed.length);
+
+                final int length = Math.min(decoder.decompress(TiffTileDecoder.PACKBITS, packed, packed.length, strip),
+                        unpacked.length - starts[a]);
+
+                if (predictor == 2) {
+                    TiffTileDecoder.undoPredictor(strip, length / rowBytes, xDim, samplesPerPixel, bitsPerSample[0],
+                            endianess);
+                }
+
+                System.arraycopy(strip, 0, unpacked, starts[a], length);
+                starts[a + 1] = starts[a] + length;
+            }
+        } finally {
+            decoder.dispose();
+        }
+
+        byteBuffer = unpacked;
+
+        return starts;
+    }
+
     /**
      * Reads a slice of data at a time and stores the results in the buffer.
      * 
@@ -16239,7 +16840,7 @@ public class FileTiff extends FileBase {
                                     resultLength = decomp.length;
                                 } else { // zlibCompression
                                     try {
-                                        resultLength = zlibDecompresser.inflate(decomp);
+                                        resultLength = inflateStrip(decomp, y);
                                     } catch (final DataFormatException e) {
                                         MipavUtil
                                                 .displayError("DataFormatException on zlibDecompresser.inflate(decomp)");
@@ -16436,7 +17037,7 @@ public class FileTiff extends FileBase {
                                     resultLength = ThunderScanDecompresser(decomp, byteBuffer, nBytes, rowsToDo);
                                 } else { // zlibCompression
                                     try {
-                                        resultLength = zlibDecompresser.inflate(decomp);
+                                        resultLength = inflateStrip(decomp, y);
                                     } catch (final DataFormatException e) {
                                         MipavUtil
                                                 .displayError("DataFormatException on zlibDecompresser.inflate(decomp)");
@@ -16628,7 +17229,7 @@ public class FileTiff extends FileBase {
                                 resultLength = decomp.length;
                             } else if (zlibCompression) {
                                 try {
-                                    resultLength = zlibDecompresser.inflate(decomp);
+                                    resultLength = inflateStrip(decomp, y);
                                 } catch (final DataFormatException e) {
                                     MipavUtil.displayError("DataFormatException on zlibDecompresser.inflate(decomp)");
                                 }
@@ -16738,7 +17339,7 @@ public class FileTiff extends FileBase {
                                 resultLength = decomp.length;
                             } else { // zlibCompression
                                 try {
-                                    resultLength = zlibDecompresser.inflate(decomp);
+                                    resultLength = inflateStrip(decomp, y);
                                 } catch (final DataFormatException e) {
                                     MipavUtil.displayError("DataFormatException on zlibDecompresser.inflate(decomp)");
                                 }
@@ -17587,23 +18188,7 @@ public class FileTiff extends FileBase {
                                         resultLength = jpegDecompresser(decomp, data, rowsToDo);
                                     } else if (zlibCompression) {
                                         try {
-                                            resultLength = zlibDecompresser.inflate(decomp);
-                                            // Horizontal Differencing Predictor
-                                            if (predictor == 2) {
-                                                rowsToDo = Math.min(tileLength, yDim - y);
-                                                int count;
-
-                                                for (j = 0; j < rowsToDo; j++) {
-
-                                                    count = samplesPerPixel * ( (j * tileWidth) + 1);
-
-                                                    for (i = samplesPerPixel; i < (tileWidth * samplesPerPixel); i++) {
-
-                                                        decomp[count] += decomp[count - samplesPerPixel];
-                                                        count++;
-                                                    }
-                                                }
-                                            }
+                                            resultLength = inflateStrip(decomp, y);
                                         } catch (final DataFormatException e) {
                                             MipavUtil
                                                     .displayError("DataFormatException on zlibDecompresser.inflate(decomp)");
@@ -17954,7 +18539,7 @@ public class FileTiff extends FileBase {
                                     resultLength = decomp.length;
                                 } else { // zlibCompression
                                     try {
-                                        resultLength = zlibDecompresser.inflate(decomp);
+                                        resultLength = inflateStrip(decomp, y);
                                     } catch (final DataFormatException e) {
                                         MipavUtil
                                                 .displayError("DataFormatException on zlibDecompresser.inflate(decomp)");
@@ -18852,7 +19437,7 @@ public class FileTiff extends FileBase {
          * 
          * @param _index DOCUMENT ME!
          */
-        public Index(final int _index) {
+        public Index(final long _index) {
             index = _index;
         }
     }
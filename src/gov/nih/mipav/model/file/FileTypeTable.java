@@ -138,6 +138,9 @@ public class FileTypeTable {
         FileTypeTable.FILE_TYPE_TABLE.put(FileUtility.JSON, new FileTypeInfo("JSON", ".json"));
         FileTypeTable.FILE_EXT_TABLE.put(".json", FileUtility.JSON);
 
+        FileTypeTable.FILE_TYPE_TABLE.put(FileUtility.N5, new FileTypeInfo("N5", ".n5"));
+        FileTypeTable.FILE_EXT_TABLE.put(".n5", FileUtility.N5);
+
         FileTypeTable.FILE_TYPE_TABLE.put(FileUtility.LSM, new FileTypeInfo("LSM", ".lsm"));
         FileTypeTable.FILE_TYPE_TABLE.put(FileUtility.LSM_MULTIFILE, new FileTypeInfo("LSM multifile", ".lsm"));
         FileTypeTable.FILE_EXT_TABLE.put(".lsm", FileUtility.LSM);
@@ -290,6 +290,9 @@ public class FileUtility {
     
     /** extension .json */
     public static final int JSON = 83;
+
+    /** N5 dataset directory .n5, with an attributes.json file and one file per block */
+    public static final int N5 = 84;
     
     
 
@@ -301,7 +304,7 @@ public class FileUtility {
             "nrrd multifile", "osm", "pcx", "pic", "pict", "png", "psd", "qt", "raw", "raw multifile", "spm", "stk", "surface xml",
             "tga", "tiff", "tiff multifile", "tmg", "voi file", "xbm", "xml", "xml multifile", "xpm", "parrec", "parrec multifile",
             "spar", "surfaceref xml", "minc hdf", "liff", "bfloat", "siemens text", "zvi", "jp2", "mat", "v", "MetaImage", "trk",
-            "czi", "pgm", "ppm", "svs", "json"};
+            "czi", "pgm", "ppm", "svs", "json", "n5"};
 
     
 
@@ -840,6 +843,12 @@ public class FileUtility {
         
         final String beginString = FileUtility.stripExtension(fileName);
 
+        // an N5 dataset is opened through the attributes.json file of its directory
+        if ( !doWrite && fileName.trim().equalsIgnoreCase(FileN5.ATTRIBUTES)
+                && FileN5.isN5Dataset(new File(fileDir))) {
+            return FileUtility.N5;
+        }
+
         if ( (beginString.equalsIgnoreCase("d3proc")) || (beginString.equalsIgnoreCase("reco"))
                 || (beginString.equalsIgnoreCase("2dseq"))) {
             fileType = FileUtility.BRUKER;
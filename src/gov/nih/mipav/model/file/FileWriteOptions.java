@@ -3,6 +3,7 @@ package gov.nih.mipav.model.file;
 
 import gov.nih.mipav.model.structures.*;
 
+import java.util.Arrays;
 import java.util.BitSet;
 import java.util.HashMap;
 
@@ -99,6 +100,12 @@ public class FileWriteOptions {
     
     private String niftiExtension = null;
 
+    /** N5 block size along each dimension, or null for the default of FileN5. */
+    private int[] n5BlockSize = null;
+
+    /** N5 block compression, FileN5.GZIP or FileN5.RAW, or null for the default of FileN5. */
+    private String n5Compression = null;
+
     /** DOCUMENT ME! */
     private float opacity;
 
@@ -136,9 +143,15 @@ public class FileWriteOptions {
     /** DOCUMENT ME! */
     private int timeSlice = 0;
 
+    /** TIFF compression of the strips, 1 for none. Other values are written by TiffStripWriter. */
+    private int tiffCompression = 1;
+
     /** TIFF options. */
     private boolean writePackBit = false;
 
+    /** Whether TIFF files are written as OME-TIFF, all slices and time points in one file. */
+    private boolean writeOMETiff = false;
+
     /** XML option. */
     private String xmlLinkedFilename;
 
@@ -507,6 +520,24 @@ public class FileWriteOptions {
     	return this.niftiExtension;
     }
 
+    /**
+     * Accessor that returns the size of the blocks of N5 datasets.
+     * 
+     * @return The block size along each dimension of the image, or null for the default.
+     */
+    public int[] getN5BlockSize() {
+        return n5BlockSize;
+    }
+
+    /**
+     * Accessor that returns the compression of the blocks of N5 datasets.
+     * 
+     * @return FileN5.GZIP or FileN5.RAW, or null for the default.
+     */
+    public String getN5Compression() {
+        return n5Compression;
+    }
+
     /**
      * DOCUMENT ME!
      * 
@@ -562,6 +593,15 @@ public class FileWriteOptions {
         return fileStartNumber;
     }
 
+    /**
+     * Accessor that returns the TIFF compression of the strips.
+     * 
+     * @return The TIFF compression tag value, 1 for none, 5 for LZW, 8 for deflate or 32773 for PackBits.
+     */
+    public int getTiffCompression() {
+        return tiffCompression;
+    }
+
     /**
      * Accessor that returns the time slice to save at; for TIFF, because TIFF only saves to 3D.
      * 
@@ -757,6 +797,15 @@ public class FileWriteOptions {
         return writePackBit;
     }
 
+    /**
+     * Accessor that returns whether TIFF files are written as OME-TIFF.
+     * 
+     * @return <code>true</code> indicates OME-TIFF, <code>false</code> otherwise.
+     */
+    public boolean isWriteOMETiff() {
+        return writeOMETiff;
+    }
+
     /**
      * DOCUMENT ME!
      * 
@@ -975,6 +1024,25 @@ public class FileWriteOptions {
     	this.niftiExtension = niftiExtension;
     }
 
+    /**
+     * Accessor that sets the size of the blocks of N5 datasets. Each block is stored and compressed on its own, and is
+     * the unit in which regions of the dataset are read and written.
+     * 
+     * @param blockSize The block size along each dimension of the image, or null for the default.
+     */
+    public void setN5BlockSize(int[] blockSize) {
+        n5BlockSize = blockSize;
+    }
+
+    /**
+     * Accessor that sets the compression of the blocks of N5 datasets.
+     * 
+     * @param compression FileN5.GZIP or FileN5.RAW, or null for the default.
+     */
+    public void setN5Compression(String compression) {
+        n5Compression = compression;
+    }
+
     /**
      * DOCUMENT ME!
      * 
@@ -1079,6 +1147,16 @@ public class FileWriteOptions {
         fileStartNumber = num;
     }
 
+    /**
+     * Accessor that sets the TIFF compression of the strips. Compressed TIFF files are written with all slices in one
+     * file, as BigTIFF when larger than 4 GB.
+     * 
+     * @param compression The TIFF compression tag value, 1 for none, 5 for LZW, 8 for deflate or 32773 for PackBits.
+     */
+    public void setTiffCompression(int compression) {
+        tiffCompression = compression;
+    }
+
     /**
      * Accessor that sets the time slice to record (4D TIFF). This would have the same functionality as setting the
      * begin time slice and end time slice to the same number. With TIFF images, we do not allow the user to specify a
@@ -1100,6 +1178,16 @@ public class FileWriteOptions {
         writePackBit = flag;
     }
 
+    /**
+     * Accessor that sets whether TIFF files are written as OME-TIFF, with all slices and time points of a 4D image in
+     * one file. Files named .ome.tif are always written as OME-TIFF.
+     * 
+     * @param flag <code>true</code> indicates OME-TIFF, <code>false</code> otherwise.
+     */
+    public void setWriteOMETiff(boolean flag) {
+        writeOMETiff = flag;
+    }
+
     /**
      * Accessor that sets the xml linked filename (for XML files).
      * 
@@ -1249,8 +1337,11 @@ public class FileWriteOptions {
         s += "\tBegin time: " + beginTimePeriod + "\n\tEnd time: " + endTimePeriod + "\n\tTime Slice: " + timeSlice
                 + "\n\n";
         s += "TIFF options:\n";
-        s += "\tPack Bit Enabled: " + packBitEnable + "\n\tWrite Pack Bit: " + writePackBit + "\n\tMulti file: "
+        s += "\tPack Bit Enabled: " + packBitEnable + "\n\tWrite Pack Bit: " + writePackBit + "\n\tCompression: "
+                + tiffCompression + "\n\tOME-TIFF: " + writeOMETiff + "\n\tMulti file: "
                 + multiFile + "\n\tStart #: " + fileStartNumber + "\n\t# digits: " + fileDigitNumber + "\n\n";
+        s += "N5 options:\n";
+        s += "\tBlock size: " + Arrays.toString(n5BlockSize) + "\n\tCompression: " + n5Compression + "\n\n";
         s += "MINC options:\n";
         s += "\tX Start: " + xStart + "\n\tY Start: " + yStart + "\n\tZ Start: " + zStart + "\n\tX Space: " + xSpace
                 + "\n\tY Space: " + ySpace + "\n\tZ Space: " + zSpace + "\n\n";
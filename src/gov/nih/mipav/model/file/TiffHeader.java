@@ -0,0 +1,306 @@
+package gov.nih.mipav.model.file;
+
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+
+/**
+ * Header of a TIFF or BigTIFF file, and the reading of the image file directory fields whose size and byte order it
+ * sets. A TIFF file has 2 byte entry counts, 4 byte value counts and offsets and 12 byte entries with 4 bytes of inline
+ * values; a BigTIFF file has 8 byte counts and offsets and 20 byte entries with 8 bytes of inline values. Shared by
+ * FileTiff, which decodes every tag of a directory, and TiffTileSource, which only reads the tags needed to decode
+ * tiles.
+ */
+final class TiffHeader {
+
+    //~ Instance fields ------------------------------------------------------------------------------------------------
+
+    /** True for a big endian file. */
+    private final boolean bigEndian;
+
+    /** True for a BigTIFF file. */
+    private final boolean bigTIFF;
+
+    /** The file, positioned by the caller before each read. */
+    private final RandomAccessFile raFile;
+
+    //~ Constructors ---------------------------------------------------------------------------------------------------
+
+    /**
+     * Creates the header of a file.
+     *
+     * @param  raFile     the file
+     * @param  bigEndian  true for a big endian file
+     * @param  bigTIFF    true for a BigTIFF file
+     */
+    private TiffHeader(final RandomAccessFile raFile, final boolean bigEndian, final boolean bigTIFF) {
+        this.raFile = raFile;
+        this.bigEndian = bigEndian;
+        this.bigTIFF = bigTIFF;
+    }
+
+    //~ Methods --------------------------------------------------------------------------------------------------------
+
+    /**
+     * Reads the byte order and magic number at the start of a file, leaving the file at the offset of the first image
+     * file directory.
+     *
+     * @param   raFile  the file, positioned at its start
+     *
+     * @return  the header
+     *
+     * @throws  IOException  if the file is not a TIFF or BigTIFF file
+     */
+    static TiffHeader read(final RandomAccessFile raFile) throws IOException {
+        final short byteOrder = raFile.readShort();
+        final boolean bigEndian;
+
+        if (byteOrder == 0x4949) {
+            bigEndian = false;
+        } else if (byteOrder == 0x4d4d) {
+            bigEndian = true;
+        } else {
+            throw new IOException("TIFF Read Header: Error - first 2 bytes are an illegal " + byteOrder);
+        }
+
+        final TiffHeader header = new TiffHeader(raFile, bigEndian, false);
+        final int magic = header.readUnsignedShort();
+
+        if (magic == 43) {
+
+            // BigTIFF has 8 byte offsets and a reserved short
+            if ( (header.readUnsignedShort() != 8) || (header.readUnsignedShort() != 0)) {
+                throw new IOException("Tiff Read Header: Error - Invalid BigTIFF offset size");
+            }
+
+            return new TiffHeader(raFile, bigEndian, true);
+        } else if (magic != 42) {
+            throw new IOException("Tiff Read Header: Error - Invalid Magic number = " + magic);
+        }
+
+        return header;
+    }
+
+    /**
+     * Returns the size of a value of a TIFF field type.
+     *
+     * @param   type  the field type
+     *
+     * @return  the size in bytes
+     */
+    static int typeSize(final int type) {
+
+        switch (type) {
+
+            case 3:
+            case 8:
+                return 2;
+
+            case 4:
+            case 9:
+            case 11:
+            case 13:
+                return 4;
+
+            case 5:
+            case 10:
+            case 12:
+            case 16:
+            case 17:
+            case 18:
+                return 8;
+
+            default:
+                return 1;
+        }
+    }
+
+    /**
+     * Returns the size of the entry count at the start of a directory.
+     *
+     * @return  2 for TIFF, 8 for BigTIFF
+     */
+    int getEntryCountSize() {
+        return bigTIFF ? 8 : 2;
+    }
+
+    /**
+     * Returns the size of a directory entry.
+     *
+     * @return  12 for TIFF, 20 for BigTIFF
+     */
+    int getEntrySize() {
+        return bigTIFF ? 20 : 12;
+    }
+
+    /**
+     * Returns the byte order of the file.
+     *
+     * @return  true for a big endian file
+     */
+    boolean isBigEndian() {
+        return bigEndian;
+    }
+
+    /**
+     * Returns whether the file is a BigTIFF file.
+     *
+     * @return  true for a BigTIFF file
+     */
+    boolean isBigTIFF() {
+        return bigTIFF;
+    }
+
+    /**
+     * Reads the number of entries of a directory.
+     *
+     * @return  the number of entries
+     *
+     * @throws  IOException  if the file cannot be read
+     */
+    long readEntryCount() throws IOException {
+        return bigTIFF ? readLong() : readUnsignedShort();
+    }
+
+    /**
+     * Reads a 4 byte integer in the byte order of the file.
+     *
+     * @return  the value
+     *
+     * @throws  IOException  if the file cannot be read
+     */
+    int readInt() throws IOException {
+        final int value = raFile.readInt();
+
+        return bigEndian ? value : Integer.reverseBytes(value);
+    }
+
+    /**
+     * Reads an 8 byte integer in the byte order of the file.
+     *
+     * @return  the value
+     *
+     * @throws  IOException  if the file cannot be read
+     */
+    long readLong() throws IOException {
+        final long value = raFile.readLong();
+
+        return bigEndian ? value : Long.reverseBytes(value);
+    }
+
+    /**
+     * Reads the offset of a directory, such as the first one after the header or the next one after the entries.
+     *
+     * @return  the offset, or 0 if there is no directory
+     *
+     * @throws  IOException  if the file cannot be read
+     */
+    long readOffset() throws IOException {
+        return bigTIFF ? readLong() : (readInt() & 0xffffffffL);
+    }
+
+    /**
+     * Reads a 2 byte unsigned integer in the byte order of the file.
+     *
+     * @return  the value
+     *
+     * @throws  IOException  if the file cannot be read
+     */
+    int readUnsignedShort() throws IOException {
+        final int value = raFile.readUnsignedShort();
+
+        return bigEndian ? value : ( ( (value & 0xff) << 8) | (value >>> 8));
+    }
+
+    /**
+     * Reads an unsigned value of a directory entry.
+     *
+     * @param   type  TIFF field type
+     *
+     * @return  the value
+     *
+     * @throws  IOException  if the file cannot be read
+     */
+    long readValue(final int type) throws IOException {
+
+        switch (type) {
+
+            case 1:
+            case 2:
+            case 6:
+            case 7:
+                return raFile.readUnsignedByte();
+
+            case 3:
+            case 8:
+                return readUnsignedShort();
+
+            case 16:
+            case 17:
+            case 18:
+                return readLong();
+
+            default:
+                return readInt() & 0xffffffffL;
+        }
+    }
+
+    /**
+     * Reads the number of values of a directory entry.
+     *
+     * @return  the number of values
+     *
+     * @throws  IOException  if the file cannot be read
+     */
+    long readValueCount() throws IOException {
+        return bigTIFF ? readLong() : (readInt() & 0xffffffffL);
+    }
+
+    /**
+     * Reads the value field of a directory entry whose values do not fit in the 4 bytes of a TIFF field. The 8 byte
+     * field of BigTIFF holds values of up to 8 bytes itself, in which case the location of the field is returned.
+     *
+     * @param   byteCount  size of the values of the entry
+     *
+     * @return  the location of the values
+     *
+     * @throws  IOException  if the file cannot be read
+     */
+    long readValueOffset(final long byteCount) throws IOException {
+
+        if ( !bigTIFF) {
+            return readInt() & 0xffffffffL;
+        }
+
+        final long locus = raFile.getFilePointer();
+        final long offset = readLong();
+
+        return (byteCount <= 8) ? locus : offset;
+    }
+
+    /**
+     * Reads the values of a directory entry.
+     *
+     * @param   type   TIFF field type
+     * @param   count  number of values
+     *
+     * @return  the values
+     *
+     * @throws  IOException  if the file cannot be read
+     */
+    long[] readValues(final int type, final long count) throws IOException {
+
+        if (count > Integer.MAX_VALUE) {
+            throw new IOException("TIFF entry with " + count + " values");
+        }
+
+        final long[] values = new long[(int) count];
+
+        for (int i = 0; i < values.length; i++) {
+            values[i] = readValue(type);
+        }
+
+        return values;
+    }
+}
@@ -0,0 +1,998 @@
+package gov.nih.mipav.model.file;
+
+
+import gov.nih.mipav.model.file.FileInfoBase.Unit;
+import gov.nih.mipav.model.structures.ModelImage;
+import gov.nih.mipav.model.structures.ModelLUT;
+import gov.nih.mipav.model.structures.ModelStorageBase;
+import gov.nih.mipav.util.ThreadUtil;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+
+/**
+ * Writes all slices and time points of an image to one TIFF file, in compressed strips. The strips are compressed in
+ * parallel on the compute pool, a bounded number at a time, and written in order through one file channel, so the
+ * file is written from start to end. The image file directories follow the image data. When the file would pass the 4
+ * GB that 32 bit offsets reach, it is written as a BigTIFF file with 64 bit offsets.
+ *
+ * <p>The directories hold the same tags as those written by FileTiff, with the strips, their compression and the
+ * horizontal predictor, so FileTiff reads the files back. As an OME-TIFF file, the first directory also holds an
+ * OME-XML description of the dimensions, so that the slices and time points of a 4D image are told apart by other
+ * readers.</p>
+ */
+public class TiffStripWriter extends FileBase {
+
+    //~ Static fields/initializers -------------------------------------------------------------------------------------
+
+    /** Largest offset of a classic TIFF file. */
+    private static final long CLASSIC_LIMIT = 0xFFFFFFFFL;
+
+    /** Bytes reserved at the start of the file for the header, enough for a BigTIFF header. */
+    private static final int HEADER_SIZE = 16;
+
+    /** Preferred number of uncompressed bytes per strip. */
+    private static final int STRIP_BYTES = 128 * 1024;
+
+    /** TIFF field type of ASCII strings. */
+    private static final int ASCII = 2;
+
+    /** TIFF field type of 16 bit unsigned integers. */
+    private static final int SHORT = 3;
+
+    /** TIFF field type of 32 bit unsigned integers. */
+    private static final int LONG = 4;
+
+    /** TIFF field type of fractions of two LONGs. */
+    private static final int RATIONAL = 5;
+
+    /** TIFF field type of doubles. */
+    private static final int DOUBLE = 12;
+
+    /** BigTIFF field type of 64 bit unsigned integers. */
+    private static final int LONG8 = 16;
+
+    /** Encoders of the compute workers, kept from one strip to the next. */
+    private static final ThreadLocal<TiffTileEncoder> encoders = new ThreadLocal<TiffTileEncoder>() {
+        protected TiffTileEncoder initialValue() {
+            return new TiffTileEncoder();
+        }
+    };
+
+    //~ Instance fields ------------------------------------------------------------------------------------------------
+
+    /** Whether 16 and 32 bit samples are written big endian. */
+    private boolean bigEndian;
+
+    /** Whether the file is written as BigTIFF even when it is smaller than 4 GB. */
+    private boolean bigTIFF;
+
+    /** Channel the file is written through. */
+    private FileChannel channel;
+
+    /** TIFF compression of the strips. */
+    private final int compression;
+
+    /** The file written. */
+    private final File file;
+
+    /** Whether an OME-XML description is written. */
+    private boolean omeXML;
+
+    /** Position of the channel. */
+    private long position;
+
+    //~ Constructors ---------------------------------------------------------------------------------------------------
+
+    /**
+     * Creates a writer.
+     *
+     * @param  file         the file to write
+     * @param  compression  TIFF compression of the strips, TiffTileDecoder.NONE, LZW, DEFLATE or PACKBITS
+     */
+    public TiffStripWriter(final File file, final int compression) {
+        this.file = file;
+        this.compression = compression;
+    }
+
+    //~ Methods --------------------------------------------------------------------------------------------------------
+
+    /**
+     * Returns whether the writer handles the data type of an image.
+     *
+     * @param   type  ModelStorageBase data type
+     *
+     * @return  false for boolean images, which FileTiff writes as bilevel images
+     */
+    public static boolean isSupported(final int type) {
+        return TiffStripWriter.bytesPerSample(type) > 0;
+    }
+
+    /**
+     * Sets whether the file is written as BigTIFF even when it is smaller than 4 GB.
+     *
+     * @param  bigTIFF  true to always write BigTIFF
+     */
+    public void setBigTIFF(final boolean bigTIFF) {
+        this.bigTIFF = bigTIFF;
+    }
+
+    /**
+     * Sets whether an OME-XML description of the image is written, which makes the file an OME-TIFF file.
+     *
+     * @param  omeXML  true to write OME-TIFF
+     */
+    public void setOMEXML(final boolean omeXML) {
+        this.omeXML = omeXML;
+    }
+
+    /**
+     * Writes slices and time points of an image, each slice as one image of the file with the time points outermost.
+     *
+     * @param   image       the image
+     * @param   LUT         LUT written as color map of 8 bit palette images, may be null
+     * @param   beginSlice  first slice written
+     * @param   endSlice    last slice written
+     * @param   beginTime   first time point written
+     * @param   endTime     last time point written
+     *
+     * @throws  IOException  if the file cannot be written
+     */
+    public void writeImage(final ModelImage image, final ModelLUT LUT, final int beginSlice, final int endSlice,
+            final int beginTime, final int endTime) throws IOException {
+        final int type = image.getType();
+        final int[] extents = image.getExtents();
+        final int width = extents[0];
+        final int height = extents[1];
+        final int zDim = (image.getNDims() > 2) ? extents[2] : 1;
+        final int samplesPerPixel = image.isColorImage() ? 3 : 1;
+        final int bytesPerSample = TiffStripWriter.bytesPerSample(type);
+        final int rowBytes = width * samplesPerPixel * bytesPerSample;
+        final int rowsPerStrip = Math.max(1, Math.min(height, STRIP_BYTES / Math.max(1, rowBytes)));
+        final int strips = (height + rowsPerStrip - 1) / rowsPerStrip;
+        final int slices = endSlice - beginSlice + 1;
+        final int pages = slices * (endTime - beginTime + 1);
+        final int compression = TiffStripWriter.compressed(type) ? this.compression : TiffTileDecoder.NONE;
+        final boolean predictor = ( (compression == TiffTileDecoder.LZW) || (compression == TiffTileDecoder.DEFLATE))
+                && TiffStripWriter.predicted(type);
+        final long[][] offsets = new long[pages][strips];
+        final long[][] byteCounts = new long[pages][strips];
+        final ArrayDeque<Future<byte[]>> pending = new ArrayDeque<Future<byte[]>>();
+        final int window = 4 * ThreadUtil.getAvailableCores();
+        int written = 0;
+
+        if (bytesPerSample == 0) {
+            throw new IOException("TiffStripWriter does not write images of type " + image.getTypeString());
+        }
+
+        bigEndian = image.getFileInfo(0).getEndianess();
+
+        final RandomAccessFile raFile = new RandomAccessFile(file, "rw");
+
+        try {
+            raFile.setLength(0);
+            channel = raFile.getChannel();
+            position = HEADER_SIZE;
+
+            for (int page = 0; page < pages; page++) {
+                final int slice = (page % slices) + beginSlice;
+                final int time = (page / slices) + beginTime;
+                final byte[] data = pageBytes(image, ( (time * zDim) + slice) * width * height, width * height);
+
+                for (int strip = 0; strip < strips; strip++) {
+                    final int start = strip * rowsPerStrip * rowBytes;
+                    final int rows = Math.min(rowsPerStrip, height - (strip * rowsPerStrip));
+
+                    pending.add(ThreadUtil.computePool.submit(new Callable<byte[]>() {
+                            public byte[] call() {
+
+                                if (predictor) {
+                                    TiffTileEncoder.applyPredictor(data, start, rows, width, samplesPerPixel,
+                                            8 * bytesPerSample, bigEndian);
+                                }
+
+                                return encoders.get().compress(compression, data, start, rows * rowBytes, rowBytes);
+                            }
+                        }));
+
+                    while (pending.size() > window) {
+                        writeStrip(pending.poll(), offsets, byteCounts, written++, strips);
+                    }
+                }
+
+                fireProgressStateChanged(Math.round( (100.0f * page) / pages));
+            }
+
+            while ( !pending.isEmpty()) {
+                writeStrip(pending.poll(), offsets, byteCounts, written++, strips);
+            }
+
+            writeDirectories(image, LUT, beginSlice, endSlice, beginTime, endTime, rowsPerStrip, compression,
+                    predictor, offsets, byteCounts);
+        } finally {
+
+            for (final Future<byte[]> future : pending) {
+                future.cancel(false);
+            }
+
+            channel = null;
+            raFile.close();
+        }
+    }
+
+    /**
+     * Returns the number of bytes per sample of a data type.
+     *
+     * @param   type  ModelStorageBase data type
+     *
+     * @return  the number of bytes of each sample of a pixel, or 0 if the type is not written
+     */
+    static int bytesPerSample(final int type) {
+
+        switch (type) {
+
+            case ModelStorageBase.BYTE:
+            case ModelStorageBase.UBYTE:
+            case ModelStorageBase.ARGB:
+                return 1;
+
+            case ModelStorageBase.SHORT:
+            case ModelStorageBase.USHORT:
+            case ModelStorageBase.ARGB_USHORT:
+                return 2;
+
+            case ModelStorageBase.INTEGER:
+            case ModelStorageBase.UINTEGER:
+            case ModelStorageBase.FLOAT:
+            case ModelStorageBase.ARGB_FLOAT:
+                return 4;
+
+            case ModelStorageBase.DOUBLE:
+                return 8;
+
+            default:
+                return 0;
+        }
+    }
+
+    /**
+     * Returns whether strips of a data type are compressed. FileTiff does not read compressed double and RGB float
+     * samples, so these are always written uncompressed.
+     *
+     * @param   type  ModelStorageBase data type
+     *
+     * @return  true if the strips are compressed as asked
+     */
+    private static boolean compressed(final int type) {
+        return (type != ModelStorageBase.DOUBLE) && (type != ModelStorageBase.ARGB_FLOAT);
+    }
+
+    /**
+     * Escapes the characters of a string that XML does not allow in attribute values, and those outside ASCII.
+     *
+     * @param   text  the string
+     *
+     * @return  the escaped string
+     */
+    private static String escape(final String text) {
+        final StringBuilder escaped = new StringBuilder(text.length());
+
+        for (int i = 0; i < text.length(); i++) {
+            final char c = text.charAt(i);
+
+            if (c == '&') {
+                escaped.append("&amp;");
+            } else if (c == '<') {
+                escaped.append("&lt;");
+            } else if (c == '>') {
+                escaped.append("&gt;");
+            } else if (c == '"') {
+                escaped.append("&quot;");
+            } else if ( (c < 32) || (c > 126)) {
+                escaped.append("&#").append((int) c).append(';');
+            } else {
+                escaped.append(c);
+            }
+        }
+
+        return escaped.toString();
+    }
+
+    /**
+     * Returns the OME pixel type of a data type.
+     *
+     * @param   type  ModelStorageBase data type
+     *
+     * @return  the pixel type
+     */
+    private static String omeType(final int type) {
+
+        switch (type) {
+
+            case ModelStorageBase.BYTE:
+                return "int8";
+
+            case ModelStorageBase.SHORT:
+                return "int16";
+
+            case ModelStorageBase.USHORT:
+            case ModelStorageBase.ARGB_USHORT:
+                return "uint16";
+
+            case ModelStorageBase.INTEGER:
+                return "int32";
+
+            case ModelStorageBase.UINTEGER:
+                return "uint32";
+
+            case ModelStorageBase.FLOAT:
+            case ModelStorageBase.ARGB_FLOAT:
+                return "float";
+
+            case ModelStorageBase.DOUBLE:
+                return "double";
+
+            default:
+                return "uint8";
+        }
+    }
+
+    /**
+     * Returns whether strips of a data type are written with the horizontal predictor. These are the types whose
+     * predicted strips FileTiff decodes.
+     *
+     * @param   type  ModelStorageBase data type
+     *
+     * @return  true for 8 and 16 bit samples
+     */
+    private static boolean predicted(final int type) {
+        return (type == ModelStorageBase.BYTE) || (type == ModelStorageBase.UBYTE) || (type == ModelStorageBase.SHORT)
+                || (type == ModelStorageBase.USHORT) || (type == ModelStorageBase.ARGB)
+                || (type == ModelStorageBase.ARGB_USHORT);
+    }
+
+    /**
+     * Adds the OME-XML attribute of a physical size, in micrometers or seconds, when the unit is known.
+     *
+     * @param  xml         the description
+     * @param  name        name of the attribute
+     * @param  fileInfo    file information of the image
+     * @param  dim         the dimension
+     * @param  resultUnit  unit of the attribute
+     */
+    private static void size(final StringBuilder xml, final String name, final FileInfoBase fileInfo, final int dim,
+            final Unit resultUnit) {
+
+        if (fileInfo.getResolutions().length <= dim) {
+            return;
+        }
+
+        final Unit unit = Unit.getUnitFromLegacyNum(fileInfo.getUnitsOfMeasure(dim));
+
+        if ( (unit.getType() == resultUnit.getType()) && (fileInfo.getResolutions()[dim] > 0)) {
+            xml.append(' ').append(name).append("=\"").append(unit.convertTo(fileInfo.getResolutions()[dim],
+                    resultUnit)).append('"');
+        }
+    }
+
+    /**
+     * Returns the OME-XML description of the image written.
+     *
+     * @param   image  the image
+     * @param   sizeZ  number of slices written
+     * @param   sizeT  number of time points written
+     *
+     * @return  the description
+     */
+    private String describe(final ModelImage image, final int sizeZ, final int sizeT) {
+        final StringBuilder xml = new StringBuilder();
+        final FileInfoBase fileInfo = image.getFileInfo(0);
+        final int samplesPerPixel = image.isColorImage() ? 3 : 1;
+        final String name = (image.getImageName() == null) ? file.getName() : image.getImageName();
+
+        xml.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>");
+        xml.append("<OME xmlns=\"http://www.openmicroscopy.org/Schemas/OME/2016-06\"");
+        xml.append(" xmlns:xsi=\"http://www.w3.org/2001/XMLSchema-instance\"");
+        xml.append(" xsi:schemaLocation=\"http://www.openmicroscopy.org/Schemas/OME/2016-06");
+        xml.append(" http://www.openmicroscopy.org/Schemas/OME/2016-06/ome.xsd\" Creator=\"MIPAV\">");
+        xml.append("<Image ID=\"Image:0\" Name=\"").append(TiffStripWriter.escape(name)).append("\">");
+        xml.append("<Pixels ID=\"Pixels:0\" DimensionOrder=\"XYCZT\" Type=\"").append(
+                TiffStripWriter.omeType(image.getType())).append('"');
+        xml.append(" SizeX=\"").append(image.getExtents()[0]).append('"');
+        xml.append(" SizeY=\"").append(image.getExtents()[1]).append('"');
+        xml.append(" SizeZ=\"").append(sizeZ).append("\" SizeC=\"").append(samplesPerPixel).append('"');
+        xml.append(" SizeT=\"").append(sizeT).append('"');
+        xml.append(" BigEndian=\"").append(bigEndian).append('"');
+        TiffStripWriter.size(xml, "PhysicalSizeX", fileInfo, 0, Unit.MICROMETERS);
+        TiffStripWriter.size(xml, "PhysicalSizeY", fileInfo, 1, Unit.MICROMETERS);
+
+        if (image.getNDims() > 2) {
+            TiffStripWriter.size(xml, "PhysicalSizeZ", fileInfo, 2, Unit.MICROMETERS);
+        }
+
+        if (image.getNDims() > 3) {
+            TiffStripWriter.size(xml, "TimeIncrement", fileInfo, 3, Unit.SECONDS);
+        }
+
+        xml.append('>');
+        xml.append("<Channel ID=\"Channel:0:0\" SamplesPerPixel=\"").append(samplesPerPixel).append("\"/>");
+        xml.append("<TiffData IFD=\"0\" PlaneCount=\"").append(sizeZ * sizeT).append("\"/>");
+        xml.append("</Pixels></Image></OME>");
+
+        return xml.toString();
+    }
+
+    /**
+     * Builds one image file directory, followed by the values that do not fit in its entries.
+     *
+     * @param   entries  the entries, sorted by tag
+     * @param   at       offset of the directory in the file
+     * @param   last     whether this is the last directory
+     * @param   big      whether the file is BigTIFF
+     *
+     * @return  the directory
+     */
+    private ByteBuffer directory(final ArrayList<Entry> entries, final long at, final boolean last,
+            final boolean big) {
+        final int inline = big ? 8 : 4;
+        final int head = big ? (8 + (20 * entries.size()) + 8) : (2 + (12 * entries.size()) + 4);
+        int size = head;
+
+        for (final Entry entry : entries) {
+
+            if (entry.value.length > inline) {
+                size += (entry.value.length + 1) & ~1;
+            }
+        }
+
+        final ByteBuffer buffer = ByteBuffer.allocate(size).order(bigEndian ? ByteOrder.BIG_ENDIAN
+                                                                            : ByteOrder.LITTLE_ENDIAN);
+        int extra = head;
+
+        if (big) {
+            buffer.putLong(entries.size());
+        } else {
+            buffer.putShort((short) entries.size());
+        }
+
+        for (final Entry entry : entries) {
+            buffer.putShort((short) entry.tag);
+            buffer.putShort((short) entry.type);
+
+            if (big) {
+                buffer.putLong(entry.count);
+            } else {
+                buffer.putInt((int) entry.count);
+            }
+
+            if (entry.value.length > inline) {
+
+                if (big) {
+                    buffer.putLong(at + extra);
+                } else {
+                    buffer.putInt((int) (at + extra));
+                }
+
+                System.arraycopy(entry.value, 0, buffer.array(), extra, entry.value.length);
+                extra += (entry.value.length + 1) & ~1;
+            } else {
+                buffer.put(entry.value);
+                buffer.position(buffer.position() + inline - entry.value.length);
+            }
+        }
+
+        if (big) {
+            buffer.putLong(last ? 0 : (at + size));
+        } else {
+            buffer.putInt(last ? 0 : (int) (at + size));
+        }
+
+        buffer.clear();
+
+        return buffer;
+    }
+
+    /**
+     * Builds the entries of the directory of one image of the file.
+     *
+     * @param   image         the image
+     * @param   LUT           LUT written as color map, may be null
+     * @param   index         index of the slice in the image
+     * @param   rowsPerStrip  rows per strip
+     * @param   compression   TIFF compression of the strips
+     * @param   predictor     whether the strips were written with the horizontal predictor
+     * @param   offsets       offsets of the strips
+     * @param   byteCounts    sizes of the strips
+     * @param   description   image description, or null
+     * @param   big           whether the file is BigTIFF
+     *
+     * @return  the entries, sorted by tag
+     */
+    private ArrayList<Entry> entries(final ModelImage image, final ModelLUT LUT, final int index,
+            final int rowsPerStrip, final int compression, final boolean predictor, final long[] offsets,
+            final long[] byteCounts, final byte[] description, final boolean big) {
+        final ArrayList<Entry> entries = new ArrayList<Entry>();
+        final FileInfoBase fileInfo = image.getFileInfo(Math.min(index, image.getFileInfo().length - 1));
+        final int type = image.getType();
+        final int bitsPerSample = 8 * TiffStripWriter.bytesPerSample(type);
+        final int samplesPerPixel = image.isColorImage() ? 3 : 1;
+        final int sampleFormat;
+        Unit resXYUnit = Unit.getUnitFromLegacyNum(fileInfo.getUnitsOfMeasure(0));
+        final Unit resYUnit = Unit.getUnitFromLegacyNum(fileInfo.getUnitsOfMeasure(1));
+        float xResol = fileInfo.getResolutions()[0];
+        float yResol = fileInfo.getResolutions()[1];
+        int photometric = fileInfo.getPhotometric();
+
+        if ( (type == ModelStorageBase.FLOAT) || (type == ModelStorageBase.DOUBLE)
+                || (type == ModelStorageBase.ARGB_FLOAT)) {
+            sampleFormat = 3;
+        } else if ( (type == ModelStorageBase.BYTE) || (type == ModelStorageBase.SHORT)
+                || (type == ModelStorageBase.INTEGER)) {
+            sampleFormat = 2;
+        } else {
+            sampleFormat = 1;
+        }
+
+        if (samplesPerPixel == 3) {
+            photometric = 2;
+        } else if ( (photometric == 3) && ( (LUT == null) || (bitsPerSample != 8))) {
+            photometric = 1;
+        } else if ( (photometric != 0) && (photometric != 3)) {
+            photometric = 1;
+        }
+
+        // TIFF only has inches and centimeters, as in FileTiff.writeIFDs
+        switch (resXYUnit) {
+
+            case INCHES:
+            case MILS:
+            case MILES:
+                xResol = (float) resXYUnit.convertTo(xResol, Unit.INCHES);
+                yResol = (float) resYUnit.convertTo(yResol, Unit.INCHES);
+                resXYUnit = Unit.INCHES;
+                break;
+
+            case CENTIMETERS:
+            case ANGSTROMS:
+            case NANOMETERS:
+            case MICROMETERS:
+            case METERS:
+            case MILLIMETERS:
+            case KILOMETERS:
+                xResol = (float) resXYUnit.convertTo(xResol, Unit.CENTIMETERS);
+                yResol = (float) resYUnit.convertTo(yResol, Unit.CENTIMETERS);
+                resXYUnit = Unit.CENTIMETERS;
+                break;
+
+            default:
+                resXYUnit = Unit.UNKNOWN_MEASURE;
+        }
+
+        entries.add(longs(FileTiff.IMAGE_WIDTH, LONG, image.getExtents()[0]));
+        entries.add(longs(FileTiff.IMAGE_LENGTH, LONG, image.getExtents()[1]));
+        entries.add(shorts(FileTiff.BITS_PER_SAMPLE, (samplesPerPixel == 3)
+                ? new int[] {bitsPerSample, bitsPerSample, bitsPerSample} : new int[] {bitsPerSample}));
+        entries.add(shorts(FileTiff.COMPRESSION, new int[] {compression}));
+        entries.add(shorts(FileTiff.PHOTO_INTERP, new int[] {photometric}));
+
+        if (description != null) {
+            entries.add(new Entry(FileTiff.IMAGE_DESCRIPTION, ASCII, description.length, description));
+        }
+
+        entries.add(longs(FileTiff.STRIP_OFFSETS, big ? LONG8 : LONG, offsets));
+        entries.add(shorts(FileTiff.SAMPLES_PER_PIXEL, new int[] {samplesPerPixel}));
+        entries.add(longs(FileTiff.ROWS_PER_STRIP, LONG, rowsPerStrip));
+        entries.add(longs(FileTiff.STRIP_BYTE_COUNTS, big ? LONG8 : LONG, byteCounts));
+        entries.add(rational(FileTiff.XRESOLUTION, xResol));
+        entries.add(rational(FileTiff.YRESOLUTION, yResol));
+
+        if (samplesPerPixel == 3) {
+            entries.add(shorts(FileTiff.PLANAR_CONFIG, new int[] {1}));
+        }
+
+        entries.add(shorts(FileTiff.RESOLUTION_UNIT,
+                new int[] {(resXYUnit == Unit.INCHES) ? 2 : ( (resXYUnit == Unit.CENTIMETERS) ? 3 : 1)}));
+
+        if (predictor) {
+            entries.add(shorts(FileTiff.PREDICTOR, new int[] {2}));
+        }
+
+        if (photometric == 3) {
+            final int[] colorMap = new int[768];
+
+            for (int i = 0; i < 256; i++) {
+                colorMap[i] = (int) (LUT.getFloat(1, i) + 0.5f);
+                colorMap[i + 256] = (int) (LUT.getFloat(2, i) + 0.5f);
+                colorMap[i + 512] = (int) (LUT.getFloat(3, i) + 0.5f);
+            }
+
+            entries.add(shorts(FileTiff.COLOR_MAP, colorMap));
+        }
+
+        entries.add(shorts(FileTiff.SAMPLE_FORMAT, (samplesPerPixel == 3)
+                ? new int[] {sampleFormat, sampleFormat, sampleFormat} : new int[] {sampleFormat}));
+
+        if ( (image.getNDims() > 2) && (fileInfo.getResolutions().length > 2) && (fileInfo.getResolutions()[2] >= 0)) {
+            final Unit resZUnit = Unit.getUnitFromLegacyNum(fileInfo.getUnitsOfMeasure(2));
+            double zRes = fileInfo.getResolutions()[2];
+
+            // The EchoTech standard uses mm for the ResolutionZ field
+            if (resZUnit != Unit.UNKNOWN_MEASURE) {
+                zRes = resZUnit.convertTo(zRes, Unit.MILLIMETERS);
+            }
+
+            entries.add(real(FileTiff.ZRESOLUTION, zRes));
+        }
+
+        if ( (image.getNDims() > 3) && (fileInfo.getResolutions().length > 3) && (fileInfo.getResolutions()[3] >= 0)) {
+            entries.add(real(FileTiff.TRESOLUTION, fileInfo.getResolutions()[3]));
+        }
+
+        Collections.sort(entries, new Comparator<Entry>() {
+                public int compare(final Entry a, final Entry b) {
+                    return a.tag - b.tag;
+                }
+            });
+
+        return entries;
+    }
+
+    /**
+     * Makes an entry of LONG or LONG8 values.
+     *
+     * @param   tag     the tag
+     * @param   type    LONG or LONG8
+     * @param   values  the values
+     *
+     * @return  the entry
+     */
+    private Entry longs(final int tag, final int type, final long... values) {
+        final ByteBuffer buffer = order(ByteBuffer.allocate(values.length * ( (type == LONG8) ? 8 : 4)));
+
+        for (final long value : values) {
+
+            if (type == LONG8) {
+                buffer.putLong(value);
+            } else {
+                buffer.putInt((int) value);
+            }
+        }
+
+        return new Entry(tag, type, values.length, buffer.array());
+    }
+
+    /**
+     * Sets the byte order of the file on a buffer.
+     *
+     * @param   buffer  the buffer
+     *
+     * @return  the buffer
+     */
+    private ByteBuffer order(final ByteBuffer buffer) {
+        return buffer.order(bigEndian ? ByteOrder.BIG_ENDIAN : ByteOrder.LITTLE_ENDIAN);
+    }
+
+    /**
+     * Exports the samples of one slice and lays them out as in the file, without the alpha of color images.
+     *
+     * @param   image   the image
+     * @param   start   index of the first pixel of the slice
+     * @param   pixels  number of pixels of the slice
+     *
+     * @return  the samples in the byte order of the file
+     *
+     * @throws  IOException  if the data cannot be exported
+     */
+    private byte[] pageBytes(final ModelImage image, final int start, final int pixels) throws IOException {
+        final int type = image.getType();
+        final int samplesPerPixel = image.isColorImage() ? 3 : 1;
+        final byte[] data = new byte[pixels * samplesPerPixel * TiffStripWriter.bytesPerSample(type)];
+        final ByteBuffer buffer = order(ByteBuffer.wrap(data));
+
+        switch (type) {
+
+            case ModelStorageBase.BYTE:
+            case ModelStorageBase.UBYTE:
+                image.exportData(start, pixels, data);
+                break;
+
+            case ModelStorageBase.SHORT:
+            case ModelStorageBase.USHORT: {
+                final short[] values = new short[pixels];
+
+                image.exportData(start, pixels, values);
+                buffer.asShortBuffer().put(values);
+                break;
+            }
+
+            case ModelStorageBase.INTEGER:
+            case ModelStorageBase.UINTEGER: {
+                final int[] values = new int[pixels];
+
+                image.exportData(start, pixels, values);
+                buffer.asIntBuffer().put(values);
+                break;
+            }
+
+            case ModelStorageBase.FLOAT: {
+                final float[] values = new float[pixels];
+
+                image.exportData(start, pixels, values);
+                buffer.asFloatBuffer().put(values);
+                break;
+            }
+
+            case ModelStorageBase.DOUBLE: {
+                final double[] values = new double[pixels];
+
+                image.exportData(start, pixels, values);
+                buffer.asDoubleBuffer().put(values);
+                break;
+            }
+
+            case ModelStorageBase.ARGB: {
+                final byte[] values = new byte[4 * pixels];
+
+                image.exportData(4 * start, 4 * pixels, values);
+
+                for (int i = 0; i < pixels; i++) {
+                    data[3 * i] = values[ (4 * i) + 1];
+                    data[ (3 * i) + 1] = values[ (4 * i) + 2];
+                    data[ (3 * i) + 2] = values[ (4 * i) + 3];
+                }
+
+                break;
+            }
+
+            case ModelStorageBase.ARGB_USHORT: {
+                final short[] values = new short[4 * pixels];
+
+                image.exportData(4 * start, 4 * pixels, values);
+
+                for (int i = 0; i < pixels; i++) {
+                    buffer.putShort(values[ (4 * i) + 1]);
+                    buffer.putShort(values[ (4 * i) + 2]);
+                    buffer.putShort(values[ (4 * i) + 3]);
+                }
+
+                break;
+            }
+
+            case ModelStorageBase.ARGB_FLOAT: {
+                final float[] values = new float[4 * pixels];
+
+                image.exportData(4 * start, 4 * pixels, values);
+
+                for (int i = 0; i < pixels; i++) {
+                    buffer.putFloat(values[ (4 * i) + 1]);
+                    buffer.putFloat(values[ (4 * i) + 2]);
+                    buffer.putFloat(values[ (4 * i) + 3]);
+                }
+
+                break;
+            }
+
+            default:
+                throw new IOException("TiffStripWriter does not write images of type " + image.getTypeString());
+        }
+
+        return data;
+    }
+
+    /**
+     * Makes an entry of one RATIONAL value. Like FileTiff, the resolution stored is the inverse of the pixel size.
+     *
+     * @param   tag         the tag
+     * @param   resolution  the pixel size
+     *
+     * @return  the entry
+     */
+    private Entry rational(final int tag, final float resolution) {
+        final ByteBuffer buffer = order(ByteBuffer.allocate(8));
+
+        // Largest int is 2,147,483,647
+        final int scale = (int) Math.min(2.0e9 / resolution, 2.0e9);
+
+        buffer.putInt(scale);
+        buffer.putInt((int) (scale * resolution));
+
+        return new Entry(tag, RATIONAL, 1, buffer.array());
+    }
+
+    /**
+     * Makes an entry of one DOUBLE value.
+     *
+     * @param   tag    the tag
+     * @param   value  the value
+     *
+     * @return  the entry
+     */
+    private Entry real(final int tag, final double value) {
+        return new Entry(tag, DOUBLE, 1, order(ByteBuffer.allocate(8)).putDouble(value).array());
+    }
+
+    /**
+     * Makes an entry of SHORT values.
+     *
+     * @param   tag     the tag
+     * @param   values  the values
+     *
+     * @return  the entry
+     */
+    private Entry shorts(final int tag, final int[] values) {
+        final ByteBuffer buffer = order(ByteBuffer.allocate(2 * values.length));
+
+        for (final int value : values) {
+            buffer.putShort((short) value);
+        }
+
+        return new Entry(tag, SHORT, values.length, buffer.array());
+    }
+
+    /**
+     * Writes a buffer at the position of the channel.
+     *
+     * @param   buffer  the buffer
+     *
+     * @throws  IOException  if the buffer cannot be written
+     */
+    private void write(final ByteBuffer buffer) throws IOException {
+
+        while (buffer.hasRemaining()) {
+            position += channel.write(buffer, position);
+        }
+    }
+
+    /**
+     * Writes the image file directories after the image data, then the header. The file is written as BigTIFF when
+     * this is set, or when a classic file would pass 4 GB.
+     *
+     * @param   image         the image
+     * @param   LUT           LUT written as color map, may be null
+     * @param   beginSlice    first slice written
+     * @param   endSlice      last slice written
+     * @param   beginTime     first time point written
+     * @param   endTime       last time point written
+     * @param   rowsPerStrip  rows per strip
+     * @param   compression   TIFF compression of the strips
+     * @param   predictor     whether the strips were written with the horizontal predictor
+     * @param   offsets       offsets of the strips of each image
+     * @param   byteCounts    sizes of the strips of each image
+     *
+     * @throws  IOException  if the directories cannot be written
+     */
+    private void writeDirectories(final ModelImage image, final ModelLUT LUT, final int beginSlice,
+            final int endSlice, final int beginTime, final int endTime, final int rowsPerStrip, final int compression,
+            final boolean predictor, final long[][] offsets, final long[][] byteCounts) throws IOException {
+        final int slices = endSlice - beginSlice + 1;
+        final int zDim = (image.getNDims() > 2) ? image.getExtents()[2] : 1;
+        final byte[] description = omeXML ? (describe(image, slices, endTime - beginTime + 1) + '\0').getBytes(
+                StandardCharsets.US_ASCII) : null;
+        final long first = (position + 1) & ~1L;
+        boolean big = bigTIFF;
+
+        if ( !big) {
+            long end = first;
+
+            for (int page = 0; (page < offsets.length) && (end <= CLASSIC_LIMIT); page++) {
+                final int index = ( ( (page / slices) + beginTime) * zDim) + (page % slices) + beginSlice;
+
+                end += directory(entries(image, LUT, index, rowsPerStrip, compression, predictor, offsets[page],
+                        byteCounts[page], (page == 0) ? description : null, false), end, true, false).capacity();
+            }
+
+            big = end > CLASSIC_LIMIT;
+        }
+
+        position = first;
+
+        for (int page = 0; page < offsets.length; page++) {
+            final int index = ( ( (page / slices) + beginTime) * zDim) + (page % slices) + beginSlice;
+
+            write(directory(entries(image, LUT, index, rowsPerStrip, compression, predictor, offsets[page],
+                    byteCounts[page], (page == 0) ? description : null, big), position, page == (offsets.length - 1),
+                    big));
+        }
+
+        final ByteBuffer header = order(ByteBuffer.allocate(HEADER_SIZE));
+
+        header.put((byte) (bigEndian ? 'M' : 'I'));
+        header.put((byte) (bigEndian ? 'M' : 'I'));
+
+        if (big) {
+            header.putShort((short) 43);
+            header.putShort((short) 8);
+            header.putShort((short) 0);
+            header.putLong(first);
+        } else {
+            header.putShort((short) 42);
+            header.putInt((int) first);
+        }
+
+        header.clear();
+        position = 0;
+        write(header);
+    }
+
+    /**
+     * Waits for a compressed strip and writes it at the end of the data written so far.
+     *
+     * @param   strip       the strip being compressed
+     * @param   offsets     offsets of the strips of each image, in which the offset of the strip is stored
+     * @param   byteCounts  sizes of the strips of each image, in which the size of the strip is stored
+     * @param   index       index of the strip in the file
+     * @param   strips      strips per image
+     *
+     * @throws  IOException  if the strip cannot be written
+     */
+    private void writeStrip(final Future<byte[]> strip, final long[][] offsets, final long[][] byteCounts,
+            final int index, final int strips) throws IOException {
+        final byte[] data;
+
+        try {
+            data = strip.get();
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while writing " + file.getName());
+        } catch (final ExecutionException e) {
+            throw new IOException("Cannot compress a strip of " + file.getName(), e.getCause());
+        }
+
+        offsets[index / strips][index % strips] = position;
+        byteCounts[index / strips][index % strips] = data.length;
+        write(ByteBuffer.wrap(data));
+
+        // strips start on word boundaries
+        if ( (position & 1) != 0) {
+            write(ByteBuffer.wrap(new byte[1]));
+        }
+    }
+
+    //~ Inner Classes --------------------------------------------------------------------------------------------------
+
+    /**
+     * One entry of an image file directory.
+     */
+    private static class Entry {
+
+        /** Number of values. */
+        final long count;
+
+        /** The tag. */
+        final int tag;
+
+        /** TIFF field type. */
+        final int type;
+
+        /** The values in the byte order of the file. */
+        final byte[] value;
+
+        /**
+         * Creates an entry.
+         *
+         * @param  tag    the tag
+         * @param  type   TIFF field type
+         * @param  count  number of values
+         * @param  value  the values in the byte order of the file
+         */
+        Entry(final int tag, final int type, final long count, final byte[] value) {
+            this.tag = tag;
+            this.type = type;
+            this.count = count;
+            this.value = value;
+        }
+    }
+}
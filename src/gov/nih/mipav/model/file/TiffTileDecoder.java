@@ -0,0 +1,432 @@
+package gov.nih.mipav.model.file;
+
+
+import java.awt.image.Raster;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+
+
+/**
+ * Decompresses single TIFF strips and tiles. Unlike the decompressers of FileTiff and FileSVS, which keep their tables
+ * in the reader, all state is held by the decoder, so several strips or tiles of one file can be decompressed at once
+ * with one decoder per thread. The decoder keeps its Inflater, LZW string table and JPEG reader from one strip to the
+ * next.
+ */
+public class TiffTileDecoder {
+
+    //~ Static fields/initializers -------------------------------------------------------------------------------------
+
+    /** TIFF compression tag value for uncompressed data. */
+    public static final int NONE = 1;
+
+    /** TIFF compression tag value for LZW. */
+    public static final int LZW = 5;
+
+    /** TIFF compression tag value for JPEG as of TIFF technical note 2. */
+    public static final int JPEG = 7;
+
+    /** TIFF compression tag value for Adobe deflate. */
+    public static final int DEFLATE = 8;
+
+    /** TIFF compression tag value for PackBits. */
+    public static final int PACKBITS = 32773;
+
+    /** Old TIFF compression tag value for deflate. */
+    public static final int DEFLATE_OLD = 32946;
+
+    /** Code that clears the LZW string table. */
+    private static final int CODE_CLEAR = 256;
+
+    /** LZW end of information code. */
+    private static final int CODE_EOI = 257;
+
+    /** First free entry of the LZW string table. */
+    private static final int CODE_FIRST = 258;
+
+    /** Size of the LZW string table, for codes of at most 12 bits. */
+    private static final int TABLE_SIZE = 4096;
+
+    //~ Instance fields ------------------------------------------------------------------------------------------------
+
+    /** Inflater for deflate compressed data, created when first needed. */
+    private Inflater inflater;
+
+    /** JPEG reader, created when first needed. */
+    private ImageReader jpegReader;
+
+    /** First byte of the string of each LZW code. */
+    private byte[] lzwFirst;
+
+    /** Length of the string of each LZW code. */
+    private int[] lzwLength;
+
+    /** Code of the string that each LZW code extends by one byte. */
+    private int[] lzwPrefix;
+
+    /** Last byte of the string of each LZW code. */
+    private byte[] lzwSuffix;
+
+    //~ Methods --------------------------------------------------------------------------------------------------------
+
+    /**
+     * Undoes the horizontal differencing predictor of TIFF (predictor 2) in place.
+     *
+     * @param  data             the decompressed samples
+     * @param  rows             number of rows in data
+     * @param  width            number of pixels per row
+     * @param  samplesPerPixel  number of samples per pixel stored together
+     * @param  bitsPerSample    8 or 16 bits per sample
+     * @param  bigEndian        byte order of 16 bit samples
+     */
+    public static void undoPredictor(final byte[] data, final int rows, final int width, final int samplesPerPixel,
+            final int bitsPerSample, final boolean bigEndian) {
+        final int rowSamples = width * samplesPerPixel;
+
+        if (bitsPerSample == 8) {
+
+            for (int row = 0; row < rows; row++) {
+                final int start = row * rowSamples;
+                final int end = Math.min(data.length, start + rowSamples);
+
+                for (int i = start + samplesPerPixel; i < end; i++) {
+                    data[i] += data[i - samplesPerPixel];
+                }
+            }
+        } else if (bitsPerSample == 16) {
+            final int high = bigEndian ? 0 : 1;
+            final int low = 1 - high;
+
+            for (int row = 0; row < rows; row++) {
+                final int start = 2 * row * rowSamples;
+                final int end = Math.min(data.length - 1, start + (2 * rowSamples));
+
+                for (int i = start + (2 * samplesPerPixel); i < end; i += 2) {
+                    final int previous = i - (2 * samplesPerPixel);
+                    final int value = ( ( ( (data[i + high] & 0xff) << 8) | (data[i + low] & 0xff))
+                            + ( ( (data[previous + high] & 0xff) << 8) | (data[previous + low] & 0xff)));
+
+                    data[i + high] = (byte) (value >>> 8);
+                    data[i + low] = (byte) value;
+                }
+            }
+        }
+    }
+
+    /**
+     * Decompresses a strip or tile.
+     *
+     * @param   compression  TIFF compression tag value, one of NONE, LZW, DEFLATE, DEFLATE_OLD and PACKBITS
+     * @param   in           the compressed data
+     * @param   inLength     number of compressed bytes
+     * @param   out          buffer receiving the decompressed data
+     *
+     * @return  number of bytes written to out
+     *
+     * @throws  IOException  if the data is corrupt or the compression is not supported
+     */
+    public int decompress(final int compression, final byte[] in, final int inLength, final byte[] out)
+            throws IOException {
+
+        switch (compression) {
+
+            case NONE:
+
+                final int count = Math.min(inLength, out.length);
+
+                System.arraycopy(in, 0, out, 0, count);
+
+                return count;
+
+            case LZW:
+                return decodeLZW(in, inLength, out);
+
+            case DEFLATE:
+            case DEFLATE_OLD:
+                return inflate(in, inLength, out);
+
+            case PACKBITS:
+                return unpackBits(in, inLength, out);
+
+            default:
+                throw new IOException("TIFF compression " + compression + " is not supported for tiled reading");
+        }
+    }
+
+    /**
+     * Decodes a JPEG compressed strip or tile. The samples are returned as stored, without color conversion, so a
+     * strip whose photometric interpretation is YCbCr is returned as YCbCr.
+     *
+     * @param   tables    contents of the JPEGTables tag, or null if the strip holds its own tables
+     * @param   in        the compressed data
+     * @param   inLength  number of compressed bytes
+     *
+     * @return  the decoded samples
+     *
+     * @throws  IOException  if the data cannot be decoded
+     */
+    public Raster decodeJPEG(final byte[] tables, final byte[] in, final int inLength) throws IOException {
+        byte[] stream = in;
+        int length = inLength;
+
+        if ( (tables != null) && (tables.length > 4) && (inLength > 2)) {
+
+            // the tables end with an EOI marker and the strip starts with an SOI marker, both of which are dropped
+            stream = new byte[tables.length - 2 + inLength - 2];
+            System.arraycopy(tables, 0, stream, 0, tables.length - 2);
+            System.arraycopy(in, 2, stream, tables.length - 2, inLength - 2);
+            length = stream.length;
+        }
+
+        if (jpegReader == null) {
+            final Iterator<ImageReader> readers = ImageIO.getImageReadersByFormatName("jpeg");
+
+            if ( !readers.hasNext()) {
+                throw new IOException("No JPEG reader available");
+            }
+
+            jpegReader = readers.next();
+        }
+
+        final ImageInputStream input = ImageIO.createImageInputStream(new ByteArrayInputStream(stream, 0, length));
+
+        try {
+            jpegReader.setInput(input, true, true);
+
+            return jpegReader.readRaster(0, null);
+        } finally {
+            jpegReader.setInput(null);
+            input.close();
+        }
+    }
+
+    /**
+     * Releases the JPEG reader and the Inflater.
+     */
+    public void dispose() {
+
+        if (jpegReader != null) {
+            jpegReader.dispose();
+            jpegReader = null;
+        }
+
+        if (inflater != null) {
+            inflater.end();
+            inflater = null;
+        }
+    }
+
+    /**
+     * Decodes TIFF LZW data, with codes of 9 to 12 bits that grow one code early as TIFF requires.
+     *
+     * @param   in        the compressed data
+     * @param   inLength  number of compressed bytes
+     * @param   out       buffer receiving the decompressed data
+     *
+     * @return  number of bytes written to out
+     *
+     * @throws  IOException  if a code is not in the string table
+     */
+    private int decodeLZW(final byte[] in, final int inLength, final byte[] out) throws IOException {
+
+        if (lzwPrefix == null) {
+            lzwPrefix = new int[TABLE_SIZE];
+            lzwSuffix = new byte[TABLE_SIZE];
+            lzwFirst = new byte[TABLE_SIZE];
+            lzwLength = new int[TABLE_SIZE];
+
+            for (int code = 0; code < 256; code++) {
+                lzwSuffix[code] = (byte) code;
+                lzwFirst[code] = (byte) code;
+                lzwLength[code] = 1;
+            }
+        }
+
+        int inPosition = 0;
+        int op = 0;
+        long bitBuffer = 0;
+        int bitCount = 0;
+        int codeLength = 9;
+        int next = CODE_FIRST;
+        int old = -1;
+
+        while (op < out.length) {
+
+            while (bitCount < codeLength) {
+
+                if (inPosition >= inLength) {
+                    return op;
+                }
+
+                bitBuffer = (bitBuffer << 8) | (in[inPosition++] & 0xff);
+                bitCount += 8;
+            }
+
+            bitCount -= codeLength;
+
+            final int code = (int) (bitBuffer >>> bitCount) & ( (1 << codeLength) - 1);
+
+            if (code == CODE_EOI) {
+                break;
+            } else if (code == CODE_CLEAR) {
+                next = CODE_FIRST;
+                codeLength = 9;
+                old = -1;
+
+                continue;
+            }
+
+            if (old == -1) {
+
+                if (code > 255) {
+                    throw new IOException("Corrupt LZW data: code " + code + " after a clear code");
+                }
+
+                out[op++] = (byte) code;
+                old = code;
+
+                continue;
+            }
+
+            final byte first;
+
+            if (code < next) {
+                op = writeString(code, out, op);
+                first = lzwFirst[code];
+            } else if (code == next) {
+                first = lzwFirst[old];
+                op = writeString(old, out, op);
+
+                if (op < out.length) {
+                    out[op++] = first;
+                }
+            } else {
+                throw new IOException("Corrupt LZW data: code " + code + " is not in the table");
+            }
+
+            if (next < TABLE_SIZE) {
+                lzwPrefix[next] = old;
+                lzwSuffix[next] = first;
+                lzwFirst[next] = lzwFirst[old];
+                lzwLength[next] = lzwLength[old] + 1;
+                next++;
+
+                if ( (next == ( (1 << codeLength) - 1)) && (codeLength < 12)) {
+                    codeLength++;
+                }
+            }
+
+            old = code;
+        }
+
+        return op;
+    }
+
+    /**
+     * Inflates deflate compressed data.
+     *
+     * @param   in        the compressed data
+     * @param   inLength  number of compressed bytes
+     * @param   out       buffer receiving the decompressed data
+     *
+     * @return  number of bytes written to out
+     *
+     * @throws  IOException  if the data is corrupt
+     */
+    private int inflate(final byte[] in, final int inLength, final byte[] out) throws IOException {
+
+        if (inflater == null) {
+            inflater = new Inflater();
+        } else {
+            inflater.reset();
+        }
+
+        inflater.setInput(in, 0, inLength);
+
+        int op = 0;
+
+        try {
+
+            while ( (op < out.length) && !inflater.finished()) {
+                final int count = inflater.inflate(out, op, out.length - op);
+
+                if ( (count == 0) && (inflater.needsInput() || inflater.needsDictionary())) {
+                    break;
+                }
+
+                op += count;
+            }
+        } catch (final DataFormatException e) {
+            throw new IOException("Corrupt deflate data: " + e.getMessage());
+        }
+
+        return op;
+    }
+
+    /**
+     * Unpacks PackBits compressed data.
+     *
+     * @param   in        the compressed data
+     * @param   inLength  number of compressed bytes
+     * @param   out       buffer receiving the decompressed data
+     *
+     * @return  number of bytes written to out
+     */
+    private static int unpackBits(final byte[] in, final int inLength, final byte[] out) {
+        int inPosition = 0;
+        int op = 0;
+
+        while ( (inPosition < inLength) && (op < out.length)) {
+            final int n = in[inPosition++];
+
+            if (n >= 0) {
+                final int count = Math.min(Math.min(n + 1, inLength - inPosition), out.length - op);
+
+                System.arraycopy(in, inPosition, out, op, count);
+                inPosition += n + 1;
+                op += count;
+            } else if ( (n != -128) && (inPosition < inLength)) {
+                final byte value = in[inPosition++];
+                final int end = Math.min(out.length, op - n + 1);
+
+                while (op < end) {
+                    out[op++] = value;
+                }
+            }
+        }
+
+        return op;
+    }
+
+    /**
+     * Writes the string of an LZW code.
+     *
+     * @param   code  the code
+     * @param   out   the output buffer
+     * @param   op    position of the string in out
+     *
+     * @return  position after the string, which is cut off at the end of out
+     */
+    private int writeString(final int code, final byte[] out, final int op) {
+        final int length = lzwLength[code];
+        int c = code;
+
+        for (int k = length - 1; k >= 0; k--) {
+
+            if ( (op + k) < out.length) {
+                out[op + k] = lzwSuffix[c];
+            }
+
+            c = lzwPrefix[c];
+        }
+
+        return Math.min(out.length, op + length);
+    }
+}
@@ -0,0 +1,377 @@
+package gov.nih.mipav.model.file;
+
+
+import java.util.Arrays;
+import java.util.zip.Deflater;
+
+
+/**
+ * Compresses single TIFF strips and tiles, the counterpart of TiffTileDecoder. All state is held by the encoder, so
+ * the strips of one file can be compressed at once with one encoder per thread. The encoder keeps its Deflater, LZW
+ * string table and output buffer from one strip to the next.
+ */
+public class TiffTileEncoder {
+
+    //~ Static fields/initializers -------------------------------------------------------------------------------------
+
+    /** Code that clears the LZW string table. */
+    private static final int CODE_CLEAR = 256;
+
+    /** LZW end of information code. */
+    private static final int CODE_EOI = 257;
+
+    /** First free entry of the LZW string table. */
+    private static final int CODE_FIRST = 258;
+
+    /** Entry of the LZW string table at which the table is cleared, so that codes never exceed 12 bits. */
+    private static final int CODE_LIMIT = 4094;
+
+    /** Size of the hash table of the LZW strings, a power of 2 well above the 4096 strings of a full table. */
+    private static final int HASH_SIZE = 16384;
+
+    //~ Instance fields ------------------------------------------------------------------------------------------------
+
+    /** Deflater for deflate compression, created when first needed. */
+    private Deflater deflater;
+
+    /** Deflate compression level. */
+    private final int deflateLevel;
+
+    /** Code of each entry of the LZW hash table. */
+    private short[] hashCode;
+
+    /** Table generation in which each entry of the LZW hash table was set, so a clear does not touch the table. */
+    private int[] hashGeneration;
+
+    /** Prefix code and suffix byte of each entry of the LZW hash table. */
+    private int[] hashKey;
+
+    /** Current generation of the LZW hash table. */
+    private int generation;
+
+    /** Compressed data of the last strip. */
+    private byte[] out = new byte[0];
+
+    /** Bytes of out in use. */
+    private int outLength;
+
+    /** Bits waiting to be written by the LZW encoder. */
+    private int bitBuffer;
+
+    /** Number of bits in bitBuffer. */
+    private int bitCount;
+
+    //~ Constructors ---------------------------------------------------------------------------------------------------
+
+    /**
+     * Creates an encoder that deflates with the default compression level.
+     */
+    public TiffTileEncoder() {
+        this(Deflater.DEFAULT_COMPRESSION);
+    }
+
+    /**
+     * Creates an encoder.
+     *
+     * @param  deflateLevel  deflate compression level, from 1 for the fastest to 9 for the smallest
+     */
+    public TiffTileEncoder(final int deflateLevel) {
+        this.deflateLevel = deflateLevel;
+    }
+
+    //~ Methods --------------------------------------------------------------------------------------------------------
+
+    /**
+     * Applies the horizontal differencing predictor of TIFF (predictor 2) in place, the inverse of
+     * TiffTileDecoder.undoPredictor().
+     *
+     * @param  data             the samples
+     * @param  offset           index of the first byte of the rows in data
+     * @param  rows             number of rows
+     * @param  width            number of pixels per row
+     * @param  samplesPerPixel  number of samples per pixel stored together
+     * @param  bitsPerSample    8 or 16 bits per sample
+     * @param  bigEndian        byte order of 16 bit samples
+     */
+    public static void applyPredictor(final byte[] data, final int offset, final int rows, final int width,
+            final int samplesPerPixel, final int bitsPerSample, final boolean bigEndian) {
+        final int rowSamples = width * samplesPerPixel;
+
+        if (bitsPerSample == 8) {
+
+            for (int row = 0; row < rows; row++) {
+                final int start = offset + (row * rowSamples);
+
+                for (int i = start + rowSamples - 1; i >= (start + samplesPerPixel); i--) {
+                    data[i] -= data[i - samplesPerPixel];
+                }
+            }
+        } else if (bitsPerSample == 16) {
+            final int high = bigEndian ? 0 : 1;
+            final int low = 1 - high;
+
+            for (int row = 0; row < rows; row++) {
+                final int start = offset + (2 * row * rowSamples);
+
+                for (int i = start + (2 * (rowSamples - 1)); i >= (start + (2 * samplesPerPixel)); i -= 2) {
+                    final int previous = i - (2 * samplesPerPixel);
+                    final int value = ( ( (data[i + high] & 0xff) << 8) | (data[i + low] & 0xff))
+                            - ( ( (data[previous + high] & 0xff) << 8) | (data[previous + low] & 0xff));
+
+                    data[i + high] = (byte) (value >>> 8);
+                    data[i + low] = (byte) value;
+                }
+            }
+        }
+    }
+
+    /**
+     * Compresses a strip or tile.
+     *
+     * @param   compression  TIFF compression, TiffTileDecoder.NONE, LZW, DEFLATE or PACKBITS
+     * @param   in           the samples
+     * @param   offset       index of the first byte of the strip in in
+     * @param   length       number of bytes of the strip
+     * @param   rowBytes     number of bytes per row, since PackBits packs each row on its own
+     *
+     * @return  the compressed strip
+     */
+    public byte[] compress(final int compression, final byte[] in, final int offset, final int length,
+            final int rowBytes) {
+
+        switch (compression) {
+
+            case TiffTileDecoder.LZW:
+                encodeLZW(in, offset, length);
+                break;
+
+            case TiffTileDecoder.DEFLATE:
+            case TiffTileDecoder.DEFLATE_OLD:
+                deflate(in, offset, length);
+                break;
+
+            case TiffTileDecoder.PACKBITS:
+                outLength = 0;
+
+                for (int row = offset; row < (offset + length); row += rowBytes) {
+                    packBits(in, row, Math.min(rowBytes, offset + length - row));
+                }
+
+                break;
+
+            case TiffTileDecoder.NONE:
+                return Arrays.copyOfRange(in, offset, offset + length);
+
+            default:
+                throw new IllegalArgumentException("Unsupported TIFF compression " + compression);
+        }
+
+        return Arrays.copyOf(out, outLength);
+    }
+
+    /**
+     * Frees the Deflater.
+     */
+    public void dispose() {
+
+        if (deflater != null) {
+            deflater.end();
+            deflater = null;
+        }
+
+        hashKey = null;
+        hashCode = null;
+        hashGeneration = null;
+        out = new byte[0];
+    }
+
+    /**
+     * Deflates a strip into out.
+     *
+     * @param  in      the samples
+     * @param  offset  index of the first byte of the strip
+     * @param  length  number of bytes of the strip
+     */
+    private void deflate(final byte[] in, final int offset, final int length) {
+
+        if (deflater == null) {
+            deflater = new Deflater(deflateLevel);
+        }
+
+        deflater.reset();
+        deflater.setInput(in, offset, length);
+        deflater.finish();
+        ensure(length + (length >> 8) + 64);
+        outLength = 0;
+
+        while ( !deflater.finished()) {
+
+            if (outLength == out.length) {
+                ensure(2 * out.length);
+            }
+
+            outLength += deflater.deflate(out, outLength, out.length - outLength);
+        }
+    }
+
+    /**
+     * LZW compresses a strip into out, with the code lengths and table clears of TIFF and libtiff.
+     *
+     * @param  in      the samples
+     * @param  offset  index of the first byte of the strip
+     * @param  length  number of bytes of the strip
+     */
+    private void encodeLZW(final byte[] in, final int offset, final int length) {
+
+        if (hashKey == null) {
+            hashKey = new int[HASH_SIZE];
+            hashCode = new short[HASH_SIZE];
+            hashGeneration = new int[HASH_SIZE];
+        }
+
+        // LZW grows at most 12 bits per byte, plus the clear and end codes
+        ensure( ( (3 * length) / 2) + 16);
+        outLength = 0;
+        bitBuffer = 0;
+        bitCount = 0;
+        generation++;
+
+        int codeLength = 9;
+        int next = CODE_FIRST;
+
+        putCode(CODE_CLEAR, codeLength);
+
+        if (length == 0) {
+            putCode(CODE_EOI, codeLength);
+            flushBits();
+
+            return;
+        }
+
+        int code = in[offset] & 0xff;
+
+        for (int i = offset + 1; i < (offset + length); i++) {
+            final int value = in[i] & 0xff;
+            final int key = (code << 8) | value;
+            int slot = ( (key * 0x9E3779B1) >>> 18) & (HASH_SIZE - 1);
+
+            while ( (hashGeneration[slot] == generation) && (hashKey[slot] != key)) {
+                slot = (slot + 1) & (HASH_SIZE - 1);
+            }
+
+            if (hashGeneration[slot] == generation) {
+                code = hashCode[slot];
+
+                continue;
+            }
+
+            putCode(code, codeLength);
+            hashGeneration[slot] = generation;
+            hashKey[slot] = key;
+            hashCode[slot] = (short) next++;
+            code = value;
+
+            if (next == CODE_LIMIT) {
+                putCode(CODE_CLEAR, codeLength);
+                generation++;
+                next = CODE_FIRST;
+                codeLength = 9;
+            } else if (next == (1 << codeLength)) {
+                codeLength++;
+            }
+        }
+
+        putCode(code, codeLength);
+        next++;
+
+        if ( (next != CODE_LIMIT) && (next == (1 << codeLength))) {
+            codeLength++;
+        }
+
+        putCode(CODE_EOI, codeLength);
+        flushBits();
+    }
+
+    /**
+     * Makes out hold at least a number of bytes, keeping its content.
+     *
+     * @param  size  number of bytes
+     */
+    private void ensure(final int size) {
+
+        if (out.length < size) {
+            out = Arrays.copyOf(out, size);
+        }
+    }
+
+    /**
+     * Writes the bits of the LZW encoder that do not fill a byte.
+     */
+    private void flushBits() {
+
+        if (bitCount > 0) {
+            out[outLength++] = (byte) (bitBuffer << (8 - bitCount));
+        }
+    }
+
+    /**
+     * PackBits compresses one row and adds it to out.
+     *
+     * @param  in      the samples
+     * @param  offset  index of the first byte of the row
+     * @param  length  number of bytes of the row
+     */
+    private void packBits(final byte[] in, final int offset, final int length) {
+        ensure(outLength + length + ( (length + 127) / 128));
+
+        final int end = offset + length;
+        int i = offset;
+
+        while (i < end) {
+            int run = 1;
+
+            while ( (run < 128) && ( (i + run) < end) && (in[i + run] == in[i])) {
+                run++;
+            }
+
+            if (run > 1) {
+                out[outLength++] = (byte) (1 - run);
+                out[outLength++] = in[i];
+                i += run;
+            } else {
+
+                // copy literally up to the next run of at least 3 equal bytes
+                int literal = 1;
+
+                while ( (literal < 128) && ( (i + literal) < end)
+                        && ! ( ( (i + literal + 2) < end) && (in[i + literal] == in[i + literal + 1])
+                                && (in[i + literal] == in[i + literal + 2]))) {
+                    literal++;
+                }
+
+                out[outLength++] = (byte) (literal - 1);
+                System.arraycopy(in, i, out, outLength, literal);
+                outLength += literal;
+                i += literal;
+            }
+        }
+    }
+
+    /**
+     * Adds an LZW code to out, most significant bit first.
+     *
+     * @param  code        the code
+     * @param  codeLength  number of bits of the code
+     */
+    private void putCode(final int code, final int codeLength) {
+        bitBuffer = (bitBuffer << codeLength) | code;
+        bitCount += codeLength;
+
+        while (bitCount >= 8) {
+            bitCount -= 8;
+            out[outLength++] = (byte) (bitBuffer >>> bitCount);
+        }
+
+        bitBuffer &= (1 << bitCount) - 1;
+    }
+}
@@ -0,0 +1,576 @@
+package gov.nih.mipav.model.file;
+
+
+import gov.nih.mipav.view.Preferences;
+
+import java.awt.image.Raster;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.HashSet;
+
+
+/**
+ * Resolution pyramid of a tiled TIFF file, such as an Aperio SVS whole-slide image, a pyramidal BigTIFF or an
+ * OME-TIFF with its reduced levels in SubIFDs. Only the image file directories are read when the source is opened;
+ * tiles are read and decoded one at a time when asked for. The full resolution image is the first directory, and the
+ * levels are the following tiled directories that are smaller and have its aspect ratio, which leaves out the
+ * thumbnail, label and macro images of SVS files. A file in strips is read as a single level whose tiles are its
+ * strips.
+ *
+ * <p>Uncompressed, LZW, deflate, PackBits and JPEG compressed levels of 8 or 16 bit gray or RGB samples can be read.
+ * JPEG 2000 compressed SVS files cannot.</p>
+ */
+public class TiffTileSource implements TiledImageSource {
+
+    //~ Static fields/initializers -------------------------------------------------------------------------------------
+
+    /** TIFF tags read. */
+    private static final int IMAGE_WIDTH = 256, IMAGE_LENGTH = 257, BITS_PER_SAMPLE = 258, COMPRESSION = 259,
+            PHOTOMETRIC = 262, STRIP_OFFSETS = 273, SAMPLES_PER_PIXEL = 277, ROWS_PER_STRIP = 278,
+            STRIP_BYTE_COUNTS = 279, PLANAR_CONFIGURATION = 284, PREDICTOR = 317, TILE_WIDTH = 322, TILE_LENGTH = 323,
+            TILE_OFFSETS = 324, TILE_BYTE_COUNTS = 325, SUB_IFDS = 330, JPEG_TABLES = 347;
+
+    /** Photometric interpretations handled. */
+    private static final int WHITE_IS_ZERO = 0, RGB = 2, YCBCR = 6;
+
+    /** Largest number of directories followed, as a guard against loops in corrupt files. */
+    private static final int MAX_DIRECTORIES = 100000;
+
+    //~ Instance fields ------------------------------------------------------------------------------------------------
+
+    /** Decoder of each thread reading tiles. */
+    private final ThreadLocal<TiffTileDecoder> decoders = new ThreadLocal<TiffTileDecoder>() {
+        protected TiffTileDecoder initialValue() {
+            return new TiffTileDecoder();
+        }
+    };
+
+    /** Byte order and offset size of the file. */
+    private final TiffHeader header;
+
+    /** The pyramid levels, from the full resolution image down. */
+    private final ArrayList<Directory> levels = new ArrayList<Directory>();
+
+    /** The file, shared by the threads reading tiles. */
+    private final RandomAccessFile raFile;
+
+    //~ Constructors ---------------------------------------------------------------------------------------------------
+
+    /**
+     * Opens a TIFF file and reads its image file directories.
+     *
+     * @param   file  the file
+     *
+     * @throws  IOException  if the file is not a TIFF file or its first image cannot be read in tiles
+     */
+    public TiffTileSource(final File file) throws IOException {
+        raFile = new RandomAccessFile(file, "r");
+
+        try {
+            header = TiffHeader.read(raFile);
+
+            final ArrayList<Directory> directories = new ArrayList<Directory>();
+            final HashSet<Long> visited = new HashSet<Long>();
+            long offset = header.readOffset();
+
+            while ( (offset != 0) && (directories.size() < MAX_DIRECTORIES) && visited.add(offset)) {
+                final Directory directory = new Directory();
+
+                offset = readDirectory(offset, directory);
+                directories.add(directory);
+            }
+
+            if (directories.isEmpty()) {
+                throw new IOException("TIFF file has no image");
+            }
+
+            final Directory full = directories.get(0);
+
+            checkSupported(full);
+            levels.add(full);
+
+            ArrayList<Directory> candidates = directories;
+
+            if ( (full.subIFDs != null) && (full.subIFDs.length > 0)) {
+
+                // OME-TIFF pyramids keep the reduced levels of each plane in its SubIFDs
+                candidates = new ArrayList<Directory>();
+
+                for (final long subIFD : full.subIFDs) {
+                    final Directory directory = new Directory();
+
+                    readDirectory(subIFD, directory);
+                    candidates.add(directory);
+                }
+            }
+
+            for (final Directory directory : candidates) {
+                final Directory previous = levels.get(levels.size() - 1);
+
+                if ( (directory != full) && (directory.tiled == full.tiled) && (directory.width < previous.width)
+                        && (directory.height <= previous.height) && sameAspect(full, directory)
+                        && isSupported(directory)) {
+                    levels.add(directory);
+                }
+            }
+        } catch (final IOException e) {
+            raFile.close();
+
+            throw e;
+        }
+
+        Preferences.debug("TiffTileSource: " + file.getName() + " has " + levels.size() + " pyramid levels\n",
+                Preferences.DEBUG_FILEIO);
+    }
+
+    //~ Methods --------------------------------------------------------------------------------------------------------
+
+    /**
+     * Closes the file.
+     *
+     * @throws  IOException  if the file cannot be closed
+     */
+    public void close() throws IOException {
+        raFile.close();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public int getLevelCount() {
+        return levels.size();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public int getLevelHeight(final int level) {
+        return levels.get(level).height;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public int getLevelWidth(final int level) {
+        return levels.get(level).width;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public int getTileHeight(final int level) {
+        return levels.get(level).tileHeight;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public int getTileWidth(final int level) {
+        return levels.get(level).tileWidth;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public int[] readTile(final int level, final int tileX, final int tileY) throws IOException {
+        final Directory directory = levels.get(level);
+        final int tilesAcross = (directory.width + directory.tileWidth - 1) / directory.tileWidth;
+        final int index = (tileY * tilesAcross) + tileX;
+        final int[] tile = new int[directory.tileWidth * directory.tileHeight];
+
+        if ( (index < 0) || (index >= directory.offsets.length) || (directory.byteCounts[index] <= 0)) {
+            return tile;
+        }
+
+        final byte[] compressed = new byte[(int) directory.byteCounts[index]];
+
+        synchronized (raFile) {
+            raFile.seek(directory.offsets[index]);
+            raFile.readFully(compressed);
+        }
+
+        final TiffTileDecoder decoder = decoders.get();
+
+        if (directory.compression == TiffTileDecoder.JPEG) {
+            final Raster raster = decoder.decodeJPEG(directory.jpegTables, compressed, compressed.length);
+
+            toARGB(directory, raster, tile);
+
+            return tile;
+        }
+
+        final int bytesPerSample = directory.bitsPerSample / 8;
+        final byte[] samples = new byte[directory.tileWidth * directory.tileHeight * directory.samplesPerPixel
+                * bytesPerSample];
+        final int count = decoder.decompress(directory.compression, compressed, compressed.length, samples);
+        final int rows = count / (directory.tileWidth * directory.samplesPerPixel * bytesPerSample);
+
+        if (directory.predictor == 2) {
+            TiffTileDecoder.undoPredictor(samples, rows, directory.tileWidth, directory.samplesPerPixel,
+                    directory.bitsPerSample, header.isBigEndian());
+        }
+
+        toARGB(directory, samples, tile);
+
+        return tile;
+    }
+
+    /**
+     * Throws an exception if the tiles of a directory cannot be decoded.
+     *
+     * @param   directory  the directory
+     *
+     * @throws  IOException  describing why the directory cannot be read
+     */
+    private static void checkSupported(final Directory directory) throws IOException {
+
+        if ( (directory.width <= 0) || (directory.height <= 0) || (directory.offsets == null)
+                || (directory.byteCounts == null)) {
+            throw new IOException("TIFF image has no strips or tiles");
+        }
+
+        if ( (directory.bitsPerSample != 8) && (directory.bitsPerSample != 16)) {
+            throw new IOException(directory.bitsPerSample + " bits per sample cannot be read in tiles");
+        }
+
+        if ( (directory.planarConfiguration != 1) && (directory.samplesPerPixel > 1)) {
+            throw new IOException("Planar TIFF images cannot be read in tiles");
+        }
+
+        switch (directory.compression) {
+
+            case TiffTileDecoder.NONE:
+            case TiffTileDecoder.LZW:
+            case TiffTileDecoder.DEFLATE:
+            case TiffTileDecoder.DEFLATE_OLD:
+            case TiffTileDecoder.PACKBITS:
+                if ( (directory.photometric == YCBCR) && (directory.samplesPerPixel > 1)) {
+                    throw new IOException("Uncompressed YCbCr TIFF images cannot be read in tiles");
+                }
+
+                break;
+
+            case TiffTileDecoder.JPEG:
+                if (directory.bitsPerSample != 8) {
+                    throw new IOException("JPEG compressed TIFF images must have 8 bits per sample");
+                }
+
+                break;
+
+            default:
+                throw new IOException("TIFF compression " + directory.compression + " cannot be read in tiles");
+        }
+    }
+
+    /**
+     * Returns true if the tiles of a directory can be decoded.
+     *
+     * @param   directory  the directory
+     *
+     * @return  true if supported
+     */
+    private static boolean isSupported(final Directory directory) {
+
+        try {
+            checkSupported(directory);
+
+            return true;
+        } catch (final IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Returns true if an image has the aspect ratio of the full resolution image, allowing for the rounding of the
+     * reduced sizes.
+     *
+     * @param   full       the full resolution image
+     * @param   directory  the image compared
+     *
+     * @return  true if it may be a level of the pyramid
+     */
+    private static boolean sameAspect(final Directory full, final Directory directory) {
+        final double expected = (double) full.height * directory.width / full.width;
+
+        return Math.abs(directory.height - expected) <= Math.max(2.0, 0.01 * expected);
+    }
+
+    /**
+     * Converts a sample value to 8 bits.
+     *
+     * @param   directory  the directory of the samples
+     * @param   samples    the samples
+     * @param   i          index of the sample
+     *
+     * @return  the 8 bit value
+     */
+    private int sample8(final Directory directory, final byte[] samples, final int i) {
+
+        if (directory.bitsPerSample == 8) {
+            return samples[i] & 0xff;
+        } else if (header.isBigEndian()) {
+            return samples[2 * i] & 0xff;
+        } else {
+            return samples[(2 * i) + 1] & 0xff;
+        }
+    }
+
+    /**
+     * Converts the decoded samples of a JPEG compressed tile to ARGB.
+     *
+     * @param  directory  the directory of the tile
+     * @param  raster     the decoded samples
+     * @param  tile       the tile receiving the pixels
+     */
+    private static void toARGB(final Directory directory, final Raster raster, final int[] tile) {
+        final int width = Math.min(directory.tileWidth, raster.getWidth());
+        final int height = Math.min(directory.tileHeight, raster.getHeight());
+        final int bands = raster.getNumBands();
+        final int[] row = new int[width * bands];
+
+        for (int y = 0; y < height; y++) {
+            raster.getPixels(raster.getMinX(), raster.getMinY() + y, width, 1, row);
+
+            for (int x = 0, i = 0; x < width; x++, i += bands) {
+                int r = row[i];
+                int g = r;
+                int b = r;
+
+                if (bands >= 3) {
+                    g = row[i + 1];
+                    b = row[i + 2];
+
+                    if (directory.photometric == YCBCR) {
+                        final double cb = g - 128.0;
+                        final double cr = b - 128.0;
+                        final double luma = r;
+
+                        r = clamp(luma + (1.402 * cr));
+                        g = clamp(luma - (0.344136 * cb) - (0.714136 * cr));
+                        b = clamp(luma + (1.772 * cb));
+                    }
+                }
+
+                tile[(y * directory.tileWidth) + x] = 0xff000000 | (r << 16) | (g << 8) | b;
+            }
+        }
+    }
+
+    /**
+     * Rounds and clamps a color value to 0 - 255.
+     *
+     * @param   value  the value
+     *
+     * @return  the clamped value
+     */
+    private static int clamp(final double value) {
+        return (int) Math.max(0, Math.min(255, Math.round(value)));
+    }
+
+    /**
+     * Converts the decompressed samples of a tile to ARGB.
+     *
+     * @param  directory  the directory of the tile
+     * @param  samples    the samples, interleaved
+     * @param  tile       the tile receiving the pixels
+     */
+    private void toARGB(final Directory directory, final byte[] samples, final int[] tile) {
+        final int spp = directory.samplesPerPixel;
+
+        for (int p = 0, i = 0; p < tile.length; p++, i += spp) {
+            int r = sample8(directory, samples, i);
+            int g = r;
+            int b = r;
+
+            if ( (spp >= 3) && (directory.photometric == RGB)) {
+                g = sample8(directory, samples, i + 1);
+                b = sample8(directory, samples, i + 2);
+            } else if (directory.photometric == WHITE_IS_ZERO) {
+                r = g = b = 255 - r;
+            }
+
+            tile[p] = 0xff000000 | (r << 16) | (g << 8) | b;
+        }
+    }
+
+    /**
+     * Reads an image file directory.
+     *
+     * @param   offset     position of the directory in the file
+     * @param   directory  receives the tags
+     *
+     * @return  the position of the next directory, or 0 if this is the last one
+     *
+     * @throws  IOException  if the directory cannot be read
+     */
+    private long readDirectory(final long offset, final Directory directory) throws IOException {
+        raFile.seek(offset);
+
+        final long entries = header.readEntryCount();
+        final long first = offset + header.getEntryCountSize();
+        long[] stripOffsets = null;
+        long[] stripByteCounts = null;
+        long[] tileOffsets = null;
+        long[] tileByteCounts = null;
+        int rowsPerStrip = Integer.MAX_VALUE;
+
+        for (long n = 0; n < entries; n++) {
+            raFile.seek(first + (n * header.getEntrySize()));
+
+            final int tag = header.readUnsignedShort();
+            final int type = header.readUnsignedShort();
+            final long count = header.readValueCount();
+            final int size = count > Integer.MAX_VALUE ? Integer.MAX_VALUE : (int) (count * TiffHeader.typeSize(type));
+
+            if (size > 4) {
+                raFile.seek(header.readValueOffset(size));
+            }
+
+            switch (tag) {
+
+                case IMAGE_WIDTH:
+                    directory.width = (int) header.readValue(type);
+                    break;
+
+                case IMAGE_LENGTH:
+                    directory.height = (int) header.readValue(type);
+                    break;
+
+                case BITS_PER_SAMPLE:
+                    directory.bitsPerSample = (int) header.readValue(type);
+                    break;
+
+                case COMPRESSION:
+                    directory.compression = (int) header.readValue(type);
+                    break;
+
+                case PHOTOMETRIC:
+                    directory.photometric = (int) header.readValue(type);
+                    break;
+
+                case SAMPLES_PER_PIXEL:
+                    directory.samplesPerPixel = (int) header.readValue(type);
+                    break;
+
+                case ROWS_PER_STRIP:
+                    rowsPerStrip = (int) Math.min(Integer.MAX_VALUE, header.readValue(type));
+                    break;
+
+                case PLANAR_CONFIGURATION:
+                    directory.planarConfiguration = (int) header.readValue(type);
+                    break;
+
+                case PREDICTOR:
+                    directory.predictor = (int) header.readValue(type);
+                    break;
+
+                case TILE_WIDTH:
+                    directory.tileWidth = (int) header.readValue(type);
+                    break;
+
+                case TILE_LENGTH:
+                    directory.tileHeight = (int) header.readValue(type);
+                    break;
+
+                case STRIP_OFFSETS:
+                    stripOffsets = header.readValues(type, count);
+                    break;
+
+                case STRIP_BYTE_COUNTS:
+                    stripByteCounts = header.readValues(type, count);
+                    break;
+
+                case TILE_OFFSETS:
+                    tileOffsets = header.readValues(type, count);
+                    break;
+
+                case TILE_BYTE_COUNTS:
+                    tileByteCounts = header.readValues(type, count);
+                    break;
+
+                case SUB_IFDS:
+                    directory.subIFDs = header.readValues(type, count);
+                    break;
+
+                case JPEG_TABLES:
+                    directory.jpegTables = new byte[size];
+                    raFile.readFully(directory.jpegTables);
+                    break;
+
+                default:
+            }
+        }
+
+        if ( (tileOffsets != null) && (directory.tileWidth > 0) && (directory.tileHeight > 0)) {
+            directory.tiled = true;
+            directory.offsets = tileOffsets;
+            directory.byteCounts = tileByteCounts;
+        } else {
+            directory.tiled = false;
+            directory.tileWidth = directory.width;
+            directory.tileHeight = Math.max(1, Math.min(rowsPerStrip, directory.height));
+            directory.offsets = stripOffsets;
+            directory.byteCounts = stripByteCounts;
+        }
+
+        raFile.seek(first + (entries * header.getEntrySize()));
+
+        return header.readOffset();
+    }
+
+    //~ Inner Classes --------------------------------------------------------------------------------------------------
+
+    /**
+     * The tags of an image file directory needed to read its tiles.
+     */
+    private static class Directory {
+
+        /** Bits per sample. */
+        int bitsPerSample = 1;
+
+        /** Byte count of every tile or strip. */
+        long[] byteCounts;
+
+        /** Compression tag value. */
+        int compression = TiffTileDecoder.NONE;
+
+        /** Image height. */
+        int height;
+
+        /** Contents of the JPEGTables tag. */
+        byte[] jpegTables;
+
+        /** File offset of every tile or strip. */
+        long[] offsets;
+
+        /** Photometric interpretation. */
+        int photometric = 1;
+
+        /** Planar configuration, 1 for interleaved samples. */
+        int planarConfiguration = 1;
+
+        /** Predictor tag value. */
+        int predictor = 1;
+
+        /** Samples per pixel. */
+        int samplesPerPixel = 1;
+
+        /** Offsets of the SubIFDs. */
+        long[] subIFDs;
+
+        /** Tile height, or rows per strip. */
+        int tileHeight;
+
+        /** True if the image is stored in tiles rather than strips. */
+        boolean tiled;
+
+        /** Tile width, or image width for strips. */
+        int tileWidth;
+
+        /** Image width. */
+        int width;
+    }
+}
@@ -0,0 +1,150 @@
+package gov.nih.mipav.model.file;
+
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+
+/**
+ * Bounded cache of decoded tiles, which drops the least recently used tiles once the tiles held take more memory than
+ * the budget. A tile is keyed by its pyramid level, column and row. All methods are synchronized.
+ */
+public class TileCache {
+
+    //~ Instance fields ------------------------------------------------------------------------------------------------
+
+    /** Memory the tiles may take, in bytes. */
+    private final long budget;
+
+    /** Memory taken by the tiles held, in bytes. */
+    private long used = 0;
+
+    /** The tiles, in order from the least to the most recently used. */
+    private final LinkedHashMap<Long, int[]> tiles = new LinkedHashMap<Long, int[]>(64, 0.75f, true);
+
+    /** Number of lookups that found their tile. */
+    private long hits = 0;
+
+    /** Number of lookups that did not find their tile. */
+    private long misses = 0;
+
+    //~ Constructors ---------------------------------------------------------------------------------------------------
+
+    /**
+     * Creates an empty cache.
+     *
+     * @param  budget  memory the tiles may take, in bytes
+     */
+    public TileCache(final long budget) {
+        this.budget = budget;
+    }
+
+    //~ Methods --------------------------------------------------------------------------------------------------------
+
+    /**
+     * Returns the key of a tile.
+     *
+     * @param   level  the pyramid level
+     * @param   tileX  column of the tile
+     * @param   tileY  row of the tile
+     *
+     * @return  the key
+     */
+    public static long key(final int level, final int tileX, final int tileY) {
+        return ((long) level << 56) | ((long) tileY << 28) | tileX;
+    }
+
+    /**
+     * Drops all tiles.
+     */
+    public synchronized void clear() {
+        tiles.clear();
+        used = 0;
+    }
+
+    /**
+     * Returns a tile and marks it as most recently used.
+     *
+     * @param   key  key of the tile
+     *
+     * @return  the tile, or null if it is not held
+     */
+    public synchronized int[] get(final long key) {
+        final int[] tile = tiles.get(key);
+
+        if (tile == null) {
+            misses++;
+        } else {
+            hits++;
+        }
+
+        return tile;
+    }
+
+    /**
+     * Returns the number of lookups that found their tile.
+     *
+     * @return  the number of hits
+     */
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    /**
+     * Returns the number of lookups that did not find their tile.
+     *
+     * @return  the number of misses
+     */
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    /**
+     * Returns the memory taken by the tiles held.
+     *
+     * @return  the memory in bytes
+     */
+    public synchronized long getUsed() {
+        return used;
+    }
+
+    /**
+     * Adds a tile, dropping the least recently used tiles as long as the budget is exceeded. The tile just added is
+     * always kept.
+     *
+     * @param  key   key of the tile
+     * @param  tile  the decoded tile
+     */
+    public synchronized void put(final long key, final int[] tile) {
+        final int[] previous = tiles.put(key, tile);
+
+        if (previous != null) {
+            used -= 4L * previous.length;
+        }
+
+        used += 4L * tile.length;
+
+        final Iterator<Map.Entry<Long, int[]>> iterator = tiles.entrySet().iterator();
+
+        while ( (used > budget) && iterator.hasNext()) {
+            final Map.Entry<Long, int[]> eldest = iterator.next();
+
+            if (eldest.getKey().longValue() == key) {
+                continue;
+            }
+
+            used -= 4L * eldest.getValue().length;
+            iterator.remove();
+        }
+    }
+
+    /**
+     * Returns the number of tiles held.
+     *
+     * @return  the number of tiles
+     */
+    public synchronized int size() {
+        return tiles.size();
+    }
+}
@@ -0,0 +1,84 @@
+package gov.nih.mipav.model.file;
+
+
+import java.io.IOException;
+
+
+/**
+ * A whole-slide or otherwise very large image stored as a resolution pyramid of tiles. Level 0 is the full resolution
+ * image, every following level is a smaller copy of it. Each level is cut into a regular grid of tiles that can be
+ * decoded on their own, so a viewer only ever decodes the tiles it shows. Tiles are returned as packed ARGB pixels, the
+ * format of the paint buffers of the image components.
+ *
+ * <p>Implementations must allow readTile() to be called from several threads at once.</p>
+ *
+ * @see  TiledRegionReader
+ */
+public interface TiledImageSource {
+
+    //~ Methods --------------------------------------------------------------------------------------------------------
+
+    /**
+     * Releases the file of the source.
+     *
+     * @throws  IOException  if the file cannot be closed
+     */
+    void close() throws IOException;
+
+    /**
+     * Returns the number of pyramid levels.
+     *
+     * @return  the number of levels, at least 1
+     */
+    int getLevelCount();
+
+    /**
+     * Returns the height of a level in pixels.
+     *
+     * @param   level  the pyramid level
+     *
+     * @return  the height
+     */
+    int getLevelHeight(int level);
+
+    /**
+     * Returns the width of a level in pixels.
+     *
+     * @param   level  the pyramid level
+     *
+     * @return  the width
+     */
+    int getLevelWidth(int level);
+
+    /**
+     * Returns the height of the tiles of a level.
+     *
+     * @param   level  the pyramid level
+     *
+     * @return  the tile height
+     */
+    int getTileHeight(int level);
+
+    /**
+     * Returns the width of the tiles of a level.
+     *
+     * @param   level  the pyramid level
+     *
+     * @return  the tile width
+     */
+    int getTileWidth(int level);
+
+    /**
+     * Decodes one tile. The tile is getTileWidth(level) by getTileHeight(level) pixels even at the right and bottom
+     * edges of the level, where the pixels outside the level are undefined.
+     *
+     * @param   level  the pyramid level
+     * @param   tileX  column of the tile
+     * @param   tileY  row of the tile
+     *
+     * @return  the pixels of the tile as packed ARGB, row by row
+     *
+     * @throws  IOException  if the tile cannot be read or is stored in an unsupported way
+     */
+    int[] readTile(int level, int tileX, int tileY) throws IOException;
+}
@@ -0,0 +1,316 @@
+package gov.nih.mipav.model.file;
+
+
+import gov.nih.mipav.util.ThreadUtil;
+
+import gov.nih.mipav.view.Preferences;
+
+import java.io.IOException;
+import java.util.ArrayList;
+
+
+/**
+ * Reads rectangular regions of a tiled image pyramid at a chosen resolution level. Only the tiles that intersect the
+ * region are decoded, in parallel on the compute pool, and kept in a bounded least recently used cache, so panning and
+ * zooming over a whole-slide image decodes each tile of the view once. Regions are returned as packed ARGB pixels, the
+ * format of the paint buffers of ViewJComponentEditImage.
+ *
+ * <p>The size of the cache comes from Preferences.PREF_TILE_CACHE_SIZE unless given to the constructor.</p>
+ */
+public class TiledRegionReader {
+
+    //~ Instance fields ------------------------------------------------------------------------------------------------
+
+    /** Cache of the decoded tiles. */
+    private final TileCache cache;
+
+    /** The tiled image. */
+    private final TiledImageSource source;
+
+    //~ Constructors ---------------------------------------------------------------------------------------------------
+
+    /**
+     * Creates a reader with a cache of the size set in the preferences.
+     *
+     * @param  source  the tiled image
+     */
+    public TiledRegionReader(final TiledImageSource source) {
+        this(source, TiledRegionReader.getPreferredCacheSize());
+    }
+
+    /**
+     * Creates a reader.
+     *
+     * @param  source      the tiled image
+     * @param  cacheBytes  memory the decoded tiles may take, in bytes
+     */
+    public TiledRegionReader(final TiledImageSource source, final long cacheBytes) {
+        this.source = source;
+        cache = new TileCache(cacheBytes);
+    }
+
+    //~ Methods --------------------------------------------------------------------------------------------------------
+
+    /**
+     * Returns the tile cache size set in the preferences.
+     *
+     * @return  the cache size in bytes
+     */
+    public static long getPreferredCacheSize() {
+        int megabytes = 256;
+        final String value = Preferences.getProperty(Preferences.PREF_TILE_CACHE_SIZE);
+
+        if (value != null) {
+
+            try {
+                megabytes = Math.max(1, Integer.parseInt(value.trim()));
+            } catch (final NumberFormatException e) {
+                Preferences.debug("Invalid tile cache size " + value + "\n", Preferences.DEBUG_FILEIO);
+            }
+        }
+
+        return megabytes * 1024L * 1024L;
+    }
+
+    /**
+     * Drops the cached tiles and closes the source.
+     *
+     * @throws  IOException  if the source cannot be closed
+     */
+    public void close() throws IOException {
+        cache.clear();
+        source.close();
+    }
+
+    /**
+     * Returns the level to read for a view that shows the image reduced by a factor. This is the smallest level that
+     * still has at least the resolution of the view.
+     *
+     * @param   downsample  number of full resolution pixels per pixel of the view
+     *
+     * @return  the pyramid level
+     */
+    public int getBestLevel(final double downsample) {
+        int best = 0;
+
+        for (int level = 1; level < source.getLevelCount(); level++) {
+
+            if (getDownsample(level) <= (downsample * 1.0001)) {
+                best = level;
+            }
+        }
+
+        return best;
+    }
+
+    /**
+     * Returns the tile cache of the reader.
+     *
+     * @return  the cache
+     */
+    public TileCache getCache() {
+        return cache;
+    }
+
+    /**
+     * Returns by how much a level is reduced from the full resolution image.
+     *
+     * @param   level  the pyramid level
+     *
+     * @return  the number of full resolution pixels per pixel of the level
+     */
+    public double getDownsample(final int level) {
+        return (double) source.getLevelWidth(0) / source.getLevelWidth(level);
+    }
+
+    /**
+     * Returns the number of pyramid levels.
+     *
+     * @return  the number of levels
+     */
+    public int getLevelCount() {
+        return source.getLevelCount();
+    }
+
+    /**
+     * Returns the height of a level.
+     *
+     * @param   level  the pyramid level
+     *
+     * @return  the height in pixels
+     */
+    public int getLevelHeight(final int level) {
+        return source.getLevelHeight(level);
+    }
+
+    /**
+     * Returns the width of a level.
+     *
+     * @param   level  the pyramid level
+     *
+     * @return  the width in pixels
+     */
+    public int getLevelWidth(final int level) {
+        return source.getLevelWidth(level);
+    }
+
+    /**
+     * Returns the tiled image read.
+     *
+     * @return  the source
+     */
+    public TiledImageSource getSource() {
+        return source;
+    }
+
+    /**
+     * Reads a region of a level into a new buffer.
+     *
+     * @param   level   the pyramid level
+     * @param   x       left edge of the region in pixels of the level
+     * @param   y       top edge of the region in pixels of the level
+     * @param   width   width of the region
+     * @param   height  height of the region
+     *
+     * @return  the region as packed ARGB pixels, row by row
+     *
+     * @throws  IOException  if a tile cannot be read
+     */
+    public int[] readRegion(final int level, final int x, final int y, final int width, final int height)
+            throws IOException {
+        final int[] region = new int[width * height];
+
+        readRegion(level, x, y, width, height, region);
+
+        return region;
+    }
+
+    /**
+     * Reads a region of a level. Pixels of the region that lie outside the level are set to 0.
+     *
+     * @param   level   the pyramid level
+     * @param   x       left edge of the region in pixels of the level
+     * @param   y       top edge of the region in pixels of the level
+     * @param   width   width of the region
+     * @param   height  height of the region
+     * @param   region  buffer of at least width * height pixels receiving the region as packed ARGB, row by row
+     *
+     * @throws  IOException  if a tile cannot be read
+     */
+    public void readRegion(final int level, final int x, final int y, final int width, final int height,
+            final int[] region) throws IOException {
+        final int levelWidth = source.getLevelWidth(level);
+        final int levelHeight = source.getLevelHeight(level);
+        final int tileWidth = source.getTileWidth(level);
+        final int tileHeight = source.getTileHeight(level);
+        final int x0 = Math.max(0, x);
+        final int y0 = Math.max(0, y);
+        final int x1 = Math.min(levelWidth, x + width);
+        final int y1 = Math.min(levelHeight, y + height);
+
+        if ( (x0 != x) || (y0 != y) || (x1 != (x + width)) || (y1 != (y + height))) {
+
+            for (int i = 0; i < (width * height); i++) {
+                region[i] = 0;
+            }
+        }
+
+        if ( (x1 <= x0) || (y1 <= y0)) {
+            return;
+        }
+
+        final int firstColumn = x0 / tileWidth;
+        final int lastColumn = (x1 - 1) / tileWidth;
+        final int firstRow = y0 / tileHeight;
+        final int lastRow = (y1 - 1) / tileHeight;
+        final int columns = lastColumn - firstColumn + 1;
+        final int[][] tiles = new int[columns * (lastRow - firstRow + 1)][];
+        final ArrayList<Integer> missing = new ArrayList<Integer>();
+
+        for (int i = 0; i < tiles.length; i++) {
+            tiles[i] = cache.get(TileCache.key(level, firstColumn + (i % columns), firstRow + (i / columns)));
+
+            if (tiles[i] == null) {
+                missing.add(i);
+            }
+        }
+
+        decodeTiles(level, firstColumn, firstRow, columns, tiles, missing);
+
+        for (int i = 0; i < tiles.length; i++) {
+            final int tileLeft = (firstColumn + (i % columns)) * tileWidth;
+            final int tileTop = (firstRow + (i / columns)) * tileHeight;
+            final int left = Math.max(x0, tileLeft);
+            final int right = Math.min(x1, tileLeft + tileWidth);
+            final int top = Math.max(y0, tileTop);
+            final int bottom = Math.min(y1, tileTop + tileHeight);
+
+            for (int row = top; row < bottom; row++) {
+                System.arraycopy(tiles[i], ( (row - tileTop) * tileWidth) + (left - tileLeft), region,
+                        ( (row - y) * width) + (left - x), right - left);
+            }
+        }
+    }
+
+    /**
+     * Decodes the tiles that are not cached, in parallel when there are several, and adds them to the cache.
+     *
+     * @param   level        the pyramid level
+     * @param   firstColumn  column of the first tile of the region
+     * @param   firstRow     row of the first tile of the region
+     * @param   columns      number of tile columns of the region
+     * @param   tiles        tiles of the region, in which the decoded tiles are stored
+     * @param   missing      indices of the tiles to decode
+     *
+     * @throws  IOException  if a tile cannot be read
+     */
+    private void decodeTiles(final int level, final int firstColumn, final int firstRow, final int columns,
+            final int[][] tiles, final ArrayList<Integer> missing) throws IOException {
+
+        try {
+            ThreadUtil.parallelFor(missing.size(), new ThreadUtil.IndexedTask() {
+                    public void run(final int index) {
+                        final int i = missing.get(index);
+                        final int tileX = firstColumn + (i % columns);
+                        final int tileY = firstRow + (i / columns);
+
+                        try {
+                            tiles[i] = source.readTile(level, tileX, tileY);
+                        } catch (final IOException e) {
+                            throw new TileReadException(e);
+                        }
+
+                        cache.put(TileCache.key(level, tileX, tileY), tiles[i]);
+                    }
+                });
+        } catch (final TileReadException e) {
+            Throwable cause = e.getCause();
+
+            while (cause instanceof TileReadException) {
+                cause = cause.getCause();
+            }
+
+            throw (IOException) cause;
+        }
+    }
+
+    //~ Inner Classes --------------------------------------------------------------------------------------------------
+
+    /**
+     * Carries the IOException of a tile out of a parallel task.
+     */
+    private static class TileReadException extends RuntimeException {
+
+        /** Use serialVersionUID for interoperability. */
+        private static final long serialVersionUID = -3391466183702841560L;
+
+        /**
+         * Wraps an exception.
+         *
+         * @param  cause  the exception of the tile
+         */
+        TileReadException(final IOException cause) {
+            super(cause);
+        }
+    }
+}
@@ -17,6 +17,7 @@ import java.io.*;
  * @see      BufferLong
  * @see      BufferFloat
  * @see      BufferDouble
+ * @see      BufferDirectBase
  */
 
 public abstract class BufferBase implements Serializable {
@@ -35,6 +36,13 @@ public abstract class BufferBase implements Serializable {
      */
     protected abstract void finalize() throws Throwable;
 
+    /**
+     * Returns a copy of the buffer that holds its own data, used to clone images without serializing their data.
+     *
+     * @return  the copy
+     */
+    protected abstract BufferBase copy();
+
     /**
      * Get the primitive type of the buffer.
      *
@@ -148,6 +156,16 @@ public abstract class BufferBase implements Serializable {
      */
     protected abstract int length();
 
+    /**
+     * Gets the length of the data as a long. Buffers backed by a single java array can never exceed an int length;
+     * the off-heap buffers (see BufferDirectBase) override this to report lengths past 2^31.
+     *
+     * @return  the length of the data
+     */
+    protected long longLength() {
+        return length();
+    }
+
     /**
      * Sets the data array at the specified index to the specified value.
      *
@@ -235,4 +253,303 @@ public abstract class BufferBase implements Serializable {
      * @param  value     the new data value to be placed in the data array
      */
     protected abstract void setUShort(int position, int value);
+
+    /**
+     * Copies consecutive values, converted to float, into an array. Sub-classes override this with a loop over their
+     * own accessor so that bulk copies avoid a virtual call, and any boxing, per value.
+     *
+     * @param  start   position in the data of the first value
+     * @param  values  array where the values are to be deposited
+     * @param  offset  index in values of the first value
+     * @param  length  number of values to copy
+     */
+    protected void getFloats(long start, float[] values, int offset, int length) {
+
+        for (int i = 0; i < length; i++) {
+            values[offset + i] = getFloat(start + i);
+        }
+    }
+
+    /**
+     * Copies consecutive values, converted to double, into an array.
+     *
+     * @param  start   position in the data of the first value
+     * @param  values  array where the values are to be deposited
+     * @param  offset  index in values of the first value
+     * @param  length  number of values to copy
+     */
+    protected void getDoubles(long start, double[] values, int offset, int length) {
+
+        for (int i = 0; i < length; i++) {
+            values[offset + i] = getDouble(start + i);
+        }
+    }
+
+    /**
+     * Sets consecutive values of the data from a float array.
+     *
+     * @param  start   position in the data of the first value
+     * @param  values  array holding the new values
+     * @param  offset  index in values of the first value
+     * @param  length  number of values to copy
+     */
+    protected void setFloats(long start, float[] values, int offset, int length) {
+
+        for (int i = 0; i < length; i++) {
+            setFloat(start + i, values[offset + i]);
+        }
+    }
+
+    /**
+     * Sets consecutive values of the data from a double array.
+     *
+     * @param  start   position in the data of the first value
+     * @param  values  array holding the new values
+     * @param  offset  index in values of the first value
+     * @param  length  number of values to copy
+     */
+    protected void setDoubles(long start, double[] values, int offset, int length) {
+
+        for (int i = 0; i < length; i++) {
+            setDouble(start + i, values[offset + i]);
+        }
+    }
+
+    /**
+     * Converts a long position into an index of an array backed buffer.
+     *
+     * @param   position  position in the data
+     *
+     * @return  the position as an int array index
+     *
+     * @throws  ArrayIndexOutOfBoundsException  if the position cannot address a java array
+     */
+    protected static final int toIndex(long position) {
+
+        if ((position < 0) || (position > Integer.MAX_VALUE)) {
+            throw new ArrayIndexOutOfBoundsException("Position " + position + " is out of range for an array buffer");
+        }
+
+        return (int) position;
+    }
+
+    /**
+     * Gets a boolean value at a long position in the data. Array backed buffers are limited to int positions.
+     *
+     * @param   position  index into the data.
+     *
+     * @return  boolean value of the data
+     */
+    protected boolean getBoolean(long position) {
+        return getBoolean(toIndex(position));
+    }
+
+    /**
+     * Gets a byte value at a long position in the data. Array backed buffers are limited to int positions.
+     *
+     * @param   position  index into the data.
+     *
+     * @return  byte value of the data
+     */
+    protected byte getByte(long position) {
+        return getByte(toIndex(position));
+    }
+
+    /**
+     * Gets a double value at a long position in the data. Array backed buffers are limited to int positions.
+     *
+     * @param   position  index into the data.
+     *
+     * @return  double value of the data
+     */
+    protected double getDouble(long position) {
+        return getDouble(toIndex(position));
+    }
+
+    /**
+     * Gets a float value at a long position in the data. Array backed buffers are limited to int positions.
+     *
+     * @param   position  index into the data.
+     *
+     * @return  float value of the data
+     */
+    protected float getFloat(long position) {
+        return getFloat(toIndex(position));
+    }
+
+    /**
+     * Gets an int value at a long position in the data. Array backed buffers are limited to int positions.
+     *
+     * @param   position  index into the data.
+     *
+     * @return  int value of the data
+     */
+    protected int getInt(long position) {
+        return getInt(toIndex(position));
+    }
+
+    /**
+     * Gets a long value at a long position in the data. Array backed buffers are limited to int positions.
+     *
+     * @param   position  index into the data.
+     *
+     * @return  long value of the data
+     */
+    protected long getLong(long position) {
+        return getLong(toIndex(position));
+    }
+
+    /**
+     * Gets a short value at a long position in the data. Array backed buffers are limited to int positions.
+     *
+     * @param   position  index into the data.
+     *
+     * @return  short value of the data
+     */
+    protected short getShort(long position) {
+        return getShort(toIndex(position));
+    }
+
+    /**
+     * Gets a short(unsigned byte[0:255]) value at a long position in the data. Array backed buffers are limited to int positions.
+     *
+     * @param   position  index into the data.
+     *
+     * @return  short(unsigned byte[0:255]) value of the data
+     */
+    protected short getUByte(long position) {
+        return getUByte(toIndex(position));
+    }
+
+    /**
+     * Gets a long(unsigned int) value at a long position in the data. Array backed buffers are limited to int positions.
+     *
+     * @param   position  index into the data.
+     *
+     * @return  long(unsigned int) value of the data
+     */
+    protected long getUInt(long position) {
+        return getUInt(toIndex(position));
+    }
+
+    /**
+     * Gets an int(unsigned short) value at a long position in the data. Array backed buffers are limited to int positions.
+     *
+     * @param   position  index into the data.
+     *
+     * @return  int(unsigned short) value of the data
+     */
+    protected int getUShort(long position) {
+        return getUShort(toIndex(position));
+    }
+
+    /**
+     * Sets the data at the specified long position to the specified value. Array backed buffers are limited to int
+     * positions.
+     *
+     * @param  position  position in the data
+     * @param  value     the new data value to be placed in the data
+     */
+    protected void setBoolean(long position, boolean value) {
+        setBoolean(toIndex(position), value);
+    }
+
+    /**
+     * Sets the data at the specified long position to the specified value. Array backed buffers are limited to int
+     * positions.
+     *
+     * @param  position  position in the data
+     * @param  value     the new data value to be placed in the data
+     */
+    protected void setByte(long position, byte value) {
+        setByte(toIndex(position), value);
+    }
+
+    /**
+     * Sets the data at the specified long position to the specified value. Array backed buffers are limited to int
+     * positions.
+     *
+     * @param  position  position in the data
+     * @param  value     the new data value to be placed in the data
+     */
+    protected void setDouble(long position, double value) {
+        setDouble(toIndex(position), value);
+    }
+
+    /**
+     * Sets the data at the specified long position to the specified value. Array backed buffers are limited to int
+     * positions.
+     *
+     * @param  position  position in the data
+     * @param  value     the new data value to be placed in the data
+     */
+    protected void setFloat(long position, float value) {
+        setFloat(toIndex(position), value);
+    }
+
+    /**
+     * Sets the data at the specified long position to the specified value. Array backed buffers are limited to int
+     * positions.
+     *
+     * @param  position  position in the data
+     * @param  value     the new data value to be placed in the data
+     */
+    protected void setInt(long position, int value) {
+        setInt(toIndex(position), value);
+    }
+
+    /**
+     * Sets the data at the specified long position to the specified value. Array backed buffers are limited to int
+     * positions.
+     *
+     * @param  position  position in the data
+     * @param  value     the new data value to be placed in the data
+     */
+    protected void setLong(long position, long value) {
+        setLong(toIndex(position), value);
+    }
+
+    /**
+     * Sets the data at the specified long position to the specified value. Array backed buffers are limited to int
+     * positions.
+     *
+     * @param  position  position in the data
+     * @param  value     the new data value to be placed in the data
+     */
+    protected void setShort(long position, short value) {
+        setShort(toIndex(position), value);
+    }
+
+    /**
+     * Sets the data at the specified long position to the specified value. Array backed buffers are limited to int
+     * positions.
+     *
+     * @param  position  position in the data
+     * @param  value     the new data value to be placed in the data
+     */
+    protected void setUByte(long position, short value) {
+        setUByte(toIndex(position), value);
+    }
+
+    /**
+     * Sets the data at the specified long position to the specified value. Array backed buffers are limited to int
+     * positions.
+     *
+     * @param  position  position in the data
+     * @param  value     the new data value to be placed in the data
+     */
+    protected void setUInt(long position, long value) {
+        setUInt(toIndex(position), value);
+    }
+
+    /**
+     * Sets the data at the specified long position to the specified value. Array backed buffers are limited to int
+     * positions.
+     *
+     * @param  position  position in the data
+     * @param  value     the new data value to be placed in the data
+     */
+    protected void setUShort(long position, int value) {
+        setUShort(toIndex(position), value);
+    }
 }
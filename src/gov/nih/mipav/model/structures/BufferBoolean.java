@@ -53,6 +53,19 @@ public class BufferBoolean extends BufferBase {
         dataArray = null;
     }
 
+    /**
+     * Returns a copy of the buffer with its own data array.
+     *
+     * @return  the copy
+     */
+    protected BufferBase copy() {
+        final BufferBoolean copy = new BufferBoolean();
+
+        copy.dataArray = (BitSet) dataArray.clone();
+
+        return copy;
+    }
+
     /**
      * Returns the length of the data array.
      *
@@ -0,0 +1,452 @@
+package gov.nih.mipav.model.structures;
+
+
+import java.io.*;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+
+
+/**
+ * Abstract base of the off-heap buffers. Data is held outside of the java heap in a series of direct
+ * <code>ByteBuffer</code> segments and is addressed with long positions, so a buffer is not limited to the 2^31
+ * elements of a java array and does not add to the work of the garbage collector. ModelStorageBase uses these buffers
+ * when the product of the image extents overflows an int.
+ *
+ * <p>A buffer may also be mapped directly over the voxel region of an uncompressed image file. The mapping is
+ * private: pages are loaded from the file only when touched, byte swapping happens on access, and writes are never
+ * carried back to the file.</p>
+ *
+ * <p>The int position accessors required by BufferBase delegate to the long position accessors, which each sub-class
+ * implements for its primitive type. Segments hold 2^SEGMENT_SHIFT bytes so that a position can be split into a
+ * segment and an offset with a shift and a mask.</p>
+ *
+ * @see  BufferBase
+ * @see  ModelStorageBase
+ */
+
+public abstract class BufferDirectBase extends BufferBase implements Cloneable {
+
+    //~ Static fields/initializers -------------------------------------------------------------------------------------
+
+    /** Use serialVersionUID for interoperability. */
+    private static final long serialVersionUID = 4106652793853710924L;
+
+    /** Log2 of the number of bytes in a full segment (1 GiB). */
+    public static final int SEGMENT_SHIFT = 30;
+
+    /** Number of bytes copied at once while serializing the segments. */
+    private static final int COPY_CHUNK = 1 << 20;
+
+    //~ Instance fields ------------------------------------------------------------------------------------------------
+
+    /** Log2 of the number of bytes in each element. */
+    protected final int elementShift;
+
+    /** Log2 of the number of elements in a full segment. */
+    protected final int indexShift;
+
+    /** Mask giving the element offset within a segment. */
+    protected final long indexMask;
+
+    /** Number of elements in the buffer. */
+    protected final long size;
+
+    /** Byte order of the segments. Native order unless the buffer is mapped over a file of the other order. */
+    protected final boolean bigEndian;
+
+    /** True when the segments are mapped over a file rather than allocated. */
+    protected transient boolean mapped;
+
+    /** Off-heap data segments. Every segment but the last holds 2^indexShift elements. */
+    protected transient ByteBuffer[] segments;
+
+    //~ Constructors ---------------------------------------------------------------------------------------------------
+
+    /**
+     * Constructor that allocates the off-heap memory.
+     *
+     * @param  size          the number of elements to allocate
+     * @param  elementShift  log2 of the number of bytes in each element
+     */
+    protected BufferDirectBase(long size, int elementShift) {
+        this.size = size;
+        this.elementShift = elementShift;
+        this.indexShift = SEGMENT_SHIFT - elementShift;
+        this.indexMask = (1L << indexShift) - 1;
+        this.bigEndian = ByteOrder.nativeOrder() == ByteOrder.BIG_ENDIAN;
+        allocateSegments();
+    }
+
+    /**
+     * Constructor that maps the buffer over a region of a file instead of allocating memory.
+     *
+     * @param   channel       read-write channel of the file holding the data, which may be closed once the buffer
+     *                        is made
+     * @param   filePosition  byte position in the file of the first element
+     * @param   size          the number of elements to map
+     * @param   elementShift  log2 of the number of bytes in each element
+     * @param   bigEndian     byte order of the data in the file
+     *
+     * @throws  IOException  if the file is too short or cannot be mapped
+     */
+    protected BufferDirectBase(FileChannel channel, long filePosition, long size, int elementShift, boolean bigEndian)
+            throws IOException {
+        this.size = size;
+        this.elementShift = elementShift;
+        this.indexShift = SEGMENT_SHIFT - elementShift;
+        this.indexMask = (1L << indexShift) - 1;
+        this.bigEndian = bigEndian;
+
+        if ((filePosition + (size << elementShift)) > channel.size()) {
+            throw new IOException("File is too short to map " + size + " elements at position " + filePosition);
+        }
+
+        final long segmentLength = 1L << indexShift;
+        final int nSegments = (int) ((size + segmentLength - 1) >>> indexShift);
+
+        segments = new ByteBuffer[nSegments];
+
+        for (int i = 0; i < nSegments; i++) {
+            final long elements = Math.min(segmentLength, size - (i * segmentLength));
+
+            segments[i] = channel.map(FileChannel.MapMode.PRIVATE, filePosition + ((long) i << SEGMENT_SHIFT),
+                                      elements << elementShift).order(order());
+        }
+
+        mapped = true;
+    }
+
+    //~ Methods --------------------------------------------------------------------------------------------------------
+
+    /**
+     * Clean up memory. The direct memory is returned when the segments are garbage collected.
+     *
+     * @throws  Throwable  indicates error in while finalizing.
+     */
+    public void finalize() throws Throwable {
+        segments = null;
+    }
+
+    /**
+     * Returns the length of the buffer clamped to an int, for callers that only use int positions.
+     *
+     * @return  length of the buffer, at most Integer.MAX_VALUE
+     */
+    public int length() {
+        return (int) Math.min(size, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Returns the full length of the buffer.
+     *
+     * @return  number of elements in the buffer
+     */
+    public long longLength() {
+        return size;
+    }
+
+    /**
+     * Returns whether the buffer is mapped over a file.
+     *
+     * @return  true for a mapped buffer, false for allocated memory
+     */
+    public boolean isMapped() {
+        return mapped;
+    }
+
+    /**
+     * Returns a copy of the buffer in newly allocated off-heap memory. The copy of a mapped buffer is not mapped.
+     *
+     * @return  the copy
+     */
+    protected BufferBase copy() {
+        final BufferDirectBase copy;
+
+        try {
+            copy = (BufferDirectBase) super.clone();
+        } catch (CloneNotSupportedException error) {
+            throw new InternalError(error.toString());
+        }
+
+        copy.mapped = false;
+        copy.allocateSegments();
+
+        for (int i = 0; i < segments.length; i++) {
+            copy.segments[i].duplicate().put(segments[i].duplicate());
+        }
+
+        return copy;
+    }
+
+    /**
+     * Copies a mapped buffer into allocated off-heap memory, after which it no longer reads from the file. Changes
+     * made to the mapped data are kept. Does nothing for an allocated buffer.
+     */
+    public void unmap() {
+
+        if (!mapped) {
+            return;
+        }
+
+        final ByteBuffer[] mappedSegments = segments;
+
+        allocateSegments();
+
+        for (int i = 0; i < segments.length; i++) {
+            segments[i].duplicate().put(mappedSegments[i].duplicate());
+        }
+
+        mapped = false;
+    }
+
+    /**
+     * Gets the data in Number format.
+     *
+     * @param   position  position in the buffer
+     *
+     * @return  Number object of the data
+     */
+    protected abstract Number get(long position);
+
+    /**
+     * Sets the data from a Number.
+     *
+     * @param  position  position in the buffer
+     * @param  value     the new data value to be placed in the buffer
+     */
+    protected abstract void set(long position, Number value);
+
+    // Long position accessors, implemented by each primitive type.
+
+    protected abstract boolean getBoolean(long position);
+
+    protected abstract byte getByte(long position);
+
+    protected abstract double getDouble(long position);
+
+    protected abstract float getFloat(long position);
+
+    protected abstract int getInt(long position);
+
+    protected abstract long getLong(long position);
+
+    protected abstract short getShort(long position);
+
+    protected abstract short getUByte(long position);
+
+    protected abstract long getUInt(long position);
+
+    protected abstract int getUShort(long position);
+
+    protected abstract void setBoolean(long position, boolean value);
+
+    protected abstract void setByte(long position, byte value);
+
+    protected abstract void setDouble(long position, double value);
+
+    protected abstract void setFloat(long position, float value);
+
+    protected abstract void setInt(long position, int value);
+
+    protected abstract void setLong(long position, long value);
+
+    protected abstract void setShort(long position, short value);
+
+    protected abstract void setUByte(long position, short value);
+
+    protected abstract void setUInt(long position, long value);
+
+    protected abstract void setUShort(long position, int value);
+
+    // Int position accessors required by BufferBase.
+
+    protected final Number get(int position) {
+        return get((long) position);
+    }
+
+    protected final boolean getBoolean(int position) {
+        return getBoolean((long) position);
+    }
+
+    protected final byte getByte(int position) {
+        return getByte((long) position);
+    }
+
+    protected final double getDouble(int position) {
+        return getDouble((long) position);
+    }
+
+    protected final float getFloat(int position) {
+        return getFloat((long) position);
+    }
+
+    protected final int getInt(int position) {
+        return getInt((long) position);
+    }
+
+    protected final long getLong(int position) {
+        return getLong((long) position);
+    }
+
+    protected final short getShort(int position) {
+        return getShort((long) position);
+    }
+
+    protected final short getUByte(int position) {
+        return getUByte((long) position);
+    }
+
+    protected final long getUInt(int position) {
+        return getUInt((long) position);
+    }
+
+    protected final int getUShort(int position) {
+        return getUShort((long) position);
+    }
+
+    protected final void set(int position, Number value) {
+        set((long) position, value);
+    }
+
+    protected final void setBoolean(int position, boolean value) {
+        setBoolean((long) position, value);
+    }
+
+    protected final void setByte(int position, byte value) {
+        setByte((long) position, value);
+    }
+
+    protected final void setDouble(int position, double value) {
+        setDouble((long) position, value);
+    }
+
+    protected final void setFloat(int position, float value) {
+        setFloat((long) position, value);
+    }
+
+    protected final void setInt(int position, int value) {
+        setInt((long) position, value);
+    }
+
+    protected final void setLong(int position, long value) {
+        setLong((long) position, value);
+    }
+
+    protected final void setShort(int position, short value) {
+        setShort((long) position, value);
+    }
+
+    protected final void setUByte(int position, short value) {
+        setUByte((long) position, value);
+    }
+
+    protected final void setUInt(int position, long value) {
+        setUInt((long) position, value);
+    }
+
+    protected final void setUShort(int position, int value) {
+        setUShort((long) position, value);
+    }
+
+    /**
+     * Returns the segment holding the element at position.
+     *
+     * @param   position  position in the buffer
+     *
+     * @return  the segment
+     */
+    protected final ByteBuffer segment(long position) {
+        return segments[(int) (position >>> indexShift)];
+    }
+
+    /**
+     * Returns the byte offset of the element at position within its segment.
+     *
+     * @param   position  position in the buffer
+     *
+     * @return  byte offset into the segment
+     */
+    protected final int offset(long position) {
+        return ((int) (position & indexMask)) << elementShift;
+    }
+
+    /**
+     * Returns the byte order of the segments.
+     *
+     * @return  big or little endian byte order
+     */
+    private ByteOrder order() {
+        return bigEndian ? ByteOrder.BIG_ENDIAN : ByteOrder.LITTLE_ENDIAN;
+    }
+
+    /**
+     * Allocates the direct segments.
+     */
+    private void allocateSegments() {
+        final long segmentLength = 1L << indexShift;
+        final int nSegments = (int) ((size + segmentLength - 1) >>> indexShift);
+
+        segments = new ByteBuffer[nSegments];
+
+        for (int i = 0; i < nSegments; i++) {
+            final long elements = Math.min(segmentLength, size - (i * segmentLength));
+
+            segments[i] = ByteBuffer.allocateDirect((int) (elements << elementShift)).order(order());
+        }
+    }
+
+    /**
+     * Reads the segments back in after the default fields have been deserialized. A mapped buffer comes back as
+     * allocated memory holding the same bytes.
+     *
+     * @param   in  the stream to read from
+     *
+     * @throws  IOException             if the stream cannot be read
+     * @throws  ClassNotFoundException  if a serialized class cannot be found
+     */
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        allocateSegments();
+
+        final byte[] chunk = new byte[COPY_CHUNK];
+
+        for (int i = 0; i < segments.length; i++) {
+            final ByteBuffer buffer = segments[i].duplicate();
+
+            while (buffer.hasRemaining()) {
+                final int length = Math.min(chunk.length, buffer.remaining());
+
+                in.readFully(chunk, 0, length);
+                buffer.put(chunk, 0, length);
+            }
+        }
+    }
+
+    /**
+     * Writes the segment contents after the default fields. The direct buffers themselves are not serializable.
+     *
+     * @param   out  the stream to write to
+     *
+     * @throws  IOException  if the stream cannot be written
+     */
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        out.defaultWriteObject();
+
+        final byte[] chunk = new byte[COPY_CHUNK];
+
+        for (int i = 0; i < segments.length; i++) {
+            final ByteBuffer buffer = segments[i].duplicate();
+
+            buffer.clear();
+
+            while (buffer.hasRemaining()) {
+                final int length = Math.min(chunk.length, buffer.remaining());
+
+                buffer.get(chunk, 0, length);
+                out.write(chunk, 0, length);
+            }
+        }
+    }
+}
@@ -0,0 +1,338 @@
+package gov.nih.mipav.model.structures;
+
+
+import java.io.IOException;
+
+import java.nio.channels.FileChannel;
+
+
+/**
+ * This class extends the abstract BufferDirectBase class. It allocates off-heap, long indexed space for a double buffer
+ * on construction, or maps the buffer over a region of a file. The accessors apply the same conversions as
+ * BufferDouble.
+ *
+ * @see  BufferDirectBase
+ * @see  BufferDouble
+ */
+
+
+public class BufferDirectDouble extends BufferDirectBase {
+
+    //~ Static fields/initializers -------------------------------------------------------------------------------------
+
+    /** Use serialVersionUID for interoperability. */
+    private static final long serialVersionUID = -2726213999444109617L;
+
+    //~ Constructors ---------------------------------------------------------------------------------------------------
+
+    /**
+     * Constructor that allocates off-heap memory.
+     *
+     * @param  size  the number of elements to allocate
+     */
+    public BufferDirectDouble(long size) {
+        super(size, 3);
+    }
+
+    /**
+     * Constructor that maps the buffer over a region of a file.
+     *
+     * @param   channel       channel of the file holding the data
+     * @param   filePosition  byte position in the file of the first element
+     * @param   size          the number of elements to map
+     * @param   bigEndian     byte order of the data in the file
+     *
+     * @throws  IOException  if the file is too short or cannot be mapped
+     */
+    public BufferDirectDouble(FileChannel channel, long filePosition, long size, boolean bigEndian) throws IOException {
+        super(channel, filePosition, size, 3, bigEndian);
+    }
+
+    //~ Methods --------------------------------------------------------------------------------------------------------
+
+    /** Return double.class */
+    protected final Class<?> getType() { return double.class; }
+
+    /**
+     * Reads the stored double at position.
+     *
+     * @param   position  position in the buffer
+     *
+     * @return  the stored value
+     */
+    private double elementAt(long position) {
+        return segment(position).getDouble(offset(position));
+    }
+
+    /**
+     * Stores a double at position.
+     *
+     * @param  position  position in the buffer
+     * @param  value     the value to store
+     */
+    private void putElement(long position, double value) {
+        segment(position).putDouble(offset(position), value);
+    }
+
+    /**
+     * Gets the data in as Number.
+     *
+     * @param   position  position in the buffer
+     *
+     * @return  Number object of the data
+     */
+    protected final Number get(long position) {
+        return (Double.valueOf((double) elementAt(position)));
+    }
+
+
+    /**
+     * Gets the data from the object.
+     *
+     * @param   position  position in the buffer to get
+     *
+     * @return  true if data at position is not equal to zero else its false
+     */
+    protected final boolean getBoolean(long position) {
+
+        if (elementAt(position) != 0) {
+            return true;
+        } else {
+            return false;
+        }
+    }
+
+    /**
+     * Gets the data in byte format.
+     *
+     * @param   position  position in the buffer
+     *
+     * @return  the byte value
+     */
+    protected final byte getByte(long position) {
+        return (byte) (elementAt(position));
+    }
+
+    /**
+     * Gets the data in double format.
+     *
+     * @param   position  position in the buffer
+     *
+     * @return  double value as a double
+     */
+    protected final double getDouble(long position) {
+        return (elementAt(position));
+    }
+
+    /**
+     * Gets the data in float format.
+     *
+     * @param   position  position in the buffer
+     *
+     * @return  double value as a float
+     */
+    protected final float getFloat(long position) {
+        return ((float) elementAt(position));
+    }
+
+    /**
+     * Gets the data in int format.
+     *
+     * @param   position  position in the buffer
+     *
+     * @return  double value as an int
+     */
+    protected final int getInt(long position) {
+        return (int) (elementAt(position));
+    }
+
+    /**
+     * Gets the data in long format.
+     *
+     * @param   position  position in the buffer
+     *
+     * @return  double value as a long
+     */
+    protected final long getLong(long position) {
+        return (long) (elementAt(position));
+    }
+
+    /**
+     * Gets the data in short format.
+     *
+     * @param   position  position in the buffer
+     *
+     * @return  double value as a short
+     */
+    protected final short getShort(long position) {
+        return (short) (elementAt(position));
+    }
+
+    /**
+     * Gets the data in unsigned byte format.
+     *
+     * @param   position  position in the buffer
+     *
+     * @return  the double value as a short (unsigned byte)
+     */
+    protected final short getUByte(long position) {
+        return ((short) ((int) elementAt(position) & 0xff));
+    }
+
+    /**
+     * Gets the data in unsigned short format.
+     *
+     * @param   position  position in the buffer
+     *
+     * @return  the float value as int (unsigned short)
+     */
+    protected final long getUInt(long position) {
+        return (long) ((long) elementAt(position) & 0xffffffffL);
+    }
+
+    /**
+     * Gets the data in unsigned short format.
+     *
+     * @param   position  position in the buffer
+     *
+     * @return  double value as an int
+     */
+    protected final int getUShort(long position) {
+        return (int) ((int) elementAt(position) & 0xffff);
+    }
+
+
+    /**
+     * Set methods.
+     *
+     * @param  position  DOCUMENT ME!
+     * @param  value     DOCUMENT ME!
+     */
+
+    /**
+     * Sets the Number data in byte format.
+     *
+     * @param  position  position in the buffer
+     * @param  value     the new data value to be placed in the buffer
+     */
+    protected final void set(long position, Number value) {
+        putElement(position, value.doubleValue());
+    }
+
+
+    /**
+     * Sets the double data.
+     *
+     * @param  position  position in the buffer
+     * @param  value     the new data value to be placed in the buffer
+     */
+    protected final void set(long position, double value) {
+        putElement(position, value);
+    }
+
+    /**
+     * Sets the data in float format. One if value is true, zero if value is false
+     *
+     * @param  position  position in the buffer
+     * @param  value     the new data value to be placed in the buffer
+     */
+    protected final void setBoolean(long position, boolean value) {
+
+        if (value) {
+            putElement(position, (double) 1);
+        } else {
+            putElement(position, (double) 0);
+        }
+    }
+
+    /**
+     * Sets the byte data in double format.
+     *
+     * @param  position  position in the buffer
+     * @param  value     the new data value to be placed in the buffer
+     */
+    protected final void setByte(long position, byte value) {
+        putElement(position, (double) value);
+    }
+
+    /**
+     * Sets the data in double format.
+     *
+     * @param  position  position in the buffer
+     * @param  value     the new data value to be placed in the buffer
+     */
+    protected final void setDouble(long position, double value) {
+        putElement(position, value);
+    }
+
+    /**
+     * Sets the data in double format.
+     *
+     * @param  position  position in the buffer
+     * @param  value     the new data value to be placed in the buffer
+     */
+    protected final void setFloat(long position, float value) {
+        putElement(position, (double) value);
+    }
+
+    /**
+     * Sets the data in double format.
+     *
+     * @param  position  position in the buffer
+     * @param  value     the new data value to be placed in the buffer
+     */
+    protected final void setInt(long position, int value) {
+        putElement(position, (double) value);
+    }
+
+    /**
+     * Sets the data in double format.
+     *
+     * @param  position  position in the buffer
+     * @param  value     the new data value to be placed in the buffer
+     */
+    protected final void setLong(long position, long value) {
+        putElement(position, (double) value);
+    }
+
+    /**
+     * Sets the short data in double format.
+     *
+     * @param  position  position in the buffer
+     * @param  value     the new data value to be placed in the buffer
+     */
+    protected final void setShort(long position, short value) {
+        putElement(position, (double) value);
+    }
+
+    /**
+     * Sets the short data in double format.
+     *
+     * @param  position  position in the buffer
+     * @param  value     the new data value to be placed in the buffer
+     */
+    protected final void setUByte(long position, short value) {
+        putElement(position, (double) value);
+    }
+
+    /**
+     * Sets the data in double format.
+     *
+     * @param  position  position in the buffer
+     * @param  value     the new data value to be placed in the buffer
+     */
+    protected final void setUInt(long position, long value) {
+        putElement(position, (double) value);
+    }
+
+    /**
+     * Sets the data in double format.
+     *
+     * @param  position  position in the buffer
+     * @param  value     the new data value to be placed in the buffer
+     */
+    protected final void setUShort(long position, int value) {
+        putElement(position, (double) value);
+    }
+
+}
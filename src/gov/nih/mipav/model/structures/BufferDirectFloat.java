@@ -0,0 +1,328 @@
+package gov.nih.mipav.model.structures;
+
+
+import java.io.IOException;
+
+import java.nio.channels.FileChannel;
+
+
+/**
+ * This class extends the abstract BufferDirectBase class. It allocates off-heap, long indexed space for a float buffer
+ * on construction, or maps the buffer over a region of a file. The accessors apply the same conversions as BufferFloat.
+ *
+ * @see  BufferDirectBase
+ * @see  BufferFloat
+ */
+
+public class BufferDirectFloat extends BufferDirectBase {
+
+    //~ Static fields/initializers -------------------------------------------------------------------------------------
+
+    /** Use serialVersionUID for interoperability. */
+    private static final long serialVersionUID = -1228232899061671213L;
+
+    //~ Constructors ---------------------------------------------------------------------------------------------------
+
+    /**
+     * Constructor that allocates off-heap memory.
+     *
+     * @param  size  the number of elements to allocate
+     */
+    public BufferDirectFloat(long size) {
+        super(size, 2);
+    }
+
+    /**
+     * Constructor that maps the buffer over a region of a file.
+     *
+     * @param   channel       channel of the file holding the data
+     * @param   filePosition  byte position in the file of the first element
+     * @param   size          the number of elements to map
+     * @param   bigEndian     byte order of the data in the file
+     *
+     * @throws  IOException  if the file is too short or cannot be mapped
+     */
+    public BufferDirectFloat(FileChannel channel, long filePosition, long size, boolean bigEndian) throws IOException {
+        super(channel, filePosition, size, 2, bigEndian);
+    }
+
+    //~ Methods --------------------------------------------------------------------------------------------------------
+
+    /** Return float.class */
+    protected final Class<?> getType() { return float.class; }
+
+    /**
+     * Reads the stored float at position.
+     *
+     * @param   position  position in the buffer
+     *
+     * @return  the stored value
+     */
+    private float elementAt(long position) {
+        return segment(position).getFloat(offset(position));
+    }
+
+    /**
+     * Stores a float at position.
+     *
+     * @param  position  position in the buffer
+     * @param  value     the value to store
+     */
+    private void putElement(long position, float value) {
+        segment(position).putFloat(offset(position), value);
+    }
+
+    /**
+     * Gets the data in Number format.
+     *
+     * @param   position  position in the buffer
+     *
+     * @return  Number object of the data
+     */
+    protected final Number get(long position) {
+        return (new Float((float) elementAt(position)));
+    }
+
+    /**
+     * Gets the data from the object.
+     *
+     * @param   position  position in the buffer to get
+     *
+     * @return  true if data at position is not equal to zero else its false
+     */
+    protected final boolean getBoolean(long position) {
+
+        if (elementAt(position) != 0) {
+            return true;
+        } else {
+            return false;
+        }
+    }
+
+    /**
+     * Gets the data in byte format.
+     *
+     * @param   position  position in the buffer
+     *
+     * @return  the byte value
+     */
+    protected final byte getByte(long position) {
+        return (byte) (elementAt(position));
+    }
+
+    /**
+     * Gets the data in double format.
+     *
+     * @param   position  position in the buffer
+     *
+     * @return  the float value as a double
+     */
+    protected final double getDouble(long position) {
+        return (double) (elementAt(position));
+    }
+
+    /**
+     * Gets the data in float format.
+     *
+     * @param   position  position in the buffer
+     *
+     * @return  the float value as a float
+     */
+    protected final float getFloat(long position) {
+        return (elementAt(position));
+    }
+
+    /**
+     * Gets the data in int format.
+     *
+     * @param   position  position in the buffer
+     *
+     * @return  the float value as an int
+     */
+    protected final int getInt(long position) {
+        return (int) (elementAt(position));
+    }
+
+
+    /**
+     * Gets the data in long format.
+     *
+     * @param   position  position in the buffer
+     *
+     * @return  the float value as a long
+     */
+    protected final long getLong(long position) {
+        return (long) (elementAt(position));
+    }
+
+    /**
+     * Gets the data in short format.
+     *
+     * @param   position  position in the buffer
+     *
+     * @return  the float value as a short
+     */
+    protected final short getShort(long position) {
+        return (short) (elementAt(position));
+    }
+
+    /**
+     * Gets the data in unsigned byte format.
+     *
+     * @param   position  position in the buffer
+     *
+     * @return  the value as a short (unsigned byte)
+     */
+    protected final short getUByte(long position) {
+        return ((short) ((int) elementAt(position) & 0xff));
+    }
+
+    /**
+     * Gets the data in unsigned short format.
+     *
+     * @param   position  position in the buffer
+     *
+     * @return  the float value as int (unsigned short)
+     */
+    protected final long getUInt(long position) {
+        return (long) ((long) elementAt(position) & 0xffffffffL);
+    }
+
+    /**
+     * Gets the data in unsigned short format.
+     *
+     * @param   position  position in the buffer
+     *
+     * @return  the float value as int (unsigned short)
+     */
+    protected final int getUShort(long position) {
+        return (int) ((int) elementAt(position) & 0xffff);
+    }
+
+
+    /**
+     * Sets the data in float format.
+     *
+     * @param  position  position in data array
+     * @param  value     the new data value to be placed in the buffer
+     */
+    protected final void set(long position, Number value) {
+        putElement(position, value.floatValue());
+    }
+
+    /**
+     * Sets the data in float format.
+     *
+     * @param  position  position in data array
+     * @param  value     the new data value to be placed in the buffer
+     */
+    protected final void set(long position, float value) {
+        putElement(position, value);
+    }
+
+    /**
+     * Sets the data in float format. One if value is true, zero if value is false
+     *
+     * @param  position  position in the buffer
+     * @param  value     the new data value to be placed in the buffer
+     */
+    protected final void setBoolean(long position, boolean value) {
+
+        if (value) {
+            putElement(position, (float) 1);
+        } else {
+            putElement(position, (float) 0);
+        }
+    }
+
+    /**
+     * Sets the data in float format.
+     *
+     * @param  position  position in the buffer
+     * @param  value     the new data value to be placed in the buffer
+     */
+    protected final void setByte(long position, byte value) {
+        putElement(position, (float) value);
+    }
+
+    /**
+     * Sets the double data in float format.
+     *
+     * @param  position  position in the buffer
+     * @param  value     the new data value to be placed in the buffer
+     */
+    protected final void setDouble(long position, double value) {
+        putElement(position, (float) value);
+    }
+
+    /**
+     * Sets the float data in float format.
+     *
+     * @param  position  position in the buffer
+     * @param  value     the new data value to be placed in the buffer
+     */
+    protected final void setFloat(long position, float value) {
+        putElement(position, value);
+    }
+
+    /**
+     * Sets the int data in float format.
+     *
+     * @param  position  position in the buffer
+     * @param  value     the new data value to be placed in the buffer
+     */
+    protected final void setInt(long position, int value) {
+        putElement(position, (float) value);
+    }
+
+    /**
+     * Sets the long data in float format.
+     *
+     * @param  position  position in the buffer
+     * @param  value     the new data value to be placed in the buffer
+     */
+    protected final void setLong(long position, long value) {
+        putElement(position, (float) value);
+    }
+
+    /**
+     * Sets the to set short data in float format.
+     *
+     * @param  position  position in the buffer
+     * @param  value     the new data value to be placed in the buffer
+     */
+    protected final void setShort(long position, short value) {
+        putElement(position, (float) value);
+    }
+
+    /**
+     * Sets the data in float format.
+     *
+     * @param  position  position in the buffer
+     * @param  value     the new data value to be placed in the buffer
+     */
+    protected final void setUByte(long position, short value) {
+        putElement(position, (float) value);
+    }
+
+    /**
+     * Sets the int value in unsigned short format.
+     *
+     * @param  position  position in the buffer
+     * @param  value     the new data value to be placed in the buffer
+     */
+    protected final void setUInt(long position, long value) {
+        putElement(position, (int) value);
+    }
+
+    /**
+     * Sets the unsigned data in float format.
+     *
+     * @param  position  position in the buffer
+     * @param  value     the new data value to be placed in the buffer
+     */
+    protected final void setUShort(long position, int value) {
+        putElement(position, (float) value);
+    }
+
+}
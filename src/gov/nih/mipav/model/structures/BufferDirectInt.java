@@ -0,0 +1,350 @@
+package gov.nih.mipav.model.structures;
+
+
+import java.io.IOException;
+
+import java.nio.channels.FileChannel;
+
+
+/**
+ * This class extends the abstract BufferDirectBase class. It allocates off-heap, long indexed space for an integer
+ * buffer on construction, or maps the buffer over a region of a file. The accessors apply the same conversions as
+ * BufferInt.
+ *
+ * @see  BufferDirectBase
+ * @see  BufferInt
+ */
+
+
+public class BufferDirectInt extends BufferDirectBase {
+
+    //~ Static fields/initializers -------------------------------------------------------------------------------------
+
+    /** Use serialVersionUID for interoperability. */
+    private static final long serialVersionUID = 2249841721318256268L;
+
+    //~ Constructors ---------------------------------------------------------------------------------------------------
+
+    /**
+     * Constructor that allocates off-heap memory.
+     *
+     * @param  size  the number of elements to allocate
+     */
+    public BufferDirectInt(long size) {
+        super(size, 2);
+    }
+
+    /**
+     * Constructor that maps the buffer over a region of a file.
+     *
+     * @param   channel       channel of the file holding the data
+     * @param   filePosition  byte position in the file of the first element
+     * @param   size          the number of elements to map
+     * @param   bigEndian     byte order of the data in the file
+     *
+     * @throws  IOException  if the file is too short or cannot be mapped
+     */
+    public BufferDirectInt(FileChannel channel, long filePosition, long size, boolean bigEndian) throws IOException {
+        super(channel, filePosition, size, 2, bigEndian);
+    }
+
+    //~ Methods --------------------------------------------------------------------------------------------------------
+
+    /** Return int.class */
+    protected final Class<?> getType() { return int.class; }
+
+    /**
+     * Reads the stored int at position.
+     *
+     * @param   position  position in the buffer
+     *
+     * @return  the stored value
+     */
+    private int elementAt(long position) {
+        return segment(position).getInt(offset(position));
+    }
+
+    /**
+     * Stores an int at position.
+     *
+     * @param  position  position in the buffer
+     * @param  value     the value to store
+     */
+    private void putElement(long position, int value) {
+        segment(position).putInt(offset(position), value);
+    }
+
+    /**
+     * Gets the data as a Number object.
+     *
+     * @param   position  position in the buffer
+     *
+     * @return  Number object of the data
+     */
+    protected final Number get(long position) {
+        return (new Integer((int) elementAt(position)));
+    }
+
+    /**
+     * Gets the data from the object.
+     *
+     * @param   position  position in the buffer to get
+     *
+     * @return  true if data at position is not equal to zero else its false
+     */
+    protected final boolean getBoolean(long position) {
+
+        if (elementAt(position) != 0) {
+            return true;
+        } else {
+            return false;
+        }
+    }
+
+    /**
+     * Gets the data in byte format.
+     *
+     * @param   position  position in the buffer
+     *
+     * @return  the byte value
+     */
+    protected final byte getByte(long position) {
+        return (byte) (elementAt(position));
+    }
+
+    /**
+     * Gets the data in double format.
+     *
+     * @param   position  position in the buffer
+     *
+     * @return  double value as an double
+     */
+    protected final double getDouble(long position) {
+        return (double) (elementAt(position));
+    }
+
+    /**
+     * Gets the data in float format.
+     *
+     * @param   position  position in the buffer
+     *
+     * @return  double value as an float
+     */
+    protected final float getFloat(long position) {
+        return (float) (elementAt(position));
+    }
+
+    /**
+     * Gets the data in int format.
+     *
+     * @param   position  position in the buffer
+     *
+     * @return  double value as an int
+     */
+    protected final int getInt(long position) {
+        return (elementAt(position));
+    }
+
+    /**
+     * Gets the data in long format.
+     *
+     * @param   position  position in the buffer
+     *
+     * @return  double value as a long
+     */
+    protected final long getLong(long position) {
+        return (long) (elementAt(position));
+    }
+
+    /**
+     * Gets the data in short format.
+     *
+     * @param   position  position in the buffer
+     *
+     * @return  double value as a short
+     */
+    protected final short getShort(long position) {
+        return (short) (elementAt(position));
+    }
+
+    /**
+     * Gets the data in unsigned byte format.
+     *
+     * @param   position  position in the buffer
+     *
+     * @return  the double value as a short (unsigned byte)
+     */
+    protected final short getUByte(long position) {
+        return ((short) ((int) elementAt(position) & 0xff));
+    }
+
+    /**
+     * Gets the data in unsigned long format.
+     *
+     * @param   position  position in the buffer
+     *
+     * @return  short value as a long
+     */
+    protected final long getUInt(long position) {
+        return ((long) (elementAt(position) & 0xffffffff));
+    }
+
+    /**
+     * Gets the data in unsigned short format.
+     *
+     * @param   position  position in the buffer
+     *
+     * @return  double value as an int
+     */
+    protected final int getUShort(long position) {
+        return (int) (elementAt(position) & 0xffff);
+    }
+
+
+    /**
+     * Set methods.
+     *
+     * @param  position  DOCUMENT ME!
+     * @param  value     DOCUMENT ME!
+     */
+
+    /**
+     * Sets the Number data in int format.
+     *
+     * @param  position  position in the buffer
+     * @param  value     the new data value to be placed in the buffer
+     */
+    protected final void set(long position, Number value) {
+        putElement(position, value.intValue());
+    }
+
+    /**
+     * Sets the int data in int format.
+     *
+     * @param  position  position in the buffer
+     * @param  value     the new data value to be placed in the buffer
+     */
+    protected final void set(long position, int value) {
+        putElement(position, value);
+    }
+
+    /**
+     * Sets the data in int format. One if value is true, zero if value is false
+     *
+     * @param  position  position in the buffer
+     * @param  value     the new data value to be placed in the buffer
+     */
+    protected final void setBoolean(long position, boolean value) {
+
+        if (value) {
+            putElement(position, (int) 1);
+        } else {
+            putElement(position, (int) 0);
+        }
+    }
+
+    /**
+     * Sets the value in int format.
+     *
+     * @param  position  position in the buffer
+     * @param  value     the new data value to be placed in the buffer
+     */
+    protected final void setByte(long position, byte value) {
+        putElement(position, (int) value);
+    }
+
+    /**
+     * Sets the value in int format.
+     *
+     * @param  position  position in the buffer
+     * @param  value     the new data value to be placed in the buffer
+     */
+    protected final void setDouble(long position, double value) {
+
+        if (value < 0) {
+            putElement(position, (int) (value - 0.5f));
+        } else {
+            putElement(position, (int) (value + 0.5f));
+        }
+
+        // putElement(position, (int)(MipavMath.round(value)));
+    }
+
+    /**
+     * Sets the value in int format.
+     *
+     * @param  position  position in the buffer
+     * @param  value     the new data value to be placed in the buffer
+     */
+    protected final void setFloat(long position, float value) {
+
+        if (value < 0) {
+            putElement(position, (int) (value - 0.5f));
+        } else {
+            putElement(position, (int) (value + 0.5f));
+        }
+
+        // putElement(position, (int)(MipavMath.round(value)));
+    }
+
+    /**
+     * Sets the value in int format.
+     *
+     * @param  position  position in the buffer
+     * @param  value     the new data value to be placed in the buffer
+     */
+    protected final void setInt(long position, int value) {
+        putElement(position, (int) value);
+    }
+
+    /**
+     * Sets the value in int format.
+     *
+     * @param  position  position in the buffer
+     * @param  value     the new data value to be placed in the buffer
+     */
+    protected final void setLong(long position, long value) {
+        putElement(position, (int) value);
+    }
+
+    /**
+     * Sets the value in int format.
+     *
+     * @param  position  position in the buffer
+     * @param  value     the new data value to be placed in the buffer
+     */
+    protected final void setShort(long position, short value) {
+        putElement(position, (int) value);
+    }
+
+    /**
+     * Sets the value in int format.
+     *
+     * @param  position  position in the buffer
+     * @param  value     the new data value to be placed in the buffer
+     */
+    protected final void setUByte(long position, short value) {
+        putElement(position, (int) value);
+    }
+
+    /**
+     * Sets the value in int format.
+     *
+     * @param  position  position in the buffer
+     * @param  value     the new data value to be placed in the buffer
+     */
+    protected final void setUInt(long position, long value) {
+        putElement(position, (int) value);
+    }
+
+    /**
+     * Sets the value in int format.
+     *
+     * @param  position  position in the buffer
+     * @param  value     the new data value to be placed in the buffer
+     */
+    protected final void setUShort(long position, int value) {
+        putElement(position, (short) value);
+    }
+
+}
@@ -0,0 +1,359 @@
+package gov.nih.mipav.model.structures;
+
+
+import java.io.IOException;
+
+import java.nio.channels.FileChannel;
+
+
+/**
+ * This class extends the abstract BufferDirectBase class. It allocates off-heap, long indexed space for an unsigned
+ * byte buffer on construction, or maps the buffer over a region of a file. The accessors apply the same conversions as
+ * BufferUByte.
+ *
+ * @see  BufferDirectBase
+ * @see  BufferUByte
+ */
+
+
+public class BufferDirectUByte extends BufferDirectBase {
+
+    //~ Static fields/initializers -------------------------------------------------------------------------------------
+
+    /** Use serialVersionUID for interoperability. */
+    private static final long serialVersionUID = 291028859863088068L;
+
+    //~ Constructors ---------------------------------------------------------------------------------------------------
+
+    /**
+     * Constructor that allocates off-heap memory.
+     *
+     * @param  size  the number of elements to allocate
+     */
+    public BufferDirectUByte(long size) {
+        super(size, 0);
+    }
+
+    /**
+     * Constructor that maps the buffer over a region of a file.
+     *
+     * @param   channel       channel of the file holding the data
+     * @param   filePosition  byte position in the file of the first element
+     * @param   size          the number of elements to map
+     * @param   bigEndian     byte order of the data in the file
+     *
+     * @throws  IOException  if the file is too short or cannot be mapped
+     */
+    public BufferDirectUByte(FileChannel channel, long filePosition, long size, boolean bigEndian) throws IOException {
+        super(channel, filePosition, size, 0, bigEndian);
+    }
+
+    //~ Methods --------------------------------------------------------------------------------------------------------
+
+    /** Return byte.class */
+    protected final Class<?> getType() { return byte.class; }
+
+    /**
+     * Reads the stored byte at position.
+     *
+     * @param   position  position in the buffer
+     *
+     * @return  the stored value
+     */
+    private byte elementAt(long position) {
+        return segment(position).get(offset(position));
+    }
+
+    /**
+     * Stores a byte at position.
+     *
+     * @param  position  position in the buffer
+     * @param  value     the value to store
+     */
+    private void putElement(long position, byte value) {
+        segment(position).put(offset(position), value);
+    }
+
+    /**
+     * Gets the data in as a Number object.
+     *
+     * @param   position  position in the buffer
+     *
+     * @return  Number object of the data
+     */
+    protected final Number get(long position) {
+        return (Byte.valueOf((byte) elementAt(position)));
+    }
+
+    /*
+     *  Gets the data in byte format @param position    position in the buffer @return            Number object of the
+     * data
+     */
+    // protected final byte get(long position){
+    // return (elementAt(position));
+    // }
+
+    /**
+     * Gets the data from the object as a boolean.
+     *
+     * @param   position  position in the buffer to get
+     *
+     * @return  true if data at position is not equal to zero else its false
+     */
+    protected final boolean getBoolean(long position) {
+
+        if (elementAt(position) != 0) {
+            return true;
+        } else {
+            return false;
+        }
+    }
+
+    /**
+     * Gets the data in byte format.
+     *
+     * @param   position  position in the buffer
+     *
+     * @return  the byte value
+     */
+    protected final byte getByte(long position) {
+        return (elementAt(position));
+    }
+
+    /**
+     * Gets the data in double format.
+     *
+     * @param   position  position in the buffer
+     *
+     * @return  byte value as a double
+     */
+    protected final double getDouble(long position) {
+        return (double) (elementAt(position) & 0xff);
+    }
+
+    /**
+     * Gets the data in float format.
+     *
+     * @param   position  position in the buffer
+     *
+     * @return  byte value as a float
+     */
+    protected final float getFloat(long position) {
+        return (float) (elementAt(position) & 0xff);
+    }
+
+    /**
+     * Gets the data in int format.
+     *
+     * @param   position  position in the buffer
+     *
+     * @return  byte value as an int
+     */
+    protected final int getInt(long position) {
+        return (int) (elementAt(position) & 0xff);
+    }
+
+    /**
+     * Gets the data in long format.
+     *
+     * @param   position  position in the buffer
+     *
+     * @return  byte value as a long
+     */
+    protected final long getLong(long position) {
+        return (long) (elementAt(position) & 0xff);
+    }
+
+    /**
+     * Gets the data in short format.
+     *
+     * @param   position  position in the buffer
+     *
+     * @return  byte value as a short
+     */
+    protected final short getShort(long position) {
+        return (short) (elementAt(position) & 0xff);
+    }
+
+    /**
+     * Gets the data in short format.
+     *
+     * @param   position  position in the buffer
+     *
+     * @return  the byte value as a short (unsigned byte)
+     */
+    protected final short getUByte(long position) {
+        return (short) (elementAt(position) & 0xff);
+    }
+
+    /**
+     * Gets the data in long format.
+     *
+     * @param   position  position in the buffer
+     *
+     * @return  byte value as a long
+     */
+    protected final long getUInt(long position) {
+        return ((long) (elementAt(position) & 0xff));
+    }
+
+    /**
+     * Gets the data in unsigned short format.
+     *
+     * @param   position  position in the buffer
+     *
+     * @return  byte value as an int
+     */
+    protected final int getUShort(long position) {
+        return (int) (elementAt(position) & 0xff);
+    }
+
+    /**
+     * Set methods.
+     *
+     * @param  position  DOCUMENT ME!
+     * @param  value     DOCUMENT ME!
+     */
+
+
+    /**
+     * Sets the Number object in byte format.
+     *
+     * @param  position  position in the buffer
+     * @param  value     the new data value to be placed in the buffer
+     */
+    protected final void set(long position, Number value) {
+        putElement(position, value.byteValue());
+    }
+
+    /**
+     * Sets the value in byte format.
+     *
+     * @param  position  position in the buffer
+     * @param  value     the new data value to be placed in the buffer
+     */
+    protected final void set(long position, byte value) {
+        putElement(position, value);
+    }
+
+
+    /**
+     * Sets the data in byte format. One if value is true, zero if value is false
+     *
+     * @param  position  position in the buffer
+     * @param  value     the new data value to be placed in the buffer
+     */
+    protected final void setBoolean(long position, boolean value) {
+
+        if (value) {
+            putElement(position, (byte) 1);
+        } else {
+            putElement(position, (byte) 0);
+        }
+    }
+
+    /**
+     * Sets the value in byte format.
+     *
+     * @param  position  position in the buffer
+     * @param  value     the new data value to be placed in the buffer
+     */
+    protected final void setByte(long position, byte value) {
+        putElement(position, value);
+    }
+
+    /**
+     * Sets the value in byte format.
+     *
+     * @param  position  position in the buffer
+     * @param  value     the new data value to be placed in the buffer
+     */
+    protected final void setDouble(long position, double value) {
+
+        if (value < 0) {
+            putElement(position, (byte) (value - 0.5f));
+        } else {
+            putElement(position, (byte) (value + 0.5f));
+        }
+
+
+        // putElement(position, (byte)(MipavMath.round(value)));
+    }
+
+    /**
+     * Sets the value in byte format.
+     *
+     * @param  position  position in the buffer
+     * @param  value     the new data value to be placed in the buffer
+     */
+    protected final void setFloat(long position, float value) {
+
+        if (value < 0) {
+            putElement(position, (byte) (value - 0.5f));
+        } else {
+            putElement(position, (byte) (value + 0.5f));
+        }
+
+        // putElement(position, (byte)(MipavMath.round(value)));
+    }
+
+    /**
+     * Sets the value in byte format.
+     *
+     * @param  position  position in the buffer
+     * @param  value     the new data value to be placed in the buffer
+     */
+    protected final void setInt(long position, int value) {
+        putElement(position, (byte) value);
+    }
+
+    /**
+     * Sets the value in byte format.
+     *
+     * @param  position  position in the buffer
+     * @param  value     the new data value to be placed in the buffer
+     */
+    protected final void setLong(long position, long value) {
+        putElement(position, (byte) value);
+    }
+
+    /**
+     * Sets the value in byte format.
+     *
+     * @param  position  position in the buffer
+     * @param  value     the new data value to be placed in the buffer
+     */
+    protected final void setShort(long position, short value) {
+        putElement(position, (byte) value);
+    }
+
+    /**
+     * Sets the value in byte format.
+     *
+     * @param  position  position in the buffer
+     * @param  value     the new data value to be placed in the buffer
+     */
+    protected final void setUByte(long position, short value) {
+        putElement(position, (byte) value);
+    }
+
+    /**
+     * Sets the int value in unsigned short format.
+     *
+     * @param  position  position in the buffer
+     * @param  value     the new data value to be placed in the buffer
+     */
+    protected final void setUInt(long position, long value) {
+        putElement(position, (byte) value);
+    }
+
+    /**
+     * Sets the value in byte format.
+     *
+     * @param  position  position in the buffer
+     * @param  value     the new data value to be placed in the buffer
+     */
+    protected final void setUShort(long position, int value) {
+        putElement(position, (byte) value);
+    }
+}
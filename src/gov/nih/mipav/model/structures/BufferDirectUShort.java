@@ -0,0 +1,353 @@
+package gov.nih.mipav.model.structures;
+
+
+import java.io.IOException;
+
+import java.nio.channels.FileChannel;
+
+
+/**
+ * This class extends the abstract BufferDirectBase class. It allocates off-heap, long indexed space for an unsigned
+ * short buffer on construction, or maps the buffer over a region of a file. The accessors apply the same conversions as
+ * BufferUShort.
+ *
+ * @see  BufferDirectBase
+ * @see  BufferUShort
+ */
+
+public class BufferDirectUShort extends BufferDirectBase {
+
+    //~ Static fields/initializers -------------------------------------------------------------------------------------
+
+    /** Use serialVersionUID for interoperability. */
+    private static final long serialVersionUID = -1750666214957304859L;
+
+    //~ Constructors ---------------------------------------------------------------------------------------------------
+
+    /**
+     * Constructor that allocates off-heap memory.
+     *
+     * @param  size  the number of elements to allocate
+     */
+    public BufferDirectUShort(long size) {
+        super(size, 1);
+    }
+
+    /**
+     * Constructor that maps the buffer over a region of a file.
+     *
+     * @param   channel       channel of the file holding the data
+     * @param   filePosition  byte position in the file of the first element
+     * @param   size          the number of elements to map
+     * @param   bigEndian     byte order of the data in the file
+     *
+     * @throws  IOException  if the file is too short or cannot be mapped
+     */
+    public BufferDirectUShort(FileChannel channel, long filePosition, long size, boolean bigEndian) throws IOException {
+        super(channel, filePosition, size, 1, bigEndian);
+    }
+
+    //~ Methods --------------------------------------------------------------------------------------------------------
+
+    /** Return short.class */
+    protected final Class<?> getType() { return short.class; }
+
+    /**
+     * Reads the stored short at position.
+     *
+     * @param   position  position in the buffer
+     *
+     * @return  the stored value
+     */
+    private short elementAt(long position) {
+        return segment(position).getShort(offset(position));
+    }
+
+    /**
+     * Stores a short at position.
+     *
+     * @param  position  position in the buffer
+     * @param  value     the value to store
+     */
+    private void putElement(long position, short value) {
+        segment(position).putShort(offset(position), value);
+    }
+
+    /**
+     * Gets the data in as a Number object.
+     *
+     * @param   position  position in the buffer
+     *
+     * @return  Number object of the data
+     */
+    protected final Number get(long position) {
+        return (new Short((short) elementAt(position)));
+    }
+
+    /**
+     * Gets the data from the object as a boolean.
+     *
+     * @param   position  position in the buffer to get
+     *
+     * @return  true if data at position is not equal to zero else its false
+     */
+    protected final boolean getBoolean(long position) {
+
+        if (elementAt(position) != 0) {
+            return true;
+        } else {
+            return false;
+        }
+    }
+
+
+    /**
+     * Gets the data in byte format.
+     *
+     * @param   position  position in the buffer
+     *
+     * @return  the short value as a byte
+     */
+    protected final byte getByte(long position) {
+        return (byte) (elementAt(position) & 0xff);
+    }
+
+    /**
+     * Gets the data in double format.
+     *
+     * @param   position  position in the buffer
+     *
+     * @return  short value as a double
+     */
+    protected final double getDouble(long position) {
+        return (double) (elementAt(position) & 0xffff);
+    }
+
+    /**
+     * Gets the data in float format.
+     *
+     * @param   position  position in the buffer
+     *
+     * @return  short value as a float
+     */
+    protected final float getFloat(long position) {
+        return (float) (elementAt(position) & 0xffff);
+    }
+
+    /**
+     * Gets the data in int format.
+     *
+     * @param   position  position in the buffer
+     *
+     * @return  short value as an int
+     */
+    protected final int getInt(long position) {
+        return (int) (elementAt(position) & 0xffff);
+    }
+
+
+    /**
+     * Gets the data in long format.
+     *
+     * @param   position  position in the buffer
+     *
+     * @return  short value as a long
+     */
+    protected final long getLong(long position) {
+        return (long) (elementAt(position) & 0xffff);
+    }
+
+    /**
+     * Gets the data in short format.
+     *
+     * @param   position  position in the buffer
+     *
+     * @return  short value as a short
+     */
+    protected final short getShort(long position) {
+        return (elementAt(position));
+    }
+
+    /**
+     * Gets the data in short format.
+     *
+     * @param   position  position in the buffer
+     *
+     * @return  the short value as a short (unsigned byte)
+     */
+    protected final short getUByte(long position) {
+        return ((short) (elementAt(position) & 0xff));
+    }
+
+    /**
+     * Gets the data in long format.
+     *
+     * @param   position  position in the buffer
+     *
+     * @return  short value as a long
+     */
+    protected final long getUInt(long position) {
+        return ((long) (elementAt(position) & 0xffff));
+    }
+
+    /**
+     * Gets the data in unsigned short format.
+     *
+     * @param   position  position in the buffer
+     *
+     * @return  short value as an int
+     */
+    protected final int getUShort(long position) {
+        return (elementAt(position) & 0xffff);
+    }
+
+
+    /**
+     * Set methods.
+     *
+     * @param  position  DOCUMENT ME!
+     * @param  value     DOCUMENT ME!
+     */
+
+    /**
+     * Sets the value in unsigned short format.
+     *
+     * @param  position  position in the buffer
+     * @param  value     the new data value to be placed in the buffer
+     */
+    protected final void set(long position, Number value) {
+        putElement(position, value.shortValue());
+    }
+
+    /**
+     * Sets the value in unsigned short format.
+     *
+     * @param  position  position in the buffer
+     * @param  value     the new data value to be placed in the buffer
+     */
+    protected final void set(long position, short value) {
+        putElement(position, value);
+    }
+
+
+    /**
+     * Sets the data in float format. One if value is true, zero if value is false
+     *
+     * @param  position  position in the buffer
+     * @param  value     the new data value to be placed in the buffer
+     */
+    protected final void setBoolean(long position, boolean value) {
+
+        if (value) {
+            putElement(position, (short) 1);
+        } else {
+            putElement(position, (short) 0);
+        }
+    }
+
+    /**
+     * Sets the byte value in unsigned short format.
+     *
+     * @param  position  position in the buffer
+     * @param  value     the new data value to be placed in the buffer
+     */
+    protected final void setByte(long position, byte value) {
+        putElement(position, (short) value);
+    }
+
+    /**
+     * Sets the double value in unsigned short format.
+     *
+     * @param  position  position in the buffer
+     * @param  value     the new data value to be placed in the buffer
+     */
+    protected final void setDouble(long position, double value) {
+
+        if (value < 0) {
+            putElement(position, (short) (value - 0.5f));
+        } else {
+            putElement(position, (short) (value + 0.5f));
+        }
+
+        // putElement(position, (short)(MipavMath.round(value)));
+    }
+
+    /**
+     * Sets the float value in unsigned short format.
+     *
+     * @param  position  position in the buffer
+     * @param  value     the new data value to be placed in the buffer
+     */
+    protected final void setFloat(long position, float value) {
+
+        if (value < 0) {
+            putElement(position, (short) (value - 0.5f));
+        } else {
+            putElement(position, (short) (value + 0.5f));
+        }
+
+        // putElement(position, (short)(MipavMath.round(value)));
+    }
+
+    /**
+     * Sets the int value in unsigned short format.
+     *
+     * @param  position  position in the buffer
+     * @param  value     the new data value to be placed in the buffer
+     */
+    protected final void setInt(long position, int value) {
+        putElement(position, (short) value);
+    }
+
+
+    /**
+     * Sets the long value in unsigned short format.
+     *
+     * @param  position  position in the buffer
+     * @param  value     the new data value to be placed in the buffer
+     */
+    protected final void setLong(long position, long value) {
+        putElement(position, (short) value);
+    }
+
+    /**
+     * Sets the short value in unsigned short format.
+     *
+     * @param  position  position in the buffer
+     * @param  value     the new data value to be placed in the buffer
+     */
+    protected final void setShort(long position, short value) {
+        putElement(position, value);
+    }
+
+    /**
+     * Sets the unsigned byte value in unsigned short format.
+     *
+     * @param  position  position in the buffer
+     * @param  value     the new data value to be placed in the buffer
+     */
+    protected final void setUByte(long position, short value) {
+        putElement(position, value);
+    }
+
+    /**
+     * Sets the int value in unsigned short format.
+     *
+     * @param  position  position in the buffer
+     * @param  value     the new data value to be placed in the buffer
+     */
+    protected final void setUInt(long position, long value) {
+        putElement(position, (short) value);
+    }
+
+    /**
+     * Sets the short (unsigned) value in unsigned short format.
+     *
+     * @param  position  position in the buffer
+     * @param  value     the new data value to be placed in the buffer
+     */
+    protected final void setUShort(long position, int value) {
+        putElement(position, (short) value);
+    }
+
+}
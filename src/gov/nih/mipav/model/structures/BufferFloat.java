@@ -51,6 +51,19 @@ public class BufferFloat extends BufferBase {
         dataArray = null;
     }
 
+    /**
+     * Returns a copy of the buffer with its own data array.
+     *
+     * @return  the copy
+     */
+    protected BufferBase copy() {
+        final BufferFloat copy = new BufferFloat();
+
+        copy.dataArray = dataArray.clone();
+
+        return copy;
+    }
+
     /** Return float.class */
     protected final Class<?> getType() { return float.class; }
 
@@ -316,4 +329,60 @@ public class BufferFloat extends BufferBase {
         dataArray[position] = (float) value;
     }
 
+    /**
+     * Copies consecutive values, converted to float, into an array.
+     *
+     * @param  start   position in dataArray of the first value
+     * @param  values  array where the values are to be deposited
+     * @param  offset  index in values of the first value
+     * @param  length  number of values to copy
+     */
+    protected final void getFloats(long start, float[] values, int offset, int length) {
+        System.arraycopy(dataArray, toIndex(start), values, offset, length);
+    }
+
+    /**
+     * Sets consecutive values of dataArray from a float array.
+     *
+     * @param  start   position in dataArray of the first value
+     * @param  values  array holding the new values
+     * @param  offset  index in values of the first value
+     * @param  length  number of values to copy
+     */
+    protected final void setFloats(long start, float[] values, int offset, int length) {
+        System.arraycopy(values, offset, dataArray, toIndex(start), length);
+    }
+
+    /**
+     * Copies consecutive values, converted to double, into an array.
+     *
+     * @param  start   position in dataArray of the first value
+     * @param  values  array where the values are to be deposited
+     * @param  offset  index in values of the first value
+     * @param  length  number of values to copy
+     */
+    protected final void getDoubles(long start, double[] values, int offset, int length) {
+        final int index = toIndex(start);
+
+        for (int i = 0; i < length; i++) {
+            values[offset + i] = getDouble(index + i);
+        }
+    }
+
+    /**
+     * Sets consecutive values of dataArray from a double array.
+     *
+     * @param  start   position in dataArray of the first value
+     * @param  values  array holding the new values
+     * @param  offset  index in values of the first value
+     * @param  length  number of values to copy
+     */
+    protected final void setDoubles(long start, double[] values, int offset, int length) {
+        final int index = toIndex(start);
+
+        for (int i = 0; i < length; i++) {
+            setDouble(index + i, values[offset + i]);
+        }
+    }
+
 }
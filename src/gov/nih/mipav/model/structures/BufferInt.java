@@ -52,6 +52,19 @@ public class BufferInt extends BufferBase {
         dataArray = null;
     }
 
+    /**
+     * Returns a copy of the buffer with its own data array.
+     *
+     * @return  the copy
+     */
+    protected BufferBase copy() {
+        final BufferInt copy = new BufferInt();
+
+        copy.dataArray = dataArray.clone();
+
+        return copy;
+    }
+
     /** Return int.class */
     protected final Class<?> getType() { return int.class; }
 
@@ -337,4 +350,68 @@ public class BufferInt extends BufferBase {
         dataArray[position] = (short) value;
     }
 
+    /**
+     * Copies consecutive values, converted to float, into an array.
+     *
+     * @param  start   position in dataArray of the first value
+     * @param  values  array where the values are to be deposited
+     * @param  offset  index in values of the first value
+     * @param  length  number of values to copy
+     */
+    protected final void getFloats(long start, float[] values, int offset, int length) {
+        final int index = toIndex(start);
+
+        for (int i = 0; i < length; i++) {
+            values[offset + i] = getFloat(index + i);
+        }
+    }
+
+    /**
+     * Sets consecutive values of dataArray from a float array.
+     *
+     * @param  start   position in dataArray of the first value
+     * @param  values  array holding the new values
+     * @param  offset  index in values of the first value
+     * @param  length  number of values to copy
+     */
+    protected final void setFloats(long start, float[] values, int offset, int length) {
+        final int index = toIndex(start);
+
+        for (int i = 0; i < length; i++) {
+            setFloat(index + i, values[offset + i]);
+        }
+    }
+
+    /**
+     * Copies consecutive values, converted to double, into an array.
+     *
+     * @param  start   position in dataArray of the first value
+     * @param  values  array where the values are to be deposited
+     * @param  offset  index in values of the first value
+     * @param  length  number of values to copy
+     */
+    protected final void getDoubles(long start, double[] values, int offset, int length) {
+        final int index = toIndex(start);
+
+        for (int i = 0; i < length; i++) {
+            values[offset + i] = getDouble(index + i);
+        }
+    }
+
+    /**
+     * Sets consecutive values of dataArray from a double array.
+     *
+     * @param  start   position in dataArray of the first value
+     * @param  values  array holding the new values
+     * @param  offset  index in values of the first value
+     * @param  length  number of values to copy
+     */
+    protected final void setDoubles(long start, double[] values, int offset, int length) {
+        final int index = toIndex(start);
+
+        for (int i = 0; i < length; i++) {
+            setDouble(index + i, values[offset + i]);
+        }
+    }
+
 }
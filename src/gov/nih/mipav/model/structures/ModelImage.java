@@ -148,8 +148,35 @@ public class ModelImage extends ModelStorageBase {
      * @deprecated Only one ViewUserInterface should be instantiated for an instance of MIPAV running, so _UI should be ViewUserInterface.getReference()
      */
     public ModelImage(final int type, final int[] dimExtents, final String name, final ViewUserInterface _UI) {
-        
-    	super(type, dimExtents);
+        this(type, dimExtents, name, _UI, true);
+    }
+
+    /**
+     * Creates a new ModelImage object, registering it to the default user interface, optionally without allocating
+     * the data buffer. An unallocated image must be given its data with mapData() before it is used.
+     * 
+     * @param type indicates type of buffer(ie. boolean, byte ...)
+     * @param dimExtents array indicating image extent in each dimension.
+     * @param name name of the image.
+     * @param allocate when false the data buffer is not allocated
+     */
+    public ModelImage(final int type, final int[] dimExtents, final String name, final boolean allocate) {
+        this(type, dimExtents, name, ViewUserInterface.getReference(), allocate);
+    }
+
+    /**
+     * Creates a new ModelImage object that is registered to the provided user interface.
+     * 
+     * @param type indicates type of buffer(ie. boolean, byte ...)
+     * @param dimExtents array indicating image extent in each dimension.
+     * @param name name of the image.
+     * @param _UI should be ViewUserInterface.getReference()
+     * @param allocate when false the data buffer is not allocated
+     */
+    private ModelImage(final int type, final int[] dimExtents, final String name, final ViewUserInterface _UI,
+            final boolean allocate) {
+
+        super(DataType.getDataType(type), dimExtents, allocate);
 
         int i;
 
@@ -5210,7 +5237,7 @@ public class ModelImage extends ModelStorageBase {
         double imMax = getMax();
         double imMin = getMin();
         double imDiff = imMax - imMin;
-        if ( (start >= 0) && ( (start + length) <= getSize()) && (length <= values.length)) {
+        if ( (start >= 0) && ( (start + length) <= getLongDataSize()) && (length <= values.length)) {
 
             try {
                 setLock(ModelStorageBase.W_LOCKED);
@@ -5269,7 +5296,7 @@ public class ModelImage extends ModelStorageBase {
             throws IOException {
         int i, j;
 
-        if ( (start >= 0) && ( (start + length) <= getSize()) && (length <= values.length)) {
+        if ( (start >= 0) && ( (start + length) <= getLongDataSize()) && (length <= values.length)) {
 
             try {
                 setLock(ModelStorageBase.W_LOCKED);
@@ -9,9 +9,15 @@ import gov.nih.mipav.view.MipavUtil;
 import gov.nih.mipav.view.Preferences;
 import gov.nih.mipav.view.Preferences.ComplexDisplay;
 
+import java.io.File;
 import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
 import java.lang.reflect.Array;
+import java.nio.channels.FileChannel;
 import java.util.*;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 import WildMagic.LibFoundation.Containment.ContBox3f;
 import WildMagic.LibFoundation.Mathematics.*;
@@ -44,6 +50,18 @@ public class ModelStorageBase extends ModelSerialCloneable {
     /** Used to indicate that the buffer is locked from writing. */
     public static final int W_LOCKED = 2;
 
+    /**
+     * Largest number of elements that is allocated as a java array. Larger buffers are allocated off-heap and are
+     * addressed with long positions.
+     */
+    public static final long MAX_ARRAY_SIZE = Integer.MAX_VALUE - 8;
+
+    /** Number of read-write locks guarding the data. Slices are assigned to the locks round robin. */
+    private static final int DATA_LOCK_STRIPES = 32;
+
+    /** Stripe mask selecting every data lock. */
+    private static final int ALL_DATA_STRIPES = -1;
+
     /** Used to indicate nearest neighbor interpolation. */
     public static final int NEAREST = 0;
 
@@ -272,12 +290,15 @@ public class ModelStorageBase extends ModelSerialCloneable {
     /** Type of image buffer (i.e. BOOLEAN, BYTE, UBYTE, SHORT ...) */
     private DataType bufferType;
 
-    /** Storage location of image data. */
-    private BufferBase data;
+    /** Storage location of image data. Serialized by writeObject, except by clone(), which copies it directly. */
+    private transient BufferBase data;
 
-    /** Total buffer length. */
+    /** Total buffer length. Clamped to Integer.MAX_VALUE when the data is held in an off-heap buffer. */
     private int dataSize;
 
+    /** Total buffer length, which may exceed the range of an int for off-heap buffers. */
+    private long longDataSize;
+
     /**
      * Bounds of the image where.
      * 
@@ -323,8 +344,32 @@ public class ModelStorageBase extends ModelSerialCloneable {
     /** Boolean telling if 3D images are processed 1 slice at a time. */
     private boolean image25D;
 
+    /**
+     * Read-write locks guarding the data, one per stripe of slices. Exports take the read locks of the slices they
+     * copy and imports take the write locks, so readers of any slices and writers of other slices run in parallel.
+     */
+    private final ReentrantReadWriteLock[] dataLocks = ModelStorageBase.createDataLocks();
+
+    /**
+     * Lock serializing the min and max computations of imports, which write the shared min and max fields. Imports of
+     * different slices run side by side but recompute these from the whole buffer.
+     */
+    private final ReentrantLock minMaxLock = new ReentrantLock();
+
+    /**
+     * The storage clone() is serializing on this thread. Its data is left out of the stream and copied buffer to
+     * buffer afterwards, since the stream is held in a byte array that cannot grow past 2 GB.
+     */
+    private static final ThreadLocal<ModelStorageBase> cloning = new ThreadLocal<ModelStorageBase>();
+
+    /** The file the data is mapped over by mapData(), or null. */
+    private File mappedFile;
+
     /** Locking status of the image. Default = UNLOCKED */
-    private int lockStatus = ModelStorageBase.UNLOCKED;
+    private volatile int lockStatus = ModelStorageBase.UNLOCKED;
+
+    /** Thread that took the W_LOCKED lock, which may still import data while it holds it. */
+    private transient volatile Thread writeLockOwner;
 
     /** Boolean telling if log magnitude display is used for the data buffer */
     protected boolean logMagDisp;
@@ -453,6 +498,26 @@ public class ModelStorageBase extends ModelSerialCloneable {
         construct(type, dimExtents);
     }
 
+    /**
+     * Sets up a buffer of the specified type, optionally without allocating memory. An unallocated buffer must be
+     * given its data with mapData() before it is accessed.
+     * 
+     * @param type type of buffer
+     * @param dimExtents extents of the buffer in each dimension
+     * @param allocate when false only the buffer size is computed and no memory is allocated
+     */
+    public ModelStorageBase(final DataType type, final int[] dimExtents, final boolean allocate) {
+
+        if (allocate) {
+            construct(type, dimExtents);
+        } else {
+            this.bufferType = type;
+            this.dimExtents = dimExtents.clone();
+            this.nDims = dimExtents.length;
+            computeDataSize();
+        }
+    }
+
     // ~ Methods
     // --------------------------------------------------------------------------------------------------------
 
@@ -520,6 +585,32 @@ public class ModelStorageBase extends ModelSerialCloneable {
         calcMinMax(logMagDisp);
     }
 
+    /**
+     * Calculates the min and max values after an import. The import must have released its write locks: the read locks
+     * of every slice are taken so that the whole buffer is stable, and the min max lock keeps simultaneous imports from
+     * writing the min and max fields at the same time.
+     * 
+     * @param magnitude true to calculate the min and max of the magnitude of complex data
+     * @param logMagDisplay if true calculate the magnitude min and max for log10 of 1 + magnitude
+     */
+    private void calcMinMaxShared(final boolean magnitude, final boolean logMagDisplay) {
+        final int stripes = lockStripes(ModelStorageBase.ALL_DATA_STRIPES, false);
+
+        minMaxLock.lock();
+
+        try {
+
+            if (magnitude) {
+                calcMinMaxMag(logMagDisplay);
+            } else {
+                calcMinMax();
+            }
+        } finally {
+            minMaxLock.unlock();
+            unlockData(stripes, false);
+        }
+    }
+
     /**
      * @param logMagDisplay if true calculate min and max for log10 of 1 + magnitude Calculates the min and max values
      *            for the image array.
@@ -533,7 +624,6 @@ public class ModelStorageBase extends ModelSerialCloneable {
         min = Double.POSITIVE_INFINITY;
         max = Double.NEGATIVE_INFINITY;
 
-        int i;
         double value;
 
         if ( (bufferType == DataType.COMPLEX) || (bufferType == DataType.DCOMPLEX)) {
@@ -551,8 +641,8 @@ public class ModelStorageBase extends ModelSerialCloneable {
              * if (valueShort < minShort) { minShort = valueShort; } } min = minShort; max = maxShort; }
              */
             // else if (bufferType == DOUBLE) {
-            for (i = 0; i < dataSize; i++) {
-                value = data.getDouble(i);
+            for (long l = 0; l < longDataSize; l++) {
+                value = data.getDouble(l);
                 if (value > max) {
                     max = value;
                 }
@@ -576,8 +666,8 @@ public class ModelStorageBase extends ModelSerialCloneable {
             minB = Double.POSITIVE_INFINITY;
             maxB = Double.NEGATIVE_INFINITY;
 
-            for (i = 0; i < dataSize; i += 4) {
-                value = data.getDouble(i);
+            for (long l = 0; l < longDataSize; l += 4) {
+                value = data.getDouble(l);
 
                 if (value > maxA) {
                     maxA = value;
@@ -587,7 +677,7 @@ public class ModelStorageBase extends ModelSerialCloneable {
                     minA = value;
                 }
                 
-                value = data.getDouble(i + 1);
+                value = data.getDouble(l + 1);
 
                 if (value > maxR) {
                     maxR = value;
@@ -597,7 +687,7 @@ public class ModelStorageBase extends ModelSerialCloneable {
                     minR = value;
                 }
 
-                value = data.getDouble(i + 2);
+                value = data.getDouble(l + 2);
 
                 if (value > maxG) {
                     maxG = value;
@@ -607,7 +697,7 @@ public class ModelStorageBase extends ModelSerialCloneable {
                     minG = value;
                 }
 
-                value = data.getDouble(i + 3);
+                value = data.getDouble(l + 3);
 
                 if (value > maxB) {
                     maxB = value;
@@ -616,7 +706,7 @@ public class ModelStorageBase extends ModelSerialCloneable {
                 if (value < minB) {
                     minB = value;
                 }
-            } // for(i= 0; i < dataSize; i+=4)
+            } // for(l= 0; l < longDataSize; l+=4)
             
             // Check for case where all values in buffer are Double.NaN or Float.NaN
             if ((maxA == Double.NEGATIVE_INFINITY) && (minA == Double.POSITIVE_INFINITY)) {
@@ -933,28 +1023,74 @@ public class ModelStorageBase extends ModelSerialCloneable {
     }
 
     /**
-     * Copies the object.
+     * Copies the object. The fields are copied by serialization, but the data buffer is copied directly so that
+     * images of any size can be cloned.
      * 
      * @return Returns the cloned object.
      */
     public Object clone() {
-        Object obj = null;
+        ModelStorageBase obj = null;
+        int stripes = 0;
+        final ModelStorageBase outer = ModelStorageBase.cloning.get();
 
         try {
-            setLock(ModelStorageBase.W_LOCKED);
-            obj = super.clone();
+            stripes = lockData(0, longDataSize, false);
+            ModelStorageBase.cloning.set(this);
+            obj = (ModelStorageBase) super.clone();
+
+            if (obj != null) {
+                obj.data = (data == null) ? null : data.copy();
+                obj.mappedFile = null;
+            }
         } catch (final IOException error) {
             MipavUtil.displayError("" + error);
 
             return null;
         } finally {
-            releaseLock();
+            ModelStorageBase.cloning.set(outer);
+            unlockData(stripes, false);
         }
 
         return (obj);
 
     }
 
+    /**
+     * Reads the data buffer after the default fields, unless the stream was written by clone().
+     * 
+     * @param in the stream to read from
+     * 
+     * @throws IOException if the stream cannot be read
+     * @throws ClassNotFoundException if the class of the buffer cannot be found
+     */
+    private void readObject(final ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+
+        if (in.readBoolean()) {
+            data = (BufferBase) in.readObject();
+        }
+    }
+
+    /**
+     * Writes the data buffer after the default fields, unless this storage is being cloned, in which case clone()
+     * copies the buffer itself.
+     * 
+     * @param out the stream to write to
+     * 
+     * @throws IOException if the stream cannot be written
+     */
+    private void writeObject(final ObjectOutputStream out) throws IOException {
+        out.defaultWriteObject();
+
+        final boolean withData = ModelStorageBase.cloning.get() != this;
+
+        out.writeBoolean(withData);
+
+        if (withData) {
+            out.writeObject(data);
+        }
+    }
+
     /**
      * Disposes of old data and constructs a new buffer of the user specific type if the image in NOT locked.
      * 
@@ -978,9 +1114,16 @@ public class ModelStorageBase extends ModelSerialCloneable {
 
                 exportData(0, dataSize, imgBuf);
 
-                data = null;
-                System.gc();
-                construct(DataType.FLOAT, dimExtents);
+                final int stripes = lockStripes(ModelStorageBase.ALL_DATA_STRIPES, true);
+
+                try {
+                    data = null;
+                    System.gc();
+                    construct(DataType.FLOAT, dimExtents);
+                } finally {
+                    unlockData(stripes, true);
+                }
+
                 importData(0, imgBuf, true);
             } else {
                 return;
@@ -1034,7 +1177,7 @@ public class ModelStorageBase extends ModelSerialCloneable {
      * 
      * @throws IOException Throws an error when there is a locking or bounds error.
      */
-    public final synchronized float[] export(final int orientation, final int tSlice, final int slice,
+    public final float[] export(final int orientation, final int tSlice, final int slice,
             final float[] values, boolean bMask) throws IOException {
         final int[] axisOrder = MipavCoordinateSystems.getAxisOrder(this, orientation);
         final boolean[] axisFlip = MipavCoordinateSystems.getAxisFlip(this, orientation);
@@ -1056,13 +1199,13 @@ public class ModelStorageBase extends ModelSerialCloneable {
      * 
      * @throws IOException Throws an error when there is a locking or bounds error.
      */
-    public final synchronized float[] export(final int[] axisOrder, final boolean[] axisFlip, final int tSlice,
+    public final float[] export(final int[] axisOrder, final boolean[] axisFlip, final int tSlice,
             final int slice, final float[] values, boolean bMask) throws IOException {
         float[] fReturn = null;
 
-        try {
-            setLock(ModelStorageBase.W_LOCKED);
+        final int stripes = lockData(0, longDataSize, false);
 
+        try {
             /* Get the loop bounds, based on the coordinate-systems: transformation: */
             final int iBound = (dimExtents.length > 0) ? dimExtents[axisOrder[0]] : 1;
             final int jBound = (dimExtents.length > 1) ? dimExtents[axisOrder[1]] : 1;
@@ -1185,10 +1328,8 @@ public class ModelStorageBase extends ModelSerialCloneable {
                     }
                 }
             }
-        } catch (final IOException error) {
-            throw error;
         } finally {
-            releaseLock();
+            unlockData(stripes, false);
         }
 
         return fReturn;
@@ -1204,25 +1345,23 @@ public class ModelStorageBase extends ModelSerialCloneable {
      * 
      * @throws IOException Throws an error when there is a locking or bounds error.
      */
-    public final synchronized void exportComplexData(final int start, final int length, final float[] valuesR,
+    public final void exportComplexData(final int start, final int length, final float[] valuesR,
             final float[] valuesI) throws IOException {
         int i, j;
 
         if ( (start >= 0) && ( (start + (2 * length)) <= dataSize) && (length <= valuesR.length)
                 && (length <= valuesI.length)) {
 
-            try {
-                setLock(ModelStorageBase.W_LOCKED);
+            final int stripes = lockData(start, 2L * length, false);
 
+            try {
                 for (i = start, j = 0; j < length; i += 2, j++) {
                     valuesR[j] = data.getFloat(i);
                     valuesI[j] = data.getFloat(i + 1);
                 }
 
-            } catch (final IOException error) {
-                throw error;
             } finally {
-                releaseLock();
+                unlockData(stripes, false);
             }
 
             return;
@@ -1275,9 +1414,9 @@ public class ModelStorageBase extends ModelSerialCloneable {
 
         if ( (start >= 0) && ( (start + length) <= dataSize)) {
 
-            try {
-                setLock(ModelStorageBase.W_LOCKED);
+            final int stripes = lockData(start, length, false);
 
+            try {
                 final Class<?> buffer_type = data.getType();
                 if (buffer_type == null) {
                     return null;
@@ -1288,10 +1427,8 @@ public class ModelStorageBase extends ModelSerialCloneable {
                 for (i = start, j = 0; j < length; i++, j++) {
                     Array.set(value_array, j, data.get(i));
                 }
-            } catch (final IOException error) {
-                throw error;
             } finally {
-                releaseLock();
+                unlockData(stripes, false);
             }
 
             return value_array;
@@ -1307,15 +1444,14 @@ public class ModelStorageBase extends ModelSerialCloneable {
      * @throws IOException
      */
     public final void importData(final Object value_array) throws IOException {
+        final int stripes = lockData(0, longDataSize, true);
+
         try {
-            setLock(ModelStorageBase.W_LOCKED);
             for (int i = 0; i < Math.min(Array.getLength(value_array), dataSize); i++) {
                 data.set(i, (Number) Array.get(value_array, i));
             }
-        } catch (final IOException error) {
-            throw error;
         } finally {
-            releaseLock();
+            unlockData(stripes, true);
         }
     }
 
@@ -1333,16 +1469,14 @@ public class ModelStorageBase extends ModelSerialCloneable {
 
         if ( (start >= 0) && ( (start + length) <= dataSize) && (length <= values.length)) {
 
-            try {
-                setLock(ModelStorageBase.W_LOCKED);
+            final int stripes = lockData(start, length, false);
 
+            try {
                 for (i = start, j = 0; j < length; i++, j++) {
                     values[j] = data.get(i);
                 }
-            } catch (final IOException error) {
-                throw error;
             } finally {
-                releaseLock();
+                unlockData(stripes, false);
             }
 
             return;
@@ -1360,15 +1494,15 @@ public class ModelStorageBase extends ModelSerialCloneable {
      * 
      * @throws IOException Throws an error when there is a locking or bounds error.
      */
-    public final synchronized void exportData(final int start, final int length, final BitSet values)
+    public final void exportData(final int start, final int length, final BitSet values)
             throws IOException {
         int i, j;
 
         if ( (start >= 0) && ( (start + length) <= dataSize) && (length <= values.size())) {
 
-            try {
-                setLock(ModelStorageBase.W_LOCKED);
+            final int stripes = lockData(start, length, false);
 
+            try {
                 for (i = start, j = 0; j < length; i++, j++) {
 
                     if (data.getBoolean(i)) {
@@ -1377,10 +1511,8 @@ public class ModelStorageBase extends ModelSerialCloneable {
                         values.clear(j);
                     }
                 }
-            } catch (final IOException error) {
-                throw error;
             } finally {
-                releaseLock();
+                unlockData(stripes, false);
             }
 
             return;
@@ -1398,23 +1530,21 @@ public class ModelStorageBase extends ModelSerialCloneable {
      * 
      * @throws IOException Throws an error when there is a locking or bounds error.
      */
-    public final synchronized void exportData(final int start, final int length, final byte[] values)
+    public final void exportData(final int start, final int length, final byte[] values)
             throws IOException {
         int i, j;
 
         if ( (start >= 0) && ( (start + length) <= dataSize) && (length <= values.length)) {
 
-            try {
-                setLock(ModelStorageBase.W_LOCKED);
+            final int stripes = lockData(start, length, false);
 
+            try {
                 for (i = start, j = 0; j < length; i++, j++) {
                     values[j] = data.getByte(i);
                 }
 
-            } catch (final IOException error) {
-                throw error;
             } finally {
-                releaseLock();
+                unlockData(stripes, false);
             }
 
             return;
@@ -1432,23 +1562,21 @@ public class ModelStorageBase extends ModelSerialCloneable {
      * 
      * @throws IOException Throws an error when there is a locking or bounds error.
      */
-    public final synchronized void exportData(final int start, final int length, final short[] values)
+    public final void exportData(final int start, final int length, final short[] values)
             throws IOException {
         int i, j;
 
         if ( (start >= 0) && ( (start + length) <= dataSize) && (length <= values.length)) {
 
-            try {
-                setLock(ModelStorageBase.W_LOCKED);
+            final int stripes = lockData(start, length, false);
 
+            try {
                 for (i = start, j = 0; j < length; i++, j++) {
                     values[j] = data.getShort(i);
                 }
 
-            } catch (final IOException error) {
-                throw error;
             } finally {
-                releaseLock();
+                unlockData(stripes, false);
             }
 
             return;
@@ -1466,22 +1594,20 @@ public class ModelStorageBase extends ModelSerialCloneable {
      * 
      * @throws IOException Throws an error when there is a locking or bounds error.
      */
-    public final synchronized void exportData(final int start, final int length, final int[] values) throws IOException {
+    public final void exportData(final int start, final int length, final int[] values) throws IOException {
         int i, j;
 
         if ( (start >= 0) && ( (start + length) <= dataSize) && (length <= values.length)) {
 
-            try {
-                setLock(ModelStorageBase.W_LOCKED);
+            final int stripes = lockData(start, length, false);
 
+            try {
                 for (i = start, j = 0; j < length; i++, j++) {
                     values[j] = data.getInt(i);
                 }
 
-            } catch (final IOException error) {
-                throw error;
             } finally {
-                releaseLock();
+                unlockData(stripes, false);
             }
 
             return;
@@ -1499,22 +1625,20 @@ public class ModelStorageBase extends ModelSerialCloneable {
      * 
      * @throws IOException Throws an error when there is a locking or bounds error.
      */
-    public final synchronized void exportData(final int start, final int length, final long[] values)
+    public final void exportData(final int start, final int length, final long[] values)
             throws IOException {
         int i, j;
 
         if ( (start >= 0) && ( (start + length) <= dataSize) && (length <= values.length)) {
 
-            try {
-                setLock(ModelStorageBase.W_LOCKED);
+            final int stripes = lockData(start, length, false);
 
+            try {
                 for (i = start, j = 0; j < length; i++, j++) {
                     values[j] = data.getLong(i);
                 }
-            } catch (final IOException error) {
-                throw error;
             } finally {
-                releaseLock();
+                unlockData(stripes, false);
             }
 
             return;
@@ -1532,23 +1656,17 @@ public class ModelStorageBase extends ModelSerialCloneable {
      * 
      * @throws IOException Throws an error when there is a locking or bounds error.
      */
-    public final synchronized void exportData(final int start, final int length, final float[] values)
+    public final void exportData(final int start, final int length, final float[] values)
             throws IOException {
-        int i, j;
-
         if ( (start >= 0) && ( (start + length) <= dataSize) && (length <= values.length)) {
 
-            try {
-                setLock(ModelStorageBase.W_LOCKED);
+            final int stripes = lockData(start, length, false);
 
-                for (i = start, j = 0; j < length; i++, j++) {
-                    values[j] = data.getFloat(i);
-                }
+            try {
+                data.getFloats(start, values, 0, length);
 
-            } catch (final IOException error) {
-                throw error;
             } finally {
-                releaseLock();
+                unlockData(stripes, false);
             }
 
             return;
@@ -1559,7 +1677,8 @@ public class ModelStorageBase extends ModelSerialCloneable {
     }
 
     /**
-     * Export data in values array.
+     * Export data to values array from a long start position, so that slices of off-heap buffers larger than
+     * Integer.MAX_VALUE elements can be read.
      * 
      * @param start indicates starting position in data array
      * @param length length of data to be copied from data array
@@ -1567,23 +1686,74 @@ public class ModelStorageBase extends ModelSerialCloneable {
      * 
      * @throws IOException Throws an error when there is a locking or bounds error.
      */
-    public final synchronized void exportData(final int start, final int length, final double[] values)
+    public final void exportData(final long start, final int length, final float[] values)
             throws IOException {
-        int i, j;
+        if ( (start >= 0) && ( (start + length) <= longDataSize) && (length <= values.length)) {
+
+            final int stripes = lockData(start, length, false);
+
+            try {
+                data.getFloats(start, values, 0, length);
+
+            } finally {
+                unlockData(stripes, false);
+            }
+
+            return;
+        }
+
+        throw new IOException("Export data error - bounds incorrect");
+    }
 
+    /**
+     * Export data in values array.
+     * 
+     * @param start indicates starting position in data array
+     * @param length length of data to be copied from data array
+     * @param values array where data is to be deposited
+     * 
+     * @throws IOException Throws an error when there is a locking or bounds error.
+     */
+    public final void exportData(final int start, final int length, final double[] values)
+            throws IOException {
         if ( (start >= 0) && ( (start + length) <= dataSize) && (length <= values.length)) {
 
+            final int stripes = lockData(start, length, false);
+
             try {
-                setLock(ModelStorageBase.W_LOCKED);
+                data.getDoubles(start, values, 0, length);
 
-                for (i = start, j = 0; j < length; i++, j++) {
-                    values[j] = data.getDouble(i);
-                }
+            } finally {
+                unlockData(stripes, false);
+            }
+
+            return;
+        }
+
+        throw new IOException("Export data error - bounds incorrect");
+    }
+
+    /**
+     * Export data to values array from a long start position, so that slices of off-heap buffers larger than
+     * Integer.MAX_VALUE elements can be read.
+     * 
+     * @param start indicates starting position in data array
+     * @param length length of data to be copied from data array
+     * @param values array where data is to be deposited
+     * 
+     * @throws IOException Throws an error when there is a locking or bounds error.
+     */
+    public final void exportData(final long start, final int length, final double[] values)
+            throws IOException {
+        if ( (start >= 0) && ( (start + length) <= longDataSize) && (length <= values.length)) {
+
+            final int stripes = lockData(start, length, false);
+
+            try {
+                data.getDoubles(start, values, 0, length);
 
-            } catch (final IOException error) {
-                throw error;
             } finally {
-                releaseLock();
+                unlockData(stripes, false);
             }
 
             return;
@@ -1602,7 +1772,7 @@ public class ModelStorageBase extends ModelSerialCloneable {
      * 
      * @throws IOException Throws an error when there is a locking or bounds error.
      */
-    public final synchronized void exportData(final int start, final int length0, final int length1,
+    public final void exportData(final int start, final int length0, final int length1,
             final float[] values) throws IOException {
         int i, j;
         int x, y;
@@ -1610,9 +1780,9 @@ public class ModelStorageBase extends ModelSerialCloneable {
 
         if ( (start >= 0) && ( (start + length) <= dataSize) && (length <= values.length)) {
 
-            try {
-                setLock(ModelStorageBase.W_LOCKED);
+            final int stripes = lockData(start, length, false);
 
+            try {
                 for (y = 0, j = 0; y < length1; y++) {
 
                     for (x = 0; x <= (length0 - 1); x++, j++) {
@@ -1620,10 +1790,8 @@ public class ModelStorageBase extends ModelSerialCloneable {
                         values[j] = data.getFloat(i);
                     }
                 }
-            } catch (final IOException error) {
-                throw error;
             } finally {
-                releaseLock();
+                unlockData(stripes, false);
             }
 
             return;
@@ -1666,7 +1834,7 @@ public class ModelStorageBase extends ModelSerialCloneable {
      * 
      * @throws IOException Throws an error when there is a bounds error.
      */
-    public final synchronized void exportDataNoLock(final int start, final int length, final BitSet values)
+    public final void exportDataNoLock(final int start, final int length, final BitSet values)
             throws IOException {
         int i, j;
 
@@ -1696,7 +1864,7 @@ public class ModelStorageBase extends ModelSerialCloneable {
      * 
      * @throws IOException Throws an error when there is a bounds error.
      */
-    public final synchronized void exportDataNoLock(final int start, final int length, final byte[] values)
+    public final void exportDataNoLock(final int start, final int length, final byte[] values)
             throws IOException {
         int i, j;
 
@@ -1721,7 +1889,7 @@ public class ModelStorageBase extends ModelSerialCloneable {
      * 
      * @throws IOException Throws an error when there is a bounds error.
      */
-    public final synchronized void exportDataNoLock(final int start, final int length, final short[] values)
+    public final void exportDataNoLock(final int start, final int length, final short[] values)
             throws IOException {
         int i, j;
 
@@ -1746,7 +1914,7 @@ public class ModelStorageBase extends ModelSerialCloneable {
      * 
      * @throws IOException Throws an error when there is a bounds error.
      */
-    public final synchronized void exportDataNoLock(final int start, final int length, final int[] values)
+    public final void exportDataNoLock(final int start, final int length, final int[] values)
             throws IOException {
         int i, j;
 
@@ -1771,7 +1939,7 @@ public class ModelStorageBase extends ModelSerialCloneable {
      * 
      * @throws IOException Throws an error when there is a bounds error.
      */
-    public final synchronized void exportDataNoLock(final int start, final int length, final long[] values)
+    public final void exportDataNoLock(final int start, final int length, final long[] values)
             throws IOException {
         int i, j;
 
@@ -1796,15 +1964,11 @@ public class ModelStorageBase extends ModelSerialCloneable {
      * 
      * @throws IOException Throws an error when there is a bounds error.
      */
-    public final synchronized void exportDataNoLock(final int start, final int length, final float[] values)
+    public final void exportDataNoLock(final int start, final int length, final float[] values)
             throws IOException {
-        int i, j;
-
         if ( (start >= 0) && ( (start + length) <= dataSize) && (length <= values.length)) {
 
-            for (i = start, j = 0; j < length; i++, j++) {
-                values[j] = data.getFloat(i);
-            }
+            data.getFloats(start, values, 0, length);
 
             return;
         }
@@ -1821,15 +1985,11 @@ public class ModelStorageBase extends ModelSerialCloneable {
      * 
      * @throws IOException Throws an error when there is a bounds error.
      */
-    public final synchronized void exportDataNoLock(final int start, final int length, final double[] values)
+    public final void exportDataNoLock(final int start, final int length, final double[] values)
             throws IOException {
-        int i, j;
-
         if ( (start >= 0) && ( (start + length) <= dataSize) && (length <= values.length)) {
 
-            for (i = start, j = 0; j < length; i++, j++) {
-                values[j] = data.getDouble(i);
-            }
+            data.getDoubles(start, values, 0, length);
 
             return;
         }
@@ -1847,24 +2007,22 @@ public class ModelStorageBase extends ModelSerialCloneable {
      * 
      * @throws IOException Throws an error when there is a locking or bounds error.
      */
-    public final synchronized void exportDComplexData(final int start, final int length, final double[] valuesR,
+    public final void exportDComplexData(final int start, final int length, final double[] valuesR,
             final double[] valuesI) throws IOException {
         int i, j;
 
         if ( (start >= 0) && ( (start + (2 * length)) <= dataSize) && (length <= valuesR.length)
                 && (length <= valuesI.length)) {
 
-            try {
-                setLock(ModelStorageBase.W_LOCKED);
+            final int stripes = lockData(start, 2L * length, false);
 
+            try {
                 for (i = start, j = 0; j < length; i += 2, j++) {
                     valuesR[j] = data.getDouble(i);
                     valuesI[j] = data.getDouble(i + 1);
                 }
-            } catch (final IOException error) {
-                throw error;
             } finally {
-                releaseLock();
+                unlockData(stripes, false);
             }
 
             return;
@@ -1895,330 +2053,328 @@ public class ModelStorageBase extends ModelSerialCloneable {
      * 
      * @throws IOException Throws an error when there is a locking or bounds error.
      */
-    public final synchronized void exportDiagonal(final int tSlice, final int slice, final int[] extents,
+    public final void exportDiagonal(final int tSlice, final int slice, final int[] extents,
             final Vector3f[] verts, final float[] values, final boolean bInterpolate) throws IOException {
 
-        try {
-            setLock(ModelStorageBase.W_LOCKED);
-        } catch (final IOException error) {
-            releaseLock();
-            throw error;
-        }
+        final int stripes = lockData(0, longDataSize, false);
 
-        final int iBound = extents[0];
-        final int jBound = extents[1];
+        try {
+            final int iBound = extents[0];
+            final int jBound = extents[1];
 
-        /*
-         * Get the loop multiplication factors for indexing into the 1D array with 3 index variables: based on the
-         * coordinate-systems: transformation:
-         */
-        final int iFactor = 1;
-        final int jFactor = dimExtents[0];
-        final int kFactor = dimExtents[0] * dimExtents[1];
-        final int tFactor = dimExtents[0] * dimExtents[1] * dimExtents[2];
+            /*
+             * Get the loop multiplication factors for indexing into the 1D array with 3 index variables: based on the
+             * coordinate-systems: transformation:
+             */
+            final int iFactor = 1;
+            final int jFactor = dimExtents[0];
+            final int kFactor = dimExtents[0] * dimExtents[1];
+            final int tFactor = dimExtents[0] * dimExtents[1] * dimExtents[2];
 
-        int buffFactor = 1;
+            int buffFactor = 1;
 
-        if ( (bufferType == DataType.ARGB) || (bufferType == DataType.ARGB_USHORT)
-                || (bufferType == DataType.ARGB_FLOAT)) {
-            buffFactor = 4;
-        }
+            if ( (bufferType == DataType.ARGB) || (bufferType == DataType.ARGB_USHORT)
+                    || (bufferType == DataType.ARGB_FLOAT)) {
+                buffFactor = 4;
+            }
         
-        /* Calculate the slopes for traversing the data in x,y,z: */
-        float xSlopeX = verts[1].X - verts[0].X;
-        float ySlopeX = verts[1].Y - verts[0].Y;
-        float zSlopeX = verts[1].Z - verts[0].Z;
-
-        float xSlopeY = verts[3].X - verts[0].X;
-        float ySlopeY = verts[3].Y - verts[0].Y;
-        float zSlopeY = verts[3].Z - verts[0].Z;
+            /* Calculate the slopes for traversing the data in x,y,z: */
+            float xSlopeX = verts[1].X - verts[0].X;
+            float ySlopeX = verts[1].Y - verts[0].Y;
+            float zSlopeX = verts[1].Z - verts[0].Z;
 
-        float x0 = verts[0].X;
-        float y0 = verts[0].Y;
-        float z0 = verts[0].Z;
+            float xSlopeY = verts[3].X - verts[0].X;
+            float ySlopeY = verts[3].Y - verts[0].Y;
+            float zSlopeY = verts[3].Z - verts[0].Z;
 
-        xSlopeX /= (iBound - 1);
-        ySlopeX /= (iBound - 1);
-        zSlopeX /= (iBound - 1);
+            float x0 = verts[0].X;
+            float y0 = verts[0].Y;
+            float z0 = verts[0].Z;
 
-        xSlopeY /= (jBound - 1);
-        ySlopeY /= (jBound - 1);
-        zSlopeY /= (jBound - 1);
+            xSlopeX /= (iBound - 1);
+            ySlopeX /= (iBound - 1);
+            zSlopeX /= (iBound - 1);
 
-        final boolean exportComplex = (values.length == (2 * iBound * jBound)) ? true : false;
-        double real, imaginary, mag;
+            xSlopeY /= (jBound - 1);
+            ySlopeY /= (jBound - 1);
+            zSlopeY /= (jBound - 1);
 
-        /* loop over the 2D image (values) we're writing into */
-        float x = x0;
-        float y = y0;
-        float z = z0;
-
-        for (int j = 0; j < jBound; j++) {
-
-            /* Initialize the first diagonal point(x,y,z): */
-            x = x0;
-            y = y0;
-            z = z0;
+            final boolean exportComplex = (values.length == (2 * iBound * jBound)) ? true : false;
+            double real, imaginary, mag;
 
-            for (int i = 0; i < iBound; i++) {
-                final int iIndex = (int) x;
-                final int jIndex = (int) y;
-                final int kIndex = (int) z;
+            /* loop over the 2D image (values) we're writing into */
+            float x = x0;
+            float y = y0;
+            float z = z0;
 
-                /* calculate the ModelImage space index: */
-                final int index = ( (iIndex * iFactor) + (jIndex * jFactor) + (kIndex * kFactor) + (tSlice * tFactor));
+            for (int j = 0; j < jBound; j++) {
 
-                /* Bounds checking, if out of bounds, set to zero: */
-                if ( ( (iIndex < 0) || (iIndex >= dimExtents[0])) || ( (jIndex < 0) || (jIndex >= dimExtents[1]))
-                        || ( (kIndex < 0) || (kIndex >= dimExtents[2])) || ( (index < 0) || ( (index * buffFactor) > dataSize))) {
+                /* Initialize the first diagonal point(x,y,z): */
+                x = x0;
+                y = y0;
+                z = z0;
 
-                    if ( (bufferType == DataType.ARGB) || (bufferType == DataType.ARGB_USHORT)
-                            || (bufferType == DataType.ARGB_FLOAT)) {
-                        values[ ( ( (j * iBound) + i) * 4) + 0] = 0;
-                        values[ ( ( (j * iBound) + i) * 4) + 1] = 0;
-                        values[ ( ( (j * iBound) + i) * 4) + 2] = 0;
-                        values[ ( ( (j * iBound) + i) * 4) + 3] = 0;
-                    }
-                    /* not color: */
-                    else {
-                        values[ (j * iBound) + i] = (float) this.min;
-                    }
-                } else {
+                for (int i = 0; i < iBound; i++) {
+                    final int iIndex = (int) x;
+                    final int jIndex = (int) y;
+                    final int kIndex = (int) z;
 
-                    /* if color: */
-                    if ( (bufferType == DataType.ARGB) || (bufferType == DataType.ARGB_USHORT)
-                            || (bufferType == DataType.ARGB_FLOAT)) {
-                        values[ ( ( (j * iBound) + i) * 4) + 0] = getFloat( (index * 4) + 0);
-                        values[ ( ( (j * iBound) + i) * 4) + 1] = getFloat( (index * 4) + 1);
-                        values[ ( ( (j * iBound) + i) * 4) + 2] = getFloat( (index * 4) + 2);
-                        values[ ( ( (j * iBound) + i) * 4) + 3] = getFloat( (index * 4) + 3);
-                    }
-                    /* if complex: */
-                    else if (bufferType == DataType.COMPLEX) {
+                    /* calculate the ModelImage space index: */
+                    final int index = ( (iIndex * iFactor) + (jIndex * jFactor) + (kIndex * kFactor) + (tSlice * tFactor));
+
+                    /* Bounds checking, if out of bounds, set to zero: */
+                    if ( ( (iIndex < 0) || (iIndex >= dimExtents[0])) || ( (jIndex < 0) || (jIndex >= dimExtents[1]))
+                            || ( (kIndex < 0) || (kIndex >= dimExtents[2])) || ( (index < 0) || ( (index * buffFactor) > dataSize))) {
+
+                        if ( (bufferType == DataType.ARGB) || (bufferType == DataType.ARGB_USHORT)
+                                || (bufferType == DataType.ARGB_FLOAT)) {
+                            values[ ( ( (j * iBound) + i) * 4) + 0] = 0;
+                            values[ ( ( (j * iBound) + i) * 4) + 1] = 0;
+                            values[ ( ( (j * iBound) + i) * 4) + 2] = 0;
+                            values[ ( ( (j * iBound) + i) * 4) + 3] = 0;
+                        }
+                        /* not color: */
+                        else {
+                            values[ (j * iBound) + i] = (float) this.min;
+                        }
+                    } else {
 
-                        if (exportComplex) {
-                            values[ ( ( (j * iBound) + i) * 2) + 0] = getFloat(index * 2);
-                            values[ ( ( (j * iBound) + i) * 2) + 1] = getFloat( (index * 2) + 1);
-                        } else {
-                            real = getFloat(index * 2);
-                            imaginary = getFloat( (index * 2) + 1);
+                        /* if color: */
+                        if ( (bufferType == DataType.ARGB) || (bufferType == DataType.ARGB_USHORT)
+                                || (bufferType == DataType.ARGB_FLOAT)) {
+                            values[ ( ( (j * iBound) + i) * 4) + 0] = getFloat( (index * 4) + 0);
+                            values[ ( ( (j * iBound) + i) * 4) + 1] = getFloat( (index * 4) + 1);
+                            values[ ( ( (j * iBound) + i) * 4) + 2] = getFloat( (index * 4) + 2);
+                            values[ ( ( (j * iBound) + i) * 4) + 3] = getFloat( (index * 4) + 3);
+                        }
+                        /* if complex: */
+                        else if (bufferType == DataType.COMPLEX) {
 
-                            if (logMagDisp == true) {
-                                mag = Math.sqrt( (real * real) + (imaginary * imaginary));
-                                values[ (j * iBound) + i] = (float) (0.4342944819 * Math.log( (1.0 + mag)));
+                            if (exportComplex) {
+                                values[ ( ( (j * iBound) + i) * 2) + 0] = getFloat(index * 2);
+                                values[ ( ( (j * iBound) + i) * 2) + 1] = getFloat( (index * 2) + 1);
                             } else {
-                                values[ (j * iBound) + i] = (float) Math.sqrt( (real * real) + (imaginary * imaginary));
+                                real = getFloat(index * 2);
+                                imaginary = getFloat( (index * 2) + 1);
+
+                                if (logMagDisp == true) {
+                                    mag = Math.sqrt( (real * real) + (imaginary * imaginary));
+                                    values[ (j * iBound) + i] = (float) (0.4342944819 * Math.log( (1.0 + mag)));
+                                } else {
+                                    values[ (j * iBound) + i] = (float) Math.sqrt( (real * real) + (imaginary * imaginary));
+                                }
                             }
                         }
-                    }
-                    /* not color: */
-                    else {
+                        /* not color: */
+                        else {
 
-                        if (bInterpolate) {
-                            values[ (j * iBound) + i] = getFloatTriLinearBounds(x, y, z);
-                        } else {
-                            values[ (j * iBound) + i] = getFloat(index);
+                            if (bInterpolate) {
+                                values[ (j * iBound) + i] = getFloatTriLinearBounds(x, y, z);
+                            } else {
+                                values[ (j * iBound) + i] = getFloat(index);
+                            }
                         }
                     }
+
+                    /*
+                     * Inner loop: Move to the next diagonal point along the x-direction of the plane, using the xSlopeX,
+                     * ySlopeX and zSlopeX values:
+                     */
+                    x = x + xSlopeX;
+                    y = y + ySlopeX;
+                    z = z + zSlopeX;
                 }
 
                 /*
-                 * Inner loop: Move to the next diagonal point along the x-direction of the plane, using the xSlopeX,
-                 * ySlopeX and zSlopeX values:
+                 * Outer loop: Move to the next diagonal point along the y-direction of the plane, using the xSlopeY,
+                 * ySlopeY and zSlopeY values:
                  */
-                x = x + xSlopeX;
-                y = y + ySlopeX;
-                z = z + zSlopeX;
+                x0 = x0 + xSlopeY;
+                y0 = y0 + ySlopeY;
+                z0 = z0 + zSlopeY;
             }
-
-            /*
-             * Outer loop: Move to the next diagonal point along the y-direction of the plane, using the xSlopeY,
-             * ySlopeY and zSlopeY values:
-             */
-            x0 = x0 + xSlopeY;
-            y0 = y0 + ySlopeY;
-            z0 = z0 + zSlopeY;
+        } finally {
+            unlockData(stripes, false);
         }
     }
 
 
 
-    public final synchronized void exportDiagonal(final int tSlice, final int slice, final int[] extents,
+    public final void exportDiagonal(final int tSlice, final int slice, final int[] extents,
             final Vector3f[] verts, final float[] values, final boolean bInterpolate, final BitSet imageMask,
             Vector<BitSet> surfaceMask, boolean[] surfaceValues) throws IOException {
 
-        try {
-            setLock(ModelStorageBase.W_LOCKED);
-        } catch (final IOException error) {
-            releaseLock();
-            throw error;
-        }
+        final int stripes = lockData(0, longDataSize, false);
 
-        final int iBound = extents[0];
-        final int jBound = extents[1];
+        try {
+            final int iBound = extents[0];
+            final int jBound = extents[1];
 
-        /*
-         * Get the loop multiplication factors for indexing into the 1D array with 3 index variables: based on the
-         * coordinate-systems: transformation:
-         */
-        final int iFactor = 1;
-        final int jFactor = dimExtents[0];
-        final int kFactor = dimExtents[0] * dimExtents[1];
-        final int tFactor = dimExtents[0] * dimExtents[1] * dimExtents[2];
+            /*
+             * Get the loop multiplication factors for indexing into the 1D array with 3 index variables: based on the
+             * coordinate-systems: transformation:
+             */
+            final int iFactor = 1;
+            final int jFactor = dimExtents[0];
+            final int kFactor = dimExtents[0] * dimExtents[1];
+            final int tFactor = dimExtents[0] * dimExtents[1] * dimExtents[2];
 
-        int buffFactor = 1;
+            int buffFactor = 1;
 
-        if ( (bufferType == DataType.ARGB) || (bufferType == DataType.ARGB_USHORT)
-                || (bufferType == DataType.ARGB_FLOAT)) {
-            buffFactor = 4;
-        }
+            if ( (bufferType == DataType.ARGB) || (bufferType == DataType.ARGB_USHORT)
+                    || (bufferType == DataType.ARGB_FLOAT)) {
+                buffFactor = 4;
+            }
         
-        /* Calculate the slopes for traversing the data in x,y,z: */
-        float xSlopeX = verts[1].X - verts[0].X;
-        float ySlopeX = verts[1].Y - verts[0].Y;
-        float zSlopeX = verts[1].Z - verts[0].Z;
-
-        float xSlopeY = verts[3].X - verts[0].X;
-        float ySlopeY = verts[3].Y - verts[0].Y;
-        float zSlopeY = verts[3].Z - verts[0].Z;
+            /* Calculate the slopes for traversing the data in x,y,z: */
+            float xSlopeX = verts[1].X - verts[0].X;
+            float ySlopeX = verts[1].Y - verts[0].Y;
+            float zSlopeX = verts[1].Z - verts[0].Z;
 
-        float x0 = verts[0].X;
-        float y0 = verts[0].Y;
-        float z0 = verts[0].Z;
+            float xSlopeY = verts[3].X - verts[0].X;
+            float ySlopeY = verts[3].Y - verts[0].Y;
+            float zSlopeY = verts[3].Z - verts[0].Z;
 
-        xSlopeX /= (iBound - 1);
-        ySlopeX /= (iBound - 1);
-        zSlopeX /= (iBound - 1);
+            float x0 = verts[0].X;
+            float y0 = verts[0].Y;
+            float z0 = verts[0].Z;
 
-        xSlopeY /= (jBound - 1);
-        ySlopeY /= (jBound - 1);
-        zSlopeY /= (jBound - 1);
+            xSlopeX /= (iBound - 1);
+            ySlopeX /= (iBound - 1);
+            zSlopeX /= (iBound - 1);
 
-        final boolean exportComplex = (values.length == (2 * iBound * jBound)) ? true : false;
-        double real, imaginary, mag;
+            xSlopeY /= (jBound - 1);
+            ySlopeY /= (jBound - 1);
+            zSlopeY /= (jBound - 1);
 
-        /* loop over the 2D image (values) we're writing into */
-        float x = x0;
-        float y = y0;
-        float z = z0;
-
-        for (int j = 0; j < jBound; j++) {
+            final boolean exportComplex = (values.length == (2 * iBound * jBound)) ? true : false;
+            double real, imaginary, mag;
 
-            /* Initialize the first diagonal point(x,y,z): */
-            x = x0;
-            y = y0;
-            z = z0;
+            /* loop over the 2D image (values) we're writing into */
+            float x = x0;
+            float y = y0;
+            float z = z0;
 
-            for (int i = 0; i < iBound; i++) {
-                final int iIndex = (int) x;
-                final int jIndex = (int) y;
-                final int kIndex = (int) z;
+            for (int j = 0; j < jBound; j++) {
 
-                /* calculate the ModelImage space index: */
-                final int index = ( (iIndex * iFactor) + (jIndex * jFactor) + (kIndex * kFactor) + (tSlice * tFactor));
+                /* Initialize the first diagonal point(x,y,z): */
+                x = x0;
+                y = y0;
+                z = z0;
 
-                /* Bounds checking, if out of bounds, set to zero: */
-                if (( (iIndex < 0) || (iIndex >= dimExtents[0])) || ( (jIndex < 0) || (jIndex >= dimExtents[1]))
-                        || ( (kIndex < 0) || (kIndex >= dimExtents[2])) || ( (index < 0) || ( (index * buffFactor) > dataSize))) {
+                for (int i = 0; i < iBound; i++) {
+                    final int iIndex = (int) x;
+                    final int jIndex = (int) y;
+                    final int kIndex = (int) z;
 
-                    if ( (bufferType == DataType.ARGB) || (bufferType == DataType.ARGB_USHORT)
-                            || (bufferType == DataType.ARGB_FLOAT)) {
-                        values[ ( ( (j * iBound) + i) * 4) + 0] = 0;
-                        values[ ( ( (j * iBound) + i) * 4) + 1] = 0;
-                        values[ ( ( (j * iBound) + i) * 4) + 2] = 0;
-                        values[ ( ( (j * iBound) + i) * 4) + 3] = 0;
-                    }
-                    /* not color: */
-                    else {
-                        values[ (j * iBound) + i] = (float) this.min;
-                    }
-                    if ( surfaceValues != null )
+                    /* calculate the ModelImage space index: */
+                    final int index = ( (iIndex * iFactor) + (jIndex * jFactor) + (kIndex * kFactor) + (tSlice * tFactor));
+
+                    /* Bounds checking, if out of bounds, set to zero: */
+                    if (( (iIndex < 0) || (iIndex >= dimExtents[0])) || ( (jIndex < 0) || (jIndex >= dimExtents[1]))
+                            || ( (kIndex < 0) || (kIndex >= dimExtents[2])) || ( (index < 0) || ( (index * buffFactor) > dataSize))) {
+
+                        if ( (bufferType == DataType.ARGB) || (bufferType == DataType.ARGB_USHORT)
+                                || (bufferType == DataType.ARGB_FLOAT)) {
+                            values[ ( ( (j * iBound) + i) * 4) + 0] = 0;
+                            values[ ( ( (j * iBound) + i) * 4) + 1] = 0;
+                            values[ ( ( (j * iBound) + i) * 4) + 2] = 0;
+                            values[ ( ( (j * iBound) + i) * 4) + 3] = 0;
+                        }
+                        /* not color: */
+                        else {
+                            values[ (j * iBound) + i] = (float) this.min;
+                        }
+                        if ( surfaceValues != null )
+                        {
+                        	surfaceValues[ (j * iBound) + i] = false;
+                        }
+                    } 
+                    else if ( (imageMask != null) && !imageMask.get(index) )
                     {
-                    	surfaceValues[ (j * iBound) + i] = false;
-                    }
-                } 
-                else if ( (imageMask != null) && !imageMask.get(index) )
-                {
-                    if ( (bufferType == DataType.ARGB) || (bufferType == DataType.ARGB_USHORT)
-                            || (bufferType == DataType.ARGB_FLOAT)) {
-                        values[ ( ( (j * iBound) + i) * 4) + 0] = 0;
-                        values[ ( ( (j * iBound) + i) * 4) + 1] = 0;
-                        values[ ( ( (j * iBound) + i) * 4) + 2] = 0;
-                        values[ ( ( (j * iBound) + i) * 4) + 3] = 0;
-                    }
-                    /* not color: */
+                        if ( (bufferType == DataType.ARGB) || (bufferType == DataType.ARGB_USHORT)
+                                || (bufferType == DataType.ARGB_FLOAT)) {
+                            values[ ( ( (j * iBound) + i) * 4) + 0] = 0;
+                            values[ ( ( (j * iBound) + i) * 4) + 1] = 0;
+                            values[ ( ( (j * iBound) + i) * 4) + 2] = 0;
+                            values[ ( ( (j * iBound) + i) * 4) + 3] = 0;
+                        }
+                        /* not color: */
+                        else {
+                            values[ (j * iBound) + i] = (float) this.min;
+                        }   
+                        if ( surfaceValues != null )
+                        {
+                        	surfaceValues[ (j * iBound) + i] = false;
+                        }             	
+                    }                
                     else {
-                        values[ (j * iBound) + i] = (float) this.min;
-                    }   
-                    if ( surfaceValues != null )
-                    {
-                    	surfaceValues[ (j * iBound) + i] = false;
-                    }             	
-                }                
-                else {
-
-                    /* if color: */
-                    if ( (bufferType == DataType.ARGB) || (bufferType == DataType.ARGB_USHORT)
-                            || (bufferType == DataType.ARGB_FLOAT)) {
-                        values[ ( ( (j * iBound) + i) * 4) + 0] = getFloat( (index * 4) + 0);
-                        values[ ( ( (j * iBound) + i) * 4) + 1] = getFloat( (index * 4) + 1);
-                        values[ ( ( (j * iBound) + i) * 4) + 2] = getFloat( (index * 4) + 2);
-                        values[ ( ( (j * iBound) + i) * 4) + 3] = getFloat( (index * 4) + 3);
-                    }
-                    /* if complex: */
-                    else if (bufferType == DataType.COMPLEX) {
 
-                        if (exportComplex) {
-                            values[ ( ( (j * iBound) + i) * 2) + 0] = getFloat(index * 2);
-                            values[ ( ( (j * iBound) + i) * 2) + 1] = getFloat( (index * 2) + 1);
-                        } else {
-                            real = getFloat(index * 2);
-                            imaginary = getFloat( (index * 2) + 1);
+                        /* if color: */
+                        if ( (bufferType == DataType.ARGB) || (bufferType == DataType.ARGB_USHORT)
+                                || (bufferType == DataType.ARGB_FLOAT)) {
+                            values[ ( ( (j * iBound) + i) * 4) + 0] = getFloat( (index * 4) + 0);
+                            values[ ( ( (j * iBound) + i) * 4) + 1] = getFloat( (index * 4) + 1);
+                            values[ ( ( (j * iBound) + i) * 4) + 2] = getFloat( (index * 4) + 2);
+                            values[ ( ( (j * iBound) + i) * 4) + 3] = getFloat( (index * 4) + 3);
+                        }
+                        /* if complex: */
+                        else if (bufferType == DataType.COMPLEX) {
 
-                            if (logMagDisp == true) {
-                                mag = Math.sqrt( (real * real) + (imaginary * imaginary));
-                                values[ (j * iBound) + i] = (float) (0.4342944819 * Math.log( (1.0 + mag)));
+                            if (exportComplex) {
+                                values[ ( ( (j * iBound) + i) * 2) + 0] = getFloat(index * 2);
+                                values[ ( ( (j * iBound) + i) * 2) + 1] = getFloat( (index * 2) + 1);
                             } else {
-                                values[ (j * iBound) + i] = (float) Math.sqrt( (real * real) + (imaginary * imaginary));
+                                real = getFloat(index * 2);
+                                imaginary = getFloat( (index * 2) + 1);
+
+                                if (logMagDisp == true) {
+                                    mag = Math.sqrt( (real * real) + (imaginary * imaginary));
+                                    values[ (j * iBound) + i] = (float) (0.4342944819 * Math.log( (1.0 + mag)));
+                                } else {
+                                    values[ (j * iBound) + i] = (float) Math.sqrt( (real * real) + (imaginary * imaginary));
+                                }
                             }
                         }
-                    }
-                    /* not color: */
-                    else {
+                        /* not color: */
+                        else {
 
-                        if (bInterpolate) {
-                            values[ (j * iBound) + i] = getFloatTriLinearBounds(x, y, z);
-                        } else {
-                            values[ (j * iBound) + i] = getFloat(index);
+                            if (bInterpolate) {
+                                values[ (j * iBound) + i] = getFloatTriLinearBounds(x, y, z);
+                            } else {
+                                values[ (j * iBound) + i] = getFloat(index);
+                            }
+                        }
+                        if ( surfaceValues != null && surfaceMask != null )
+                        {
+                        	boolean isSurface = false;
+                        	for ( int surface = 0; surface < surfaceMask.size(); surface++ )
+                        	{
+                        		isSurface |= surfaceMask.elementAt(surface).get(index);
+                        	}
+                        	surfaceValues[ (j * iBound) + i] = isSurface;
                         }
                     }
-                    if ( surfaceValues != null && surfaceMask != null )
-                    {
-                    	boolean isSurface = false;
-                    	for ( int surface = 0; surface < surfaceMask.size(); surface++ )
-                    	{
-                    		isSurface |= surfaceMask.elementAt(surface).get(index);
-                    	}
-                    	surfaceValues[ (j * iBound) + i] = isSurface;
-                    }
+
+                    /*
+                     * Inner loop: Move to the next diagonal point along the x-direction of the plane, using the xSlopeX,
+                     * ySlopeX and zSlopeX values:
+                     */
+                    x = x + xSlopeX;
+                    y = y + ySlopeX;
+                    z = z + zSlopeX;
                 }
 
                 /*
-                 * Inner loop: Move to the next diagonal point along the x-direction of the plane, using the xSlopeX,
-                 * ySlopeX and zSlopeX values:
+                 * Outer loop: Move to the next diagonal point along the y-direction of the plane, using the xSlopeY,
+                 * ySlopeY and zSlopeY values:
                  */
-                x = x + xSlopeX;
-                y = y + ySlopeX;
-                z = z + zSlopeX;
+                x0 = x0 + xSlopeY;
+                y0 = y0 + ySlopeY;
+                z0 = z0 + zSlopeY;
             }
-
-            /*
-             * Outer loop: Move to the next diagonal point along the y-direction of the plane, using the xSlopeY,
-             * ySlopeY and zSlopeY values:
-             */
-            x0 = x0 + xSlopeY;
-            y0 = y0 + ySlopeY;
-            z0 = z0 + zSlopeY;
+        } finally {
+            unlockData(stripes, false);
         }
     }
 
@@ -2245,327 +2401,325 @@ public class ModelStorageBase extends ModelSerialCloneable {
      * 
      * @throws IOException Throws an error when there is a locking or bounds error.
      */
-    public final synchronized void exportDiagonal( BitSet duplicateMask, final int tSlice, final int slice, final int[] extents,
+    public final void exportDiagonal( BitSet duplicateMask, final int tSlice, final int slice, final int[] extents,
             final Vector3f[] verts, final float diameter, boolean bSetZero, final float[] values, final boolean bInterpolate) throws IOException {
 
-        try {
-            setLock(ModelStorageBase.W_LOCKED);
-        } catch (final IOException error) {
-            releaseLock();
-            throw error;
-        }
+        final int stripes = lockData(0, longDataSize, false);
 
-        final int iBound = extents[0];
-        final int jBound = extents[1];
+        try {
+            final int iBound = extents[0];
+            final int jBound = extents[1];
 
-        /*
-         * Get the loop multiplication factors for indexing into the 1D array with 3 index variables: based on the
-         * coordinate-systems: transformation:
-         */
-        final int iFactor = 1;
-        final int jFactor = dimExtents[0];
-        final int kFactor = dimExtents[0] * dimExtents[1];
-        final int tFactor = dimExtents[0] * dimExtents[1] * dimExtents[2];
+            /*
+             * Get the loop multiplication factors for indexing into the 1D array with 3 index variables: based on the
+             * coordinate-systems: transformation:
+             */
+            final int iFactor = 1;
+            final int jFactor = dimExtents[0];
+            final int kFactor = dimExtents[0] * dimExtents[1];
+            final int tFactor = dimExtents[0] * dimExtents[1] * dimExtents[2];
 
-        int buffFactor = 1;
+            int buffFactor = 1;
 
-        if ( (bufferType == DataType.ARGB) || (bufferType == DataType.ARGB_USHORT)
-                || (bufferType == DataType.ARGB_FLOAT)) {
-            buffFactor = 4;
-        }
+            if ( (bufferType == DataType.ARGB) || (bufferType == DataType.ARGB_USHORT)
+                    || (bufferType == DataType.ARGB_FLOAT)) {
+                buffFactor = 4;
+            }
         
-        Vector3f center = new Vector3f();
-        for ( int i = 0; i < verts.length; i++ )
-        {
-        	center.add(verts[i]);
-        }
-        center.scale( 1f/(float)verts.length );
+            Vector3f center = new Vector3f();
+            for ( int i = 0; i < verts.length; i++ )
+            {
+            	center.add(verts[i]);
+            }
+            center.scale( 1f/(float)verts.length );
         
-        /* Calculate the slopes for traversing the data in x,y,z: */
-        float xSlopeX = verts[1].X - verts[0].X;
-        float ySlopeX = verts[1].Y - verts[0].Y;
-        float zSlopeX = verts[1].Z - verts[0].Z;
-
-        float xSlopeY = verts[3].X - verts[0].X;
-        float ySlopeY = verts[3].Y - verts[0].Y;
-        float zSlopeY = verts[3].Z - verts[0].Z;
-
-        float x0 = verts[0].X;
-        float y0 = verts[0].Y;
-        float z0 = verts[0].Z;
-
-        xSlopeX /= (iBound - 1);
-        ySlopeX /= (iBound - 1);
-        zSlopeX /= (iBound - 1);
-
-        xSlopeY /= (jBound - 1);
-        ySlopeY /= (jBound - 1);
-        zSlopeY /= (jBound - 1);
-
-        final boolean exportComplex = (values.length == (2 * iBound * jBound)) ? true : false;
-        double real, imaginary, mag;
-
-        /* loop over the 2D image (values) we're writing into */
-        float x = x0;
-        float y = y0;
-        float z = z0;
+            /* Calculate the slopes for traversing the data in x,y,z: */
+            float xSlopeX = verts[1].X - verts[0].X;
+            float ySlopeX = verts[1].Y - verts[0].Y;
+            float zSlopeX = verts[1].Z - verts[0].Z;
+
+            float xSlopeY = verts[3].X - verts[0].X;
+            float ySlopeY = verts[3].Y - verts[0].Y;
+            float zSlopeY = verts[3].Z - verts[0].Z;
+
+            float x0 = verts[0].X;
+            float y0 = verts[0].Y;
+            float z0 = verts[0].Z;
+
+            xSlopeX /= (iBound - 1);
+            ySlopeX /= (iBound - 1);
+            zSlopeX /= (iBound - 1);
+
+            xSlopeY /= (jBound - 1);
+            ySlopeY /= (jBound - 1);
+            zSlopeY /= (jBound - 1);
+
+            final boolean exportComplex = (values.length == (2 * iBound * jBound)) ? true : false;
+            double real, imaginary, mag;
+
+            /* loop over the 2D image (values) we're writing into */
+            float x = x0;
+            float y = y0;
+            float z = z0;
         
-        Vector3f currentPoint = new Vector3f();
+            Vector3f currentPoint = new Vector3f();
 
-        Vector<Integer> maskBits = new Vector<Integer>();
-        for (int j = 0; j < jBound; j++) {
+            Vector<Integer> maskBits = new Vector<Integer>();
+            for (int j = 0; j < jBound; j++) {
 
-            /* Initialize the first diagonal point(x,y,z): */
-            x = x0;
-            y = y0;
-            z = z0;
+                /* Initialize the first diagonal point(x,y,z): */
+                x = x0;
+                y = y0;
+                z = z0;
 
-            for (int i = 0; i < iBound; i++) {
-                final int iIndex = (int) Math.round(x);
-                final int jIndex = (int) Math.round(y);
-                final int kIndex = (int) Math.round(z);
+                for (int i = 0; i < iBound; i++) {
+                    final int iIndex = (int) Math.round(x);
+                    final int jIndex = (int) Math.round(y);
+                    final int kIndex = (int) Math.round(z);
 
-                /* calculate the ModelImage space index: */
-                final int index = ( (iIndex * iFactor) + (jIndex * jFactor) + (kIndex * kFactor) + (tSlice * tFactor));
+                    /* calculate the ModelImage space index: */
+                    final int index = ( (iIndex * iFactor) + (jIndex * jFactor) + (kIndex * kFactor) + (tSlice * tFactor));
 
-                currentPoint.set(x, y, z);
-                float distance = center.distance(currentPoint);
+                    currentPoint.set(x, y, z);
+                    float distance = center.distance(currentPoint);
                 
-                /* Bounds checking, if out of bounds, set to zero: */
-                if ( (distance > diameter ) ||
-                		( (iIndex < 0) || (iIndex >= dimExtents[0])) || ( (jIndex < 0) || (jIndex >= dimExtents[1]))
-                		|| ( (kIndex < 0) || (kIndex >= dimExtents[2])) || ( (index < 0) || ( (index * buffFactor) > dataSize))) {
-
-                	if ( (bufferType == DataType.ARGB) || (bufferType == DataType.ARGB_USHORT)
-                			|| (bufferType == DataType.ARGB_FLOAT)) {
-                		values[ ( ( (j * iBound) + i) * 4) + 0] = 0;
-                		values[ ( ( (j * iBound) + i) * 4) + 1] = 0;
-                		values[ ( ( (j * iBound) + i) * 4) + 2] = 0;
-                		values[ ( ( (j * iBound) + i) * 4) + 3] = 0;
-                	}
-                	/* not color: */
-                	else {
-                		values[ (j * iBound) + i] = (float) this.min;
-                	}
-                } else {
-                	if ( (duplicateMask != null) && duplicateMask.get(index) )
-                	{
-                		if ( bSetZero )
-                		{
-                			// set output to zero or min:
-                			if ( (bufferType == DataType.ARGB) || (bufferType == DataType.ARGB_USHORT)
-                					|| (bufferType == DataType.ARGB_FLOAT)) {
-                				values[ ( ( (j * iBound) + i) * 4) + 0] = 0;
-                				values[ ( ( (j * iBound) + i) * 4) + 1] = 0;
-                				values[ ( ( (j * iBound) + i) * 4) + 2] = 0;
-                				values[ ( ( (j * iBound) + i) * 4) + 3] = 0;
-                			}
-                			/* not color: */
-                			else {
-                				values[ (j * iBound) + i] = (float) this.min;
-                			}
-                		}
-                	}                	
-                	else
-                	{
-                		maskBits.add(index);
-                		/* if color: */
-                		if ( (bufferType == DataType.ARGB) || (bufferType == DataType.ARGB_USHORT)
-                				|| (bufferType == DataType.ARGB_FLOAT)) {
-                			values[ ( ( (j * iBound) + i) * 4) + 0] = getFloat( (index * 4) + 0);
-                			values[ ( ( (j * iBound) + i) * 4) + 1] = getFloat( (index * 4) + 1);
-                			values[ ( ( (j * iBound) + i) * 4) + 2] = getFloat( (index * 4) + 2);
-                			values[ ( ( (j * iBound) + i) * 4) + 3] = getFloat( (index * 4) + 3);
-                		}
-                		/* if complex: */
-                		else if (bufferType == DataType.COMPLEX) {
-
-                			if (exportComplex) {
-                				values[ ( ( (j * iBound) + i) * 2) + 0] = getFloat(index * 2);
-                				values[ ( ( (j * iBound) + i) * 2) + 1] = getFloat( (index * 2) + 1);
-                			} else {
-                				real = getFloat(index * 2);
-                				imaginary = getFloat( (index * 2) + 1);
-
-                				if (logMagDisp == true) {
-                					mag = Math.sqrt( (real * real) + (imaginary * imaginary));
-                					values[ (j * iBound) + i] = (float) (0.4342944819 * Math.log( (1.0 + mag)));
-                				} else {
-                					values[ (j * iBound) + i] = (float) Math.sqrt( (real * real) + (imaginary * imaginary));
-                				}
-                			}
-                		}
-                		/* not color: */
-                		else {
-
-                			if (bInterpolate) {
-                				values[ (j * iBound) + i] = getFloatTriLinearBounds(x, y, z);
-                			} else {
-                				values[ (j * iBound) + i] = getFloat(index);
-                			}
-                		}
-                	}
+                    /* Bounds checking, if out of bounds, set to zero: */
+                    if ( (distance > diameter ) ||
+                    		( (iIndex < 0) || (iIndex >= dimExtents[0])) || ( (jIndex < 0) || (jIndex >= dimExtents[1]))
+                    		|| ( (kIndex < 0) || (kIndex >= dimExtents[2])) || ( (index < 0) || ( (index * buffFactor) > dataSize))) {
+
+                    	if ( (bufferType == DataType.ARGB) || (bufferType == DataType.ARGB_USHORT)
+                    			|| (bufferType == DataType.ARGB_FLOAT)) {
+                    		values[ ( ( (j * iBound) + i) * 4) + 0] = 0;
+                    		values[ ( ( (j * iBound) + i) * 4) + 1] = 0;
+                    		values[ ( ( (j * iBound) + i) * 4) + 2] = 0;
+                    		values[ ( ( (j * iBound) + i) * 4) + 3] = 0;
+                    	}
+                    	/* not color: */
+                    	else {
+                    		values[ (j * iBound) + i] = (float) this.min;
+                    	}
+                    } else {
+                    	if ( (duplicateMask != null) && duplicateMask.get(index) )
+                    	{
+                    		if ( bSetZero )
+                    		{
+                    			// set output to zero or min:
+                    			if ( (bufferType == DataType.ARGB) || (bufferType == DataType.ARGB_USHORT)
+                    					|| (bufferType == DataType.ARGB_FLOAT)) {
+                    				values[ ( ( (j * iBound) + i) * 4) + 0] = 0;
+                    				values[ ( ( (j * iBound) + i) * 4) + 1] = 0;
+                    				values[ ( ( (j * iBound) + i) * 4) + 2] = 0;
+                    				values[ ( ( (j * iBound) + i) * 4) + 3] = 0;
+                    			}
+                    			/* not color: */
+                    			else {
+                    				values[ (j * iBound) + i] = (float) this.min;
+                    			}
+                    		}
+                    	}                	
+                    	else
+                    	{
+                    		maskBits.add(index);
+                    		/* if color: */
+                    		if ( (bufferType == DataType.ARGB) || (bufferType == DataType.ARGB_USHORT)
+                    				|| (bufferType == DataType.ARGB_FLOAT)) {
+                    			values[ ( ( (j * iBound) + i) * 4) + 0] = getFloat( (index * 4) + 0);
+                    			values[ ( ( (j * iBound) + i) * 4) + 1] = getFloat( (index * 4) + 1);
+                    			values[ ( ( (j * iBound) + i) * 4) + 2] = getFloat( (index * 4) + 2);
+                    			values[ ( ( (j * iBound) + i) * 4) + 3] = getFloat( (index * 4) + 3);
+                    		}
+                    		/* if complex: */
+                    		else if (bufferType == DataType.COMPLEX) {
+
+                    			if (exportComplex) {
+                    				values[ ( ( (j * iBound) + i) * 2) + 0] = getFloat(index * 2);
+                    				values[ ( ( (j * iBound) + i) * 2) + 1] = getFloat( (index * 2) + 1);
+                    			} else {
+                    				real = getFloat(index * 2);
+                    				imaginary = getFloat( (index * 2) + 1);
+
+                    				if (logMagDisp == true) {
+                    					mag = Math.sqrt( (real * real) + (imaginary * imaginary));
+                    					values[ (j * iBound) + i] = (float) (0.4342944819 * Math.log( (1.0 + mag)));
+                    				} else {
+                    					values[ (j * iBound) + i] = (float) Math.sqrt( (real * real) + (imaginary * imaginary));
+                    				}
+                    			}
+                    		}
+                    		/* not color: */
+                    		else {
+
+                    			if (bInterpolate) {
+                    				values[ (j * iBound) + i] = getFloatTriLinearBounds(x, y, z);
+                    			} else {
+                    				values[ (j * iBound) + i] = getFloat(index);
+                    			}
+                    		}
+                    	}
+                    }
+
+                    /*
+                     * Inner loop: Move to the next diagonal point along the x-direction of the plane, using the xSlopeX,
+                     * ySlopeX and zSlopeX values:
+                     */
+                    x = x + xSlopeX;
+                    y = y + ySlopeX;
+                    z = z + zSlopeX;
                 }
 
                 /*
-                 * Inner loop: Move to the next diagonal point along the x-direction of the plane, using the xSlopeX,
-                 * ySlopeX and zSlopeX values:
+                 * Outer loop: Move to the next diagonal point along the y-direction of the plane, using the xSlopeY,
+                 * ySlopeY and zSlopeY values:
                  */
-                x = x + xSlopeX;
-                y = y + ySlopeX;
-                z = z + zSlopeX;
+                x0 = x0 + xSlopeY;
+                y0 = y0 + ySlopeY;
+                z0 = z0 + zSlopeY;
             }
-
-            /*
-             * Outer loop: Move to the next diagonal point along the y-direction of the plane, using the xSlopeY,
-             * ySlopeY and zSlopeY values:
-             */
-            x0 = x0 + xSlopeY;
-            y0 = y0 + ySlopeY;
-            z0 = z0 + zSlopeY;
-        }
         
-        if ( duplicateMask != null )
-        {
-        	for ( int i = 0; i < maskBits.size(); i++ )
-        	{
-        		duplicateMask.set(maskBits.elementAt(i));
-        	}
+            if ( duplicateMask != null )
+            {
+            	for ( int i = 0; i < maskBits.size(); i++ )
+            	{
+            		duplicateMask.set(maskBits.elementAt(i));
+            	}
+            }
+            maskBits.clear();
+            maskBits = null;
+        } finally {
+            unlockData(stripes, false);
         }
-        maskBits.clear();
-        maskBits = null;
     }
 
     
     /**
      */
-    public final synchronized Vector3f findMax( final int tSlice, final int slice,
+    public final Vector3f findMax( final int tSlice, final int slice,
             final Vector3f[] verts, final float diameter, final boolean bInterpolate) throws IOException {
 
-        try {
-            setLock(ModelStorageBase.W_LOCKED);
-        } catch (final IOException error) {
-            releaseLock();
-            throw error;
-        }
+        final int stripes = lockData(0, longDataSize, false);
 
-        final int iBound = (int)(Math.ceil(verts[1].X - verts[0].X));
-        final int jBound = (int)(Math.ceil(verts[3].Y - verts[0].Y));
+        try {
+            final int iBound = (int)(Math.ceil(verts[1].X - verts[0].X));
+            final int jBound = (int)(Math.ceil(verts[3].Y - verts[0].Y));
 
-        /*
-         * Get the loop multiplication factors for indexing into the 1D array with 3 index variables: based on the
-         * coordinate-systems: transformation:
-         */
-        final int iFactor = 1;
-        final int jFactor = dimExtents[0];
-        final int kFactor = dimExtents[0] * dimExtents[1];
-        final int tFactor = dimExtents[0] * dimExtents[1] * dimExtents[2];
+            /*
+             * Get the loop multiplication factors for indexing into the 1D array with 3 index variables: based on the
+             * coordinate-systems: transformation:
+             */
+            final int iFactor = 1;
+            final int jFactor = dimExtents[0];
+            final int kFactor = dimExtents[0] * dimExtents[1];
+            final int tFactor = dimExtents[0] * dimExtents[1] * dimExtents[2];
 
-        int buffFactor = 1;
+            int buffFactor = 1;
 
-        if ( (bufferType == DataType.ARGB) || (bufferType == DataType.ARGB_USHORT)
-                || (bufferType == DataType.ARGB_FLOAT)) {
-            buffFactor = 4;
-        }
+            if ( (bufferType == DataType.ARGB) || (bufferType == DataType.ARGB_USHORT)
+                    || (bufferType == DataType.ARGB_FLOAT)) {
+                buffFactor = 4;
+            }
         
-        Vector3f center = new Vector3f();
-        for ( int i = 0; i < verts.length; i++ )
-        {
-        	center.add(verts[i]);
-        }
-        center.scale( 1f/(float)verts.length );
+            Vector3f center = new Vector3f();
+            for ( int i = 0; i < verts.length; i++ )
+            {
+            	center.add(verts[i]);
+            }
+            center.scale( 1f/(float)verts.length );
         
-        /* Calculate the slopes for traversing the data in x,y,z: */
-        float xSlopeX = verts[1].X - verts[0].X;
-        float ySlopeX = verts[1].Y - verts[0].Y;
-        float zSlopeX = verts[1].Z - verts[0].Z;
-
-        float xSlopeY = verts[3].X - verts[0].X;
-        float ySlopeY = verts[3].Y - verts[0].Y;
-        float zSlopeY = verts[3].Z - verts[0].Z;
-
-        float x0 = verts[0].X;
-        float y0 = verts[0].Y;
-        float z0 = verts[0].Z;
-
-        xSlopeX /= (iBound - 1);
-        ySlopeX /= (iBound - 1);
-        zSlopeX /= (iBound - 1);
-
-        xSlopeY /= (jBound - 1);
-        ySlopeY /= (jBound - 1);
-        zSlopeY /= (jBound - 1);
-
-        /* loop over the 2D image (values) we're writing into */
-        float x = x0;
-        float y = y0;
-        float z = z0;
+            /* Calculate the slopes for traversing the data in x,y,z: */
+            float xSlopeX = verts[1].X - verts[0].X;
+            float ySlopeX = verts[1].Y - verts[0].Y;
+            float zSlopeX = verts[1].Z - verts[0].Z;
+
+            float xSlopeY = verts[3].X - verts[0].X;
+            float ySlopeY = verts[3].Y - verts[0].Y;
+            float zSlopeY = verts[3].Z - verts[0].Z;
+
+            float x0 = verts[0].X;
+            float y0 = verts[0].Y;
+            float z0 = verts[0].Z;
+
+            xSlopeX /= (iBound - 1);
+            ySlopeX /= (iBound - 1);
+            zSlopeX /= (iBound - 1);
+
+            xSlopeY /= (jBound - 1);
+            ySlopeY /= (jBound - 1);
+            zSlopeY /= (jBound - 1);
+
+            /* loop over the 2D image (values) we're writing into */
+            float x = x0;
+            float y = y0;
+            float z = z0;
         
-        Vector3f currentPoint = new Vector3f();
+            Vector3f currentPoint = new Vector3f();
 
-        float maxValue = -Float.MAX_VALUE;
-        float maxX = -1, maxY = -1, maxZ = -1;
-        for (int j = 0; j < jBound; j++) {
+            float maxValue = -Float.MAX_VALUE;
+            float maxX = -1, maxY = -1, maxZ = -1;
+            for (int j = 0; j < jBound; j++) {
 
-            /* Initialize the first diagonal point(x,y,z): */
-            x = x0;
-            y = y0;
-            z = z0;
+                /* Initialize the first diagonal point(x,y,z): */
+                x = x0;
+                y = y0;
+                z = z0;
 
-            for (int i = 0; i < iBound; i++) {
-                final int iIndex = (int) Math.round(x);
-                final int jIndex = (int) Math.round(y);
-                final int kIndex = (int) Math.round(z);
+                for (int i = 0; i < iBound; i++) {
+                    final int iIndex = (int) Math.round(x);
+                    final int jIndex = (int) Math.round(y);
+                    final int kIndex = (int) Math.round(z);
 
-                /* calculate the ModelImage space index: */
-                final int index = ( (iIndex * iFactor) + (jIndex * jFactor) + (kIndex * kFactor) + (tSlice * tFactor));
+                    /* calculate the ModelImage space index: */
+                    final int index = ( (iIndex * iFactor) + (jIndex * jFactor) + (kIndex * kFactor) + (tSlice * tFactor));
 
-                currentPoint.set(x, y, z);
-                float distance = center.distance(currentPoint);
+                    currentPoint.set(x, y, z);
+                    float distance = center.distance(currentPoint);
                 
-                /* Bounds checking, if out of bounds, set to zero: */
-                if ( (distance > diameter ) ||
-                		( (iIndex < 0) || (iIndex >= dimExtents[0])) || ( (jIndex < 0) || (jIndex >= dimExtents[1]))
-                		|| ( (kIndex < 0) || (kIndex >= dimExtents[2])) || ( (index < 0) || ( (index * buffFactor) > dataSize))) {
+                    /* Bounds checking, if out of bounds, set to zero: */
+                    if ( (distance > diameter ) ||
+                    		( (iIndex < 0) || (iIndex >= dimExtents[0])) || ( (jIndex < 0) || (jIndex >= dimExtents[1]))
+                    		|| ( (kIndex < 0) || (kIndex >= dimExtents[2])) || ( (index < 0) || ( (index * buffFactor) > dataSize))) {
 
-                } else {
-                	float val;
-                	if (bInterpolate) {
-                		val = getFloatTriLinearBounds(x, y, z);
-                	} else {
-                		val = getFloat(index);
-                	}
-                	if ( val > maxValue )
-                	{
-                		maxValue = val;
-                		maxX = x;
-                		maxY = y;
-                		maxZ = z;
-                	}
+                    } else {
+                    	float val;
+                    	if (bInterpolate) {
+                    		val = getFloatTriLinearBounds(x, y, z);
+                    	} else {
+                    		val = getFloat(index);
+                    	}
+                    	if ( val > maxValue )
+                    	{
+                    		maxValue = val;
+                    		maxX = x;
+                    		maxY = y;
+                    		maxZ = z;
+                    	}
+                    }
+
+                    /*
+                     * Inner loop: Move to the next diagonal point along the x-direction of the plane, using the xSlopeX,
+                     * ySlopeX and zSlopeX values:
+                     */
+                    x = x + xSlopeX;
+                    y = y + ySlopeX;
+                    z = z + zSlopeX;
                 }
 
                 /*
-                 * Inner loop: Move to the next diagonal point along the x-direction of the plane, using the xSlopeX,
-                 * ySlopeX and zSlopeX values:
+                 * Outer loop: Move to the next diagonal point along the y-direction of the plane, using the xSlopeY,
+                 * ySlopeY and zSlopeY values:
                  */
-                x = x + xSlopeX;
-                y = y + ySlopeX;
-                z = z + zSlopeX;
+                x0 = x0 + xSlopeY;
+                y0 = y0 + ySlopeY;
+                z0 = z0 + zSlopeY;
             }
-
-            /*
-             * Outer loop: Move to the next diagonal point along the y-direction of the plane, using the xSlopeY,
-             * ySlopeY and zSlopeY values:
-             */
-            x0 = x0 + xSlopeY;
-            y0 = y0 + ySlopeY;
-            z0 = z0 + zSlopeY;
-        }
-        if ( maxX != -1 && maxY != -1 && maxZ != -1 )
-        {
-        	return new Vector3f( Math.round(maxX), Math.round(maxY), Math.round(maxZ) );
+            if ( maxX != -1 && maxY != -1 && maxZ != -1 )
+            {
+            	return new Vector3f( Math.round(maxX), Math.round(maxY), Math.round(maxZ) );
+            }
+            return null;
+        } finally {
+            unlockData(stripes, false);
         }
-        return null;
     }
 
     
@@ -2578,25 +2732,23 @@ public class ModelStorageBase extends ModelSerialCloneable {
      * 
      * @throws IOException Throws an error when there is a locking or bounds error.
      */
-    public final synchronized void exportDMagData(final int start, final int length, final double[] values)
+    public final void exportDMagData(final int start, final int length, final double[] values)
             throws IOException {
         int i, j;
         double real, imaginary;
 
         if ( (start >= 0) && ( (start + (2 * length)) <= dataSize) && (length <= values.length)) {
 
-            try {
-                setLock(ModelStorageBase.W_LOCKED);
+            final int stripes = lockData(start, 2L * length, false);
 
+            try {
                 for (i = start, j = 0; j < length; i += 2, j++) {
                     real = data.getDouble(i);
                     imaginary = data.getDouble(i + 1);
                     values[j] = Math.sqrt( (real * real) + (imaginary * imaginary));
                 }
-            } catch (final IOException error) {
-                throw error;
             } finally {
-                releaseLock();
+                unlockData(stripes, false);
             }
 
             return;
@@ -2614,27 +2766,24 @@ public class ModelStorageBase extends ModelSerialCloneable {
      * 
      * @throws IOException Throws an error when there is a locking or bounds error.
      */
-    public final synchronized void exportMagData(final int start, final int length, final float[] values)
+    public final void exportMagData(final int start, final int length, final float[] values)
             throws IOException {
         int i, j;
         double real, imaginary;
 
         if ( (start >= 0) && ( (start + (2 * length)) <= dataSize) && (length <= values.length)) {
 
-            try {
-                setLock(ModelStorageBase.W_LOCKED);
+            final int stripes = lockData(start, 2L * length, false);
 
+            try {
                 for (i = start, j = 0; j < length; i += 2, j++) {
                     real = data.getFloat(i);
                     imaginary = data.getFloat(i + 1);
                     values[j] = (float) Math.sqrt( (real * real) + (imaginary * imaginary));
                 }
 
-            } catch (final IOException error) {
-                releaseLock();
-                throw error;
             } finally {
-                releaseLock();
+                unlockData(stripes, false);
             }
 
             return;
@@ -2652,27 +2801,24 @@ public class ModelStorageBase extends ModelSerialCloneable {
      * 
      * @throws IOException Throws an error when there is a locking or bounds error.
      */
-    public final synchronized void exportMagData(final int start, final int length, final double[] values)
+    public final void exportMagData(final int start, final int length, final double[] values)
             throws IOException {
         int i, j;
         double real, imaginary;
 
         if ( (start >= 0) && ( (start + (2 * length)) <= dataSize) && (length <= values.length)) {
 
-            try {
-                setLock(ModelStorageBase.W_LOCKED);
+            final int stripes = lockData(start, 2L * length, false);
 
+            try {
                 for (i = start, j = 0; j < length; i += 2, j++) {
                     real = data.getDouble(i);
                     imaginary = data.getDouble(i + 1);
                     values[j] = Math.sqrt( (real * real) + (imaginary * imaginary));
                 }
 
-            } catch (final IOException error) {
-                releaseLock();
-                throw error;
             } finally {
-                releaseLock();
+                unlockData(stripes, false);
             }
 
             return;
@@ -2691,7 +2837,7 @@ public class ModelStorageBase extends ModelSerialCloneable {
      * 
      * @throws IOException Throws an error when there is a locking or bounds error.
      */
-    public final synchronized Object exportRGBData(final int offset, final int start, final int length)
+    public final Object exportRGBData(final int offset, final int start, final int length)
             throws IOException {
         int i, j;
 
@@ -2699,9 +2845,9 @@ public class ModelStorageBase extends ModelSerialCloneable {
 
         if ( (start >= 0) && ( (start + (4 * length)) <= dataSize)) {
 
-            try {
-                setLock(ModelStorageBase.W_LOCKED);
+            final int stripes = lockData(start, 4L * length, false);
 
+            try {
                 final Class<?> buffer_type = data.getType();
                 if (buffer_type == null) {
                     return null;
@@ -2712,10 +2858,8 @@ public class ModelStorageBase extends ModelSerialCloneable {
                 for (i = start + offset, j = 0; j < length; i += 4, j++) {
                     Array.set(value_array, j, data.get(i));
                 }
-            } catch (final IOException error) {
-                throw error;
             } finally {
-                releaseLock();
+                unlockData(stripes, false);
             }
 
             return value_array;
@@ -2734,22 +2878,20 @@ public class ModelStorageBase extends ModelSerialCloneable {
      * 
      * @throws IOException Throws an error when there is a locking or bounds error.
      */
-    public final synchronized void exportRGBData(final int offset, final int start, final int length,
+    public final void exportRGBData(final int offset, final int start, final int length,
             final byte[] values) throws IOException {
         int i, j;
 
         if ( (start >= 0) && ( (start + (4 * length)) <= dataSize) && (length <= values.length)) {
 
-            try {
-                setLock(ModelStorageBase.W_LOCKED);
+            final int stripes = lockData(start, 4L * length, false);
 
+            try {
                 for (i = start + offset, j = 0; j < length; i += 4, j++) {
                     values[j] = data.getByte(i);
                 }
-            } catch (final IOException error) {
-                throw error;
             } finally {
-                releaseLock();
+                unlockData(stripes, false);
             }
 
             return;
@@ -2768,23 +2910,21 @@ public class ModelStorageBase extends ModelSerialCloneable {
      * 
      * @throws IOException Throws an error when there is a locking or bounds error.
      */
-    public final synchronized void exportRGBData(final int offset, final int start, final int length,
+    public final void exportRGBData(final int offset, final int start, final int length,
             final short[] values) throws IOException {
         int i, j;
 
         if ( (start >= 0) && ( (start + (4 * length)) <= dataSize) && (length <= values.length)) {
 
-            try {
-                setLock(ModelStorageBase.W_LOCKED);
+            final int stripes = lockData(start, 4L * length, false);
 
+            try {
                 for (i = start + offset, j = 0; j < length; i += 4, j++) {
                     values[j] = data.getShort(i);
                 }
 
-            } catch (final IOException error) {
-                throw error;
             } finally {
-                releaseLock();
+                unlockData(stripes, false);
             }
 
             return;
@@ -2803,22 +2943,20 @@ public class ModelStorageBase extends ModelSerialCloneable {
      * 
      * @throws IOException Throws an error when there is a locking or bounds error.
      */
-    public final synchronized void exportRGBData(final int offset, final int start, final int length,
+    public final void exportRGBData(final int offset, final int start, final int length,
             final float[] values) throws IOException {
         int i, j;
 
         if ( (start >= 0) && ( (start + (4 * length)) <= dataSize) && (length <= values.length)) {
 
-            try {
-                setLock(ModelStorageBase.W_LOCKED);
+            final int stripes = lockData(start, 4L * length, false);
 
+            try {
                 for (i = start + offset, j = 0; j < length; i += 4, j++) {
                     values[j] = data.getFloat(i);
                 }
-            } catch (final IOException error) {
-                throw error;
             } finally {
-                releaseLock();
+                unlockData(stripes, false);
             }
 
             return;
@@ -2837,22 +2975,20 @@ public class ModelStorageBase extends ModelSerialCloneable {
      * 
      * @throws IOException Throws an error when there is a locking or bounds error.
      */
-    public final synchronized void exportRGBData(final int offset, final int start, final int length,
+    public final void exportRGBData(final int offset, final int start, final int length,
             final double[] values) throws IOException {
         int i, j;
 
         if ( (start >= 0) && ( (start + (4 * length)) <= dataSize) && (length <= values.length)) {
 
-            try {
-                setLock(ModelStorageBase.W_LOCKED);
+            final int stripes = lockData(start, 4L * length, false);
 
+            try {
                 for (i = start + offset, j = 0; j < length; i += 4, j++) {
                     values[j] = data.getDouble(i);
                 }
-            } catch (final IOException error) {
-                throw error;
             } finally {
-                releaseLock();
+                unlockData(stripes, false);
             }
 
             return;
@@ -2871,7 +3007,7 @@ public class ModelStorageBase extends ModelSerialCloneable {
      * 
      * @throws IOException Throws an error when there is a locking or bounds error.
      */
-    public final synchronized void exportRGBDataNoLock(final int offset, final int start, final int length,
+    public final void exportRGBDataNoLock(final int offset, final int start, final int length,
             final float[] values) throws IOException {
         int i, j;
 
@@ -2897,7 +3033,7 @@ public class ModelStorageBase extends ModelSerialCloneable {
      * 
      * @throws IOException Throws an error when there is a locking or bounds error.
      */
-    public final synchronized void exportRGBDataNoLock(final int offset, final int start, final int length,
+    public final void exportRGBDataNoLock(final int offset, final int start, final int length,
             final double[] values) throws IOException {
         int i, j;
 
@@ -2997,6 +3133,120 @@ public class ModelStorageBase extends ModelSerialCloneable {
         exportData(slice * length, length, values);
     }
 
+    /**
+     * Export a slab of consecutive XY slices into values array. The start position is a long, so slabs of off-heap
+     * buffers larger than Integer.MAX_VALUE elements can be read.
+     * 
+     * @param startSlice indicates first slice of data to be exported
+     * @param nSlices number of slices to export
+     * @param values array where data is to be deposited
+     * 
+     * @throws IOException Throws an error when there is a locking or bounds error.
+     */
+    public final void exportSlabXY(final int startSlice, final int nSlices, final float[] values) throws IOException {
+        final int length = dimExtents[0] * dimExtents[1];
+
+        exportData((long) startSlice * length, nSlices * length, values);
+    }
+
+    /**
+     * Export a slab of consecutive XY slices into values array. The start position is a long, so slabs of off-heap
+     * buffers larger than Integer.MAX_VALUE elements can be read.
+     * 
+     * @param startSlice indicates first slice of data to be exported
+     * @param nSlices number of slices to export
+     * @param values array where data is to be deposited
+     * 
+     * @throws IOException Throws an error when there is a locking or bounds error.
+     */
+    public final void exportSlabXY(final int startSlice, final int nSlices, final double[] values) throws IOException {
+        final int length = dimExtents[0] * dimExtents[1];
+
+        exportData((long) startSlice * length, nSlices * length, values);
+    }
+
+    /**
+     * Import a slab of consecutive XY slices from values array. The number of slices is given by the length of values.
+     * 
+     * @param startSlice indicates first slice of data to be imported
+     * @param values array where data is to be acquired
+     * @param mmFlag whether or not to calculate min and max values for the image array
+     * 
+     * @throws IOException Throws an error when there is a locking or bounds error.
+     */
+    public final void importSlabXY(final int startSlice, final float[] values, final boolean mmFlag)
+            throws IOException {
+        importData((long) startSlice * dimExtents[0] * dimExtents[1], values, mmFlag);
+    }
+
+    /**
+     * Import a slab of consecutive XY slices from values array. The number of slices is given by the length of values.
+     * 
+     * @param startSlice indicates first slice of data to be imported
+     * @param values array where data is to be acquired
+     * @param mmFlag whether or not to calculate min and max values for the image array
+     * 
+     * @throws IOException Throws an error when there is a locking or bounds error.
+     */
+    public final void importSlabXY(final int startSlice, final double[] values, final boolean mmFlag)
+            throws IOException {
+        importData((long) startSlice * dimExtents[0] * dimExtents[1], values, mmFlag);
+    }
+
+    /**
+     * Bulk version of getFloat that does NOT perform locking or bounds checking. Copies length consecutive values,
+     * converted to float, into values starting at offset. Algorithms can use this as a cursor over rows or slabs of
+     * an image they have already locked, without boxing or a call per voxel.
+     * 
+     * @param start position in the data of the first value
+     * @param values array where data is to be deposited
+     * @param offset index in values of the first value
+     * @param length number of values to copy
+     */
+    public final void getFloats(final long start, final float[] values, final int offset, final int length) {
+        data.getFloats(start, values, offset, length);
+    }
+
+    /**
+     * Bulk version of set that does NOT perform locking or bounds checking. Sets length consecutive values from values
+     * starting at offset.
+     * 
+     * @param start position in the data of the first value
+     * @param values array holding the new values
+     * @param offset index in values of the first value
+     * @param length number of values to copy
+     */
+    public final void setFloats(final long start, final float[] values, final int offset, final int length) {
+        data.setFloats(start, values, offset, length);
+    }
+
+    /**
+     * Bulk version of getDouble that does NOT perform locking or bounds checking. Copies length consecutive values,
+     * converted to double, into values starting at offset. Algorithms can use this as a cursor over rows or slabs of
+     * an image they have already locked, without boxing or a call per voxel.
+     * 
+     * @param start position in the data of the first value
+     * @param values array where data is to be deposited
+     * @param offset index in values of the first value
+     * @param length number of values to copy
+     */
+    public final void getDoubles(final long start, final double[] values, final int offset, final int length) {
+        data.getDoubles(start, values, offset, length);
+    }
+
+    /**
+     * Bulk version of set that does NOT perform locking or bounds checking. Sets length consecutive values from values
+     * starting at offset.
+     * 
+     * @param start position in the data of the first value
+     * @param values array holding the new values
+     * @param offset index in values of the first value
+     * @param length number of values to copy
+     */
+    public final void setDoubles(final long start, final double[] values, final int offset, final int length) {
+        data.setDoubles(start, values, offset, length);
+    }
+
     /**
      * function to get data where bounds checking is performed.
      * 
@@ -3157,12 +3407,11 @@ public class ModelStorageBase extends ModelSerialCloneable {
         position = (intY * xDim) + intX;
 
         if ( (position >= 0) && (position < (dataSize - xDim - 1))) {
-            x1 = ( (1 - dx) * (data.get(position)).floatValue()) + (dx * (data.get(position + 1)).floatValue());
+            x1 = ( (1 - dx) * data.getFloat(position)) + (dx * data.getFloat(position + 1));
 
-            x2 = ( (1 - dx) * (data.get(position + xDim)).floatValue())
-                    + (dx * (data.get(position + xDim + 1)).floatValue());
+            x2 = ( (1 - dx) * data.getFloat(position + xDim)) + (dx * data.getFloat(position + xDim + 1));
 
-            return (new Float( ( (1 - dy) * x1) + (dy * x2)));
+            return (Float.valueOf( ( (1 - dy) * x1) + (dy * x2)));
         } else {
             return (Byte.valueOf((byte) 0));
         }
@@ -3423,6 +3672,18 @@ public class ModelStorageBase extends ModelSerialCloneable {
         return (data.getDouble(position));
     }
 
+    /**
+     * Version of get that does NOT perform bounds checking and takes a long position, for off-heap buffers larger than
+     * Integer.MAX_VALUE elements.
+     * 
+     * @param position index into one dimensional array
+     * 
+     * @return The value from the data array.
+     */
+    public final double getDouble(final long position) {
+        return (data.getDouble(position));
+    }
+
     /**
      * nD get data fuction where bounds checking is NOT performed.
      * 
@@ -3667,6 +3928,18 @@ public class ModelStorageBase extends ModelSerialCloneable {
         return (data.getFloat(position));
     }
 
+    /**
+     * Version of get that does NOT perform bounds checking and takes a long position, for off-heap buffers larger than
+     * Integer.MAX_VALUE elements.
+     * 
+     * @param position index into the one dimensional data array
+     * 
+     * @return The value at that position in the data array.
+     */
+    public final float getFloat(final long position) {
+        return (data.getFloat(position));
+    }
+
     /**
      * nD get data function where bounds checking is NOT performed.
      * 
@@ -4982,9 +5255,12 @@ public class ModelStorageBase extends ModelSerialCloneable {
      * Accessor that returns the total size(length) of the data array.
      * 
      * @return Value indicating the number of data points in the data array
+     * 
+     * @throws IllegalStateException if the data array holds more than Integer.MAX_VALUE elements, see
+     *             getLongDataSize()
      */
     public final int getSize() {
-        return dataSize;
+        return getIntDataSize();
     }
 
     /**
@@ -5148,17 +5424,15 @@ public class ModelStorageBase extends ModelSerialCloneable {
 
         if ( (position1 >= 0) && (position1 < (dataSize - (xDim * yDim) - 1)) && (position2 >= 0)
                 && (position2 < (dataSize - (xDim * yDim) - 1))) {
-            a1 = ( (1 - dx) * data.get(position1).floatValue()) + (dx * data.get(position1 + 1).floatValue());
-            a2 = ( (1 - dx) * data.get(position1 + xDim).floatValue())
-                    + (dx * data.get(position1 + xDim + 1).floatValue());
+            a1 = ( (1 - dx) * data.getFloat(position1)) + (dx * data.getFloat(position1 + 1));
+            a2 = ( (1 - dx) * data.getFloat(position1 + xDim)) + (dx * data.getFloat(position1 + xDim + 1));
             b1 = ( (1 - dy) * a1) + (dy * a2);
 
-            a1 = ( (1 - dx) * data.get(position2).floatValue()) + (dx * data.get(position2 + 1).floatValue());
-            a2 = ( (1 - dx) * data.get(position2 + xDim).floatValue())
-                    + (dx * data.get(position2 + xDim + 1).floatValue());
+            a1 = ( (1 - dx) * data.getFloat(position2)) + (dx * data.getFloat(position2 + 1));
+            a2 = ( (1 - dx) * data.getFloat(position2 + xDim)) + (dx * data.getFloat(position2 + xDim + 1));
             b2 = ( (1 - dy) * a1) + (dy * a2);
 
-            return (new Float( ( (1 - dz) * b1) + (dz * b2)));
+            return (Float.valueOf( ( (1 - dz) * b1) + (dz * b2)));
         } else {
             return (Byte.valueOf((byte) 0));
         }
@@ -5739,7 +6013,7 @@ public class ModelStorageBase extends ModelSerialCloneable {
      * 
      * @throws IOException Throws an error when there is a locking or bounds error.
      */
-    public final synchronized void importComplexData(final int start, final float[] valuesR, final float[] valuesI,
+    public final void importComplexData(final int start, final float[] valuesR, final float[] valuesI,
             final boolean mmFlag, final boolean logMagDisplay) throws IOException {
         final int length = valuesR.length;
         final int lengthi = valuesI.length;
@@ -5747,8 +6021,9 @@ public class ModelStorageBase extends ModelSerialCloneable {
 
         if ( (length == lengthi) && (start >= 0) && ( (start + (2 * length)) <= dataSize)) {
 
+            final int stripes = lockData(start, 2L * length, true);
+
             try {
-                setLock(ModelStorageBase.RW_LOCKED);
                 ptr = start;
 
                 for (int i = 0; i < length; i++, ptr += 2) {
@@ -5758,13 +6033,12 @@ public class ModelStorageBase extends ModelSerialCloneable {
 
                 setLogMagDisplay(logMagDisplay);
 
-                if (mmFlag) {
-                    calcMinMaxMag(logMagDisplay);
-                }
-            } catch (final IOException error) {
-                throw error;
             } finally {
-                releaseLock();
+                unlockData(stripes, true);
+            }
+
+            if (mmFlag) {
+                calcMinMaxShared(true, logMagDisplay);
             }
 
             return;
@@ -5774,37 +6048,43 @@ public class ModelStorageBase extends ModelSerialCloneable {
     }
 
     /**
-     * import Number data into data array.
+     * import Complex data (in 2 float units) into data array from a long start position, so that slices of off-heap buffers larger
+     * than Integer.MAX_VALUE elements can be written.
      * 
      * @param start indicates starting position in data array
-     * @param values array where data is to be acquired
-     * @param mmFlag whether or not to calculate min and max values for the image array
+     * @param valuesR array where real data is to be acquired
+     * @param valuesI array where imaginary data is to be acquired
+     * @param mmFlag whether or not to calculate min and max magnitude values for the image
+     * @param logMagDisplay whether or not min and max are calculated for log10 of 1 + magnitude array
      * 
      * @throws IOException Throws an error when there is a locking or bounds error.
      */
-    public final synchronized void importData(final int start, final Number[] values, final boolean mmFlag)
-            throws IOException {
-        final int length = values.length;
-        int ptr;
+    public final void importComplexData(final long start, final float[] valuesR, final float[] valuesI,
+            final boolean mmFlag, final boolean logMagDisplay) throws IOException {
+        final int length = valuesR.length;
+        final int lengthi = valuesI.length;
+        long ptr;
 
-        if ( (start >= 0) && ( (start + length) <= dataSize)) {
+        if ( (length == lengthi) && (start >= 0) && ( (start + (2 * length)) <= longDataSize)) {
+
+            final int stripes = lockData(start, 2L * length, true);
 
             try {
-                setLock(ModelStorageBase.RW_LOCKED);
                 ptr = start;
 
-                for (int i = 0; i < length; i++, ptr++) {
-                    data.set(ptr, values[i]);
+                for (int i = 0; i < length; i++, ptr += 2) {
+                    data.setFloat(ptr, valuesR[i]);
+                    data.setFloat(ptr + 1, valuesI[i]);
                 }
 
-                if (mmFlag) {
-                    calcMinMax();
-                }
+                setLogMagDisplay(logMagDisplay);
 
-            } catch (final IOException error) {
-                throw error;
             } finally {
-                releaseLock();
+                unlockData(stripes, true);
+            }
+
+            if (mmFlag) {
+                calcMinMaxShared(true, logMagDisplay);
             }
 
             return;
@@ -5814,7 +6094,7 @@ public class ModelStorageBase extends ModelSerialCloneable {
     }
 
     /**
-     * Import boolean (BitSet) data into data array.
+     * import Number data into data array.
      * 
      * @param start indicates starting position in data array
      * @param values array where data is to be acquired
@@ -5822,7 +6102,46 @@ public class ModelStorageBase extends ModelSerialCloneable {
      * 
      * @throws IOException Throws an error when there is a locking or bounds error.
      */
-    public final synchronized void importData(final int start, final BitSet values, final boolean mmFlag)
+    public final void importData(final int start, final Number[] values, final boolean mmFlag)
+            throws IOException {
+        final int length = values.length;
+        int ptr;
+
+        if ( (start >= 0) && ( (start + length) <= dataSize)) {
+
+            final int stripes = lockData(start, length, true);
+
+            try {
+                ptr = start;
+
+                for (int i = 0; i < length; i++, ptr++) {
+                    data.set(ptr, values[i]);
+                }
+
+            } finally {
+                unlockData(stripes, true);
+            }
+
+            if (mmFlag) {
+                calcMinMaxShared(false, false);
+            }
+
+            return;
+        }
+
+        throw new IOException("Import data error: bounds incorrect");
+    }
+
+    /**
+     * Import boolean (BitSet) data into data array.
+     * 
+     * @param start indicates starting position in data array
+     * @param values array where data is to be acquired
+     * @param mmFlag whether or not to calculate min and max values for the image array
+     * 
+     * @throws IOException Throws an error when there is a locking or bounds error.
+     */
+    public final void importData(final int start, final BitSet values, final boolean mmFlag)
             throws IOException {
 
         final int length = values.size();
@@ -5830,21 +6149,21 @@ public class ModelStorageBase extends ModelSerialCloneable {
 
         if ( (start >= 0) && ( (start + length) <= dataSize)) {
 
+            final int stripes = lockData(start, length, true);
+
             try {
-                setLock(ModelStorageBase.RW_LOCKED);
                 ptr = start;
 
                 for (int i = 0; i < length; i++, ptr++) {
                     data.setBoolean(ptr, values.get(i));
                 }
 
-                if (mmFlag) {
-                    calcMinMax();
-                }
-            } catch (final IOException error) {
-                throw error;
             } finally {
-                releaseLock();
+                unlockData(stripes, true);
+            }
+
+            if (mmFlag) {
+                calcMinMaxShared(false, false);
             }
 
             return;
@@ -5862,28 +6181,28 @@ public class ModelStorageBase extends ModelSerialCloneable {
      * 
      * @throws IOException Throws an error when there is a locking or bounds error.
      */
-    public final synchronized void importData(final int start, final boolean[] values, final boolean mmFlag)
+    public final void importData(final int start, final boolean[] values, final boolean mmFlag)
             throws IOException {
         final int length = values.length;
         int ptr;
 
         if ( (start >= 0) && ( (start + length) <= dataSize)) {
 
+            final int stripes = lockData(start, length, true);
+
             try {
-                setLock(ModelStorageBase.RW_LOCKED);
                 ptr = start;
 
                 for (int i = 0; i < length; i++, ptr++) {
                     data.setBoolean(ptr, values[i]);
                 }
 
-                if (mmFlag) {
-                    calcMinMax();
-                }
-            } catch (final IOException error) {
-                throw error;
             } finally {
-                releaseLock();
+                unlockData(stripes, true);
+            }
+
+            if (mmFlag) {
+                calcMinMaxShared(false, false);
             }
 
             return;
@@ -5901,28 +6220,68 @@ public class ModelStorageBase extends ModelSerialCloneable {
      * 
      * @throws IOException Throws an error when there is a locking or bounds error.
      */
-    public final synchronized void importData(final int start, final byte[] values, final boolean mmFlag)
+    public final void importData(final int start, final byte[] values, final boolean mmFlag)
             throws IOException {
         final int length = values.length;
         int ptr;
 
         if ( (start >= 0) && ( (start + length) <= dataSize)) {
 
+            final int stripes = lockData(start, length, true);
+
             try {
-                setLock(ModelStorageBase.RW_LOCKED);
                 ptr = start;
 
                 for (int i = 0; i < length; i++, ptr++) {
                     data.setByte(ptr, values[i]);
                 }
 
-                if (mmFlag) {
-                    calcMinMax();
+            } finally {
+                unlockData(stripes, true);
+            }
+
+            if (mmFlag) {
+                calcMinMaxShared(false, false);
+            }
+
+            return;
+        }
+
+        throw new IOException("Import data error: bounds incorrect");
+    }
+
+    /**
+     * Import byte data into data array from a long start position, so that slices of off-heap buffers larger than
+     * Integer.MAX_VALUE elements can be written.
+     * 
+     * @param start indicates starting position in data array
+     * @param values array where data is to be acquired
+     * @param mmFlag whether or not to calculate min and max values for the image array
+     * 
+     * @throws IOException Throws an error when there is a locking or bounds error.
+     */
+    public final void importData(final long start, final byte[] values, final boolean mmFlag)
+            throws IOException {
+        final int length = values.length;
+        long ptr;
+
+        if ( (start >= 0) && ( (start + length) <= longDataSize)) {
+
+            final int stripes = lockData(start, length, true);
+
+            try {
+                ptr = start;
+
+                for (int i = 0; i < length; i++, ptr++) {
+                    data.setByte(ptr, values[i]);
                 }
-            } catch (final IOException error) {
-                throw error;
+
             } finally {
-                releaseLock();
+                unlockData(stripes, true);
+            }
+
+            if (mmFlag) {
+                calcMinMaxShared(false, false);
             }
 
             return;
@@ -5940,7 +6299,7 @@ public class ModelStorageBase extends ModelSerialCloneable {
      * 
      * @throws IOException Throws an error when there is a locking or bounds error.
      */
-    public final synchronized void importData(final int start, final short[] values, final boolean mmFlag)
+    public final void importData(final int start, final short[] values, final boolean mmFlag)
             throws IOException {
 
         final int length = values.length;
@@ -5948,21 +6307,62 @@ public class ModelStorageBase extends ModelSerialCloneable {
 
         if ( (start >= 0) && ( (start + length) <= dataSize)) {
 
+            final int stripes = lockData(start, length, true);
+
             try {
-                setLock(ModelStorageBase.RW_LOCKED);
                 ptr = start;
 
                 for (int i = 0; i < length; i++, ptr++) {
                     data.setShort(ptr, values[i]);
                 }
 
-                if (mmFlag) {
-                    calcMinMax();
+            } finally {
+                unlockData(stripes, true);
+            }
+
+            if (mmFlag) {
+                calcMinMaxShared(false, false);
+            }
+
+            return;
+        }
+
+        throw new IOException("Import data error: bounds incorrect");
+    }
+
+    /**
+     * import short data into data array from a long start position, so that slices of off-heap buffers larger than
+     * Integer.MAX_VALUE elements can be written.
+     * 
+     * @param start indicates starting position in data array
+     * @param values array where data is to be acquired
+     * @param mmFlag whether or not to calculate min and max values for the image array
+     * 
+     * @throws IOException Throws an error when there is a locking or bounds error.
+     */
+    public final void importData(final long start, final short[] values, final boolean mmFlag)
+            throws IOException {
+
+        final int length = values.length;
+        long ptr;
+
+        if ( (start >= 0) && ( (start + length) <= longDataSize)) {
+
+            final int stripes = lockData(start, length, true);
+
+            try {
+                ptr = start;
+
+                for (int i = 0; i < length; i++, ptr++) {
+                    data.setShort(ptr, values[i]);
                 }
-            } catch (final IOException error) {
-                throw error;
+
             } finally {
-                releaseLock();
+                unlockData(stripes, true);
+            }
+
+            if (mmFlag) {
+                calcMinMaxShared(false, false);
             }
 
             return;
@@ -5980,29 +6380,68 @@ public class ModelStorageBase extends ModelSerialCloneable {
      * 
      * @throws IOException Throws an error when there is a locking or bounds error.
      */
-    public final synchronized void importData(final int start, final int[] values, final boolean mmFlag)
+    public final void importData(final int start, final int[] values, final boolean mmFlag)
             throws IOException {
         final int length = values.length;
         int ptr;
 
         if ( (start >= 0) && ( (start + length) <= dataSize)) {
 
+            final int stripes = lockData(start, length, true);
+
             try {
-                setLock(ModelStorageBase.RW_LOCKED);
                 ptr = start;
 
                 for (int i = 0; i < length; i++, ptr++) {
                     data.setInt(ptr, values[i]);
                 }
 
-                if (mmFlag) {
-                    calcMinMax();
+            } finally {
+                unlockData(stripes, true);
+            }
+
+            if (mmFlag) {
+                calcMinMaxShared(false, false);
+            }
+
+            return;
+        }
+
+        throw new IOException("Import data error: bounds incorrect");
+    }
+
+    /**
+     * import integer data into data array from a long start position, so that slices of off-heap buffers larger than
+     * Integer.MAX_VALUE elements can be written.
+     * 
+     * @param start indicates starting position in data array
+     * @param values array where data is to be acquired
+     * @param mmFlag whether or not to calculate min and max values for the image array
+     * 
+     * @throws IOException Throws an error when there is a locking or bounds error.
+     */
+    public final void importData(final long start, final int[] values, final boolean mmFlag)
+            throws IOException {
+        final int length = values.length;
+        long ptr;
+
+        if ( (start >= 0) && ( (start + length) <= longDataSize)) {
+
+            final int stripes = lockData(start, length, true);
+
+            try {
+                ptr = start;
+
+                for (int i = 0; i < length; i++, ptr++) {
+                    data.setInt(ptr, values[i]);
                 }
 
-            } catch (final IOException error) {
-                throw error;
             } finally {
-                releaseLock();
+                unlockData(stripes, true);
+            }
+
+            if (mmFlag) {
+                calcMinMaxShared(false, false);
             }
 
             return;
@@ -6020,28 +6459,28 @@ public class ModelStorageBase extends ModelSerialCloneable {
      * 
      * @throws IOException Throws an error when there is a locking or bounds error.
      */
-    public final synchronized void importData(final int start, final long[] values, final boolean mmFlag)
+    public final void importData(final int start, final long[] values, final boolean mmFlag)
             throws IOException {
         final int length = values.length;
         int ptr;
 
         if ( (start >= 0) && ( (start + length) <= dataSize)) {
 
+            final int stripes = lockData(start, length, true);
+
             try {
-                setLock(ModelStorageBase.RW_LOCKED);
                 ptr = start;
 
                 for (int i = 0; i < length; i++, ptr++) {
                     data.setLong(ptr, values[i]);
                 }
 
-                if (mmFlag) {
-                    calcMinMax();
-                }
-            } catch (final IOException error) {
-                throw error;
             } finally {
-                releaseLock();
+                unlockData(stripes, true);
+            }
+
+            if (mmFlag) {
+                calcMinMaxShared(false, false);
             }
 
             return;
@@ -6051,7 +6490,8 @@ public class ModelStorageBase extends ModelSerialCloneable {
     }
 
     /**
-     * import float data into data array.
+     * import long data into data array from a long start position, so that slices of off-heap buffers larger than
+     * Integer.MAX_VALUE elements can be written.
      * 
      * @param start indicates starting position in data array
      * @param values array where data is to be acquired
@@ -6059,28 +6499,97 @@ public class ModelStorageBase extends ModelSerialCloneable {
      * 
      * @throws IOException Throws an error when there is a locking or bounds error.
      */
-    public final synchronized void importData(final int start, final float[] values, final boolean mmFlag)
+    public final void importData(final long start, final long[] values, final boolean mmFlag)
             throws IOException {
         final int length = values.length;
-        int ptr;
+        long ptr;
 
-        if ( (start >= 0) && ( (start + length) <= dataSize)) {
+        if ( (start >= 0) && ( (start + length) <= longDataSize)) {
+
+            final int stripes = lockData(start, length, true);
 
             try {
-                setLock(ModelStorageBase.RW_LOCKED);
                 ptr = start;
 
                 for (int i = 0; i < length; i++, ptr++) {
-                    data.setFloat(ptr, values[i]);
+                    data.setLong(ptr, values[i]);
                 }
 
-                if (mmFlag) {
-                    calcMinMax();
-                }
-            } catch (final IOException error) {
-                throw error;
             } finally {
-                releaseLock();
+                unlockData(stripes, true);
+            }
+
+            if (mmFlag) {
+                calcMinMaxShared(false, false);
+            }
+
+            return;
+        }
+
+        throw new IOException("Import data error: bounds incorrect");
+    }
+
+    /**
+     * import float data into data array.
+     * 
+     * @param start indicates starting position in data array
+     * @param values array where data is to be acquired
+     * @param mmFlag whether or not to calculate min and max values for the image array
+     * 
+     * @throws IOException Throws an error when there is a locking or bounds error.
+     */
+    public final void importData(final int start, final float[] values, final boolean mmFlag)
+            throws IOException {
+        final int length = values.length;
+
+        if ( (start >= 0) && ( (start + length) <= dataSize)) {
+
+            final int stripes = lockData(start, length, true);
+
+            try {
+                data.setFloats(start, values, 0, length);
+
+            } finally {
+                unlockData(stripes, true);
+            }
+
+            if (mmFlag) {
+                calcMinMaxShared(false, false);
+            }
+
+            return;
+        }
+
+        throw new IOException("Import data error: bounds incorrect");
+    }
+
+    /**
+     * import float data into data array from a long start position, so that slices of off-heap buffers larger than
+     * Integer.MAX_VALUE elements can be written.
+     * 
+     * @param start indicates starting position in data array
+     * @param values array where data is to be acquired
+     * @param mmFlag whether or not to calculate min and max values for the image array
+     * 
+     * @throws IOException Throws an error when there is a locking or bounds error.
+     */
+    public final void importData(final long start, final float[] values, final boolean mmFlag)
+            throws IOException {
+        final int length = values.length;
+
+        if ( (start >= 0) && ( (start + length) <= longDataSize)) {
+
+            final int stripes = lockData(start, length, true);
+
+            try {
+                data.setFloats(start, values, 0, length);
+
+            } finally {
+                unlockData(stripes, true);
+            }
+
+            if (mmFlag) {
+                calcMinMaxShared(false, false);
             }
 
             return;
@@ -6098,28 +6607,58 @@ public class ModelStorageBase extends ModelSerialCloneable {
      * 
      * @throws IOException Throws an error when there is a locking or bounds error.
      */
-    public final synchronized void importData(final int start, final double[] values, final boolean mmFlag)
+    public final void importData(final int start, final double[] values, final boolean mmFlag)
             throws IOException {
         final int length = values.length;
-        int ptr;
 
         if ( (start >= 0) && ( (start + length) <= dataSize)) {
 
+            final int stripes = lockData(start, length, true);
+
             try {
-                setLock(ModelStorageBase.RW_LOCKED);
-                ptr = start;
+                data.setDoubles(start, values, 0, length);
 
-                for (int i = 0; i < length; i++, ptr++) {
-                    data.setDouble(ptr, values[i]);
-                }
+            } finally {
+                unlockData(stripes, true);
+            }
+
+            if (mmFlag) {
+                calcMinMaxShared(false, false);
+            }
+
+            return;
+        }
+
+        throw new IOException("Import data error: bounds incorrect");
+    }
+
+    /**
+     * import double data into data array from a long start position, so that slices of off-heap buffers larger than
+     * Integer.MAX_VALUE elements can be written.
+     * 
+     * @param start indicates starting position in data array
+     * @param values array where data is to be acquired
+     * @param mmFlag whether or not to calculate min and max values for the image array
+     * 
+     * @throws IOException Throws an error when there is a locking or bounds error.
+     */
+    public final void importData(final long start, final double[] values, final boolean mmFlag)
+            throws IOException {
+        final int length = values.length;
+
+        if ( (start >= 0) && ( (start + length) <= longDataSize)) {
+
+            final int stripes = lockData(start, length, true);
+
+            try {
+                data.setDoubles(start, values, 0, length);
 
-                if (mmFlag) {
-                    calcMinMax();
-                }
-            } catch (final IOException error) {
-                throw error;
             } finally {
-                releaseLock();
+                unlockData(stripes, true);
+            }
+
+            if (mmFlag) {
+                calcMinMaxShared(false, false);
             }
 
             return;
@@ -6139,7 +6678,7 @@ public class ModelStorageBase extends ModelSerialCloneable {
      * 
      * @throws IOException Throws an error when there is a locking or bounds error.
      */
-    public final synchronized void importDComplexData(final int start, final double[] valuesR, final double[] valuesI,
+    public final void importDComplexData(final int start, final double[] valuesR, final double[] valuesI,
             final boolean mmFlag, final boolean logMagDisplay) throws IOException {
         final int length = valuesR.length;
         final int lengthi = valuesI.length;
@@ -6147,8 +6686,9 @@ public class ModelStorageBase extends ModelSerialCloneable {
 
         if ( (length == lengthi) && (start >= 0) && ( (start + (2 * length)) <= dataSize)) {
 
+            final int stripes = lockData(start, 2L * length, true);
+
             try {
-                setLock(ModelStorageBase.RW_LOCKED);
                 ptr = start;
 
                 for (int i = 0; i < length; i++, ptr += 2) {
@@ -6158,13 +6698,58 @@ public class ModelStorageBase extends ModelSerialCloneable {
 
                 setLogMagDisplay(logMagDisplay);
 
-                if (mmFlag) {
-                    calcMinMaxMag(logMagDisplay);
+            } finally {
+                unlockData(stripes, true);
+            }
+
+            if (mmFlag) {
+                calcMinMaxShared(true, logMagDisplay);
+            }
+
+            return;
+        }
+
+        throw new IOException("Import data error: bounds incorrect");
+    }
+
+    /**
+     * import Complex data (in 2 double units) into data array from a long start position, so that slices of off-heap buffers larger
+     * than Integer.MAX_VALUE elements can be written.
+     * 
+     * @param start indicates starting position in data array
+     * @param valuesR array where real data is to be acquired
+     * @param valuesI array where imaginary data is to be acquired
+     * @param mmFlag whether or not to calculate min and max magnitude values for the image
+     * @param logMagDisplay whether or not min and max are calculated for log10 of 1 + magnitude array
+     * 
+     * @throws IOException Throws an error when there is a locking or bounds error.
+     */
+    public final void importDComplexData(final long start, final double[] valuesR, final double[] valuesI,
+            final boolean mmFlag, final boolean logMagDisplay) throws IOException {
+        final int length = valuesR.length;
+        final int lengthi = valuesI.length;
+        long ptr;
+
+        if ( (length == lengthi) && (start >= 0) && ( (start + (2 * length)) <= longDataSize)) {
+
+            final int stripes = lockData(start, 2L * length, true);
+
+            try {
+                ptr = start;
+
+                for (int i = 0; i < length; i++, ptr += 2) {
+                    data.setDouble(ptr, valuesR[i]);
+                    data.setDouble(ptr + 1, valuesI[i]);
                 }
-            } catch (final IOException error) {
-                throw error;
+
+                setLogMagDisplay(logMagDisplay);
+
             } finally {
-                releaseLock();
+                unlockData(stripes, true);
+            }
+
+            if (mmFlag) {
+                calcMinMaxShared(true, logMagDisplay);
             }
 
             return;
@@ -6183,7 +6768,7 @@ public class ModelStorageBase extends ModelSerialCloneable {
      * 
      * @throws IOException Throws an error when there is a locking or bounds error.
      */
-    public final synchronized void importRGBData(final int color, final int alphaIndexStart, final byte[] values,
+    public final void importRGBData(final int color, final int alphaIndexStart, final byte[] values,
             final boolean mmFlag) throws IOException {
         final int length = values.length;
         int ptr;
@@ -6198,21 +6783,21 @@ public class ModelStorageBase extends ModelSerialCloneable {
 
         if ( (alphaIndexStart >= 0) && ( (alphaIndexStart + length) <= dataSize)) {
 
+            final int stripes = lockData(alphaIndexStart, 4L * length, true);
+
             try {
-                setLock(ModelStorageBase.RW_LOCKED);
                 ptr = alphaIndexStart + color;
 
                 for (int i = 0; i < length; i++, ptr += 4) {
                     data.setByte(ptr, values[i]);
                 }
 
-                if (mmFlag) {
-                    calcMinMax();
-                }
-            } catch (final IOException error) {
-                throw error;
             } finally {
-                releaseLock();
+                unlockData(stripes, true);
+            }
+
+            if (mmFlag) {
+                calcMinMaxShared(false, false);
             }
 
             return;
@@ -6231,7 +6816,7 @@ public class ModelStorageBase extends ModelSerialCloneable {
      * 
      * @throws IOException Throws an error when there is a locking or bounds error.
      */
-    public final synchronized void importRGBData(final int color, final int alphaIndexStart, final short[] values,
+    public final void importRGBData(final int color, final int alphaIndexStart, final short[] values,
             final boolean mmFlag) throws IOException {
         final int length = values.length;
         int ptr;
@@ -6246,21 +6831,21 @@ public class ModelStorageBase extends ModelSerialCloneable {
 
         if ( (alphaIndexStart >= 0) && ( (alphaIndexStart + length) <= dataSize)) {
 
+            final int stripes = lockData(alphaIndexStart, 4L * length, true);
+
             try {
-                setLock(ModelStorageBase.RW_LOCKED);
                 ptr = alphaIndexStart + color;
 
                 for (int i = 0; i < length; i++, ptr += 4) {
                     data.setShort(ptr, values[i]);
                 }
 
-                if (mmFlag) {
-                    calcMinMax();
-                }
-            } catch (final IOException error) {
-                throw error;
             } finally {
-                releaseLock();
+                unlockData(stripes, true);
+            }
+
+            if (mmFlag) {
+                calcMinMaxShared(false, false);
             }
 
             return;
@@ -6279,7 +6864,7 @@ public class ModelStorageBase extends ModelSerialCloneable {
      * 
      * @throws IOException Throws an error when there is a locking or bounds error.
      */
-    public final synchronized void importRGBData(final int color, final int alphaIndexStart, final float[] values,
+    public final void importRGBData(final int color, final int alphaIndexStart, final float[] values,
             final boolean mmFlag) throws IOException {
         final int length = values.length;
         int ptr;
@@ -6294,21 +6879,21 @@ public class ModelStorageBase extends ModelSerialCloneable {
 
         if ( (alphaIndexStart >= 0) && ( (alphaIndexStart + length) <= dataSize)) {
 
+            final int stripes = lockData(alphaIndexStart, 4L * length, true);
+
             try {
-                setLock(ModelStorageBase.RW_LOCKED);
                 ptr = alphaIndexStart + color;
 
                 for (int i = 0; i < length; i++, ptr += 4) {
                     data.setFloat(ptr, values[i]);
                 }
 
-                if (mmFlag) {
-                    calcMinMax();
-                }
-            } catch (final IOException error) {
-                throw error;
             } finally {
-                releaseLock();
+                unlockData(stripes, true);
+            }
+
+            if (mmFlag) {
+                calcMinMaxShared(false, false);
             }
 
             return;
@@ -6326,29 +6911,68 @@ public class ModelStorageBase extends ModelSerialCloneable {
      * 
      * @throws IOException Throws an error when there is a locking or bounds error.
      */
-    public final synchronized void importUData(final int start, final short[] values, final boolean mmFlag)
+    public final void importUData(final int start, final short[] values, final boolean mmFlag)
             throws IOException {
         final int length = values.length;
         int ptr;
 
         if ( (start >= 0) && ( (start + length) <= dataSize)) {
 
+            final int stripes = lockData(start, length, true);
+
             try {
-                setLock(ModelStorageBase.RW_LOCKED);
                 ptr = start;
 
                 for (int i = 0; i < length; i++, ptr++) {
                     data.setUByte(ptr, values[i]);
                 }
 
-                if (mmFlag) {
-                    calcMinMax();
+            } finally {
+                unlockData(stripes, true);
+            }
+
+            if (mmFlag) {
+                calcMinMaxShared(false, false);
+            }
+
+            return;
+        }
+
+        throw new IOException("Import data error: bounds incorrect");
+    }
+
+    /**
+     * import short data into data array from a long start position, so that slices of off-heap buffers larger than
+     * Integer.MAX_VALUE elements can be written.
+     * 
+     * @param start indicates starting position in data array
+     * @param values array where data is to be acquired
+     * @param mmFlag whether or not to calculate min and max values for the image array
+     * 
+     * @throws IOException Throws an error when there is a locking or bounds error.
+     */
+    public final void importUData(final long start, final short[] values, final boolean mmFlag)
+            throws IOException {
+        final int length = values.length;
+        long ptr;
+
+        if ( (start >= 0) && ( (start + length) <= longDataSize)) {
+
+            final int stripes = lockData(start, length, true);
+
+            try {
+                ptr = start;
+
+                for (int i = 0; i < length; i++, ptr++) {
+                    data.setUByte(ptr, values[i]);
                 }
 
-            } catch (final IOException error) {
-                throw error;
             } finally {
-                releaseLock();
+                unlockData(stripes, true);
+            }
+
+            if (mmFlag) {
+                calcMinMaxShared(false, false);
             }
 
             return;
@@ -6366,28 +6990,68 @@ public class ModelStorageBase extends ModelSerialCloneable {
      * 
      * @throws IOException Throws an error when there is a locking or bounds error.
      */
-    public final synchronized void importUData(final int start, final int[] values, final boolean mmFlag)
+    public final void importUData(final int start, final int[] values, final boolean mmFlag)
             throws IOException {
         final int length = values.length;
         int ptr;
 
         if ( (start >= 0) && ( (start + length) <= dataSize)) {
 
+            final int stripes = lockData(start, length, true);
+
             try {
-                setLock(ModelStorageBase.RW_LOCKED);
                 ptr = start;
 
                 for (int i = 0; i < length; i++, ptr++) {
                     data.setUShort(ptr, values[i]);
                 }
 
-                if (mmFlag) {
-                    calcMinMax();
+            } finally {
+                unlockData(stripes, true);
+            }
+
+            if (mmFlag) {
+                calcMinMaxShared(false, false);
+            }
+
+            return;
+        }
+
+        throw new IOException("Import data error: bounds incorrect");
+    }
+
+    /**
+     * import int data into data array from a long start position, so that slices of off-heap buffers larger than
+     * Integer.MAX_VALUE elements can be written.
+     * 
+     * @param start indicates starting position in data array
+     * @param values array where data is to be acquired
+     * @param mmFlag whether or not to calculate min and max values for the image array
+     * 
+     * @throws IOException Throws an error when there is a locking or bounds error.
+     */
+    public final void importUData(final long start, final int[] values, final boolean mmFlag)
+            throws IOException {
+        final int length = values.length;
+        long ptr;
+
+        if ( (start >= 0) && ( (start + length) <= longDataSize)) {
+
+            final int stripes = lockData(start, length, true);
+
+            try {
+                ptr = start;
+
+                for (int i = 0; i < length; i++, ptr++) {
+                    data.setUShort(ptr, values[i]);
                 }
-            } catch (final IOException error) {
-                throw error;
+
             } finally {
-                releaseLock();
+                unlockData(stripes, true);
+            }
+
+            if (mmFlag) {
+                calcMinMaxShared(false, false);
             }
 
             return;
@@ -6405,29 +7069,68 @@ public class ModelStorageBase extends ModelSerialCloneable {
      * 
      * @throws IOException Throws an error when there is a locking or bounds error.
      */
-    public final synchronized void importUData(final int start, final long[] values, final boolean mmFlag)
+    public final void importUData(final int start, final long[] values, final boolean mmFlag)
             throws IOException {
         final int length = values.length;
         int ptr;
 
         if ( (start >= 0) && ( (start + length) <= dataSize)) {
 
+            final int stripes = lockData(start, length, true);
+
             try {
-                setLock(ModelStorageBase.RW_LOCKED);
                 ptr = start;
 
                 for (int i = 0; i < length; i++, ptr++) {
                     data.setUInt(ptr, values[i]);
                 }
 
-                if (mmFlag) {
-                    calcMinMax();
+            } finally {
+                unlockData(stripes, true);
+            }
+
+            if (mmFlag) {
+                calcMinMaxShared(false, false);
+            }
+
+            return;
+        }
+
+        throw new IOException("Import data error: bounds incorrect");
+    }
+
+    /**
+     * import int data into data array from a long start position, so that slices of off-heap buffers larger than
+     * Integer.MAX_VALUE elements can be written.
+     * 
+     * @param start indicates starting position in data array
+     * @param values array where data is to be acquired
+     * @param mmFlag whether or not to calculate min and max values for the image array
+     * 
+     * @throws IOException Throws an error when there is a locking or bounds error.
+     */
+    public final void importUData(final long start, final long[] values, final boolean mmFlag)
+            throws IOException {
+        final int length = values.length;
+        long ptr;
+
+        if ( (start >= 0) && ( (start + length) <= longDataSize)) {
+
+            final int stripes = lockData(start, length, true);
+
+            try {
+                ptr = start;
+
+                for (int i = 0; i < length; i++, ptr++) {
+                    data.setUInt(ptr, values[i]);
                 }
 
-            } catch (final IOException error) {
-                throw error;
             } finally {
-                releaseLock();
+                unlockData(stripes, true);
+            }
+
+            if (mmFlag) {
+                calcMinMaxShared(false, false);
             }
 
             return;
@@ -6446,11 +7149,16 @@ public class ModelStorageBase extends ModelSerialCloneable {
     public synchronized void reallocate(final int type) throws IOException {
 
         if (lockStatus == ModelStorageBase.UNLOCKED) {
+            final int stripes = lockStripes(ModelStorageBase.ALL_DATA_STRIPES, true);
 
-            // disposeLocal(); // delete old memory and reallocate
-            data = null;
-            System.gc();
-            construct(DataType.getDataType(type), dimExtents);
+            try {
+                // disposeLocal(); // delete old memory and reallocate
+                data = null;
+                System.gc();
+                construct(DataType.getDataType(type), dimExtents);
+            } finally {
+                unlockData(stripes, true);
+            }
         } else {
             throw new IOException("ModelStorageBase: Reallocate: Image locked !");
         }
@@ -6467,11 +7175,16 @@ public class ModelStorageBase extends ModelSerialCloneable {
     public synchronized void reallocate(final int[] dimExtents) throws IOException {
 
         if (lockStatus == ModelStorageBase.UNLOCKED) {
+            final int stripes = lockStripes(ModelStorageBase.ALL_DATA_STRIPES, true);
 
-            // disposeLocal(); // delete old memory and reallocate
-            data = null;
-            System.gc();
-            construct(bufferType, dimExtents);
+            try {
+                // disposeLocal(); // delete old memory and reallocate
+                data = null;
+                System.gc();
+                construct(bufferType, dimExtents);
+            } finally {
+                unlockData(stripes, true);
+            }
         } else {
             throw new IOException("ModelStorageBase: Reallocate: Image locked !");
         }
@@ -6489,11 +7202,16 @@ public class ModelStorageBase extends ModelSerialCloneable {
     public synchronized void reallocate(final int type, final int[] dimExtents) throws IOException {
 
         if (lockStatus == ModelStorageBase.UNLOCKED) {
+            final int stripes = lockStripes(ModelStorageBase.ALL_DATA_STRIPES, true);
 
-            // disposeLocal(); // delete old memory and reallocate
-            data = null;
-            System.gc();
-            construct(DataType.getDataType(type), dimExtents);
+            try {
+                // disposeLocal(); // delete old memory and reallocate
+                data = null;
+                System.gc();
+                construct(DataType.getDataType(type), dimExtents);
+            } finally {
+                unlockData(stripes, true);
+            }
         } else {
             throw new IOException("ModelStorageBase: Reallocate: Image locked !");
         }
@@ -6509,16 +7227,140 @@ public class ModelStorageBase extends ModelSerialCloneable {
      * </p>
      */
     public void recomputeDataSize() {
-        final int oldDataSize = this.dataSize;
+        final long oldDataSize = this.longDataSize;
 
         this.computeDataSize();
 
-        if (this.dataSize != oldDataSize) {
+        if (this.longDataSize != oldDataSize) {
             allocateData();
         }
 
     } // end recomputeDataSize()
 
+    /**
+     * Checks the lock status of the image and then takes the read or write locks of the slices that hold the given
+     * range of the data. Locks are taken in stripe order so that overlapping callers cannot deadlock. Every call must
+     * be paired with unlockData in a finally block.
+     * 
+     * <p>
+     * An RW_LOCKED image can be neither read nor written. A W_LOCKED image can be read, and written only by the thread
+     * that locked it, as setLock lets a W_LOCKED request nest within W_LOCKED. The lock status is left as it is, while
+     * the old exports and imports released the lock of the caller when they ended.
+     * </p>
+     * 
+     * @param start position in the data of the first value
+     * @param length number of values in the range
+     * @param write true to take the write locks for an import, false to take the read locks for an export
+     * 
+     * @return the stripes that were locked, to be passed to unlockData
+     * 
+     * @throws IOException if the image is locked against the access
+     */
+    private int lockData(final long start, final long length, final boolean write) throws IOException {
+
+        final int status = lockStatus;
+
+        if ( (status == ModelStorageBase.RW_LOCKED)
+                || (write && (status == ModelStorageBase.W_LOCKED) && (writeLockOwner != Thread.currentThread()))) {
+            throw new IOException("ModelStorageBase: Image locked !");
+        }
+
+        return lockStripes(stripes(start, length), write);
+    }
+
+    /**
+     * Takes the read or write locks of the given stripes.
+     * 
+     * @param stripes bit mask of the stripes to lock
+     * @param write true for the write locks, false for the read locks
+     * 
+     * @return the stripes that were locked
+     */
+    private int lockStripes(final int stripes, final boolean write) {
+
+        for (int i = 0; i < ModelStorageBase.DATA_LOCK_STRIPES; i++) {
+
+            if ( (stripes & (1 << i)) != 0) {
+
+                if (write) {
+                    dataLocks[i].writeLock().lock();
+                } else {
+                    dataLocks[i].readLock().lock();
+                }
+            }
+        }
+
+        return stripes;
+    }
+
+    /**
+     * Releases the stripe locks taken by lockData.
+     * 
+     * @param stripes bit mask of the stripes returned by lockData
+     * @param write true for the write locks, false for the read locks
+     */
+    private void unlockData(final int stripes, final boolean write) {
+
+        for (int i = 0; i < ModelStorageBase.DATA_LOCK_STRIPES; i++) {
+
+            if ( (stripes & (1 << i)) != 0) {
+
+                if (write) {
+                    dataLocks[i].writeLock().unlock();
+                } else {
+                    dataLocks[i].readLock().unlock();
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the stripes covering a range of the data. Each slice (or each image for 2D data) maps to one stripe.
+     * 
+     * @param start position in the data of the first value
+     * @param length number of values in the range
+     * 
+     * @return bit mask of the stripes
+     */
+    private int stripes(final long start, final long length) {
+        long nSlices = 1;
+
+        for (int i = 2; i < nDims; i++) {
+            nSlices *= dimExtents[i];
+        }
+
+        final long sliceSize = Math.max(1, longDataSize / Math.max(1, nSlices));
+        final long first = start / sliceSize;
+        final long last = (start + Math.max(length, 1) - 1) / sliceSize;
+
+        if ( (last - first) >= (ModelStorageBase.DATA_LOCK_STRIPES - 1)) {
+            return ModelStorageBase.ALL_DATA_STRIPES;
+        }
+
+        int stripes = 0;
+
+        for (long slice = first; slice <= last; slice++) {
+            stripes |= 1 << (int) (slice % ModelStorageBase.DATA_LOCK_STRIPES);
+        }
+
+        return stripes;
+    }
+
+    /**
+     * Creates the striped data locks.
+     * 
+     * @return one read-write lock per stripe
+     */
+    private static ReentrantReadWriteLock[] createDataLocks() {
+        final ReentrantReadWriteLock[] locks = new ReentrantReadWriteLock[ModelStorageBase.DATA_LOCK_STRIPES];
+
+        for (int i = 0; i < locks.length; i++) {
+            locks[i] = new ReentrantReadWriteLock();
+        }
+
+        return locks;
+    }
+
     /**
      * Releases the lock so that other proceses can read or write the data.
      */
@@ -6529,6 +7371,7 @@ public class ModelStorageBase extends ModelSerialCloneable {
 
             if (writeLockCount <= 0) {
                 lockStatus = ModelStorageBase.UNLOCKED;
+                writeLockOwner = null;
                 writeLockCount = 0; // Just make sure its zero.
             }
         } else if (lockStatus == ModelStorageBase.RW_LOCKED) {
@@ -6825,6 +7668,17 @@ public class ModelStorageBase extends ModelSerialCloneable {
         data.setFloat(position, value);
     }
 
+    /**
+     * version of set that does NOT perform bounds checking and takes a long position, for off-heap buffers larger than
+     * Integer.MAX_VALUE elements.
+     * 
+     * @param position position in one dimensional array
+     * @param value data that will be stored in the data array
+     */
+    public final void set(final long position, final float value) {
+        data.setFloat(position, value);
+    }
+
     /**
      * nD set data fuction where bounds checking is NOT performed.
      * 
@@ -6860,6 +7714,17 @@ public class ModelStorageBase extends ModelSerialCloneable {
         data.setDouble(position, value);
     }
 
+    /**
+     * version of set that does NOT perform bounds checking and takes a long position, for off-heap buffers larger than
+     * Integer.MAX_VALUE elements.
+     * 
+     * @param position position in one dimensional array
+     * @param value The value to stored in the data array.
+     */
+    public final void set(final long position, final double value) {
+        data.setDouble(position, value);
+    }
+
     /**
      * nD set data fuction where bounds checking is NOT performed.
      * 
@@ -7551,6 +8416,7 @@ public class ModelStorageBase extends ModelSerialCloneable {
         if (lockStatus == ModelStorageBase.RW_LOCKED) {
             throw new IOException("ModelStorageBase: Image locked !");
         } else if ( (lockStatus == ModelStorageBase.UNLOCKED) && (lockType == ModelStorageBase.W_LOCKED)) {
+            writeLockOwner = Thread.currentThread();
             lockStatus = lockType;
         } else if ( (lockStatus == ModelStorageBase.W_LOCKED) && (lockType == ModelStorageBase.W_LOCKED)) {} else if ( (lockStatus == ModelStorageBase.W_LOCKED)
                 && (lockType == ModelStorageBase.RW_LOCKED)) {
@@ -8068,6 +8934,12 @@ public class ModelStorageBase extends ModelSerialCloneable {
             System.gc();
         }
 
+        if (this.longDataSize > ModelStorageBase.MAX_ARRAY_SIZE && this.bufferType != DataType.BOOLEAN) {
+            allocateDirectData();
+
+            return;
+        }
+
         // allocate memory in the data buffer and do some initialization
         // based on dataSize
         switch (this.bufferType) {
@@ -8089,6 +8961,7 @@ public class ModelStorageBase extends ModelSerialCloneable {
                     // Reset dataSize to reflect change in buffer size
                     // because BitSet structure may increase buffer.
                     this.dataSize = ((BufferBoolean) (this.data)).dataArray.size();
+                    this.longDataSize = this.dataSize;
                 } catch (final OutOfMemoryError error) {
                     disposeLocal();
                     MipavUtil.displayError("ImageModel: Unable to allocate boolean data");
@@ -8273,6 +9146,87 @@ public class ModelStorageBase extends ModelSerialCloneable {
 
     } // end allocateData()
 
+    /**
+     * Allocates an off-heap, long indexed buffer for data too large for a java array. Boolean data is kept in a BitSet
+     * and cannot be held off-heap.
+     */
+    private void allocateDirectData() {
+
+        try {
+
+            switch (this.bufferType) {
+
+                case BYTE:
+                    this.data = new BufferDirectByte(this.longDataSize);
+                    break;
+
+                case UBYTE:
+                case ARGB:
+                    this.data = new BufferDirectUByte(this.longDataSize);
+                    break;
+
+                case SHORT:
+                    this.data = new BufferDirectShort(this.longDataSize);
+                    break;
+
+                case USHORT:
+                case ARGB_USHORT:
+                    this.data = new BufferDirectUShort(this.longDataSize);
+                    break;
+
+                case INTEGER:
+                    this.data = new BufferDirectInt(this.longDataSize);
+                    break;
+
+                case UINTEGER:
+                    this.data = new BufferDirectUInt(this.longDataSize);
+                    break;
+
+                case LONG:
+                    this.data = new BufferDirectLong(this.longDataSize);
+                    break;
+
+                case FLOAT:
+                case COMPLEX:
+                case ARGB_FLOAT:
+                    this.data = new BufferDirectFloat(this.longDataSize);
+                    break;
+
+                case DOUBLE:
+                case DCOMPLEX:
+                    this.data = new BufferDirectDouble(this.longDataSize);
+                    break;
+
+                default: {
+                    MipavUtil.displayError("ModelStorageArray: Unknown data type - memory not allocated");
+                    return;
+                }
+            }
+        } catch (final OutOfMemoryError error) {
+            disposeLocal();
+            MipavUtil.displayError("ImageModel: Unable to allocate " + this.longDataSize + " element off-heap buffer");
+            throw (error);
+        }
+
+        // set alphas to full on
+        if (this.bufferType == DataType.ARGB) {
+
+            for (long l = 0; l < this.longDataSize; l += 4) {
+                data.setUByte(l, (short) 255);
+            }
+        } else if (this.bufferType == DataType.ARGB_USHORT) {
+
+            for (long l = 0; l < this.longDataSize; l += 4) {
+                data.setUShort(l, 65535);
+            }
+        } else if (this.bufferType == DataType.ARGB_FLOAT) {
+
+            for (long l = 0; l < this.longDataSize; l += 4) {
+                data.setFloat(l, 1.0f);
+            }
+        }
+    } // end allocateDirectData()
+
     /**
      * his method return the min value allowed of the type
      * 
@@ -8509,33 +9463,35 @@ public class ModelStorageBase extends ModelSerialCloneable {
 
     /**
      * Computes the datasize based on the type of buffer.
+     * 
+     * @throws IllegalArgumentException if boolean data has more than Integer.MAX_VALUE elements
      */
     protected void computeDataSize() {
         int i;
         long longSize;
 
         // base data size
-        for (this.dataSize = 1, i = 0, longSize = 1; i < this.nDims; i++) {
-            this.dataSize *= dimExtents[i];
+        for (i = 0, longSize = 1; i < this.nDims; i++) {
             longSize *= dimExtents[i];
         }
 
-        if (longSize > Integer.MAX_VALUE) {
-            MipavUtil.displayError("Product of dimExtents exceeds maximum allowable array size = " + Integer.MAX_VALUE);
-            return;
-        }
-
         switch (bufferType) {
 
             case BOOLEAN:
+                // a BitSet cannot be held off-heap, so the size would be left unusable
+                if (longSize > Integer.MAX_VALUE) {
+                    throw new IllegalArgumentException("Product of dimExtents exceeds maximum allowable boolean array "
+                            + "size = " + Integer.MAX_VALUE);
+                }
+
                 try {
 
                     // create a temporary buffer to get this dataSize)
-                    BufferBase tmpdata = new BufferBoolean(this.dataSize);
+                    BufferBase tmpdata = new BufferBoolean((int) longSize);
 
                     // Reset dataSize to reflect change in buffer size
                     // because BitSet structure may increase buffer.
-                    dataSize = ((BufferBoolean) (tmpdata)).dataArray.size();
+                    longSize = ((BufferBoolean) (tmpdata)).dataArray.size();
 
                     // clean up the temporary buffer
                     tmpdata = null;
@@ -8562,27 +9518,13 @@ public class ModelStorageBase extends ModelSerialCloneable {
 
             case COMPLEX:
             case DCOMPLEX:
-
-                this.dataSize *= 2;
                 longSize *= 2;
-                if (longSize > Integer.MAX_VALUE) {
-                    MipavUtil.displayError("2 times product of dimExtents exceeds maximum allowable array size = "
-                            + Integer.MAX_VALUE);
-                    return;
-                }
                 break;
 
             case ARGB:
             case ARGB_USHORT:
             case ARGB_FLOAT:
-
-                this.dataSize *= 4;
                 longSize *= 4;
-                if (longSize > Integer.MAX_VALUE) {
-                    MipavUtil.displayError("4 times product of dimExtents exceeds maximum allowable array size = "
-                            + Integer.MAX_VALUE);
-                    return;
-                }
                 break;
 
             default: {
@@ -8591,6 +9533,10 @@ public class ModelStorageBase extends ModelSerialCloneable {
             }
         } // end switch
 
+        // sizes beyond a java array are held off-heap, see allocateData()
+        this.longDataSize = longSize;
+        this.dataSize = (int) Math.min(longSize, Integer.MAX_VALUE);
+
     } // end computeDataSize()
 
     /**
@@ -8628,9 +9574,212 @@ public class ModelStorageBase extends ModelSerialCloneable {
 
     /**
      * Get total buffer length.
+     * 
+     * @return the number of elements in the data buffer
+     * 
+     * @throws IllegalStateException if the buffer holds more than Integer.MAX_VALUE elements, see getLongDataSize()
      */
     public int getDataSize() {
+        return getIntDataSize();
+    }
+
+    /**
+     * Returns the buffer length for the int sized accessors. Rather than report a clamped length that would make
+     * callers silently skip the end of the data, they fail for buffers that only a long can index.
+     * 
+     * @return the number of elements in the data buffer
+     * 
+     * @throws IllegalStateException if the buffer holds more than Integer.MAX_VALUE elements
+     */
+    private int getIntDataSize() {
+
+        if (longDataSize > Integer.MAX_VALUE) {
+            throw new IllegalStateException("ModelStorageBase: " + longDataSize
+                    + " elements do not fit in an int, use getLongDataSize()");
+        }
+
         return dataSize;
     }
 
+    /**
+     * Replaces the data buffer with a private memory mapping of the voxel region of an uncompressed file. Voxels are
+     * read from the file only when touched and are byte swapped on access. Changes made to the data are kept in
+     * memory and are never written back to the file. Boolean and color buffers cannot be mapped since their file
+     * layout differs from the buffer layout.
+     * 
+     * @param file the file holding the voxels, remembered so that writers can tell when they are about to overwrite
+     *            it, see isMappedFrom()
+     * @param channel channel of the file holding the voxels, opened for reading and writing as required for a private
+     *            mapping. It may be closed once the data is mapped.
+     * @param filePosition byte position in the file of the first voxel
+     * @param bigEndian byte order of the voxels in the file
+     * 
+     * @throws IOException if the image is locked, the type cannot be mapped or the file cannot be mapped
+     */
+    public synchronized void mapData(final File file, final FileChannel channel, final long filePosition,
+            final boolean bigEndian) throws IOException {
+
+        if (lockStatus != ModelStorageBase.UNLOCKED) {
+            throw new IOException("ModelStorageBase: mapData: Image locked !");
+        }
+
+        if ( !ModelStorageBase.isMappable(bufferType)) {
+            throw new IOException("ModelStorageBase: mapData: " + bufferType + " data cannot be mapped");
+        }
+
+        final int stripes = lockStripes(ModelStorageBase.ALL_DATA_STRIPES, true);
+
+        try {
+            data = null;
+
+            switch (bufferType) {
+
+                case BYTE:
+                    data = new BufferDirectByte(channel, filePosition, longDataSize, bigEndian);
+                    break;
+
+                case UBYTE:
+                    data = new BufferDirectUByte(channel, filePosition, longDataSize, bigEndian);
+                    break;
+
+                case SHORT:
+                    data = new BufferDirectShort(channel, filePosition, longDataSize, bigEndian);
+                    break;
+
+                case USHORT:
+                    data = new BufferDirectUShort(channel, filePosition, longDataSize, bigEndian);
+                    break;
+
+                case INTEGER:
+                    data = new BufferDirectInt(channel, filePosition, longDataSize, bigEndian);
+                    break;
+
+                case UINTEGER:
+                    data = new BufferDirectUInt(channel, filePosition, longDataSize, bigEndian);
+                    break;
+
+                case LONG:
+                    data = new BufferDirectLong(channel, filePosition, longDataSize, bigEndian);
+                    break;
+
+                case FLOAT:
+                case COMPLEX:
+                    data = new BufferDirectFloat(channel, filePosition, longDataSize, bigEndian);
+                    break;
+
+                case DOUBLE:
+                case DCOMPLEX:
+                    data = new BufferDirectDouble(channel, filePosition, longDataSize, bigEndian);
+                    break;
+
+                default:
+                    break;
+            }
+
+            mappedFile = file;
+        } finally {
+            unlockData(stripes, true);
+        }
+    }
+
+    /**
+     * Copies mapped data into off-heap memory of the image's own, so that the image no longer reads its voxels from
+     * the file. Changes already made to the data are kept. Writers call this before they truncate or overwrite the
+     * file the image is mapped over, whose pages a private mapping would otherwise keep reading. Does nothing if the
+     * data is not mapped.
+     */
+    public synchronized void unmapData() {
+
+        if ( !isMapped()) {
+            return;
+        }
+
+        final int stripes = lockStripes(ModelStorageBase.ALL_DATA_STRIPES, true);
+
+        try {
+            ((BufferDirectBase) data).unmap();
+            mappedFile = null;
+        } finally {
+            unlockData(stripes, true);
+        }
+    }
+
+    /**
+     * Returns whether the data is mapped over the given file, which then must not be written before unmapData() is
+     * called.
+     * 
+     * @param file a file about to be written
+     * 
+     * @return true if the data buffer was mapped over the file with mapData()
+     */
+    public boolean isMappedFrom(final File file) {
+
+        if ( !isMapped() || (mappedFile == null)) {
+            return false;
+        }
+
+        try {
+            return mappedFile.getCanonicalFile().equals(file.getCanonicalFile());
+        } catch (final IOException error) {
+            return mappedFile.getAbsoluteFile().equals(file.getAbsoluteFile());
+        }
+    }
+
+    /**
+     * Returns whether a buffer of the given type can be mapped over a file with mapData().
+     * 
+     * @param type buffer type
+     * 
+     * @return true when the file layout of the type matches the buffer layout
+     */
+    public static boolean isMappable(final DataType type) {
+
+        switch (type) {
+
+            case BYTE:
+            case UBYTE:
+            case SHORT:
+            case USHORT:
+            case INTEGER:
+            case UINTEGER:
+            case LONG:
+            case FLOAT:
+            case DOUBLE:
+            case COMPLEX:
+            case DCOMPLEX:
+                return true;
+
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * Returns whether the data is mapped over a file.
+     * 
+     * @return true if the data buffer was set with mapData()
+     */
+    public boolean isMapped() {
+        return (data instanceof BufferDirectBase) && ((BufferDirectBase) data).isMapped();
+    }
+
+    /**
+     * Get total buffer length as a long. This differs from getDataSize() only for off-heap buffers larger than
+     * Integer.MAX_VALUE elements.
+     * 
+     * @return the number of elements in the data buffer
+     */
+    public long getLongDataSize() {
+        return longDataSize;
+    }
+
+    /**
+     * Returns whether the data is held in an off-heap, long indexed buffer.
+     * 
+     * @return true if the data buffer is a BufferDirectBase
+     */
+    public boolean isDirect() {
+        return data instanceof BufferDirectBase;
+    }
+
 }
@@ -1,13 +1,56 @@
 package gov.nih.mipav.util;
 
 
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 
 
+/**
+ * Shared thread pools of MIPAV. All CPU bound work should run on the compute pool, a work-stealing ForkJoinPool with
+ * one worker per core, so that algorithms running side by side, for instance from a batch of scripts, share the cores
+ * instead of each starting its own threads. Blocking I/O, such as reading files ahead, runs on the separate I/O pool
+ * so it never holds compute workers.
+ *
+ * <p>mipavThreadPool is the compute pool, so the many callers that split their work into nthreads runnables and wait
+ * on a CountDownLatch keep working unchanged. They should wait with await(CountDownLatch): a wait from inside a pool
+ * worker, as in the registrations that run an optimizer per task, then lets the pool start a spare worker instead of
+ * starving. parallelFor() is the simpler form for new code, and newJobExecutor() stands in for an ExecutorService made
+ * just for one algorithm.</p>
+ *
+ * <p>Running algorithms register with beginJob() and endJob(), and getFairShare() divides a thread budget between
+ * them. AlgorithmBase takes its share when the algorithm starts. parallelFor() and the job executors run at most the
+ * parallelism they are given at once, and the extra threads of all parallelFor() calls together never exceed the
+ * workers of the compute pool: a call that finds them all taken runs its tasks on the calling thread.</p>
+ */
 public class ThreadUtil {
+
+    //~ Static fields/initializers -------------------------------------------------------------------------------------
+
+    /** Number of tasks that callers traditionally split their work into. */
     public static final int nthreads = 2 * ThreadUtil.getAvailableCores();
 
-    public static Executor mipavThreadPool = Executors.newFixedThreadPool(ThreadUtil.nthreads);
+    /** Work-stealing pool for CPU bound tasks, with one worker per core. */
+    public static final ForkJoinPool computePool = new ForkJoinPool(ThreadUtil.getAvailableCores(),
+            new ComputeThreadFactory(), null, false);
+
+    /** Shared pool for CPU bound tasks. This is the compute pool. */
+    public static Executor mipavThreadPool = ThreadUtil.computePool;
+
+    /** Bounded pool for blocking I/O tasks. Its threads end when they have been idle for a while. */
+    public static final ExecutorService ioThreadPool = ThreadUtil.createIOPool(Math.max(2,
+            Math.min(8, ThreadUtil.getAvailableCores())));
+
+    /** Number of algorithms currently running. */
+    private static final AtomicInteger activeJobs = new AtomicInteger();
+
+    /** Pool threads that parallelFor() calls may use besides their calling threads, one per compute worker. */
+    private static final Semaphore lanes = new Semaphore(ThreadUtil.computePool.getParallelism());
+
+    //~ Methods --------------------------------------------------------------------------------------------------------
 
     /**
      * Return the available processors in your machine. TODO: Add a similar method for GPUs once such a method exists in
@@ -16,4 +59,392 @@ public class ThreadUtil {
     public static int getAvailableCores() {
         return Runtime.getRuntime().availableProcessors();
     }
+
+    /**
+     * Waits for a latch that is counted down by tasks of the compute pool. When called from a worker of the compute
+     * pool, the pool is told that the worker blocks so it can start a spare worker for the tasks being waited for.
+     *
+     * @param   latch  the latch to wait for
+     *
+     * @throws  InterruptedException  if the thread is interrupted while waiting
+     */
+    public static void await(final CountDownLatch latch) throws InterruptedException {
+
+        if (ForkJoinTask.getPool() != ThreadUtil.computePool) {
+            latch.await();
+
+            return;
+        }
+
+        ForkJoinPool.managedBlock(new ForkJoinPool.ManagedBlocker() {
+                public boolean block() throws InterruptedException {
+                    latch.await();
+
+                    return true;
+                }
+
+                public boolean isReleasable() {
+                    return latch.getCount() == 0;
+                }
+            });
+    }
+
+    /**
+     * Runs task for every index from 0 to count - 1 on the compute pool and returns once all of them are done, using
+     * the fair share of the compute workers.
+     *
+     * @param   count  number of tasks
+     * @param   task   the task, which must be safe to run concurrently for different indices
+     *
+     * @throws  RuntimeException  the first exception thrown by a task, after all tasks have ended
+     *
+     * @see     #parallelFor(int, int, IndexedTask)
+     */
+    public static void parallelFor(final int count, final IndexedTask task) {
+        ThreadUtil.parallelFor(count, ThreadUtil.getFairShare(ThreadUtil.computePool.getParallelism()), task);
+    }
+
+    /**
+     * Runs task for every index from 0 to count - 1 and returns once all of them are done. The indices are taken in
+     * order by the calling thread and by up to parallelism - 1 pool threads, which are only started while the pool
+     * threads used by all parallelFor() calls stay within the compute workers. Nested calls from a task therefore run on
+     * the thread of the task once the pool is busy, and never wait for a free worker.
+     *
+     * @param   count        number of tasks
+     * @param   parallelism  maximum number of tasks run at once
+     * @param   task         the task, which must be safe to run concurrently for different indices
+     *
+     * @throws  RuntimeException  the first exception thrown by a task, after all tasks have ended
+     */
+    public static void parallelFor(final int count, final int parallelism, final IndexedTask task) {
+
+        if (count <= 0) {
+            return;
+        }
+
+        final AtomicInteger next = new AtomicInteger();
+        final AtomicReference<Throwable> error = new AtomicReference<Throwable>();
+        final Runnable lane = new Runnable() {
+            public void run() {
+                int index;
+
+                while ( (index = next.getAndIncrement()) < count) {
+
+                    try {
+                        task.run(index);
+                    } catch (final Throwable e) {
+                        error.compareAndSet(null, e);
+                    }
+                }
+            }
+        };
+        final List<ForkJoinTask<?>> tasks = new ArrayList<ForkJoinTask<?>>();
+        final boolean worker = ForkJoinTask.getPool() == ThreadUtil.computePool;
+
+        for (int i = Math.min(count, parallelism) - 1; (i > 0) && ThreadUtil.lanes.tryAcquire(); i--) {
+            final ForkJoinTask<?> forkJoinTask = ForkJoinTask.adapt(new Runnable() {
+                    public void run() {
+
+                        try {
+                            lane.run();
+                        } finally {
+                            ThreadUtil.lanes.release();
+                        }
+                    }
+                });
+
+            if (worker) {
+                forkJoinTask.fork();
+            } else {
+                ThreadUtil.computePool.execute(forkJoinTask);
+            }
+
+            tasks.add(forkJoinTask);
+        }
+
+        lane.run();
+
+        for (final ForkJoinTask<?> forkJoinTask : tasks) {
+            forkJoinTask.join();
+        }
+
+        final Throwable e = error.get();
+
+        if (e instanceof RuntimeException) {
+            throw (RuntimeException) e;
+        } else if (e instanceof Error) {
+            throw (Error) e;
+        }
+    }
+
+    /**
+     * Returns an executor for the tasks of one algorithm, in place of a thread pool of its own, that runs the fair share
+     * of the compute workers at once.
+     *
+     * @return  a new executor backed by the compute pool
+     *
+     * @see     #newJobExecutor(int)
+     */
+    public static ExecutorService newJobExecutor() {
+        return ThreadUtil.newJobExecutor(ThreadUtil.getFairShare(ThreadUtil.computePool.getParallelism()));
+    }
+
+    /**
+     * Returns an executor for the tasks of one algorithm, in place of a thread pool of its own. The tasks run on the
+     * compute pool, at most parallelism of them at once, in the order they are given; shutdown() and
+     * awaitTermination() only concern the tasks given to this executor, and shutdownNow() returns those not started.
+     *
+     * @param   parallelism  maximum number of tasks run at once
+     *
+     * @return  a new executor backed by the compute pool
+     */
+    public static ExecutorService newJobExecutor(final int parallelism) {
+        return new JobExecutor(Math.max(1, parallelism));
+    }
+
+    /**
+     * Registers a running algorithm, for getFairShare(). Every call must be matched by a call to endJob().
+     */
+    public static void beginJob() {
+        ThreadUtil.activeJobs.incrementAndGet();
+    }
+
+    /**
+     * Unregisters a running algorithm.
+     */
+    public static void endJob() {
+        ThreadUtil.activeJobs.decrementAndGet();
+    }
+
+    /**
+     * Divides a thread budget evenly between the running algorithms.
+     *
+     * @param   budget  the total number of threads, normally the numberOfThreads preference
+     *
+     * @return  the number of tasks a running algorithm should split its work into, at least 1
+     */
+    public static int getFairShare(final int budget) {
+        final int jobs = Math.max(1, ThreadUtil.activeJobs.get());
+
+        return Math.max(1, (budget + jobs - 1) / jobs);
+    }
+
+    /**
+     * Creates the I/O pool.
+     *
+     * @param   size  maximum number of threads
+     *
+     * @return  the pool
+     */
+    private static ExecutorService createIOPool(final int size) {
+        final ThreadPoolExecutor pool = new ThreadPoolExecutor(size, size, 30L, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+                    private final AtomicInteger count = new AtomicInteger();
+
+                    public Thread newThread(final Runnable r) {
+                        final Thread thread = new Thread(r, "mipav-io-" + count.incrementAndGet());
+
+                        thread.setDaemon(true);
+
+                        return thread;
+                    }
+                });
+
+        pool.allowCoreThreadTimeOut(true);
+
+        return pool;
+    }
+
+    //~ Inner Interfaces -----------------------------------------------------------------------------------------------
+
+    /**
+     * A task that is run for a range of indices, such as the slices of an image.
+     */
+    public interface IndexedTask {
+
+        /**
+         * Runs the task for one index.
+         *
+         * @param  index  the index
+         */
+        void run(int index);
+    }
+
+    //~ Inner Classes --------------------------------------------------------------------------------------------------
+
+    /**
+     * Names the compute workers, which are daemon threads so they never keep MIPAV from exiting.
+     */
+    private static class ComputeThreadFactory implements ForkJoinPool.ForkJoinWorkerThreadFactory {
+
+        /**
+         * Creates a worker.
+         *
+         * @param   pool  the compute pool
+         *
+         * @return  the worker
+         */
+        public ForkJoinWorkerThread newThread(final ForkJoinPool pool) {
+            final ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+
+            thread.setName("mipav-compute-" + thread.getPoolIndex());
+
+            return thread;
+        }
+    }
+
+    /**
+     * Executor for the tasks of one algorithm, run on the compute pool by at most parallelism pool tasks that each take
+     * the waiting tasks in order.
+     */
+    private static class JobExecutor extends AbstractExecutorService {
+
+        /** Maximum number of tasks run at once. */
+        private final int parallelism;
+
+        /** Tasks not started yet. Guarded by this. */
+        private final LinkedList<Runnable> waiting = new LinkedList<Runnable>();
+
+        /** Number of pool tasks taking the waiting tasks. Guarded by this. */
+        private int lanes;
+
+        /** Number of tasks given to the executor that have not ended. Guarded by this. */
+        private int running;
+
+        /** Set by shutdown(). Guarded by this. */
+        private boolean shutdown;
+
+        /**
+         * Creates an executor.
+         *
+         * @param  parallelism  maximum number of tasks run at once
+         */
+        JobExecutor(final int parallelism) {
+            this.parallelism = parallelism;
+        }
+
+        /**
+         * Waits until every task has ended after a shutdown.
+         *
+         * @param   timeout  maximum time to wait
+         * @param   unit     unit of timeout
+         *
+         * @return  true if the executor terminated, false if the time ran out
+         *
+         * @throws  InterruptedException  if the thread is interrupted while waiting
+         */
+        public synchronized boolean awaitTermination(final long timeout, final TimeUnit unit)
+                throws InterruptedException {
+            final long deadline = System.nanoTime() + unit.toNanos(timeout);
+
+            while ( !isTerminated()) {
+                final long remaining = deadline - System.nanoTime();
+
+                if (remaining <= 0) {
+                    return false;
+                }
+
+                TimeUnit.NANOSECONDS.timedWait(this, remaining);
+            }
+
+            return true;
+        }
+
+        /**
+         * Runs a task on the compute pool.
+         *
+         * @param  command  the task
+         */
+        public void execute(final Runnable command) {
+
+            synchronized (this) {
+
+                if (shutdown) {
+                    throw new RejectedExecutionException("Executor has been shut down");
+                }
+
+                running++;
+                waiting.add(command);
+
+                if (lanes == parallelism) {
+                    return;
+                }
+
+                lanes++;
+            }
+
+            ThreadUtil.computePool.execute(new Runnable() {
+                    public void run() {
+
+                        while (true) {
+                            final Runnable next;
+
+                            synchronized (JobExecutor.this) {
+                                next = waiting.poll();
+
+                                if (next == null) {
+                                    lanes--;
+
+                                    return;
+                                }
+                            }
+
+                            try {
+                                next.run();
+                            } catch (final RuntimeException e) {
+                                // dropped, as the pool drops the exceptions of the tasks it executes
+                            } finally {
+
+                                synchronized (JobExecutor.this) {
+                                    running--;
+                                    JobExecutor.this.notifyAll();
+                                }
+                            }
+                        }
+                    }
+                });
+        }
+
+        /**
+         * Returns whether the executor has been shut down.
+         *
+         * @return  true after shutdown()
+         */
+        public synchronized boolean isShutdown() {
+            return shutdown;
+        }
+
+        /**
+         * Returns whether the executor has been shut down and all its tasks have ended.
+         *
+         * @return  true once terminated
+         */
+        public synchronized boolean isTerminated() {
+            return shutdown && (running == 0);
+        }
+
+        /**
+         * Stops accepting tasks. Tasks already given keep running.
+         */
+        public synchronized void shutdown() {
+            shutdown = true;
+            notifyAll();
+        }
+
+        /**
+         * Stops accepting tasks and drops the tasks not started. Tasks already running are not interrupted, since they
+         * run on the shared pool.
+         *
+         * @return  the tasks that were not started
+         */
+        public synchronized List<Runnable> shutdownNow() {
+            final List<Runnable> dropped = new ArrayList<Runnable>(waiting);
+
+            waiting.clear();
+            running -= dropped.size();
+            shutdown();
+
+            return dropped;
+        }
+    }
 }
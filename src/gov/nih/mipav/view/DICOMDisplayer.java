@@ -1,6 +1,8 @@
 package gov.nih.mipav.view;
 
 
+import java.util.Hashtable;
+
 import javax.swing.*;
 
 
@@ -50,6 +52,9 @@ public class DICOMDisplayer extends JTable {
     /** DOCUMENT ME! */
     private static int[] message_id = new int[20];
 
+    /** Rows of message IDs that report on the row of another request, such as the series moves of a study. */
+    private static final Hashtable<Integer, Integer> rowAliases = new Hashtable<Integer, Integer>();
+
     //~ Instance fields ------------------------------------------------------------------------------------------------
 
     /** DOCUMENT ME! */
@@ -89,6 +94,16 @@ public class DICOMDisplayer extends JTable {
 
     //~ Methods --------------------------------------------------------------------------------------------------------
 
+    /**
+     * Makes the messages of a request report on the row of another request.
+     *
+     * @param  id   message ID of the request
+     * @param  row  row to report on
+     */
+    public static void addRowAlias(int id, int row) {
+        rowAliases.put(Integer.valueOf(id), Integer.valueOf(row));
+    }
+
     /**
      * Returns the ID from the specificed row.
      *
@@ -116,7 +131,18 @@ public class DICOMDisplayer extends JTable {
             }
         }
 
-        return -1;
+        final Integer alias = rowAliases.get(Integer.valueOf(id));
+
+        return (alias != null) ? alias.intValue() : -1;
+    }
+
+    /**
+     * Removes a row alias added with addRowAlias().
+     *
+     * @param  id  message ID of the request
+     */
+    public static void removeRowAlias(int id) {
+        rowAliases.remove(Integer.valueOf(id));
     }
 
     /**
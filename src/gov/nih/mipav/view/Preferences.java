@@ -246,6 +246,27 @@ public class Preferences {
 
     public static final String PREF_FLIP_NIFTI_READ = "FlipNIFTIRead";
 
+    /** Constant that indicates uncompressed NIFTI and Analyze images are memory mapped instead of read into memory. */
+    public static final String PREF_MEMORY_MAP_READ = "MemoryMapRead";
+
+    /** Constant that indicates .nii.gz files are written as blocked gzip, which can be read back in parallel. */
+    public static final String PREF_NIFTI_BLOCK_GZIP = "NIFTIBlockGzip";
+
+    /** Constant that indicates the headers of a DICOM series are read concurrently. */
+    public static final String PREF_DICOM_PARALLEL_READ = "DICOMParallelRead";
+
+    /** Constant that indicates the headers of DICOM series are kept in an index so the series open faster again. */
+    public static final String PREF_DICOM_HEADER_INDEX = "DICOMHeaderIndex";
+
+    /** Constant for the number of associations the DICOM receiver serves at once. 1 serves them one after another. */
+    public static final String PREF_DICOM_RECEIVER_ASSOCIATIONS = "DICOMReceiverAssociations";
+
+    /** Constant for the number of associations a study is retrieved over, by series. 1 moves the whole study at once. */
+    public static final String PREF_DICOM_RETRIEVE_ASSOCIATIONS = "DICOMRetrieveAssociations";
+
+    /** Constant for the memory, in megabytes, that the decoded tiles of a whole-slide image viewed may take. */
+    public static final String PREF_TILE_CACHE_SIZE = "TileCacheSize";
+
     /** Constant that indicates the file temp directory. */
     public static final String PREF_FILE_TEMP_DIR = "fileTempDir";
 
@@ -783,6 +804,13 @@ public class Preferences {
         Preferences.defaultProps.setProperty(Preferences.PREF_FILENAME_FILTER, "8"); // 8 = ViewImageFileFilter.TECH
         Preferences.defaultProps.setProperty(Preferences.PREF_SAVE_XML_THUMBNAIL, "false");
         Preferences.defaultProps.setProperty(Preferences.PREF_FLIP_NIFTI_READ, "true");
+        Preferences.defaultProps.setProperty(Preferences.PREF_MEMORY_MAP_READ, "false");
+        Preferences.defaultProps.setProperty(Preferences.PREF_NIFTI_BLOCK_GZIP, "false");
+        Preferences.defaultProps.setProperty(Preferences.PREF_DICOM_PARALLEL_READ, "true");
+        Preferences.defaultProps.setProperty(Preferences.PREF_DICOM_HEADER_INDEX, "false");
+        Preferences.defaultProps.setProperty(Preferences.PREF_DICOM_RECEIVER_ASSOCIATIONS, "8");
+        Preferences.defaultProps.setProperty(Preferences.PREF_DICOM_RETRIEVE_ASSOCIATIONS, "4");
+        Preferences.defaultProps.setProperty(Preferences.PREF_TILE_CACHE_SIZE, "256");
         Preferences.defaultProps.setProperty(Preferences.PREF_SAVE_ALL_ON_SAVE, "false");
         Preferences.defaultProps.setProperty(Preferences.PREF_OVERWRITE_STATISTICS, "false");
         Preferences.defaultProps.setProperty(Preferences.PREF_LAST_X_IMAGES, "");
@@ -728,23 +728,19 @@ public class ViewJFrameDICOMQuery extends JFrame implements ActionListener, List
             final Object messageID = messageTable.getValueAt(row, 5);
             final MoveRequestInfo info = moveRequestHash.get(messageID);
 
-            if (info.getThread().isAlive()) {
-
-                try {
-                    dm = new DICOM_Move();
-                } catch (final OutOfMemoryError e) {
-                    MipavUtil.displayError("Out of memory: ViewJFrameDICOMQuery.actionPerformed");
-
-                    return;
-                }
+            try {
+                dm = new DICOM_Move();
+            } catch (final OutOfMemoryError e) {
+                MipavUtil.displayError("Out of memory: ViewJFrameDICOMQuery.actionPerformed");
 
-                dm.sendCancelRQ(Integer.valueOf((String) messageID).intValue(), info.getPDU());
+                return;
             }
 
+            info.cancel(dm, Integer.valueOf((String) messageID).intValue());
+
             ViewJFrameDICOMQuery.userInterface.getDICOMCatcher().setCancelled(true);
             DICOMDisplayer.setMessageType(row, DICOMDisplayer.STATUS);
             messageTable.showMessage("Cancelled");
-            info.getThread().stop();
             messageTable.repaint();
             setEnabled(cancel, false);
         } else if (command.equals("UpDir")) {
@@ -949,7 +945,8 @@ public class ViewJFrameDICOMQuery extends JFrame implements ActionListener, List
             pending = (String) messageTable.getValueAt(i, 0);
 
             if ( (pending != null)
-                    && (pending.trim().equals("Saving images") || pending.trim().equals("Sending request"))) {
+                    && (pending.trim().equals("Saving images") || pending.trim().equals("Sending request") || pending
+                            .trim().startsWith("Series "))) {
                 messageID = messageTable.getValueAt(i, 5);
 
                 if (cancel == -99) { // first time through
@@ -966,11 +963,9 @@ public class ViewJFrameDICOMQuery extends JFrame implements ActionListener, List
                 if ( (messageID != null) && (cancel == 1)) {
                     info = (moveRequestHash.get(messageID));
 
-                    if ( (info != null) && info.getThread().isAlive()) {
-                        dm.sendCancelRQ(Integer.valueOf((String) messageID).intValue(), info.getPDU());
+                    if (info != null) {
+                        info.cancel(dm, Integer.valueOf((String) messageID).intValue());
                     }
-
-                    info.getThread().stop();
                 }
             }
         }
@@ -3439,6 +3434,12 @@ public class ViewJFrameDICOMQuery extends JFrame implements ActionListener, List
         DICOM_Object dataObject;
         Thread moveRequestThread;
 
+        if ( (type == ViewJFrameDICOMQuery.STUDY_LEVEL) && (ViewJFrameDICOMQuery.getRetrieveAssociations() > 1)) {
+            sendStudyMoveRequest();
+
+            return;
+        }
+
         switch (type) {
 
             case PATIENT_LEVEL: // ptIDText.setText("");
@@ -3546,6 +3547,114 @@ public class ViewJFrameDICOMQuery extends JFrame implements ActionListener, List
         moveRequestHash.put(String.valueOf(id), mr);
     }
 
+    /**
+     * Returns the number of associations a study is retrieved over.
+     * 
+     * @return the DICOMRetrieveAssociations preference, at least 1
+     */
+    private static int getRetrieveAssociations() {
+
+        try {
+            return Math.max(1, Integer.parseInt(Preferences.getProperty(
+                    Preferences.PREF_DICOM_RETRIEVE_ASSOCIATIONS).trim()));
+        } catch (final RuntimeException e) {
+            return 1;
+        }
+    }
+
+    /**
+     * Retrieves the current study by moving its series over several associations at once, in its own thread. The
+     * progress of the series is shown on the row of the study.
+     */
+    private void sendStudyMoveRequest() {
+        final String[] serverInfo = DICOM_PDUService.parseServerInfo(Preferences.getProperty(Preferences
+                .getDefaultServerKey()));
+        final String[] storageInfo = DICOM_PDUService.parseServerInfo(Preferences.getProperty(Preferences
+                .getDefaultStorageKey()));
+
+        try {
+
+            if (ViewJFrameDICOMQuery.userInterface.getDICOMCatcher() == null) {
+                ViewJFrameDICOMQuery.userInterface.setDICOMCatcher(new DICOM_Receiver());
+            }
+        } catch (final OutOfMemoryError error) {
+            MipavUtil.displayError("Out of memory: ViewJFrameDICOMQuery.sendStudyMoveRequest");
+
+            return;
+        }
+
+        final int row = messageTable.updateRow();
+        ViewJFrameDICOMQuery.userInterface.getDICOMCatcher().setDICOMMessageDisplayer(messageTable);
+        DICOMDisplayer.setMessageType(row, DICOMDisplayer.SOURCE);
+        messageTable.showMessage(serverInfo[0]);
+
+        final String title = storageInfo[0];
+        final byte[] localAppTitle = new byte[16];
+
+        DICOM_Util.fillByteArray(localAppTitle, ' ');
+
+        for (int i = 0; i < title.length(); i++) {
+            localAppTitle[i] = (byte) title.charAt(i);
+        }
+
+        final int id = DICOM_Util.getUniqueOddID16();
+        DICOMDisplayer.setMessageType(row, DICOMDisplayer.STATUS);
+        messageTable.showMessage("Sending request");
+        DICOMDisplayer.setMessageType(row, DICOMDisplayer.ID);
+        messageTable.showMessage(String.valueOf(id));
+        messageTable.repaint();
+        messageTable.setSucceeded(false);
+
+        final Hashtable<String, Integer> seriesIDs = new Hashtable<String, Integer>();
+        final DICOM_ParallelMove.ProgressListener listener = new DICOM_ParallelMove.ProgressListener() {
+            private int finished = 0;
+
+            public void seriesRequested(final String seriesUID, final int msgID) {
+                seriesIDs.put(seriesUID, Integer.valueOf(msgID));
+                DICOMDisplayer.addRowAlias(msgID, row);
+            }
+
+            public void seriesProgress(final String seriesUID, final int completed, final int remaining,
+                    final int failed, final int warning) {}
+
+            public void seriesFinished(final String seriesUID, final int status) {
+                final Integer msgID = seriesIDs.remove(seriesUID);
+
+                if (msgID != null) {
+                    DICOMDisplayer.removeRowAlias(msgID.intValue());
+                }
+
+                finished++;
+                DICOMDisplayer.setMessageType(row, DICOMDisplayer.STATUS);
+                messageTable.showMessage("Series " + finished + " moved");
+            }
+        };
+        final DICOM_ParallelMove move = new DICOM_ParallelMove(serverInfo[0], localAppTitle, getPtID().trim(),
+                studyInstanceUID, null, ViewJFrameDICOMQuery.getRetrieveAssociations(), listener);
+        final Thread moveRequestThread = new Thread() {
+            public void run() {
+                move.run();
+
+                final int failed = move.getFailedSeries();
+
+                DICOMDisplayer.setMessageType(row, DICOMDisplayer.STATUS);
+
+                if (failed == 0) {
+                    messageTable.showMessage("Success");
+                } else {
+                    messageTable.showMessage("Error");
+                    DICOMDisplayer.setMessageType(row, DICOMDisplayer.ERROR);
+                    messageTable.showMessage(failed + " series not moved");
+                }
+            }
+        };
+
+        moveRequestThread.setPriority(Thread.NORM_PRIORITY);
+        moveRequestThread.start();
+
+        moveRequestHash.put(String.valueOf(id), new MoveRequestInfo(move, moveRequestThread));
+    }
+
     /**
      * This method sets up the information for the DICOM query depending on the type, sends the query, and parses the
      * information that the server sends back. On a study query, it filters out studies before the start date or after
@@ -4227,6 +4336,9 @@ public class ViewJFrameDICOMQuery extends JFrame implements ActionListener, List
         /** DOCUMENT ME! */
         DICOM_PDUService pdu;
 
+        /** The retrieve of a study by series, or null for a single move request. */
+        DICOM_ParallelMove parallelMove;
+
         /**
          * Creates a new MoveRequestInfo object.
          * 
@@ -4238,6 +4350,41 @@ public class ViewJFrameDICOMQuery extends JFrame implements ActionListener, List
             this.moveThread = moveThread;
         }
 
+        /**
+         * Creates the information of a retrieve of a study by series.
+         * 
+         * @param parallelMove the retrieve
+         * @param moveThread the thread running it
+         */
+        public MoveRequestInfo(final DICOM_ParallelMove parallelMove, final Thread moveThread) {
+            this.parallelMove = parallelMove;
+            this.moveThread = moveThread;
+        }
+
+        /**
+         * Cancels the move request.
+         * 
+         * @param dm used to send the cancel request of a single move request
+         * @param messageID message ID of the move request
+         */
+        @SuppressWarnings("deprecation")
+        public void cancel(final DICOM_Move dm, final int messageID) {
+
+            if (parallelMove != null) {
+
+                // the retrieve cancels the moves outstanding on its associations and ends
+                parallelMove.cancel();
+
+                return;
+            }
+
+            if (moveThread.isAlive()) {
+                dm.sendCancelRQ(messageID, pdu);
+            }
+
+            moveThread.stop();
+        }
+
         /**
          * DOCUMENT ME!
          * 
@@ -1453,7 +1453,6 @@ public class ViewMenuBar {
 			menuBuilder.setMenuItemEnabled("Multiresolution Bilateral filter", false);
 			menuBuilder.setMenuItemEnabled("Trilateral filter", false);
 			menuBuilder.setMenuItemEnabled("Multiresolution Guided filter", false);
-			menuBuilder.setMenuItemEnabled("BM3D", false);
 			menuBuilder.setMenuItemEnabled("SIFT", false);
 			menuBuilder.setMenuItemEnabled("SIFT registration 3D", false);
 			menuBuilder.setMenuItemEnabled("Phase only correlation", false);
@@ -1584,7 +1583,6 @@ public class ViewMenuBar {
 			menuBuilder.setMenuItemEnabled("Multiresolution Bilateral filter", false);
 			menuBuilder.setMenuItemEnabled("Trilateral filter", false);
 			menuBuilder.setMenuItemEnabled("Multiresolution Guided filter", false);
-			menuBuilder.setMenuItemEnabled("BM3D", false);
 			menuBuilder.setMenuItemEnabled("DSC_MRI_toolbox", false);
 			menuBuilder.setMenuItemEnabled("SIFT", false);
 			menuBuilder.setMenuItemEnabled("SIFT registration 3D", true);
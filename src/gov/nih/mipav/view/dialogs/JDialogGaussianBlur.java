@@ -300,7 +300,9 @@ public class JDialogGaussianBlur extends JDialogScriptableBase implements Algori
                     // The image frames are enabled and then registered to the
                     // userinterface.
                     try {
-                        image.importData(0, gaussianBlurSepAlgo.getResultBuffer(), true);
+                        if (gaussianBlurSepAlgo.getResultBuffer() != null) {
+                            image.importData(0, gaussianBlurSepAlgo.getResultBuffer(), true);
+                        }
                     } catch (final IOException e) {
 
                     }
@@ -557,9 +559,9 @@ public class JDialogGaussianBlur extends JDialogScriptableBase implements Algori
             }
             try {
 
-                // Make algorithm
-                gaussianBlurSepAlgo = new AlgorithmGaussianBlurSep(image, sigmas, outputOptionsPanel
-                        .isProcessWholeImageSet(), image25D);
+                // Make algorithm, in place the volume is streamed back into the image slab by slab
+                gaussianBlurSepAlgo = new AlgorithmGaussianBlurSep(displayInNewFrame ? null : image, image, sigmas,
+                        outputOptionsPanel.isProcessWholeImageSet(), image25D);
 
                 // This is very important. Adding this object as a listener
                 // allows the algorithm to
@@ -323,7 +323,9 @@ public class JDialogGradientMagnitude extends JDialogScriptableBase
 					// The image frames are enabled and then registered to the
 					// userinterface.
 					try{
-						image.importData(0, gradientMagSepAlgo.getResultBuffer(), true);
+						if (gradientMagSepAlgo.getResultBuffer() != null) {
+							image.importData(0, gradientMagSepAlgo.getResultBuffer(), true);
+						}
 					}catch(IOException e){
 						
 					}
@@ -539,7 +541,8 @@ public class JDialogGradientMagnitude extends JDialogScriptableBase
 
 			try {
 				// Make algorithm
-				gradientMagSepAlgo = new AlgorithmGradientMagnitudeSep(image,
+				// In place the magnitude is streamed back into the image slab by slab
+				gradientMagSepAlgo = new AlgorithmGradientMagnitudeSep(displayInNewFrame ? null : image, image,
 						sigmas, outputOptionsPanel.isProcessWholeImageSet(),
 						image25D);
 
@@ -194,6 +194,9 @@ public class JDialogMipavOptions extends JDialogBase implements KeyListener {
 
     private JCheckBox flipNIFTIReadCheckBox;
 
+    /** DOCUMENT ME! */
+    private JCheckBox niftiBlockGzipCheckBox;
+
     private JTextField fileTempDirField;
 
     private JButton fileTempDirBrowseButton;
@@ -360,6 +363,7 @@ public class JDialogMipavOptions extends JDialogBase implements KeyListener {
         makeSaveXMLThumbnailOptions(gbc, gbl);
         makeFrameRateOptions(gbc, gbl);
         makeFlipNIFTIReadOptions(gbc, gbl);
+        makeNIFTIBlockGzipOptions(gbc, gbl);
 
         fileMiscPanel.setLayout(gbl);
         fileMiscPanel.setBorder(buildTitledBorder("Misc"));
@@ -559,6 +563,7 @@ public class JDialogMipavOptions extends JDialogBase implements KeyListener {
             Preferences.setProperty(Preferences.PREF_SAVE_PROMPT_OVERWRITE, String.valueOf(savePromptOverwriteBox.isSelected()));
             Preferences.setProperty(Preferences.PREF_SAVE_XML_THUMBNAIL, String.valueOf(saveThumbnailCheckBox.isSelected()));
             Preferences.setProperty(Preferences.PREF_FLIP_NIFTI_READ, String.valueOf(flipNIFTIReadCheckBox.isSelected()));
+            Preferences.setProperty(Preferences.PREF_NIFTI_BLOCK_GZIP, String.valueOf(niftiBlockGzipCheckBox.isSelected()));
             Preferences.setProperty(Preferences.PREF_FILENAME_FILTER, String.valueOf(fileFilter));
             if (fileTempDirField.getText().length() > 0) {
                 Preferences.setFileTempDir(fileTempDirField.getText());
@@ -2145,6 +2150,27 @@ public class JDialogMipavOptions extends JDialogBase implements KeyListener {
         flipNIFTIReadCheckBox.setSelected(Preferences.is(Preferences.PREF_FLIP_NIFTI_READ));
     }
 
+    /**
+     * Makes the "Write .nii.gz as blocked gzip" option line in the fileSavePanel.
+     * 
+     * @param gbc the constraints used in the fileSavePanel
+     * @param gbl the layout used in the fileSavePanel
+     */
+    protected void makeNIFTIBlockGzipOptions(final GridBagConstraints gbc, final GridBagLayout gbl) {
+        niftiBlockGzipCheckBox = new JCheckBox("Write .nii.gz as blocked gzip for faster parallel reading");
+        niftiBlockGzipCheckBox.setFont(MipavUtil.font12);
+        niftiBlockGzipCheckBox.setForeground(Color.black);
+        niftiBlockGzipCheckBox.addActionListener(this);
+        gbc.insets = new Insets(0, 0, 0, 0);
+        gbc.gridwidth = GridBagConstraints.REMAINDER;
+        gbc.anchor = GridBagConstraints.WEST;
+        gbl.setConstraints(niftiBlockGzipCheckBox, gbc);
+        fileSavePanel.add(niftiBlockGzipCheckBox);
+
+        // preset the choices.
+        niftiBlockGzipCheckBox.setSelected(Preferences.is(Preferences.PREF_NIFTI_BLOCK_GZIP));
+    }
+
     /**
      * makes the splash-screen option line in the otherPanel.
      * 
@@ -456,7 +456,7 @@ public abstract class RayCastRenderer extends Renderer {
                 ThreadUtil.mipavThreadPool.execute(task);
             }
             try {
-                doneSignal.await();
+                ThreadUtil.await(doneSignal);
             } catch (final InterruptedException e) {
                 e.printStackTrace();
             }
@@ -745,7 +745,7 @@ implements ListSelectionListener, ChangeListener {
 			                ThreadUtil.mipavThreadPool.execute(task);
 			            }
 			            try {
-			                doneSignal.await();
+			                ThreadUtil.await(doneSignal);
 			            } catch (final InterruptedException e) {
 			                e.printStackTrace();
 			            }
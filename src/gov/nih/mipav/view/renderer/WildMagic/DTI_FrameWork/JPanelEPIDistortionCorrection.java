@@ -483,7 +483,7 @@ public class JPanelEPIDistortionCorrection extends JPanel implements ActionListe
     			progressBar.updateValueImmed( (int)(100 * i / (float)numVolumes) );
             }
             try {
-                doneSignal.await();
+                ThreadUtil.await(doneSignal);
             } catch (final InterruptedException e) {
                 e.printStackTrace();
             }
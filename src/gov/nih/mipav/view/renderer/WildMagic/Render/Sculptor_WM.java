@@ -1038,9 +1038,9 @@ public class Sculptor_WM implements MouseMotionListener, MouseListener {
                     {
                         if ( m_aucTextureImageDataA != null )
                         {
-                            m_aucTextureImageDataA[iDataIndex*4 +0] = m_kImageA.get(iVolIndex*4 +1).byteValue();
-                            m_aucTextureImageDataA[iDataIndex*4 +1] = m_kImageA.get(iVolIndex*4 +2).byteValue();
-                            m_aucTextureImageDataA[iDataIndex*4 +2] = m_kImageA.get(iVolIndex*4 +3).byteValue();
+                            m_aucTextureImageDataA[iDataIndex*4 +0] = m_kImageA.getByte(iVolIndex*4 +1);
+                            m_aucTextureImageDataA[iDataIndex*4 +1] = m_kImageA.getByte(iVolIndex*4 +2);
+                            m_aucTextureImageDataA[iDataIndex*4 +2] = m_kImageA.getByte(iVolIndex*4 +3);
                             m_aucTextureImageDataA[iDataIndex*4 +3] = (byte)255;
                         }
                         else
@@ -1065,9 +1065,9 @@ public class Sculptor_WM implements MouseMotionListener, MouseListener {
                         {
                             if ( m_aucTextureImageDataB != null )
                             {
-                                m_aucTextureImageDataB[iDataIndex*4 +0] = m_kImageB.get(iVolIndex*4 +1).byteValue();
-                                m_aucTextureImageDataB[iDataIndex*4 +1] = m_kImageB.get(iVolIndex*4 +2).byteValue();
-                                m_aucTextureImageDataB[iDataIndex*4 +2] = m_kImageB.get(iVolIndex*4 +3).byteValue();
+                                m_aucTextureImageDataB[iDataIndex*4 +0] = m_kImageB.getByte(iVolIndex*4 +1);
+                                m_aucTextureImageDataB[iDataIndex*4 +1] = m_kImageB.getByte(iVolIndex*4 +2);
+                                m_aucTextureImageDataB[iDataIndex*4 +2] = m_kImageB.getByte(iVolIndex*4 +3);
                                 m_aucTextureImageDataB[iDataIndex*4 +3] = (byte)255;
                             }
                         }
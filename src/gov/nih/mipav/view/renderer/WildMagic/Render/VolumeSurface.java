@@ -1552,7 +1552,7 @@ public class VolumeSurface extends VolumeObject
                 ThreadUtil.mipavThreadPool.execute(task);
             }
             try {
-                doneSignal.await();
+                ThreadUtil.await(doneSignal);
             } catch (final InterruptedException e) {
                 e.printStackTrace();
             }
@@ -2298,7 +2298,7 @@ public class VolumeSurface extends VolumeObject
                 ThreadUtil.mipavThreadPool.execute(task);
             }
             try {
-                doneSignal.await();
+                ThreadUtil.await(doneSignal);
             } catch (final InterruptedException e) {
                 e.printStackTrace();
             }
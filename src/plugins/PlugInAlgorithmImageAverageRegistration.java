@@ -204,6 +204,9 @@ public class PlugInAlgorithmImageAverageRegistration extends AlgorithmBase {
         Preferences.debug("*** Number of source files is " + srcFilenamesArrList.size() + "\n",
                           Preferences.DEBUG_ALGORITHM);
 
+        // every source is registered to the target, so its blurred and subsampled levels are built only once
+        AlgorithmRegOAR3D.ReferencePyramid referencePyramid = new AlgorithmRegOAR3D.ReferencePyramid();
+
         for (int i = 0; i < srcFilenamesArrList.size(); i++) {
             boolean isMultifile = false;
 
@@ -314,6 +317,7 @@ public class PlugInAlgorithmImageAverageRegistration extends AlgorithmBase {
                                                  fineRateY, rotateBeginZ, rotateEndZ, coarseRateZ, fineRateZ,
                                                  maxOfMinResol, doSubsample, doMultiThread,
                                                  fastMode, maxIterations, numMinima);
+                algReg3D.setReferencePyramid(referencePyramid);
 
                 progressBar = new ViewJProgressBar(sourceImage.getImageName(), "", 0, 100, true);
                 progressBar.setSeparateThread(true);
@@ -382,6 +386,8 @@ public class PlugInAlgorithmImageAverageRegistration extends AlgorithmBase {
             }
         }
 
+        referencePyramid.disposeLocal();
+
         if (registeredImages.size() == 0) {
 
             // no registered images
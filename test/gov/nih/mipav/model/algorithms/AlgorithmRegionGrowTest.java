@@ -0,0 +1,174 @@
+package gov.nih.mipav.model.algorithms;
+
+/**
+ * Test cases for the gray scale 3D region grow of AlgorithmRegionGrow.java
+ */
+import gov.nih.mipav.model.structures.ModelImage;
+import gov.nih.mipav.model.structures.ModelStorageBase;
+import gov.nih.mipav.model.structures.Point3D;
+
+import java.util.BitSet;
+
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+public class AlgorithmRegionGrowTest extends TestCase {
+    /** Large enough for the middle waves to be split among threads. */
+    private static final int dim = 96;
+
+    private ModelImage srcImage;
+
+    protected void setUp() throws Exception {
+        srcImage = new ModelImage(ModelStorageBase.SHORT, new int[] {dim, dim, dim}, "src");
+        short[] buffer = new short[dim * dim * dim];
+        for (int z = 0; z < dim; z++) {
+            for (int y = 0; y < dim; y++) {
+                for (int x = 0; x < dim; x++) {
+                    // A bright ball around the center, cut off from the far corner by a dark wall at x = 80
+                    double d = Math.sqrt((x - 48) * (x - 48) + (y - 48) * (y - 48) + (z - 48) * (z - 48));
+                    buffer[x + dim * (y + dim * z)] = (short) (x == 80 ? 0 : 1000 - 4 * d + ((x * 7 + y * 13 + z) % 5));
+                }
+            }
+        }
+        srcImage.importData(0, buffer, true);
+    }
+
+    protected void tearDown() {
+        srcImage.disposeLocal();
+    }
+
+    private int grow(BitSet mask, int threads, int sizeLimit, boolean variableThresholds) {
+        AlgorithmRegionGrow regionGrow = new AlgorithmRegionGrow(srcImage, 1.0f, 1.0f);
+        regionGrow.setMultiThreadingEnabled(threads > 1);
+        regionGrow.setNumberOfThreads(threads);
+        return regionGrow.regionGrow3D(mask, new Point3D(48, 48, 48), -1, false, false, null, 850.0f, 1010.0f,
+                sizeLimit, -1.0f, variableThresholds, 0, null);
+    }
+
+    /**
+     * Reference flood fill with a queue on one thread.
+     *
+     * @return the breadth-first wave of each voxel of the region from the center, -1 outside of it
+     */
+    private int[] floodWaves() {
+        int[] waves = new int[dim * dim * dim];
+        java.util.Arrays.fill(waves, -1);
+        java.util.ArrayDeque<int[]> queue = new java.util.ArrayDeque<int[]>();
+        int[][] steps = { {1, 0, 0}, {-1, 0, 0}, {0, 1, 0}, {0, -1, 0}, {0, 0, 1}, {0, 0, -1}};
+        waves[48 + dim * (48 + dim * 48)] = 0;
+        queue.add(new int[] {48, 48, 48});
+        while (!queue.isEmpty()) {
+            int[] p = queue.poll();
+            int wave = waves[p[0] + dim * (p[1] + dim * p[2])];
+            for (int[] step : steps) {
+                int x = p[0] + step[0], y = p[1] + step[1], z = p[2] + step[2];
+                if (x < 0 || y < 0 || z < 0 || x >= dim || y >= dim || z >= dim) {
+                    continue;
+                }
+                int index = x + dim * (y + dim * z);
+                float value = srcImage.getFloat(index);
+                if (waves[index] < 0 && value >= 850.0f && value <= 1010.0f) {
+                    waves[index] = wave + 1;
+                    queue.add(new int[] {x, y, z});
+                }
+            }
+        }
+        return waves;
+    }
+
+    public void testFixedThresholds() {
+        int[] waves = floodWaves();
+        BitSet expected = new BitSet();
+        for (int i = 0; i < waves.length; i++) {
+            if (waves[i] >= 0) {
+                expected.set(i);
+            }
+        }
+        Assert.assertFalse(expected.get(81 + dim * (48 + dim * 48)));
+
+        BitSet single = new BitSet();
+        Assert.assertEquals(expected.cardinality(), grow(single, 1, -1, false));
+        Assert.assertEquals(expected, single);
+
+        BitSet multi = new BitSet();
+        Assert.assertEquals(expected.cardinality(), grow(multi, 4, -1, false));
+        Assert.assertEquals(expected, multi);
+    }
+
+    public void testPaintedVoxelsAndSizeLimit() {
+        // A painted shell around the seed keeps the region inside it
+        BitSet mask = new BitSet();
+        for (int z = 44; z <= 52; z++) {
+            for (int y = 44; y <= 52; y++) {
+                for (int x = 44; x <= 52; x++) {
+                    if (x == 44 || x == 52 || y == 44 || y == 52 || z == 44 || z == 52) {
+                        mask.set(x + dim * (y + dim * z));
+                    }
+                }
+            }
+        }
+        int painted = mask.cardinality();
+        Assert.assertEquals(7 * 7 * 7, grow(mask, 4, -1, false));
+        Assert.assertEquals(painted + 7 * 7 * 7, mask.cardinality());
+
+        // Growth stops at the first count c for which (c + 1) voxels exceed the limit
+        mask = new BitSet();
+        Assert.assertEquals(5000, grow(mask, 4, 5000, false));
+        Assert.assertEquals(5000, mask.cardinality());
+    }
+
+    public void testSizeLimitKeepsLowestIndicesOfLastWave() {
+        final int limit = 150000;
+        int[] waves = floodWaves();
+        int[] waveSizes = new int[dim * 3];
+        for (int i = 0; i < waves.length; i++) {
+            if (waves[i] >= 0) {
+                waveSizes[waves[i]]++;
+            }
+        }
+        int lastWave = 0;
+        int earlier = 0;
+        while (earlier + waveSizes[lastWave] < limit) {
+            earlier += waveSizes[lastWave++];
+        }
+        Assert.assertTrue(limit - earlier < waveSizes[lastWave]);
+
+        // All earlier waves, then the last wave in voxel order
+        BitSet expected = new BitSet();
+        int kept = 0;
+        for (int i = 0; i < waves.length; i++) {
+            if (waves[i] >= 0 && waves[i] < lastWave) {
+                expected.set(i);
+            } else if (waves[i] == lastWave && kept < limit - earlier) {
+                expected.set(i);
+                kept++;
+            }
+        }
+
+        BitSet single = new BitSet();
+        Assert.assertEquals(limit, grow(single, 1, limit, false));
+        Assert.assertEquals(expected, single);
+        for (int run = 0; run < 5; run++) {
+            BitSet multi = new BitSet();
+            Assert.assertEquals(limit, grow(multi, 8, limit, false));
+            Assert.assertEquals(single, multi);
+        }
+    }
+
+    public void testVariableThresholds() {
+        BitSet fixed = new BitSet();
+        grow(fixed, 1, -1, false);
+
+        BitSet single = new BitSet();
+        int count = grow(single, 1, -1, true);
+        BitSet multi = new BitSet();
+        Assert.assertEquals(count, grow(multi, 4, -1, true));
+        Assert.assertEquals(single, multi);
+
+        // The adaptive bounds only narrow for a positive mean, so the region stays within the fixed one
+        Assert.assertTrue(single.get(48 + dim * (48 + dim * 48)));
+        Assert.assertTrue(count < fixed.cardinality());
+        single.andNot(fixed);
+        Assert.assertTrue(single.isEmpty());
+    }
+}
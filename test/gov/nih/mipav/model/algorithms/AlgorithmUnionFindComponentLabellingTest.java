@@ -0,0 +1,105 @@
+package gov.nih.mipav.model.algorithms;
+
+/**
+ * Test cases for the 3D labelling of AlgorithmUnionFindComponentLabelling.java
+ */
+import gov.nih.mipav.model.structures.ModelImage;
+import gov.nih.mipav.model.structures.ModelStorageBase;
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+public class AlgorithmUnionFindComponentLabellingTest extends TestCase {
+    private static final int[] extents = new int[] {15, 12, 11};
+
+    private ModelImage srcImage;
+    private short[] imageBuffer;
+
+    protected void setUp() throws Exception {
+        srcImage = new ModelImage(ModelStorageBase.SHORT, extents, "src");
+        imageBuffer = new short[extents[0] * extents[1] * extents[2]];
+    }
+
+    protected void tearDown() {
+        srcImage.disposeLocal();
+    }
+
+    private AlgorithmUnionFindComponentLabelling label(int numNeighbor, int threads, int[] labels) throws Exception {
+        srcImage.importData(0, imageBuffer, true);
+        ModelImage destImage = new ModelImage(ModelStorageBase.INTEGER, extents, "dest");
+        AlgorithmUnionFindComponentLabelling ufcl = new AlgorithmUnionFindComponentLabelling(destImage, srcImage,
+                numNeighbor, false, 256);
+        ufcl.setMultiThreadingEnabled(threads > 1);
+        ufcl.setNumberOfThreads(threads);
+        ufcl.run();
+        Assert.assertTrue(ufcl.isCompleted());
+        destImage.exportData(0, labels.length, labels);
+        destImage.disposeLocal();
+        return ufcl;
+    }
+
+    public void testTwoCubes() throws Exception {
+        for (int z = 0; z < extents[2]; z++) {
+            for (int y = 0; y < extents[1]; y++) {
+                for (int x = 0; x < extents[0]; x++) {
+                    if ((x >= 2 && x <= 4 && y >= 1 && y <= 3 && z >= 1 && z <= 9)
+                            || (x >= 8 && x <= 13 && y >= 6 && y <= 10 && z >= 4 && z <= 5)) {
+                        imageBuffer[x + extents[0] * (y + extents[1] * z)] = 1;
+                    }
+                }
+            }
+        }
+        int[] labels = new int[imageBuffer.length];
+        AlgorithmUnionFindComponentLabelling ufcl = label(6, 4, labels);
+
+        // The background holds the first voxel, then the cubes in order of their smallest x
+        Assert.assertEquals(3, ufcl.getVoxelCounts().length);
+        Assert.assertEquals(imageBuffer.length - 81 - 60, ufcl.getVoxelCounts()[0]);
+        Assert.assertEquals(81, ufcl.getVoxelCounts()[1]);
+        Assert.assertEquals(60, ufcl.getVoxelCounts()[2]);
+        int[] box = ufcl.getBoundingBoxes()[1];
+        Assert.assertEquals(2, box[0]);
+        Assert.assertEquals(1, box[1]);
+        Assert.assertEquals(1, box[2]);
+        Assert.assertEquals(4, box[3]);
+        Assert.assertEquals(3, box[4]);
+        Assert.assertEquals(9, box[5]);
+        double[] centroid = ufcl.getCentroids()[2];
+        Assert.assertEquals(10.5, centroid[0], 1.0e-12);
+        Assert.assertEquals(8.0, centroid[1], 1.0e-12);
+        Assert.assertEquals(4.5, centroid[2], 1.0e-12);
+        Assert.assertEquals(2, labels[3 + extents[0] * (2 + extents[1] * 5)]);
+    }
+
+    public void testSlabsMatchSingleSlab() throws Exception {
+        java.util.Random random = new java.util.Random(3);
+        for (int i = 0; i < imageBuffer.length; i++) {
+            imageBuffer[i] = (short) random.nextInt(3);
+        }
+        int[] single = new int[imageBuffer.length];
+        int[] multi = new int[imageBuffer.length];
+        for (int numNeighbor = 6; numNeighbor <= 26; numNeighbor += (numNeighbor == 6 ? 12 : 8)) {
+            label(numNeighbor, 1, single);
+            AlgorithmUnionFindComponentLabelling ufcl = label(numNeighbor, 5, multi);
+            for (int i = 0; i < single.length; i++) {
+                Assert.assertEquals(single[i], multi[i]);
+            }
+
+            // Check the statistics against the label image
+            int components = ufcl.getVoxelCounts().length;
+            int[] counts = new int[components];
+            double[] xSums = new double[components];
+            int[] zMax = new int[components];
+            for (int i = 0; i < multi.length; i++) {
+                int c = multi[i] - 1;
+                counts[c]++;
+                xSums[c] += i % extents[0];
+                zMax[c] = Math.max(zMax[c], i / (extents[0] * extents[1]));
+            }
+            for (int c = 0; c < components; c++) {
+                Assert.assertEquals(counts[c], ufcl.getVoxelCounts()[c]);
+                Assert.assertEquals(xSums[c] / counts[c], ufcl.getCentroids()[c][0], 1.0e-9);
+                Assert.assertEquals(zMax[c], ufcl.getBoundingBoxes()[c][5]);
+            }
+        }
+    }
+}
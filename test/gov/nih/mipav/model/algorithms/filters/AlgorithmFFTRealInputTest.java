@@ -0,0 +1,159 @@
+package gov.nih.mipav.model.algorithms.filters;
+
+
+import gov.nih.mipav.model.structures.ModelImage;
+import gov.nih.mipav.model.structures.ModelStorageBase;
+
+import java.util.Random;
+
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+
+/**
+ * Checks the forward transforms of real images by AlgorithmFFT and AlgorithmFFT2, which transform only half of the x
+ * frequencies along the other dimensions and mirror the rest, against the transforms of the same values stored in a
+ * complex image, which are transformed in full.
+ */
+public class AlgorithmFFTRealInputTest extends TestCase {
+
+    /** Image extents: odd and even x lengths, padded and fast lengths, 2D, 3D and 4D. */
+    private static final int[][] EXTENTS = new int[][] { {9, 6}, {8, 5, 4}, {7, 6, 3}, {6, 4, 3, 2}};
+
+    /** Source of the image values. */
+    private final Random random = new Random(11);
+
+    /**
+     * Compares the float transforms, with equal and unequal dimensions and slice by slice.
+     */
+    public void testFloatTransform() {
+
+        for (final int[] extents : EXTENTS) {
+            compareFloat(extents, true, false);
+            compareFloat(extents, false, false);
+
+            if (extents.length == 3) {
+                compareFloat(extents, true, true);
+            }
+        }
+    }
+
+    /**
+     * Compares the double transforms, with equal and unequal dimensions and slice by slice.
+     */
+    public void testDoubleTransform() {
+
+        for (final int[] extents : EXTENTS) {
+            compareDouble(extents, true, false);
+            compareDouble(extents, false, false);
+
+            if (extents.length == 3) {
+                compareDouble(extents, true, true);
+            }
+        }
+    }
+
+    /**
+     * Transforms random values as a FLOAT and as a COMPLEX image with AlgorithmFFT and compares the spectra.
+     *
+     * @param extents image extents
+     * @param unequalDim whether the dimensions may be padded to different lengths
+     * @param image25D whether the slices are transformed one at a time
+     */
+    private void compareFloat(final int[] extents, final boolean unequalDim, final boolean image25D) {
+        final ModelImage real = new ModelImage(ModelStorageBase.FLOAT, extents.clone(), "real");
+        final ModelImage complex = new ModelImage(ModelStorageBase.COMPLEX, extents.clone(), "complex");
+        final float[] values = new float[real.getDataSize()];
+
+        for (int i = 0; i < values.length; i++) {
+            values[i] = (float) random.nextGaussian();
+        }
+
+        try {
+            real.importData(0, values, true);
+            complex.importComplexData(0, values, new float[values.length], true, false);
+        } catch (final Exception e) {
+            throw new AssertionError(e);
+        }
+
+        final AlgorithmFFT realFFT = new AlgorithmFFT(real, AlgorithmFFT.FORWARD, false, unequalDim, image25D, false);
+        final AlgorithmFFT complexFFT = new AlgorithmFFT(complex, AlgorithmFFT.FORWARD, false, unequalDim, image25D,
+                false);
+
+        realFFT.run();
+        complexFFT.run();
+
+        final String name = describe(extents, unequalDim, image25D);
+        final float[] expectedRe = complexFFT.getRealData();
+        final float[] expectedIm = complexFFT.getImaginaryData();
+
+        Assert.assertEquals(name, expectedRe.length, realFFT.getRealData().length);
+
+        for (int i = 0; i < expectedRe.length; i++) {
+            Assert.assertEquals(name + " real " + i, expectedRe[i], realFFT.getRealData()[i], 1e-4);
+            Assert.assertEquals(name + " imaginary " + i, expectedIm[i], realFFT.getImaginaryData()[i], 1e-4);
+        }
+
+        real.disposeLocal();
+        complex.disposeLocal();
+    }
+
+    /**
+     * Transforms random values as a DOUBLE and as a DCOMPLEX image with AlgorithmFFT2 and compares the spectra.
+     *
+     * @param extents image extents
+     * @param unequalDim whether the dimensions may be padded to different lengths
+     * @param image25D whether the slices are transformed one at a time
+     */
+    private void compareDouble(final int[] extents, final boolean unequalDim, final boolean image25D) {
+        final ModelImage real = new ModelImage(ModelStorageBase.DOUBLE, extents.clone(), "real");
+        final ModelImage complex = new ModelImage(ModelStorageBase.DCOMPLEX, extents.clone(), "complex");
+        final double[] values = new double[real.getDataSize()];
+
+        for (int i = 0; i < values.length; i++) {
+            values[i] = random.nextGaussian();
+        }
+
+        try {
+            real.importData(0, values, true);
+            complex.importDComplexData(0, values, new double[values.length], true, false);
+        } catch (final Exception e) {
+            throw new AssertionError(e);
+        }
+
+        final AlgorithmFFT2 realFFT = new AlgorithmFFT2(real, AlgorithmFFT2.FORWARD, false, unequalDim, image25D,
+                false);
+        final AlgorithmFFT2 complexFFT = new AlgorithmFFT2(complex, AlgorithmFFT2.FORWARD, false, unequalDim, image25D,
+                false);
+
+        realFFT.run();
+        complexFFT.run();
+
+        final String name = describe(extents, unequalDim, image25D);
+        final double[] expectedRe = complexFFT.getRealData();
+        final double[] expectedIm = complexFFT.getImaginaryData();
+
+        Assert.assertEquals(name, expectedRe.length, realFFT.getRealData().length);
+
+        for (int i = 0; i < expectedRe.length; i++) {
+            Assert.assertEquals(name + " real " + i, expectedRe[i], realFFT.getRealData()[i], 1e-10);
+            Assert.assertEquals(name + " imaginary " + i, expectedIm[i], realFFT.getImaginaryData()[i], 1e-10);
+        }
+
+        real.disposeLocal();
+        complex.disposeLocal();
+    }
+
+    /**
+     * Describes a transform for the failure messages.
+     *
+     * @param extents image extents
+     * @param unequalDim whether the dimensions may be padded to different lengths
+     * @param image25D whether the slices are transformed one at a time
+     *
+     * @return the description
+     */
+    private static String describe(final int[] extents, final boolean unequalDim, final boolean image25D) {
+        return java.util.Arrays.toString(extents) + (unequalDim ? " unequal" : " equal") + (image25D ? " 2.5D" : "");
+    }
+}
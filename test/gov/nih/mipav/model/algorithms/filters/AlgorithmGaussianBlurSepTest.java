@@ -0,0 +1,83 @@
+package gov.nih.mipav.model.algorithms.filters;
+
+/**
+ * Test cases for the slab streaming mode of AlgorithmGaussianBlurSep.java
+ */
+import gov.nih.mipav.model.structures.ModelImage;
+import gov.nih.mipav.model.structures.ModelStorageBase;
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+public class AlgorithmGaussianBlurSepTest extends TestCase {
+    /**
+     * Dimensions of the test volume.
+     */
+    private static final int[] extents = new int[] {17, 13, 11};
+
+    private ModelImage srcImage;
+    private float[] imageBuffer;
+
+    protected void setUp() throws Exception {
+        srcImage = new ModelImage(ModelStorageBase.FLOAT, extents, "src");
+        imageBuffer = new float[extents[0] * extents[1] * extents[2]];
+        for (int i = 0; i < imageBuffer.length; i++) {
+            imageBuffer[i] = (float) ((i * 7919) % 251) - 0.5f * (i % 13);
+        }
+        srcImage.importData(0, imageBuffer, true);
+    }
+
+    protected void tearDown() {
+        srcImage.disposeLocal();
+    }
+
+    /**
+     * Blurs the whole volume in memory.
+     */
+    private float[] blurInMemory(boolean multiThreading) {
+        AlgorithmGaussianBlurSep blur = new AlgorithmGaussianBlurSep(srcImage, new float[] {1.5f, 1.0f, 2.0f}, true,
+                false);
+        blur.setMultiThreadingEnabled(multiThreading);
+        blur.run();
+        return blur.getResultBuffer();
+    }
+
+    public void testStreamedMatchesInMemory() throws Exception {
+        float[] reference = blurInMemory(false);
+        for (int threads : new int[] {1, 3, 8}) {
+            // slabs of 4, 7 and 10 slices leave a shorter last slab
+            for (int slices = 1; slices <= extents[2]; slices += 3) {
+                ModelImage destImage = new ModelImage(ModelStorageBase.FLOAT, extents, "dest");
+                AlgorithmGaussianBlurSep blur = new AlgorithmGaussianBlurSep(destImage, srcImage, new float[] {1.5f,
+                        1.0f, 2.0f}, true, false);
+                blur.setMultiThreadingEnabled(threads > 1);
+                blur.setNumberOfThreads(threads);
+                blur.setSlabSlices(slices);
+                blur.run();
+                Assert.assertTrue(blur.isCompleted());
+                Assert.assertNull(blur.getResultBuffer());
+
+                float[] streamed = new float[reference.length];
+                destImage.exportData(0, streamed.length, streamed);
+                for (int i = 0; i < reference.length; i++) {
+                    Assert.assertEquals(reference[i], streamed[i], 0f);
+                }
+                destImage.disposeLocal();
+            }
+        }
+    }
+
+    public void testStreamedInPlace() throws Exception {
+        float[] reference = blurInMemory(true);
+        AlgorithmGaussianBlurSep blur = new AlgorithmGaussianBlurSep(srcImage, srcImage, new float[] {1.5f, 1.0f,
+                2.0f}, true, false);
+        blur.setSlabSlices(2);
+        blur.run();
+        Assert.assertTrue(blur.isCompleted());
+
+        float[] streamed = new float[reference.length];
+        srcImage.exportData(0, streamed.length, streamed);
+        for (int i = 0; i < reference.length; i++) {
+            Assert.assertEquals(reference[i], streamed[i], 0f);
+        }
+    }
+}
@@ -0,0 +1,103 @@
+package gov.nih.mipav.model.algorithms.filters;
+
+/**
+ * Test cases for AlgorithmN4MRIBiasFieldCorrectionFilter.java
+ */
+import gov.nih.mipav.model.structures.ModelImage;
+import gov.nih.mipav.model.structures.ModelStorageBase;
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+public class AlgorithmN4MRIBiasFieldCorrectionFilterTest extends TestCase {
+    private static final int[] extents = new int[] {24, 20, 8};
+
+    private ModelImage srcImage;
+    private double[] imageBuffer;
+    private boolean[] brightTissue;
+
+    protected void setUp() throws Exception {
+        int length = extents[0] * extents[1] * extents[2];
+        srcImage = new ModelImage(ModelStorageBase.DOUBLE, extents, "src");
+        imageBuffer = new double[length];
+        brightTissue = new boolean[length];
+        for (int i = 0; i < length; i++) {
+            int x = i % extents[0];
+            int y = (i / extents[0]) % extents[1];
+            int z = i / (extents[0] * extents[1]);
+            brightTissue[i] = ((x / 4 + y / 5 + z / 3) % 2) == 0;
+            double bias = Math.exp(0.4 * x / extents[0] - 0.3 * y / extents[1]);
+            imageBuffer[i] = (brightTissue[i] ? 200.0 : 100.0) * bias + ((i * 7919) % 13) * 0.2;
+        }
+        srcImage.importData(0, imageBuffer, true);
+    }
+
+    protected void tearDown() {
+        srcImage.disposeLocal();
+    }
+
+    /**
+     * Runs the correction and returns the corrected image followed by the bias field.
+     */
+    private double[][] correct(boolean multiThreading) throws Exception {
+        ModelImage destImage = new ModelImage(ModelStorageBase.DOUBLE, extents, "dest");
+        ModelImage fieldImage = new ModelImage(ModelStorageBase.DOUBLE, extents, "field");
+        AlgorithmN4MRIBiasFieldCorrectionFilter n4 = new AlgorithmN4MRIBiasFieldCorrectionFilter(destImage,
+                fieldImage, srcImage, 10, 0.001, 0.15, 0.01, 2, 4, null, true);
+        n4.setMultiThreadingEnabled(multiThreading);
+        n4.setNumberOfThreads(3);
+        n4.run();
+        Assert.assertTrue(n4.isCompleted());
+
+        double[][] result = new double[2][imageBuffer.length];
+        destImage.exportData(0, imageBuffer.length, result[0]);
+        fieldImage.exportData(0, imageBuffer.length, result[1]);
+        destImage.disposeLocal();
+        fieldImage.disposeLocal();
+        return result;
+    }
+
+    /**
+     * Coefficient of variation of the bright tissue.
+     */
+    private double brightVariation(double[] buffer) {
+        double sum = 0.0;
+        double sumSquares = 0.0;
+        int n = 0;
+        for (int i = 0; i < buffer.length; i++) {
+            if (brightTissue[i]) {
+                sum += buffer[i];
+                sumSquares += buffer[i] * buffer[i];
+                n++;
+            }
+        }
+        double mean = sum / n;
+        return Math.sqrt(sumSquares / n - mean * mean) / mean;
+    }
+
+    /**
+     * The chunks sum the histogram and lattices in a different order, and the histogram
+     * sharpening amplifies that rounding over the iterations, so only close agreement is expected.
+     */
+    public void testMultiThreadedMatchesSingleThreaded() throws Exception {
+        double[][] single = correct(false);
+        double[][] multi = correct(true);
+        for (int k = 0; k < 2; k++) {
+            for (int i = 0; i < imageBuffer.length; i++) {
+                Assert.assertEquals(single[k][i], multi[k][i], 1.0e-4 * Math.abs(single[k][i]));
+            }
+        }
+    }
+
+    public void testFieldDividesInput() throws Exception {
+        double[][] result = correct(true);
+        for (int i = 0; i < imageBuffer.length; i++) {
+            Assert.assertTrue(result[1][i] > 0.0);
+            Assert.assertEquals(imageBuffer[i], result[0][i] * result[1][i], 1.0e-9 * imageBuffer[i]);
+        }
+    }
+
+    public void testReducesBias() throws Exception {
+        double[][] result = correct(true);
+        Assert.assertTrue(brightVariation(result[0]) < 0.5 * brightVariation(imageBuffer));
+    }
+}
@@ -0,0 +1,227 @@
+package gov.nih.mipav.model.algorithms.filters;
+
+/**
+ * Test cases for the 3D filtering of AlgorithmNonlocalMeansFilter.java
+ */
+import gov.nih.mipav.model.structures.ModelImage;
+import gov.nih.mipav.model.structures.ModelStorageBase;
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+public class AlgorithmNonlocalMeansFilterTest extends TestCase {
+    /**
+     * Dimensions of the test volume, deeper than one slab.
+     */
+    private static final int[] extents = new int[] {12, 10, 20};
+
+    /**
+     * Noise standard deviation and degree of filtering given to the filter.
+     */
+    private static final float sigma = 20f;
+    private static final float degree = 1.414f;
+
+    private ModelImage srcImage;
+    private float[] imageBuffer;
+
+    protected void setUp() throws Exception {
+        srcImage = new ModelImage(ModelStorageBase.FLOAT, extents, "src");
+        imageBuffer = new float[extents[0] * extents[1] * extents[2]];
+        for (int i = 0; i < imageBuffer.length; i++) {
+            imageBuffer[i] = (i % extents[0] < extents[0] / 2 ? 100f : 400f) + (float) ((i * 7919) % 61) - 30f;
+        }
+        srcImage.importData(0, imageBuffer, true);
+    }
+
+    protected void tearDown() {
+        srcImage.disposeLocal();
+    }
+
+    /**
+     * Filters the volume in 3D.
+     */
+    private float[] filter(boolean doRician, boolean multiThreading) throws Exception {
+        return filter(doRician, multiThreading, 3);
+    }
+
+    /**
+     * Filters the volume in 3D with a 5 x 5 x 5 search window and the given similarity window.
+     */
+    private float[] filter(boolean doRician, boolean multiThreading, int similaritySide) throws Exception {
+        ModelImage destImage = new ModelImage(ModelStorageBase.FLOAT, extents, "dest");
+        AlgorithmNonlocalMeansFilter nlm = new AlgorithmNonlocalMeansFilter(destImage, srcImage, 5, similaritySide,
+                false, sigma, degree, doRician, false, false);
+        nlm.setMultiThreadingEnabled(multiThreading);
+        nlm.setNumberOfThreads(3);
+        nlm.run();
+        Assert.assertTrue(nlm.isCompleted());
+
+        float[] result = new float[imageBuffer.length];
+        destImage.exportData(0, result.length, result);
+        destImage.disposeLocal();
+        return result;
+    }
+
+    public void testMultiThreadedMatchesSingleThreaded() throws Exception {
+        for (int r = 0; r < 2; r++) {
+            float[] single = filter(r == 1, false);
+            float[] multi = filter(r == 1, true);
+            for (int i = 0; i < single.length; i++) {
+                Assert.assertEquals(single[i], multi[i], 0f);
+            }
+        }
+    }
+
+    public void testSmoothsWithinRegions() throws Exception {
+        float[] result = filter(false, true);
+        double noise = 0.0;
+        double residual = 0.0;
+        for (int i = 0; i < result.length; i++) {
+            float clean = i % extents[0] < extents[0] / 2 ? 100f : 400f;
+            noise += (imageBuffer[i] - clean) * (imageBuffer[i] - clean);
+            residual += (result[i] - clean) * (result[i] - clean);
+            Assert.assertTrue(Math.abs(result[i] - clean) < 100f);
+        }
+        Assert.assertTrue(residual < 0.5 * noise);
+    }
+
+    /**
+     * Reference filter comparing the similarity windows of each voxel and each neighbor element by element, as the
+     * filter did before it summed the distances from integral images. The volume is padded by mirror reflection and the
+     * distances are weighted by the sum over d of the cubes of side 2d + 1 weighted by 1/(2d + 1)^2. The Rician filter
+     * takes the neighbors whose y and z offsets do not have opposite signs, the ones its symmetric search reaches, and
+     * skips those whose 3 x 3 x 3 means differ from the voxel's by more than sigma. Sums are kept in double.
+     */
+    private double[] directSearch(boolean doRician, int halfSearch, int halfSimilarity) {
+        int xDim = extents[0], yDim = extents[1], zDim = extents[2];
+        int side = 2 * halfSimilarity + 1;
+        int padX = xDim + 2 * halfSimilarity, padY = yDim + 2 * halfSimilarity, padZ = zDim + 2 * halfSimilarity;
+        double[] padded = new double[padX * padY * padZ];
+        for (int z = 0; z < padZ; z++) {
+            for (int y = 0; y < padY; y++) {
+                for (int x = 0; x < padX; x++) {
+                    padded[x + padX * (y + padY * z)] = imageBuffer[mirror(x - halfSimilarity, xDim)
+                            + xDim * (mirror(y - halfSimilarity, yDim) + yDim * mirror(z - halfSimilarity, zDim))];
+                }
+            }
+        }
+        double[] aux = new double[padded.length];
+        for (int z = 0; z < padZ; z++) {
+            for (int y = 0; y < padY; y++) {
+                for (int x = 0; x < padX; x++) {
+                    double sum = 0.0;
+                    for (int k = -1; k <= 1; k++) {
+                        for (int j = -1; j <= 1; j++) {
+                            for (int i = -1; i <= 1; i++) {
+                                int xi = Math.min(Math.max(x + i, 0), padX - 1);
+                                int yj = Math.min(Math.max(y + j, 0), padY - 1);
+                                int zk = Math.min(Math.max(z + k, 0), padZ - 1);
+                                sum += padded[xi + padX * (yj + padY * zk)];
+                            }
+                        }
+                    }
+                    aux[x + padX * (y + padY * z)] = sum / 27.0;
+                }
+            }
+        }
+        double[] kernel = new double[side * side * side];
+        double kernelSum = 0.0;
+        for (int d = 1; d <= halfSimilarity; d++) {
+            for (int z = -d; z <= d; z++) {
+                for (int y = -d; y <= d; y++) {
+                    for (int x = -d; x <= d; x++) {
+                        kernel[halfSimilarity + x + side * (halfSimilarity + y + side * (halfSimilarity + z))] +=
+                                1.0 / ((2 * d + 1) * (2 * d + 1));
+                        kernelSum += 1.0 / ((2 * d + 1) * (2 * d + 1));
+                    }
+                }
+            }
+        }
+        double filterParameter = doRician ? (double) sigma * degree * sigma * degree : (double) sigma * sigma;
+        double[] result = new double[imageBuffer.length];
+        for (int z = 0; z < zDim; z++) {
+            for (int y = 0; y < yDim; y++) {
+                for (int x = 0; x < xDim; x++) {
+                    int center = x + halfSimilarity + padX * (y + halfSimilarity + padY * (z + halfSimilarity));
+                    double sweight = 0.0, average = 0.0, wmax = 0.0;
+                    for (int dz = -halfSearch; dz <= halfSearch; dz++) {
+                        for (int dy = -halfSearch; dy <= halfSearch; dy++) {
+                            for (int dx = -halfSearch; dx <= halfSearch; dx++) {
+                                if ((dx == 0 && dy == 0 && dz == 0) || x + dx < 0 || x + dx >= xDim || y + dy < 0
+                                        || y + dy >= yDim || z + dz < 0 || z + dz >= zDim) {
+                                    continue;
+                                }
+                                int neighbor = center + dx + padX * (dy + padY * dz);
+                                if (doRician && ((dz > 0 && dy < 0) || (dz < 0 && dy > 0)
+                                        || Math.abs(aux[center] - aux[neighbor]) > sigma)) {
+                                    continue;
+                                }
+                                double dsum = 0.0;
+                                for (int k = 0; k < side; k++) {
+                                    for (int j = 0; j < side; j++) {
+                                        for (int i = 0; i < side; i++) {
+                                            int offset = i - halfSimilarity
+                                                    + padX * (j - halfSimilarity + padY * (k - halfSimilarity));
+                                            double diff = padded[center + offset] - padded[neighbor + offset];
+                                            dsum += kernel[i + side * (j + side * k)] / kernelSum * diff * diff;
+                                        }
+                                    }
+                                }
+                                if (doRician) {
+                                    double w = 1.0 / (1.0 + (dsum / filterParameter) * (dsum / filterParameter));
+                                    sweight += w;
+                                    average += w * padded[neighbor] * padded[neighbor];
+                                } else {
+                                    double w = Math.exp(-dsum / filterParameter);
+                                    wmax = Math.max(wmax, w);
+                                    sweight += w;
+                                    average += w * padded[neighbor];
+                                }
+                            }
+                        }
+                    }
+                    double value = padded[center];
+                    if (doRician) {
+                        result[x + xDim * (y + yDim * z)] = Math.sqrt(Math.max(0, (average + 0.5 * value * value)
+                                / (sweight + 0.5) - 2.0 * sigma * sigma));
+                    } else {
+                        result[x + xDim * (y + yDim * z)] = (average + wmax * value) / (sweight + wmax);
+                    }
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Index of a coordinate reflected into [0, dim), the edge voxel repeated.
+     */
+    private static int mirror(int coordinate, int dim) {
+        return coordinate < 0 ? -1 - coordinate : (coordinate >= dim ? 2 * dim - 1 - coordinate : coordinate);
+    }
+
+    /**
+     * Both filters must match the direct search within the relative difference of 1.0E-6 documented by filter3D, for
+     * similarity windows of one and two cubes.
+     */
+    public void testMatchesDirectSearch() throws Exception {
+        for (int r = 0; r < 2; r++) {
+            for (int halfSimilarity = 1; halfSimilarity <= 2; halfSimilarity++) {
+                double[] expected = directSearch(r == 1, 2, halfSimilarity);
+                float[] result = filter(r == 1, true, 2 * halfSimilarity + 1);
+                for (int i = 0; i < result.length; i++) {
+                    Assert.assertEquals((r == 1 ? "Rician" : "Gaussian") + " voxel " + i, expected[i], result[i],
+                            1.0e-6 * Math.abs(expected[i]));
+                }
+            }
+        }
+    }
+
+    public void testConstantVolumeUnchanged() throws Exception {
+        java.util.Arrays.fill(imageBuffer, 250f);
+        srcImage.importData(0, imageBuffer, true);
+        float[] result = filter(false, true);
+        for (int i = 0; i < result.length; i++) {
+            Assert.assertEquals(250f, result[i], 1.0e-3f);
+        }
+    }
+}
@@ -0,0 +1,76 @@
+package gov.nih.mipav.model.algorithms.filters;
+
+/**
+ * Test cases for the parallel group processing and slice stacks of BM3D.java
+ */
+import gov.nih.mipav.model.structures.ModelImage;
+import gov.nih.mipav.model.structures.ModelStorageBase;
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+public class BM3DTest extends TestCase {
+    /**
+     * Dimensions of the test stack.
+     */
+    private static final int[] extents = new int[] {40, 36, 2};
+
+    private float[] imageBuffer;
+
+    protected void setUp() throws Exception {
+        imageBuffer = new float[extents[0] * extents[1] * extents[2]];
+        for (int i = 0; i < imageBuffer.length; i++) {
+            int x = i % extents[0];
+            int y = (i / extents[0]) % extents[1];
+            imageBuffer[i] = 100f + 60f * (((x / 8) + (y / 8)) % 2) + (float) ((i * 7919) % 61) - 30f;
+        }
+    }
+
+    /**
+     * Denoises the first slices of the test stack, returning the stage 1 and stage 2 results.
+     */
+    private double[][] denoise(int slices, boolean multiThreading) throws Exception {
+        int[] ext = slices == 1 ? new int[] {extents[0], extents[1]} : new int[] {extents[0], extents[1], slices};
+        int length = extents[0] * extents[1] * slices;
+        ModelImage srcImage = new ModelImage(ModelStorageBase.FLOAT, ext, "src");
+        float[] buffer = new float[length];
+        System.arraycopy(imageBuffer, imageBuffer.length - length, buffer, 0, length);
+        srcImage.importData(0, buffer, true);
+        ModelImage[] destImage = new ModelImage[] {new ModelImage(ModelStorageBase.DOUBLE, ext, "stage1"),
+                new ModelImage(ModelStorageBase.DOUBLE, ext, "stage2")};
+        BM3D bm3d = new BM3D(destImage, srcImage, false, 20.0, 16, 16, 3, false, "BIOR", 2.7, 16, 32, 3, true, "DCT");
+        bm3d.setMultiThreadingEnabled(multiThreading);
+        bm3d.setNumberOfThreads(3);
+        bm3d.run();
+        Assert.assertTrue(bm3d.isCompleted());
+
+        double[][] result = new double[2][length];
+        for (int i = 0; i < 2; i++) {
+            destImage[i].exportData(0, length, result[i]);
+            destImage[i].disposeLocal();
+        }
+        srcImage.disposeLocal();
+        return result;
+    }
+
+    public void testMultiThreadedMatchesSingleThreaded() throws Exception {
+        double[][] single = denoise(1, false);
+        double[][] multi = denoise(1, true);
+        for (int i = 0; i < 2; i++) {
+            for (int j = 0; j < single[i].length; j++) {
+                Assert.assertEquals(single[i][j], multi[i][j], 1.0e-9);
+            }
+        }
+    }
+
+    public void testStackDenoisedSliceBySlice() throws Exception {
+        double[][] stack = denoise(2, true);
+        double[][] slice = denoise(1, true);
+        int offset = extents[0] * extents[1];
+        for (int i = 0; i < 2; i++) {
+            for (int j = 0; j < offset; j++) {
+                Assert.assertEquals(slice[i][j], stack[i][offset + j], 0.0);
+                Assert.assertTrue(Math.abs(stack[i][j] - imageBuffer[j]) < 100.0);
+            }
+        }
+    }
+}
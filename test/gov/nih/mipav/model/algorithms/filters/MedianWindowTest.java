@@ -0,0 +1,176 @@
+package gov.nih.mipav.model.algorithms.filters;
+
+/**
+ * Compares the sliding window median of MedianWindow.java with the median of the sorted kernel pixels, as
+ * AlgorithmMedian.median computes it, for histogram and select windows and kernels with odd and even pixel counts.
+ */
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Random;
+
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+public class MedianWindowTest extends TestCase {
+    private static final int width = 23;
+    private static final int height = 9;
+    private static final int depth = 4;
+
+    private final Random random = new Random(17);
+
+    /**
+     * Builds a kernel of the given shape: 0 square, 1 cross, 2 X, 3 square without its center (an even pixel count),
+     * 4 random pixels with gaps in the rows.
+     */
+    private byte[] kernel(int shape, int kernelSize, boolean is2D) {
+        int halfK = kernelSize / 2;
+        int slices = is2D ? 1 : kernelSize;
+        byte[] kernel = new byte[kernelSize * kernelSize * slices];
+        for (int s = 0; s < slices; s++) {
+            for (int row = 0; row < kernelSize; row++) {
+                for (int col = 0; col < kernelSize; col++) {
+                    boolean center = (row == halfK) && (col == halfK) && (is2D || s == halfK);
+                    boolean in;
+                    switch (shape) {
+                        case 1:
+                            in = (row == halfK) || (col == halfK);
+                            break;
+                        case 2:
+                            in = (row == col) || (row == kernelSize - 1 - col);
+                            break;
+                        case 3:
+                            in = !center;
+                            break;
+                        case 4:
+                            in = center || random.nextInt(3) == 0;
+                            break;
+                        default:
+                            in = true;
+                    }
+                    kernel[col + kernelSize * (row + kernelSize * s)] = (byte) (in ? 1 : 0);
+                }
+            }
+        }
+        return kernel;
+    }
+
+    /**
+     * Filters a border buffer with MedianWindow and with sorted neighbor lists, and checks that the results have the
+     * same bits.
+     */
+    private void compare(float[] values, int kernelSize, boolean is2D, boolean histogram, BitSet mask, String name) {
+        int halfK = kernelSize / 2;
+        int bdrWidth = width + 2 * halfK;
+        int bdrHeight = height + 2 * halfK;
+        int bdrDepth = is2D ? depth : depth + 2 * halfK;
+        int sliceHalf = is2D ? 0 : halfK;
+        float[] src = new float[bdrWidth * bdrHeight * bdrDepth];
+        for (int i = 0; i < src.length; i++) {
+            src[i] = values[random.nextInt(values.length)];
+        }
+        int[] range = MedianWindow.histogramRange(src, 0, src.length);
+        Assert.assertEquals(name, histogram, range != null);
+
+        for (int shape = 0; shape <= 4; shape++) {
+            byte[] kernel = kernel(shape, kernelSize, is2D);
+            int kernelCenter = halfK + kernelSize * halfK + (is2D ? 0 : kernelSize * kernelSize * halfK);
+            MedianWindow window = new MedianWindow(kernel, kernelCenter, halfK, is2D, bdrWidth, bdrHeight, range);
+            float[] dest = new float[width * height * depth];
+            for (int z = 0; z < depth; z++) {
+                for (int y = 0; y < height; y++) {
+                    int srcIdx = halfK + bdrWidth * (y + halfK + bdrHeight * (z + sliceHalf));
+                    window.filterRow(src, srcIdx, dest, width * (y + height * z), width, mask);
+                }
+            }
+
+            for (int z = 0; z < depth; z++) {
+                for (int y = 0; y < height; y++) {
+                    for (int x = 0; x < width; x++) {
+                        int center = x + halfK + bdrWidth * (y + halfK + bdrHeight * (z + sliceHalf));
+                        int d = x + width * (y + height * z);
+                        float expected;
+                        if (mask != null && !mask.get(d)) {
+                            expected = src[center];
+                        } else {
+                            float[] list = new float[kernel.length];
+                            int n = 0;
+                            for (int s = -sliceHalf; s <= sliceHalf; s++) {
+                                for (int row = -halfK; row <= halfK; row++) {
+                                    for (int col = -halfK; col <= halfK; col++) {
+                                        if (kernel[kernelCenter + col + kernelSize * (row + kernelSize * s)] != 0) {
+                                            list[n++] = src[center + col + bdrWidth * (row + bdrHeight * s)];
+                                        }
+                                    }
+                                }
+                            }
+                            list = Arrays.copyOf(list, n);
+                            Arrays.sort(list);
+                            int last = n - 1;
+                            expected = (last % 2 == 0) ? list[last / 2] : (list[last / 2] + list[last / 2 + 1]) / 2;
+                        }
+                        Assert.assertEquals(name + " shape " + shape + " at " + x + ", " + y + ", " + z,
+                                Float.floatToIntBits(expected), Float.floatToIntBits(dest[d]));
+                    }
+                }
+            }
+        }
+    }
+
+    private float[] integers(int min, int max) {
+        float[] values = new float[257];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = min + random.nextInt(max - min + 1);
+        }
+        values[0] = min;
+        values[1] = max;
+        return values;
+    }
+
+    public void testIntegerValues() {
+        for (int kernelSize = 3; kernelSize <= 7; kernelSize += 2) {
+            for (int d = 0; d < 2; d++) {
+                boolean is2D = d == 0;
+                compare(integers(-128, 127), kernelSize, is2D, true, null, "byte " + kernelSize);
+                compare(integers(0, 65535), kernelSize, is2D, true, null, "unsigned short " + kernelSize);
+                compare(integers(-32768, 32767), kernelSize, is2D, true, null, "short " + kernelSize);
+
+                // too wide for the histogram
+                compare(integers(-100000, 100000), kernelSize, is2D, false, null, "int " + kernelSize);
+            }
+        }
+    }
+
+    public void testFloatValues() {
+        float[] values = new float[64];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = (float) (random.nextGaussian() * 100.0);
+        }
+        values[0] = 0.0f;
+        values[1] = -0.0f;
+        values[2] = 0.5f;
+        values[3] = -Float.MAX_VALUE;
+
+        // only a few values, so that the window often holds duplicates
+        float[] few = new float[] {1.5f, -2.25f, 0.0f, -0.0f, 7.0f};
+        for (int kernelSize = 3; kernelSize <= 7; kernelSize += 2) {
+            for (int d = 0; d < 2; d++) {
+                compare(values, kernelSize, d == 0, false, null, "float " + kernelSize);
+                compare(few, kernelSize, d == 0, false, null, "few floats " + kernelSize);
+            }
+        }
+
+        // integers with a negative zero must be selected, since the histogram cannot tell -0.0 from 0.0
+        compare(new float[] {-0.0f, 0.0f, 3.0f, -4.0f}, 3, true, false, null, "negative zero");
+    }
+
+    public void testMask() {
+        BitSet mask = new BitSet();
+        for (int i = 0; i < width * height * depth; i++) {
+            if (random.nextBoolean()) {
+                mask.set(i);
+            }
+        }
+        compare(integers(0, 255), 5, true, true, mask, "masked histogram");
+        compare(integers(0, 1000000), 5, false, false, mask, "masked select");
+    }
+}
@@ -0,0 +1,113 @@
+package gov.nih.mipav.model.algorithms.filters;
+
+/**
+ * Test cases for MixedRadixFFT.java, which are checked against a direct evaluation of the discrete fourier transform.
+ */
+import java.util.Random;
+
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+public class MixedRadixFFTTest extends TestCase {
+    /**
+     * Lengths covering each radix, products of them, and prime factors done by Bluestein's algorithm.
+     */
+    private static final int[] lengths = new int[] {1, 2, 3, 4, 5, 6, 7, 8, 12, 15, 16, 30, 49, 60, 64, 97, 120, 210,
+            254, 257, 360, 513, 1000, 1024};
+
+    private final Random random = new Random(17);
+
+    /**
+     * Evaluates the discrete fourier transform directly.
+     */
+    private static double[][] dft(double[] re, double[] im, int sign) {
+        int n = re.length;
+        double[][] result = new double[2][n];
+        for (int k = 0; k < n; k++) {
+            for (int j = 0; j < n; j++) {
+                double angle = sign * 2.0 * Math.PI * (((long) j * k) % n) / n;
+                double c = Math.cos(angle);
+                double s = Math.sin(angle);
+                result[0][k] += (re[j] * c) - (im[j] * s);
+                result[1][k] += (re[j] * s) + (im[j] * c);
+            }
+        }
+        return result;
+    }
+
+    private double[] randomLine(int n) {
+        double[] line = new double[n];
+        for (int i = 0; i < n; i++) {
+            line[i] = random.nextDouble() - 0.5;
+        }
+        return line;
+    }
+
+    public void testComplexTransform() {
+        for (int n : lengths) {
+            for (int sign = -1; sign <= 1; sign += 2) {
+                double[] re = randomLine(n);
+                double[] im = randomLine(n);
+                double[][] expected = dft(re, im, sign);
+                MixedRadixFFT.getInstance(n).transform(re, im, sign);
+                for (int k = 0; k < n; k++) {
+                    Assert.assertEquals("n = " + n, expected[0][k], re[k], 1e-9 * n);
+                    Assert.assertEquals("n = " + n, expected[1][k], im[k], 1e-9 * n);
+                }
+            }
+        }
+    }
+
+    public void testStridedFloatRoundTrip() {
+        for (int n : lengths) {
+            int stride = 3;
+            float[] re = new float[n * stride + 1];
+            float[] im = new float[n * stride + 1];
+            for (int i = 0; i < re.length; i++) {
+                re[i] = (float) random.nextGaussian();
+                im[i] = (float) random.nextGaussian();
+            }
+            float[] re0 = re.clone();
+            float[] im0 = im.clone();
+            MixedRadixFFT plan = MixedRadixFFT.getInstance(n);
+            plan.transform(re, im, 1, stride, -1);
+            plan.transform(re, im, 1, stride, 1);
+            for (int i = 0; i < re.length; i++) {
+                if ((i % stride) == 1) {
+                    Assert.assertEquals(re0[i], re[i] / n, 1e-4);
+                    Assert.assertEquals(im0[i], im[i] / n, 1e-4);
+                } else {
+                    Assert.assertEquals(re0[i], re[i], 0f);
+                    Assert.assertEquals(im0[i], im[i], 0f);
+                }
+            }
+        }
+    }
+
+    public void testRealTransform() {
+        for (int n : lengths) {
+            for (int sign = -1; sign <= 1; sign += 2) {
+                double[] re = randomLine(n);
+                double[] im = new double[n];
+                double[][] expected = dft(re, im, sign);
+                for (int i = 0; i < n; i++) {
+                    im[i] = 99;
+                }
+                MixedRadixFFT.getInstance(n).realTransform(re, im, 0, 1, sign);
+                for (int k = 0; k < n; k++) {
+                    Assert.assertEquals("n = " + n, expected[0][k], re[k], 1e-9 * n);
+                    Assert.assertEquals("n = " + n, expected[1][k], im[k], 1e-9 * n);
+                }
+            }
+        }
+    }
+
+    public void testNextFastLength() {
+        Assert.assertEquals(1, MixedRadixFFT.nextFastLength(1));
+        Assert.assertEquals(2, MixedRadixFFT.nextFastLength(2));
+        Assert.assertEquals(540, MixedRadixFFT.nextFastLength(513));
+        Assert.assertEquals(300, MixedRadixFFT.nextFastLength(300));
+        Assert.assertEquals(1024, MixedRadixFFT.nextFastLength(1024));
+        Assert.assertEquals(12, MixedRadixFFT.nextFastLength(11));
+    }
+}
@@ -0,0 +1,164 @@
+package gov.nih.mipav.model.algorithms.registration;
+
+
+import gov.nih.mipav.model.algorithms.AlgorithmCostFunctions;
+import gov.nih.mipav.model.algorithms.AlgorithmTransform;
+import gov.nih.mipav.model.structures.ModelImage;
+import gov.nih.mipav.model.structures.ModelStorageBase;
+import gov.nih.mipav.model.structures.TransMatrix;
+
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+
+/**
+ * Registers a synthetic pair with and without multithreading and with and without a shared reference pyramid, and
+ * checks that every run finds the same transformation. The candidates measured in parallel and the reference levels
+ * kept by the pyramid must not change the result.
+ */
+public class AlgorithmRegOAR3DPyramidTest extends TestCase {
+
+    /** Width, height and depth of the images. */
+    private static final int SIZE = 32;
+
+    /** The reference image. */
+    private ModelImage refImage;
+
+    /** The input image, the reference shifted and stretched. */
+    private ModelImage matchImage;
+
+    /**
+     * Builds a pair of smooth, asymmetric blobs, the second shifted from the first.
+     *
+     * @throws Exception if the images cannot be filled
+     */
+    protected void setUp() throws Exception {
+        refImage = createBlobs("reference", 0, 0, 0);
+        matchImage = createBlobs("input", 2.5, -1.5, 1);
+    }
+
+    /**
+     * Releases the images.
+     */
+    protected void tearDown() {
+        refImage.disposeLocal();
+        matchImage.disposeLocal();
+    }
+
+    /**
+     * Registers the pair single threaded and multithreaded, without a pyramid, with a new pyramid and again with the
+     * pyramid the previous run filled, and checks that all the transformations are identical.
+     */
+    public void testIdenticalTransforms() {
+        final TransMatrix expected = register(false, null);
+        final AlgorithmRegOAR3D.ReferencePyramid pyramid = new AlgorithmRegOAR3D.ReferencePyramid();
+
+        try {
+            assertSameTransform("multithreaded", expected, register(true, null));
+            assertSameTransform("new pyramid", expected, register(false, pyramid));
+            assertSameTransform("filled pyramid, multithreaded", expected, register(true, pyramid));
+            assertSameTransform("filled pyramid", expected, register(false, pyramid));
+        } finally {
+            pyramid.disposeLocal();
+        }
+    }
+
+    /**
+     * Registers the input image to the reference image with normalized mutual information.
+     *
+     * @param multiThread whether the candidates are measured in parallel; the optimizers run on the thread pool either
+     *            way, so that only the measuring of the candidates changes
+     * @param pyramid the shared reference pyramid, or null
+     *
+     * @return the transformation found
+     */
+    private TransMatrix register(final boolean multiThread, final AlgorithmRegOAR3D.ReferencePyramid pyramid) {
+        final AlgorithmRegOAR3D reg = new AlgorithmRegOAR3D(refImage, matchImage,
+                AlgorithmCostFunctions.NORMALIZED_MUTUAL_INFORMATION, 6, AlgorithmTransform.TRILINEAR, -10, 10, 10, 5,
+                -10, 10, 10, 5, -10, 10, 10, 5, true, true, true, false, 2, 3);
+
+        reg.setMultiThreadingEnabled(multiThread);
+        reg.setNumberOfThreads(multiThread ? 4 : 1);
+        reg.setReferencePyramid(pyramid);
+        reg.run();
+
+        Assert.assertTrue("The registration did not complete", reg.isCompleted());
+
+        final TransMatrix transform = reg.getTransform();
+
+        reg.disposeLocal();
+
+        return transform;
+    }
+
+    /**
+     * Checks that two transformations are identical.
+     *
+     * @param run description of the run checked
+     * @param expected transformation of the single threaded run without a pyramid
+     * @param actual transformation of the run checked
+     */
+    private static void assertSameTransform(final String run, final TransMatrix expected, final TransMatrix actual) {
+
+        for (int row = 0; row < 4; row++) {
+
+            for (int col = 0; col < 4; col++) {
+                Assert.assertEquals(run + " [" + row + "][" + col + "]", expected.get(row, col), actual.get(row, col),
+                        0);
+            }
+        }
+    }
+
+    /**
+     * Creates an image of two overlapping Gaussian blobs of different sizes.
+     *
+     * @param name name of the image
+     * @param dx shift along x
+     * @param dy shift along y
+     * @param dz shift along z
+     *
+     * @return the image
+     *
+     * @throws Exception if the image cannot be filled
+     */
+    private static ModelImage createBlobs(final String name, final double dx, final double dy, final double dz)
+            throws Exception {
+        final ModelImage image = new ModelImage(ModelStorageBase.FLOAT, new int[] {SIZE, SIZE, SIZE}, name);
+        final float[] values = new float[SIZE * SIZE * SIZE];
+
+        for (int z = 0; z < SIZE; z++) {
+
+            for (int y = 0; y < SIZE; y++) {
+
+                for (int x = 0; x < SIZE; x++) {
+                    values[ (z * SIZE * SIZE) + (y * SIZE) + x] = (float) ( (100 * blob(x - dx, y - dy, z - dz, 14,
+                            15, 16, 6)) + (60 * blob(x - dx, y - dy, z - dz, 20, 11, 18, 3)));
+                }
+            }
+        }
+
+        image.importData(0, values, true);
+
+        return image;
+    }
+
+    /**
+     * Returns a Gaussian blob.
+     *
+     * @param x position along x
+     * @param y position along y
+     * @param z position along z
+     * @param cx center along x
+     * @param cy center along y
+     * @param cz center along z
+     * @param sigma width of the blob
+     *
+     * @return value of the blob at the position
+     */
+    private static double blob(final double x, final double y, final double z, final double cx, final double cy,
+            final double cz, final double sigma) {
+        final double r2 = ( (x - cx) * (x - cx)) + ( (y - cy) * (y - cy)) + ( (z - cz) * (z - cz));
+
+        return Math.exp( -r2 / (2 * sigma * sigma));
+    }
+}
@@ -0,0 +1,161 @@
+package gov.nih.mipav.model.dicomcomm;
+
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.Arrays;
+import java.util.Random;
+
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+
+/**
+ * Test of the P-DATA-TF framing. Data sets the size of a 512x512 16 bit image and of a 4k mammogram are read from a
+ * file the way DICOM_PDUService sends an image, framed into P-DATA-TF PDUs and reassembled again, without a socket.
+ * The test checks that the reassembled data set is the one sent, also when the pooled buffers are reused.
+ */
+public class DICOM_PDataTFTest extends TestCase {
+
+    /** Maximum PDU length used for the test, a common value of DICOM applications. */
+    private static final int MAX_PDU_LENGTH = 16384;
+
+    /** Number of times each data set is framed, so that pooled buffers are reused. */
+    private static final int REPETITIONS = 3;
+
+    /**
+     * Frames and reassembles a 512x512 16 bit image.
+     *
+     * @throws Exception if the framing fails
+     */
+    public void testImage512() throws Exception {
+        frame("512x512x2", 512 * 512 * 2);
+    }
+
+    /**
+     * Frames and reassembles a 4k mammogram.
+     *
+     * @throws Exception if the framing fails
+     */
+    public void testMammogram4k() throws Exception {
+        frame("4096x3328x2", 4096 * 3328 * 2);
+    }
+
+    /**
+     * Frames and reassembles a data set repeatedly.
+     *
+     * @param name name of the data set size
+     * @param size number of bytes of the data set
+     *
+     * @throws Exception if the framing fails
+     */
+    private static void frame(final String name, final int size) throws Exception {
+        final byte[] dataSet = new byte[size];
+
+        new Random(size).nextBytes(dataSet);
+
+        final File file = File.createTempFile("mipavPDataTF", ".raw");
+
+        file.deleteOnExit();
+
+        final FileOutputStream out = new FileOutputStream(file);
+
+        out.write(dataSet);
+        out.close();
+
+        final byte[] received = new byte[size];
+
+        for (int n = 0; n < DICOM_PDataTFTest.REPETITIONS; n++) {
+            final LoopbackPDU sender = new LoopbackPDU(null, size + (size / 100) + 1024);
+            final DICOM_FileIO ioBuffer = new DICOM_FileIO();
+
+            Assert.assertTrue(ioBuffer.openForRead(file.getPath()));
+
+            // as readDICOMDataObjectFromFile and DICOM_PDUService.write do
+            while (ioBuffer.getIncomingSize() < size) {
+                ioBuffer.readFill(32768);
+            }
+
+            ioBuffer.close();
+            sender.pDataTF.setOutgoingBlockSize(DICOM_PDataTFTest.MAX_PDU_LENGTH);
+            sender.pDataTF.getVRLinkedBuffer().outgoingBuffers = ioBuffer.incomingBuffers;
+            sender.pDataTF.getVRLinkedBuffer().outBuffersLength = ioBuffer.inBuffersLength;
+
+            sender.pDataTF.write(sender, (byte) 1, (byte) 0);
+
+            final LoopbackPDU receiver = new LoopbackPDU(sender.sent.toByteArray(), 0);
+
+            do {
+                receiver.peekFirstByte();
+                receiver.pDataTF.read(receiver);
+            } while ( !receiver.pDataTF.isReadComplete());
+
+            Assert.assertEquals(name, size, receiver.pDataTF.getVRLinkedBuffer().getIncomingSize());
+            receiver.pDataTF.getVRLinkedBuffer().read(received, size);
+
+            Assert.assertTrue(name + " changed by the framing", Arrays.equals(dataSet, received));
+        }
+    }
+
+    /**
+     * PDU service that sends into memory and reads from memory instead of a socket.
+     */
+    private static class LoopbackPDU extends DICOM_PDUService {
+
+        /** Bytes to read. */
+        private final byte[] incoming;
+
+        /** Position of the next byte to read. */
+        private int position = 0;
+
+        /** Bytes sent. */
+        final ByteArrayOutputStream sent;
+
+        /**
+         * Creates the service.
+         *
+         * @param incoming bytes to read, or null
+         * @param capacity expected number of bytes sent
+         */
+        LoopbackPDU(final byte[] incoming, final int capacity) {
+            this.incoming = incoming;
+            sent = new ByteArrayOutputStream(capacity);
+        }
+
+        /**
+         * Reads like a socket, returning at most what is asked for.
+         *
+         * @param data buffer to read into
+         * @param count number of bytes wanted
+         *
+         * @return number of bytes read
+         *
+         * @throws DICOM_Exception at the end of the bytes
+         */
+        public int readBinary(final byte[] data, final int count) throws DICOM_Exception {
+
+            if (position >= incoming.length) {
+                throw new DICOM_Exception("end of data");
+            }
+
+            final int actual = Math.min(count, incoming.length - position);
+
+            System.arraycopy(incoming, position, data, 0, actual);
+            position += actual;
+
+            return actual;
+        }
+
+        /**
+         * Keeps the bytes sent.
+         *
+         * @param data buffer of the bytes
+         * @param offset offset of the first byte
+         * @param count number of bytes
+         */
+        public void sendBinary(final byte[] data, final int offset, final int count) {
+            sent.write(data, offset, count);
+        }
+    }
+}
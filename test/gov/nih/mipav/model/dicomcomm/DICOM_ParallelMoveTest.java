@@ -0,0 +1,329 @@
+package gov.nih.mipav.model.dicomcomm;
+
+
+import gov.nih.mipav.view.Preferences;
+
+import java.io.File;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.BitSet;
+import java.util.Hashtable;
+import java.util.Vector;
+
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+
+/**
+ * Loopback test of DICOM_ParallelMove against a stand-in query/retrieve server. The server answers the series level
+ * C-MOVE requests without storing any image, so the test checks the association handling of the retrieve: the
+ * negotiation of the asynchronous operations window, the pipelining of requests and the matching of the responses to
+ * them. A storage destination and a server entry are added to the preferences for the time of the test. The message
+ * IDs taken by associations running at once must never repeat.
+ */
+public class DICOM_ParallelMoveTest extends TestCase {
+
+    /** AE title of the stand-in server, also used as the move destination. */
+    private static final String AE_TITLE = "MIPAVMOVETEST";
+
+    /** Number of outstanding operations the stand-in server accepts. */
+    private static final int SERVER_WINDOW = 2;
+
+    /** Listening socket of the stand-in server. */
+    private ServerSocket serverSocket;
+
+    /** Key of the storage destination added for the test. */
+    private String storageKey;
+
+    /** Key of the server entry added for the test. */
+    private String serverKey;
+
+    /** Series level C-MOVE requests received by the stand-in server, in order. */
+    private final Vector<String> requested = new Vector<String>();
+
+    /** Number of requests the stand-in server waits for before answering, or 0 to answer every request at once. */
+    private volatile int expected = 0;
+
+    /** Set when the stand-in server read a full window of requests before answering them. */
+    private volatile boolean pipelined = false;
+
+    /** First error of the stand-in server. */
+    private volatile Throwable serverError;
+
+    /**
+     * Adds the preference entries and starts the stand-in server.
+     *
+     * @throws Exception if no port is free
+     */
+    protected void setUp() throws Exception {
+        serverSocket = new ServerSocket(0);
+
+        final int port = serverSocket.getLocalPort();
+        final String storageDir = new File(System.getProperty("java.io.tmpdir"), "mipavDicomMoveTest").getPath();
+
+        storageKey = DICOM_ParallelMoveTest.freeKey("Storage");
+        serverKey = DICOM_ParallelMoveTest.freeKey("Server");
+        Preferences.setProperty(storageKey, AE_TITLE + ";" + AE_TITLE + ";" + storageDir + ";" + port + ";DEFAULT");
+        Preferences.setProperty(serverKey, AE_TITLE + ";" + AE_TITLE + ";127.0.0.1;" + port);
+
+        final Thread acceptor = new Thread("DICOM move test server") {
+            public void run() {
+
+                while ( !serverSocket.isClosed()) {
+
+                    try {
+                        final Socket socket = serverSocket.accept();
+
+                        new Thread("DICOM move test association") {
+                            public void run() {
+                                serve(socket);
+                            }
+                        }.start();
+                    } catch (final Exception e) {
+                        return;
+                    }
+                }
+            }
+        };
+
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    /**
+     * Stops the stand-in server and removes the preference entries.
+     *
+     * @throws Exception if the socket cannot be closed
+     */
+    protected void tearDown() throws Exception {
+        serverSocket.close();
+        Preferences.removeProperty(storageKey);
+        Preferences.removeProperty(serverKey);
+        Preferences.save();
+    }
+
+    /**
+     * Moves the series of a study over one association, where the requests have to be pipelined to be answered.
+     */
+    public void testPipelinedRequests() {
+        final String[] series = DICOM_ParallelMoveTest.seriesUIDs(5);
+
+        expected = series.length;
+
+        final Hashtable<String, Integer> statuses = move(series, 1);
+
+        Assert.assertTrue("requests were not pipelined", pipelined);
+        assertAllMoved(series, statuses);
+    }
+
+    /**
+     * Moves the series of a study over several associations.
+     */
+    public void testParallelAssociations() {
+        final String[] series = DICOM_ParallelMoveTest.seriesUIDs(9);
+        final Hashtable<String, Integer> statuses = move(series, 3);
+
+        assertAllMoved(series, statuses);
+    }
+
+    /**
+     * Takes message IDs from several threads at once and checks that they are odd and never repeat.
+     *
+     * @throws InterruptedException if the test is interrupted
+     */
+    public void testUniqueMessageIDs() throws InterruptedException {
+        final Thread[] threads = new Thread[8];
+        final int[][] taken = new int[threads.length][500000];
+        final BitSet ids = new BitSet();
+
+        for (int t = 0; t < threads.length; t++) {
+            final int[] ours = taken[t];
+
+            threads[t] = new Thread() {
+                public void run() {
+
+                    for (int i = 0; i < ours.length; i++) {
+                        ours[i] = ( (i & 1) == 0) ? DICOM_Util.getUniqueOddID() : DICOM_Util.getUniqueID();
+                    }
+                }
+            };
+            threads[t].start();
+        }
+
+        for (final Thread thread : threads) {
+            thread.join();
+        }
+
+        for (final int[] ours : taken) {
+
+            for (int i = 0; i < ours.length; i++) {
+                Assert.assertFalse("ID " + ours[i] + " was taken twice", ids.get(ours[i]));
+                ids.set(ours[i]);
+                Assert.assertTrue("ID " + ours[i] + " is not odd", ( (i & 1) != 0) || ( (ours[i] & 1) == 1));
+            }
+        }
+    }
+
+    /**
+     * Checks that every series was requested once and moved.
+     *
+     * @param series the series of the study
+     * @param statuses the final status of every series
+     */
+    private void assertAllMoved(final String[] series, final Hashtable<String, Integer> statuses) {
+
+        if (serverError != null) {
+            throw new AssertionError(serverError);
+        }
+
+        Assert.assertEquals(series.length, requested.size());
+        Assert.assertEquals(series.length, statuses.size());
+
+        for (final String uid : series) {
+            Assert.assertTrue(uid + " not requested", requested.contains(uid));
+            Assert.assertEquals(uid, Integer.valueOf(DICOM_Constants.STATUS_MOVE_SUCCESS), statuses.get(uid));
+        }
+    }
+
+    /**
+     * Runs a retrieve.
+     *
+     * @param series the series to move
+     * @param associations number of associations
+     *
+     * @return the final status of every series
+     */
+    private Hashtable<String, Integer> move(final String[] series, final int associations) {
+        final Hashtable<String, Integer> statuses = new Hashtable<String, Integer>();
+        final byte[] localAppTitle = new byte[16];
+
+        DICOM_Util.fillByteArray(localAppTitle, ' ');
+        System.arraycopy(AE_TITLE.getBytes(), 0, localAppTitle, 0, AE_TITLE.length());
+
+        final DICOM_ParallelMove move = new DICOM_ParallelMove(AE_TITLE, localAppTitle, "PATIENT", "1.2.3.4", series,
+                associations, new DICOM_ParallelMove.ProgressListener() {
+                    public void seriesFinished(final String seriesUID, final int status) {
+                        Assert.assertNull(seriesUID + " finished twice", statuses.put(seriesUID, Integer
+                                .valueOf(status)));
+                    }
+
+                    public void seriesProgress(final String seriesUID, final int completed, final int remaining,
+                            final int failed, final int warning) {}
+
+                    public void seriesRequested(final String seriesUID, final int msgID) {}
+                });
+
+        final Thread thread = new Thread(move);
+
+        // a retrieve that does not pipeline its requests never gets them answered
+        thread.setDaemon(true);
+        thread.start();
+
+        try {
+            thread.join(60000);
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        Assert.assertFalse("retrieve did not end", thread.isAlive());
+        Assert.assertEquals(0, move.getFailedSeries());
+
+        return statuses;
+    }
+
+    /**
+     * Serves an association of the stand-in server. When a number of requests is expected, they are collected until
+     * the window is full or the last one has arrived, and answered in reverse order so the responses do not arrive in
+     * the order of the requests; a client that does not pipeline its requests waits for them forever. Every request gets a
+     * pending response and then a success response.
+     *
+     * @param socket the accepted socket
+     */
+    private void serve(final Socket socket) {
+        final DICOM_PDUService pdu = new DICOM_PDUService();
+        final DICOM_CResponse response = new DICOM_CResponse(DICOM_Constants.COMMAND_CMoveRSP);
+        final Vector<DICOM_Object> outstanding = new Vector<DICOM_Object>();
+
+        pdu.addAbstractSyntax(DICOM_Constants.UID_PatientRootRetrieve);
+        pdu.setAsyncOperationsWindow(SERVER_WINDOW);
+
+        try {
+            pdu.handleConnectionFromServer(socket);
+
+            while (true) {
+                final DICOM_Object dco = new DICOM_Object();
+
+                if ( !pdu.readInObject(dco)) {
+                    break;
+                }
+
+                final DICOM_Object ddo = new DICOM_Object();
+
+                pdu.readInObject(ddo);
+                requested.add(ddo.getStr(DICOM_RTC.DD_SeriesInstanceUID).trim());
+                outstanding.add(dco);
+
+                if ( (expected > 0) && (outstanding.size() < SERVER_WINDOW) && (requested.size() < expected)) {
+                    continue;
+                }
+
+                if (outstanding.size() == SERVER_WINDOW) {
+                    pipelined = true;
+                }
+
+                for (int i = outstanding.size() - 1; i >= 0; i--) {
+                    response.write(pdu, outstanding.get(i).copy(), DICOM_Constants.UID_PatientRootRetrieve,
+                            DICOM_Constants.STATUS_MOVE_PENDING, null, null, 1, 0, 0, 0);
+                }
+
+                for (int i = outstanding.size() - 1; i >= 0; i--) {
+                    response.write(pdu, outstanding.get(i), DICOM_Constants.UID_PatientRootRetrieve,
+                            DICOM_Constants.STATUS_MOVE_SUCCESS, null, null, 0, 1, 0, 0);
+                }
+
+                outstanding.clear();
+            }
+        } catch (final Throwable error) {
+
+            if (serverError == null) {
+                serverError = error;
+            }
+        } finally {
+            pdu.close();
+        }
+    }
+
+    /**
+     * Finds the first numbered preference key of a stem that is not used.
+     *
+     * @param stem the stem, such as Server
+     *
+     * @return the key
+     */
+    private static String freeKey(final String stem) {
+        int i = 1;
+
+        while (Preferences.getProperty(stem + i) != null) {
+            i++;
+        }
+
+        return stem + i;
+    }
+
+    /**
+     * Makes up the series instance UIDs of a study.
+     *
+     * @param count number of series
+     *
+     * @return the UIDs
+     */
+    private static String[] seriesUIDs(final int count) {
+        final String[] uids = new String[count];
+
+        for (int i = 0; i < count; i++) {
+            uids[i] = "1.2.3.4." + (i + 1);
+        }
+
+        return uids;
+    }
+}
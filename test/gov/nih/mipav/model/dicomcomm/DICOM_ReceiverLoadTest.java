@@ -0,0 +1,435 @@
+package gov.nih.mipav.model.dicomcomm;
+
+
+import gov.nih.mipav.model.file.FileDicom;
+import gov.nih.mipav.model.file.FileInfoDicom;
+
+import gov.nih.mipav.view.Preferences;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.util.Properties;
+
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+
+/**
+ * Loopback load test of DICOM_Receiver. Several storage clients send small secondary capture images over their own
+ * associations at once, and the test checks that every image is stored by the receiver.
+ *
+ * <p>
+ * The images are written by the test in implicit little endian, the only transfer syntax the receiver accepts, each
+ * with its own instance number and UID so that none of the stored files overwrite another. A storage destination and
+ * a server entry for the receiver are added to the preferences for the time of the test. Meanwhile the preferences
+ * are saved under the temporary directory, with the sent and received files, and afterwards the preferences held
+ * before the test are restored, so the user's preference file is never written.
+ * </p>
+ */
+public class DICOM_ReceiverLoadTest extends TestCase {
+
+    /** AE title of the receiver under test. */
+    private static final String AE_TITLE = "MIPAVLOADTEST";
+
+    /** Number of simultaneous associations. */
+    private static final int ASSOCIATIONS = 4;
+
+    /** Number of images sent on each association. */
+    private static final int IMAGES = 8;
+
+    /** Rows and columns of the images sent. */
+    private static final int SIZE = 32;
+
+    /** Secondary capture image storage, the SOP class of the images sent. */
+    private static final String SOP_CLASS = "1.2.840.10008.5.1.4.1.1.7";
+
+    /** Root of the study, series and instance UIDs of the images sent. */
+    private static final String UID_ROOT = "1.2.826.0.1.3680043.2.1125.99";
+
+    /** Directory of the images sent. */
+    private File sendDir;
+
+    /** Key of the storage destination added for the test. */
+    private String storageKey;
+
+    /** Key of the server entry added for the test. */
+    private String serverKey;
+
+    /** Directory the receiver stores into. */
+    private File storageDir;
+
+    /** The receiver under test. */
+    private DICOM_Receiver receiver;
+
+    /** Directory the preferences are saved to during the test. */
+    private File preferencesDir;
+
+    /** Directory the preferences were saved to before the test. */
+    private String savedPreferencesDir;
+
+    /** The preferences held before the test. */
+    private Properties savedPreferences;
+
+    /**
+     * Redirects the preferences to the temporary directory, adds the storage destination and server entry of the
+     * receiver and starts it.
+     *
+     * @throws Exception if no free port is found
+     */
+    protected void setUp() throws Exception {
+        final ServerSocket probe = new ServerSocket(0);
+        final int port = probe.getLocalPort();
+
+        probe.close();
+
+        storageDir = new File(System.getProperty("java.io.tmpdir"), "mipavDicomLoadTest");
+        sendDir = new File(System.getProperty("java.io.tmpdir"), "mipavDicomLoadTestSend");
+        DICOM_ReceiverLoadTest.delete(storageDir);
+        DICOM_ReceiverLoadTest.delete(sendDir);
+        sendDir.mkdirs();
+        storageKey = DICOM_ReceiverLoadTest.freeKey("Storage");
+        serverKey = DICOM_ReceiverLoadTest.freeKey("Server");
+        savedPreferences = (Properties) Preferences.getMipavProps().clone();
+        savedPreferencesDir = Preferences.getPreferencesDir();
+        preferencesDir = new File(System.getProperty("java.io.tmpdir"), "mipavDicomLoadTestPreferences");
+        Preferences.setPreferencesFileDirectory(preferencesDir.getPath());
+
+        final String storage = AE_TITLE + ";" + AE_TITLE + ";" + storageDir.getPath() + ";" + port + ";DEFAULT";
+
+        Preferences.setProperty(storageKey, storage);
+        Preferences.setProperty(serverKey, AE_TITLE + ";" + AE_TITLE + ";127.0.0.1;" + port);
+        receiver = new DICOM_Receiver(storage);
+    }
+
+    /**
+     * Stops the receiver and restores the preferences held before the test and their directory.
+     */
+    protected void tearDown() {
+
+        if (receiver != null) {
+            receiver.setStop();
+        }
+
+        if (savedPreferences != null) {
+            Preferences.getMipavProps().clear();
+            Preferences.getMipavProps().putAll(savedPreferences);
+            Preferences.setPreferencesFileDirectory(savedPreferencesDir);
+        }
+
+        DICOM_ReceiverLoadTest.delete(preferencesDir);
+        DICOM_ReceiverLoadTest.delete(storageDir);
+        DICOM_ReceiverLoadTest.delete(sendDir);
+    }
+
+    /**
+     * Sends the images over simultaneous associations and checks that the receiver stored each of them.
+     *
+     * @throws Exception if the test cannot run
+     */
+    public void testConcurrentStores() throws Exception {
+        // the receiver only accepts implicit little endian
+        final String transferSyntax = DICOM_Constants.UID_TransferLITTLEENDIAN;
+        final String abstractSyntax = DICOM_ReceiverLoadTest.pad(SOP_CLASS);
+        final Throwable[] errors = new Throwable[ASSOCIATIONS];
+        final Thread[] clients = new Thread[ASSOCIATIONS];
+
+        for (int i = 0; i < ASSOCIATIONS; i++) {
+            final int index = i;
+
+            clients[i] = new Thread("DICOM load test client " + i) {
+                public void run() {
+                    final DICOM_PDUService pdu = new DICOM_PDUService();
+
+                    try {
+                        pdu.connectClientToServer(AE_TITLE, false, transferSyntax, abstractSyntax);
+
+                        final DICOM_StdStorage storage = new DICOM_StdStorage();
+
+                        for (int n = 0; n < IMAGES; n++) {
+                            final int number = (index * IMAGES) + n + 1;
+                            final File file = new File(sendDir, "i_" + number + ".dcm");
+
+                            DICOM_ReceiverLoadTest.writeImage(file, number);
+
+                            final DICOM_Object ddo = pdu.readDICOMDataObjectFromFile(file.getPath());
+
+                            storage.write(pdu, ddo, transferSyntax, abstractSyntax, UID_ROOT + ".3." + number);
+                        }
+
+                        pdu.close();
+                    } catch (final Throwable error) {
+                        errors[index] = error;
+                    }
+                }
+            };
+        }
+
+        for (final Thread client : clients) {
+            client.start();
+        }
+
+        for (final Thread client : clients) {
+            client.join();
+        }
+
+        for (final Throwable error : errors) {
+
+            if (error != null) {
+                throw new AssertionError(error);
+            }
+        }
+
+        // the receiver stores by patient, study and series, and names the files by instance number
+        final File seriesDir = new File(storageDir, "LOAD_TEST" + File.separator + "st_" + UID_ROOT + ".1"
+                + File.separator + "ser_1");
+        final long deadline = System.currentTimeMillis() + 30000;
+
+        // the last files of an association are written after its images are acknowledged
+        while ( (DICOM_ReceiverLoadTest.countStored(seriesDir) < (ASSOCIATIONS * IMAGES))
+                && (System.currentTimeMillis() < deadline)) {
+            Thread.sleep(50);
+        }
+
+        Assert.assertEquals("Images stored", ASSOCIATIONS * IMAGES, DICOM_ReceiverLoadTest.countStored(seriesDir));
+
+        for (int number = 1; number <= (ASSOCIATIONS * IMAGES); number++) {
+            final String name = "i_" + ( (number < 10) ? "000" : "00") + number + ".dcm";
+            final File stored = new File(seriesDir, name);
+            final FileDicom fileDicom = new FileDicom(stored.getName(), seriesDir.getPath() + File.separator);
+
+            Assert.assertTrue("Unable to read " + name, fileDicom.readHeader(true));
+
+            final FileInfoDicom fileInfo = (FileInfoDicom) fileDicom.getFileInfo();
+            final String instanceUID = DICOM_Util.trimIgnorableChar(((String) fileInfo.getTagTable().getValue(
+                    "0008,0018")).trim());
+
+            Assert.assertEquals("Instance UID of " + name, UID_ROOT + ".3." + number, instanceUID);
+            Assert.assertEquals("Rows of " + name, SIZE, fileInfo.getExtents()[1]);
+            fileDicom.close();
+        }
+    }
+
+    /**
+     * Counts the files of a directory that are written completely, that is as long as a stored image.
+     *
+     * @param dir the directory
+     *
+     * @return the number of complete files
+     */
+    private static int countStored(final File dir) {
+        final File[] files = dir.listFiles();
+        int count = 0;
+
+        if (files != null) {
+
+            for (final File file : files) {
+
+                if (file.length() >= ( (SIZE * SIZE * 2) + 132)) {
+                    count++;
+                }
+            }
+        }
+
+        return count;
+    }
+
+    /**
+     * Writes a DICOM part 10 secondary capture image of SIZE by SIZE 16 bit pixels. The meta information is in
+     * explicit little endian and the data set in implicit little endian.
+     *
+     * @param file the file to write
+     * @param number the instance number, which also ends the instance UID and fills the pixels
+     *
+     * @throws IOException if the file cannot be written
+     */
+    private static void writeImage(final File file, final int number) throws IOException {
+        final String instanceUID = UID_ROOT + ".3." + number;
+        final ByteArrayOutputStream meta = new ByteArrayOutputStream();
+
+        DICOM_ReceiverLoadTest.explicitTag(meta, 0x0001, "OB", new byte[] {0, 1});
+        DICOM_ReceiverLoadTest.explicitTag(meta, 0x0002, "UI", DICOM_ReceiverLoadTest.value(SOP_CLASS, '\0'));
+        DICOM_ReceiverLoadTest.explicitTag(meta, 0x0003, "UI", DICOM_ReceiverLoadTest.value(instanceUID, '\0'));
+        DICOM_ReceiverLoadTest.explicitTag(meta, 0x0010, "UI", DICOM_ReceiverLoadTest.value(
+                DICOM_Constants.UID_TransferLITTLEENDIAN.trim(), '\0'));
+
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        out.write(new byte[128]);
+        out.write(new byte[] {'D', 'I', 'C', 'M'});
+        DICOM_ReceiverLoadTest.explicitTag(out, 0x0000, "UL", DICOM_ReceiverLoadTest.int32(meta.size()));
+        meta.writeTo(out);
+
+        DICOM_ReceiverLoadTest.implicitTag(out, 0x0008, 0x0016, DICOM_ReceiverLoadTest.value(SOP_CLASS, '\0'));
+        DICOM_ReceiverLoadTest.implicitTag(out, 0x0008, 0x0018, DICOM_ReceiverLoadTest.value(instanceUID, '\0'));
+        DICOM_ReceiverLoadTest.implicitTag(out, 0x0008, 0x0060, DICOM_ReceiverLoadTest.value("OT", ' '));
+        DICOM_ReceiverLoadTest.implicitTag(out, 0x0010, 0x0010, DICOM_ReceiverLoadTest.value("LOAD^TEST", ' '));
+        DICOM_ReceiverLoadTest.implicitTag(out, 0x0010, 0x0020, DICOM_ReceiverLoadTest.value("LOADTEST", ' '));
+        DICOM_ReceiverLoadTest.implicitTag(out, 0x0020, 0x000D, DICOM_ReceiverLoadTest.value(UID_ROOT + ".1",
+                '\0'));
+        DICOM_ReceiverLoadTest.implicitTag(out, 0x0020, 0x000E, DICOM_ReceiverLoadTest.value(UID_ROOT + ".2",
+                '\0'));
+        DICOM_ReceiverLoadTest.implicitTag(out, 0x0020, 0x0011, DICOM_ReceiverLoadTest.value("1", ' '));
+        DICOM_ReceiverLoadTest.implicitTag(out, 0x0020, 0x0013, DICOM_ReceiverLoadTest.value(String
+                .valueOf(number), ' '));
+        DICOM_ReceiverLoadTest.implicitTag(out, 0x0028, 0x0002, DICOM_ReceiverLoadTest.int16(1));
+        DICOM_ReceiverLoadTest.implicitTag(out, 0x0028, 0x0004, DICOM_ReceiverLoadTest.value("MONOCHROME2", ' '));
+        DICOM_ReceiverLoadTest.implicitTag(out, 0x0028, 0x0010, DICOM_ReceiverLoadTest.int16(SIZE));
+        DICOM_ReceiverLoadTest.implicitTag(out, 0x0028, 0x0011, DICOM_ReceiverLoadTest.int16(SIZE));
+        DICOM_ReceiverLoadTest.implicitTag(out, 0x0028, 0x0100, DICOM_ReceiverLoadTest.int16(16));
+        DICOM_ReceiverLoadTest.implicitTag(out, 0x0028, 0x0101, DICOM_ReceiverLoadTest.int16(16));
+        DICOM_ReceiverLoadTest.implicitTag(out, 0x0028, 0x0102, DICOM_ReceiverLoadTest.int16(15));
+        DICOM_ReceiverLoadTest.implicitTag(out, 0x0028, 0x0103, DICOM_ReceiverLoadTest.int16(0));
+
+        final byte[] pixels = new byte[SIZE * SIZE * 2];
+
+        for (int i = 0; i < (SIZE * SIZE); i++) {
+            pixels[2 * i] = (byte) (i + number);
+            pixels[ (2 * i) + 1] = (byte) number;
+        }
+
+        DICOM_ReceiverLoadTest.implicitTag(out, 0x7FE0, 0x0010, pixels);
+
+        final FileOutputStream stream = new FileOutputStream(file);
+
+        try {
+            out.writeTo(stream);
+        } finally {
+            stream.close();
+        }
+    }
+
+    /**
+     * Writes a group 2 element in explicit VR little endian.
+     *
+     * @param out the stream to write to
+     * @param element the element number
+     * @param vr the value representation
+     * @param value the value, of even length
+     *
+     * @throws IOException if the stream cannot be written
+     */
+    private static void explicitTag(final ByteArrayOutputStream out, final int element, final String vr,
+            final byte[] value) throws IOException {
+        out.write(DICOM_ReceiverLoadTest.int16(0x0002));
+        out.write(DICOM_ReceiverLoadTest.int16(element));
+        out.write(vr.getBytes("US-ASCII"));
+
+        if (vr.equals("OB")) {
+            out.write(DICOM_ReceiverLoadTest.int16(0));
+            out.write(DICOM_ReceiverLoadTest.int32(value.length));
+        } else {
+            out.write(DICOM_ReceiverLoadTest.int16(value.length));
+        }
+
+        out.write(value);
+    }
+
+    /**
+     * Writes an element in implicit VR little endian.
+     *
+     * @param out the stream to write to
+     * @param group the group number
+     * @param element the element number
+     * @param value the value, of even length
+     *
+     * @throws IOException if the stream cannot be written
+     */
+    private static void implicitTag(final ByteArrayOutputStream out, final int group, final int element,
+            final byte[] value) throws IOException {
+        out.write(DICOM_ReceiverLoadTest.int16(group));
+        out.write(DICOM_ReceiverLoadTest.int16(element));
+        out.write(DICOM_ReceiverLoadTest.int32(value.length));
+        out.write(value);
+    }
+
+    /**
+     * Converts a string value to bytes, padded to an even length.
+     *
+     * @param text the value
+     * @param padding the padding character, a null for UIDs and a space for text
+     *
+     * @return the bytes of the value
+     */
+    private static byte[] value(final String text, final char padding) {
+        final String padded = ( (text.length() % 2) == 1) ? (text + padding) : text;
+        final byte[] bytes = new byte[padded.length()];
+
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = (byte) padded.charAt(i);
+        }
+
+        return bytes;
+    }
+
+    /**
+     * Converts a value to two little endian bytes.
+     *
+     * @param value the value
+     *
+     * @return the bytes
+     */
+    private static byte[] int16(final int value) {
+        return new byte[] {(byte) value, (byte) (value >>> 8)};
+    }
+
+    /**
+     * Converts a value to four little endian bytes.
+     *
+     * @param value the value
+     *
+     * @return the bytes
+     */
+    private static byte[] int32(final int value) {
+        return new byte[] {(byte) value, (byte) (value >>> 8), (byte) (value >>> 16), (byte) (value >>> 24)};
+    }
+
+    /**
+     * Deletes a directory and everything below it.
+     *
+     * @param dir the directory
+     */
+    private static void delete(final File dir) {
+        final File[] files = dir.listFiles();
+
+        if (files != null) {
+
+            for (final File file : files) {
+                DICOM_ReceiverLoadTest.delete(file);
+            }
+        }
+
+        dir.delete();
+    }
+
+    /**
+     * Pads a UID to an even length with a null, as it is sent over the network. The receiver matches the syntaxes of
+     * an association in this form, like the UIDs of DICOM_Constants.
+     *
+     * @param uid the UID
+     *
+     * @return the padded UID
+     */
+    private static String pad(final String uid) {
+        return ( (uid.length() % 2) == 1) ? (uid + '\0') : uid;
+    }
+
+    /**
+     * Finds the first numbered preference key of a stem that is not used.
+     *
+     * @param stem the stem, such as Server
+     *
+     * @return the key
+     */
+    private static String freeKey(final String stem) {
+        int i = 1;
+
+        while (Preferences.getProperty(stem + i) != null) {
+            i++;
+        }
+
+        return stem + i;
+    }
+}
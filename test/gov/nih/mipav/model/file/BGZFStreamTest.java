@@ -0,0 +1,393 @@
+package gov.nih.mipav.model.file;
+
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.ZipException;
+
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+
+/**
+ * Round trip tests of BGZFOutputStream and BGZFInputStream. Data of sizes around the member size is written and read
+ * back, the members and the end of file member written are checked, and concatenated BGZF files, members with a file
+ * name and comment, plain gzip files and corrupt members are read.
+ */
+public class BGZFStreamTest extends TestCase {
+
+    /** The end of file member of the BGZF format. */
+    private static final byte[] EOF_BLOCK = {
+        0x1f, (byte) 0x8b, 8, 4, 0, 0, 0, 0, 0, (byte) 0xff, 6, 0, 'B', 'C', 2, 0, 0x1b, 0, 3, 0, 0, 0, 0, 0, 0, 0, 0, 0
+    };
+
+    /**
+     * Writes and reads back data that ends before, at and after member boundaries, and more members than are read
+     * ahead.
+     *
+     * @throws IOException if the data cannot be written or read
+     */
+    public void testBlockBoundaries() throws IOException {
+        final int block = BGZFOutputStream.BLOCK_DATA_SIZE;
+        final int[] sizes = {0, 1, block - 1, block, block + 1, (3 * block) + 7, 200 * block};
+
+        for (final int size : sizes) {
+            final byte[] data = data(size);
+            final byte[] file = compress(data, 1 + (size % 5000));
+
+            // one member per BLOCK_DATA_SIZE bytes, the last one partly filled, then the end of file member
+            final int[] memberSizes = members(file);
+
+            Assert.assertEquals("members of " + size, ( (size + block) - 1) / block, memberSizes.length - 1);
+
+            for (int i = 0; i < (memberSizes.length - 1); i++) {
+                Assert.assertEquals("member " + i + " of " + size, Math.min(block, size - (i * block)),
+                        memberSizes[i]);
+            }
+
+            Assert.assertEquals(0, memberSizes[memberSizes.length - 1]);
+            Assert.assertTrue("data of " + size, Arrays.equals(data, read(new BGZFInputStream(
+                    new ByteArrayInputStream(file)), 1 + (size % 3001))));
+
+            // the result is an ordinary multi-member gzip file
+            Assert.assertTrue("gzip data of " + size, Arrays.equals(data, read(new GZIPInputStream(
+                    new ByteArrayInputStream(file)), 4096)));
+        }
+    }
+
+    /**
+     * Reads data one byte at a time, across member boundaries, up to the end of the file.
+     *
+     * @throws IOException if the data cannot be written or read
+     */
+    public void testSingleBytes() throws IOException {
+        final byte[] data = data( (2 * BGZFOutputStream.BLOCK_DATA_SIZE) + 100);
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final BGZFOutputStream out = new BGZFOutputStream(bytes);
+
+        for (final byte b : data) {
+            out.write(b);
+        }
+
+        out.close();
+
+        final BGZFInputStream in = new BGZFInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+
+        for (int i = 0; i < data.length; i++) {
+            Assert.assertEquals("byte " + i, data[i] & 0xff, in.read());
+        }
+
+        Assert.assertEquals( -1, in.read());
+        Assert.assertEquals( -1, in.read(new byte[10], 0, 10));
+        in.close();
+    }
+
+    /**
+     * Checks the end of file member: it ends every file, an empty file is only that member, and reading it gives no
+     * data.
+     *
+     * @throws IOException if the data cannot be written or read
+     */
+    public void testEndOfFileBlock() throws IOException {
+        final byte[] empty = compress(new byte[0], 1);
+
+        Assert.assertTrue(Arrays.equals(EOF_BLOCK, empty));
+        Assert.assertEquals( -1, new BGZFInputStream(new ByteArrayInputStream(empty)).read());
+
+        final byte[] file = compress(data(70000), 1000);
+
+        Assert.assertTrue(Arrays.equals(EOF_BLOCK, Arrays.copyOfRange(file, file.length - EOF_BLOCK.length,
+                file.length)));
+
+        // finish() writes the end of file member once, close() does not add another
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final BGZFOutputStream out = new BGZFOutputStream(bytes);
+
+        out.write(data(10));
+        out.finish();
+        out.close();
+        Assert.assertEquals(2, members(bytes.toByteArray()).length);
+
+        try {
+            out.write(1);
+            Assert.fail("write after finish");
+        } catch (final IOException e) {
+            // expected
+        }
+    }
+
+    /**
+     * Reads concatenated BGZF files, with an end of file member between them, and members with optional header
+     * fields.
+     *
+     * @throws IOException if the data cannot be written or read
+     */
+    public void testMultiMember() throws IOException {
+        final byte[] first = data(100000);
+        final byte[] second = data(12345);
+        final byte[] third = data(300);
+        final ByteArrayOutputStream file = new ByteArrayOutputStream();
+
+        file.write(compress(first, 777));
+        file.write(compress(second, 10000));
+        file.write(member(third, "name.nii", "comment"));
+        file.write(EOF_BLOCK);
+
+        final ByteArrayOutputStream expected = new ByteArrayOutputStream();
+
+        expected.write(first);
+        expected.write(second);
+        expected.write(third);
+        Assert.assertTrue(Arrays.equals(expected.toByteArray(), read(new BGZFInputStream(new ByteArrayInputStream(
+                file.toByteArray())), 5000)));
+        Assert.assertTrue(Arrays.equals(expected.toByteArray(), read(new GZIPInputStream(new ByteArrayInputStream(
+                file.toByteArray())), 5000)));
+    }
+
+    /**
+     * Checks which files are recognized as BGZF, and that a plain gzip file is refused by the BGZF stream.
+     *
+     * @throws IOException if the files cannot be written
+     */
+    public void testIsBGZF() throws IOException {
+        final File bgzf = File.createTempFile("mipavBGZF", ".gz");
+        final File gzip = File.createTempFile("mipavGzip", ".gz");
+
+        bgzf.deleteOnExit();
+        gzip.deleteOnExit();
+
+        FileOutputStream out = new FileOutputStream(bgzf);
+
+        out.write(compress(data(1000), 100));
+        out.close();
+
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final GZIPOutputStream gzipOut = new GZIPOutputStream(bytes);
+
+        gzipOut.write(data(1000));
+        gzipOut.close();
+        out = new FileOutputStream(gzip);
+        out.write(bytes.toByteArray());
+        out.close();
+
+        Assert.assertTrue(BGZFInputStream.isBGZF(bgzf));
+        Assert.assertFalse(BGZFInputStream.isBGZF(gzip));
+
+        try {
+            read(new BGZFInputStream(new ByteArrayInputStream(bytes.toByteArray())), 100);
+            Assert.fail("plain gzip read as BGZF");
+        } catch (final IOException e) {
+            // expected
+        }
+    }
+
+    /**
+     * Checks that a member whose data does not match its crc, and a truncated file, are reported.
+     *
+     * @throws IOException if the data cannot be written
+     */
+    public void testCorruptMember() throws IOException {
+        final byte[] file = compress(data(3 * BGZFOutputStream.BLOCK_DATA_SIZE), 1000);
+        final int[] sizes = blockSizes(file);
+        final int crcOffset = sizes[0] + sizes[1] - 8;
+
+        file[crcOffset] ^= 1;
+
+        try {
+            read(new BGZFInputStream(new ByteArrayInputStream(file)), 1000);
+            Assert.fail("crc mismatch not detected");
+        } catch (final ZipException e) {
+            // expected
+        }
+
+        file[crcOffset] ^= 1;
+
+        try {
+            read(new BGZFInputStream(new ByteArrayInputStream(Arrays.copyOf(file, sizes[0] + 100))), 1000);
+            Assert.fail("truncated member not detected");
+        } catch (final IOException e) {
+            // expected
+        }
+    }
+
+    /**
+     * Makes up data that compresses but not too well.
+     *
+     * @param size number of bytes
+     *
+     * @return the data
+     */
+    private static byte[] data(final int size) {
+        final byte[] data = new byte[size];
+        final Random random = new Random(size);
+
+        for (int i = 0; i < size; i++) {
+            data[i] = (byte) ( (i % 251) + random.nextInt(4));
+        }
+
+        return data;
+    }
+
+    /**
+     * Writes data through a BGZFOutputStream.
+     *
+     * @param data the data
+     * @param chunk number of bytes passed to each write
+     *
+     * @return the BGZF file
+     *
+     * @throws IOException if the data cannot be written
+     */
+    private static byte[] compress(final byte[] data, final int chunk) throws IOException {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final BGZFOutputStream out = new BGZFOutputStream(bytes);
+
+        for (int off = 0; off < data.length; off += chunk) {
+            out.write(data, off, Math.min(chunk, data.length - off));
+        }
+
+        out.close();
+
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Reads a stream to its end.
+     *
+     * @param in the stream, which is closed
+     * @param chunk largest number of bytes asked for by each read
+     *
+     * @return the data read
+     *
+     * @throws IOException if the stream cannot be read
+     */
+    private static byte[] read(final InputStream in, final int chunk) throws IOException {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final byte[] buffer = new byte[chunk];
+        int n;
+
+        try {
+
+            while ( (n = in.read(buffer, 0, chunk)) >= 0) {
+                bytes.write(buffer, 0, n);
+            }
+        } finally {
+            in.close();
+        }
+
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Returns the sizes of the members of a BGZF file, from their BC extra fields.
+     *
+     * @param file the file
+     *
+     * @return the size of each member, header and trailer included
+     */
+    private static int[] blockSizes(final byte[] file) {
+        int[] sizes = new int[0];
+
+        for (int off = 0; off < file.length;) {
+            Assert.assertEquals(0x1f, file[off] & 0xff);
+            Assert.assertEquals(0x8b, file[off + 1] & 0xff);
+            Assert.assertEquals('B', file[off + 12]);
+            Assert.assertEquals('C', file[off + 13]);
+
+            final int size = getShort(file, off + 16) + 1;
+
+            sizes = Arrays.copyOf(sizes, sizes.length + 1);
+            sizes[sizes.length - 1] = size;
+            off += size;
+            Assert.assertTrue(off <= file.length);
+        }
+
+        return sizes;
+    }
+
+    /**
+     * Returns the data sizes of the members of a BGZF file, from their trailers.
+     *
+     * @param file the file
+     *
+     * @return the number of data bytes in each member
+     */
+    private static int[] members(final byte[] file) {
+        final int[] sizes = blockSizes(file);
+        final int[] dataSizes = new int[sizes.length];
+        int off = 0;
+
+        for (int i = 0; i < sizes.length; i++) {
+            off += sizes[i];
+            dataSizes[i] = getShort(file, off - 4) | (getShort(file, off - 2) << 16);
+        }
+
+        return dataSizes;
+    }
+
+    /**
+     * Builds a BGZF member by hand, with a file name and comment in its header.
+     *
+     * @param data the data of the member
+     * @param name file name of the header
+     * @param comment comment of the header
+     *
+     * @return the member
+     */
+    private static byte[] member(final byte[] data, final String name, final String comment) {
+        final Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+        final byte[] deflated = new byte[data.length + 100];
+
+        deflater.setInput(data);
+        deflater.finish();
+
+        final int length = deflater.deflate(deflated);
+
+        deflater.end();
+
+        final ByteArrayOutputStream member = new ByteArrayOutputStream();
+        final int size = 18 + name.length() + 1 + comment.length() + 1 + length + 8;
+
+        member.write(new byte[] {0x1f, (byte) 0x8b, 8, 4 | 8 | 16, 0, 0, 0, 0, 0, (byte) 0xff, 6, 0, 'B', 'C', 2, 0,
+                (byte) (size - 1), (byte) ( (size - 1) >> 8)}, 0, 18);
+        member.write(name.getBytes(), 0, name.length());
+        member.write(0);
+        member.write(comment.getBytes(), 0, comment.length());
+        member.write(0);
+        member.write(deflated, 0, length);
+
+        final CRC32 crc = new CRC32();
+
+        crc.update(data);
+
+        final int value = (int) crc.getValue();
+
+        member.write(new byte[] {(byte) value, (byte) (value >> 8), (byte) (value >> 16), (byte) (value >> 24),
+                (byte) data.length, (byte) (data.length >> 8), (byte) (data.length >> 16),
+                (byte) (data.length >> 24)}, 0, 8);
+
+        return member.toByteArray();
+    }
+
+    /**
+     * Reads a little endian unsigned short.
+     *
+     * @param b the bytes
+     * @param off offset of the first byte
+     *
+     * @return the value
+     */
+    private static int getShort(final byte[] b, final int off) {
+        return (b[off] & 0xff) | ( (b[off + 1] & 0xff) << 8);
+    }
+}
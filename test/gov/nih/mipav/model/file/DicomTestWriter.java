@@ -0,0 +1,211 @@
+package gov.nih.mipav.model.file;
+
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+
+/**
+ * Writes the slices of a small DICOM series for the tests of the DICOM readers. Each slice is a part 10 secondary
+ * capture image of SIZE by SIZE 16 bit pixels, whose meta information is in explicit little endian and whose data set
+ * is in implicit little endian. The slices share their study and series and differ in their instance number, image
+ * position and pixels.
+ */
+class DicomTestWriter {
+
+    /** Rows and columns of the slices. */
+    static final int SIZE = 16;
+
+    /** Secondary capture image storage. */
+    private static final String SOP_CLASS = "1.2.840.10008.5.1.4.1.1.7";
+
+    /** Implicit VR little endian. */
+    private static final String TRANSFER_SYNTAX = "1.2.840.10008.1.2";
+
+    /** Root of the study, series and instance UIDs. */
+    private static final String UID_ROOT = "1.2.826.0.1.3680043.2.1125.98";
+
+    /**
+     * Returns the value of a pixel of a slice.
+     *
+     * @param number the instance number of the slice
+     * @param i index of the pixel in the slice
+     *
+     * @return the pixel value
+     */
+    static int pixel(final int number, final int i) {
+        return (number * 1000) + i;
+    }
+
+    /**
+     * Writes a slice.
+     *
+     * @param file the file to write
+     * @param number the instance number, which also sets the position of the slice along z and its pixels
+     * @param description the series description, whose length changes the size of the file
+     *
+     * @throws IOException if the file cannot be written
+     */
+    static void write(final File file, final int number, final String description) throws IOException {
+        final String instanceUID = UID_ROOT + ".3." + number;
+        final ByteArrayOutputStream meta = new ByteArrayOutputStream();
+
+        DicomTestWriter.explicitTag(meta, 0x0001, "OB", new byte[] {0, 1});
+        DicomTestWriter.explicitTag(meta, 0x0002, "UI", DicomTestWriter.value(SOP_CLASS, '\0'));
+        DicomTestWriter.explicitTag(meta, 0x0003, "UI", DicomTestWriter.value(instanceUID, '\0'));
+        DicomTestWriter.explicitTag(meta, 0x0010, "UI", DicomTestWriter.value(TRANSFER_SYNTAX, '\0'));
+
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        out.write(new byte[128]);
+        out.write(new byte[] {'D', 'I', 'C', 'M'});
+        DicomTestWriter.explicitTag(out, 0x0000, "UL", DicomTestWriter.int32(meta.size()));
+        meta.writeTo(out);
+
+        DicomTestWriter.implicitTag(out, 0x0008, 0x0016, DicomTestWriter.value(SOP_CLASS, '\0'));
+        DicomTestWriter.implicitTag(out, 0x0008, 0x0018, DicomTestWriter.value(instanceUID, '\0'));
+        DicomTestWriter.implicitTag(out, 0x0008, 0x0060, DicomTestWriter.value("OT", ' '));
+        DicomTestWriter.implicitTag(out, 0x0008, 0x103E, DicomTestWriter.value(description, ' '));
+        DicomTestWriter.implicitTag(out, 0x0010, 0x0010, DicomTestWriter.value("SCAN^TEST", ' '));
+        DicomTestWriter.implicitTag(out, 0x0010, 0x0020, DicomTestWriter.value("SCANTEST", ' '));
+        DicomTestWriter.implicitTag(out, 0x0020, 0x000D, DicomTestWriter.value(UID_ROOT + ".1", '\0'));
+        DicomTestWriter.implicitTag(out, 0x0020, 0x000E, DicomTestWriter.value(UID_ROOT + ".2", '\0'));
+        DicomTestWriter.implicitTag(out, 0x0020, 0x0011, DicomTestWriter.value("1", ' '));
+        DicomTestWriter.implicitTag(out, 0x0020, 0x0013, DicomTestWriter.value(String.valueOf(number), ' '));
+        DicomTestWriter.implicitTag(out, 0x0020, 0x0032, DicomTestWriter.value("0\\0\\" + (2 * number), ' '));
+        DicomTestWriter.implicitTag(out, 0x0020, 0x0037, DicomTestWriter.value("1\\0\\0\\0\\1\\0", ' '));
+        DicomTestWriter.implicitTag(out, 0x0028, 0x0002, DicomTestWriter.int16(1));
+        DicomTestWriter.implicitTag(out, 0x0028, 0x0004, DicomTestWriter.value("MONOCHROME2", ' '));
+        DicomTestWriter.implicitTag(out, 0x0028, 0x0010, DicomTestWriter.int16(SIZE));
+        DicomTestWriter.implicitTag(out, 0x0028, 0x0011, DicomTestWriter.int16(SIZE));
+        DicomTestWriter.implicitTag(out, 0x0028, 0x0030, DicomTestWriter.value("1\\1", ' '));
+        DicomTestWriter.implicitTag(out, 0x0028, 0x0100, DicomTestWriter.int16(16));
+        DicomTestWriter.implicitTag(out, 0x0028, 0x0101, DicomTestWriter.int16(16));
+        DicomTestWriter.implicitTag(out, 0x0028, 0x0102, DicomTestWriter.int16(15));
+        DicomTestWriter.implicitTag(out, 0x0028, 0x0103, DicomTestWriter.int16(0));
+
+        final byte[] pixels = new byte[SIZE * SIZE * 2];
+
+        for (int i = 0; i < (SIZE * SIZE); i++) {
+            final int value = DicomTestWriter.pixel(number, i);
+
+            pixels[2 * i] = (byte) value;
+            pixels[ (2 * i) + 1] = (byte) (value >>> 8);
+        }
+
+        DicomTestWriter.implicitTag(out, 0x7FE0, 0x0010, pixels);
+
+        final FileOutputStream stream = new FileOutputStream(file);
+
+        try {
+            out.writeTo(stream);
+        } finally {
+            stream.close();
+        }
+    }
+
+    /**
+     * Deletes a directory and everything below it.
+     *
+     * @param dir the directory
+     */
+    static void delete(final File dir) {
+        final File[] files = dir.listFiles();
+
+        if (files != null) {
+
+            for (final File file : files) {
+                DicomTestWriter.delete(file);
+            }
+        }
+
+        dir.delete();
+    }
+
+    /**
+     * Writes a group 2 element in explicit VR little endian.
+     *
+     * @param out the stream to write to
+     * @param element the element number
+     * @param vr the value representation
+     * @param value the value, of even length
+     *
+     * @throws IOException if the stream cannot be written
+     */
+    private static void explicitTag(final ByteArrayOutputStream out, final int element, final String vr,
+            final byte[] value) throws IOException {
+        out.write(DicomTestWriter.int16(0x0002));
+        out.write(DicomTestWriter.int16(element));
+        out.write(vr.getBytes("US-ASCII"));
+
+        if (vr.equals("OB")) {
+            out.write(DicomTestWriter.int16(0));
+            out.write(DicomTestWriter.int32(value.length));
+        } else {
+            out.write(DicomTestWriter.int16(value.length));
+        }
+
+        out.write(value);
+    }
+
+    /**
+     * Writes an element in implicit VR little endian.
+     *
+     * @param out the stream to write to
+     * @param group the group number
+     * @param element the element number
+     * @param value the value, of even length
+     *
+     * @throws IOException if the stream cannot be written
+     */
+    private static void implicitTag(final ByteArrayOutputStream out, final int group, final int element,
+            final byte[] value) throws IOException {
+        out.write(DicomTestWriter.int16(group));
+        out.write(DicomTestWriter.int16(element));
+        out.write(DicomTestWriter.int32(value.length));
+        out.write(value);
+    }
+
+    /**
+     * Converts a string value to bytes, padded to an even length.
+     *
+     * @param text the value
+     * @param padding the padding character, a null for UIDs and a space for text
+     *
+     * @return the bytes of the value
+     */
+    private static byte[] value(final String text, final char padding) {
+        final String padded = ( (text.length() % 2) == 1) ? (text + padding) : text;
+        final byte[] bytes = new byte[padded.length()];
+
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = (byte) padded.charAt(i);
+        }
+
+        return bytes;
+    }
+
+    /**
+     * Converts a value to two little endian bytes.
+     *
+     * @param value the value
+     *
+     * @return the bytes
+     */
+    private static byte[] int16(final int value) {
+        return new byte[] {(byte) value, (byte) (value >>> 8)};
+    }
+
+    /**
+     * Converts a value to four little endian bytes.
+     *
+     * @param value the value
+     *
+     * @return the bytes
+     */
+    private static byte[] int32(final int value) {
+        return new byte[] {(byte) value, (byte) (value >>> 8), (byte) (value >>> 16), (byte) (value >>> 24)};
+    }
+}
@@ -0,0 +1,315 @@
+package gov.nih.mipav.model.file;
+
+
+import gov.nih.mipav.view.Preferences;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Properties;
+
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+
+/**
+ * Tests of the DICOM header index. Headers put in the index must be given back when the series is opened again with
+ * the same reference slice, and only for files whose size and modification time are unchanged. An index written for
+ * another reference slice, or a damaged index file, must be ignored and written again.
+ *
+ * <p>
+ * The index files are kept under the preferences directory, so the preferences are redirected to the temporary
+ * directory for the time of the test and the preferences held before the test are restored afterwards.
+ * </p>
+ */
+public class FileDicomHeaderIndexTest extends TestCase {
+
+    /** Number of slices in the series. */
+    private static final int SLICES = 6;
+
+    /** Directory of the series. */
+    private File dir;
+
+    /** Directory of the series, ending with a separator as FileIO passes it. */
+    private String dirName;
+
+    /** File names of the series. */
+    private String[] fileList;
+
+    /** Directory the preferences are saved to during the test. */
+    private File preferencesDir;
+
+    /** Directory the preferences were saved to before the test. */
+    private String savedPreferencesDir;
+
+    /** The preferences held before the test. */
+    private Properties savedPreferences;
+
+    /**
+     * Writes the series, redirects the preferences to the temporary directory and turns the index on.
+     *
+     * @throws IOException if the series cannot be written
+     */
+    protected void setUp() throws IOException {
+        dir = new File(System.getProperty("java.io.tmpdir"), "mipavDicomIndexTest");
+        DicomTestWriter.delete(dir);
+        dir.mkdirs();
+        dirName = dir.getPath() + File.separator;
+        fileList = new String[SLICES];
+
+        for (int i = 0; i < SLICES; i++) {
+            fileList[i] = "slice" + i + ".dcm";
+            DicomTestWriter.write(new File(dir, fileList[i]), i + 1, "index test");
+        }
+
+        // the preferences are loaded on first use
+        Preferences.getProperty(Preferences.PREF_DICOM_HEADER_INDEX);
+        savedPreferences = (Properties) Preferences.getMipavProps().clone();
+        savedPreferencesDir = Preferences.getPreferencesDir();
+        preferencesDir = new File(System.getProperty("java.io.tmpdir"), "mipavDicomIndexTestPreferences");
+        DicomTestWriter.delete(preferencesDir);
+        Preferences.setPreferencesFileDirectory(preferencesDir.getPath());
+        Preferences.setProperty(Preferences.PREF_DICOM_HEADER_INDEX, "true");
+    }
+
+    /**
+     * Restores the preferences held before the test and their directory, and deletes the series and the index.
+     */
+    protected void tearDown() {
+
+        if (savedPreferences != null) {
+            Preferences.getMipavProps().clear();
+            Preferences.getMipavProps().putAll(savedPreferences);
+            Preferences.setPreferencesFileDirectory(savedPreferencesDir);
+        }
+
+        DicomTestWriter.delete(preferencesDir);
+        DicomTestWriter.delete(dir);
+    }
+
+    /**
+     * Checks that no index is opened while the preference is off.
+     *
+     * @throws IOException if the reference slice cannot be read
+     */
+    public void testDisabled() throws IOException {
+        Preferences.setProperty(Preferences.PREF_DICOM_HEADER_INDEX, "false");
+        Assert.assertNull(FileDicomHeaderIndex.open(dirName, fileList[0], read(fileList[0], null)));
+    }
+
+    /**
+     * Indexes the series and checks that every header is given back, attached to the reference slice of the series
+     * opened again.
+     *
+     * @throws IOException if a header cannot be read
+     */
+    public void testReuse() throws IOException {
+        index();
+
+        final FileInfoDicom refFileInfo = read(fileList[0], null);
+        final FileDicomHeaderIndex index = FileDicomHeaderIndex.open(dirName, fileList[0], refFileInfo);
+
+        for (int i = 1; i < SLICES; i++) {
+            final FileInfoDicom info = index.get(fileList[i]);
+
+            Assert.assertNotNull(fileList[i] + " was not indexed", info);
+            Assert.assertEquals(fileList[i], String.valueOf(i + 1), instance(info));
+            Assert.assertEquals(fileList[i], read(fileList[i], refFileInfo).getOffset(), info.getOffset());
+            Assert.assertSame(fileList[i], refFileInfo.getTagTable(), info.getTagTable().getReferenceTagTable());
+        }
+    }
+
+    /**
+     * Changes the size of one file and the modification time of another, removes a third, and checks that only their
+     * headers are dropped, and that the headers read again are given back once saved.
+     *
+     * @throws IOException if a file cannot be changed or a header cannot be read
+     */
+    public void testInvalidation() throws IOException {
+        index();
+
+        final File resized = new File(dir, fileList[2]);
+        final File touched = new File(dir, fileList[3]);
+
+        DicomTestWriter.write(resized, 3, "index test, written again");
+        Assert.assertTrue(touched.setLastModified(touched.lastModified() + 5000));
+        Assert.assertTrue(new File(dir, fileList[4]).delete());
+
+        FileInfoDicom refFileInfo = read(fileList[0], null);
+        FileDicomHeaderIndex index = FileDicomHeaderIndex.open(dirName, fileList[0], refFileInfo);
+
+        for (int i = 1; i < SLICES; i++) {
+            final boolean changed = (i == 2) || (i == 3) || (i == 4);
+
+            Assert.assertEquals(fileList[i], changed, index.get(fileList[i]) == null);
+
+            if ( (i != 4) && changed) {
+                index.put(fileList[i], read(fileList[i], refFileInfo));
+            }
+        }
+
+        index.save();
+        refFileInfo = read(fileList[0], null);
+        index = FileDicomHeaderIndex.open(dirName, fileList[0], refFileInfo);
+
+        for (int i = 1; i < SLICES; i++) {
+            final FileInfoDicom info = index.get(fileList[i]);
+
+            if (i == 4) {
+                Assert.assertNull("The removed file was indexed", info);
+            } else {
+                Assert.assertNotNull(fileList[i] + " was not indexed", info);
+                Assert.assertEquals(fileList[i], read(fileList[i], refFileInfo).getOffset(), info.getOffset());
+            }
+        }
+    }
+
+    /**
+     * Checks that the whole index is dropped when the reference slice changes, or when the series is opened with
+     * another reference slice.
+     *
+     * @throws IOException if a file cannot be changed or a header cannot be read
+     */
+    public void testReferenceChanged() throws IOException {
+        index();
+
+        FileDicomHeaderIndex index = FileDicomHeaderIndex.open(dirName, fileList[1], read(fileList[1], null));
+
+        for (int i = 2; i < SLICES; i++) {
+            Assert.assertNull(fileList[i] + " was given for another reference slice", index.get(fileList[i]));
+        }
+
+        index();
+        DicomTestWriter.write(new File(dir, fileList[0]), 1, "index test, reference written again");
+        index = FileDicomHeaderIndex.open(dirName, fileList[0], read(fileList[0], null));
+
+        for (int i = 1; i < SLICES; i++) {
+            Assert.assertNull(fileList[i] + " was given for a changed reference slice", index.get(fileList[i]));
+        }
+    }
+
+    /**
+     * Damages the index file, by overwriting it with other bytes and by truncating it, and checks that it is ignored
+     * and written again.
+     *
+     * @throws IOException if the index file cannot be damaged or a header cannot be read
+     */
+    public void testCorruptIndex() throws IOException {
+
+        for (int damage = 0; damage < 2; damage++) {
+            index();
+
+            final File indexFile = indexFile();
+
+            if (damage == 0) {
+                final FileOutputStream out = new FileOutputStream(indexFile);
+
+                try {
+                    out.write("not an index".getBytes("US-ASCII"));
+                } finally {
+                    out.close();
+                }
+            } else {
+                final RandomAccessFile raFile = new RandomAccessFile(indexFile, "rw");
+
+                try {
+                    raFile.setLength(raFile.length() / 2);
+                } finally {
+                    raFile.close();
+                }
+            }
+
+            final FileInfoDicom refFileInfo = read(fileList[0], null);
+            FileDicomHeaderIndex index = FileDicomHeaderIndex.open(dirName, fileList[0], refFileInfo);
+
+            for (int i = 1; i < SLICES; i++) {
+                Assert.assertNull("Damage " + damage + ", " + fileList[i], index.get(fileList[i]));
+                index.put(fileList[i], read(fileList[i], refFileInfo));
+            }
+
+            index.save();
+            index = FileDicomHeaderIndex.open(dirName, fileList[0], read(fileList[0], null));
+
+            for (int i = 1; i < SLICES; i++) {
+                Assert.assertNotNull("Damage " + damage + ", " + fileList[i] + " was not indexed again", index
+                        .get(fileList[i]));
+            }
+        }
+    }
+
+    /**
+     * Indexes the headers of the series, read against its first slice.
+     *
+     * @throws IOException if a header cannot be read
+     */
+    private void index() throws IOException {
+        final FileInfoDicom refFileInfo = read(fileList[0], null);
+        final FileDicomHeaderIndex index = FileDicomHeaderIndex.open(dirName, fileList[0], refFileInfo);
+
+        Assert.assertNotNull(index);
+
+        for (int i = 1; i < SLICES; i++) {
+
+            if (index.get(fileList[i]) == null) {
+                index.put(fileList[i], read(fileList[i], refFileInfo));
+            }
+        }
+
+        index.save();
+        Assert.assertTrue("No index was written", indexFile().isFile());
+    }
+
+    /**
+     * Returns the index file, the only file of the index directory under the preferences directory.
+     *
+     * @return the index file
+     */
+    private File indexFile() {
+        final File[] files = new File(preferencesDir, "dicomIndex").listFiles();
+
+        Assert.assertNotNull("No index directory", files);
+        Assert.assertEquals(1, files.length);
+
+        return files[0];
+    }
+
+    /**
+     * Reads the header of a file as FileIO.readDicom does.
+     *
+     * @param fileName the file
+     * @param reference file info of the reference slice, or null to read the reference slice itself
+     *
+     * @return the file info
+     *
+     * @throws IOException if the header cannot be read
+     */
+    private FileInfoDicom read(final String fileName, final FileInfoDicom reference) throws IOException {
+        final FileDicom reader = new FileDicom(fileName, dirName);
+
+        try {
+            reader.setQuiet(true);
+
+            if (reference != null) {
+                reader.setFileName(fileName, dirName, reference);
+            }
+
+            Assert.assertTrue(fileName, reader.readHeader(true));
+
+            return (FileInfoDicom) reader.getFileInfo();
+        } finally {
+            reader.finalize();
+        }
+    }
+
+    /**
+     * Returns the instance number of a slice.
+     *
+     * @param info file info of the slice
+     *
+     * @return the trimmed value of tag 0020,0013
+     */
+    private static String instance(final FileInfoDicom info) {
+        return ((String) info.getTagTable().getValue("0020,0013")).trim();
+    }
+}
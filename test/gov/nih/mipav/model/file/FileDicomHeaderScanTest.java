@@ -0,0 +1,178 @@
+package gov.nih.mipav.model.file;
+
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+
+/**
+ * Tests of the concurrent header scan of FileDicomHeaderScan. The file list is in a different order from the instance
+ * numbers of the slices, and the header scanned for each index of the list must be the header of that file, read as
+ * a serial read against the reference slice would read it, whichever worker read it and in whatever order the workers
+ * finished. A header that cannot be read must make the scan give up, so the caller reads the series serially.
+ */
+public class FileDicomHeaderScanTest extends TestCase {
+
+    /** Number of slices in the series. */
+    private static final int SLICES = 24;
+
+    /** Number of times the series is scanned, so that the workers finish in different orders. */
+    private static final int ROUNDS = 5;
+
+    /** Directory of the series, ending with a separator as FileIO passes it. */
+    private String dirName;
+
+    /** File names of the series, in list order. */
+    private String[] fileList;
+
+    /** Instance number of each file of the list. */
+    private int[] numbers;
+
+    /** File info of the reference slice, the first of the list. */
+    private FileInfoDicom refFileInfo;
+
+    /**
+     * Writes the series with the instance numbers shuffled against the list order, and reads the reference slice.
+     *
+     * @throws IOException if the series cannot be written or the reference slice cannot be read
+     */
+    protected void setUp() throws IOException {
+        final File dir = new File(System.getProperty("java.io.tmpdir"), "mipavDicomScanTest");
+
+        DicomTestWriter.delete(dir);
+        dir.mkdirs();
+        dirName = dir.getPath() + File.separator;
+        fileList = new String[SLICES];
+        numbers = new int[SLICES];
+
+        for (int i = 0; i < SLICES; i++) {
+            fileList[i] = "slice" + (char) ('a' + i) + ".dcm";
+            numbers[i] = ( (i * 7) % SLICES) + 1;
+            DicomTestWriter.write(new File(dir, fileList[i]), numbers[i], "scan test");
+        }
+
+        refFileInfo = readSerially(fileList[0], null);
+    }
+
+    /**
+     * Deletes the series.
+     */
+    protected void tearDown() {
+        DicomTestWriter.delete(new File(dirName));
+    }
+
+    /**
+     * Scans the series with some files skipped and checks that each header is stored at the index of its file, refers
+     * to the reference tag table and matches a serial read.
+     *
+     * @throws IOException if a header cannot be read serially
+     */
+    public void testOrder() throws IOException {
+        final FileInfoDicom[] serial = new FileInfoDicom[SLICES];
+
+        for (int i = 1; i < SLICES; i++) {
+            serial[i] = readSerially(fileList[i], refFileInfo);
+        }
+
+        for (int round = 0; round < ROUNDS; round++) {
+            final FileDicomHeaderScan scan = new FileDicomHeaderScan(dirName, fileList, refFileInfo, true);
+
+            scan.skip(0);
+            scan.skip(SLICES - 1);
+            scan.skip(9);
+
+            final FileInfoDicom[] infos = scan.scan();
+
+            Assert.assertNotNull("Round " + round + " failed", infos);
+            Assert.assertEquals(SLICES, infos.length);
+
+            for (int i = 0; i < SLICES; i++) {
+                final String name = "Round " + round + ", " + fileList[i];
+
+                if ( (i == 0) || (i == 9) || (i == (SLICES - 1))) {
+                    Assert.assertNull(name + " was not skipped", infos[i]);
+
+                    continue;
+                }
+
+                Assert.assertEquals(name, fileList[i], infos[i].getFileName());
+                Assert.assertEquals(name, String.valueOf(numbers[i]), instance(infos[i]));
+                Assert.assertSame(name, refFileInfo.getTagTable(), infos[i].getTagTable().getReferenceTagTable());
+                Assert.assertEquals(name, serial[i].getOffset(), infos[i].getOffset());
+                Assert.assertEquals(name, serial[i].getTagTable().getValue("0020,0032"), infos[i].getTagTable()
+                        .getValue("0020,0032"));
+            }
+
+            for (int i = 1; i < SLICES; i++) {
+
+                for (int j = 1; (infos[i] != null) && (j < i); j++) {
+                    Assert.assertTrue("Round " + round + ", " + fileList[i] + " and " + fileList[j]
+                            + " share a header", infos[i] != infos[j]);
+                }
+            }
+        }
+    }
+
+    /**
+     * Checks that the scan gives up when a header cannot be read.
+     *
+     * @throws IOException if the damaged file cannot be written
+     */
+    public void testUnreadableHeader() throws IOException {
+        final FileOutputStream out = new FileOutputStream(dirName + fileList[13]);
+
+        try {
+            out.write(new byte[] {1, 2, 3});
+        } finally {
+            out.close();
+        }
+
+        final FileDicomHeaderScan scan = new FileDicomHeaderScan(dirName, fileList, refFileInfo, true);
+
+        scan.skip(0);
+        Assert.assertNull("A series with an unreadable header was scanned", scan.scan());
+    }
+
+    /**
+     * Reads the header of a file as the serial loop of FileIO.readDicom does.
+     *
+     * @param fileName the file
+     * @param reference file info of the reference slice, or null to read the reference slice itself
+     *
+     * @return the file info
+     *
+     * @throws IOException if the header cannot be read
+     */
+    private FileInfoDicom readSerially(final String fileName, final FileInfoDicom reference) throws IOException {
+        final FileDicom reader = new FileDicom(fileName, dirName);
+
+        try {
+            reader.setQuiet(true);
+
+            if (reference != null) {
+                reader.setFileName(fileName, dirName, reference);
+            }
+
+            Assert.assertTrue(fileName, reader.readHeader(true));
+
+            return (FileInfoDicom) reader.getFileInfo();
+        } finally {
+            reader.finalize();
+        }
+    }
+
+    /**
+     * Returns the instance number of a slice.
+     *
+     * @param info file info of the slice
+     *
+     * @return the trimmed value of tag 0020,0013
+     */
+    private static String instance(final FileInfoDicom info) {
+        return ((String) info.getTagTable().getValue("0020,0013")).trim();
+    }
+}
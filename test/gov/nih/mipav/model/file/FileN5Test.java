@@ -0,0 +1,421 @@
+package gov.nih.mipav.model.file;
+
+
+import gov.nih.mipav.model.structures.ModelImage;
+import gov.nih.mipav.model.structures.ModelStorageBase;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+
+/**
+ * Writes images as N5 datasets and reads them back with FileN5. Regions are read with the blocks outside of them
+ * deleted, to check that only the blocks met are read, and written into a dataset, to check that the pixels of partly
+ * covered blocks around them are kept.
+ */
+public class FileN5Test extends TestCase {
+
+    /** Width of the images, not a multiple of the block size. */
+    private static final int WIDTH = 150;
+
+    /** Height of the images. */
+    private static final int HEIGHT = 70;
+
+    /** Number of slices of the images. */
+    private static final int SLICES = 21;
+
+    /** Block size of the datasets. */
+    private static final int[] BLOCK = {32, 16, 8, 1};
+
+    /**
+     * Writes and reads images of each data type, raw and gzip compressed.
+     *
+     * @throws IOException if a dataset cannot be written or read
+     */
+    public void testRoundTrip() throws IOException {
+        final int[] types = {ModelStorageBase.BOOLEAN, ModelStorageBase.BYTE, ModelStorageBase.UBYTE,
+                ModelStorageBase.SHORT, ModelStorageBase.USHORT, ModelStorageBase.INTEGER, ModelStorageBase.UINTEGER,
+                ModelStorageBase.LONG, ModelStorageBase.FLOAT, ModelStorageBase.DOUBLE, ModelStorageBase.ARGB,
+                ModelStorageBase.ARGB_USHORT, ModelStorageBase.ARGB_FLOAT};
+
+        for (final int type : types) {
+
+            for (final String compression : new String[] {FileN5.RAW, FileN5.GZIP}) {
+                final int[] extents = {WIDTH, HEIGHT, SLICES};
+                final ModelImage image = FileN5Test.makeImage(type, extents);
+                final File dir = FileN5Test.write(image, compression);
+
+                try {
+                    final FileN5 reader = new FileN5(FileN5.ATTRIBUTES, dir.getPath());
+                    final ModelImage read = reader.readImage(false);
+
+                    try {
+                        Assert.assertEquals(type, read.getType());
+                        Assert.assertEquals(3, read.getNDims());
+                        Assert.assertEquals(0.5f, read.getFileInfo(0).getResolutions()[0]);
+                        Assert.assertEquals(compression, reader.getFileInfo().getCompression());
+                        FileN5Test.check(read, new int[] {0, 0, 0}, ModelImage.getBufferTypeStr(type) + " "
+                                + compression);
+                    } finally {
+                        read.disposeLocal();
+                    }
+                } finally {
+                    image.disposeLocal();
+                    FileN5Test.delete(dir);
+                }
+            }
+        }
+    }
+
+    /**
+     * Writes a 4D image with the default blocks and reads it, and its first slice, back.
+     *
+     * @throws IOException if the dataset cannot be written or read
+     */
+    public void testTimeSeries() throws IOException {
+        final ModelImage image = FileN5Test.makeImage(ModelStorageBase.USHORT, new int[] {WIDTH, HEIGHT, 5, 3});
+        final File dir = File.createTempFile("mipavN5", ".n5");
+
+        Assert.assertTrue(dir.delete());
+
+        try {
+            new FileN5(dir.getName(), dir.getParent()).writeImage(image, null);
+            Assert.assertEquals(FileUtility.N5,
+                    FileUtility.getFileType(FileN5.ATTRIBUTES, dir.getPath(), false, true, new boolean[1]));
+
+            final ModelImage read = new FileN5(dir.getName(), dir.getParent()).readImage(false);
+            final ModelImage slice = new FileN5(dir.getName(), dir.getParent()).readImage(true);
+
+            try {
+                Assert.assertEquals(4, read.getNDims());
+                FileN5Test.check(read, new int[] {0, 0, 0, 0}, "4D");
+                Assert.assertEquals(2, slice.getNDims());
+                FileN5Test.check(slice, new int[] {0, 0}, "first slice");
+            } finally {
+                read.disposeLocal();
+                slice.disposeLocal();
+            }
+        } finally {
+            image.disposeLocal();
+            FileN5Test.delete(dir);
+        }
+    }
+
+    /**
+     * Reads a region after deleting every block that does not meet it.
+     *
+     * @throws IOException if the dataset cannot be written or read
+     */
+    public void testReadRegion() throws IOException {
+        final ModelImage image = FileN5Test.makeImage(ModelStorageBase.FLOAT, new int[] {WIDTH, HEIGHT, SLICES});
+        final File dir = FileN5Test.write(image, FileN5.GZIP);
+        final int[] origin = {40, 20, 9};
+        final int[] size = {30, 10, 6};
+        int deleted = 0;
+
+        try {
+
+            for (int x = 0; x <= ( (WIDTH - 1) / BLOCK[0]); x++) {
+
+                for (int y = 0; y <= ( (HEIGHT - 1) / BLOCK[1]); y++) {
+
+                    for (int z = 0; z <= ( (SLICES - 1) / BLOCK[2]); z++) {
+
+                        if ( (x != 1) && (x != 2) || (y != 1) || (z != 1) && (z != 2)) {
+                            Assert.assertTrue(new File(dir, x + File.separator + y + File.separator + z).delete());
+                            deleted++;
+                        }
+                    }
+                }
+            }
+
+            Assert.assertTrue(deleted > 0);
+
+            final ModelImage region = new FileN5(dir.getName(), dir.getParent()).readRegion(origin, size);
+
+            try {
+                Assert.assertEquals(size[2], region.getExtents()[2]);
+                FileN5Test.check(region, origin, "region");
+            } finally {
+                region.disposeLocal();
+            }
+        } finally {
+            image.disposeLocal();
+            FileN5Test.delete(dir);
+        }
+    }
+
+    /**
+     * Writes a region into a dataset and checks that the pixels around it are kept.
+     *
+     * @throws IOException if the dataset cannot be written or read
+     */
+    public void testWriteRegion() throws IOException {
+        final ModelImage image = FileN5Test.makeImage(ModelStorageBase.SHORT, new int[] {WIDTH, HEIGHT, SLICES});
+        final ModelImage patch = new ModelImage(ModelStorageBase.SHORT, new int[] {45, 19, 5}, "patch");
+        final int[] origin = {20, 13, 6};
+        final File dir = FileN5Test.write(image, FileN5.GZIP);
+
+        try {
+            final short[] values = new short[45 * 19 * 5];
+
+            for (int i = 0; i < values.length; i++) {
+                values[i] = (short) (-1 - i);
+            }
+
+            patch.importData(0, values, true);
+            new FileN5(dir.getName(), dir.getParent()).writeRegion(patch, origin);
+
+            final ModelImage read = new FileN5(dir.getName(), dir.getParent()).readImage(false);
+            final short[] all = new short[WIDTH * HEIGHT * SLICES];
+
+            try {
+                read.exportData(0, all.length, all);
+
+                for (int z = 0; z < SLICES; z++) {
+
+                    for (int y = 0; y < HEIGHT; y++) {
+
+                        for (int x = 0; x < WIDTH; x++) {
+                            final int i = x + (WIDTH * (y + (HEIGHT * z)));
+
+                            if ( (x >= origin[0]) && (x < (origin[0] + 45)) && (y >= origin[1])
+                                    && (y < (origin[1] + 19)) && (z >= origin[2]) && (z < (origin[2] + 5))) {
+                                Assert.assertEquals(values[ (x - origin[0])
+                                        + (45 * ( (y - origin[1]) + (19 * (z - origin[2]))))], all[i]);
+                            } else {
+                                Assert.assertEquals((short) FileN5Test.value(x, y, z, 0, 0), all[i]);
+                            }
+                        }
+                    }
+                }
+            } finally {
+                read.disposeLocal();
+            }
+        } finally {
+            image.disposeLocal();
+            patch.disposeLocal();
+            FileN5Test.delete(dir);
+        }
+    }
+
+    /**
+     * Reads the header of a dataset written by another N5 implementation, with pre 1.0 compression, escaped strings and
+     * attributes FileN5 does not know, and checks that a malformed attributes.json is refused.
+     *
+     * @throws IOException if the dataset cannot be written or read
+     */
+    public void testForeignAttributes() throws IOException {
+        final File dir = Files.createTempDirectory("mipavN5").toFile();
+        final File attributes = new File(dir, FileN5.ATTRIBUTES);
+
+        try {
+            Files.write(attributes.toPath(), ("{\"dimensions\" : [ 40, 30, 2 ],\n\t\"blockSize\":[16,16,1],"
+                    + "\"dataType\":\"uint16\",\"compressionType\":\"raw\",\"note\":\"a \\\"quoted\\\" \\u00b5m\","
+                    + "\"extra\":{\"list\":[true,false,null,-1.5e-3]},"
+                    + "\"pixelResolution\":{\"unit\":\"um\",\"dimensions\":[0.25,0.5,2]}}").getBytes("UTF-8"));
+
+            Assert.assertTrue(FileN5.isN5Dataset(dir));
+
+            final FileInfoN5 info = new FileN5(FileN5.ATTRIBUTES, dir.getPath()).readHeader();
+
+            Assert.assertEquals(ModelStorageBase.USHORT, info.getDataType());
+            Assert.assertEquals(40, info.getExtents()[0]);
+            Assert.assertEquals(2, info.getExtents()[2]);
+            Assert.assertEquals(16, info.getBlockSize()[1]);
+            Assert.assertEquals(FileN5.RAW, info.getCompression());
+            Assert.assertEquals(0.5f, info.getResolutions()[1]);
+            Assert.assertEquals(FileInfoBase.Unit.MICROMETERS.getLegacyNum(), info.getUnitsOfMeasure()[0]);
+
+            Files.write(attributes.toPath(), "{\"dimensions\": [40, 30], \"dataType\": \"uint16\"".getBytes("UTF-8"));
+            Assert.assertFalse(FileN5.isN5Dataset(dir));
+
+            try {
+                new FileN5(FileN5.ATTRIBUTES, dir.getPath()).readHeader();
+                Assert.fail("A malformed attributes.json was read");
+            } catch (final IOException e) {
+                // expected
+            }
+        } finally {
+            FileN5Test.delete(dir);
+        }
+    }
+
+    /**
+     * Checks that an image holds the samples of makeImage.
+     *
+     * @param image the image read
+     * @param origin position of the image in the image written
+     * @param name name of the image reported
+     *
+     * @throws IOException if the image data cannot be exported
+     */
+    private static void check(final ModelImage image, final int[] origin, final String name) throws IOException {
+        final int[] extents = FileN5Test.extents4(image);
+        final int samples = image.isColorImage() ? 4 : 1;
+        final double[] values = new double[samples * extents[0] * extents[1] * extents[2] * extents[3]];
+        final int[] at = new int[4];
+
+        System.arraycopy(origin, 0, at, 0, origin.length);
+        image.exportData(0, values.length, values);
+
+        for (int i = 0; i < values.length; i++) {
+            final int p = i / samples;
+            final int x = at[0] + (p % extents[0]);
+            final int y = at[1] + ( (p / extents[0]) % extents[1]);
+            final int z = at[2] + ( (p / (extents[0] * extents[1])) % extents[2]);
+            final int t = at[3] + (p / (extents[0] * extents[1] * extents[2]));
+
+            Assert.assertEquals(name + " at " + x + ", " + y + ", " + z + ", " + t,
+                    FileN5Test.expected(image.getType(), FileN5Test.value(x, y, z, t, i % samples)), values[i]);
+        }
+    }
+
+    /**
+     * Deletes a dataset.
+     *
+     * @param file the dataset directory
+     */
+    private static void delete(final File file) {
+        final File[] files = file.listFiles();
+
+        if (files != null) {
+
+            for (final File child : files) {
+                FileN5Test.delete(child);
+            }
+        }
+
+        file.delete();
+    }
+
+    /**
+     * Returns the value a sample holds once stored in an image of a data type.
+     *
+     * @param type ModelStorageBase data type
+     * @param value the sample
+     *
+     * @return the value stored
+     */
+    private static double expected(final int type, final int value) {
+
+        switch (type) {
+
+            case ModelStorageBase.BOOLEAN:
+                return value & 1;
+
+            case ModelStorageBase.BYTE:
+                return (byte) value;
+
+            case ModelStorageBase.UBYTE:
+            case ModelStorageBase.ARGB:
+                return value & 0xff;
+
+            case ModelStorageBase.SHORT:
+                return (short) value;
+
+            case ModelStorageBase.USHORT:
+            case ModelStorageBase.ARGB_USHORT:
+                return value & 0xffff;
+
+            case ModelStorageBase.UINTEGER:
+                return value & 0xffffffffL;
+
+            case ModelStorageBase.FLOAT:
+            case ModelStorageBase.ARGB_FLOAT:
+            case ModelStorageBase.DOUBLE:
+                return value / 4.0;
+
+            default:
+                return value;
+        }
+    }
+
+    /**
+     * Returns the extents of an image padded to 4 dimensions.
+     *
+     * @param image the image
+     *
+     * @return the extents
+     */
+    private static int[] extents4(final ModelImage image) {
+        final int[] extents = {1, 1, 1, 1};
+
+        System.arraycopy(image.getExtents(), 0, extents, 0, image.getNDims());
+
+        return extents;
+    }
+
+    /**
+     * Makes an image of made up samples.
+     *
+     * @param type ModelStorageBase data type
+     * @param extents extents of the image
+     *
+     * @return the image
+     *
+     * @throws IOException if the samples cannot be imported
+     */
+    private static ModelImage makeImage(final int type, final int[] extents) throws IOException {
+        final ModelImage image = new ModelImage(type, extents, "n5");
+        final int[] extents4 = FileN5Test.extents4(image);
+        final int samples = image.isColorImage() ? 4 : 1;
+        final double[] values = new double[samples * extents4[0] * extents4[1] * extents4[2] * extents4[3]];
+
+        for (int i = 0; i < values.length; i++) {
+            final int p = i / samples;
+
+            values[i] = FileN5Test.expected(type, FileN5Test.value(p % extents4[0], (p / extents4[0]) % extents4[1],
+                    (p / (extents4[0] * extents4[1])) % extents4[2], p / (extents4[0] * extents4[1] * extents4[2]),
+                    i % samples));
+        }
+
+        image.importData(0, values, true);
+
+        for (int i = 0; i < image.getFileInfo().length; i++) {
+            image.getFileInfo(i).setResolutions(new float[] {0.5f, 0.5f, 2.0f, 1.0f});
+        }
+
+        return image;
+    }
+
+    /**
+     * Returns the made up sample of a pixel.
+     *
+     * @param x x of the pixel
+     * @param y y of the pixel
+     * @param z z of the pixel
+     * @param t t of the pixel
+     * @param s sample of the pixel
+     *
+     * @return the sample
+     */
+    private static int value(final int x, final int y, final int z, final int t, final int s) {
+        return (x * 7) + (y * 131) + (z * 1009) + (t * 4001) + (s * 50) - 3000;
+    }
+
+    /**
+     * Writes an image to a temporary dataset with small blocks.
+     *
+     * @param image the image
+     * @param compression FileN5.RAW or FileN5.GZIP
+     *
+     * @return the dataset directory
+     *
+     * @throws IOException if the dataset cannot be written
+     */
+    private static File write(final ModelImage image, final String compression) throws IOException {
+        final File dir = Files.createTempDirectory("mipavN5").toFile();
+        final FileWriteOptions options = new FileWriteOptions(true);
+
+        options.setN5BlockSize(BLOCK);
+        options.setN5Compression(compression);
+        new FileN5(dir.getName(), dir.getParent()).writeImage(image, options);
+
+        return dir;
+    }
+}
@@ -0,0 +1,213 @@
+package gov.nih.mipav.model.file;
+
+
+import gov.nih.mipav.model.structures.ModelImage;
+import gov.nih.mipav.model.structures.ModelStorageBase;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+
+/**
+ * Tests of saving a memory mapped image. An image mapped over a raw file with FileRaw.mapImage is written back over
+ * that file, which must copy the data into memory of the image's own first, and to another file, which must leave
+ * the mapping in place.
+ */
+public class FileRawMapTest extends TestCase {
+
+    /** Extents of the image. */
+    private static final int[] EXTENTS = new int[] {64, 48, 6};
+
+    /** Length of the header before the voxels. */
+    private static final int HEADER = 352;
+
+    /**
+     * Saves a mapped image over the file it is mapped from, with one voxel changed in memory.
+     *
+     * @throws IOException if the files cannot be written
+     */
+    public void testSaveOverMappedFile() throws IOException {
+        final File file = FileRawMapTest.createFile();
+        final ModelImage image = FileRawMapTest.map(file);
+
+        try {
+            Assert.assertTrue("Image is not mapped", image.isMapped());
+            image.set(5, (short) -1234);
+            FileRawMapTest.write(image, file);
+
+            Assert.assertFalse("Image is still mapped after saving over its file", image.isMapped());
+
+            final short[] expected = FileRawMapTest.values();
+
+            expected[5] = -1234;
+            FileRawMapTest.check(file, expected);
+            Assert.assertEquals("Voxel of the image", -1234, image.getShort(5));
+            Assert.assertEquals("Voxel of the image", expected[expected.length - 1], image.getShort(expected.length
+                    - 1));
+        } finally {
+            image.disposeLocal();
+        }
+    }
+
+    /**
+     * Saves a mapped image to another file, which keeps the mapping.
+     *
+     * @throws IOException if the files cannot be written
+     */
+    public void testSaveToOtherFile() throws IOException {
+        final File file = FileRawMapTest.createFile();
+        final File other = File.createTempFile("mipavMapOther", ".raw");
+        final ModelImage image = FileRawMapTest.map(file);
+
+        other.deleteOnExit();
+
+        try {
+            FileRawMapTest.write(image, other);
+
+            Assert.assertTrue("Image is no longer mapped after saving to another file", image.isMapped());
+            FileRawMapTest.check(other, FileRawMapTest.values());
+        } finally {
+            image.disposeLocal();
+        }
+    }
+
+    /**
+     * Returns the voxel values of the test file.
+     *
+     * @return the values
+     */
+    private static short[] values() {
+        final short[] values = new short[EXTENTS[0] * EXTENTS[1] * EXTENTS[2]];
+
+        for (int i = 0; i < values.length; i++) {
+            values[i] = (short) ( (i * 37) - 20000);
+        }
+
+        return values;
+    }
+
+    /**
+     * Writes a big endian short file with a header.
+     *
+     * @return the file
+     *
+     * @throws IOException if the file cannot be written
+     */
+    private static File createFile() throws IOException {
+        final File file = File.createTempFile("mipavMap", ".raw");
+        final short[] values = FileRawMapTest.values();
+        final ByteBuffer buffer = ByteBuffer.allocate(HEADER + (2 * values.length)).order(ByteOrder.BIG_ENDIAN);
+
+        file.deleteOnExit();
+        buffer.position(HEADER);
+        buffer.asShortBuffer().put(values);
+
+        final RandomAccessFile raFile = new RandomAccessFile(file, "rw");
+
+        try {
+            raFile.write(buffer.array());
+        } finally {
+            raFile.close();
+        }
+
+        return file;
+    }
+
+    /**
+     * Returns the description of the test file.
+     *
+     * @param file the file
+     *
+     * @return the file info
+     */
+    private static FileInfoRaw fileInfo(final File file) {
+        final FileInfoRaw fileInfo = new FileInfoRaw(file.getName(), file.getParent() + File.separator,
+                FileUtility.RAW);
+
+        fileInfo.setEndianess(FileBase.BIG_ENDIAN);
+        fileInfo.setDataType(ModelStorageBase.SHORT);
+        fileInfo.setExtents(EXTENTS.clone());
+
+        return fileInfo;
+    }
+
+    /**
+     * Maps the voxels of a file into an image.
+     *
+     * @param file the file
+     *
+     * @return the mapped image
+     *
+     * @throws IOException if the file cannot be mapped
+     */
+    private static ModelImage map(final File file) throws IOException {
+        final ModelImage image = new ModelImage(ModelStorageBase.SHORT, EXTENTS.clone(), "mapped", false);
+        final FileRaw rawFile = new FileRaw(file.getName(), file.getParent() + File.separator,
+                FileRawMapTest.fileInfo(file), FileBase.READ);
+
+        Assert.assertTrue("File cannot be mapped", rawFile.canMapImage(ModelStorageBase.SHORT));
+        rawFile.mapImage(image, HEADER);
+
+        // the writers take the byte order from the file infos of the image
+        for (final FileInfoBase fileInfo : image.getFileInfo()) {
+            fileInfo.setEndianess(FileBase.BIG_ENDIAN);
+        }
+
+        return image;
+    }
+
+    /**
+     * Writes an image after a header of zeros, truncating the file first.
+     *
+     * @param image the image
+     * @param file the file to write
+     *
+     * @throws IOException if the file cannot be written
+     */
+    private static void write(final ModelImage image, final File file) throws IOException {
+        final FileRaw rawFile = new FileRaw(file.getName(), file.getParent() + File.separator,
+                FileRawMapTest.fileInfo(file), FileBase.READ_WRITE);
+        final FileWriteOptions options = new FileWriteOptions(file.getName(), file.getParent() + File.separator,
+                true);
+
+        options.setBeginSlice(0);
+        options.setEndSlice(EXTENTS[2] - 1);
+        rawFile.setZeroLengthFlag(true);
+        rawFile.setStartPosition(HEADER);
+        rawFile.writeImage(image, options);
+        rawFile.close();
+    }
+
+    /**
+     * Checks the length and voxels of a written file.
+     *
+     * @param file the file
+     * @param expected the expected voxels
+     *
+     * @throws IOException if the file cannot be read
+     */
+    private static void check(final File file, final short[] expected) throws IOException {
+        Assert.assertEquals("Length of " + file.getName(), HEADER + (2L * expected.length), file.length());
+
+        final byte[] bytes = new byte[(int) file.length()];
+        final RandomAccessFile raFile = new RandomAccessFile(file, "r");
+
+        try {
+            raFile.readFully(bytes);
+        } finally {
+            raFile.close();
+        }
+
+        final ByteBuffer buffer = ByteBuffer.wrap(bytes, HEADER, 2 * expected.length).order(ByteOrder.BIG_ENDIAN);
+
+        for (int i = 0; i < expected.length; i++) {
+            Assert.assertEquals("Voxel " + i, expected[i], buffer.getShort());
+        }
+    }
+}
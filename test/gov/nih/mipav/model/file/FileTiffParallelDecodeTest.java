@@ -0,0 +1,333 @@
+package gov.nih.mipav.model.file;
+
+
+import gov.nih.mipav.model.structures.ModelImage;
+
+import java.io.File;
+import java.io.IOException;
+
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+
+/**
+ * Compares the parallel strip and tile decompression of FileTiff with the sequential one. LZW, deflate and PackBits
+ * compressed stacks are written, read with and without parallel decompression, and both images must hold the
+ * samples written. Every combination of those codecs, sample sizes, predictors and layouts must be read to the same
+ * pixels both ways, and so must a JPEG compressed stack, which is always decoded sequentially.
+ */
+public class FileTiffParallelDecodeTest extends TestCase {
+
+    /** Width of the images. */
+    private static final int WIDTH = 500;
+
+    /** Height of the images. */
+    private static final int HEIGHT = 400;
+
+    /** Number of images in a stack. */
+    private static final int PAGES = 24;
+
+    /** Number of images in the stacks of the codec combinations. */
+    private static final int FEW_PAGES = 3;
+
+    /** Makes up the samples, in a way that compresses but not too well. */
+    private static final TiffTestWriter.Pattern PATTERN = new TiffTestWriter.Pattern() {
+        public int sample(final int image, final int x, final int y, final int s) {
+            return ( (x * (s + 3)) + (y * 5) + (image * 11) + ( (x * y) % 13) + (x >> 4) * (y >> 5)) & 0xffff;
+        }
+    };
+
+    /** Makes up smooth RGB samples, which survive JPEG compression. */
+    private static final TiffTestWriter.Pattern SMOOTH = new TiffTestWriter.Pattern() {
+        public int sample(final int image, final int x, final int y, final int s) {
+            return (x / 6) + (y / 6) + (30 * s) + (2 * image);
+        }
+    };
+
+    /**
+     * Reads an 8 bit LZW stack in strips with the horizontal predictor.
+     *
+     * @throws IOException if the stack cannot be written or read
+     */
+    public void testLZWStack() throws IOException {
+        compare("LZW 8 bit strips", 1, 8, TiffTileDecoder.LZW, 2, 0, 16);
+    }
+
+    /**
+     * Reads a 16 bit deflate stack in strips.
+     *
+     * @throws IOException if the stack cannot be written or read
+     */
+    public void testDeflateStack() throws IOException {
+        compare("deflate 16 bit strips", 1, 16, TiffTileDecoder.DEFLATE, 1, 0, 8);
+    }
+
+    /**
+     * Reads an RGB deflate stack in tiles with the horizontal predictor.
+     *
+     * @throws IOException if the stack cannot be written or read
+     */
+    public void testDeflateTiledRGB() throws IOException {
+        compare("deflate RGB tiles", 3, 8, TiffTileDecoder.DEFLATE, 2, 64, 0);
+    }
+
+    /**
+     * Reads an RGB LZW stack in strips.
+     *
+     * @throws IOException if the stack cannot be written or read
+     */
+    public void testLZWStackRGB() throws IOException {
+        compare("LZW RGB strips", 3, 8, TiffTileDecoder.LZW, 1, 0, 32);
+    }
+
+    /**
+     * Reads 8 bit and 16 bit PackBits stacks in strips, the 16 bit one with the horizontal predictor.
+     *
+     * @throws IOException if the stack cannot be written or read
+     */
+    public void testPackBitsStack() throws IOException {
+        compare("PackBits 8 bit strips", 1, 8, TiffTileDecoder.PACKBITS, 1, 0, 16);
+        compare("PackBits 16 bit RGB strips", 3, 16, TiffTileDecoder.PACKBITS, 2, 0, 16);
+    }
+
+    /**
+     * Reads 16 bit deflate and LZW stacks with the horizontal predictor.
+     *
+     * @throws IOException if the stack cannot be written or read
+     */
+    public void testPredictor16() throws IOException {
+        compare("deflate 16 bit predictor", 1, 16, TiffTileDecoder.DEFLATE, 2, 0, 16);
+        compare("LZW 16 bit RGB predictor", 3, 16, TiffTileDecoder.LZW, 2, 0, 16);
+    }
+
+    /**
+     * Checks that every combination of codec, samples per pixel, bits per sample, predictor and strips or tiles is read
+     * to the same pixels with and without parallel decompression. PackBits tiles of 16 bit RGB samples, which the
+     * sequential reader cannot read, are left out.
+     *
+     * @throws IOException if a stack cannot be written or read
+     */
+    public void testIdenticalPixels() throws IOException {
+        final int[] codecs = new int[] {TiffTileDecoder.LZW, TiffTileDecoder.DEFLATE, TiffTileDecoder.PACKBITS};
+
+        for (final int compression : codecs) {
+
+            for (int samplesPerPixel = 1; samplesPerPixel <= 3; samplesPerPixel += 2) {
+
+                for (int bitsPerSample = 8; bitsPerSample <= 16; bitsPerSample += 8) {
+
+                    for (int predictor = 1; predictor <= 2; predictor++) {
+
+                        for (int tile = 0; tile <= 64; tile += 64) {
+
+                            if ( (compression == TiffTileDecoder.PACKBITS) && (samplesPerPixel == 3)
+                                    && (bitsPerSample == 16) && (tile > 0)) {
+                                continue;
+                            }
+
+                            final String name = "compression " + compression + ", " + samplesPerPixel + " x "
+                                    + bitsPerSample + " bits, predictor " + predictor + ", tile " + tile;
+                            final File file = write(FEW_PAGES, samplesPerPixel, bitsPerSample, compression,
+                                    predictor, tile, 16);
+
+                            same(name, read(file, false), read(file, true));
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Reads a YCbCr JPEG stack in tiles with and without parallel decompression.
+     *
+     * @throws IOException if the stack cannot be written or read
+     */
+    public void testJPEGTiles() throws IOException {
+        final File file = File.createTempFile("mipavParallel", ".tif");
+        final TiffTestWriter writer = new TiffTestWriter();
+
+        file.deleteOnExit();
+
+        for (int page = 0; page < PAGES; page++) {
+            writer.addImage(SMOOTH, WIDTH, HEIGHT, 3, 8, TiffTileDecoder.JPEG, 1, 64, 0);
+        }
+
+        writer.write(file);
+        same("JPEG tiles", read(file, false), read(file, true));
+
+        for (int n = 0; n < 2; n++) {
+            final ModelImage image = read(file, n == 1);
+            final float[] slice = new float[4 * WIDTH * HEIGHT];
+            double error = 0;
+
+            try {
+
+                for (int page = 0; page < PAGES; page++) {
+                    image.exportData(page * slice.length, slice.length, slice);
+
+                    for (int p = 0; p < (WIDTH * HEIGHT); p++) {
+
+                        for (int s = 0; s < 3; s++) {
+                            error += Math.abs(slice[ (4 * p) + s + 1] - SMOOTH.sample(page, p % WIDTH, p / WIDTH, s));
+                        }
+                    }
+                }
+            } finally {
+                image.disposeLocal();
+            }
+
+            Assert.assertTrue("mean error " + error, (error / (3.0 * WIDTH * HEIGHT * PAGES)) < 2.0);
+        }
+    }
+
+    /**
+     * Writes a stack, reads it with and without parallel decompression, and checks both images.
+     *
+     * @param name name of the stack in failure messages
+     * @param samplesPerPixel 1 for gray, 3 for RGB
+     * @param bitsPerSample 8 or 16
+     * @param compression TIFF compression
+     * @param predictor 1 for none, 2 for horizontal differencing
+     * @param tile tile size, or 0 for strips
+     * @param rowsPerStrip rows per strip when written in strips
+     *
+     * @throws IOException if the stack cannot be written or read
+     */
+    private static void compare(final String name, final int samplesPerPixel, final int bitsPerSample,
+            final int compression, final int predictor, final int tile, final int rowsPerStrip) throws IOException {
+        final File file = write(PAGES, samplesPerPixel, bitsPerSample, compression, predictor, tile, rowsPerStrip);
+        final ModelImage sequential = read(file, false);
+        final ModelImage parallel = read(file, true);
+
+        try {
+            check(name + " sequential", sequential, samplesPerPixel, bitsPerSample);
+            check(name + " parallel", parallel, samplesPerPixel, bitsPerSample);
+        } finally {
+            sequential.disposeLocal();
+            parallel.disposeLocal();
+        }
+    }
+
+    /**
+     * Checks that two reads of a stack hold the same pixels, and disposes of both.
+     *
+     * @param name name of the stack in failure messages
+     * @param sequential the stack read without parallel decompression
+     * @param parallel the stack read with parallel decompression
+     *
+     * @throws IOException if the image data cannot be exported
+     */
+    private static void same(final String name, final ModelImage sequential, final ModelImage parallel)
+            throws IOException {
+
+        try {
+            final int length = sequential.getDataSize();
+            final float[] expected = new float[length];
+            final float[] actual = new float[length];
+
+            Assert.assertEquals(name, length, parallel.getDataSize());
+            sequential.exportData(0, length, expected);
+            parallel.exportData(0, length, actual);
+
+            for (int i = 0; i < length; i++) {
+                Assert.assertEquals(name + " value " + i, expected[i], actual[i], 0.0f);
+            }
+        } finally {
+            sequential.disposeLocal();
+            parallel.disposeLocal();
+        }
+    }
+
+    /**
+     * Writes a stack to a temporary file.
+     *
+     * @param pages number of images in the stack
+     * @param samplesPerPixel 1 for gray, 3 for RGB
+     * @param bitsPerSample 8 or 16
+     * @param compression TIFF compression
+     * @param predictor 1 for none, 2 for horizontal differencing
+     * @param tile tile size, or 0 for strips
+     * @param rowsPerStrip rows per strip when written in strips
+     *
+     * @return the file
+     *
+     * @throws IOException if the file cannot be written
+     */
+    private static File write(final int pages, final int samplesPerPixel, final int bitsPerSample,
+            final int compression, final int predictor, final int tile, final int rowsPerStrip) throws IOException {
+        final File file = File.createTempFile("mipavParallel", ".tif");
+        final TiffTestWriter writer = new TiffTestWriter();
+
+        file.deleteOnExit();
+
+        for (int page = 0; page < pages; page++) {
+            writer.addImage(PATTERN, WIDTH, HEIGHT, samplesPerPixel, bitsPerSample, compression, predictor, tile,
+                    rowsPerStrip);
+        }
+
+        writer.write(file);
+
+        return file;
+    }
+
+    /**
+     * Reads a stack.
+     *
+     * @param file the file
+     * @param parallelDecode whether the strips are decompressed in parallel
+     *
+     * @return the image
+     *
+     * @throws IOException if the file cannot be read
+     */
+    private static ModelImage read(final File file, final boolean parallelDecode) throws IOException {
+        final FileTiff reader = new FileTiff(file.getName(), file.getParent() + File.separator);
+
+        reader.setSuppressProgressBar(true);
+        reader.setParallelDecode(parallelDecode);
+
+        return reader.readImage(false, false);
+    }
+
+    /**
+     * Checks that an image holds the samples written.
+     *
+     * @param name name of the read in failure messages
+     * @param image the image read
+     * @param samplesPerPixel 1 for gray, 3 for RGB
+     * @param bitsPerSample 8 or 16
+     *
+     * @throws IOException if the image data cannot be exported
+     */
+    private static void check(final String name, final ModelImage image, final int samplesPerPixel,
+            final int bitsPerSample) throws IOException {
+        final int mask = (bitsPerSample == 8) ? 0xff : 0xffff;
+        final int values = (samplesPerPixel == 1) ? 1 : 4;
+        final float[] slice = new float[WIDTH * HEIGHT * values];
+
+        Assert.assertEquals(name, PAGES, image.getExtents()[2]);
+
+        for (int page = 0; page < PAGES; page++) {
+            image.exportData(page * slice.length, slice.length, slice);
+
+            for (int y = 0; y < HEIGHT; y++) {
+
+                for (int x = 0; x < WIDTH; x++) {
+                    final int p = x + (y * WIDTH);
+
+                    if (samplesPerPixel == 1) {
+                        Assert.assertEquals(name + " page " + page + " at " + x + ", " + y,
+                                PATTERN.sample(page, x, y, 0) & mask, (int) slice[p]);
+                    } else {
+
+                        for (int s = 0; s < 3; s++) {
+                            Assert.assertEquals(name + " page " + page + " at " + x + ", " + y,
+                                    PATTERN.sample(page, x, y, s) & mask, (int) slice[ (4 * p) + s + 1]);
+                        }
+                    }
+                }
+            }
+        }
+    }
+}
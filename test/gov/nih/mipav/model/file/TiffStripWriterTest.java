@@ -0,0 +1,498 @@
+package gov.nih.mipav.model.file;
+
+
+import gov.nih.mipav.model.structures.ModelImage;
+import gov.nih.mipav.model.structures.ModelStorageBase;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+
+/**
+ * Tests of TiffStripWriter. Stacks of every data type are written through FileTiff with each compression and read
+ * back, double and RGB float stacks uncompressed, a forced BigTIFF file is checked by decoding its strips directly
+ * and by reading it back with FileTiff, a 4D image is written as OME-TIFF, and compressed 4D and multi file 3D images
+ * are written one file per time point or slice. A deflate compressed stack must be smaller than the uncompressed one.
+ */
+public class TiffStripWriterTest extends TestCase {
+
+    /** Width of the images. */
+    private static final int WIDTH = 500;
+
+    /** Height of the images. */
+    private static final int HEIGHT = 400;
+
+    /** Number of slices of a stack. */
+    private static final int SLICES = 24;
+
+    /**
+     * Writes and reads stacks of each data type with each compression.
+     *
+     * @throws IOException if a stack cannot be written or read
+     */
+    public void testCompressedStacks() throws IOException {
+        final int[] types = {ModelStorageBase.UBYTE, ModelStorageBase.BYTE, ModelStorageBase.USHORT,
+                ModelStorageBase.SHORT, ModelStorageBase.INTEGER, ModelStorageBase.UINTEGER, ModelStorageBase.FLOAT,
+                ModelStorageBase.ARGB, ModelStorageBase.ARGB_USHORT, ModelStorageBase.DOUBLE,
+                ModelStorageBase.ARGB_FLOAT};
+        final int[] compressions = {TiffTileDecoder.LZW, TiffTileDecoder.DEFLATE, TiffTileDecoder.PACKBITS};
+
+        for (final int type : types) {
+            final ModelImage image = create(type, new int[] {WIDTH, HEIGHT, 4});
+
+            try {
+
+                for (final int compression : compressions) {
+                    final File file = write(image, compression, ".tif");
+                    final ModelImage read = read(file);
+
+                    try {
+                        check(image, read, image.getTypeString() + " compression " + compression);
+                    } finally {
+                        read.disposeLocal();
+                    }
+                }
+            } finally {
+                image.disposeLocal();
+            }
+        }
+    }
+
+    /**
+     * Checks that a deflate compressed stack is read back and is smaller than the uncompressed one.
+     *
+     * @throws IOException if a stack cannot be written or read
+     */
+    public void testDeflateStack() throws IOException {
+        final ModelImage image = create(ModelStorageBase.USHORT, new int[] {WIDTH, HEIGHT, SLICES});
+
+        try {
+
+            final File plain = write(image, TiffTileDecoder.NONE, ".tif");
+            final File compressed = write(image, TiffTileDecoder.DEFLATE, ".tif");
+            final ModelImage read = read(compressed);
+
+            try {
+                check(image, read, "deflate stack");
+            } finally {
+                read.disposeLocal();
+            }
+
+            Assert.assertTrue(compressed.length() < plain.length());
+        } finally {
+            image.disposeLocal();
+        }
+    }
+
+    /**
+     * Writes a BigTIFF file and decodes its strips from the 64 bit offsets of its directories.
+     *
+     * @throws IOException if the file cannot be written or read
+     */
+    public void testBigTIFF() throws IOException {
+        final ModelImage image = create(ModelStorageBase.USHORT, new int[] {WIDTH, HEIGHT, 3});
+        final File file = File.createTempFile("mipavStrips", ".tif");
+        final TiffStripWriter writer = new TiffStripWriter(file, TiffTileDecoder.DEFLATE);
+
+        file.deleteOnExit();
+
+        try {
+            writer.setBigTIFF(true);
+            writer.writeImage(image, null, 0, 2, 0, 0);
+
+            final RandomAccessFile raFile = new RandomAccessFile(file, "r");
+
+            try {
+                final byte[] header = new byte[16];
+
+                raFile.readFully(header);
+
+                final ByteBuffer buffer = ByteBuffer.wrap(header).order(ByteOrder.LITTLE_ENDIAN);
+
+                Assert.assertEquals('I', buffer.get(0));
+                Assert.assertEquals(43, buffer.getShort(2));
+                Assert.assertEquals(8, buffer.getShort(4));
+
+                long ifd = buffer.getLong(8);
+                final short[] slice = new short[WIDTH * HEIGHT];
+                final TiffTileDecoder decoder = new TiffTileDecoder();
+
+                for (int z = 0; z < 3; z++) {
+                    final long[] offsets = values(raFile, ifd, FileTiff.STRIP_OFFSETS);
+                    final long[] byteCounts = values(raFile, ifd, FileTiff.STRIP_BYTE_COUNTS);
+                    final int rowsPerStrip = (int) values(raFile, ifd, FileTiff.ROWS_PER_STRIP)[0];
+                    final byte[] strip = new byte[2 * WIDTH * rowsPerStrip];
+
+                    Assert.assertEquals(TiffTileDecoder.DEFLATE, values(raFile, ifd, FileTiff.COMPRESSION)[0]);
+                    Assert.assertEquals(2, values(raFile, ifd, FileTiff.PREDICTOR)[0]);
+                    image.exportData(z * slice.length, slice.length, slice);
+
+                    for (int s = 0; s < offsets.length; s++) {
+                        final byte[] compressed = new byte[(int) byteCounts[s]];
+                        final int rows = Math.min(rowsPerStrip, HEIGHT - (s * rowsPerStrip));
+
+                        raFile.seek(offsets[s]);
+                        raFile.readFully(compressed);
+                        Assert.assertEquals(2 * WIDTH * rows, decoder.decompress(TiffTileDecoder.DEFLATE, compressed,
+                                compressed.length, strip));
+                        TiffTileDecoder.undoPredictor(strip, rows, WIDTH, 1, 16, false);
+
+                        final ByteBuffer samples = ByteBuffer.wrap(strip).order(ByteOrder.LITTLE_ENDIAN);
+
+                        for (int i = 0; i < (rows * WIDTH); i++) {
+                            Assert.assertEquals("slice " + z + " strip " + s, slice[ (s * rowsPerStrip * WIDTH) + i],
+                                    samples.getShort(2 * i));
+                        }
+                    }
+
+                    raFile.seek(ifd);
+
+                    final byte[] count = new byte[8];
+
+                    raFile.readFully(count);
+                    raFile.seek(ifd + 8 + (20 * ByteBuffer.wrap(count).order(ByteOrder.LITTLE_ENDIAN).getLong()));
+                    raFile.readFully(count);
+                    ifd = ByteBuffer.wrap(count).order(ByteOrder.LITTLE_ENDIAN).getLong();
+                }
+
+                Assert.assertEquals(0, ifd);
+            } finally {
+                raFile.close();
+            }
+        } finally {
+            image.disposeLocal();
+        }
+    }
+
+    /**
+     * Writes BigTIFF files of gray and color stacks and reads them back with FileTiff.
+     *
+     * @throws IOException if a file cannot be written or read
+     */
+    public void testBigTIFFReadBack() throws IOException {
+        final int[] types = {ModelStorageBase.USHORT, ModelStorageBase.ARGB, ModelStorageBase.DOUBLE};
+
+        for (final int type : types) {
+            final ModelImage image = create(type, new int[] {WIDTH, HEIGHT, 3});
+            final File file = File.createTempFile("mipavStrips", ".tif");
+            final TiffStripWriter writer = new TiffStripWriter(file, TiffTileDecoder.DEFLATE);
+
+            file.deleteOnExit();
+
+            try {
+                writer.setBigTIFF(true);
+                writer.writeImage(image, null, 0, 2, 0, 0);
+
+                final ModelImage read = read(file);
+
+                try {
+                    check(image, read, "BigTIFF " + image.getTypeString());
+                } finally {
+                    read.disposeLocal();
+                }
+            } finally {
+                image.disposeLocal();
+            }
+        }
+    }
+
+    /**
+     * Writes a compressed 4D image one file per time point and a compressed 3D image one file per slice, and reads
+     * each file back.
+     *
+     * @throws IOException if a file cannot be written or read
+     */
+    public void testCompressedMultiFile() throws IOException {
+        final int[][] extents = { {WIDTH, HEIGHT, 2, 3}, {WIDTH, HEIGHT, 3}};
+
+        for (final int[] extent : extents) {
+            final ModelImage image = create(ModelStorageBase.USHORT, extent);
+            final File file = File.createTempFile("mipavStrips", ".tif");
+            final String prefix = file.getName().substring(0, file.getName().indexOf('.'));
+            final int files = extent[extent.length - 1];
+            final int slices = (extent.length == 4) ? extent[2] : 1;
+            final short[] expected = new short[WIDTH * HEIGHT * slices];
+            final short[] actual = new short[expected.length];
+            final FileTiff writer = new FileTiff(file.getName(), file.getParent() + File.separator);
+            final FileWriteOptions options = new FileWriteOptions(file.getName(), file.getParent() + File.separator,
+                    true);
+
+            file.delete();
+            options.setBeginSlice(0);
+            options.setEndSlice(extent[2] - 1);
+
+            if (extent.length == 4) {
+                options.setBeginTime(0);
+                options.setEndTime(extent[3] - 1);
+            } else {
+                options.setMultiFile(true);
+            }
+
+            options.setTiffCompression(TiffTileDecoder.DEFLATE);
+
+            try {
+                writer.setSuppressProgressBar(true);
+                writer.writeImage(image, null, options);
+
+                for (int f = 0; f < files; f++) {
+                    final File part = new File(file.getParent(), prefix + "0" + f + ".tif");
+
+                    part.deleteOnExit();
+                    Assert.assertTrue(part.getName() + " was not written", part.exists());
+                    Assert.assertTrue(part.getName() + " is not compressed", part.length() < (2L * expected.length));
+
+                    final ModelImage read = read(part);
+
+                    try {
+                        Assert.assertEquals(part.getName(), expected.length, read.getSize());
+                        image.exportData(f * expected.length, expected.length, expected);
+                        read.exportData(0, actual.length, actual);
+
+                        for (int i = 0; i < expected.length; i++) {
+                            Assert.assertEquals(part.getName() + " sample " + i, expected[i], actual[i]);
+                        }
+                    } finally {
+                        read.disposeLocal();
+                    }
+                }
+            } finally {
+                image.disposeLocal();
+            }
+        }
+    }
+
+    /**
+     * Writes a 4D image to one OME-TIFF file and reads its slices back in order.
+     *
+     * @throws IOException if the file cannot be written or read
+     */
+    public void testOMETiff() throws IOException {
+        final ModelImage image = create(ModelStorageBase.USHORT, new int[] {WIDTH, HEIGHT, 3, 4});
+
+        try {
+            final File file = write(image, TiffTileDecoder.LZW, ".ome.tif");
+            final byte[] content = new byte[(int) file.length()];
+            final RandomAccessFile raFile = new RandomAccessFile(file, "r");
+
+            try {
+                raFile.readFully(content);
+            } finally {
+                raFile.close();
+            }
+
+            final String text = new String(content, StandardCharsets.ISO_8859_1);
+
+            Assert.assertTrue(text.contains("<OME xmlns="));
+            Assert.assertTrue(text.contains("DimensionOrder=\"XYCZT\" Type=\"uint16\""));
+            Assert.assertTrue(text.contains("SizeZ=\"3\" SizeC=\"1\" SizeT=\"4\""));
+
+            final ModelImage read = read(file);
+
+            try {
+                final short[] expected = new short[WIDTH * HEIGHT * 12];
+                final short[] actual = new short[expected.length];
+
+                Assert.assertEquals(12, read.getExtents()[2]);
+                image.exportData(0, expected.length, expected);
+                read.exportData(0, actual.length, actual);
+
+                for (int i = 0; i < expected.length; i++) {
+                    Assert.assertEquals("sample " + i, expected[i], actual[i]);
+                }
+            } finally {
+                read.disposeLocal();
+            }
+        } finally {
+            image.disposeLocal();
+        }
+    }
+
+    /**
+     * Creates an image holding samples that compress but not too well.
+     *
+     * @param type ModelStorageBase data type
+     * @param extents the extents
+     *
+     * @return the image
+     *
+     * @throws IOException if the samples cannot be imported
+     */
+    private static ModelImage create(final int type, final int[] extents) throws IOException {
+        final ModelImage image = new ModelImage(type, extents, "strips");
+        final int values = image.isColorImage() ? 4 : 1;
+        final int slices = image.getSize() / (values * image.getSliceSize());
+        final float[] data = new float[image.getSize()];
+        final boolean signed = (type == ModelStorageBase.BYTE) || (type == ModelStorageBase.SHORT)
+                || (type == ModelStorageBase.INTEGER) || (type == ModelStorageBase.FLOAT);
+        final int mask = ( (type == ModelStorageBase.UBYTE) || (type == ModelStorageBase.BYTE)
+                || (type == ModelStorageBase.ARGB)) ? 0x7f : 0x7fff;
+
+        for (int z = 0; z < slices; z++) {
+
+            for (int y = 0; y < extents[1]; y++) {
+
+                for (int x = 0; x < extents[0]; x++) {
+                    final int p = (z * extents[0] * extents[1]) + (y * extents[0]) + x;
+
+                    for (int s = 0; s < values; s++) {
+                        final int value = ( (x * (s + 3)) + (y * 5) + (z * 11) + ( (x * y) % 13)
+                                + ( (x >> 4) * (y >> 5))) & mask;
+
+                        data[ (values * p) + s] = (signed && ( ( (x + y) & 1) == 0)) ? -value : value;
+                    }
+                }
+            }
+        }
+
+        image.importData(0, data, true);
+
+        return image;
+    }
+
+    /**
+     * Writes an image with FileTiff to a temporary file.
+     *
+     * @param image the image
+     * @param compression TIFF compression
+     * @param suffix suffix of the file
+     *
+     * @return the file
+     *
+     * @throws IOException if the file cannot be written
+     */
+    private static File write(final ModelImage image, final int compression, final String suffix)
+            throws IOException {
+        final File file = File.createTempFile("mipavStrips", suffix);
+        final FileTiff writer = new FileTiff(file.getName(), file.getParent() + File.separator);
+        final FileWriteOptions options = new FileWriteOptions(file.getName(), file.getParent() + File.separator,
+                true);
+
+        file.deleteOnExit();
+
+        if (image.getNDims() > 2) {
+            options.setBeginSlice(0);
+            options.setEndSlice(image.getExtents()[2] - 1);
+        }
+
+        if (image.getNDims() > 3) {
+            options.setBeginTime(0);
+            options.setEndTime(image.getExtents()[3] - 1);
+        }
+
+        options.setTiffCompression(compression);
+        writer.setSuppressProgressBar(true);
+        writer.writeImage(image, null, options);
+
+        return file;
+    }
+
+    /**
+     * Reads an image with FileTiff.
+     *
+     * @param file the file
+     *
+     * @return the image
+     *
+     * @throws IOException if the file cannot be read
+     */
+    private static ModelImage read(final File file) throws IOException {
+        final FileTiff reader = new FileTiff(file.getName(), file.getParent() + File.separator);
+
+        reader.setSuppressProgressBar(true);
+
+        return reader.readImage(false, false);
+    }
+
+    /**
+     * Checks that an image read holds the samples of the image written.
+     *
+     * @param written the image written
+     * @param read the image read
+     * @param name name of the image reported
+     *
+     * @throws IOException if the image data cannot be exported
+     */
+    private static void check(final ModelImage written, final ModelImage read, final String name)
+            throws IOException {
+        final int values = written.isColorImage() ? 4 : 1;
+        final float[] expected = new float[written.getSize()];
+        final float[] actual = new float[expected.length];
+
+        Assert.assertEquals(name, written.getType(), read.getType());
+        Assert.assertEquals(name, written.getSize(), read.getSize());
+        written.exportData(0, expected.length, expected);
+        read.exportData(0, actual.length, actual);
+
+        for (int i = 0; i < expected.length; i++) {
+
+            if ( (values == 1) || ( (i % 4) != 0)) {
+                Assert.assertEquals(name + " sample " + i, expected[i], actual[i], 0);
+            }
+        }
+    }
+
+    /**
+     * Reads the values of an entry of a BigTIFF directory.
+     *
+     * @param raFile the file
+     * @param ifd offset of the directory
+     * @param tag the tag of the entry
+     *
+     * @return the values, or null if the directory does not have the tag
+     *
+     * @throws IOException if the file cannot be read
+     */
+    private static long[] values(final RandomAccessFile raFile, final long ifd, final int tag) throws IOException {
+        final byte[] count = new byte[8];
+
+        raFile.seek(ifd);
+        raFile.readFully(count);
+
+        final int entries = (int) ByteBuffer.wrap(count).order(ByteOrder.LITTLE_ENDIAN).getLong();
+        final byte[] directory = new byte[20 * entries];
+
+        raFile.readFully(directory);
+
+        final ByteBuffer buffer = ByteBuffer.wrap(directory).order(ByteOrder.LITTLE_ENDIAN);
+
+        for (int e = 0; e < entries; e++) {
+
+            if ( (buffer.getShort(20 * e) & 0xffff) != tag) {
+                continue;
+            }
+
+            final int type = buffer.getShort( (20 * e) + 2);
+            final int n = (int) buffer.getLong( (20 * e) + 4);
+            final int size = (type == 3) ? 2 : ( (type == 4) ? 4 : 8);
+            final ByteBuffer data;
+
+            if ( (n * size) <= 8) {
+                data = ByteBuffer.wrap(directory, (20 * e) + 12, 8).slice().order(ByteOrder.LITTLE_ENDIAN);
+            } else {
+                final byte[] bytes = new byte[n * size];
+
+                raFile.seek(buffer.getLong( (20 * e) + 12));
+                raFile.readFully(bytes);
+                data = ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN);
+            }
+
+            final long[] values = new long[n];
+
+            for (int i = 0; i < n; i++) {
+                values[i] = (type == 3) ? (data.getShort(2 * i) & 0xffff)
+                        : ( (type == 4) ? (data.getInt(4 * i) & 0xffffffffL) : data.getLong(8 * i));
+            }
+
+            return values;
+        }
+
+        return null;
+    }
+}
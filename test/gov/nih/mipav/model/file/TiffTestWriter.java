@@ -0,0 +1,500 @@
+package gov.nih.mipav.model.file;
+
+
+import java.awt.image.BufferedImage;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.zip.Deflater;
+
+import javax.imageio.ImageIO;
+
+
+/**
+ * Writes little endian TIFF files for the tests of the TIFF readers: images of 8 or 16 bit samples, in tiles or strips,
+ * uncompressed, LZW, deflate or PackBits compressed, optionally with the horizontal predictor, or RGB images JPEG
+ * compressed as YCbCr. The samples are made up by a Pattern.
+ */
+class TiffTestWriter {
+
+    /** Makes up the samples of the images. */
+    interface Pattern {
+
+        /**
+         * Returns a sample.
+         *
+         * @param image index of the image written
+         * @param x column
+         * @param y row
+         * @param s index of the sample of the pixel
+         *
+         * @return the sample value
+         */
+        int sample(int image, int x, int y, int s);
+    }
+
+    /** Tags of each image, as tag, type and values. */
+    private final ArrayList<ArrayList<long[]>> directories = new ArrayList<ArrayList<long[]>>();
+
+    /** Data of the tiles or strips of each image. */
+    private final ArrayList<ArrayList<byte[]>> chunks = new ArrayList<ArrayList<byte[]>>();
+
+    /** Positions of the offsets of the tiles or strips among the tags of each image. */
+    private final ArrayList<Integer> offsetEntries = new ArrayList<Integer>();
+
+    /**
+     * Adds an image.
+     *
+     * @param pattern makes up the samples
+     * @param width image width
+     * @param height image height
+     * @param samplesPerPixel 1 for gray, 3 for RGB
+     * @param bitsPerSample 8 or 16
+     * @param compression TIFF compression, one of the TiffTileDecoder constants; JPEG needs 8 bit RGB
+     * @param predictor 1 for none, 2 for horizontal differencing
+     * @param tile tile size, or 0 for strips
+     * @param rowsPerStrip rows per strip when written in strips
+     *
+     * @throws IOException if the data cannot be compressed
+     */
+    void addImage(final Pattern pattern, final int width, final int height, final int samplesPerPixel,
+            final int bitsPerSample, final int compression, final int predictor, final int tile,
+            final int rowsPerStrip) throws IOException {
+        final int image = directories.size();
+        final int chunkWidth = (tile > 0) ? tile : width;
+        final int chunkHeight = (tile > 0) ? tile : rowsPerStrip;
+        final int across = (width + chunkWidth - 1) / chunkWidth;
+        final int down = (height + chunkHeight - 1) / chunkHeight;
+        final int bytes = bitsPerSample / 8;
+        final ArrayList<byte[]> data = new ArrayList<byte[]>();
+
+        for (int ty = 0; ty < down; ty++) {
+
+            for (int tx = 0; tx < across; tx++) {
+
+                // strips at the bottom only hold the rows left
+                final int rows = (tile > 0) ? chunkHeight : Math.min(chunkHeight, height - (ty * chunkHeight));
+                final byte[] samples = new byte[chunkWidth * rows * samplesPerPixel * bytes];
+
+                for (int y = 0; y < rows; y++) {
+
+                    for (int x = 0; x < chunkWidth; x++) {
+
+                        for (int s = 0; s < samplesPerPixel; s++) {
+                            final int value = pattern.sample(image, (tx * chunkWidth) + x, (ty * chunkHeight) + y, s);
+                            final int i = bytes * ( ( ( (y * chunkWidth) + x) * samplesPerPixel) + s);
+
+                            samples[i] = (byte) value;
+
+                            if (bytes == 2) {
+                                samples[i + 1] = (byte) (value >>> 8);
+                            }
+                        }
+                    }
+                }
+
+                if (predictor == 2) {
+                    difference(samples, chunkWidth, samplesPerPixel, bytes);
+                }
+
+                data.add(TiffTestWriter.compress(compression, samples, chunkWidth));
+            }
+        }
+
+        final long[] bits = new long[samplesPerPixel];
+        final long[] counts = new long[data.size()];
+
+        for (int s = 0; s < samplesPerPixel; s++) {
+            bits[s] = bitsPerSample;
+        }
+
+        for (int i = 0; i < counts.length; i++) {
+            counts[i] = data.get(i).length;
+        }
+
+        final ArrayList<long[]> entries = new ArrayList<long[]>();
+
+        entries.add(new long[] {256, 4, width});
+        entries.add(new long[] {257, 4, height});
+        entries.add(TiffTestWriter.entry(258, 3, bits));
+        entries.add(new long[] {259, 3, compression});
+        if (compression == TiffTileDecoder.JPEG) {
+            entries.add(new long[] {262, 3, 6});
+        } else {
+            entries.add(new long[] {262, 3, (samplesPerPixel >= 3) ? 2 : 1});
+        }
+
+        if (tile == 0) {
+            offsetEntries.add(entries.size());
+            entries.add(TiffTestWriter.entry(273, 4, new long[data.size()]));
+        }
+
+        entries.add(new long[] {277, 3, samplesPerPixel});
+
+        if (tile == 0) {
+            entries.add(new long[] {278, 4, rowsPerStrip});
+            entries.add(TiffTestWriter.entry(279, 4, counts));
+        }
+
+        entries.add(new long[] {284, 3, 1});
+
+        if (predictor == 2) {
+            entries.add(new long[] {317, 3, 2});
+        }
+
+        if (tile > 0) {
+            entries.add(new long[] {322, 3, tile});
+            entries.add(new long[] {323, 3, tile});
+            offsetEntries.add(entries.size());
+            entries.add(TiffTestWriter.entry(324, 4, new long[data.size()]));
+            entries.add(TiffTestWriter.entry(325, 4, counts));
+        }
+
+        directories.add(entries);
+        chunks.add(data);
+    }
+
+    /**
+     * Writes the file.
+     *
+     * @param file the file
+     *
+     * @throws IOException if the file cannot be written
+     */
+    void write(final File file) throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final int[] directoryOffsets = new int[directories.size()];
+
+        TiffTestWriter.writeShort(out, 0x4949);
+        TiffTestWriter.writeShort(out, 42);
+        TiffTestWriter.writeInt(out, 0);
+
+        for (int n = 0; n < directories.size(); n++) {
+            final long[] offsets = directories.get(n).get(offsetEntries.get(n));
+
+            for (int i = 0; i < chunks.get(n).size(); i++) {
+                offsets[2 + i] = out.size();
+                out.write(chunks.get(n).get(i));
+            }
+        }
+
+        for (int n = 0; n < directories.size(); n++) {
+            final ArrayList<long[]> entries = directories.get(n);
+            final HashMap<Integer, Integer> arrays = new HashMap<Integer, Integer>();
+
+            for (int e = 0; e < entries.size(); e++) {
+                final long[] entry = entries.get(e);
+                final int size = (entry[1] == 3) ? 2 : 4;
+
+                if ( ( (entry.length - 2) * size) > 4) {
+                    arrays.put(e, out.size());
+
+                    for (int i = 2; i < entry.length; i++) {
+
+                        if (size == 2) {
+                            TiffTestWriter.writeShort(out, (int) entry[i]);
+                        } else {
+                            TiffTestWriter.writeInt(out, (int) entry[i]);
+                        }
+                    }
+                }
+            }
+
+            directoryOffsets[n] = out.size();
+            TiffTestWriter.writeShort(out, entries.size());
+
+            for (int e = 0; e < entries.size(); e++) {
+                final long[] entry = entries.get(e);
+
+                TiffTestWriter.writeShort(out, (int) entry[0]);
+                TiffTestWriter.writeShort(out, (int) entry[1]);
+                TiffTestWriter.writeInt(out, entry.length - 2);
+
+                if (arrays.containsKey(e)) {
+                    TiffTestWriter.writeInt(out, arrays.get(e));
+                } else if (entry[1] == 3) {
+                    TiffTestWriter.writeShort(out, (int) entry[2]);
+                    TiffTestWriter.writeShort(out, (entry.length > 3) ? (int) entry[3] : 0);
+                } else {
+                    TiffTestWriter.writeInt(out, (int) entry[2]);
+                }
+            }
+
+            TiffTestWriter.writeInt(out, 0);
+        }
+
+        final byte[] tiff = out.toByteArray();
+
+        TiffTestWriter.setInt(tiff, 4, directoryOffsets[0]);
+
+        for (int n = 0; n < (directories.size() - 1); n++) {
+            TiffTestWriter.setInt(tiff, directoryOffsets[n] + 2 + (12 * directories.get(n).size()),
+                    directoryOffsets[n + 1]);
+        }
+
+        final FileOutputStream stream = new FileOutputStream(file);
+
+        try {
+            stream.write(tiff);
+        } finally {
+            stream.close();
+        }
+    }
+
+    /**
+     * Makes a directory entry of several values.
+     *
+     * @param tag the tag
+     * @param type the TIFF field type
+     * @param values the values
+     *
+     * @return the entry
+     */
+    private static long[] entry(final int tag, final int type, final long[] values) {
+        final long[] entry = new long[2 + values.length];
+
+        entry[0] = tag;
+        entry[1] = type;
+        System.arraycopy(values, 0, entry, 2, values.length);
+
+        return entry;
+    }
+
+    /**
+     * Applies the horizontal differencing predictor in place.
+     *
+     * @param samples the samples of a tile or strip
+     * @param width pixels per row
+     * @param samplesPerPixel samples per pixel
+     * @param bytes bytes per sample
+     */
+    private static void difference(final byte[] samples, final int width, final int samplesPerPixel,
+            final int bytes) {
+        final int rowSamples = width * samplesPerPixel;
+        final int count = samples.length / bytes;
+
+        for (int i = count - 1; i >= 0; i--) {
+
+            if ( (i % rowSamples) >= samplesPerPixel) {
+
+                if (bytes == 1) {
+                    samples[i] -= samples[i - samplesPerPixel];
+                } else {
+                    final int j = 2 * i;
+                    final int k = 2 * (i - samplesPerPixel);
+                    final int value = ( ( (samples[j + 1] & 0xff) << 8) | (samples[j] & 0xff))
+                            - ( ( (samples[k + 1] & 0xff) << 8) | (samples[k] & 0xff));
+
+                    samples[j] = (byte) value;
+                    samples[j + 1] = (byte) (value >>> 8);
+                }
+            }
+        }
+    }
+
+    /**
+     * Compresses a tile or strip.
+     *
+     * @param compression TIFF compression
+     * @param samples the samples
+     * @param width pixels per row
+     *
+     * @return the compressed data
+     *
+     * @throws IOException if the JPEG writer fails
+     */
+    private static byte[] compress(final int compression, final byte[] samples, final int width)
+            throws IOException {
+
+        if (compression == TiffTileDecoder.JPEG) {
+            final BufferedImage image = new BufferedImage(width, samples.length / (3 * width),
+                    BufferedImage.TYPE_INT_RGB);
+            final ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+            for (int i = 0; i < (samples.length / 3); i++) {
+                image.setRGB(i % width, i / width, ( (samples[3 * i] & 0xff) << 16)
+                        | ( (samples[ (3 * i) + 1] & 0xff) << 8) | (samples[ (3 * i) + 2] & 0xff));
+            }
+
+            ImageIO.write(image, "jpeg", out);
+
+            return out.toByteArray();
+        } else if (compression == TiffTileDecoder.DEFLATE) {
+            final Deflater deflater = new Deflater();
+            final ByteArrayOutputStream out = new ByteArrayOutputStream();
+            final byte[] buffer = new byte[4096];
+
+            deflater.setInput(samples);
+            deflater.finish();
+
+            while ( !deflater.finished()) {
+                out.write(buffer, 0, deflater.deflate(buffer));
+            }
+
+            deflater.end();
+
+            return out.toByteArray();
+        } else if (compression == TiffTileDecoder.LZW) {
+            return TiffTestWriter.encodeLZW(samples);
+        } else if (compression == TiffTileDecoder.PACKBITS) {
+            return TiffTestWriter.packBits(samples);
+        }
+
+        return samples;
+    }
+
+    /**
+     * Encodes data with TIFF LZW.
+     *
+     * @param data the data
+     *
+     * @return the encoded data
+     */
+    private static byte[] encodeLZW(final byte[] data) {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final HashMap<Integer, Integer> table = new HashMap<Integer, Integer>();
+        final long[] bits = new long[2];
+        int codeLength = 9;
+        int next = 258;
+        int current = data[0] & 0xff;
+
+        TiffTestWriter.putCode(out, bits, 256, codeLength);
+
+        for (int i = 1; i < data.length; i++) {
+            final int c = data[i] & 0xff;
+            final Integer code = table.get( (current << 8) | c);
+
+            if (code != null) {
+                current = code;
+
+                continue;
+            }
+
+            TiffTestWriter.putCode(out, bits, current, codeLength);
+            table.put( (current << 8) | c, next++);
+
+            if (next == 4094) {
+                TiffTestWriter.putCode(out, bits, 256, codeLength);
+                table.clear();
+                next = 258;
+                codeLength = 9;
+            } else if ( (next == (1 << codeLength)) && (codeLength < 12)) {
+                codeLength++;
+            }
+
+            current = c;
+        }
+
+        TiffTestWriter.putCode(out, bits, current, codeLength);
+        next++;
+
+        if ( (next == (1 << codeLength)) && (codeLength < 12)) {
+            codeLength++;
+        }
+
+        TiffTestWriter.putCode(out, bits, 257, codeLength);
+
+        if (bits[1] > 0) {
+            out.write((int) (bits[0] << (8 - bits[1])));
+        }
+
+        return out.toByteArray();
+    }
+
+    /**
+     * Packs data with PackBits, using runs where a byte repeats and literals elsewhere.
+     *
+     * @param data the data
+     *
+     * @return the packed data
+     */
+    private static byte[] packBits(final byte[] data) {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        int i = 0;
+
+        while (i < data.length) {
+            int run = 1;
+
+            while ( ( (i + run) < data.length) && (data[i + run] == data[i]) && (run < 128)) {
+                run++;
+            }
+
+            if (run > 1) {
+                out.write(1 - run);
+                out.write(data[i]);
+                i += run;
+            } else {
+                final int count = Math.min(128, data.length - i);
+
+                out.write(count - 1);
+                out.write(data, i, count);
+                i += count;
+            }
+        }
+
+        return out.toByteArray();
+    }
+
+    /**
+     * Writes an LZW code, most significant bit first.
+     *
+     * @param out the output
+     * @param bits pending bits and their number
+     * @param code the code
+     * @param codeLength number of bits of the code
+     */
+    private static void putCode(final ByteArrayOutputStream out, final long[] bits, final int code,
+            final int codeLength) {
+        bits[0] = (bits[0] << codeLength) | code;
+        bits[1] += codeLength;
+
+        while (bits[1] >= 8) {
+            bits[1] -= 8;
+            out.write((int) (bits[0] >>> bits[1]));
+        }
+
+        bits[0] &= (1L << bits[1]) - 1;
+    }
+
+    /**
+     * Sets a little endian integer.
+     *
+     * @param bytes the buffer
+     * @param offset position of the integer
+     * @param value the value
+     */
+    private static void setInt(final byte[] bytes, final int offset, final int value) {
+        bytes[offset] = (byte) value;
+        bytes[offset + 1] = (byte) (value >>> 8);
+        bytes[offset + 2] = (byte) (value >>> 16);
+        bytes[offset + 3] = (byte) (value >>> 24);
+    }
+
+    /**
+     * Writes a little endian integer.
+     *
+     * @param out the output
+     * @param value the value
+     */
+    private static void writeInt(final ByteArrayOutputStream out, final int value) {
+        out.write(value);
+        out.write(value >>> 8);
+        out.write(value >>> 16);
+        out.write(value >>> 24);
+    }
+
+    /**
+     * Writes a little endian short.
+     *
+     * @param out the output
+     * @param value the value
+     */
+    private static void writeShort(final ByteArrayOutputStream out, final int value) {
+        out.write(value);
+        out.write(value >>> 8);
+    }
+}
@@ -0,0 +1,196 @@
+package gov.nih.mipav.model.file;
+
+
+import java.io.File;
+import java.io.IOException;
+
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+
+/**
+ * Tests of TiledRegionReader over a TiffTileSource. A small pyramidal TIFF file is written with its full resolution
+ * image uncompressed, a reduced level deflate compressed with the horizontal predictor, a thumbnail in strips and a
+ * further level LZW compressed, followed by a label image. The reader must find the three levels, return the pixels
+ * written for any region, and decode each tile once.
+ */
+public class TiledRegionReaderTest extends TestCase {
+
+    /** Width of the full resolution image. */
+    private static final int WIDTH = 300;
+
+    /** Height of the full resolution image. */
+    private static final int HEIGHT = 200;
+
+    /** Tile size of the levels. */
+    private static final int TILE = 64;
+
+    /** The test file. */
+    private File file;
+
+    /**
+     * Writes the test file.
+     *
+     * @throws Exception if the file cannot be written
+     */
+    protected void setUp() throws Exception {
+        file = File.createTempFile("mipavTiled", ".tif");
+        file.deleteOnExit();
+
+        final TiffTestWriter writer = new TiffTestWriter();
+        final int[] levels = {0, 1, 9, 2, 8};
+        final TiffTestWriter.Pattern pattern = new TiffTestWriter.Pattern() {
+            public int sample(final int image, final int x, final int y, final int s) {
+                final int level = levels[image];
+
+                return (s == 0) ? red(level, x, y) : ( (s == 1) ? green(level, x, y) : blue(level, x, y));
+            }
+        };
+
+        writer.addImage(pattern, WIDTH, HEIGHT, 3, 8, TiffTileDecoder.NONE, 1, TILE, 0);
+        writer.addImage(pattern, WIDTH / 2, HEIGHT / 2, 3, 8, TiffTileDecoder.DEFLATE, 2, TILE, 0);
+        writer.addImage(pattern, 60, 40, 3, 8, TiffTileDecoder.NONE, 1, 0, 40);
+        writer.addImage(pattern, WIDTH / 4, HEIGHT / 4, 3, 8, TiffTileDecoder.LZW, 1, TILE, 0);
+        writer.addImage(pattern, 100, 100, 3, 8, TiffTileDecoder.NONE, 1, 0, 100);
+        writer.write(file);
+    }
+
+    /**
+     * Checks the levels found.
+     *
+     * @throws IOException if the file cannot be read
+     */
+    public void testLevels() throws IOException {
+        final TiledRegionReader reader = new TiledRegionReader(new TiffTileSource(file), 1 << 20);
+
+        try {
+            Assert.assertEquals(3, reader.getLevelCount());
+            Assert.assertEquals(WIDTH / 4, reader.getLevelWidth(2));
+            Assert.assertEquals(HEIGHT / 4, reader.getLevelHeight(2));
+            Assert.assertEquals(4.0, reader.getDownsample(2), 1e-9);
+            Assert.assertEquals(0, reader.getBestLevel(1.5));
+            Assert.assertEquals(1, reader.getBestLevel(3));
+            Assert.assertEquals(2, reader.getBestLevel(10));
+        } finally {
+            reader.close();
+        }
+    }
+
+    /**
+     * Reads regions of every level, including regions across tile edges and beyond the image.
+     *
+     * @throws IOException if the file cannot be read
+     */
+    public void testRegions() throws IOException {
+        final TiledRegionReader reader = new TiledRegionReader(new TiffTileSource(file), 1 << 20);
+
+        try {
+
+            for (int level = 0; level < 3; level++) {
+                final int width = reader.getLevelWidth(level);
+                final int height = reader.getLevelHeight(level);
+
+                assertRegion(reader, level, 0, 0, width, height);
+                assertRegion(reader, level, TILE - 5, TILE - 7, 20, 30);
+                assertRegion(reader, level, -10, -3, 40, 25);
+                assertRegion(reader, level, width - 15, height - 9, 30, 20);
+            }
+        } finally {
+            reader.close();
+        }
+    }
+
+    /**
+     * Checks that a region read twice is decoded once, and that the cache keeps to its budget.
+     *
+     * @throws IOException if the file cannot be read
+     */
+    public void testCache() throws IOException {
+        final long tileBytes = 4L * TILE * TILE;
+        final TiledRegionReader reader = new TiledRegionReader(new TiffTileSource(file), 3 * tileBytes);
+
+        try {
+            reader.readRegion(0, 10, 10, 20, 20);
+            Assert.assertEquals(1, reader.getCache().getMisses());
+            reader.readRegion(0, 20, 20, 20, 20);
+            Assert.assertEquals(1, reader.getCache().getMisses());
+            Assert.assertEquals(1, reader.getCache().getHits());
+
+            reader.readRegion(0, 0, 0, WIDTH, HEIGHT);
+            Assert.assertTrue(reader.getCache().getUsed() <= (3 * tileBytes));
+            Assert.assertEquals(3, reader.getCache().size());
+        } finally {
+            reader.close();
+        }
+    }
+
+    /**
+     * Checks that a region read has the pixels written.
+     *
+     * @param reader the reader
+     * @param level the pyramid level
+     * @param x left edge of the region
+     * @param y top edge of the region
+     * @param width width of the region
+     * @param height height of the region
+     *
+     * @throws IOException if the file cannot be read
+     */
+    private static void assertRegion(final TiledRegionReader reader, final int level, final int x, final int y,
+            final int width, final int height) throws IOException {
+        final int[] region = reader.readRegion(level, x, y, width, height);
+
+        for (int j = 0; j < height; j++) {
+
+            for (int i = 0; i < width; i++) {
+                final int px = x + i;
+                final int py = y + j;
+                final boolean inside = (px >= 0) && (py >= 0) && (px < reader.getLevelWidth(level))
+                        && (py < reader.getLevelHeight(level));
+                final int expected = inside ? (0xff000000 | (red(level, px, py) << 16) | (green(level, px, py) << 8)
+                        | blue(level, px, py)) : 0;
+
+                Assert.assertEquals("level " + level + " pixel " + px + "," + py, expected, region[ (j * width) + i]);
+            }
+        }
+    }
+
+    /**
+     * Red value written at a pixel.
+     *
+     * @param level the pyramid level, or the subfile type of the image
+     * @param x column
+     * @param y row
+     *
+     * @return the value
+     */
+    private static int red(final int level, final int x, final int y) {
+        return ( (x * 7) + (level * 50)) & 0xff;
+    }
+
+    /**
+     * Green value written at a pixel.
+     *
+     * @param level the pyramid level, or the subfile type of the image
+     * @param x column
+     * @param y row
+     *
+     * @return the value
+     */
+    private static int green(final int level, final int x, final int y) {
+        return ( (y * 3) + ( (x * y) % 17)) & 0xff;
+    }
+
+    /**
+     * Blue value written at a pixel.
+     *
+     * @param level the pyramid level, or the subfile type of the image
+     * @param x column
+     * @param y row
+     *
+     * @return the value
+     */
+    private static int blue(final int level, final int x, final int y) {
+        return (x + y + level) & 0xff;
+    }
+}
@@ -0,0 +1,359 @@
+package gov.nih.mipav.model.structures;
+
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+
+/**
+ * Tests of the off-heap, long indexed buffers and of the long accessors of ModelStorageBase. The direct buffers must
+ * convert values like the java array buffers they stand in for, read mapped files in either byte order across their
+ * segments, and images too large for an int must be reachable through the long accessors while the int sized ones
+ * fail. The large buffers are mapped over sparse files, so they take little memory or disk.
+ */
+public class BufferDirectTest extends TestCase {
+
+    /** Number of elements of the buffers compared. */
+    private static final int LENGTH = 16;
+
+    /** Values stored, chosen to cross the range of every type and to need rounding or truncation. */
+    private static final double[] VALUES = new double[] {0, 1, -1, 2.5, -2.5, 127.6, -128.4, 255, 300, 65535,
+            70000, -70000, 2147483647.0, 4294967295.0, 1e10, -1e10};
+
+    /** Number of setters of BufferBase tried by store(). */
+    private static final int SETTERS = 11;
+
+    /** Number of getters of BufferBase compared by load(). */
+    private static final int GETTERS = 11;
+
+    /**
+     * Stores the same values in each direct buffer and its java array counterpart with every setter, and checks that
+     * every getter returns the same from both.
+     */
+    public void testConversions() {
+        final BufferBase[][] pairs = new BufferBase[][] {
+                {new BufferByte(LENGTH), new BufferDirectByte(LENGTH)},
+                {new BufferUByte(LENGTH), new BufferDirectUByte(LENGTH)},
+                {new BufferShort(LENGTH), new BufferDirectShort(LENGTH)},
+                {new BufferUShort(LENGTH), new BufferDirectUShort(LENGTH)},
+                {new BufferInt(LENGTH), new BufferDirectInt(LENGTH)},
+                {new BufferUInt(LENGTH), new BufferDirectUInt(LENGTH)},
+                {new BufferLong(LENGTH), new BufferDirectLong(LENGTH)},
+                {new BufferFloat(LENGTH), new BufferDirectFloat(LENGTH)},
+                {new BufferDouble(LENGTH), new BufferDirectDouble(LENGTH)}};
+
+        for (final BufferBase[] pair : pairs) {
+            final String name = pair[1].getClass().getSimpleName();
+
+            Assert.assertEquals(name, pair[0].length(), pair[1].length());
+            Assert.assertEquals(name, pair[0].getType(), pair[1].getType());
+
+            for (int setter = 0; setter < SETTERS; setter++) {
+
+                for (int i = 0; i < VALUES.length; i++) {
+                    final int position = i % LENGTH;
+
+                    Assert.assertEquals(name + " setter " + setter + " of " + VALUES[i], store(pair[0], setter,
+                            position, VALUES[i]), store(pair[1], setter, position, VALUES[i]));
+
+                    for (int getter = 0; getter < GETTERS; getter++) {
+                        Assert.assertEquals(name + " setter " + setter + ", getter " + getter + " of " + VALUES[i],
+                                load(pair[0], getter, position), load(pair[1], getter, position));
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Checks that a copy of a direct buffer holds its values and is independent of it.
+     */
+    public void testCopy() {
+        final BufferDirectFloat buffer = new BufferDirectFloat(LENGTH);
+
+        for (int i = 0; i < LENGTH; i++) {
+            buffer.setFloat(i, i * 1.5f);
+        }
+
+        final BufferDirectBase copy = (BufferDirectBase) buffer.copy();
+
+        buffer.setFloat(3, -1f);
+
+        for (int i = 0; i < LENGTH; i++) {
+            Assert.assertEquals("Element " + i, i * 1.5f, copy.getFloat(i), 0f);
+        }
+
+        Assert.assertEquals(LENGTH, copy.longLength());
+        Assert.assertFalse(copy.isMapped());
+    }
+
+    /**
+     * Maps buffers of 16 and 32 bit samples over a sparse file whose values straddle the end of the first segment, in
+     * both byte orders, and checks the values read and that changes are not written to the file.
+     *
+     * @throws IOException if the file cannot be written or mapped
+     */
+    public void testMappedSegments() throws IOException {
+        // one element past the first segment of both types
+        final long shorts = (1L << (BufferDirectBase.SEGMENT_SHIFT - 1)) + 2;
+        final long ints = (1L << (BufferDirectBase.SEGMENT_SHIFT - 2)) + 2;
+        final long boundary = 1L << BufferDirectBase.SEGMENT_SHIFT;
+        final File file = File.createTempFile("mipavDirect", ".raw");
+        final RandomAccessFile raFile = new RandomAccessFile(file, "rw");
+
+        file.deleteOnExit();
+
+        try {
+            raFile.setLength(boundary + 8);
+
+            // big endian 0x1234, 0xfedc on either side of the boundary, then 0x01020304 read as one int each way
+            raFile.seek(boundary - 2);
+            raFile.write(new byte[] {0x12, 0x34, (byte) 0xfe, (byte) 0xdc});
+            raFile.seek(boundary + 4);
+            raFile.write(new byte[] {1, 2, 3, 4});
+
+            final FileChannel channel = raFile.getChannel();
+            final BufferDirectUShort bigShorts = new BufferDirectUShort(channel, 0, shorts, true);
+            final BufferDirectUShort littleShorts = new BufferDirectUShort(channel, 0, shorts, false);
+            final BufferDirectInt bigInts = new BufferDirectInt(channel, 0, ints, true);
+            final BufferDirectInt littleInts = new BufferDirectInt(channel, 0, ints, false);
+
+            Assert.assertTrue(bigShorts.isMapped());
+            Assert.assertEquals(shorts, bigShorts.longLength());
+            Assert.assertEquals(0x1234, bigShorts.getUShort( (boundary / 2) - 1));
+            Assert.assertEquals(0xfedc, bigShorts.getUShort(boundary / 2));
+            Assert.assertEquals(0x3412, littleShorts.getUShort( (boundary / 2) - 1));
+            Assert.assertEquals(0xdcfe, littleShorts.getUShort(boundary / 2));
+            Assert.assertEquals(0x01020304, bigInts.getInt( (boundary / 4) + 1));
+            Assert.assertEquals(0x04030201, littleInts.getInt( (boundary / 4) + 1));
+            Assert.assertEquals(0, bigInts.getInt(0));
+
+            bigShorts.setUShort( (boundary / 2) - 1, 40000);
+            bigShorts.setUShort(boundary / 2, 7);
+            Assert.assertEquals(40000, bigShorts.getUShort( (boundary / 2) - 1));
+            Assert.assertEquals(7, bigShorts.getUShort(boundary / 2));
+
+            // the mappings are private, so the file keeps its values
+            final byte[] stored = new byte[4];
+
+            raFile.seek(boundary - 2);
+            raFile.readFully(stored);
+            Assert.assertEquals(0x12, stored[0]);
+            Assert.assertEquals((byte) 0xdc, stored[3]);
+
+            try {
+                new BufferDirectShort(channel, boundary, 8, true);
+                Assert.fail("A buffer was mapped past the end of the file");
+            } catch (final IOException e) {
+                // expected
+            }
+        } finally {
+            raFile.close();
+            file.delete();
+        }
+    }
+
+    /**
+     * Maps an unsigned byte image of more than Integer.MAX_VALUE voxels and checks the long accessors beyond the int
+     * range, and that the int sized ones fail.
+     *
+     * @throws IOException if the file cannot be written or mapped
+     */
+    public void testLargeImage() throws IOException {
+        final int[] extents = new int[] {1 << 16, (1 << 15) + 1};
+        final long size = (long) extents[0] * extents[1];
+        final ModelStorageBase image = new ModelStorageBase(ModelStorageBase.DataType.UBYTE, extents, false);
+        final File file = File.createTempFile("mipavLarge", ".raw");
+        final RandomAccessFile raFile = new RandomAccessFile(file, "rw");
+
+        file.deleteOnExit();
+
+        try {
+            Assert.assertEquals(size, image.getLongDataSize());
+
+            try {
+                image.getDataSize();
+                Assert.fail("An int size was returned for " + size + " voxels");
+            } catch (final IllegalStateException e) {
+                // expected
+            }
+
+            raFile.setLength(size + 100);
+            raFile.seek(size + 99);
+            raFile.write(0xf0);
+            image.mapData(file, raFile.getChannel(), 100, false);
+
+            Assert.assertTrue(image.isDirect());
+            Assert.assertTrue(image.isMapped());
+            Assert.assertTrue(image.isMappedFrom(file));
+            Assert.assertEquals(240f, image.getFloat(size - 1), 0f);
+            Assert.assertEquals(0f, image.getFloat(Integer.MAX_VALUE + 1L), 0f);
+
+            image.set(Integer.MAX_VALUE + 10L, 200f);
+            Assert.assertEquals(200f, image.getFloat(Integer.MAX_VALUE + 10L), 0f);
+            Assert.assertEquals(200.0, image.getDouble(Integer.MAX_VALUE + 10L), 0.0);
+
+            final long start = size - 8;
+            final byte[] values = new byte[] {1, 2, 3, 4, 5, 6, 7, (byte) 255};
+            final float[] floats = new float[8];
+
+            image.importData(start, values, false);
+            image.exportData(start, floats.length, floats);
+
+            for (int i = 0; i < floats.length; i++) {
+                Assert.assertEquals("Voxel " + (start + i), values[i] & 0xff, floats[i], 0f);
+            }
+
+            final float[] written = new float[] {9, 8, 7};
+            final double[] doubles = new double[5];
+
+            image.setFloats(size - 3, written, 0, written.length);
+            image.getDoubles(size - 5, doubles, 0, doubles.length);
+            Assert.assertEquals(4.0, doubles[0], 0.0);
+            Assert.assertEquals(5.0, doubles[1], 0.0);
+            Assert.assertEquals(9.0, doubles[2], 0.0);
+            Assert.assertEquals(7.0, doubles[4], 0.0);
+        } finally {
+            image.disposeLocal();
+            raFile.close();
+            file.delete();
+        }
+    }
+
+    /**
+     * Checks that a boolean image of more than Integer.MAX_VALUE voxels, which cannot be held off-heap, is refused.
+     */
+    public void testLargeBoolean() {
+
+        try {
+            new ModelStorageBase(ModelStorageBase.DataType.BOOLEAN, new int[] {1 << 16, (1 << 15) + 1}, false);
+            Assert.fail("A boolean image of more than Integer.MAX_VALUE voxels was made");
+        } catch (final IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    /**
+     * Stores a value with one of the setters of a buffer.
+     *
+     * @param buffer the buffer
+     * @param setter index of the setter
+     * @param position position in the buffer
+     * @param value the value, cast as the setter requires
+     *
+     * @return the name of the exception thrown, or null
+     */
+    private static String store(final BufferBase buffer, final int setter, final int position, final double value) {
+
+        try {
+
+            switch (setter) {
+
+                case 0:
+                    buffer.setDouble(position, value);
+                    break;
+
+                case 1:
+                    buffer.setFloat(position, (float) value);
+                    break;
+
+                case 2:
+                    buffer.setLong(position, (long) value);
+                    break;
+
+                case 3:
+                    buffer.setInt(position, (int) value);
+                    break;
+
+                case 4:
+                    buffer.setShort(position, (short) value);
+                    break;
+
+                case 5:
+                    buffer.setByte(position, (byte) value);
+                    break;
+
+                case 6:
+                    buffer.setUByte(position, (short) value);
+                    break;
+
+                case 7:
+                    buffer.setUShort(position, (int) value);
+                    break;
+
+                case 8:
+                    buffer.setUInt(position, (long) value);
+                    break;
+
+                case 9:
+                    buffer.setBoolean(position, value != 0);
+                    break;
+
+                default:
+                    buffer.set(position, Double.valueOf(value));
+            }
+        } catch (final RuntimeException e) {
+            return e.getClass().getName();
+        }
+
+        return null;
+    }
+
+    /**
+     * Reads a value with one of the getters of a buffer.
+     *
+     * @param buffer the buffer
+     * @param getter index of the getter
+     * @param position position in the buffer
+     *
+     * @return the value read, or the name of the exception thrown
+     */
+    private static Object load(final BufferBase buffer, final int getter, final int position) {
+
+        try {
+
+            switch (getter) {
+
+                case 0:
+                    return Double.valueOf(buffer.getDouble(position));
+
+                case 1:
+                    return Float.valueOf(buffer.getFloat(position));
+
+                case 2:
+                    return Long.valueOf(buffer.getLong(position));
+
+                case 3:
+                    return Integer.valueOf(buffer.getInt(position));
+
+                case 4:
+                    return Short.valueOf(buffer.getShort(position));
+
+                case 5:
+                    return Byte.valueOf(buffer.getByte(position));
+
+                case 6:
+                    return Short.valueOf(buffer.getUByte(position));
+
+                case 7:
+                    return Integer.valueOf(buffer.getUShort(position));
+
+                case 8:
+                    return Long.valueOf(buffer.getUInt(position));
+
+                case 9:
+                    return Boolean.valueOf(buffer.getBoolean(position));
+
+                default:
+                    return buffer.get(position);
+            }
+        } catch (final RuntimeException e) {
+            return e.getClass().getName();
+        }
+    }
+}
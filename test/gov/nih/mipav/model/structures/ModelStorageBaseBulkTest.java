@@ -0,0 +1,418 @@
+package gov.nih.mipav.model.structures;
+
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+
+/**
+ * Tests of the bulk and slab accessors. The bulk getters and setters of every buffer must convert each value as the
+ * single value getters and setters do and touch only the range asked for, and the slab exports and imports and the
+ * long start imports and exports of ModelStorageBase must agree with voxel by voxel access, on java array buffers and
+ * on mapped off-heap buffers alike.
+ */
+public class ModelStorageBaseBulkTest extends TestCase {
+
+    /** Number of elements of the buffers. */
+    private static final int LENGTH = 40;
+
+    /** Number of buffer types made by buffer(). */
+    private static final int BUFFERS = 19;
+
+    /** Extents of the images, with slices of 20 voxels. */
+    private static final int[] EXTENTS = new int[] {5, 4, 6};
+
+    /** Voxels per slice. */
+    private static final int SLICE = EXTENTS[0] * EXTENTS[1];
+
+    /** Voxels of the images. */
+    private static final int SIZE = SLICE * EXTENTS[2];
+
+    /** Values stored, chosen to cross the range of every type and to need rounding or truncation. */
+    private static final double[] VALUES = new double[] {0, 1, -1, 2.5, -2.5, 127.6, -128.4, 255, 300, 65535,
+            70000, -70000, 2147483647.0, 4294967295.0, 1e10, -1e10};
+
+    /** Types that can be held both in java arrays and in mapped buffers. */
+    private static final ModelStorageBase.DataType[] TYPES = new ModelStorageBase.DataType[] {
+            ModelStorageBase.DataType.BYTE, ModelStorageBase.DataType.UBYTE, ModelStorageBase.DataType.SHORT,
+            ModelStorageBase.DataType.USHORT, ModelStorageBase.DataType.INTEGER, ModelStorageBase.DataType.UINTEGER,
+            ModelStorageBase.DataType.LONG, ModelStorageBase.DataType.FLOAT, ModelStorageBase.DataType.DOUBLE};
+
+    /**
+     * Checks the bulk getters of every buffer against its single value getters, and that they leave the rest of the
+     * destination array alone.
+     */
+    public void testBulkGetters() {
+
+        for (int k = 0; k < BUFFERS; k++) {
+            final BufferBase buffer = buffer(k);
+            final String name = buffer.getClass().getSimpleName();
+            final float[] floats = new float[LENGTH];
+            final double[] doubles = new double[LENGTH];
+
+            fill(buffer);
+            java.util.Arrays.fill(floats, -7f);
+            java.util.Arrays.fill(doubles, -7.0);
+            buffer.getFloats(5, floats, 2, 30);
+            buffer.getDoubles(9, doubles, 4, 31);
+
+            for (int i = 0; i < LENGTH; i++) {
+                final float expectedFloat = ( (i >= 2) && (i < 32)) ? buffer.getFloat(i + 3) : -7f;
+                final double expectedDouble = ( (i >= 4) && (i < 35)) ? buffer.getDouble(i + 5) : -7.0;
+
+                Assert.assertEquals(name + " float " + i, expectedFloat, floats[i], 0f);
+                Assert.assertEquals(name + " double " + i, expectedDouble, doubles[i], 0.0);
+            }
+        }
+    }
+
+    /**
+     * Checks the bulk setters of every buffer against its single value setters, and that they leave the rest of the
+     * buffer alone.
+     */
+    public void testBulkSetters() {
+
+        for (int k = 0; k < BUFFERS; k++) {
+            final BufferBase buffer = buffer(k);
+            final BufferBase reference = buffer(k);
+            final String name = buffer.getClass().getSimpleName();
+            final float[] floats = new float[LENGTH];
+            final double[] doubles = new double[LENGTH];
+
+            fill(buffer);
+            fill(reference);
+
+            for (int i = 0; i < LENGTH; i++) {
+                floats[i] = (float) value(i + 7);
+                doubles[i] = value(i + 11);
+            }
+
+            buffer.setFloats(3, floats, 6, 20);
+            buffer.setDoubles(25, doubles, 1, 14);
+
+            for (int i = 0; i < 20; i++) {
+                reference.setFloat(3 + i, floats[6 + i]);
+            }
+
+            for (int i = 0; i < 14; i++) {
+                reference.setDouble(25 + i, doubles[1 + i]);
+            }
+
+            for (int i = 0; i < LENGTH; i++) {
+                Assert.assertEquals(name + " element " + i, reference.getDouble(i), buffer.getDouble(i), 0.0);
+            }
+        }
+    }
+
+    /**
+     * Checks exportSlabXY() and importSlabXY() against voxel by voxel access for every type, held in a java array and
+     * mapped, and that slabs reaching past the last slice are refused.
+     *
+     * @throws IOException if a temporary file cannot be mapped
+     */
+    public void testSlabs() throws IOException {
+
+        for (final ModelStorageBase.DataType type : TYPES) {
+
+            for (int mapped = 0; mapped < 2; mapped++) {
+                final String name = type + ( (mapped == 1) ? " mapped" : "");
+                final File file = File.createTempFile("mipavBulk", ".raw");
+                final RandomAccessFile raFile = new RandomAccessFile(file, "rw");
+                final ModelStorageBase image = image(type, (mapped == 1) ? raFile : null, file);
+                final ModelStorageBase reference = image(type, null, null);
+
+                file.deleteOnExit();
+
+                try {
+                    final float[] floats = new float[3 * SLICE];
+                    final double[] doubles = new double[2 * SLICE];
+
+                    image.exportSlabXY(1, 3, floats);
+                    image.exportSlabXY(4, 2, doubles);
+
+                    for (int i = 0; i < floats.length; i++) {
+                        Assert.assertEquals(name + " float slab " + i, reference.getFloat(SLICE + i), floats[i], 0f);
+                    }
+
+                    for (int i = 0; i < doubles.length; i++) {
+                        Assert.assertEquals(name + " double slab " + i, reference.getDouble( (4 * SLICE) + i),
+                                doubles[i], 0.0);
+                    }
+
+                    for (int i = 0; i < floats.length; i++) {
+                        floats[i] = (float) value(i + 5);
+                        reference.set(SLICE + i, floats[i]);
+                    }
+
+                    for (int i = 0; i < doubles.length; i++) {
+                        doubles[i] = value(i + 9);
+                        reference.set( (3 * SLICE) + i, doubles[i]);
+                    }
+
+                    image.importSlabXY(1, floats, false);
+                    image.importSlabXY(3, doubles, true);
+                    assertSameValues(name + " slab import", reference, image);
+
+                    try {
+                        image.exportSlabXY(5, 2, doubles);
+                        Assert.fail(name + " exported a slab past the last slice");
+                    } catch (final IOException e) {
+                        // expected
+                    }
+
+                    try {
+                        image.importSlabXY(5, doubles, false);
+                        Assert.fail(name + " imported a slab past the last slice");
+                    } catch (final IOException e) {
+                        // expected
+                    }
+                } finally {
+                    image.disposeLocal();
+                    reference.disposeLocal();
+                    raFile.close();
+                    file.delete();
+                }
+            }
+        }
+    }
+
+    /**
+     * Checks importData() of every array type and exportData() to floats and doubles from long start positions
+     * against voxel by voxel access for every type, held in a java array and mapped, and that ranges past the end are
+     * refused.
+     *
+     * @throws IOException if a temporary file cannot be mapped
+     */
+    public void testLongStarts() throws IOException {
+
+        for (final ModelStorageBase.DataType type : TYPES) {
+
+            for (int mapped = 0; mapped < 2; mapped++) {
+                final String name = type + ( (mapped == 1) ? " mapped" : "");
+                final File file = File.createTempFile("mipavBulk", ".raw");
+                final RandomAccessFile raFile = new RandomAccessFile(file, "rw");
+                final ModelStorageBase image = image(type, (mapped == 1) ? raFile : null, file);
+                final ModelStorageBase reference = image(type, null, null);
+
+                file.deleteOnExit();
+
+                try {
+                    final int length = 17;
+                    final byte[] bytes = new byte[length];
+                    final short[] shorts = new short[length];
+                    final int[] ints = new int[length];
+                    final long[] longs = new long[length];
+                    final float[] floats = new float[length];
+                    final double[] doubles = new double[length];
+
+                    for (int i = 0; i < length; i++) {
+                        bytes[i] = (byte) value(i);
+                        shorts[i] = (short) value(i + 1);
+                        ints[i] = (int) value(i + 2);
+                        longs[i] = (long) value(i + 3);
+                        floats[i] = (float) value(i + 4);
+                        doubles[i] = value(i + 5);
+                    }
+
+                    image.importData(2L, bytes, false);
+                    image.importData(20L, shorts, false);
+                    image.importData(38L, ints, false);
+                    image.importData(56L, longs, false);
+                    image.importData(74L, floats, false);
+                    image.importData( (long) SIZE - length, doubles, true);
+
+                    for (int i = 0; i < length; i++) {
+                        reference.set(2 + i, bytes[i]);
+                        reference.set(position(20 + i), shorts[i]);
+                        reference.set(38 + i, ints[i]);
+                        reference.set(56 + i, longs[i]);
+                        reference.set(74 + i, floats[i]);
+                        reference.set( (SIZE - length) + i, doubles[i]);
+                    }
+
+                    assertSameValues(name + " import", reference, image);
+
+                    image.exportData(40L, length, floats);
+                    image.exportData( (long) SIZE - length, length, doubles);
+
+                    for (int i = 0; i < length; i++) {
+                        Assert.assertEquals(name + " float " + i, reference.getFloat(40 + i), floats[i], 0f);
+                        Assert.assertEquals(name + " double " + i, reference.getDouble( (SIZE - length) + i),
+                                doubles[i], 0.0);
+                    }
+
+                    try {
+                        image.exportData( (long) SIZE - 2, length, floats);
+                        Assert.fail(name + " exported past the end");
+                    } catch (final IOException e) {
+                        // expected
+                    }
+
+                    try {
+                        image.importData( (long) SIZE - 2, doubles, false);
+                        Assert.fail(name + " imported past the end");
+                    } catch (final IOException e) {
+                        // expected
+                    }
+                } finally {
+                    image.disposeLocal();
+                    reference.disposeLocal();
+                    raFile.close();
+                    file.delete();
+                }
+            }
+        }
+    }
+
+    /**
+     * Makes one of the buffer types, numbered from 0 to BUFFERS - 1.
+     *
+     * @param k number of the buffer type
+     *
+     * @return a new buffer of LENGTH elements
+     */
+    private static BufferBase buffer(final int k) {
+
+        switch (k) {
+
+            case 0:
+                return new BufferBoolean(LENGTH);
+
+            case 1:
+                return new BufferByte(LENGTH);
+
+            case 2:
+                return new BufferUByte(LENGTH);
+
+            case 3:
+                return new BufferShort(LENGTH);
+
+            case 4:
+                return new BufferUShort(LENGTH);
+
+            case 5:
+                return new BufferInt(LENGTH);
+
+            case 6:
+                return new BufferUInt(LENGTH);
+
+            case 7:
+                return new BufferLong(LENGTH);
+
+            case 8:
+                return new BufferFloat(LENGTH);
+
+            case 9:
+                return new BufferDouble(LENGTH);
+
+            case 10:
+                return new BufferDirectByte(LENGTH);
+
+            case 11:
+                return new BufferDirectUByte(LENGTH);
+
+            case 12:
+                return new BufferDirectShort(LENGTH);
+
+            case 13:
+                return new BufferDirectUShort(LENGTH);
+
+            case 14:
+                return new BufferDirectInt(LENGTH);
+
+            case 15:
+                return new BufferDirectUInt(LENGTH);
+
+            case 16:
+                return new BufferDirectLong(LENGTH);
+
+            case 17:
+                return new BufferDirectFloat(LENGTH);
+
+            default:
+                return new BufferDirectDouble(LENGTH);
+        }
+    }
+
+    /**
+     * Makes an image filled with value(), held in a java array or mapped over a zeroed temporary file.
+     *
+     * @param type the data type
+     * @param raFile the temporary file to map, or null for a java array
+     * @param file the temporary file
+     *
+     * @return the image
+     *
+     * @throws IOException if the file cannot be mapped
+     */
+    private static ModelStorageBase image(final ModelStorageBase.DataType type, final RandomAccessFile raFile,
+            final File file) throws IOException {
+        final ModelStorageBase image = new ModelStorageBase(type, EXTENTS);
+
+        if (raFile != null) {
+            // eight bytes a voxel, enough for every type
+            raFile.setLength(SIZE * 8L);
+            image.mapData(file, raFile.getChannel(), 0, true);
+            Assert.assertTrue(type.toString(), image.isMapped());
+        }
+
+        for (int i = 0; i < SIZE; i++) {
+            image.set(i, value(i));
+        }
+
+        return image;
+    }
+
+    /**
+     * Stores value() in every element of a buffer with the single value setter.
+     *
+     * @param buffer the buffer
+     */
+    private static void fill(final BufferBase buffer) {
+
+        for (int i = 0; i < LENGTH; i++) {
+            buffer.setDouble(i, value(i));
+        }
+    }
+
+    /**
+     * Returns the value stored at an index, stepping through VALUES and growing from one run of them to the next.
+     *
+     * @param i the index
+     *
+     * @return the value
+     */
+    private static double value(final int i) {
+        return VALUES[i % VALUES.length] + (3 * (i / VALUES.length));
+    }
+
+    /**
+     * Returns the coordinates of a voxel of the images.
+     *
+     * @param i position of the voxel in the data
+     *
+     * @return its x, y and z coordinates
+     */
+    private static int[] position(final int i) {
+        return new int[] {i % EXTENTS[0], (i / EXTENTS[0]) % EXTENTS[1], i / SLICE};
+    }
+
+    /**
+     * Checks that two images hold the same values.
+     *
+     * @param message prefix of the failure messages
+     * @param expected the image holding the expected values
+     * @param actual the image checked
+     */
+    private static void assertSameValues(final String message, final ModelStorageBase expected,
+            final ModelStorageBase actual) {
+
+        for (int i = 0; i < SIZE; i++) {
+            Assert.assertEquals(message + " voxel " + i, expected.getDouble(i), actual.getDouble(i), 0.0);
+        }
+    }
+}
@@ -0,0 +1,259 @@
+package gov.nih.mipav.model.structures;
+
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+
+/**
+ * Tests of the striped data locks of ModelStorageBase. Writers import whole slice ranges filled with one version number
+ * while readers export overlapping and disjoint ranges; every export must see each write whole, and no thread may
+ * deadlock. The lock status checks of imports and exports are tested as well.
+ */
+public class ModelStorageBaseLockTest extends TestCase {
+
+    /** Width and height of the slices. */
+    private static final int SIZE = 24;
+
+    /** Values per slice. */
+    private static final int SLICE = SIZE * SIZE;
+
+    /** Number of slices, more than the lock stripes so that stripes are shared by slices. */
+    private static final int SLICES = 40;
+
+    /** Time the threads run, in milliseconds. */
+    private static final long RUN_TIME = 1500;
+
+    /** Version numbers written, shared by all writers so that every write is distinct. */
+    private final AtomicInteger versions = new AtomicInteger();
+
+    /**
+     * Runs writers and readers over overlapping and disjoint slice ranges at once.
+     *
+     * @throws Exception if a thread fails or the test is interrupted
+     */
+    public void testConcurrentImportExport() throws Exception {
+        final ModelStorageBase image = new ModelStorageBase(ModelStorageBase.INTEGER, new int[] {SIZE, SIZE, SLICES});
+        final AtomicBoolean stop = new AtomicBoolean();
+        final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+        final AtomicInteger checks = new AtomicInteger();
+        final Thread[] threads = new Thread[] {
+                // overlapping writers, one of them computing the min and max
+                writer(image, 0, 10, true, stop, failure), writer(image, 5, 15, false, stop, failure),
+                // writer of random ranges in the disjoint part
+                randomWriter(image, stop, failure),
+                // readers of the overlap, across both writers, and of the disjoint part
+                reader(image, 0, 10, stop, failure, checks), reader(image, 0, 15, stop, failure, checks),
+                reader(image, 5, 15, stop, failure, checks), reader(image, 20, SLICES, stop, failure, checks),
+                reader(image, 0, SLICES, stop, failure, checks)};
+
+        for (final Thread thread : threads) {
+            thread.start();
+        }
+
+        Thread.sleep(RUN_TIME);
+        stop.set(true);
+
+        for (final Thread thread : threads) {
+            thread.join(30000);
+
+            if (thread.isAlive()) {
+                final long[] deadlocked = ManagementFactory.getThreadMXBean().findDeadlockedThreads();
+
+                Assert.fail(thread.getName() + " did not end, deadlocked threads: "
+                        + ( (deadlocked == null) ? 0 : deadlocked.length));
+            }
+        }
+
+        if (failure.get() != null) {
+            throw new AssertionError(failure.get());
+        }
+
+        Assert.assertTrue("Too few exports were checked: " + checks.get(), checks.get() > 10);
+        image.disposeLocal();
+    }
+
+    /**
+     * Checks that a W_LOCKED image can be read by any thread and written only by the thread that locked it, and that
+     * an RW_LOCKED image can be neither read nor written.
+     *
+     * @throws Exception if the image cannot be accessed when it should
+     */
+    public void testLockStatus() throws Exception {
+        final ModelStorageBase image = new ModelStorageBase(ModelStorageBase.INTEGER, new int[] {SIZE, SIZE, 2});
+        final int[] values = new int[SLICE];
+        final AtomicReference<Throwable> other = new AtomicReference<Throwable>();
+
+        image.setLock(ModelStorageBase.W_LOCKED);
+
+        try {
+            image.setLock(ModelStorageBase.W_LOCKED);
+            image.importData(0, values, false);
+            image.exportData(0, SLICE, values);
+
+            final Thread thread = new Thread() {
+                public void run() {
+
+                    try {
+                        image.exportData(0, SLICE, new int[SLICE]);
+                        image.importData(0, new int[SLICE], false);
+                    } catch (final Throwable e) {
+                        other.set(e);
+                    }
+                }
+            };
+
+            thread.start();
+            thread.join();
+            Assert.assertTrue("Another thread imported into a W_LOCKED image", other.get() instanceof IOException);
+            Assert.assertEquals(ModelStorageBase.W_LOCKED, image.getLockStatus());
+        } finally {
+            image.releaseLock();
+        }
+
+        Assert.assertEquals(ModelStorageBase.UNLOCKED, image.getLockStatus());
+        image.setLock(ModelStorageBase.RW_LOCKED);
+
+        try {
+            image.exportData(0, SLICE, values);
+            Assert.fail("An RW_LOCKED image was exported");
+        } catch (final IOException e) {
+            // expected
+        }
+
+        try {
+            image.importData(0, values, false);
+            Assert.fail("An RW_LOCKED image was imported");
+        } catch (final IOException e) {
+            // expected
+        }
+
+        image.releaseLock();
+        image.importData(0, values, false);
+        image.disposeLocal();
+    }
+
+    /**
+     * Returns a thread that writes a new version to a fixed slice range until stopped.
+     *
+     * @param image the image
+     * @param first first slice
+     * @param end slice after the last
+     * @param minMax whether the imports compute the min and max
+     * @param stop set to stop the thread
+     * @param failure first failure of a thread
+     *
+     * @return the thread
+     */
+    private Thread writer(final ModelStorageBase image, final int first, final int end, final boolean minMax,
+            final AtomicBoolean stop, final AtomicReference<Throwable> failure) {
+        return new Thread("writer " + first + "-" + end) {
+            public void run() {
+                final int[] values = new int[ (end - first) * SLICE];
+
+                try {
+
+                    while ( !stop.get()) {
+                        java.util.Arrays.fill(values, versions.incrementAndGet());
+                        image.importData(first * SLICE, values, minMax);
+                    }
+                } catch (final Throwable e) {
+                    failure.compareAndSet(null, e);
+                }
+            }
+        };
+    }
+
+    /**
+     * Returns a thread that writes new versions to random slice ranges of the second half of the image until stopped.
+     *
+     * @param image the image
+     * @param stop set to stop the thread
+     * @param failure first failure of a thread
+     *
+     * @return the thread
+     */
+    private Thread randomWriter(final ModelStorageBase image, final AtomicBoolean stop,
+            final AtomicReference<Throwable> failure) {
+        return new Thread("random writer") {
+            public void run() {
+                final Random random = new Random(3);
+
+                try {
+
+                    while ( !stop.get()) {
+                        final int first = 20 + random.nextInt(SLICES - 20);
+                        final int[] values = new int[ (1 + random.nextInt(SLICES - first)) * SLICE];
+
+                        java.util.Arrays.fill(values, versions.incrementAndGet());
+                        image.importData(first * SLICE, values, false);
+                    }
+                } catch (final Throwable e) {
+                    failure.compareAndSet(null, e);
+                }
+            }
+        };
+    }
+
+    /**
+     * Returns a thread that exports a slice range until stopped and checks that every slice holds one version, and
+     * that the slices written together by the fixed writers hold the same version.
+     *
+     * @param image the image
+     * @param first first slice
+     * @param end slice after the last
+     * @param stop set to stop the thread
+     * @param failure first failure of a thread
+     * @param checks count of the exports checked
+     *
+     * @return the thread
+     */
+    private Thread reader(final ModelStorageBase image, final int first, final int end, final AtomicBoolean stop,
+            final AtomicReference<Throwable> failure, final AtomicInteger checks) {
+        return new Thread("reader " + first + "-" + end) {
+            public void run() {
+                final int[] values = new int[ (end - first) * SLICE];
+
+                try {
+
+                    while ( !stop.get()) {
+                        image.exportData(first * SLICE, values.length, values);
+
+                        for (int z = first; z < end; z++) {
+                            final int version = values[ (z - first) * SLICE];
+
+                            for (int i = 1; i < SLICE; i++) {
+                                Assert.assertEquals("Slice " + z + " was torn", version, values[ ( (z - first) * SLICE)
+                                        + i]);
+                            }
+                        }
+
+                        // slices 0-4 are only written by the first writer and 10-14 only by the second, while
+                        // slices 5-9 hold the version of whichever wrote last
+                        if ( (first == 0) && (end >= 10)) {
+                            Assert.assertEquals("Slices 0-4", values[0], values[4 * SLICE]);
+                            Assert.assertEquals("Slices 5-9", values[5 * SLICE], values[9 * SLICE]);
+                        }
+
+                        if ( (first == 0) && (end >= 15)) {
+                            Assert.assertEquals("Slices 10-14", values[10 * SLICE], values[14 * SLICE]);
+                            Assert.assertTrue("Slices 5-9 hold neither version", (values[5 * SLICE] == values[0])
+                                    || (values[5 * SLICE] == values[10 * SLICE]));
+                        }
+
+                        checks.incrementAndGet();
+                    }
+                } catch (final Throwable e) {
+                    failure.compareAndSet(null, e);
+                }
+            }
+        };
+    }
+}
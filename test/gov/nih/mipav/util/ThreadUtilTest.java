@@ -0,0 +1,272 @@
+package gov.nih.mipav.util;
+
+
+import gov.nih.mipav.model.algorithms.AlgorithmBase;
+import gov.nih.mipav.view.Preferences;
+
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+
+/**
+ * Tests of the scheduling of ThreadUtil: the fair share of running algorithms, the limits on the tasks run at once by
+ * parallelFor() and the job executors, the exceptions of parallelFor() and the cancellation of algorithm and executor
+ * tasks.
+ */
+public class ThreadUtilTest extends TestCase {
+
+    /**
+     * Checks that the budget is divided between running jobs, and that an algorithm takes its share when it starts.
+     */
+    public void testFairShare() {
+        final int budget = Preferences.getNumberOfThreads();
+        final int[] used = new int[1];
+        final AlgorithmBase algorithm = new AlgorithmBase() {
+            public void runAlgorithm() {
+                used[0] = nthreads;
+            }
+        };
+
+        algorithm.setNumberOfThreads(64);
+        Assert.assertEquals(12, ThreadUtil.getFairShare(12));
+        ThreadUtil.beginJob();
+        ThreadUtil.beginJob();
+
+        try {
+            Assert.assertEquals(6, ThreadUtil.getFairShare(12));
+            Assert.assertEquals(1, ThreadUtil.getFairShare(1));
+            algorithm.run();
+        } finally {
+            ThreadUtil.endJob();
+            ThreadUtil.endJob();
+        }
+
+        Assert.assertEquals("Share of the third job", Math.min(64, (budget + 2) / 3), used[0]);
+        Assert.assertEquals("Threads asked for after the run", 64, algorithm.getNumberOfThreads());
+        Assert.assertEquals(12, ThreadUtil.getFairShare(12));
+    }
+
+    /**
+     * Checks that parallelFor() runs every index once and no more tasks at once than its parallelism.
+     */
+    public void testParallelism() {
+        final AtomicIntegerArray runs = new AtomicIntegerArray(64);
+        final Concurrency concurrency = new Concurrency();
+
+        ThreadUtil.parallelFor(runs.length(), 3, new ThreadUtil.IndexedTask() {
+            public void run(final int index) {
+                concurrency.enter();
+                runs.incrementAndGet(index);
+                concurrency.exit();
+            }
+        });
+
+        for (int i = 0; i < runs.length(); i++) {
+            Assert.assertEquals("Runs of index " + i, 1, runs.get(i));
+        }
+
+        Assert.assertTrue("Tasks at once " + concurrency.max.get(), concurrency.max.get() <= 3);
+    }
+
+    /**
+     * Runs two jobs at once, each asking for more tasks than there are workers, and checks that together they run no
+     * more tasks at once than the compute workers and their own two threads.
+     *
+     * @throws InterruptedException if the test is interrupted
+     */
+    public void testConcurrentJobs() throws InterruptedException {
+        final Concurrency concurrency = new Concurrency();
+        final AtomicInteger done = new AtomicInteger();
+        final Thread[] jobs = new Thread[2];
+
+        for (int j = 0; j < jobs.length; j++) {
+            jobs[j] = new Thread() {
+                public void run() {
+                    ThreadUtil.parallelFor(32, 100, new ThreadUtil.IndexedTask() {
+                        public void run(final int index) {
+                            concurrency.enter();
+                            done.incrementAndGet();
+                            concurrency.exit();
+                        }
+                    });
+                }
+            };
+            jobs[j].start();
+        }
+
+        for (final Thread job : jobs) {
+            job.join();
+        }
+
+        Assert.assertEquals(64, done.get());
+        Assert.assertTrue("Tasks at once " + concurrency.max.get(),
+                concurrency.max.get() <= (ThreadUtil.computePool.getParallelism() + jobs.length));
+    }
+
+    /**
+     * Checks that the first exception of a task is thrown once all the other tasks, including nested ones, have run.
+     */
+    public void testExceptionPropagation() {
+        final AtomicIntegerArray runs = new AtomicIntegerArray(20);
+
+        try {
+            ThreadUtil.parallelFor(runs.length(), 4, new ThreadUtil.IndexedTask() {
+                public void run(final int index) {
+
+                    if (index == 7) {
+                        throw new IllegalStateException("task 7");
+                    }
+
+                    ThreadUtil.parallelFor(2, 2, new ThreadUtil.IndexedTask() {
+                        public void run(final int nested) {
+                            runs.incrementAndGet(index);
+                        }
+                    });
+                }
+            });
+            Assert.fail("The exception of task 7 was not thrown");
+        } catch (final IllegalStateException e) {
+            Assert.assertEquals("task 7", e.getMessage());
+        }
+
+        for (int i = 0; i < runs.length(); i++) {
+            Assert.assertEquals("Nested runs of index " + i, (i == 7) ? 0 : 2, runs.get(i));
+        }
+    }
+
+    /**
+     * Stops an algorithm from one of its tasks and checks that the tasks not started are skipped.
+     */
+    public void testAlgorithmCancellation() {
+        final AtomicIntegerArray runs = new AtomicIntegerArray(10);
+        final boolean[] completed = new boolean[1];
+        final AlgorithmBase algorithm = new AlgorithmBase() {
+            public void runAlgorithm() {
+                completed[0] = runParallel(runs.length(), new ThreadUtil.IndexedTask() {
+                    public void run(final int index) {
+                        runs.incrementAndGet(index);
+
+                        if (index == 2) {
+                            setThreadStopped(true);
+                        }
+                    }
+                }, 0, 100);
+            }
+        };
+
+        algorithm.setMultiThreadingEnabled(false);
+        algorithm.run();
+
+        Assert.assertFalse("The stopped algorithm reported all tasks done", completed[0]);
+
+        for (int i = 0; i < runs.length(); i++) {
+            Assert.assertEquals("Runs of index " + i, (i <= 2) ? 1 : 0, runs.get(i));
+        }
+    }
+
+    /**
+     * Checks that a job executor runs no more tasks at once than its parallelism, and that shutdownNow() returns the
+     * tasks not started and never runs them.
+     *
+     * @throws InterruptedException if the test is interrupted
+     */
+    public void testJobExecutor() throws InterruptedException {
+        final ExecutorService executor = ThreadUtil.newJobExecutor(2);
+        final Concurrency concurrency = new Concurrency();
+        final AtomicInteger done = new AtomicInteger();
+
+        for (int i = 0; i < 16; i++) {
+            executor.execute(new Runnable() {
+                public void run() {
+                    concurrency.enter();
+                    done.incrementAndGet();
+                    concurrency.exit();
+                }
+            });
+        }
+
+        executor.shutdown();
+        Assert.assertTrue(executor.awaitTermination(30, TimeUnit.SECONDS));
+        Assert.assertEquals(16, done.get());
+        Assert.assertTrue("Tasks at once " + concurrency.max.get(), concurrency.max.get() <= 2);
+
+        final ExecutorService cancelled = ThreadUtil.newJobExecutor(1);
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final AtomicInteger late = new AtomicInteger();
+
+        cancelled.execute(new Runnable() {
+            public void run() {
+                started.countDown();
+
+                try {
+                    release.await();
+                } catch (final InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+
+        for (int i = 0; i < 5; i++) {
+            cancelled.execute(new Runnable() {
+                public void run() {
+                    late.incrementAndGet();
+                }
+            });
+        }
+
+        Assert.assertTrue(started.await(30, TimeUnit.SECONDS));
+
+        final List<Runnable> dropped = cancelled.shutdownNow();
+
+        Assert.assertEquals(5, dropped.size());
+        Assert.assertFalse(cancelled.isTerminated());
+        release.countDown();
+        Assert.assertTrue(cancelled.awaitTermination(30, TimeUnit.SECONDS));
+        Assert.assertEquals(0, late.get());
+    }
+
+    /**
+     * Tracks the number of tasks running at once. Each task stays a little while so that tasks overlap.
+     */
+    private static class Concurrency {
+
+        /** Tasks running. */
+        final AtomicInteger current = new AtomicInteger();
+
+        /** Most tasks seen running at once. */
+        final AtomicInteger max = new AtomicInteger();
+
+        /**
+         * Marks a task started.
+         */
+        void enter() {
+            final int now = current.incrementAndGet();
+            int seen;
+
+            while ( (seen = max.get()) < now) {
+                max.compareAndSet(seen, now);
+            }
+
+            try {
+                Thread.sleep(2);
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        /**
+         * Marks a task ended.
+         */
+        void exit() {
+            current.decrementAndGet();
+        }
+    }
+}